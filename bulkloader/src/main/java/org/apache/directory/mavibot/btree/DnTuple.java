@@ -46,7 +46,8 @@ public class DnTuple implements Comparable<DnTuple>
     /** The DN ID */
     private String id;
 
-    private DnTuple parent;
+    /** The parent ID, null for the root entry */
+    private String parentId;
 
     private int nbChildren = 0;
 
@@ -65,6 +66,21 @@ public class DnTuple implements Comparable<DnTuple>
     }
 
 
+    /**
+     * Creates a DnTuple read back from a sort run.
+     */
+    public DnTuple( Dn dn, long offset, int len, String id, String parentId, int nbChildren, int nbDecendents )
+    {
+        this.dn = dn;
+        this.offset = offset;
+        this.len = len;
+        this.id = id;
+        this.parentId = parentId;
+        this.nbChildren = nbChildren;
+        this.nbDecendents = nbDecendents;
+    }
+
+
     public Dn getDn()
     {
         return dn;
@@ -85,24 +101,18 @@ public class DnTuple implements Comparable<DnTuple>
 
     public String getParentId()
     {
-        if ( parent == null )
+        if ( parentId == null )
         {
             return Partition.ROOT_ID;
         }
 
-        return parent.getId();
-    }
-
-
-    public DnTuple getParent()
-    {
-        return parent;
+        return parentId;
     }
 
 
     public void setParent( DnTuple parent )
     {
-        this.parent = parent;
+        this.parentId = parent.getId();
     }
 
 
@@ -180,14 +190,12 @@ public class DnTuple implements Comparable<DnTuple>
     }
 
 
-    public void addDecendent()
+    /**
+     * Adds the descendants of a child, and the child itself
+     */
+    public void addDecendents( DnTuple child )
     {
-        nbDecendents++;
-
-        if ( parent != null )
-        {
-            parent.addDecendent();
-        }
+        nbDecendents += child.nbDecendents + 1;
     }
 
 
@@ -0,0 +1,328 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.mavibot.btree;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+
+/**
+ * Sorts an unbounded number of elements using a bounded amount of memory. The elements
+ * are collected in runs : when a run is full, it is sorted and spilled to a temporary
+ * file. The runs are then merged, reading one element per run at a time.
+ *
+ * @param <T> The type of the sorted elements
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ExternalSorter<T> implements Closeable
+{
+    /** The default number of elements kept in memory */
+    public static final int DEFAULT_RUN_SIZE = 200000;
+
+    /** The size of the buffers used to read and write the runs */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Writes and reads the sorted elements in the run files
+     */
+    public interface Codec<T>
+    {
+        void write( DataOutputStream out, T element ) throws IOException;
+
+
+        T read( DataInputStream in ) throws IOException;
+    }
+
+    /** The element comparator */
+    private final Comparator<T> comparator;
+
+    /** The element codec */
+    private final Codec<T> codec;
+
+    /** The maximum number of elements kept in memory */
+    private final int runSize;
+
+    /** The directory where the runs are stored */
+    private final File workDir;
+
+    /** The elements of the current run */
+    private List<T> run;
+
+    /** The spilled runs */
+    private final List<File> runFiles = new ArrayList<File>();
+
+    /** The streams opened to merge the runs */
+    private final List<DataInputStream> inputs = new ArrayList<DataInputStream>();
+
+    /** The number of elements added */
+    private long size;
+
+
+    /**
+     * A run being merged, and its current element
+     */
+    private final class RunReader
+    {
+        private final DataInputStream in;
+
+        private int remaining;
+
+        private T current;
+
+
+        private RunReader( DataInputStream in ) throws IOException
+        {
+            this.in = in;
+            this.remaining = in.readInt();
+        }
+
+
+        private boolean advance() throws IOException
+        {
+            if ( remaining == 0 )
+            {
+                current = null;
+
+                return false;
+            }
+
+            remaining--;
+            current = codec.read( in );
+
+            return true;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of ExternalSorter.
+     *
+     * @param comparator The element comparator
+     * @param codec The codec used to store the elements in the run files
+     * @param runSize The maximum number of elements kept in memory
+     * @param workDir The directory where the runs are stored, null to use the temporary directory
+     */
+    public ExternalSorter( Comparator<T> comparator, Codec<T> codec, int runSize, File workDir )
+    {
+        this.comparator = comparator;
+        this.codec = codec;
+        this.runSize = runSize > 0 ? runSize : DEFAULT_RUN_SIZE;
+        this.workDir = workDir;
+        this.run = new ArrayList<T>( Math.min( this.runSize, 1024 ) );
+    }
+
+
+    /**
+     * Adds an element, spilling the current run if it's full.
+     *
+     * @param element The element to sort
+     * @throws IOException If the run can't be written
+     */
+    public void add( T element ) throws IOException
+    {
+        run.add( element );
+        size++;
+
+        if ( run.size() >= runSize )
+        {
+            spill();
+        }
+    }
+
+
+    /**
+     * @return The number of elements added
+     */
+    public long size()
+    {
+        return size;
+    }
+
+
+    /**
+     * @return The number of runs written on disk
+     */
+    public int getRunCount()
+    {
+        return runFiles.size();
+    }
+
+
+    /**
+     * Sorts the current run and writes it in a temporary file
+     */
+    private void spill() throws IOException
+    {
+        Collections.sort( run, comparator );
+
+        File runFile = File.createTempFile( "sort", ".run", workDir );
+        runFile.deleteOnExit();
+        runFiles.add( runFile );
+
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( runFile ),
+            BUFFER_SIZE ) );
+
+        try
+        {
+            out.writeInt( run.size() );
+
+            for ( T element : run )
+            {
+                codec.write( out, element );
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+
+        run = new ArrayList<T>( Math.min( runSize, 1024 ) );
+    }
+
+
+    /**
+     * Gives the sorted elements. No element can be added afterwards, but the elements can
+     * be read again by calling this method another time.
+     *
+     * @return An iterator on all the added elements, in order
+     * @throws IOException If the runs can't be read
+     */
+    public Iterator<T> sort() throws IOException
+    {
+        if ( runFiles.isEmpty() )
+        {
+            // Everything fits in memory
+            Collections.sort( run, comparator );
+
+            return run.iterator();
+        }
+
+        if ( !run.isEmpty() )
+        {
+            spill();
+        }
+
+        final PriorityQueue<RunReader> heads = new PriorityQueue<RunReader>( runFiles.size(),
+            new Comparator<RunReader>()
+            {
+                @Override
+                public int compare( RunReader r1, RunReader r2 )
+                {
+                    return comparator.compare( r1.current, r2.current );
+                }
+            } );
+
+        for ( File runFile : runFiles )
+        {
+            DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( runFile ),
+                BUFFER_SIZE ) );
+            inputs.add( in );
+            RunReader reader = new RunReader( in );
+
+            if ( reader.advance() )
+            {
+                heads.add( reader );
+            }
+        }
+
+        return new Iterator<T>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return !heads.isEmpty();
+            }
+
+
+            @Override
+            public T next()
+            {
+                RunReader reader = heads.poll();
+
+                if ( reader == null )
+                {
+                    throw new NoSuchElementException();
+                }
+
+                T element = reader.current;
+
+                try
+                {
+                    if ( reader.advance() )
+                    {
+                        heads.add( reader );
+                    }
+                }
+                catch ( IOException ioe )
+                {
+                    throw new RuntimeException( ioe );
+                }
+
+                return element;
+            }
+
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException( "Not supported" );
+            }
+        };
+    }
+
+
+    /**
+     * Closes the runs, and deletes their files.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        for ( DataInputStream in : inputs )
+        {
+            in.close();
+        }
+
+        inputs.clear();
+
+        for ( File runFile : runFiles )
+        {
+            runFile.delete();
+        }
+
+        runFiles.clear();
+        run.clear();
+    }
+}
@@ -20,7 +20,6 @@
 package org.apache.directory.mavibot.btree;
 
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
@@ -70,7 +69,7 @@ import org.slf4j.LoggerFactory;
      * @throws LdapException 
      * @throws FileNotFoundException 
      */
-    public FastLdifReader( File file, DnFactory dnFactory ) throws LdapException, FileNotFoundException
+    FastLdifReader( File file, DnFactory dnFactory ) throws LdapException, FileNotFoundException
     {
         super();
         reader = new PositionBufferedReader( new FileReader( file ) );
@@ -207,7 +206,7 @@ import org.slf4j.LoggerFactory;
 
         Dn dn = dnFactory.create( name );
 
-        DnTuple tuple = new DnTuple( dn, entryOffset, (int)(offset - entryOffset) );
+        DnTuple tuple = new DnTuple( dn, entryOffset, ( int ) ( offset - entryOffset ) );
 
         return tuple;
     }
@@ -253,7 +252,7 @@ import org.slf4j.LoggerFactory;
                     {
                         // The line is empty, we have read an entry
                         insideComment = false;
-                        offset = ((PositionBufferedReader)reader).getFilePos();
+                        offset = ( ( PositionBufferedReader ) reader ).getFilePos();
 
                         break;
                     }
@@ -301,7 +300,7 @@ import org.slf4j.LoggerFactory;
                         break;
                 }
 
-                offset = ((PositionBufferedReader)reader).getFilePos();
+                offset = ( ( PositionBufferedReader ) reader ).getFilePos();
             }
         }
         catch ( IOException ioe )
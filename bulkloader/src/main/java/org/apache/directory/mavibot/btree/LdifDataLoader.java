@@ -62,7 +62,7 @@ public class LdifDataLoader
     {
         initSchema( schemaPartitionDir );
         
-        if( schemaManager == null )
+        if ( schemaManager == null )
         {
             LOG.warn( "Failed to load the schema, aborting data load" );
             return false;
@@ -75,7 +75,7 @@ public class LdifDataLoader
     public boolean load( String ldifFile, String targetPartitionDir )
     {
 
-        if( schemaManager == null )
+        if ( schemaManager == null )
         {
             LOG.warn( "No SchemaManager instance was found, aborting data load" );
             return false;
@@ -83,14 +83,14 @@ public class LdifDataLoader
 
         File dataFile = new File( ldifFile );
         
-        if( !dataFile.exists() )
+        if ( !dataFile.exists() )
         {
             LOG.warn( "File {} does not exist", ldifFile );
             return false;
         }
         else
         {
-            if( !dataFile.canRead() )
+            if ( !dataFile.canRead() )
             {
                 LOG.warn( "File {} cannot be read by the current user", ldifFile );
                 return false;
@@ -99,7 +99,7 @@ public class LdifDataLoader
         
         RecordManager rm = new RecordManager( targetPartitionDir );
         Set<String> existing = rm.getManagedTrees();
-        if( existing.size() > 2 )
+        if ( existing.size() > 2 )
         {
             LOG.warn( "Looks like the given partition directory {} already contains data of a mavibot partiton, please delete this data file and rerun this tool", ldifFile );
             return false;
@@ -118,7 +118,7 @@ public class LdifDataLoader
             //builder.build( sorter.getMergeSortedTuples() );
             return true;
         }
-        catch( Exception e )
+        catch ( Exception e )
         {
             LOG.warn( "Errors occurred while loading data from the data file {}", ldifFile, e );
         }
@@ -128,7 +128,7 @@ public class LdifDataLoader
             {
                 rm.close();
             }
-            catch( IOException e )
+            catch ( IOException e )
             {
                 LOG.warn( "Failed to close the recordmanager", e );
             }
@@ -140,7 +140,7 @@ public class LdifDataLoader
     
     private void initSchema( String dir )
     {
-        if( schemaManager != null )
+        if ( schemaManager != null )
         {
             return;
         }
@@ -149,7 +149,7 @@ public class LdifDataLoader
         {
             File schemaRepository = new File( dir );
             
-            if( !schemaRepository.exists() )
+            if ( !schemaRepository.exists() )
             {
                 LOG.warn( "The given schema location {} does not exist", dir );
             }
@@ -162,14 +162,14 @@ public class LdifDataLoader
             
             LOG.debug( "Loading all disabled schemas" );
             List<Schema> lstDisabled = schemaManager.getDisabled();
-            for( Schema s : lstDisabled )
+            for ( Schema s : lstDisabled )
             {
                 schemaManager.loadDisabled( s );
             }
             
             LOG.debug( "Successfully loaded schemas" );
         }
-        catch( Exception e )
+        catch ( Exception e )
         {
             schemaManager = null;
             LOG.warn( e.getMessage(), e );
@@ -25,41 +25,34 @@ import static org.apache.directory.mavibot.btree.BTreeFactory.createNode;
 import static org.apache.directory.mavibot.btree.BTreeFactory.setKey;
 import static org.apache.directory.mavibot.btree.BTreeFactory.setValue;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.csn.CsnFactory;
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
-import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
-import org.apache.directory.api.ldap.model.filter.ExprNode;
-import org.apache.directory.api.ldap.model.filter.PresenceNode;
-import org.apache.directory.api.ldap.model.ldif.LdifEntry;
-import org.apache.directory.api.ldap.model.ldif.LdifReader;
-import org.apache.directory.api.ldap.model.message.SearchRequest;
-import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
-import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.name.Rdn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
@@ -67,8 +60,7 @@ import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.schema.loader.JarLdifSchemaLoader;
 import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
 import org.apache.directory.api.util.DateUtils;
-import org.apache.directory.mavibot.btree.serializer.LongSerializer;
-import org.apache.directory.mavibot.btree.serializer.StringSerializer;
+import org.apache.directory.api.util.FileUtils;
 import org.apache.directory.mavibot.btree.util.Strings;
 import org.apache.directory.server.config.ConfigPartitionReader;
 import org.apache.directory.server.config.LdifConfigExtractor;
@@ -78,8 +70,6 @@ import org.apache.directory.server.constants.ServerDNConstants;
 import org.apache.directory.server.core.api.CacheService;
 import org.apache.directory.server.core.api.DnFactory;
 import org.apache.directory.server.core.api.InstanceLayout;
-import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
-import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.partition.impl.btree.mavibot.MavibotIndex;
 import org.apache.directory.server.core.partition.impl.btree.mavibot.MavibotPartition;
 import org.apache.directory.server.core.partition.impl.btree.mavibot.MavibotRdnIndex;
@@ -87,7 +77,6 @@ import org.apache.directory.server.core.partition.ldif.SingleFileLdifPartition;
 import org.apache.directory.server.core.shared.DefaultDnFactory;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
-import org.apache.directory.server.xdbm.Store;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -134,6 +123,158 @@ public class MavibotPartitionBuilder
     /** The DN factory, used to check DN */ 
     private DnFactory dnFactory;
 
+    /** The number of threads parsing the entries */
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+
+    /** The number of DN or index tuples sorted in memory before being spilled to disk */
+    private int sortRunSize = ExternalSorter.DEFAULT_RUN_SIZE;
+
+    /** The number of entries parsed by a thread at a time */
+    private static final int PARSE_BATCH_SIZE = 512;
+
+    /** Writes the index tuples in the sort runs. The keys and values are either Strings or byte[] */
+    private static final ExternalSorter.Codec<Tuple> TUPLE_CODEC = new ExternalSorter.Codec<Tuple>()
+    {
+        @Override
+        public void write( DataOutputStream out, Tuple tuple ) throws IOException
+        {
+            writeObject( out, tuple.getKey() );
+            writeObject( out, tuple.getValue() );
+        }
+
+
+        @Override
+        public Tuple read( DataInputStream in ) throws IOException
+        {
+            Object key = readObject( in );
+            Object value = readObject( in );
+
+            return new Tuple( key, value );
+        }
+    };
+
+    /** Sorts the DnTuples in the DIT order : an entry comes first, followed by its descendants */
+    private static final Comparator<DnTuple> DIT_ORDER = new Comparator<DnTuple>()
+    {
+        @Override
+        public int compare( DnTuple dt0, DnTuple dt1 )
+        {
+            List<Rdn> dt0Rdns = dt0.getDn().getRdns();
+            List<Rdn> dt1Rdns = dt1.getDn().getRdns();
+            int pos0 = dt0Rdns.size() - 1;
+            int pos1 = dt1Rdns.size() - 1;
+
+            // The RDNs are compared starting from the top of the DIT
+            while ( ( pos0 >= 0 ) && ( pos1 >= 0 ) )
+            {
+                int val = dt0Rdns.get( pos0 ).getNormName().compareTo( dt1Rdns.get( pos1 ).getNormName() );
+
+                if ( val != 0 )
+                {
+                    return val;
+                }
+
+                pos0--;
+                pos1--;
+            }
+
+            return dt0Rdns.size() - dt1Rdns.size();
+        }
+    };
+
+    /** Sorts the DnTuples on their ID */
+    private static final Comparator<DnTuple> ID_ORDER = new Comparator<DnTuple>()
+    {
+        @Override
+        public int compare( DnTuple dt0, DnTuple dt1 )
+        {
+            return dt0.getId().compareTo( dt1.getId() );
+        }
+    };
+
+    /** Sorts the DnTuples on their parent ID and their RDNs */
+    private static final Comparator<DnTuple> PARENT_ID_AND_RDN_ORDER = new Comparator<DnTuple>()
+    {
+        @Override
+        public int compare( DnTuple dt0, DnTuple dt1 )
+        {
+            int val = dt0.getParentId().compareTo( dt1.getParentId() );
+
+            if ( val != 0 )
+            {
+                return val;
+            }
+
+            Rdn[] dt0Rdns = dt0.getDn().getRdns().toArray( new Rdn[0] );
+
+            Rdn[] dt1Rdns = dt1.getDn().getRdns().toArray( new Rdn[0] );
+
+            if ( dt0Rdns.length == 1 )
+            {
+                // Special case : we only have one rdn.
+                val = dt0Rdns[0].getNormName().compareTo( dt1Rdns[0].getNormName() );
+
+                return val;
+            }
+            else
+            {
+                for ( int i = 0; i < dt0Rdns.length; i++ )
+                {
+                    val = dt0Rdns[i].getNormName().compareTo( dt1Rdns[i].getNormName() );
+
+                    if ( val != 0 )
+                    {
+                        return val;
+                    }
+                }
+
+                return 0;
+            }
+        }
+    };
+
+    /** Writes the DnTuples in the sort runs. The DNs are parsed again when they are read */
+    private final ExternalSorter.Codec<DnTuple> dnTupleCodec = new ExternalSorter.Codec<DnTuple>()
+    {
+        @Override
+        public void write( DataOutputStream out, DnTuple dt ) throws IOException
+        {
+            writeObject( out, dt.getDn().getName() );
+            out.writeLong( dt.getOffset() );
+            out.writeInt( dt.getLen() );
+            writeObject( out, dt.getId() );
+            writeObject( out, dt.getParentId() );
+            out.writeInt( dt.getNbChildren() );
+            out.writeInt( dt.getNbDecendents() );
+        }
+
+
+        @Override
+        public DnTuple read( DataInputStream in ) throws IOException
+        {
+            String name = ( String ) readObject( in );
+            Dn dn;
+
+            try
+            {
+                dn = new Dn( schemaManager, name );
+            }
+            catch ( LdapInvalidDnException lide )
+            {
+                throw new IOException( lide.getMessage(), lide );
+            }
+
+            long offset = in.readLong();
+            int len = in.readInt();
+            String id = ( String ) readObject( in );
+            String parentId = ( String ) readObject( in );
+            int nbChildren = in.readInt();
+            int nbDecendents = in.readInt();
+
+            return new DnTuple( dn, offset, len, id, parentId, nbChildren, nbDecendents );
+        }
+    };
+
     private static final Logger LOG = LoggerFactory.getLogger( MavibotPartitionBuilder.class );
 
 
@@ -169,6 +310,71 @@ public class MavibotPartitionBuilder
         this.csnFactory = new CsnFactory( rid );
     }
 
+
+    /**
+     * @param numThreads The number of threads parsing the entries
+     */
+    public void setNumThreads( int numThreads )
+    {
+        this.numThreads = Math.max( 1, numThreads );
+    }
+
+
+    /**
+     * @param sortRunSize The number of DN or index tuples sorted in memory before being spilled to disk
+     */
+    public void setSortRunSize( int sortRunSize )
+    {
+        this.sortRunSize = sortRunSize;
+    }
+
+
+    private static void writeObject( DataOutputStream out, Object object ) throws IOException
+    {
+        byte[] bytes;
+
+        if ( object instanceof byte[] )
+        {
+            out.writeByte( 1 );
+            bytes = ( byte[] ) object;
+        }
+        else
+        {
+            out.writeByte( 0 );
+            bytes = ( ( String ) object ).getBytes( "UTF-8" );
+        }
+
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+
+    private static Object readObject( DataInputStream in ) throws IOException
+    {
+        boolean binary = in.readByte() == 1;
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully( bytes );
+
+        if ( binary )
+        {
+            return bytes;
+        }
+
+        return new String( bytes, "UTF-8" );
+    }
+
+
+    /**
+     * Prints the time taken by a stage, and its throughput
+     */
+    private static void printStageTime( long t0, long count )
+    {
+        long time = Math.max( 1L, System.currentTimeMillis() - t0 );
+
+        System.out.println( ", time taken : " + time + "ms, " + count + " tuples (" + ( count * 1000L / time )
+            + " tuples/s)" );
+    }
+
     
     /**
      * Load the configuration. This is a needed step, as we have to know which indexes
@@ -227,7 +433,7 @@ public class MavibotPartitionBuilder
             Object val = tuple.getValue();
             ValueHolder eh = null;
             
-            if( btree.allowDuplicates )
+            if ( btree.allowDuplicates )
             {
                 Set s = ( Set ) val;
                 val = s.toArray();
@@ -250,11 +456,11 @@ public class MavibotPartitionBuilder
                 
                 PageHolder pageHolder = ( PageHolder ) rm.writePage( btree, leaf1, newRevision );
 
-                if( ( totalLeaves % ( numKeysInNode + 1 ) ) == 0 )
+                if ( ( totalLeaves % ( numKeysInNode + 1 ) ) == 0 )
                 {
                     //System.out.println( "Processed tuples " + totalTuples );
                     cleanLastLeaf( lstLeaves, btree, newRevision );
-                    if( !lstLeaves.isEmpty() )
+                    if ( !lstLeaves.isEmpty() )
                     {
                         Page node = attachNodes( lstLeaves, btree );
                         lstNodes.add( node );
@@ -270,10 +476,10 @@ public class MavibotPartitionBuilder
             }
         }
 
-        if( !lstLeaves.isEmpty() )
+        if ( !lstLeaves.isEmpty() )
         {
             cleanLastLeaf( lstLeaves, btree, newRevision );
-            if( !lstLeaves.isEmpty() )
+            if ( !lstLeaves.isEmpty() )
             {
                 Page node = attachNodes( lstLeaves, btree );
                 lstNodes.add( node );
@@ -321,7 +527,7 @@ public class MavibotPartitionBuilder
     
     private void cleanLastLeaf( List<Page> lstLeaves, BTree btree, long newRevision ) throws IOException
     {
-        if( lstLeaves.isEmpty() )
+        if ( lstLeaves.isEmpty() )
         {
             return;
         }
@@ -391,7 +597,7 @@ public class MavibotPartitionBuilder
             {
                 PageHolder pageHolder = ( PageHolder ) rm.writePage( btree, node, 1 );
 
-                if( children.size() == attachedChildren )
+                if ( children.size() == attachedChildren )
                 {
                     break;
                 }
@@ -471,7 +677,18 @@ public class MavibotPartitionBuilder
     }
 
 
-    private Set<DnTuple> getDnTuples() throws Exception
+    /**
+     * Reads the DNs of the LDIF file, and sorts them in the DIT order to link each entry to
+     * its parent and count its children and descendants. The DnTuples are then given to the
+     * sorters of the next stages. The DnTuples are sorted on disk, only the ancestors of the
+     * current entry are kept in memory.
+     *
+     * @param idSorter The sorter for the master table
+     * @param rdnSorter The sorter for the RDN index
+     * @return The number of entries
+     */
+    private long sortDnTuples( ExternalSorter<DnTuple> idSorter, ExternalSorter<DnTuple> rdnSorter )
+        throws Exception
     {
         File file = new File( ldifFile );
 
@@ -479,246 +696,303 @@ public class MavibotPartitionBuilder
 
         FastLdifReader reader = new FastLdifReader( file, dnFactory );
 
-        Set<DnTuple> sortedDnSet = new TreeSet<DnTuple>();
+        new File( outputDir ).mkdirs();
+        ExternalSorter<DnTuple> ditSorter = newDnSorter( DIT_ORDER );
 
-        while ( reader.hasNext() )
+        try
         {
-            // FastLdifReader will always return NULL LdifEntry
-            // call getDnTuple() after next() to get a DnTuple
-            reader.next();
-            
-            DnTuple dt = reader.getDnTuple();
-            
-            dt.getDn().apply( schemaManager );
-            sortedDnSet.add( dt );
-
-            if ( dt.getDn().toString().equals( "uid=user.29998,ou=People,dc=example,dc=com" ) )
+            while ( reader.hasNext() )
             {
-                System.out.println( dt );
+                // FastLdifReader will always return NULL LdifEntry
+                // call getDnTuple() after next() to get a DnTuple
+                reader.next();
+
+                DnTuple dt = reader.getDnTuple();
+
+                dt.getDn().apply( schemaManager );
+                ditSorter.add( dt );
             }
-        }
 
-        reader.close();
+            Iterator<DnTuple> itr = ditSorter.sort();
 
-        if ( sortedDnSet.isEmpty() )
-        {
-            return Collections.EMPTY_SET;
-        }
+            if ( !itr.hasNext() )
+            {
+                return 0L;
+            }
 
-        Iterator<DnTuple> itr = sortedDnSet.iterator();
-        /*
-        FileWriter fw = new FileWriter( "/tmp/dntuples.txt" );
-        while( itr.hasNext() )
-        {
-            fw.write( itr.next().getDn().getName() + "\n" );
-        }
-        
-        fw.close();
-        itr = sortedDnSet.iterator();
-        */
-        DnTuple root = itr.next();
-        root.setParent( null );
+            DnTuple root = itr.next();
+            suffixDn = root.getDn();
 
-        suffixDn = root.getDn();
-        
-        System.out.println( "Using " + suffixDn.getName() + " as the partition's root DN" );
-        
-        Map<String, DnTuple> parentDnIdMap = new HashMap<String, DnTuple>();
-        parentDnIdMap.put( root.getDn().getNormName(), root );
+            System.out.println( "Using " + suffixDn.getName() + " as the partition's root DN" );
 
-        DnTuple prevTuple = root;
-        
-        while ( itr.hasNext() )
-        {
-            DnTuple dt = itr.next();
+            // The ancestors of the current entry, the closest first
+            LinkedList<DnTuple> ancestors = new LinkedList<DnTuple>();
+            ancestors.push( root );
 
-            String parentDn = dt.getDn().getParent().getNormName();
-            DnTuple parent = parentDnIdMap.get( parentDn );
+            DnTuple prevTuple = root;
 
-            if ( parent == null )
+            while ( itr.hasNext() )
             {
-                if ( parentDn.equals( prevTuple.getDn().getNormName() ) )
+                DnTuple dt = itr.next();
+
+                if ( dt.getDn().equals( prevTuple.getDn() ) )
+                {
+                    LOG.warn( "Ignoring the duplicate entry {}", dt.getDn().getName() );
+                    continue;
+                }
+
+                Dn parentDn = dt.getDn().getParent();
+
+                // The entries which are not ancestors of this entry have no more descendants
+                while ( !ancestors.isEmpty() && !parentDn.equals( ancestors.peek().getDn() )
+                    && !parentDn.isDescendantOf( ancestors.peek().getDn() ) )
                 {
-                    parentDnIdMap.put( prevTuple.getDn().getNormName(), prevTuple );
-                    parent = prevTuple;
+                    release( ancestors, idSorter, rdnSorter );
                 }
-                else
+
+                if ( ancestors.isEmpty() || !parentDn.equals( ancestors.peek().getDn() ) )
                 {
                     throw new IllegalStateException( "Parent entry's ID of the entry " + dt.getDn().getName()
                         + " not found." );
                 }
+
+                DnTuple parent = ancestors.peek();
+                dt.setParent( parent );
+                parent.addChild();
+                ancestors.push( dt );
+
+                prevTuple = dt;
             }
-            else
+
+            while ( !ancestors.isEmpty() )
             {
-                // load certain siblings
-                if( !dt.getDn().isDescendantOf( prevTuple.getDn() ) )
-                {
-                    //System.out.println( "adding dn " + prevTuple.getDn().getName() + " to the map");
-                    parentDnIdMap.put( prevTuple.getDn().getNormName(), root );
-                }
+                release( ancestors, idSorter, rdnSorter );
             }
-            
-            dt.setParent( parent );
-            parent.addChild();
-            parent.addDecendent();
-            
-            prevTuple = dt;
+
+            return idSorter.size();
         }
+        finally
+        {
+            reader.close();
+            ditSorter.close();
+        }
+    }
+
 
-//        for ( DnTuple dt : sortedDnSet )
-//        {
-//            System.out.println( dt );
-//        }
+    /**
+     * Removes the closest ancestor, whose children and descendants have all been counted,
+     * and gives it to the sorters of the next stages
+     */
+    private static void release( LinkedList<DnTuple> ancestors, ExternalSorter<DnTuple> idSorter,
+        ExternalSorter<DnTuple> rdnSorter ) throws IOException
+    {
+        DnTuple dt = ancestors.pop();
 
-        return sortedDnSet;
+        if ( !ancestors.isEmpty() )
+        {
+            ancestors.peek().addDecendents( dt );
+        }
+
+        idSorter.add( dt );
+        rdnSorter.add( dt );
     }
 
 
-    private void buildMasterTable( Set<DnTuple> sortedDnSet ) throws Exception
+    /**
+     * Creates a sorter for the DnTuples, spilling in the output directory
+     */
+    private ExternalSorter<DnTuple> newDnSorter( Comparator<DnTuple> comparator )
     {
-        final Set<DnTuple> idSortedSet = new TreeSet<DnTuple>( new Comparator<DnTuple>()
+        return new ExternalSorter<DnTuple>( comparator, dnTupleCodec, sortRunSize, new File( outputDir ) );
+    }
+
+
+    private void buildMasterTable( Iterator<DnTuple> idSortedItr ) throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool( numThreads );
+
+        try
+        {
+            build( new ParsedEntryIterator( idSortedItr, executor ), masterTableName );
+        }
+        finally
         {
+            executor.shutdownNow();
+        }
+    }
 
-            @Override
-            public int compare( DnTuple dt0, DnTuple dt1 )
-            {
-                return dt0.getId().compareTo( dt1.getId() );
-            }
-        } );
 
-        idSortedSet.addAll( sortedDnSet );
+    /**
+     * Reads the entries in the LDIF file, and parses them using several threads. The entries
+     * are read by batches, and returned in the order of the given DnTuples.
+     */
+    private final class ParsedEntryIterator implements Iterator<Tuple>
+    {
+        private final Iterator<DnTuple> itr;
 
-//        System.out.println( "Sorted on ID" );
-//        for ( DnTuple dt : idSortedSet )
-//        {
-//            System.out.println( dt );
-//        }
+        private final ExecutorService executor;
 
-        Iterator<Tuple> entryItr = new Iterator<Tuple>()
-        {
+        /** The batches being parsed, in order */
+        private final LinkedList<Future<List<Tuple>>> pending = new LinkedList<Future<List<Tuple>>>();
 
-            private Iterator<DnTuple> itr = idSortedSet.iterator();
+        /** The current parsed batch */
+        private Iterator<Tuple> current;
 
-            final SchemaAwareLdifReader lar = new SchemaAwareLdifReader( schemaManager );
+        private final AttributeType atEntryUUID = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.ENTRY_UUID_AT );
+        private final AttributeType atEntryParentID = schemaManager.lookupAttributeTypeRegistry( ApacheSchemaConstants.ENTRY_PARENT_ID_AT );
+        private final AttributeType atCsn = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.ENTRY_CSN_AT );
+        private final AttributeType atCreator = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.CREATORS_NAME_AT );
+        private final AttributeType atCreatedTime = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.CREATE_TIMESTAMP_AT );
 
-            final AttributeType atEntryUUID = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.ENTRY_UUID_AT );
-            final AttributeType atEntryParentID = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.ENTRY_PARENT_ID_AT );
-            final AttributeType atCsn = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.ENTRY_CSN_AT );
-            final AttributeType atCreator = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.CREATORS_NAME_AT );
-            final AttributeType atCreatedTime = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.CREATE_TIMESTAMP_AT );
-            
-            final Attribute creatorsName = new DefaultAttribute( atCreator, ServerDNConstants.ADMIN_SYSTEM_DN );
-            final Attribute createdTime = new DefaultAttribute( atCreatedTime, DateUtils.getGeneralizedTime() );
-            final Attribute entryCsn = new DefaultAttribute( atCsn, csnFactory.newInstance().toString() );
-            
-            final Tuple t = new Tuple();
-            
-            @Override
-            public boolean hasNext()
-            {
-                return itr.hasNext();
-            }
+        private final Attribute creatorsName;
+        private final Attribute createdTime;
+        private final Attribute entryCsn;
 
 
-            @Override
-            public Tuple<String, Entry> next()
-            {
+        private ParsedEntryIterator( Iterator<DnTuple> itr, ExecutorService executor ) throws LdapException
+        {
+            this.itr = itr;
+            this.executor = executor;
 
-                DnTuple dt = itr.next();
-                t.setKey( dt.getId() );
+            creatorsName = new DefaultAttribute( atCreator, ServerDNConstants.ADMIN_SYSTEM_DN );
+            createdTime = new DefaultAttribute( atCreatedTime, DateUtils.getGeneralizedTime() );
+            entryCsn = new DefaultAttribute( atCsn, csnFactory.newInstance().toString() );
+        }
 
-                try
+
+        /**
+         * Reads the next batches of entries, and submits them to the parsing threads
+         */
+        private void fill() throws IOException
+        {
+            while ( ( pending.size() < 2 * numThreads ) && itr.hasNext() )
+            {
+                final List<DnTuple> tuples = new ArrayList<DnTuple>( PARSE_BATCH_SIZE );
+                final List<String> ldifs = new ArrayList<String>( PARSE_BATCH_SIZE );
+
+                while ( ( tuples.size() < PARSE_BATCH_SIZE ) && itr.hasNext() )
                 {
-                    
+                    DnTuple dt = itr.next();
+
                     byte[] data = new byte[dt.getLen()];
                     raf.seek( dt.getOffset() );
                     raf.readFully( data, 0, data.length );
 
-                    Entry entry = lar.parseLdifEntry( Strings.utf8ToString( data ) ).getEntry();
+                    tuples.add( dt );
+                    ldifs.add( Strings.utf8ToString( data ) );
+                }
+
+                pending.add( executor.submit( new Callable<List<Tuple>>()
+                {
+                    @Override
+                    public List<Tuple> call() throws Exception
+                    {
+                        return parse( tuples, ldifs );
+                    }
+                } ) );
+            }
+        }
+
 
-                    entry.add( atEntryUUID, dt.getId() );
-                    entry.add( atEntryParentID, dt.getParentId() );
-                    entry.add( entryCsn );
-                    entry.add( creatorsName );
-                    entry.add( createdTime );
+        private List<Tuple> parse( List<DnTuple> tuples, List<String> ldifs ) throws Exception
+        {
+            // The reader is not thread safe
+            SchemaAwareLdifReader lar = new SchemaAwareLdifReader( schemaManager );
+            List<Tuple> entries = new ArrayList<Tuple>( tuples.size() );
 
-                    t.setValue( entry );
-                }
-                catch ( Exception e )
+            try
+            {
+                for ( int i = 0; i < tuples.size(); i++ )
                 {
-                    LOG.warn( "Failed to parse the entry for the DnTuple " + dt );
-                    throw new RuntimeException( e );
-                }
+                    DnTuple dt = tuples.get( i );
 
-                return t;
-            }
+                    try
+                    {
+                        Entry entry = lar.parseLdifEntry( ldifs.get( i ) ).getEntry();
 
+                        entry.add( atEntryUUID, dt.getId() );
+                        entry.add( atEntryParentID, dt.getParentId() );
+                        entry.add( entryCsn );
+                        entry.add( creatorsName );
+                        entry.add( createdTime );
 
-            @Override
-            public void remove()
+                        entries.add( new Tuple( dt.getId(), entry ) );
+                    }
+                    catch ( Exception e )
+                    {
+                        LOG.warn( "Failed to parse the entry for the DnTuple " + dt );
+                        throw e;
+                    }
+                }
+            }
+            finally
             {
-                throw new UnsupportedOperationException( "Not supported" );
+                lar.close();
             }
 
-        };
-
-        build( entryItr, masterTableName );
-    }
+            return entries;
+        }
 
 
-    private void buildRdnIndex( Set<DnTuple> sortedDnSet ) throws Exception
-    {
-        final Set<DnTuple> parentIdRdnSortedSet = new TreeSet<DnTuple>( new Comparator<DnTuple>()
+        @Override
+        public boolean hasNext()
         {
-
-            @Override
-            public int compare( DnTuple dt0, DnTuple dt1 )
+            try
             {
-                int val = dt0.getParentId().compareTo( dt1.getParentId() );
-                if ( val != 0 )
+                while ( ( current == null ) || !current.hasNext() )
                 {
-                    return val;
+                    fill();
+
+                    if ( pending.isEmpty() )
+                    {
+                        return false;
+                    }
+
+                    current = pending.removeFirst().get().iterator();
                 }
 
-                Rdn[] dt0Rdns = dt0.getDn().getRdns().toArray( new Rdn[0] );
+                return true;
+            }
+            catch ( Exception e )
+            {
+                throw new RuntimeException( e );
+            }
+        }
 
-                Rdn[] dt1Rdns = dt1.getDn().getRdns().toArray( new Rdn[0] );
 
-                if ( dt0Rdns.length == 1 )
-                {
-                    // Special case : we only have one rdn.
-                    val = dt0Rdns[0].getNormName().compareTo( dt1Rdns[0].getNormName() );
+        @Override
+        public Tuple<String, Entry> next()
+        {
+            if ( !hasNext() )
+            {
+                throw new java.util.NoSuchElementException();
+            }
 
-                    return val;
-                }
-                else
-                {
-                    for ( int i = 0; i < dt0Rdns.length; i++ )
-                    {
-                        val = dt0Rdns[i].getNormName().compareTo( dt1Rdns[i].getNormName() );
+            return current.next();
+        }
 
-                        if ( val != 0 )
-                        {
-                            return val;
-                        }
-                    }
 
-                    return 0;
-                }
-            }
-        } );
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException( "Not supported" );
+        }
+    }
 
-        parentIdRdnSortedSet.addAll( sortedDnSet );
 
-//        System.out.println( "Sorted on ParentID and RDNs" );
-//        for ( DnTuple dt : parentIdRdnSortedSet )
-//        {
-//            System.out.println( dt );
-//        }
+
+    /**
+     * Builds the RDN index. The forward B-tree is read in the (parent ID, RDN) order, the
+     * reverse B-tree in the ID order.
+     */
+    private void buildRdnIndex( ExternalSorter<DnTuple> idSorter, ExternalSorter<DnTuple> rdnSorter )
+        throws Exception
+    {
+        final Iterator<DnTuple> rdnSortedItr = rdnSorter.sort();
 
         Iterator<Tuple> parentIdAndRdnFwdItr = new Iterator<Tuple>()
         {
-            Iterator<DnTuple> itr = parentIdRdnSortedSet.iterator();
+            Iterator<DnTuple> itr = rdnSortedItr;
 
 
             @Override
@@ -755,9 +1029,11 @@ public class MavibotPartitionBuilder
 
         build( parentIdAndRdnFwdItr, forwardRdnTree );
 
+        final Iterator<DnTuple> idSortedItr = idSorter.sort();
+
         Iterator<Tuple> parentIdAndRdnRevItr = new Iterator<Tuple>()
         {
-            Iterator<DnTuple> itr = parentIdRdnSortedSet.iterator();
+            Iterator<DnTuple> itr = idSortedItr;
 
 
             @Override
@@ -824,21 +1100,47 @@ public class MavibotPartitionBuilder
             return;
         }
 
+        // The DnTuples sorted for the master table and the RDN index
+        ExternalSorter<DnTuple> idSorter = newDnSorter( ID_ORDER );
+        ExternalSorter<DnTuple> rdnSorter = newDnSorter( PARENT_ID_AND_RDN_ORDER );
+
+        try
+        {
+            buildPartition( idSorter, rdnSorter );
+        }
+        finally
+        {
+            closeSorter( idSorter );
+            closeSorter( rdnSorter );
+        }
+    }
+
+
+    private static void closeSorter( ExternalSorter<DnTuple> sorter )
+    {
+        try
+        {
+            sorter.close();
+        }
+        catch ( IOException ioe )
+        {
+            LOG.warn( "Failed to delete the sorted DNs", ioe );
+        }
+    }
+
+
+    private void buildPartition( ExternalSorter<DnTuple> idSorter, ExternalSorter<DnTuple> rdnSorter )
+    {
         // Now, read all the DNs, and sort them
-        Set<DnTuple> sortedDnSet = null;
-        
         try
         {
             long sortT0 = System.currentTimeMillis();
             System.out.println( "Sorting the LDIF data..." );
             
-            sortedDnSet = getDnTuples();
-            long sortT1 = System.currentTimeMillis();
-
-            totalEntries = sortedDnSet.size();
+            totalEntries = ( int ) sortDnTuples( idSorter, rdnSorter );
             
-            System.out.println( "Completed sorting, total number of entries " + totalEntries + 
-                ", time taken : " + ( sortT1 - sortT0 ) + "ms" );
+            System.out.print( "Completed sorting, total number of entries " + totalEntries );
+            printStageTime( sortT0, totalEntries );
         }
         catch ( Exception e )
         {
@@ -847,11 +1149,12 @@ public class MavibotPartitionBuilder
             return;
         }
         
-        if ( ( sortedDnSet == null ) || ( sortedDnSet.isEmpty() ) )
+        if ( totalEntries == 0 )
         {
             String message = "No entries found in the given LDIF file, aborting bulk load";
             System.out.println( message );
             LOG.info( message );
+            return;
         }
         
         MavibotPartition partition = null;
@@ -869,7 +1172,7 @@ public class MavibotPartitionBuilder
             partition.setPartitionPath( dir.toURI() );
             partition.setCacheService( cacheService );
 
-            for( String atName : indexAttributes )
+            for ( String atName : indexAttributes )
             {
                 schemaManager.lookupAttributeTypeRegistry( atName );
                 partition.addIndex( new MavibotIndex( atName, false ) );
@@ -895,11 +1198,10 @@ public class MavibotPartitionBuilder
         {
             long masterT0 = System.currentTimeMillis();
             System.out.print( "Building master table..." );
-            buildMasterTable( sortedDnSet );
-            long masterT1 = System.currentTimeMillis();
-            System.out.println( ", time taken : " + ( masterT1 - masterT0 ) + "ms" );
+            buildMasterTable( idSorter.sort() );
+            printStageTime( masterT0, totalEntries );
         }
-        catch( Exception e )
+        catch ( Exception e )
         {
             e.printStackTrace();
             LOG.warn( "Failed to build master table", e );
@@ -920,11 +1222,10 @@ public class MavibotPartitionBuilder
             
             long rdnT0 = System.currentTimeMillis();
             System.out.print( "Building RDN index." );
-            buildRdnIndex( sortedDnSet );
-            long rdnT1 = System.currentTimeMillis();
-            System.out.println( ", time taken : " + ( rdnT1 - rdnT0 ) + "ms" );
+            buildRdnIndex( idSorter, rdnSorter );
+            printStageTime( rdnT0, 2L * totalEntries );
         }
-        catch( Exception e )
+        catch ( Exception e )
         {
             e.printStackTrace();
             LOG.warn( "Failed to build the RDN index", e );
@@ -932,15 +1233,16 @@ public class MavibotPartitionBuilder
         }
         
         // not needed anymore
-        System.out.println( "Clearing the sorted DN set." );
-        sortedDnSet.clear();
+        System.out.println( "Deleting the sorted DNs." );
+        closeSorter( idSorter );
+        closeSorter( rdnSorter );
         
-        for( Index<?, String> id : partition.getAllIndices() )
+        for ( Index<?, String> id : partition.getAllIndices() )
         {
             // RDN and presence indices are built separately
             String oid = id.getAttribute().getOid();
             
-            if( ApacheSchemaConstants.APACHE_RDN_AT_OID.equals( oid ) 
+            if ( ApacheSchemaConstants.APACHE_RDN_AT_OID.equals( oid ) 
                 || ApacheSchemaConstants.APACHE_PRESENCE_AT_OID.equals( oid ) )
             {
                 continue;
@@ -948,7 +1250,7 @@ public class MavibotPartitionBuilder
             
             String ignoreVal = null;
             
-            if( SchemaConstants.OBJECT_CLASS_AT_OID.equals( oid ) )
+            if ( SchemaConstants.OBJECT_CLASS_AT_OID.equals( oid ) )
             {
                 // should be a normalized val
                 ignoreVal = "top";
@@ -957,12 +1259,11 @@ public class MavibotPartitionBuilder
             try
             {
                 long indexT0 = System.currentTimeMillis();
-                System.out.print("Building index " + id.getAttribute().getName() );
-                buildIndex( id, ignoreVal );
-                long indexT1 = System.currentTimeMillis();
-                System.out.println( ", time taken : " + ( indexT1 - indexT0 ) + "ms" );
+                System.out.print( "Building index " + id.getAttribute().getName() );
+                long count = buildIndex( id, ignoreVal );
+                printStageTime( indexT0, count );
             }
-            catch( Exception e )
+            catch ( Exception e )
             {
                 e.printStackTrace();
                 LOG.warn( "Failed to build the index " + id.getAttribute().getName() );
@@ -975,11 +1276,10 @@ public class MavibotPartitionBuilder
         {
             System.out.print( "Building presence index..." );
             long presenceT0 = System.currentTimeMillis();
-            buildPresenceIndex( userIndexItr );
-            long presenceT1 = System.currentTimeMillis();
-            System.out.println( ", time taken : " + ( presenceT1 - presenceT0 ) + "ms" );
+            long count = buildPresenceIndex( userIndexItr );
+            printStageTime( presenceT0, count );
         }
-        catch( Exception e )
+        catch ( Exception e )
         {
             e.printStackTrace();
             LOG.warn( "Failed to build the presence index." );
@@ -991,11 +1291,11 @@ public class MavibotPartitionBuilder
     }
 
     
-    private void buildPresenceIndex( Iterator<String> itr ) throws Exception
+    private long buildPresenceIndex( Iterator<String> itr ) throws Exception
     {
         Set<String> idxOids = new HashSet<String>();
         
-        while( itr.hasNext() )
+        while ( itr.hasNext() )
         {
             idxOids.add( itr.next() );
         }
@@ -1003,223 +1303,222 @@ public class MavibotPartitionBuilder
         BTree masterTree = rm.getManagedTree( masterTableName );
 
         BTree fwdTree = rm.getManagedTree( ApacheSchemaConstants.APACHE_PRESENCE_AT_OID + MavibotIndex.FORWARD_BTREE );
-        boolean fwdDupsAllowed = fwdTree.isAllowDuplicates();
-        
         Comparator fwdKeyComparator = fwdTree.getKeySerializer().getComparator();
         
-        final Map<String, Set> fwdMap = new TreeMap<String, Set>();
+        ExternalSorter<Tuple> fwdSorter = newSorter( fwdKeyComparator );
 
-        TupleCursor<String, Entry> cursor = masterTree.browse();
-        
-        while ( cursor.hasNext() )
+        try
         {
-            Tuple<String, Entry> t = cursor.next();
-            
-            Entry e = t.getValue();
-            
-            for( String oid : idxOids )
+            TupleCursor<String, Entry> cursor = masterTree.browse();
+
+            while ( cursor.hasNext() )
             {
-                Attribute at = e.get( oid );
-                if( at == null )
-                {
-                    continue;
-                }
-                
-                Set<String> idSet = fwdMap.get( oid );
-                
-                if( idSet == null )
-                {
-                    idSet = new TreeSet<String>();
-                    idSet.add( t.getKey() );
+                Tuple<String, Entry> t = cursor.next();
+
+                Entry e = t.getValue();
 
-                    fwdMap.put( oid, idSet );
+                for ( String oid : idxOids )
+                {
+                    if ( e.get( oid ) != null )
+                    {
+                        fwdSorter.add( new Tuple( oid, t.getKey() ) );
+                    }
                 }
             }
+
+            cursor.close();
+
+            build( new GroupingIterator( fwdSorter.sort(), fwdKeyComparator, fwdTree.isAllowDuplicates(), null ),
+                fwdTree.getName() );
+
+            return fwdSorter.size();
         }
-        
-        cursor.close();
-        
-        Iterator<Tuple> tupleItr = new Iterator<Tuple>()
+        finally
         {
-            Iterator<java.util.Map.Entry<String, Set>> itr = fwdMap.entrySet().iterator();
-            
-            @Override
-            public Tuple next()
-            {
-                java.util.Map.Entry<String, Set> e = itr.next();
-                
-                Tuple t = new Tuple();
-                t.setKey( e.getKey() );
-                t.setValue( e.getValue() );
-                
-                return t;
-            }
-            
-            
-            @Override
-            public boolean hasNext()
-            {
-                return itr.hasNext();
-            }
-            
-            @Override
-            public void remove()
-            {
-            }
-        };
-        
-        build( tupleItr, fwdTree.getName() );
+            fwdSorter.close();
+        }
     }
     
     
-    private void buildIndex( Index<?, String> idx, String ignoreVal ) throws Exception
+    /**
+     * Builds an index. The (value, ID) tuples are sorted on disk, and merged while the index
+     * B-tree is written.
+     *
+     * @return The number of index tuples
+     */
+    private long buildIndex( Index<?, String> idx, String ignoreVal ) throws Exception
     {
         BTree masterTree = rm.getManagedTree( masterTableName );
         
         AttributeType type = idx.getAttribute();
-        boolean isBinary = type.getSyntax().isHumanReadable();
-        boolean singleValued = type.isSingleValued();
         
         BTree fwdTree = rm.getManagedTree( type.getOid() + MavibotIndex.FORWARD_BTREE );
-        boolean fwdDupsAllowed = fwdTree.isAllowDuplicates();
-        
         Comparator fwdKeyComparator = fwdTree.getKeySerializer().getComparator();
-        
-        Set<Tuple> fwdSet = new TreeSet<Tuple>( new IndexTupleComparator( fwdKeyComparator ) );
-        
-        Map fwdMap = new TreeMap( fwdKeyComparator );
+        ExternalSorter<Tuple> fwdSorter = newSorter( fwdKeyComparator );
         
         BTree revTree = null;
-        boolean revDupsAllowed;
-        Set<Tuple> revSet = null;
-        Map<String,Tuple> revMap = null;
-        Comparator revValComparator = null;
+        Comparator revKeyComparator = null;
+        ExternalSorter<Tuple> revSorter = null;
         
-        if( idx.hasReverse() )
+        if ( idx.hasReverse() )
         {
             revTree = rm.getManagedTree( type.getOid() + MavibotIndex.REVERSE_BTREE );
-            revDupsAllowed = revTree.isAllowDuplicates();
-            Comparator revKeyComparator = revTree.getKeySerializer().getComparator();
-            revValComparator = revTree.getValueSerializer().getComparator();
-            revSet = new TreeSet<Tuple>( new IndexTupleComparator( revKeyComparator ) );
-            revMap = new TreeMap( revKeyComparator );
+            revKeyComparator = revTree.getKeySerializer().getComparator();
+            revSorter = newSorter( revKeyComparator );
         }
         
-        
-        TupleCursor<String, Entry> cursor = masterTree.browse();
-        
-        while ( cursor.hasNext() )
+        try
         {
-            Tuple<String, Entry> t = cursor.next();
-            
-            Entry e = t.getValue();
-            Attribute at = e.get( type );
-            if( at == null )
-            {
-                continue;
-            }
-            
-            if( singleValued )
+            TupleCursor<String, Entry> cursor = masterTree.browse();
+
+            while ( cursor.hasNext() )
             {
-                Value v = at.get();
-                Object normVal = v.getNormValue();
-                
-                if( ignoreVal != null )
-                {
-                    if( normVal.equals( ignoreVal ) )
-                    {
-                        continue;
-                    }
-                }
-                
-                Tuple fwdTuple = new Tuple( normVal, t.getKey() );
-                fwdSet.add( fwdTuple );
-                
-                if( revTree != null )
+                Tuple<String, Entry> t = cursor.next();
+
+                Entry e = t.getValue();
+                Attribute at = e.get( type );
+
+                if ( at == null )
                 {
-                    Tuple revTuple = new Tuple( t.getKey(), v.getNormValue() );
-                    revSet.add( revTuple );
+                    continue;
                 }
-            }
-            else
-            {
-                for( Value v : at )
+
+                for ( Value v : at )
                 {
-                    Object val = v.getNormValue();
-                    
-                    if( ignoreVal != null )
-                    {
-                        if( val.equals( ignoreVal ) )
-                        {
-                            continue;
-                        }
-                    }
-                    
-                    Tuple fwdTuple = ( Tuple ) fwdMap.get( val );
-                    
-                    if( fwdTuple == null )
-                    {
-                        Set<String> idSet = new TreeSet<String>();
-                        idSet.add( t.getKey() );
-                        
-                        fwdTuple = new Tuple( val, idSet );
-                        fwdMap.put( val, fwdTuple );
-                    }
-                    else
+                    Object normVal = v.getNormValue();
+
+                    if ( ( ignoreVal != null ) && normVal.equals( ignoreVal ) )
                     {
-                        Set<String> idSet = ( Set<String> ) fwdTuple.getValue();
-                        idSet.add( t.getKey() );
+                        continue;
                     }
-                    
-                    if( revTree != null )
+
+                    fwdSorter.add( new Tuple( normVal, t.getKey() ) );
+
+                    if ( revSorter != null )
                     {
-                        Tuple revTuple = revMap.get( t.getKey() );
-                        
-                        if( revTuple == null )
-                        {
-                            Set valSet = new TreeSet( revValComparator );
-                            valSet.add( val );
-                            revTuple = new Tuple( t.getKey(), valSet );
-                        }
-                        else
-                        {
-                            Set valSet = ( Set ) revTuple.getValue();
-                            valSet.add( val );
-                        }
+                        revSorter.add( new Tuple( t.getKey(), normVal ) );
                     }
                 }
             }
-        }
-        
-        cursor.close();
-        
-        if( singleValued )
-        {
-            if( fwdSet.isEmpty() )
+
+            cursor.close();
+
+            if ( fwdSorter.size() == 0 )
             {
-                return;
+                return 0;
             }
-            
-            build( fwdSet.iterator(), fwdTree.getName() );
-            
-            if( revTree != null )
+
+            build( new GroupingIterator( fwdSorter.sort(), fwdKeyComparator, fwdTree.isAllowDuplicates(), null ),
+                fwdTree.getName() );
+
+            if ( revTree != null )
             {
-                build( revSet.iterator(), revTree.getName() );
+                build( new GroupingIterator( revSorter.sort(), revKeyComparator, revTree.isAllowDuplicates(),
+                    revTree.getValueSerializer().getComparator() ), revTree.getName() );
             }
+
+            return fwdSorter.size();
         }
-        else
+        finally
         {
-            if( fwdMap.isEmpty() )
+            fwdSorter.close();
+
+            if ( revSorter != null )
             {
-                return;
+                revSorter.close();
             }
-            
-            build( fwdMap.values().iterator(), fwdTree.getName() );
+        }
+    }
+
+
+    /**
+     * Creates a sorter for the index tuples, spilling in the output directory
+     */
+    private ExternalSorter<Tuple> newSorter( Comparator keyComparator )
+    {
+        return new ExternalSorter<Tuple>( new IndexTupleComparator( keyComparator ), TUPLE_CODEC, sortRunSize,
+            new File( outputDir ) );
+    }
+
+
+    /**
+     * Groups the values of the sorted tuples having the same key. If the B-tree does not
+     * allow duplicate keys, only the first value is kept.
+     */
+    private static final class GroupingIterator implements Iterator<Tuple>
+    {
+        private final Iterator<Tuple> sorted;
+
+        private final Comparator keyComparator;
+
+        private final boolean allowDuplicates;
+
+        private final Comparator valueComparator;
+
+        /** The first tuple of the next group */
+        private Tuple next;
+
+
+        private GroupingIterator( Iterator<Tuple> sorted, Comparator keyComparator, boolean allowDuplicates,
+            Comparator valueComparator )
+        {
+            this.sorted = sorted;
+            this.keyComparator = keyComparator;
+            this.allowDuplicates = allowDuplicates;
+            this.valueComparator = valueComparator;
+        }
+
+
+        @Override
+        public boolean hasNext()
+        {
+            return ( next != null ) || sorted.hasNext();
+        }
 
-            if( revTree != null )
+
+        @Override
+        public Tuple next()
+        {
+            Tuple first = ( next != null ) ? next : sorted.next();
+            next = null;
+
+            Set values = null;
+
+            if ( allowDuplicates )
+            {
+                values = ( valueComparator == null ) ? new TreeSet() : new TreeSet( valueComparator );
+                values.add( first.getValue() );
+            }
+
+            while ( sorted.hasNext() )
             {
-                build( revMap.values().iterator(), revTree.getName() );
+                Tuple tuple = sorted.next();
+
+                if ( keyComparator.compare( first.getKey(), tuple.getKey() ) != 0 )
+                {
+                    next = tuple;
+                    break;
+                }
+
+                if ( values != null )
+                {
+                    values.add( tuple.getValue() );
+                }
             }
+
+            if ( values == null )
+            {
+                return first;
+            }
+
+            return new Tuple( first.getKey(), values );
+        }
+
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException( "Not supported" );
         }
     }
     
@@ -1239,7 +1538,7 @@ public class MavibotPartitionBuilder
             }
             cursor.close();
             
-            if( fetched != tree.getNbElems() )
+            if ( fetched != tree.getNbElems() )
             {
                 System.err.println( "The number of elements fetched from the btree did not match with the stored count " + name + " ( fetched = " + fetched + ", stored count = " + tree.getNbElems() + " )" );
             }
@@ -1249,14 +1548,14 @@ public class MavibotPartitionBuilder
             }
 //            Index idx = partition.getRdnIndex();
 //            org.apache.directory.api.ldap.model.cursor.Cursor idxCur = idx.forwardCursor();
-//            while( idxCur.next() )
+//            while ( idxCur.next() )
 //            {
 //                System.out.println( idxCur.get() );
 //            }
 //            
 //            idxCur.close();
         }
-        catch( Exception e )
+        catch ( Exception e )
         {
             e.printStackTrace();
         }
@@ -1301,9 +1600,9 @@ public class MavibotPartitionBuilder
         
         Option[] options = Option.values();
         
-        for( Option o : options )
+        for ( Option o : options )
         {
-            if( o == Option.UNKNOWN )
+            if ( o == Option.UNKNOWN )
             {
                 continue;
             }
@@ -1314,7 +1613,7 @@ public class MavibotPartitionBuilder
     
     private static String getArgAt( int position, Option opt, String[] args )
     {
-        if( position >= args.length )
+        if ( position >= args.length )
         {
             System.out.println( "No value was provided for the option " + opt.getText() );
             System.exit( 1 );
@@ -1333,6 +1632,8 @@ public class MavibotPartitionBuilder
         int rid = 1;
         boolean cleanOutDir = false;
         boolean verifyMasterTable = false;
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        int sortRunSize = ExternalSorter.DEFAULT_RUN_SIZE;
 
         if ( args.length < 2 )
         {
@@ -1340,11 +1641,11 @@ public class MavibotPartitionBuilder
            System.exit( 0 );
         }
         
-        for( int i =0; i < args.length; i++ )
+        for ( int i = 0; i < args.length; i++ )
         {
             Option opt = Option.getOpt( args[i] );
             
-            switch( opt )
+            switch ( opt )
             {
                 case HELP :
                     help();
@@ -1375,23 +1676,32 @@ public class MavibotPartitionBuilder
                     rid = Integer.parseInt( getArgAt( ++i, opt, args ) );
                     break;
                     
+                case NUM_THREADS :
+                    numThreads = Integer.parseInt( getArgAt( ++i, opt, args ) );
+                    break;
+
+                case SORT_RUN_SIZE :
+                    sortRunSize = Integer.parseInt( getArgAt( ++i, opt, args ) );
+                    break;
+                    
                 case CONFIG_DIR :
                     configDir = getArgAt( ++i, opt, args );
                     break;
 
                 case UNKNOWN :
+                default :
                     System.out.println( "Unknown option " + args[i] );
                     continue;
             }
         }
         
-        if( ( inFile == null ) || ( inFile.trim().length() == 0 ) )
+        if ( ( inFile == null ) || ( inFile.trim().length() == 0 ) )
         {
             System.out.println( "Invalid input file" );
             return;
         }
         
-        if( !new File( inFile ).exists() )
+        if ( !new File( inFile ).exists() )
         {
             System.out.println( "The input file " + inFile + " doesn't exist" );
             return;
@@ -1401,9 +1711,9 @@ public class MavibotPartitionBuilder
         
         File outDir = new File( outDirPath );
         
-        if( outDir.exists() )
+        if ( outDir.exists() )
         {
-            if( !cleanOutDir )
+            if ( !cleanOutDir )
             {
                 System.out.println( "The output directory is not empty, pass " + Option.CLEAN_OUT_DIR.getText() + " to force delete the contents or specify a different directory"  );
                 return;
@@ -1413,6 +1723,8 @@ public class MavibotPartitionBuilder
         }
         
         MavibotPartitionBuilder builder = new MavibotPartitionBuilder( configDir, inFile, outDirPath, numKeysInNode, rid );
+        builder.setNumThreads( numThreads );
+        builder.setSortRunSize( sortRunSize );
         
         long start = System.currentTimeMillis();
         
@@ -54,6 +54,10 @@ public enum Option
     CONFIG_DIR("-c", "The configuration partition directory"),
 
     VERIFY_MASTER_TABLE("-verify", "(optional) Verifies the master table by just browsing (entries are not verified)"),
+
+    NUM_THREADS("-threads", "(optional) The number of threads parsing the entries, default is the number of processors"),
+
+    SORT_RUN_SIZE("-sortrun", "(optional) The number of DN or index tuples sorted in memory before being spilled to disk, default is 200000"),
     
     UNKNOWN(null, "Unknown Option");
 
@@ -61,7 +65,7 @@ public enum Option
     private String desc;
 
 
-    private Option( String text, String desc )
+    Option( String text, String desc )
     {
         this.text = text;
         this.desc = desc;
@@ -119,6 +123,16 @@ public enum Option
             return NUM_KEYS_PER_NODE;
         }
 
+        if ( opt.equalsIgnoreCase( NUM_THREADS.text ) )
+        {
+            return NUM_THREADS;
+        }
+
+        if ( opt.equalsIgnoreCase( SORT_RUN_SIZE.text ) )
+        {
+            return SORT_RUN_SIZE;
+        }
+
         if ( opt.equalsIgnoreCase( CONFIG_DIR.text ) )
         {
             return CONFIG_DIR;
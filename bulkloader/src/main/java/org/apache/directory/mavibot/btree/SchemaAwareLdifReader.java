@@ -42,17 +42,15 @@ import org.slf4j.LoggerFactory;
  */
 public class SchemaAwareLdifReader extends LdifReader
 {
-    private SchemaManager schemaManager;
-
     private static final Logger LOG = LoggerFactory.getLogger( SchemaAwareLdifReader.class );
     
     public SchemaAwareLdifReader( SchemaManager schemaManager ) throws Exception
     {
-        this.schemaManager = schemaManager;
+        super( schemaManager );
         validateDn = false;
     }
 
-    protected LdifEntry createLdifEntry()
+    protected LdifEntry createLdifEntry( SchemaManager schemaManager )
     {
         Entry entry = new DefaultEntry( schemaManager );
         return new LdifEntry( entry );
@@ -0,0 +1,118 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.mavibot.btree;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the ExternalSorter.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ExternalSorterTest
+{
+    private static final Comparator<Integer> COMPARATOR = new Comparator<Integer>()
+    {
+        @Override
+        public int compare( Integer i1, Integer i2 )
+        {
+            return i1.compareTo( i2 );
+        }
+    };
+
+    private static final ExternalSorter.Codec<Integer> CODEC = new ExternalSorter.Codec<Integer>()
+    {
+        @Override
+        public void write( DataOutputStream out, Integer element ) throws IOException
+        {
+            out.writeInt( element );
+        }
+
+
+        @Override
+        public Integer read( DataInputStream in ) throws IOException
+        {
+            return in.readInt();
+        }
+    };
+
+
+    private static void checkSort( int count, int runSize, int expectedRuns ) throws IOException
+    {
+        ExternalSorter<Integer> sorter = new ExternalSorter<Integer>( COMPARATOR, CODEC, runSize, null );
+        Random random = new Random( 42L );
+
+        try
+        {
+            for ( int i = 0; i < count; i++ )
+            {
+                sorter.add( random.nextInt( 1000 ) );
+            }
+
+            assertEquals( expectedRuns, sorter.getRunCount() );
+
+            Iterator<Integer> sorted = sorter.sort();
+            int previous = Integer.MIN_VALUE;
+            int nb = 0;
+
+            while ( sorted.hasNext() )
+            {
+                int value = sorted.next();
+                assertTrue( value >= previous );
+                previous = value;
+                nb++;
+            }
+
+            assertEquals( count, nb );
+            assertFalse( sorted.hasNext() );
+        }
+        finally
+        {
+            sorter.close();
+        }
+    }
+
+
+    @Test
+    public void testSortInMemory() throws IOException
+    {
+        checkSort( 100, 1000, 0 );
+    }
+
+
+    @Test
+    public void testSortWithRuns() throws IOException
+    {
+        checkSort( 10050, 1000, 10 );
+    }
+}
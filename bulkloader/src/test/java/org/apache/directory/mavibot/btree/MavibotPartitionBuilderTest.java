@@ -20,17 +20,27 @@
 package org.apache.directory.mavibot.btree;
 
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
 import java.io.File;
+import java.io.FileWriter;
 import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
 
-import org.apache.directory.api.util.FileUtils;
 import org.apache.directory.server.config.LdifConfigExtractor;
+import org.apache.directory.server.constants.ApacheSchemaConstants;
+import org.apache.directory.server.core.partition.impl.btree.mavibot.MavibotRdnIndex;
+import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
-import static org.junit.Assert.*;
 
 /**
  * Tests for MavibotPartitionBuilder.
@@ -58,16 +68,49 @@ public class MavibotPartitionBuilderTest
 
         configFile = LdifConfigExtractor.extractSingleFileConfig( configDir, "config.ldif", true );
     }
-    
+
+
+    /**
+     * Reads the reverse RDN index, checking that its IDs are sorted
+     *
+     * @return The ParentIdAndRdn of each entry, by RDN
+     */
+    private Map<String, ParentIdAndRdn> readRdnIndex( MavibotPartitionBuilder builder ) throws Exception
+    {
+        // The builder has dropped the values of the pages it has written, they must be read again
+        builder.getRm().close();
+        RecordManager rm = new RecordManager( outDir.getAbsolutePath() );
+        BTree revTree = rm.getManagedTree( ApacheSchemaConstants.APACHE_RDN_AT_OID + MavibotRdnIndex.REVERSE_BTREE );
+        Map<String, ParentIdAndRdn> rdns = new HashMap<String, ParentIdAndRdn>();
+        TupleCursor cursor = revTree.browse();
+        String previous = null;
+
+        while ( cursor.hasNext() )
+        {
+            Tuple tuple = cursor.next();
+            String id = ( String ) tuple.getKey();
+            ParentIdAndRdn rdn = ( ParentIdAndRdn ) tuple.getValue();
+
+            assertTrue( ( previous == null ) || ( previous.compareTo( id ) < 0 ) );
+            rdns.put( rdn.getRdns()[0].getName(), rdn );
+            previous = id;
+        }
+
+        cursor.close();
+        rm.close();
+
+        return rdns;
+    }
+
+
     @Test
     public void testBulkLoad() throws Exception
     {
-        //File file = new File( outDir, "builder-test.ldif" );
-        File file = new File( outDir, "30k.ldif" );
-        //InputStream in = MavibotPartitionBuilder.class.getClassLoader().getResourceAsStream( "builder-test.ldif" );
-        try ( InputStream in = MavibotPartitionBuilder.class.getClassLoader().getResourceAsStream( "30k.ldif" ) )
+        File file = new File( outDir, "builder-test.ldif" );
+
+        try ( InputStream in = MavibotPartitionBuilder.class.getClassLoader().getResourceAsStream( "builder-test.ldif" ) )
         {
-            FileUtils.copyInputStreamToFile( in, file );
+            Files.copy( in, file.toPath() );
         }
 
         MavibotPartitionBuilder builder = new MavibotPartitionBuilder( configFile, file.getAbsolutePath(), outDir.getAbsolutePath() );
@@ -78,6 +121,76 @@ public class MavibotPartitionBuilderTest
         
         RecordManager rm = builder.getRm();
         BTree masterTree = rm.getManagedTree( builder.getMasterTableName() );
+        assertEquals( 7, builder.getTotalEntries() );
         assertEquals( builder.getTotalEntries(), masterTree.getNbElems() );
     }
+
+
+    /**
+     * Loads more entries than the sort runs can hold, the children being written before
+     * their parents.
+     */
+    @Test
+    public void testBulkLoadSpillingTheDns() throws Exception
+    {
+        File file = new File( outDir, "spill-test.ldif" );
+        int nbUsers = 50;
+
+        try ( PrintWriter out = new PrintWriter( new FileWriter( file ) ) )
+        {
+            for ( int i = 0; i < nbUsers; i++ )
+            {
+                out.println( "dn: uid=user" + i + ",ou=Users,ou=builder" );
+                out.println( "objectClass: top" );
+                out.println( "objectClass: person" );
+                out.println( "objectClass: inetOrgPerson" );
+                out.println( "cn: User " + i );
+                out.println( "sn: " + i );
+                out.println( "uid: user" + i );
+                out.println();
+            }
+
+            for ( String ou : new String[]
+                { "Users", "Groups" } )
+            {
+                out.println( "dn: ou=" + ou + ",ou=builder" );
+                out.println( "objectClass: top" );
+                out.println( "objectClass: organizationalUnit" );
+                out.println( "ou: " + ou );
+                out.println();
+            }
+
+            out.println( "dn: ou=builder" );
+            out.println( "objectClass: top" );
+            out.println( "objectClass: organizationalUnit" );
+            out.println( "ou: builder" );
+            out.println();
+        }
+
+        MavibotPartitionBuilder builder = new MavibotPartitionBuilder( configFile, file.getAbsolutePath(), outDir.getAbsolutePath() );
+        builder.setSortRunSize( 4 );
+        builder.buildPartition();
+
+        int nbEntries = nbUsers + 3;
+        assertEquals( nbEntries, builder.getTotalEntries() );
+        assertEquals( nbEntries, builder.getRm().getManagedTree( builder.getMasterTableName() ).getNbElems() );
+
+        Map<String, ParentIdAndRdn> rdns = readRdnIndex( builder );
+        assertEquals( nbEntries, rdns.size() );
+
+        ParentIdAndRdn root = rdns.get( "ou=builder" );
+        assertNotNull( root );
+        assertEquals( 2, root.getNbChildren() );
+        assertEquals( nbEntries - 1, root.getNbDescendants() );
+
+        ParentIdAndRdn users = rdns.get( "ou=Users" );
+        assertNotNull( users );
+        assertEquals( nbUsers, users.getNbChildren() );
+        assertEquals( nbUsers, users.getNbDescendants() );
+
+        ParentIdAndRdn groups = rdns.get( "ou=Groups" );
+        assertNotNull( groups );
+        assertEquals( 0, groups.getNbChildren() );
+        assertEquals( users.getParentId(), groups.getParentId() );
+    }
 }
@@ -22,6 +22,7 @@ package org.apache.directory.server.core.api;
 
 
 import java.io.File;
+import java.util.Map;
 import java.util.UUID;
 
 import net.sf.ehcache.Cache;
@@ -29,8 +30,10 @@ import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.Status;
 import net.sf.ehcache.config.Configuration;
 import net.sf.ehcache.config.ConfigurationFactory;
+import net.sf.ehcache.statistics.StatisticsGateway;
 
 import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.server.core.api.metrics.MetricsSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,7 +48,7 @@ import org.slf4j.LoggerFactory;
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
-public class CacheService
+public class CacheService implements MetricsSource
 {
     /** The cache configuration file */
     private static final String DIRECTORY_CACHESERVICE_XML = "directory-cacheservice.xml";
@@ -233,4 +236,37 @@ public class CacheService
             LOG.info( "Cannot removing the cache named {}, it does not exist", name );
         }
     }
+
+
+    /**
+     * Exposes the number of elements, the hits, the misses and the hit ratio of each cache.
+     *
+     * @param metrics The map to fill
+     */
+    public void collectMetrics( Map<String, Number> metrics )
+    {
+        if ( !initialized )
+        {
+            return;
+        }
+
+        for ( String name : cacheManager.getCacheNames() )
+        {
+            Cache cache = cacheManager.getCache( name );
+
+            if ( cache == null )
+            {
+                // Removed meanwhile
+                continue;
+            }
+
+            StatisticsGateway statistics = cache.getStatistics();
+            String prefix = "cache." + name + ".";
+
+            metrics.put( prefix + "size", cache.getSize() );
+            metrics.put( prefix + "hits", statistics.cacheHitCount() );
+            metrics.put( prefix + "misses", statistics.cacheMissCount() );
+            metrics.put( prefix + "hitRatio", statistics.cacheHitRatio() );
+        }
+    }
 }
@@ -40,7 +40,9 @@ import org.apache.directory.server.core.api.changelog.ChangeLog;
 import org.apache.directory.server.core.api.entry.ServerEntryFactory;
 import org.apache.directory.server.core.api.event.EventService;
 import org.apache.directory.server.core.api.interceptor.Interceptor;
+import org.apache.directory.server.core.api.interceptor.InterceptorChain;
 import org.apache.directory.server.core.api.journal.Journal;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.api.schema.SchemaPartition;
@@ -335,6 +337,16 @@ public interface DirectoryService extends ServerEntryFactory
     List<String> getInterceptors( OperationEnum operation );
 
 
+    /**
+     * Returns the chain of the interceptors implementing an operation. The chain
+     * is immutable : it is replaced when the interceptors are modified.
+     *
+     * @param operation The operation
+     * @return the interceptors to call for the given operation
+     */
+    InterceptorChain getInterceptorChain( OperationEnum operation );
+
+
     /**
      * Sets the interceptors in the server.
      *
@@ -509,6 +521,21 @@ public interface DirectoryService extends ServerEntryFactory
     void setMaxPDUSize( int maxPDUSize );
 
 
+    /**
+     * @return The estimated number of bytes the entries of a sorted search can use in memory,
+     * before they are written to disk
+     */
+    long getSortMemoryBudget();
+
+
+    /**
+     * Set the estimated number of bytes the entries of a sorted search can use in memory
+     * @param sortMemoryBudget A positive number of bytes. A negative or null value will be
+     * transformed to the default budget
+     */
+    void setSortMemoryBudget( long sortMemoryBudget );
+
+
     /**
      * Get an Interceptor instance from its name
      * @param interceptorName The interceptor's name for which we want the instance
@@ -631,4 +658,13 @@ public interface DirectoryService extends ServerEntryFactory
      */
     ObjectClassProvider getOcProvider();
 
+
+    /**
+     * Gets the metrics of this service : the operations latencies and the values
+     * exposed by the caches, partitions and network layer.
+     *
+     * @return the {@link MetricsRegistry}
+     */
+    MetricsRegistry getMetricsRegistry();
+
 }
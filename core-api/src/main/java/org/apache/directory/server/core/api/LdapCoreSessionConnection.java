@@ -1210,7 +1210,7 @@ public class LdapCoreSessionConnection extends AbstractLdapConnection
         bindContext.setCredentials( bindRequest.getCredentials() );
 
         bindContext.setDn( bindRequest.getDn().apply( directoryService.getSchemaManager() ) );
-        bindContext.setInterceptors( directoryService.getInterceptors( OperationEnum.BIND ) );
+        bindContext.setInterceptorChain( directoryService.getInterceptorChain( OperationEnum.BIND ) );
 
         for ( Control control : bindRequest.getControls().values() )
         {
@@ -24,6 +24,7 @@ import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.BindOperationContext;
@@ -145,6 +146,34 @@ public interface OperationManager
     void unlockWrite();
 
 
+    /**
+     * Acquires the WriteLock of the partition containing a Dn, as the write operations do.
+     * The global lock is acquired in read mode. The partition may defer its disk flushes
+     * until the lock is released by {@link #unlockWrite(ReadWriteLock, boolean)}.
+     * <br>
+     * The ReadLock of a partition can't be upgraded : the current thread must not hold it.
+     *
+     * @param dn The Dn the operation is applied on
+     * @return The acquired partition lock
+     * @throws LdapException If the lock can't be acquired without risking a deadlock, or if
+     * the current thread holds the partition ReadLock
+     */
+    ReadWriteLock lockWrite( Dn dn ) throws LdapException;
+
+
+    /**
+     * Releases a WriteLock acquired by {@link #lockWrite(Dn)}, then waits for the changes
+     * to be written on disk if the partition has deferred it. If the operation has failed,
+     * a failure to write the changes is only logged, so that it does not hide the exception
+     * thrown by the operation.
+     *
+     * @param partitionLock The partition lock to release
+     * @param succeeded Tells if the operation has succeeded
+     * @throws LdapException If the changes of a successful operation can't be written
+     */
+    void unlockWrite( ReadWriteLock partitionLock, boolean succeeded ) throws LdapException;
+
+
     /**
      * Acquires a ReadLock
      */
@@ -158,7 +187,29 @@ public interface OperationManager
 
 
     /**
-     * @return the OperationManager R/W lock
+     * @return the OperationManager global R/W lock. Its WriteLock stops all the operations.
      */
     ReadWriteLock getRWLock();
+
+
+    /**
+     * Gets the R/W lock protecting the partition containing a Dn. The operations on
+     * different partitions do not exclude each other, except for the schema and the
+     * configuration partitions, which all the others depend on : they are protected by
+     * the global lock.
+     *
+     * @param dn The Dn we want the partition lock for
+     * @return the partition R/W lock, or the global lock if the Dn is not in a partition,
+     * or is in the schema or configuration partition
+     */
+    ReadWriteLock getRWLock( Dn dn );
+
+
+
+    /**
+     * Forgets the R/W lock of a partition which has been removed.
+     *
+     * @param suffixDn The removed partition suffix
+     */
+    void removeRWLock( Dn suffixDn );
 }
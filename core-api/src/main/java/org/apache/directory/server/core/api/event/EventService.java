@@ -22,6 +22,9 @@ package org.apache.directory.server.core.api.event;
 
 import java.util.List;
 
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+
 
 /**
  * Interface used by the DirectoryService to manage subscriptions for DIT 
@@ -55,4 +58,16 @@ public interface EventService
      * Lists the listeners registered with this EventService.
      */
     List<RegistrationEntry> getRegistrationEntries();
+
+
+    /**
+     * Lists the registrations which may select an entry : the entry is in their scope,
+     * and it has the attributes their filter requires. Their filter still has to be
+     * evaluated against the entry.
+     *
+     * @param dn The entry Dn
+     * @param entry The entry
+     * @return The candidate registrations
+     */
+    List<RegistrationEntry> getRegistrationEntries( Dn dn, Entry entry );
 }
@@ -31,6 +31,7 @@ import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.DnFactory;
 import org.apache.directory.server.core.api.InterceptorEnum;
 import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.OperationEnum;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.BindOperationContext;
@@ -46,6 +47,7 @@ import org.apache.directory.server.core.api.interceptor.context.OperationContext
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 
 
@@ -70,6 +72,9 @@ public abstract class BaseInterceptor implements Interceptor
     /** The DN factory */
     protected DnFactory dnFactory;
 
+    /** The metrics registry, used to record the time spent in the interceptors */
+    private MetricsRegistry metricsRegistry;
+
     /** set of operational attribute types used for representing the password policy state of a user entry */
     protected static final Set<AttributeType> PWD_POLICY_STATE_ATTRIBUTE_TYPES = new HashSet<AttributeType>();
 
@@ -281,6 +286,7 @@ public abstract class BaseInterceptor implements Interceptor
         this.directoryService = directoryService;
         schemaManager = directoryService.getSchemaManager();
         dnFactory = directoryService.getDnFactory();
+        metricsRegistry = directoryService.getMetricsRegistry();
 
         finalInterceptor.init( directoryService );
     }
@@ -303,6 +309,19 @@ public abstract class BaseInterceptor implements Interceptor
      */
     protected Interceptor getNextInterceptor( OperationContext operationContext )
     {
+        if ( operationContext.getInterceptorChain() != null )
+        {
+            // Walk through the chain by index
+            Interceptor interceptor = operationContext.nextInterceptor();
+
+            if ( interceptor == null )
+            {
+                return finalInterceptor;
+            }
+
+            return interceptor;
+        }
+
         String currentInterceptor = operationContext.getNextInterceptor();
 
         if ( currentInterceptor.equals( "FINAL" ) )
@@ -316,6 +335,38 @@ public abstract class BaseInterceptor implements Interceptor
     }
 
 
+    /**
+     * @return The current time, or 0 if the time spent in the interceptors is not recorded
+     */
+    private long startTiming()
+    {
+        if ( ( metricsRegistry != null ) && metricsRegistry.isInterceptorTimingEnabled() )
+        {
+            return System.nanoTime();
+        }
+
+        return 0L;
+    }
+
+
+    /**
+     * Records the time spent in an interceptor, including the time spent in the
+     * following interceptors.
+     *
+     * @param interceptor The called interceptor
+     * @param operation The processed operation
+     * @param start The time the interceptor has been called at, 0 if it's not recorded
+     */
+    private void stopTiming( Interceptor interceptor, OperationEnum operation, long start )
+    {
+        if ( start != 0L )
+        {
+            metricsRegistry.getHistogram( "interceptor." + interceptor.getName() + "." + operation.getMethodName() )
+                .recordSince( start );
+        }
+    }
+
+
     // ------------------------------------------------------------------------
     // Interceptor's Invoke Method
     // ------------------------------------------------------------------------
@@ -338,7 +389,9 @@ public abstract class BaseInterceptor implements Interceptor
     {
         Interceptor interceptor = getNextInterceptor( addContext );
 
+        long start = startTiming();
         interceptor.add( addContext );
+        stopTiming( interceptor, OperationEnum.ADD, start );
     }
 
 
@@ -361,7 +414,9 @@ public abstract class BaseInterceptor implements Interceptor
     {
         Interceptor interceptor = getNextInterceptor( bindContext );
 
+        long start = startTiming();
         interceptor.bind( bindContext );
+        stopTiming( interceptor, OperationEnum.BIND, start );
     }
 
 
@@ -383,7 +438,11 @@ public abstract class BaseInterceptor implements Interceptor
     {
         Interceptor interceptor = getNextInterceptor( compareContext );
 
-        return interceptor.compare( compareContext );
+        long start = startTiming();
+        boolean result = interceptor.compare( compareContext );
+        stopTiming( interceptor, OperationEnum.COMPARE, start );
+
+        return result;
     }
 
 
@@ -406,7 +465,9 @@ public abstract class BaseInterceptor implements Interceptor
     {
         Interceptor interceptor = getNextInterceptor( deleteContext );
 
+        long start = startTiming();
         interceptor.delete( deleteContext );
+        stopTiming( interceptor, OperationEnum.DELETE, start );
     }
 
 
@@ -431,7 +492,11 @@ public abstract class BaseInterceptor implements Interceptor
     {
         Interceptor interceptor = getNextInterceptor( getRootDseContext );
 
-        return interceptor.getRootDse( getRootDseContext );
+        long start = startTiming();
+        Entry entry = interceptor.getRootDse( getRootDseContext );
+        stopTiming( interceptor, OperationEnum.GET_ROOT_DSE, start );
+
+        return entry;
     }
 
 
@@ -456,7 +521,11 @@ public abstract class BaseInterceptor implements Interceptor
     {
         Interceptor interceptor = getNextInterceptor( hasEntryContext );
 
-        return interceptor.hasEntry( hasEntryContext );
+        long start = startTiming();
+        boolean exists = interceptor.hasEntry( hasEntryContext );
+        stopTiming( interceptor, OperationEnum.HAS_ENTRY, start );
+
+        return exists;
     }
 
 
@@ -480,7 +549,11 @@ public abstract class BaseInterceptor implements Interceptor
     {
         Interceptor interceptor = getNextInterceptor( lookupContext );
 
-        return interceptor.lookup( lookupContext );
+        long start = startTiming();
+        Entry entry = interceptor.lookup( lookupContext );
+        stopTiming( interceptor, OperationEnum.LOOKUP, start );
+
+        return entry;
     }
 
 
@@ -503,7 +576,9 @@ public abstract class BaseInterceptor implements Interceptor
     {
         Interceptor interceptor = getNextInterceptor( modifyContext );
 
+        long start = startTiming();
         interceptor.modify( modifyContext );
+        stopTiming( interceptor, OperationEnum.MODIFY, start );
     }
 
 
@@ -526,7 +601,9 @@ public abstract class BaseInterceptor implements Interceptor
     {
         Interceptor interceptor = getNextInterceptor( moveContext );
 
+        long start = startTiming();
         interceptor.move( moveContext );
+        stopTiming( interceptor, OperationEnum.MOVE, start );
     }
 
 
@@ -546,7 +623,9 @@ public abstract class BaseInterceptor implements Interceptor
     {
         Interceptor interceptor = getNextInterceptor( moveAndRenameContext );
 
+        long start = startTiming();
         interceptor.moveAndRename( moveAndRenameContext );
+        stopTiming( interceptor, OperationEnum.MOVE_AND_RENAME, start );
     }
 
 
@@ -569,7 +648,9 @@ public abstract class BaseInterceptor implements Interceptor
     {
         Interceptor interceptor = getNextInterceptor( renameContext );
 
+        long start = startTiming();
         interceptor.rename( renameContext );
+        stopTiming( interceptor, OperationEnum.RENAME, start );
     }
 
 
@@ -593,7 +674,11 @@ public abstract class BaseInterceptor implements Interceptor
     {
         Interceptor interceptor = getNextInterceptor( searchContext );
 
-        return interceptor.search( searchContext );
+        long start = startTiming();
+        EntryFilteringCursor cursor = interceptor.search( searchContext );
+        stopTiming( interceptor, OperationEnum.SEARCH, start );
+
+        return cursor;
     }
 
 
@@ -616,6 +701,8 @@ public abstract class BaseInterceptor implements Interceptor
     {
         Interceptor interceptor = getNextInterceptor( unbindContext );
 
+        long start = startTiming();
         interceptor.unbind( unbindContext );
+        stopTiming( interceptor, OperationEnum.UNBIND, start );
     }
 }
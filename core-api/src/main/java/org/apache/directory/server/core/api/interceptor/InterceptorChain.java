@@ -0,0 +1,106 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.interceptor;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * The immutable list of the interceptors to call for one operation. Only the interceptors
+ * implementing the operation are present in the chain. The chain is computed when the
+ * interceptors are configured, and replaced as a whole when an interceptor is added
+ * or removed, so that an operation context can walk through it by index, without
+ * looking up the interceptors by name nor taking any lock.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class InterceptorChain
+{
+    /** An empty chain */
+    public static final InterceptorChain EMPTY = new InterceptorChain( new ArrayList<Interceptor>() );
+
+    /** The interceptors, in the order they are called */
+    private final Interceptor[] interceptors;
+
+    /** The interceptor names */
+    private final List<String> names;
+
+
+    /**
+     * Creates a new instance of InterceptorChain.
+     *
+     * @param interceptors The interceptors to call, in order
+     */
+    public InterceptorChain( List<Interceptor> interceptors )
+    {
+        this.interceptors = interceptors.toArray( new Interceptor[interceptors.size()] );
+
+        List<String> names = new ArrayList<String>( interceptors.size() );
+
+        for ( Interceptor interceptor : interceptors )
+        {
+            names.add( interceptor.getName() );
+        }
+
+        this.names = Collections.unmodifiableList( names );
+    }
+
+
+    /**
+     * @return The number of interceptors in the chain
+     */
+    public int size()
+    {
+        return interceptors.length;
+    }
+
+
+    /**
+     * Gets an interceptor from the chain.
+     *
+     * @param position The interceptor position, starting at 0
+     * @return The interceptor
+     */
+    public Interceptor get( int position )
+    {
+        return interceptors[position];
+    }
+
+
+    /**
+     * @return The names of the interceptors in the chain
+     */
+    public List<String> getNames()
+    {
+        return names;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return names.toString();
+    }
+}
@@ -31,6 +31,8 @@ import org.apache.directory.api.ldap.model.message.Control;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.interceptor.Interceptor;
+import org.apache.directory.server.core.api.interceptor.InterceptorChain;
 
 
 /**
@@ -64,6 +66,9 @@ public abstract class AbstractOperationContext implements OperationContext
     /** The interceptors to call for this operation */
     protected List<String> interceptors;
 
+    /** The chain of interceptors to call for this operation, used instead of the names when set */
+    protected InterceptorChain interceptorChain;
+
     /** The current interceptor position */
     protected int currentInterceptor;
 
@@ -295,6 +300,53 @@ public abstract class AbstractOperationContext implements OperationContext
     public final void setInterceptors( List<String> interceptors )
     {
         this.interceptors = interceptors;
+        this.interceptorChain = null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public final InterceptorChain getInterceptorChain()
+    {
+        return interceptorChain;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public final void setInterceptorChain( InterceptorChain interceptorChain )
+    {
+        this.interceptorChain = interceptorChain;
+        this.interceptors = null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public final Interceptor nextInterceptor()
+    {
+        if ( interceptorChain != null )
+        {
+            if ( currentInterceptor >= interceptorChain.size() )
+            {
+                return null;
+            }
+
+            return interceptorChain.get( currentInterceptor++ );
+        }
+
+        // The interceptors have been given by name
+        String interceptor = getNextInterceptor();
+
+        if ( interceptor.equals( "FINAL" ) )
+        {
+            return null;
+        }
+
+        return session.getDirectoryService().getInterceptor( interceptor );
     }
 
 
@@ -303,6 +355,16 @@ public abstract class AbstractOperationContext implements OperationContext
      */
     public final String getNextInterceptor()
     {
+        if ( interceptorChain != null )
+        {
+            if ( currentInterceptor >= interceptorChain.size() )
+            {
+                return "FINAL";
+            }
+
+            return interceptorChain.get( currentInterceptor++ ).getName();
+        }
+
         if ( currentInterceptor == interceptors.size() )
         {
             return "FINAL";
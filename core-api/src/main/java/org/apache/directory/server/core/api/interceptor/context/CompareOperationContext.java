@@ -61,7 +61,7 @@ public class CompareOperationContext extends AbstractOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.COMPARE ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.COMPARE ) );
         }
     }
 
@@ -77,7 +77,7 @@ public class CompareOperationContext extends AbstractOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.COMPARE ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.COMPARE ) );
         }
     }
 
@@ -94,7 +94,7 @@ public class CompareOperationContext extends AbstractOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.COMPARE ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.COMPARE ) );
         }
     }
 
@@ -111,7 +111,7 @@ public class CompareOperationContext extends AbstractOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.COMPARE ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.COMPARE ) );
         }
     }
 
@@ -129,7 +129,7 @@ public class CompareOperationContext extends AbstractOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.COMPARE ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.COMPARE ) );
         }
     }
 
@@ -143,7 +143,7 @@ public class CompareOperationContext extends AbstractOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.COMPARE ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.COMPARE ) );
         }
 
         if ( requestControls.containsKey( ManageDsaIT.OID ) )
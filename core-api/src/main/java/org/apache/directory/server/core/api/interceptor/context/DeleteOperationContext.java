@@ -46,7 +46,7 @@ public class DeleteOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.DELETE ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.DELETE ) );
         }
     }
 
@@ -62,7 +62,7 @@ public class DeleteOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.DELETE ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.DELETE ) );
         }
     }
 
@@ -73,7 +73,7 @@ public class DeleteOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.DELETE ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.DELETE ) );
         }
 
         requestControls = deleteRequest.getControls();
@@ -43,7 +43,7 @@ public class HasEntryOperationContext extends AbstractOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.HAS_ENTRY ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.HAS_ENTRY ) );
         }
     }
 
@@ -59,7 +59,7 @@ public class HasEntryOperationContext extends AbstractOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.HAS_ENTRY ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.HAS_ENTRY ) );
         }
     }
 
@@ -65,7 +65,7 @@ public class ModifyOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.MODIFY ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.MODIFY ) );
         }
     }
 
@@ -82,7 +82,7 @@ public class ModifyOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.MODIFY ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.MODIFY ) );
         }
 
         this.modItems = modItems;
@@ -95,7 +95,7 @@ public class ModifyOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.MODIFY ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.MODIFY ) );
         }
         else
         {
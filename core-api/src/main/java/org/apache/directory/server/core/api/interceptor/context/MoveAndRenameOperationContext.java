@@ -51,7 +51,7 @@ public class MoveAndRenameOperationContext extends RenameOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.MOVE_AND_RENAME ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.MOVE_AND_RENAME ) );
         }
     }
 
@@ -71,7 +71,7 @@ public class MoveAndRenameOperationContext extends RenameOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.MOVE_AND_RENAME ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.MOVE_AND_RENAME ) );
         }
 
         try
@@ -93,7 +93,7 @@ public class MoveAndRenameOperationContext extends RenameOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.MOVE_AND_RENAME ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.MOVE_AND_RENAME ) );
         }
 
         if ( newSuperiorDn == null )
@@ -61,7 +61,7 @@ public class MoveOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.MOVE ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.MOVE ) );
         }
     }
 
@@ -78,7 +78,7 @@ public class MoveOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.MOVE ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.MOVE ) );
         }
 
         try
@@ -99,7 +99,7 @@ public class MoveOperationContext extends AbstractChangeOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.MOVE ) );
+            setInterceptorChain( session.getDirectoryService().getInterceptorChain( OperationEnum.MOVE ) );
         }
 
         if ( newSuperior == null )
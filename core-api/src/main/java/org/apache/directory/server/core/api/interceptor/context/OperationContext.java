@@ -28,6 +28,8 @@ import org.apache.directory.api.ldap.model.message.Control;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.interceptor.Interceptor;
+import org.apache.directory.server.core.api.interceptor.InterceptorChain;
 
 
 /**
@@ -230,6 +232,30 @@ public interface OperationContext
     void setInterceptors( List<String> interceptors );
 
 
+    /**
+     * Gets the next interceptor in the chain of interceptors, and moves the
+     * position in the chain.
+     *
+     * @return The next interceptor, or null if all the interceptors have been called
+     */
+    Interceptor nextInterceptor();
+
+
+    /**
+     * @return The chain of interceptors to go through for this operation, or null if
+     * the interceptors are given by name
+     */
+    InterceptorChain getInterceptorChain();
+
+
+    /**
+     * Sets the chain of interceptors to go through for an operation
+     *
+     * @param interceptorChain The chain of interceptors
+     */
+    void setInterceptorChain( InterceptorChain interceptorChain );
+
+
     /**
      * Gets the session associated with this operation.
      *
@@ -0,0 +1,265 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * A latency histogram, with a fixed relative precision. The values below 32 ns are
+ * counted exactly, and each power of two above is split in 32 buckets, so that the
+ * percentiles are computed with an error lower than 3%. Recording a value is lock
+ * free and does not allocate anything.
+ * <br>
+ * The values are given in nanoseconds. The values above {@link #MAX_TRACKABLE_VALUE}
+ * are counted in the last bucket, but the maximum value is kept exactly.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LatencyHistogram
+{
+    /** The number of bits used to split each power of two */
+    private static final int SUB_BUCKET_BITS = 5;
+
+    /** The number of buckets for each power of two */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /** The highest exponent tracked by the buckets */
+    private static final int MAX_EXPONENT = 36;
+
+    /** The highest value tracked by the buckets, around 68 seconds */
+    public static final long MAX_TRACKABLE_VALUE = ( 1L << MAX_EXPONENT ) - 1;
+
+    /** The number of buckets */
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT * ( MAX_EXPONENT - SUB_BUCKET_BITS + 1 );
+
+    /** The number of values in each bucket */
+    private final AtomicLongArray buckets = new AtomicLongArray( BUCKET_COUNT );
+
+    /** The number of recorded values */
+    private final AtomicLong count = new AtomicLong();
+
+    /** The sum of the recorded values */
+    private final AtomicLong total = new AtomicLong();
+
+    /** The highest recorded value */
+    private final AtomicLong max = new AtomicLong();
+
+
+    /**
+     * Creates a new instance of LatencyHistogram.
+     */
+    public LatencyHistogram()
+    {
+    }
+
+
+    /**
+     * @return The index of the bucket counting a value
+     */
+    private static int getBucket( long value )
+    {
+        if ( value < SUB_BUCKET_COUNT )
+        {
+            return ( int ) value;
+        }
+
+        if ( value > MAX_TRACKABLE_VALUE )
+        {
+            return BUCKET_COUNT - 1;
+        }
+
+        int shift = 63 - Long.numberOfLeadingZeros( value ) - SUB_BUCKET_BITS;
+
+        // The shifted value is between SUB_BUCKET_COUNT and 2 * SUB_BUCKET_COUNT - 1
+        return ( shift + 1 ) * SUB_BUCKET_COUNT + ( int ) ( value >>> shift ) - SUB_BUCKET_COUNT;
+    }
+
+
+    /**
+     * @return The highest value counted by a bucket
+     */
+    private static long getHighestValue( int bucket )
+    {
+        if ( bucket < SUB_BUCKET_COUNT )
+        {
+            return bucket;
+        }
+
+        int shift = bucket / SUB_BUCKET_COUNT - 1;
+        long subBucket = bucket % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+
+        return ( ( subBucket + 1 ) << shift ) - 1;
+    }
+
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos The duration, in nanoseconds
+     */
+    public void record( long nanos )
+    {
+        if ( nanos < 0 )
+        {
+            // The clock went backward
+            nanos = 0;
+        }
+
+        buckets.incrementAndGet( getBucket( nanos ) );
+        count.incrementAndGet();
+        total.addAndGet( nanos );
+
+        long currentMax = max.get();
+
+        while ( ( nanos > currentMax ) && !max.compareAndSet( currentMax, nanos ) )
+        {
+            currentMax = max.get();
+        }
+    }
+
+
+    /**
+     * Records the time elapsed since a given start.
+     *
+     * @param startNanos The start, as returned by {@link System#nanoTime()}
+     */
+    public void recordSince( long startNanos )
+    {
+        record( System.nanoTime() - startNanos );
+    }
+
+
+    /**
+     * @return The number of recorded values
+     */
+    public long getCount()
+    {
+        return count.get();
+    }
+
+
+    /**
+     * @return The sum of the recorded values, in nanoseconds
+     */
+    public long getTotal()
+    {
+        return total.get();
+    }
+
+
+    /**
+     * @return The mean of the recorded values, in nanoseconds
+     */
+    public long getMean()
+    {
+        long nbValues = count.get();
+
+        if ( nbValues == 0 )
+        {
+            return 0L;
+        }
+
+        return total.get() / nbValues;
+    }
+
+
+    /**
+     * @return The highest recorded value, in nanoseconds
+     */
+    public long getMax()
+    {
+        return max.get();
+    }
+
+
+    /**
+     * Computes a percentile of the recorded values. The result is the highest value
+     * of the bucket containing the percentile, never above the maximum recorded value.
+     *
+     * @param percentile The percentile, between 0 and 100
+     * @return The value below which the given percentage of the values are, in nanoseconds
+     */
+    public long getValueAtPercentile( double percentile )
+    {
+        long nbValues = count.get();
+
+        if ( nbValues == 0 )
+        {
+            return 0L;
+        }
+
+        long rank = ( long ) Math.ceil( Math.min( percentile, 100d ) / 100d * nbValues );
+
+        if ( rank < 1 )
+        {
+            rank = 1;
+        }
+
+        long seen = 0L;
+
+        for ( int bucket = 0; bucket < BUCKET_COUNT; bucket++ )
+        {
+            seen += buckets.get( bucket );
+
+            if ( seen >= rank )
+            {
+                if ( bucket == BUCKET_COUNT - 1 )
+                {
+                    // The last bucket also counts the values above MAX_TRACKABLE_VALUE
+                    return max.get();
+                }
+
+                return Math.min( getHighestValue( bucket ), max.get() );
+            }
+        }
+
+        // Some values have been recorded while we were reading the buckets
+        return max.get();
+    }
+
+
+    /**
+     * Removes all the recorded values.
+     */
+    public void reset()
+    {
+        for ( int bucket = 0; bucket < BUCKET_COUNT; bucket++ )
+        {
+            buckets.set( bucket, 0L );
+        }
+
+        count.set( 0L );
+        total.set( 0L );
+        max.set( 0L );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return "count=" + getCount() + ", mean=" + getMean() + "ns, p99=" + getValueAtPercentile( 99d )
+            + "ns, max=" + getMax() + "ns";
+    }
+}
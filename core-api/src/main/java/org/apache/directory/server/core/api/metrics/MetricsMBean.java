@@ -0,0 +1,158 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+
+
+/**
+ * Exposes a {@link MetricsRegistry} over JMX. Each metric is a read only attribute,
+ * which name is the metric name. As the metrics are created while the server runs,
+ * the attributes list is computed each time it is requested. A "reset" operation
+ * clears the histograms.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class MetricsMBean implements DynamicMBean
+{
+    /** The name of the reset operation */
+    private static final String RESET_OPERATION = "reset";
+
+    /** The exposed registry */
+    private final MetricsRegistry registry;
+
+
+    /**
+     * Creates a new instance of MetricsMBean.
+     *
+     * @param registry The registry to expose
+     */
+    public MetricsMBean( MetricsRegistry registry )
+    {
+        this.registry = registry;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Object getAttribute( String attribute ) throws AttributeNotFoundException
+    {
+        Number value = registry.getMetrics().get( attribute );
+
+        if ( value == null )
+        {
+            throw new AttributeNotFoundException( attribute );
+        }
+
+        return value;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public AttributeList getAttributes( String[] attributes )
+    {
+        SortedMap<String, Number> metrics = registry.getMetrics();
+        AttributeList list = new AttributeList();
+
+        for ( String attribute : attributes )
+        {
+            Number value = metrics.get( attribute );
+
+            if ( value != null )
+            {
+                list.add( new Attribute( attribute, value ) );
+            }
+        }
+
+        return list;
+    }
+
+
+    /**
+     * The metrics are read only : throws an AttributeNotFoundException
+     */
+    public void setAttribute( Attribute attribute ) throws AttributeNotFoundException
+    {
+        throw new AttributeNotFoundException( "The metrics are read only : " + attribute.getName() );
+    }
+
+
+    /**
+     * The metrics are read only : no attribute is set
+     */
+    public AttributeList setAttributes( AttributeList attributes )
+    {
+        return new AttributeList();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Object invoke( String actionName, Object[] params, String[] signature ) throws ReflectionException
+    {
+        if ( RESET_OPERATION.equals( actionName ) )
+        {
+            registry.reset();
+
+            return null;
+        }
+
+        throw new ReflectionException( new NoSuchMethodException( actionName ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public MBeanInfo getMBeanInfo()
+    {
+        List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+
+        for ( Map.Entry<String, Number> metric : registry.getMetrics().entrySet() )
+        {
+            attributes.add( new MBeanAttributeInfo( metric.getKey(), metric.getValue().getClass().getName(),
+                metric.getKey(), true, false, false ) );
+        }
+
+        MBeanOperationInfo reset = new MBeanOperationInfo( RESET_OPERATION, "Resets the latency histograms", null,
+            "void", MBeanOperationInfo.ACTION );
+
+        return new MBeanInfo( getClass().getName(), "ApacheDS metrics",
+            attributes.toArray( new MBeanAttributeInfo[attributes.size()] ), null, new MBeanOperationInfo[]
+                { reset }, null );
+    }
+}
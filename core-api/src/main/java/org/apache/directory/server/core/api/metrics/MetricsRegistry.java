@@ -0,0 +1,233 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The metrics of a DirectoryService. It contains :
+ * <ul>
+ * <li>the latency histograms, recorded by the server while processing the operations</li>
+ * <li>the sources, which are asked for their current values when the metrics are read</li>
+ * </ul>
+ * All the metrics are read through {@link #getMetrics()}, as a flat map of dot separated
+ * names. The histograms are exposed as a few values (count, mean, percentiles and max),
+ * in microseconds.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class MetricsRegistry
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( MetricsRegistry.class );
+
+    /** The percentiles exposed for each histogram */
+    private static final double[] PERCENTILES = new double[]
+        { 50d, 90d, 99d, 99.9d };
+
+    /** The names of the exposed percentiles */
+    private static final String[] PERCENTILE_NAMES = new String[]
+        { "p50", "p90", "p99", "p999" };
+
+    /** The histograms, by name */
+    private final ConcurrentMap<String, LatencyHistogram> histograms =
+        new ConcurrentHashMap<String, LatencyHistogram>();
+
+    /** The registered sources */
+    private final CopyOnWriteArrayList<MetricsSource> sources = new CopyOnWriteArrayList<MetricsSource>();
+
+    /** Tells if the time spent in each interceptor is recorded. Off by default */
+    private volatile boolean interceptorTimingEnabled;
+
+
+    /**
+     * Creates a new instance of MetricsRegistry.
+     */
+    public MetricsRegistry()
+    {
+    }
+
+
+    /**
+     * Gets a histogram, creating it if it does not exist.
+     *
+     * @param name The histogram name
+     * @return The histogram
+     */
+    public LatencyHistogram getHistogram( String name )
+    {
+        LatencyHistogram histogram = histograms.get( name );
+
+        if ( histogram == null )
+        {
+            histogram = new LatencyHistogram();
+            LatencyHistogram existing = histograms.putIfAbsent( name, histogram );
+
+            if ( existing != null )
+            {
+                histogram = existing;
+            }
+        }
+
+        return histogram;
+    }
+
+
+    /**
+     * Removes the histograms which names start with a given prefix, when the component
+     * they measure is removed.
+     *
+     * @param prefix The prefix of the histograms to remove
+     */
+    public void removeHistograms( String prefix )
+    {
+        for ( String name : histograms.keySet() )
+        {
+            if ( name.startsWith( prefix ) )
+            {
+                histograms.remove( name );
+            }
+        }
+    }
+
+
+    /**
+     * @return A copy of the histograms, sorted by name
+     */
+    public SortedMap<String, LatencyHistogram> getHistograms()
+    {
+        return new TreeMap<String, LatencyHistogram>( histograms );
+    }
+
+
+    /**
+     * Registers a source. A source registered twice is only read once.
+     *
+     * @param source The source to add
+     */
+    public void addSource( MetricsSource source )
+    {
+        sources.addIfAbsent( source );
+    }
+
+
+    /**
+     * Unregisters a source.
+     *
+     * @param source The source to remove
+     */
+    public void removeSource( MetricsSource source )
+    {
+        sources.remove( source );
+    }
+
+
+    /**
+     * Reads all the metrics : the histograms values and the sources values.
+     *
+     * @return The metrics, sorted by name
+     */
+    public SortedMap<String, Number> getMetrics()
+    {
+        SortedMap<String, Number> metrics = new TreeMap<String, Number>();
+
+        for ( Map.Entry<String, LatencyHistogram> entry : histograms.entrySet() )
+        {
+            String name = entry.getKey();
+            LatencyHistogram histogram = entry.getValue();
+
+            metrics.put( name + ".count", histogram.getCount() );
+            metrics.put( name + ".mean", toMicros( histogram.getMean() ) );
+
+            for ( int i = 0; i < PERCENTILES.length; i++ )
+            {
+                metrics.put( name + "." + PERCENTILE_NAMES[i],
+                    toMicros( histogram.getValueAtPercentile( PERCENTILES[i] ) ) );
+            }
+
+            metrics.put( name + ".max", toMicros( histogram.getMax() ) );
+        }
+
+        for ( MetricsSource source : sources )
+        {
+            try
+            {
+                source.collectMetrics( metrics );
+            }
+            catch ( RuntimeException re )
+            {
+                // A failing source must not prevent the other metrics from being read
+                LOG.warn( "Failed to read the metrics of {}", source, re );
+            }
+        }
+
+        return metrics;
+    }
+
+
+    private static long toMicros( long nanos )
+    {
+        return nanos / 1000L;
+    }
+
+
+    /**
+     * Resets all the histograms.
+     */
+    public void reset()
+    {
+        for ( LatencyHistogram histogram : histograms.values() )
+        {
+            histogram.reset();
+        }
+    }
+
+
+    /**
+     * @return <tt>true</tt> if the time spent in each interceptor is recorded
+     */
+    public boolean isInterceptorTimingEnabled()
+    {
+        return interceptorTimingEnabled;
+    }
+
+
+    /**
+     * Enables or disables the recording of the time spent in each interceptor. The
+     * recorded time includes the time spent in the following interceptors and in the
+     * partition.
+     *
+     * @param interceptorTimingEnabled <tt>true</tt> to record the time spent in each interceptor
+     */
+    public void setInterceptorTimingEnabled( boolean interceptorTimingEnabled )
+    {
+        this.interceptorTimingEnabled = interceptorTimingEnabled;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+import java.util.Map;
+
+
+/**
+ * A component exposing some values, like cache hits or queue sizes, in the
+ * {@link MetricsRegistry}. The values are read each time the metrics are requested,
+ * so the component does not have to maintain anything else than its own counters.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public interface MetricsSource
+{
+    /**
+     * Adds the current values to a map. The names are dot separated : the part before
+     * the last dot is the group the value belongs to, for instance "cache.dnCache.hits".
+     *
+     * @param metrics The map to fill
+     */
+    void collectMetrics( Map<String, Number> metrics );
+}
@@ -0,0 +1,420 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.event.ExpressionEvaluator;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursorImpl;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.HasEntryOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.OperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.partition.AbstractPartition;
+import org.apache.directory.server.core.api.partition.Subordinates;
+
+
+/**
+ * A read only partition exposing the content of a {@link MetricsRegistry} under
+ * <tt>cn=monitor</tt>. Nothing is stored : the entries are built from the current
+ * metrics each time they are read.
+ * <br>
+ * The metrics are grouped by the part of their name before the last dot. Each group is
+ * an entry, which RDN is the group name, and which <tt>description</tt> values are the
+ * "name: value" pairs of the group. For instance, the <tt>cn=operation.search,cn=monitor</tt>
+ * entry contains the count, mean, percentiles and max latencies of the search operation.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class MonitorPartition extends AbstractPartition
+{
+    /** the fixed id: 'monitor' */
+    public static final String MONITOR_ID = "monitor";
+
+    /** The partition suffix */
+    public static final String MONITOR_DN = "cn=monitor";
+
+    /** The structural ObjectClass of the monitor entries */
+    private static final String APPLICATION_PROCESS_OC = "applicationProcess";
+
+    /** The exposed metrics */
+    private final MetricsRegistry registry;
+
+    /** The evaluator used to filter the entries */
+    private ExpressionEvaluator evaluator;
+
+
+    /**
+     * Creates a new instance of MonitorPartition.
+     *
+     * @param schemaManager The SchemaManager instance
+     * @param registry The metrics to expose
+     * @throws LdapInvalidDnException If the suffix can't be created
+     */
+    public MonitorPartition( SchemaManager schemaManager, MetricsRegistry registry ) throws LdapInvalidDnException
+    {
+        this.schemaManager = schemaManager;
+        this.registry = registry;
+        id = MONITOR_ID;
+        suffixDn = new Dn( schemaManager, MONITOR_DN );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doInit() throws Exception
+    {
+        evaluator = new ExpressionEvaluator( schemaManager );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doRepair() throws Exception
+    {
+        // Nothing to do
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doDestroy() throws Exception
+    {
+        // Nothing to do
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void sync() throws Exception
+    {
+        // Nothing is stored
+    }
+
+
+    /**
+     * Builds the entries for the current metrics.
+     *
+     * @return The metric group entries, by normalized Dn
+     */
+    private Map<String, Entry> getEntries() throws LdapException
+    {
+        SortedMap<String, List<String>> groups = new TreeMap<String, List<String>>();
+
+        for ( Map.Entry<String, Number> metric : registry.getMetrics().entrySet() )
+        {
+            String name = metric.getKey();
+            int pos = name.lastIndexOf( '.' );
+            String group = ( pos > 0 ) ? name.substring( 0, pos ) : name;
+            List<String> values = groups.get( group );
+
+            if ( values == null )
+            {
+                values = new ArrayList<String>();
+                groups.put( group, values );
+            }
+
+            values.add( name.substring( pos + 1 ) + ": " + metric.getValue() );
+        }
+
+        Map<String, Entry> entries = new TreeMap<String, Entry>();
+
+        for ( Map.Entry<String, List<String>> group : groups.entrySet() )
+        {
+            Dn dn = suffixDn.add( new Rdn( schemaManager, SchemaConstants.CN_AT, group.getKey() ) );
+            dn.apply( schemaManager );
+
+            Entry entry = createEntry( dn, group.getKey() );
+            List<String> values = group.getValue();
+            entry.add( SchemaConstants.DESCRIPTION_AT, values.toArray( new String[values.size()] ) );
+
+            entries.put( dn.getNormName(), entry );
+        }
+
+        return entries;
+    }
+
+
+    /**
+     * Creates an entry with the mandatory attributes
+     */
+    private Entry createEntry( Dn dn, String cn ) throws LdapException
+    {
+        Entry entry = new DefaultEntry( schemaManager, dn );
+        entry.add( SchemaConstants.OBJECT_CLASS_AT, SchemaConstants.TOP_OC, APPLICATION_PROCESS_OC );
+        entry.add( SchemaConstants.CN_AT, cn );
+
+        // A stable UUID, so that the entry can be identified between two reads
+        entry.add( SchemaConstants.ENTRY_UUID_AT,
+            UUID.nameUUIDFromBytes( Strings.getBytesUtf8( dn.getNormName() ) ).toString() );
+
+        return entry;
+    }
+
+
+    /**
+     * @return The context entry
+     */
+    private Entry getSuffixEntry() throws LdapException
+    {
+        Entry entry = createEntry( suffixDn, MONITOR_ID );
+        entry.add( SchemaConstants.DESCRIPTION_AT, "ApacheDS metrics" );
+
+        return entry;
+    }
+
+
+    /**
+     * @return The entry for a Dn, or null if it does not exist
+     */
+    private Entry getEntry( Dn dn ) throws LdapException
+    {
+        if ( dn.equals( suffixDn ) )
+        {
+            return getSuffixEntry();
+        }
+
+        return getEntries().get( dn.getNormName() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public EntryFilteringCursor search( SearchOperationContext searchContext ) throws LdapException
+    {
+        Dn base = searchContext.getDn();
+        SearchScope scope = searchContext.getScope();
+        List<Entry> candidates = new ArrayList<Entry>();
+
+        if ( base.equals( suffixDn ) )
+        {
+            if ( scope != SearchScope.ONELEVEL )
+            {
+                candidates.add( getSuffixEntry() );
+            }
+
+            if ( scope != SearchScope.OBJECT )
+            {
+                candidates.addAll( getEntries().values() );
+            }
+        }
+        else
+        {
+            Entry entry = getEntries().get( base.getNormName() );
+
+            if ( entry == null )
+            {
+                throw new LdapNoSuchObjectException( "No metric group for " + base.getName() );
+            }
+
+            if ( scope != SearchScope.ONELEVEL )
+            {
+                candidates.add( entry );
+            }
+        }
+
+        ExprNode filter = searchContext.getFilter();
+        List<Entry> results = new ArrayList<Entry>( candidates.size() );
+
+        for ( Entry candidate : candidates )
+        {
+            if ( evaluator.evaluate( filter, candidate.getDn(), candidate ) )
+            {
+                results.add( candidate );
+            }
+        }
+
+        return new EntryFilteringCursorImpl( new ListCursor<Entry>( results ), searchContext, schemaManager );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Entry lookup( LookupOperationContext lookupContext ) throws LdapException
+    {
+        return getEntry( lookupContext.getDn() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasEntry( HasEntryOperationContext hasEntryContext ) throws LdapException
+    {
+        return getEntry( hasEntryContext.getDn() ) != null;
+    }
+
+
+    /**
+     * The partition is read only
+     */
+    private LdapUnwillingToPerformException readOnly( OperationContext opContext )
+    {
+        return new LdapUnwillingToPerformException( ResultCodeEnum.UNWILLING_TO_PERFORM,
+            "The monitor partition is read only, cannot update " + opContext.getDn() );
+    }
+
+
+    /**
+     * Not supported : the partition is read only
+     */
+    public void add( AddOperationContext addContext ) throws LdapException
+    {
+        throw readOnly( addContext );
+    }
+
+
+    /**
+     * Not supported : the partition is read only
+     */
+    public Entry delete( DeleteOperationContext deleteContext ) throws LdapException
+    {
+        throw readOnly( deleteContext );
+    }
+
+
+    /**
+     * Not supported : the partition is read only
+     */
+    public void modify( ModifyOperationContext modifyContext ) throws LdapException
+    {
+        throw readOnly( modifyContext );
+    }
+
+
+    /**
+     * Not supported : the partition is read only
+     */
+    public void rename( RenameOperationContext renameContext ) throws LdapException
+    {
+        throw readOnly( renameContext );
+    }
+
+
+    /**
+     * Not supported : the partition is read only
+     */
+    public void move( MoveOperationContext moveContext ) throws LdapException
+    {
+        throw readOnly( moveContext );
+    }
+
+
+    /**
+     * Not supported : the partition is read only
+     */
+    public void moveAndRename( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
+    {
+        throw readOnly( moveAndRenameContext );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void unbind( UnbindOperationContext unbindContext ) throws LdapException
+    {
+        // Nothing to do
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getContextCsn()
+    {
+        return null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void saveContextCsn() throws Exception
+    {
+        // Nothing is stored
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Subordinates getSubordinates( Entry entry ) throws LdapException
+    {
+        Subordinates subordinates = new Subordinates();
+
+        if ( entry.getDn().equals( suffixDn ) )
+        {
+            long nbChildren = getEntries().size();
+            subordinates.setNbChildren( nbChildren );
+            subordinates.setNbSubordinates( nbChildren );
+        }
+
+        return subordinates;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return "Partition : " + MONITOR_ID;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.partition;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOperationErrorException;
+
+
+/**
+ * Lets a partition wait for its changes to be written on disk once the write operation
+ * has released its locks, so that the concurrent writers can share the same disk flush.
+ * <br>
+ * The OperationManager calls {@link #begin()} before a write operation, and {@link #end()}
+ * once its locks are released. The waits registered in between with {@link #await(Waiter)}
+ * are done in {@link #end()}. Outside of such an operation, the waits are done immediately.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class DeferredSync
+{
+    /** The deferred waits of the current thread */
+    private static final ThreadLocal<DeferredSync> CURRENT = new ThreadLocal<DeferredSync>();
+
+    /** The number of nested write operations */
+    private int depth;
+
+    /** The waits to do when the outermost operation ends */
+    private final List<Waiter> waiters = new ArrayList<Waiter>();
+
+
+    /**
+     * Waits until some changes are written on disk
+     */
+    public interface Waiter
+    {
+        /**
+         * Waits until the changes are written on disk.
+         *
+         * @throws Exception If the changes can't be written
+         */
+        void await() throws Exception;
+    }
+
+
+    private DeferredSync()
+    {
+    }
+
+
+    /**
+     * Starts a write operation on the current thread.
+     */
+    public static void begin()
+    {
+        DeferredSync deferredSync = CURRENT.get();
+
+        if ( deferredSync == null )
+        {
+            deferredSync = new DeferredSync();
+            CURRENT.set( deferredSync );
+        }
+
+        deferredSync.depth++;
+    }
+
+
+    /**
+     * Ends a write operation on the current thread. If it's the outermost operation, waits
+     * until all the changes done by the operation are written on disk.
+     *
+     * @throws LdapException If the changes can't be written
+     */
+    public static void end() throws LdapException
+    {
+        DeferredSync deferredSync = CURRENT.get();
+
+        if ( deferredSync == null )
+        {
+            return;
+        }
+
+        deferredSync.depth--;
+
+        if ( deferredSync.depth > 0 )
+        {
+            return;
+        }
+
+        CURRENT.remove();
+
+        for ( Waiter waiter : deferredSync.waiters )
+        {
+            doAwait( waiter );
+        }
+    }
+
+
+    /**
+     * Waits until some changes are written on disk. The wait is deferred to the end of the
+     * current write operation if there is one.
+     *
+     * @param waiter The wait to do
+     * @throws LdapException If the changes can't be written
+     */
+    public static void await( Waiter waiter ) throws LdapException
+    {
+        DeferredSync deferredSync = CURRENT.get();
+
+        if ( deferredSync == null )
+        {
+            doAwait( waiter );
+        }
+        else
+        {
+            deferredSync.waiters.add( waiter );
+        }
+    }
+
+
+    private static void doAwait( Waiter waiter ) throws LdapException
+    {
+        try
+        {
+            waiter.await();
+        }
+        catch ( LdapException le )
+        {
+            throw le;
+        }
+        catch ( Exception e )
+        {
+            throw new LdapOperationErrorException( e.getMessage(), e );
+        }
+    }
+}
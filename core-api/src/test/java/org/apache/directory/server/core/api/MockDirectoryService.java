@@ -43,7 +43,9 @@ import org.apache.directory.server.core.api.administrative.TriggerExecutionAdmin
 import org.apache.directory.server.core.api.changelog.ChangeLog;
 import org.apache.directory.server.core.api.event.EventService;
 import org.apache.directory.server.core.api.interceptor.Interceptor;
+import org.apache.directory.server.core.api.interceptor.InterceptorChain;
 import org.apache.directory.server.core.api.journal.Journal;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.api.schema.SchemaPartition;
@@ -437,6 +439,18 @@ public class MockDirectoryService implements DirectoryService
     }
 
 
+    public long getSortMemoryBudget()
+    {
+        return Long.MAX_VALUE;
+    }
+
+
+    public void setSortMemoryBudget( long sortMemoryBudget )
+    {
+        // Do nothing
+    }
+
+
     public Interceptor getInterceptor( String interceptorName )
     {
         return null;
@@ -586,6 +600,14 @@ public class MockDirectoryService implements DirectoryService
     }
 
 
+    @Override
+    public InterceptorChain getInterceptorChain( OperationEnum operation )
+    {
+        // The mock has no interceptor, see getInterceptors()
+        return InterceptorChain.EMPTY;
+    }
+
+
     @Override
     public void addFirst( Interceptor interceptor ) throws LdapException
     {
@@ -635,4 +657,11 @@ public class MockDirectoryService implements DirectoryService
     {
         return null;
     }
+
+
+    @Override
+    public MetricsRegistry getMetricsRegistry()
+    {
+        return null;
+    }
 }
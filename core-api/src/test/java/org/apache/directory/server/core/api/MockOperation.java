@@ -33,6 +33,8 @@ import org.apache.directory.server.core.api.LdapPrincipal;
 import org.apache.directory.server.core.api.ReferralHandlingMode;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursorImpl;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.Interceptor;
+import org.apache.directory.server.core.api.interceptor.InterceptorChain;
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.OperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
@@ -239,4 +241,24 @@ public class MockOperation implements OperationContext
     public void setCurrentInterceptor( int currentInterceptor )
     {
     }
+
+
+    @Override
+    public Interceptor nextInterceptor()
+    {
+        return null;
+    }
+
+
+    @Override
+    public InterceptorChain getInterceptorChain()
+    {
+        return null;
+    }
+
+
+    @Override
+    public void setInterceptorChain( InterceptorChain interceptorChain )
+    {
+    }
 }
@@ -25,6 +25,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursorImpl;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
@@ -135,6 +136,23 @@ public class MockOperationManager implements OperationManager
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    public ReadWriteLock lockWrite( Dn dn )
+    {
+        return new ReentrantReadWriteLock();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void unlockWrite( ReadWriteLock partitionLock, boolean succeeded )
+    {
+    }
+
+
     @Override
     public void lockRead()
     {
@@ -154,4 +172,21 @@ public class MockOperationManager implements OperationManager
     {
         return new ReentrantReadWriteLock();
     }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public ReadWriteLock getRWLock( Dn dn )
+    {
+        return new ReentrantReadWriteLock();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void removeRWLock( Dn suffixDn )
+    {
+    }
 }
@@ -0,0 +1,82 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.interceptor;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.directory.server.core.api.MockInterceptor;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.junit.Test;
+
+
+/**
+ * Test the walk through an InterceptorChain
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class InterceptorChainTest
+{
+    @Test
+    public void testNextInterceptor()
+    {
+        Interceptor first = new MockInterceptor( "first", new ArrayList<MockInterceptor>() );
+        Interceptor second = new MockInterceptor( "second", new ArrayList<MockInterceptor>() );
+        InterceptorChain chain = new InterceptorChain( Arrays.asList( first, second ) );
+
+        assertEquals( 2, chain.size() );
+        assertEquals( Arrays.asList( "first", "second" ), chain.getNames() );
+
+        AddOperationContext addContext = new AddOperationContext( null );
+        addContext.setInterceptorChain( chain );
+
+        assertSame( first, addContext.nextInterceptor() );
+        assertSame( second, addContext.nextInterceptor() );
+        assertNull( addContext.nextInterceptor() );
+        assertEquals( "FINAL", addContext.getNextInterceptor() );
+
+        // Restart after the first interceptor
+        addContext.setCurrentInterceptor( 1 );
+
+        assertEquals( "second", addContext.getNextInterceptor() );
+    }
+
+
+    @Test
+    public void testEmptyChain()
+    {
+        InterceptorChain chain = new InterceptorChain( new ArrayList<Interceptor>() );
+        List<String> names = chain.getNames();
+
+        assertEquals( 0, chain.size() );
+        assertEquals( 0, names.size() );
+
+        AddOperationContext addContext = new AddOperationContext( null );
+        addContext.setInterceptorChain( chain );
+
+        assertNull( addContext.nextInterceptor() );
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.metrics;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.SortedMap;
+
+import org.junit.Test;
+
+
+/**
+ * Test the latency histograms and the metrics registry
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LatencyHistogramTest
+{
+    @Test
+    public void testPercentiles()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for ( long value = 1; value <= 100000; value++ )
+        {
+            histogram.record( value * 1000L );
+        }
+
+        assertEquals( 100000, histogram.getCount() );
+        assertEquals( 100000000L, histogram.getMax() );
+        assertEquals( 50000500L, histogram.getMean() );
+
+        // The relative error is below 1/32
+        long p50 = histogram.getValueAtPercentile( 50d );
+        assertTrue( Math.abs( p50 - 50000000L ) <= 50000000L / 32 );
+
+        long p99 = histogram.getValueAtPercentile( 99d );
+        assertTrue( Math.abs( p99 - 99000000L ) <= 99000000L / 32 );
+
+        assertEquals( histogram.getMax(), histogram.getValueAtPercentile( 100d ) );
+
+        histogram.reset();
+
+        assertEquals( 0, histogram.getCount() );
+        assertEquals( 0L, histogram.getValueAtPercentile( 99d ) );
+    }
+
+
+    @Test
+    public void testSmallAndHugeValues()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        // Exact below 32 ns
+        histogram.record( 7L );
+        assertEquals( 7L, histogram.getValueAtPercentile( 50d ) );
+
+        // Above the trackable values, only the max is exact
+        histogram.record( Long.MAX_VALUE / 2 );
+        assertEquals( Long.MAX_VALUE / 2, histogram.getMax() );
+        assertEquals( Long.MAX_VALUE / 2, histogram.getValueAtPercentile( 100d ) );
+
+        // A negative duration is counted as 0
+        histogram.record( -5L );
+        assertEquals( 0L, histogram.getValueAtPercentile( 1d ) );
+    }
+
+
+    @Test
+    public void testRegistry()
+    {
+        MetricsRegistry registry = new MetricsRegistry();
+        LatencyHistogram histogram = registry.getHistogram( "operation.search" );
+
+        assertSame( histogram, registry.getHistogram( "operation.search" ) );
+
+        histogram.record( 2000L );
+        registry.addSource( new MetricsSource()
+        {
+            public void collectMetrics( Map<String, Number> metrics )
+            {
+                metrics.put( "cache.test.hits", 3L );
+            }
+        } );
+
+        SortedMap<String, Number> metrics = registry.getMetrics();
+
+        assertEquals( 1L, metrics.get( "operation.search.count" ) );
+        assertEquals( 2L, metrics.get( "operation.search.max" ) );
+        assertEquals( 3L, metrics.get( "cache.test.hits" ) );
+
+        registry.removeHistograms( "operation." );
+
+        assertEquals( null, registry.getMetrics().get( "operation.search.count" ) );
+    }
+}
@@ -361,6 +361,49 @@ public class SortedSearchIT extends AbstractLdapTestUnit
     }
 
 
+    @Test
+    public void testSortByMultipleKeys() throws Exception
+    {
+        // user0 and user2 both have "user0" as their smallest uid value, the second key
+        // sorts them by reverse sn
+        sk.setAttributeTypeDesc( "uid" );
+        ctrl.addSortKey( new SortKey( "sn", null, true ) );
+        SearchCursor cursor = connection.search( req );
+
+        List<String> expectedOrder = new ArrayList<String>();
+        expectedOrder.add( "uid=person1,ou=parent,ou=system" );
+        expectedOrder.add( "uid=person2,ou=parent,ou=system" );
+        expectedOrder.add( "uid=person3,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user2,ou=children,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user0,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user1,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user3,ou=children,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user4,ou=grandchildren,ou=children,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user5,ou=grandchildren,ou=children,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user6,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user7,ou=parent,ou=system" );
+
+        List<String> actualOrder = new ArrayList<String>();
+
+        while ( cursor.next() )
+        {
+            SearchResultEntry se = ( SearchResultEntry ) cursor.get();
+            Entry entry = se.getEntry();
+            actualOrder.add( entry.getDn().getName() );
+        }
+
+        cursor.close();
+
+        // remove the LAST 3 entries present in the actualOrder list, they don't have any "uid" attribute
+        // NOTE: there is no guaranteed order for these LAST 3 entries
+        actualOrder.remove( actualOrder.size() - 1 );
+        actualOrder.remove( actualOrder.size() - 1 );
+        actualOrder.remove( actualOrder.size() - 1 );
+
+        assertEquals( expectedOrder, actualOrder );
+    }
+
+
     @Test
     public void testSortByDn() throws Exception
     {
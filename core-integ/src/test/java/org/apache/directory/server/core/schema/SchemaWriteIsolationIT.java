@@ -0,0 +1,269 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.schema;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Tests that the schema partition is isolated from the operations applied on the other
+ * partitions : a schema modify waits for the running searches, and the searches wait for
+ * a running schema modify.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(name = "SchemaWriteIsolationIT", additionalInterceptors =
+    { SchemaWriteIsolationIT.PausingInterceptor.class })
+public class SchemaWriteIsolationIT extends AbstractLdapTestUnit
+{
+    private static final long WAIT = 10L;
+
+    /** The core schema */
+    private static final String CORE_SCHEMA_DN = "cn=core,ou=schema";
+
+    /** The operations on this Dn are paused by the interceptor */
+    private static volatile Dn pausedDn;
+
+    /** Released by the interceptor when it pauses an operation */
+    private static volatile CountDownLatch paused;
+
+    /** Releases the paused operation */
+    private static volatile CountDownLatch resume;
+
+    private ExecutorService executor;
+
+
+    /**
+     * An interceptor pausing the search or modify operations applied on a Dn, while
+     * they hold their locks.
+     */
+    public static class PausingInterceptor extends BaseInterceptor
+    {
+        public PausingInterceptor()
+        {
+            super( "pausingInterceptor" );
+        }
+
+
+        private void pause( Dn dn ) throws LdapException
+        {
+            if ( dn.equals( pausedDn ) )
+            {
+                paused.countDown();
+
+                try
+                {
+                    resume.await();
+                }
+                catch ( InterruptedException ie )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+
+        public EntryFilteringCursor search( SearchOperationContext searchContext ) throws LdapException
+        {
+            pause( searchContext.getDn() );
+
+            return next( searchContext );
+        }
+
+
+        public void modify( ModifyOperationContext modifyContext ) throws LdapException
+        {
+            pause( modifyContext.getDn() );
+
+            next( modifyContext );
+        }
+    }
+
+
+    @Before
+    public void init()
+    {
+        executor = Executors.newCachedThreadPool();
+    }
+
+
+    @After
+    public void shutdown()
+    {
+        if ( resume != null )
+        {
+            resume.countDown();
+        }
+
+        pausedDn = null;
+        executor.shutdownNow();
+    }
+
+
+    /**
+     * Pauses the operations applied on a Dn
+     */
+    private void pauseOn( String dn ) throws Exception
+    {
+        paused = new CountDownLatch( 1 );
+        resume = new CountDownLatch( 1 );
+        pausedDn = new Dn( getService().getSchemaManager(), dn );
+    }
+
+
+    /**
+     * Searches for an entry in another thread
+     */
+    private Future<Integer> searchLater( final String dn )
+    {
+        return executor.submit( new Callable<Integer>()
+        {
+            public Integer call() throws Exception
+            {
+                CoreSession session = getService().getAdminSession();
+                Cursor<Entry> cursor = session.search( new Dn( dn ), SearchScope.OBJECT,
+                    new PresenceNode( "objectClass" ), AliasDerefMode.DEREF_ALWAYS, "*" );
+                int count = 0;
+
+                try
+                {
+                    while ( cursor.next() )
+                    {
+                        count++;
+                    }
+                }
+                finally
+                {
+                    cursor.close();
+                }
+
+                return count;
+            }
+        } );
+    }
+
+
+    /**
+     * Modifies the dependencies of the core schema in another thread
+     */
+    private Future<Void> modifySchemaLater()
+    {
+        return executor.submit( new Callable<Void>()
+        {
+            public Void call() throws Exception
+            {
+                CoreSession session = getService().getAdminSession();
+                session.modify( new Dn( CORE_SCHEMA_DN ), new DefaultModification(
+                    ModificationOperation.REPLACE_ATTRIBUTE, "m-dependencies", "system" ) );
+
+                return null;
+            }
+        } );
+    }
+
+
+    /**
+     * Checks that an operation waits for another one
+     */
+    private static void assertWaiting( Future<?> future ) throws Exception
+    {
+        try
+        {
+            future.get( 200L, TimeUnit.MILLISECONDS );
+            fail();
+        }
+        catch ( TimeoutException te )
+        {
+            // Expected
+        }
+    }
+
+
+    @Test
+    public void testSchemaModifyWaitsForSearch() throws Exception
+    {
+        pauseOn( "ou=system" );
+
+        // A search on ou=system holds its locks
+        Future<Integer> search = searchLater( "ou=system" );
+        assertTrue( paused.await( WAIT, TimeUnit.SECONDS ) );
+
+        // The schema modify waits for it
+        Future<Void> modify = modifySchemaLater();
+        assertWaiting( modify );
+
+        resume.countDown();
+        assertEquals( 1, search.get( WAIT, TimeUnit.SECONDS ).intValue() );
+        modify.get( WAIT, TimeUnit.SECONDS );
+    }
+
+
+    @Test
+    public void testSearchWaitsForSchemaModify() throws Exception
+    {
+        pauseOn( CORE_SCHEMA_DN );
+
+        // A schema modify holds its locks
+        Future<Void> modify = modifySchemaLater();
+        assertTrue( paused.await( WAIT, TimeUnit.SECONDS ) );
+
+        // A search on another partition waits for it
+        Future<Integer> search = searchLater( "ou=system" );
+        assertWaiting( search );
+
+        resume.countDown();
+        modify.get( WAIT, TimeUnit.SECONDS );
+        assertEquals( 1, search.get( WAIT, TimeUnit.SECONDS ).intValue() );
+    }
+}
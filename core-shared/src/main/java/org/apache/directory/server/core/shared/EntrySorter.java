@@ -0,0 +1,315 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.shared;
+
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Sorts the entries of a search. The entries are sorted in memory as long as they fit
+ * in the memory budget. Past this budget, they are written to disk in sorted runs,
+ * which are merged when the sorted entries are read.
+ * <br>
+ * When a size limit is given, only the first entries are kept, in a bounded heap.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class EntrySorter
+{
+    private static final Logger LOG = LoggerFactory.getLogger( EntrySorter.class );
+
+    /** The estimated memory used by an entry, an attribute or a value, besides its content */
+    private static final int OVERHEAD = 64;
+
+    /** The comparator used to sort the entries */
+    private final Comparator<Entry> comparator;
+
+    /** The estimated number of bytes the entries can use before they are written to disk */
+    private final long memoryBudget;
+
+    /** The maximum number of entries to return, 0 if there is no limit */
+    private final long sizeLimit;
+
+
+    /**
+     * An entry, with its position in the unsorted entries
+     */
+    private static final class RankedEntry
+    {
+        private final Entry entry;
+        private final long rank;
+
+
+        private RankedEntry( Entry entry, long rank )
+        {
+            this.entry = entry;
+            this.rank = rank;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of EntrySorter.
+     *
+     * @param comparator The comparator used to sort the entries
+     * @param memoryBudget The estimated number of bytes the entries can use in memory
+     * @param sizeLimit The maximum number of entries to return, 0 if there is no limit
+     */
+    EntrySorter( Comparator<Entry> comparator, long memoryBudget, long sizeLimit )
+    {
+        this.comparator = comparator;
+        this.memoryBudget = memoryBudget;
+        this.sizeLimit = sizeLimit;
+    }
+
+
+    /**
+     * Reads all the unsorted entries, and returns a cursor on the sorted entries.
+     * The unsorted entries cursor is closed.
+     *
+     * @param unsortedEntries the cursor containing the un-sorted entries
+     * @return a cursor containing the sorted entries
+     */
+    Cursor<Entry> sort( Cursor<Entry> unsortedEntries ) throws CursorException, LdapException, IOException
+    {
+        unsortedEntries.beforeFirst();
+
+        try
+        {
+            if ( ( sizeLimit > 0 ) && ( sizeLimit < Integer.MAX_VALUE ) )
+            {
+                // Keep one more entry than the limit, so that the caller can tell it has been exceeded
+                return sortTop( unsortedEntries, ( int ) sizeLimit + 1 );
+            }
+
+            return sortAll( unsortedEntries );
+        }
+        finally
+        {
+            unsortedEntries.close();
+        }
+    }
+
+
+    /**
+     * Keeps the first entries only, in a heap with the last kept entry on top
+     */
+    private Cursor<Entry> sortTop( Cursor<Entry> unsortedEntries, int maxEntries ) throws CursorException,
+        LdapException
+    {
+        Comparator<RankedEntry> rankedComparator = new Comparator<RankedEntry>()
+        {
+            public int compare( RankedEntry entry1, RankedEntry entry2 )
+            {
+                int c = comparator.compare( entry1.entry, entry2.entry );
+
+                if ( c == 0 )
+                {
+                    return entry1.rank < entry2.rank ? -1 : ( entry1.rank > entry2.rank ? 1 : 0 );
+                }
+
+                return c;
+            }
+        };
+
+        PriorityQueue<RankedEntry> heap = new PriorityQueue<RankedEntry>( Math.min( maxEntries, 1024 ),
+            Collections.reverseOrder( rankedComparator ) );
+        long rank = 0L;
+
+        while ( unsortedEntries.next() )
+        {
+            RankedEntry candidate = new RankedEntry( unsortedEntries.get(), rank++ );
+
+            if ( heap.size() < maxEntries )
+            {
+                heap.add( candidate );
+            }
+            else if ( rankedComparator.compare( candidate, heap.peek() ) < 0 )
+            {
+                heap.poll();
+                heap.add( candidate );
+            }
+        }
+
+        List<RankedEntry> ranked = new ArrayList<RankedEntry>( heap );
+        Collections.sort( ranked, rankedComparator );
+
+        List<Entry> entries = new ArrayList<Entry>( ranked.size() );
+
+        for ( RankedEntry rankedEntry : ranked )
+        {
+            entries.add( rankedEntry.entry );
+        }
+
+        return new SortedEntryCursor( entries );
+    }
+
+
+    /**
+     * Sorts all the entries, writing sorted runs to disk when they don't fit in memory
+     */
+    private Cursor<Entry> sortAll( Cursor<Entry> unsortedEntries ) throws CursorException, LdapException,
+        IOException
+    {
+        List<Entry> entries = new ArrayList<Entry>();
+        List<File> runs = new ArrayList<File>();
+        long memory = 0L;
+
+        try
+        {
+            while ( unsortedEntries.next() )
+            {
+                Entry entry = unsortedEntries.get();
+                entries.add( entry );
+                memory += estimateSize( entry );
+
+                if ( memory > memoryBudget )
+                {
+                    runs.add( writeRun( entries ) );
+                    entries.clear();
+                    memory = 0L;
+                }
+            }
+
+            if ( runs.isEmpty() )
+            {
+                // Collections.sort is stable : the entries with the same keys keep their order
+                Collections.sort( entries, comparator );
+
+                return new SortedEntryCursor( entries );
+            }
+
+            if ( !entries.isEmpty() )
+            {
+                runs.add( writeRun( entries ) );
+            }
+
+            LOG.debug( "The sorted entries have been written in {} runs", runs.size() );
+
+            return new SortedRunsCursor( runs, comparator );
+        }
+        catch ( IOException ioe )
+        {
+            deleteRuns( runs );
+            throw ioe;
+        }
+        catch ( CursorException ce )
+        {
+            deleteRuns( runs );
+            throw ce;
+        }
+        catch ( LdapException le )
+        {
+            deleteRuns( runs );
+            throw le;
+        }
+    }
+
+
+    /**
+     * Sorts the entries, and writes them in a temporary file. The file contains the number
+     * of entries, followed by each serialized entry, prefixed by its length.
+     */
+    private File writeRun( List<Entry> entries ) throws IOException
+    {
+        Collections.sort( entries, comparator );
+
+        File run = File.createTempFile( "sorted-entries", ".run" );
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( run ) ) );
+        SortedEntrySerializer serializer = new SortedEntrySerializer();
+
+        try
+        {
+            out.writeInt( entries.size() );
+
+            for ( Entry entry : entries )
+            {
+                byte[] bytes = serializer.serialize( entry );
+                out.writeInt( bytes.length );
+                out.write( bytes );
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+
+        return run;
+    }
+
+
+    private void deleteRuns( List<File> runs )
+    {
+        for ( File run : runs )
+        {
+            run.delete();
+        }
+    }
+
+
+    /**
+     * Estimates the memory used by an entry. We don't need an exact value, it's only
+     * used to decide when to write the entries to disk.
+     */
+    private static long estimateSize( Entry entry )
+    {
+        long size = OVERHEAD + 2L * entry.getDn().getName().length();
+
+        for ( Attribute attribute : entry )
+        {
+            size += OVERHEAD;
+
+            for ( Value<?> value : attribute )
+            {
+                size += OVERHEAD;
+
+                if ( value.isHumanReadable() )
+                {
+                    size += 2L * value.getString().length();
+                }
+                else
+                {
+                    size += value.getBytes().length;
+                }
+            }
+        }
+
+        return size;
+    }
+}
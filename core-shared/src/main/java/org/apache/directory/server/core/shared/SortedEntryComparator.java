@@ -22,168 +22,206 @@ package org.apache.directory.server.core.shared;
 
 import java.io.Serializable;
 import java.util.Comparator;
+import java.util.List;
 import java.util.TreeSet;
 
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.LdapComparator;
 import org.apache.directory.api.ldap.model.schema.MatchingRule;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 
 /**
- * A comparator to sort the entries as per <a href="http://tools.ietf.org/html/rfc2891">RFC 2891</a>
+ * A comparator to sort the entries as per <a href="http://tools.ietf.org/html/rfc2891">RFC 2891</a>.
+ * The entries are compared using each sort key in turn, until they differ.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
 class SortedEntryComparator implements Comparator<Entry>, Serializable
 {
+    /** The comparators for each sort key, in order */
+    private final KeyComparator[] keyComparators;
 
-    /** the attribute's type */
-    private transient AttributeType type;
 
-    /** comparator used for comparing the values of the given attribute type */
-    private transient LdapComparator comparator;
+    /**
+     * The comparator for one sort key
+     */
+    private static final class KeyComparator implements Serializable
+    {
+        /** the attribute's type */
+        private transient AttributeType type;
 
-    /** flag to indicate if the attribute type is multivalued */
-    private boolean multivalued;
+        /** comparator used for comparing the values of the given attribute type */
+        private transient LdapComparator comparator;
 
-    /** flag for indicating the order of sorting */
-    private boolean reverse;
+        /** flag to indicate if the attribute type is multivalued */
+        private boolean multivalued;
 
-    /** flag to indicate if the attribute is human readable or binary */
-    private boolean hr;
+        /** flag for indicating the order of sorting */
+        private boolean reverse;
 
+        /** flag to indicate if the attribute is human readable or binary */
+        private boolean hr;
 
-    /**
-     * 
-     * Creates a new instance of SortedEntryComparator.
-     *
-     * @param at the attribute's type
-     * @param mrOid the OID or name of the matchingrule
-     * @param reverse flag to indicate the sort order
-     */
-    SortedEntryComparator( AttributeType at, String mrule, boolean reverse, SchemaManager schemaManager ) throws LdapException
-    {
-        this.type = at;
-        this.reverse = reverse;
 
-        if ( !at.isSingleValued() )
+        private KeyComparator( AttributeType at, String mrule, boolean reverse, SchemaManager schemaManager )
+            throws LdapException
         {
-            multivalued = true;
-        }
-
-        hr = at.getSyntax().isHumanReadable();
+            this.type = at;
+            this.reverse = reverse;
 
-        if ( mrule != null )
-        {
-            comparator = schemaManager.lookupComparatorRegistry( mrule );
-        }
-        else
-        {
-            MatchingRule mr = at.getOrdering();
-            
-            if ( mr == null )
+            if ( !at.isSingleValued() )
             {
-                mr = at.getEquality();
+                multivalued = true;
             }
-            
-            comparator = schemaManager.lookupComparatorRegistry( mr.getOid() );
-        }
-        
-        ( ( LdapComparator ) comparator ).setSchemaManager( schemaManager );
-    }
 
+            hr = at.getSyntax().isHumanReadable();
 
-    @Override
-    public int compare( Entry entry1, Entry entry2 )
-    {
-        Attribute at1 = entry1.get( type );
+            if ( mrule != null )
+            {
+                comparator = schemaManager.lookupComparatorRegistry( mrule );
+            }
+            else
+            {
+                MatchingRule mr = at.getOrdering();
 
-        Attribute at2 = entry2.get( type );
+                if ( mr == null )
+                {
+                    mr = at.getEquality();
+                }
 
-        // as per section 2.2 of the spec null values are considered larger
-        if ( at1 == null )
-        {
-            return ( reverse ? -1 : 1 );
-        }
-        else if ( at2 == null )
-        {
-            return ( reverse ? 1 : -1 );
+                comparator = schemaManager.lookupComparatorRegistry( mr.getOid() );
+            }
+
+            ( ( LdapComparator ) comparator ).setSchemaManager( schemaManager );
         }
 
-        Object o1 = null;
-        Object o2 = null;
 
-        if ( multivalued )
+        private int compare( Entry entry1, Entry entry2 )
         {
-            TreeSet ts = new TreeSet( comparator );
+            Attribute at1 = entry1.get( type );
 
-            o1 = sortAndGetFirst( at1, ts );
+            Attribute at2 = entry2.get( type );
 
-            ts.clear();
-            o2 = sortAndGetFirst( at2, ts );
-        }
-        else
-        {
-            Value<?> v1 = at1.get();
-            Value<?> v2 = at2.get();
+            // as per section 2.2 of the spec null values are considered larger
+            if ( at1 == null )
+            {
+                if ( at2 == null )
+                {
+                    return 0;
+                }
 
-            if ( hr )
+                return ( reverse ? -1 : 1 );
+            }
+            else if ( at2 == null )
             {
-                o1 = v1.getString();
-                o2 = v2.getString();
+                return ( reverse ? 1 : -1 );
+            }
+
+            Object o1 = null;
+            Object o2 = null;
+
+            if ( multivalued )
+            {
+                TreeSet ts = new TreeSet( comparator );
+
+                o1 = sortAndGetFirst( at1, ts );
+
+                ts.clear();
+                o2 = sortAndGetFirst( at2, ts );
             }
             else
             {
-                o1 = v1.getBytes();
-                o2 = v2.getBytes();
+                Value<?> v1 = at1.get();
+                Value<?> v2 = at2.get();
+
+                if ( hr )
+                {
+                    o1 = v1.getString();
+                    o2 = v2.getString();
+                }
+                else
+                {
+                    o1 = v1.getBytes();
+                    o2 = v2.getBytes();
+                }
+            }
+
+            if ( reverse )
+            {
+                return comparator.compare( o2, o1 );
+            }
+            else
+            {
+                return comparator.compare( o1, o2 );
             }
         }
 
-        int c = 1;
 
-        if ( reverse )
-        {
-            c = comparator.compare( o2, o1 );
-        }
-        else
+        /**
+         * sorts the values of an attribute and picks the least value
+         * 
+         * @param at the attribute
+         * @param ts the TreeSet for sorting 
+         * @return the least value among the values of the attribute
+         */
+        private Object sortAndGetFirst( Attribute at, TreeSet ts )
         {
-            c = comparator.compare( o1, o2 );
-        }
+            for ( Value v : at )
+            {
+                if ( hr )
+                {
+                    ts.add( v.getString() );
+                }
+                else
+                {
+                    ts.add( v.getBytes() );
+                }
+            }
 
-        if ( c == 0 )
-        {
-            return 1;
+            return ts.first();
         }
-
-        return c;
     }
 
 
     /**
-     * sorts the values of an attribute and picks the least value
      * 
-     * @param at the attribute
-     * @param ts the TreeSet for sorting 
-     * @return the least value among the values of the attribute
+     * Creates a new instance of SortedEntryComparator.
+     *
+     * @param sortKeys the sort keys, the most significant first
+     * @param schemaManager the schema manager
      */
-    private Object sortAndGetFirst( Attribute at, TreeSet ts )
+    SortedEntryComparator( List<SortKey> sortKeys, SchemaManager schemaManager ) throws LdapException
     {
-        for ( Value v : at )
+        keyComparators = new KeyComparator[sortKeys.size()];
+
+        for ( int i = 0; i < keyComparators.length; i++ )
         {
-            if ( hr )
-            {
-                ts.add( v.getString() );
-            }
-            else
+            SortKey sk = sortKeys.get( i );
+            AttributeType at = schemaManager.lookupAttributeTypeRegistry( sk.getAttributeTypeDesc() );
+
+            keyComparators[i] = new KeyComparator( at, sk.getMatchingRuleId(), sk.isReverseOrder(), schemaManager );
+        }
+    }
+
+
+    @Override
+    public int compare( Entry entry1, Entry entry2 )
+    {
+        for ( KeyComparator keyComparator : keyComparators )
+        {
+            int c = keyComparator.compare( entry1, entry2 );
+
+            if ( c != 0 )
             {
-                ts.add( v.getBytes() );
+                return c;
             }
         }
 
-        return ts.first();
+        return 0;
     }
-}
\ No newline at end of file
+}
@@ -20,15 +20,7 @@
 package org.apache.directory.server.core.shared;
 
 
-import java.io.File;
-import java.io.IOException;
 import java.util.List;
-import java.util.NoSuchElementException;
-
-import jdbm.RecordManager;
-import jdbm.btree.BTree;
-import jdbm.helper.Tuple;
-import jdbm.helper.TupleBrowser;
 
 import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
@@ -38,47 +30,37 @@ import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.server.core.api.filtering.EntryFilter;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 
 /**
- * Cursor for sorted entries.
- * 
- * Note: This currently uses JDBM, but will be migrated to use Mavibot
- *       when ready.
+ * Cursor for sorted entries, when they all fit in memory.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
 public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFilteringCursor
 {
+    /** The sorted entries */
+    private final List<Entry> entries;
 
-    private static final Logger LOG = LoggerFactory.getLogger( SortedEntryCursor.class );
-    
-    private TupleBrowser browser;
-
-    private final Tuple tuple = new Tuple();
-
-    private RecordManager recMan;
+    /** The current position, -1 when before the first entry, entries.size() when after the last one */
+    private int index = -1;
 
-    private File dataFile;
-    
-    private BTree<Entry, String> btree;
-    
 
-    public SortedEntryCursor( BTree<Entry, String> btree, RecordManager recMan, File dataFile ) throws IOException
+    /**
+     * Creates a new instance of SortedEntryCursor.
+     *
+     * @param entries The sorted entries
+     */
+    public SortedEntryCursor( List<Entry> entries )
     {
-        this.recMan = recMan;
-        this.dataFile = dataFile;
-        this.btree = btree;
-        browser = btree.browse();
+        this.entries = entries;
     }
 
 
     @Override
     public boolean available()
     {
-        return ( tuple.getKey() != null );
+        return ( index >= 0 ) && ( index < entries.size() );
     }
 
 
@@ -99,31 +81,14 @@ public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFil
     @Override
     public void beforeFirst() throws LdapException, CursorException
     {
-        try
-        {
-            clearValue();
-            browser = btree.browse();
-        }
-        catch ( IOException e )
-        {
-            throw new CursorException( e );
-        }
+        index = -1;
     }
 
 
     @Override
     public void afterLast() throws LdapException, CursorException
     {
-        try
-        {
-            clearValue();
-            browser = btree.browse( null );
-        }
-        catch ( IOException e )
-        {
-            throw new CursorException( e );
-        }
-
+        index = entries.size();
     }
 
 
@@ -146,89 +111,36 @@ public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFil
     @Override
     public boolean previous() throws LdapException, CursorException
     {
-        try
+        if ( index >= 0 )
         {
-
-            if ( browser == null )
-            {
-                browser = btree.browse( null );
-            }
-            
-            if ( browser.getPrevious( tuple ) )
-            {
-                return true;
-            }
-        }
-        catch ( IOException e )
-        {
-            throw new CursorException( e );
-        }
-        catch ( NoSuchElementException e )
-        {
-            // ignore this is due to the call wrapped.prev()
-            // instead of doing a check like if(wrapped.hasPrev())
+            index--;
         }
 
-        clearValue();
-        return false;
+        return index >= 0;
     }
 
 
     @Override
     public boolean next() throws LdapException, CursorException
     {
-        try
+        if ( index < entries.size() )
         {
-            if ( browser == null )
-            {
-                browser = btree.browse();
-            }
-            
-            if ( browser.getNext( tuple ) )
-            {
-                return true;
-            }
-        }
-        catch ( IOException e )
-        {
-            throw new CursorException( e );
-        }
-        catch ( NoSuchElementException e )
-        {
-            // ignore, this is due to the call wrapped.prev()
-            // instead of doing a check like if(wrapped.hasNext())
+            index++;
         }
 
-        clearValue();
-        return false;
+        return index < entries.size();
     }
 
 
     @Override
     public Entry get() throws CursorException
     {
-        if ( tuple.getKey() == null )
+        if ( !available() )
         {
             throw new InvalidCursorPositionException();
         }
 
-        return ( Entry ) tuple.getKey();
-    }
-
-
-    @Override
-    public void close() throws IOException
-    {
-        deleteFile();
-        super.close();
-    }
-
-
-    @Override
-    public void close( Exception cause ) throws IOException
-    {
-        deleteFile();
-        super.close( cause );
+        return entries.get( index );
     }
 
 
@@ -251,30 +163,4 @@ public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFil
     {
         return null;
     }
-
-    
-    private void clearValue()
-    {
-        tuple.setKey( null );
-        tuple.setValue( null );
-    }
-
-    
-    private void deleteFile()
-    {
-        if ( recMan == null )
-        {
-            return;
-        }
-
-        try
-        {
-            recMan.close();
-            dataFile.delete();
-        }
-        catch ( IOException e )
-        {
-            LOG.warn( "Failed to delete the sorted entry data file {}", dataFile, e );
-        }
-    }
 }
@@ -0,0 +1,475 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.shared;
+
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.filtering.EntryFilter;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Cursor for sorted entries which did not fit in memory. The entries have been written
+ * in sorted runs, which are merged on the fly.
+ * <br>
+ * The merge only moves forward : this cursor keeps the last returned entries so that a
+ * caller can step back a few entries, as the search handlers do when checking if there
+ * are more entries to return. Positioning the cursor on a given entry restarts the merge,
+ * and positioning it after the last entry reads all the remaining entries.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SortedRunsCursor extends AbstractCursor<Entry> implements EntryFilteringCursor
+{
+    private static final Logger LOG = LoggerFactory.getLogger( SortedRunsCursor.class );
+
+    /** The number of entries we can move back */
+    private static final int HISTORY_SIZE = 16;
+
+    /** The sorted runs */
+    private final List<File> runs;
+
+    /** The comparator used to sort the runs */
+    private final Comparator<Entry> comparator;
+
+    /** The serializer used to read the entries */
+    private final SortedEntrySerializer serializer = new SortedEntrySerializer();
+
+    /** The runs being merged, the one with the smallest entry on top */
+    private PriorityQueue<RunReader> readers;
+
+    /** The entries returned before the current one, the most recent first */
+    private final Deque<Entry> history = new ArrayDeque<Entry>();
+
+    /** The entries we have moved back over, to be returned again by next(), the closest first */
+    private final Deque<Entry> replay = new ArrayDeque<Entry>();
+
+    /** Tells if the history has been truncated */
+    private boolean historyTruncated;
+
+    /** The current entry */
+    private Entry current;
+
+
+    /**
+     * Reads the entries of a sorted run
+     */
+    private final class RunReader
+    {
+        /** The position of the run, used to keep the sort stable */
+        private final int runIndex;
+
+        /** The run content */
+        private final DataInputStream in;
+
+        /** The number of entries not read yet */
+        private int remaining;
+
+        /** The smallest entry not returned yet */
+        private Entry head;
+
+
+        private RunReader( File run, int runIndex ) throws IOException
+        {
+            this.runIndex = runIndex;
+            in = new DataInputStream( new BufferedInputStream( new FileInputStream( run ) ) );
+            remaining = in.readInt();
+        }
+
+
+        /**
+         * Reads the next entry in the head, and tells if there was one
+         */
+        private boolean advance() throws IOException
+        {
+            if ( remaining == 0 )
+            {
+                head = null;
+
+                return false;
+            }
+
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully( bytes );
+            head = ( Entry ) serializer.deserialize( bytes );
+            remaining--;
+
+            return true;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of SortedRunsCursor.
+     *
+     * @param runs The sorted runs, in the order they have been written
+     * @param comparator The comparator used to sort the runs
+     * @throws IOException If the runs can't be read
+     */
+    public SortedRunsCursor( List<File> runs, Comparator<Entry> comparator ) throws IOException
+    {
+        this.runs = runs;
+        this.comparator = comparator;
+        openRuns();
+    }
+
+
+    private void openRuns() throws IOException
+    {
+        readers = new PriorityQueue<RunReader>( runs.size(), new Comparator<RunReader>()
+        {
+            public int compare( RunReader reader1, RunReader reader2 )
+            {
+                int c = comparator.compare( reader1.head, reader2.head );
+
+                if ( c == 0 )
+                {
+                    return reader1.runIndex - reader2.runIndex;
+                }
+
+                return c;
+            }
+        } );
+
+        for ( int i = 0; i < runs.size(); i++ )
+        {
+            RunReader reader = new RunReader( runs.get( i ), i );
+
+            if ( reader.advance() )
+            {
+                readers.add( reader );
+            }
+            else
+            {
+                reader.in.close();
+            }
+        }
+    }
+
+
+    private void closeRuns()
+    {
+        if ( readers == null )
+        {
+            return;
+        }
+
+        for ( RunReader reader : readers )
+        {
+            try
+            {
+                reader.in.close();
+            }
+            catch ( IOException ioe )
+            {
+                LOG.warn( "Failed to close a sorted run", ioe );
+            }
+        }
+
+        readers = null;
+    }
+
+
+    @Override
+    public boolean available()
+    {
+        return current != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * The merge is restarted, and the entries are read until the first one which is
+     * not lower than the given element.
+     */
+    @Override
+    public void before( Entry element ) throws LdapException, CursorException
+    {
+        checkNotClosed( "before()" );
+        position( element, true );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * The merge is restarted, and the entries are read until the first one which is
+     * greater than the given element.
+     */
+    @Override
+    public void after( Entry element ) throws LdapException, CursorException
+    {
+        checkNotClosed( "after()" );
+        position( element, false );
+    }
+
+
+    /**
+     * Moves before the first entry greater than the element, or equal to it if inclusive is true
+     */
+    private void position( Entry element, boolean inclusive ) throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        while ( next() )
+        {
+            int c = comparator.compare( current, element );
+
+            if ( ( c > 0 ) || ( inclusive && ( c == 0 ) ) )
+            {
+                // This entry will be returned by the next call to next()
+                replay.addFirst( current );
+                current = null;
+
+                return;
+            }
+        }
+    }
+
+
+    @Override
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed( "beforeFirst()" );
+        closeRuns();
+        history.clear();
+        replay.clear();
+        historyTruncated = false;
+        current = null;
+
+        try
+        {
+            openRuns();
+        }
+        catch ( IOException ioe )
+        {
+            throw new CursorException( ioe );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * All the remaining entries are read, only the last ones are kept.
+     */
+    @Override
+    public void afterLast() throws LdapException, CursorException
+    {
+        checkNotClosed( "afterLast()" );
+
+        // The last entries are kept in the history
+        boolean available = next();
+
+        while ( available )
+        {
+            available = next();
+        }
+    }
+
+
+    @Override
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * All the remaining entries are read.
+     */
+    @Override
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+
+        return previous();
+    }
+
+
+    @Override
+    public boolean previous() throws LdapException, CursorException
+    {
+        checkNotClosed( "previous()" );
+
+        if ( current != null )
+        {
+            replay.addFirst( current );
+            current = null;
+        }
+
+        if ( history.isEmpty() )
+        {
+            if ( historyTruncated )
+            {
+                throw new CursorException( "Cannot move back further than " + HISTORY_SIZE + " sorted entries" );
+            }
+
+            return false;
+        }
+
+        current = history.removeFirst();
+
+        return true;
+    }
+
+
+    @Override
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed( "next()" );
+
+        if ( current != null )
+        {
+            history.addFirst( current );
+
+            if ( history.size() > HISTORY_SIZE )
+            {
+                history.removeLast();
+                historyTruncated = true;
+            }
+        }
+
+        current = null;
+
+        if ( !replay.isEmpty() )
+        {
+            current = replay.removeFirst();
+
+            return true;
+        }
+
+        RunReader reader = readers.poll();
+
+        if ( reader == null )
+        {
+            return false;
+        }
+
+        current = reader.head;
+
+        try
+        {
+            if ( reader.advance() )
+            {
+                readers.add( reader );
+            }
+            else
+            {
+                reader.in.close();
+            }
+        }
+        catch ( IOException ioe )
+        {
+            throw new CursorException( ioe );
+        }
+
+        return true;
+    }
+
+
+    @Override
+    public Entry get() throws CursorException
+    {
+        if ( current == null )
+        {
+            throw new InvalidCursorPositionException();
+        }
+
+        return current;
+    }
+
+
+    @Override
+    public void close() throws IOException
+    {
+        if ( !isClosed() )
+        {
+            deleteRuns();
+        }
+
+        super.close();
+    }
+
+
+    @Override
+    public void close( Exception cause ) throws IOException
+    {
+        if ( !isClosed() )
+        {
+            deleteRuns();
+        }
+
+        super.close( cause );
+    }
+
+
+    @Override
+    public boolean addEntryFilter( EntryFilter filter )
+    {
+        return false;
+    }
+
+
+    @Override
+    public List<EntryFilter> getEntryFilters()
+    {
+        return null;
+    }
+
+
+    @Override
+    public SearchOperationContext getOperationContext()
+    {
+        return null;
+    }
+
+
+    private void deleteRuns()
+    {
+        closeRuns();
+
+        for ( File run : runs )
+        {
+            if ( !run.delete() )
+            {
+                LOG.warn( "Failed to delete the sorted run {}", run );
+            }
+        }
+    }
+}
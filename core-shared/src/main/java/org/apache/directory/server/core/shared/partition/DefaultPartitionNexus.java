@@ -30,6 +30,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
@@ -62,6 +63,7 @@ import org.apache.directory.api.util.exception.MultiException;
 import org.apache.directory.server.constants.ServerDNConstants;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.InterceptorEnum;
+import org.apache.directory.server.core.api.OperationEnum;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.filtering.CursorList;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
@@ -78,6 +80,9 @@ import org.apache.directory.server.core.api.interceptor.context.MoveOperationCon
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.metrics.LatencyHistogram;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
+import org.apache.directory.server.core.api.metrics.MetricsSource;
 import org.apache.directory.server.core.api.partition.AbstractPartition;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
@@ -109,6 +114,20 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     /** the vendorName string proudly set to: Apache Software Foundation*/
     private static final String ASF = "Apache Software Foundation";
 
+    /** The operations which latency is recorded for each partition */
+    private static final OperationEnum[] TIMED_OPERATIONS = new OperationEnum[]
+        {
+            OperationEnum.ADD,
+            OperationEnum.DELETE,
+            OperationEnum.HAS_ENTRY,
+            OperationEnum.LOOKUP,
+            OperationEnum.MODIFY,
+            OperationEnum.MOVE,
+            OperationEnum.MOVE_AND_RENAME,
+            OperationEnum.RENAME,
+            OperationEnum.SEARCH
+    };
+
     /** the read only rootDSE attributes */
     private final Entry rootDse;
 
@@ -126,6 +145,10 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     /** The cn=schema Dn */
     private Dn subschemSubentryDn;
 
+    /** The latency histograms of each partition, indexed by operation */
+    private final Map<Partition, LatencyHistogram[]> partitionHistograms =
+        new ConcurrentHashMap<Partition, LatencyHistogram[]>();
+
 
     /**
      * Creates the root nexus singleton of the entire system.  The root DSE has
@@ -358,7 +381,9 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public void add( AddOperationContext addContext ) throws LdapException
     {
         Partition partition = getPartition( addContext.getDn() );
+        long start = System.nanoTime();
         partition.add( addContext );
+        record( partition, OperationEnum.ADD, start );
     }
 
 
@@ -411,7 +436,9 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public Entry delete( DeleteOperationContext deleteContext ) throws LdapException
     {
         Partition partition = getPartition( deleteContext.getDn() );
+        long start = System.nanoTime();
         Entry deletedEntry = partition.delete( deleteContext );
+        record( partition, OperationEnum.DELETE, start );
 
         return deletedEntry;
     }
@@ -435,8 +462,11 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
         }
 
         Partition partition = getPartition( dn );
+        long start = System.nanoTime();
+        boolean exists = partition.hasEntry( hasEntryContext );
+        record( partition, OperationEnum.HAS_ENTRY, start );
 
-        return partition.hasEntry( hasEntryContext );
+        return exists;
     }
 
 
@@ -461,7 +491,9 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
         }
 
         Partition partition = getPartition( dn );
+        long start = System.nanoTime();
         Entry entry = partition.lookup( lookupContext );
+        record( partition, OperationEnum.LOOKUP, start );
 
         if ( entry == null )
         {
@@ -487,8 +519,9 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
         }
 
         Partition partition = getPartition( modifyContext.getDn() );
-
+        long start = System.nanoTime();
         partition.modify( modifyContext );
+        record( partition, OperationEnum.MODIFY, start );
 
         if ( modifyContext.isPushToEvtInterceptor() )
         {
@@ -504,8 +537,9 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     {
         // Get the current partition
         Partition partition = getPartition( moveContext.getDn() );
-
+        long start = System.nanoTime();
         partition.move( moveContext );
+        record( partition, OperationEnum.MOVE, start );
     }
 
 
@@ -515,7 +549,9 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public void moveAndRename( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
     {
         Partition partition = getPartition( moveAndRenameContext.getDn() );
+        long start = System.nanoTime();
         partition.moveAndRename( moveAndRenameContext );
+        record( partition, OperationEnum.MOVE_AND_RENAME, start );
     }
 
 
@@ -525,7 +561,9 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     public void rename( RenameOperationContext renameContext ) throws LdapException
     {
         Partition partition = getPartition( renameContext.getDn() );
+        long start = System.nanoTime();
         partition.rename( renameContext );
+        record( partition, OperationEnum.RENAME, start );
     }
 
 
@@ -630,7 +668,12 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
         // Normal case : do a search on the specific partition
         Partition backend = getPartition( base );
 
-        return backend.search( searchContext );
+        // Only the cursor creation is measured : the entries are read later
+        long start = System.nanoTime();
+        EntryFilteringCursor cursor = backend.search( searchContext );
+        record( backend, OperationEnum.SEARCH, start );
+
+        return cursor;
     }
 
 
@@ -834,6 +877,82 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
                 namingContexts.add( partitionSuffix.getName() );
             }
         }
+
+        registerMetrics( partition );
+    }
+
+
+    /**
+     * Creates the latency histograms of a partition, and registers it as a metrics source
+     * if it exposes some values.
+     *
+     * @param partition The added partition
+     */
+    private void registerMetrics( Partition partition )
+    {
+        MetricsRegistry registry = directoryService.getMetricsRegistry();
+
+        if ( registry == null )
+        {
+            return;
+        }
+
+        LatencyHistogram[] histograms = new LatencyHistogram[OperationEnum.values().length];
+
+        for ( OperationEnum operation : TIMED_OPERATIONS )
+        {
+            histograms[operation.ordinal()] = registry.getHistogram( "partition." + partition.getId() + "."
+                + operation.getMethodName() );
+        }
+
+        partitionHistograms.put( partition, histograms );
+
+        if ( partition instanceof MetricsSource )
+        {
+            registry.addSource( ( MetricsSource ) partition );
+        }
+    }
+
+
+    /**
+     * Removes the metrics of a partition
+     *
+     * @param partition The removed partition
+     */
+    private void unregisterMetrics( Partition partition )
+    {
+        partitionHistograms.remove( partition );
+        MetricsRegistry registry = directoryService.getMetricsRegistry();
+
+        if ( registry == null )
+        {
+            return;
+        }
+
+        registry.removeHistograms( "partition." + partition.getId() + "." );
+
+        if ( partition instanceof MetricsSource )
+        {
+            registry.removeSource( ( MetricsSource ) partition );
+        }
+    }
+
+
+    /**
+     * Records the time spent by a partition to process an operation
+     *
+     * @param partition The partition
+     * @param operation The processed operation
+     * @param start The time the partition has been called at
+     */
+    private void record( Partition partition, OperationEnum operation, long start )
+    {
+        LatencyHistogram[] histograms = partitionHistograms.get( partition );
+
+        if ( histograms != null )
+        {
+            histograms[operation.ordinal()].recordSince( start );
+        }
     }
 
 
@@ -880,6 +999,7 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
         }
 
         partitions.remove( partitionDn );
+        unregisterMetrics( partition );
 
         try
         {
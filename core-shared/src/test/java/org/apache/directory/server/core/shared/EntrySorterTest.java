@@ -0,0 +1,321 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.shared;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidAttributeValueException;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the EntrySorter, in memory, with the entries written in sorted runs, and when
+ * only the first entries are kept.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntrySorterTest
+{
+    private static SchemaManager schemaManager;
+
+    /** A memory budget small enough to write a run every few entries */
+    private static final long SMALL_BUDGET = 1000L;
+
+    /** Sorts the entries on their cn */
+    private static final Comparator<Entry> CN_COMPARATOR = new Comparator<Entry>()
+    {
+        public int compare( Entry entry1, Entry entry2 )
+        {
+            return cn( entry1 ).compareTo( cn( entry2 ) );
+        }
+    };
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        schemaManager = new DefaultSchemaManager();
+        SortedEntrySerializer.setSchemaManager( schemaManager );
+    }
+
+
+    private static String cn( Entry entry )
+    {
+        try
+        {
+            return entry.get( "cn" ).getString();
+        }
+        catch ( LdapInvalidAttributeValueException liave )
+        {
+            throw new IllegalStateException( liave );
+        }
+    }
+
+
+    private static int sn( Entry entry ) throws Exception
+    {
+        return Integer.parseInt( entry.get( "sn" ).getString() );
+    }
+
+
+    /**
+     * Creates an entry. The sn gives the position of the entry in the unsorted entries
+     */
+    private static Entry entry( String cn, int sn ) throws Exception
+    {
+        return new DefaultEntry( schemaManager, "sn=" + sn + ",ou=system",
+            "objectClass: person",
+            "cn", cn,
+            "sn", Integer.toString( sn ) );
+    }
+
+
+    /**
+     * Creates nbEntries entries, with nbKeys distinct cn values
+     */
+    private static Cursor<Entry> unsorted( int nbEntries, int nbKeys ) throws Exception
+    {
+        List<Entry> entries = new ArrayList<Entry>();
+
+        for ( int i = 0; i < nbEntries; i++ )
+        {
+            entries.add( entry( Integer.toString( ( nbKeys - 1 ) - ( i % nbKeys ) ), i ) );
+        }
+
+        return new ListCursor<Entry>( entries );
+    }
+
+
+    /**
+     * Reads all the entries, and checks they are sorted, with the entries having the same
+     * cn in their original order
+     */
+    private static List<Entry> readSorted( Cursor<Entry> cursor ) throws Exception
+    {
+        List<Entry> entries = new ArrayList<Entry>();
+        Entry previous = null;
+
+        while ( cursor.next() )
+        {
+            Entry entry = cursor.get();
+
+            if ( previous != null )
+            {
+                int c = CN_COMPARATOR.compare( previous, entry );
+                assertTrue( c <= 0 );
+
+                if ( c == 0 )
+                {
+                    assertTrue( sn( previous ) < sn( entry ) );
+                }
+            }
+
+            entries.add( entry );
+            previous = entry;
+        }
+
+        return entries;
+    }
+
+
+    @Test
+    public void testSortInMemory() throws Exception
+    {
+        EntrySorter sorter = new EntrySorter( CN_COMPARATOR, Long.MAX_VALUE, 0L );
+        Cursor<Entry> cursor = sorter.sort( unsorted( 50, 7 ) );
+
+        try
+        {
+            assertFalse( cursor instanceof SortedRunsCursor );
+            assertEquals( 50, readSorted( cursor ).size() );
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+
+    @Test
+    public void testSortSpilled() throws Exception
+    {
+        EntrySorter sorter = new EntrySorter( CN_COMPARATOR, SMALL_BUDGET, 0L );
+        Cursor<Entry> cursor = sorter.sort( unsorted( 50, 7 ) );
+
+        try
+        {
+            assertTrue( cursor instanceof SortedRunsCursor );
+            assertEquals( 50, readSorted( cursor ).size() );
+
+            // Read again the merged runs
+            cursor.beforeFirst();
+            assertEquals( 50, readSorted( cursor ).size() );
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+
+    @Test
+    public void testSpilledCursorPositioning() throws Exception
+    {
+        EntrySorter sorter = new EntrySorter( CN_COMPARATOR, SMALL_BUDGET, 0L );
+        Cursor<Entry> cursor = sorter.sort( unsorted( 50, 7 ) );
+
+        try
+        {
+            assertTrue( cursor instanceof SortedRunsCursor );
+
+            // The first entry with cn=3 is the 4th of the unsorted entries
+            cursor.before( entry( "3", -1 ) );
+            assertTrue( cursor.next() );
+            assertEquals( "3", cn( cursor.get() ) );
+            assertEquals( 3, sn( cursor.get() ) );
+
+            // The last entry with cn=2 is before it
+            assertTrue( cursor.previous() );
+            assertEquals( "2", cn( cursor.get() ) );
+            assertEquals( 46, sn( cursor.get() ) );
+
+            cursor.after( entry( "3", -1 ) );
+            assertTrue( cursor.next() );
+            assertEquals( "4", cn( cursor.get() ) );
+            assertEquals( 2, sn( cursor.get() ) );
+
+            // Nothing after the last key
+            cursor.after( entry( "6", -1 ) );
+            assertFalse( cursor.next() );
+
+            assertTrue( cursor.last() );
+            assertEquals( "6", cn( cursor.get() ) );
+            assertEquals( 49, sn( cursor.get() ) );
+            assertTrue( cursor.previous() );
+            assertEquals( "6", cn( cursor.get() ) );
+            assertEquals( 42, sn( cursor.get() ) );
+
+            cursor.afterLast();
+            assertFalse( cursor.next() );
+            assertTrue( cursor.previous() );
+            assertEquals( 49, sn( cursor.get() ) );
+
+            assertTrue( cursor.first() );
+            assertEquals( "0", cn( cursor.get() ) );
+            assertEquals( 6, sn( cursor.get() ) );
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+
+    /**
+     * Only the sizeLimit + 1 first entries are kept, so that the caller can tell
+     * the size limit has been exceeded
+     */
+    @Test
+    public void testSortTop() throws Exception
+    {
+        EntrySorter sorter = new EntrySorter( CN_COMPARATOR, Long.MAX_VALUE, 5L );
+        Cursor<Entry> cursor = sorter.sort( unsorted( 20, 20 ) );
+
+        try
+        {
+            List<Entry> entries = readSorted( cursor );
+
+            assertEquals( 6, entries.size() );
+
+            // The cn are strings : "0", "1", "10", "11", "12", "13"
+            assertEquals( "0", cn( entries.get( 0 ) ) );
+            assertEquals( "1", cn( entries.get( 1 ) ) );
+            assertEquals( "10", cn( entries.get( 2 ) ) );
+            assertEquals( "13", cn( entries.get( 5 ) ) );
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+
+    /**
+     * The entries with the same keys are kept in their original order, the last ones
+     * being dropped
+     */
+    @Test
+    public void testSortTopStable() throws Exception
+    {
+        EntrySorter sorter = new EntrySorter( CN_COMPARATOR, Long.MAX_VALUE, 3L );
+        Cursor<Entry> cursor = sorter.sort( unsorted( 10, 2 ) );
+
+        try
+        {
+            List<Entry> entries = readSorted( cursor );
+
+            assertEquals( 4, entries.size() );
+
+            // The entries with cn=0 have an odd sn
+            for ( int i = 0; i < 4; i++ )
+            {
+                assertEquals( "0", cn( entries.get( i ) ) );
+                assertEquals( 2 * i + 1, sn( entries.get( i ) ) );
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+
+    @Test
+    public void testSortTopFewerEntries() throws Exception
+    {
+        EntrySorter sorter = new EntrySorter( CN_COMPARATOR, SMALL_BUDGET, 10L );
+        Cursor<Entry> cursor = sorter.sort( unsorted( 5, 3 ) );
+
+        try
+        {
+            // The bounded heap is kept in memory, whatever the memory budget
+            assertFalse( cursor instanceof SortedRunsCursor );
+            assertEquals( 5, readSorted( cursor ).size() );
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+}
@@ -26,22 +26,25 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.StringReader;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Method;
 import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import javax.management.ObjectName;
+
 import org.apache.directory.api.ldap.codec.api.LdapApiService;
 import org.apache.directory.api.ldap.codec.api.LdapApiServiceFactory;
 import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
@@ -94,12 +97,16 @@ import org.apache.directory.server.core.api.changelog.TaggableSearchableChangeLo
 import org.apache.directory.server.core.api.event.EventService;
 import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
 import org.apache.directory.server.core.api.interceptor.Interceptor;
+import org.apache.directory.server.core.api.interceptor.InterceptorChain;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.BindOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.HasEntryOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.OperationContext;
 import org.apache.directory.server.core.api.journal.Journal;
+import org.apache.directory.server.core.api.metrics.MetricsMBean;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
+import org.apache.directory.server.core.api.metrics.MonitorPartition;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.api.schema.SchemaPartition;
@@ -237,7 +244,9 @@ public class DefaultDirectoryService implements DirectoryService
 
     /** The list of declared interceptors */
     private List<Interceptor> interceptors;
-    private Map<String, Interceptor> interceptorNames;
+
+    /** The interceptors by name, replaced when an interceptor is added or removed */
+    private volatile Map<String, Interceptor> interceptorNames;
 
     /** A lock to protect the interceptors List */
     private ReadWriteLock interceptorsLock = new ReentrantReadWriteLock();
@@ -246,8 +255,8 @@ public class DefaultDirectoryService implements DirectoryService
     private Lock readLock = interceptorsLock.readLock();
     private Lock writeLock = interceptorsLock.writeLock();
 
-    /** A map associating a list of interceptor to each operation */
-    private Map<OperationEnum, List<String>> operationInterceptors;
+    /** The chain of interceptors to call for each operation, replaced when the interceptors change */
+    private volatile Map<OperationEnum, InterceptorChain> interceptorChains;
 
     /** The System partition */
     private Partition systemPartition;
@@ -264,6 +273,12 @@ public class DefaultDirectoryService implements DirectoryService
     /** The maximum size for an incoming PDU */
     private int maxPDUSize = Integer.MAX_VALUE;
 
+    /** The default memory budget for sorting the entries of a search, 16Mb */
+    public static final long DEFAULT_SORT_MEMORY_BUDGET = 16L * 1024L * 1024L;
+
+    /** The memory budget for sorting the entries of a search */
+    private long sortMemoryBudget = DEFAULT_SORT_MEMORY_BUDGET;
+
     /** lock file for directory service's working directory */
     private RandomAccessFile lockFile = null;
 
@@ -299,6 +314,21 @@ public class DefaultDirectoryService implements DirectoryService
     /** The object class provider */
     private ObjectClassProvider ocProvider;
 
+    /** The metrics of this service */
+    private final MetricsRegistry metricsRegistry = new MetricsRegistry();
+
+    /** Tells if the metrics are exposed over JMX. Off by default */
+    private boolean jmxEnabled;
+
+    /** The name the metrics MBean is registered with, null if it's not registered */
+    private ObjectName metricsMBeanName;
+
+    /** Tells if the metrics are exposed in the cn=monitor partition. Off by default */
+    private boolean monitorPartitionEnabled;
+
+    /** The partition exposing the metrics */
+    private MonitorPartition monitorPartition;
+
 
     // ------------------------------------------------------------------------
     // Constructor
@@ -454,70 +484,81 @@ public class DefaultDirectoryService implements DirectoryService
      */
     public List<String> getInterceptors( OperationEnum operation )
     {
-        List<String> cloned = new ArrayList<String>();
+        return new ArrayList<String>( getInterceptorChain( operation ).getNames() );
+    }
 
-        readLock.lock();
 
-        try
-        {
-            cloned.addAll( operationInterceptors.get( operation ) );
+    /**
+     * {@inheritDoc}
+     */
+    public InterceptorChain getInterceptorChain( OperationEnum operation )
+    {
+        InterceptorChain chain = interceptorChains.get( operation );
 
-            return cloned;
-        }
-        finally
+        if ( chain == null )
         {
-            readLock.unlock();
+            return InterceptorChain.EMPTY;
         }
 
+        return chain;
     }
 
 
     /**
-     * Compute the list of  to call for each operation
+     * Compute the chain of interceptors to call for each operation, and the interceptors
+     * by name. Must be called with the write lock held : the new chains replace the
+     * previous ones, which are still used by the operations in progress.
      */
-    private void initOperationsList()
+    private void compileInterceptorChains()
     {
-        writeLock.lock();
+        Map<String, Interceptor> names = new HashMap<String, Interceptor>();
 
-        try
+        for ( Interceptor interceptor : interceptors )
         {
-            operationInterceptors = new ConcurrentHashMap<OperationEnum, List<String>>();
-
-            for ( OperationEnum operation : OperationEnum.getOperations() )
+            if ( !names.containsKey( interceptor.getName() ) )
             {
-                List<String> operationList = new ArrayList<String>();
+                names.put( interceptor.getName(), interceptor );
+            }
+        }
+
+        Map<OperationEnum, InterceptorChain> chains = new EnumMap<OperationEnum, InterceptorChain>(
+            OperationEnum.class );
+
+        for ( OperationEnum operation : OperationEnum.getOperations() )
+        {
+            List<Interceptor> operationList = new ArrayList<Interceptor>();
+            Set<String> selected = new HashSet<String>();
 
-                for ( Interceptor interceptor : interceptors )
+            for ( Interceptor interceptor : interceptors )
+            {
+                // The interceptors which don't implement the operation are skipped
+                if ( implementsOperation( interceptor.getClass(), operation ) && selected.add( interceptor.getName() ) )
                 {
-                    gatherInterceptors( interceptor, interceptor.getClass(), operation, operationList );
+                    operationList.add( interceptor );
                 }
-
-                operationInterceptors.put( operation, operationList );
             }
+
+            chains.put( operation, new InterceptorChain( operationList ) );
         }
-        finally
-        {
-            writeLock.unlock();
-        }
+
+        interceptorNames = names;
+        interceptorChains = chains;
     }
 
 
     /**
-     * Recursively checks if the given interceptor can be added to the list of interceptors for a given
-     * operation and adds to the list of interceptors if it implements the respective operation
+     * Recursively checks if the given interceptor class implements an operation
      * 
-     * @param interceptor the instance of the interceptor
      * @param interceptorClz the class of the interceptor
      * @param operation type of operation
-     * @param selectedInterceptorList the list of selected interceptors
+     * @return true if the class or one of its super classes, except the BaseInterceptor, implements the operation
      */
-    private void gatherInterceptors( Interceptor interceptor, Class<?> interceptorClz, OperationEnum operation,
-        List<String> selectedInterceptorList )
+    private boolean implementsOperation( Class<?> interceptorClz, OperationEnum operation )
     {
         // We stop recursing when we reach the Base class
         if ( ( interceptorClz == null ) || ( interceptorClz == BaseInterceptor.class ) )
         {
-            return;
+            return false;
         }
 
         // We don't call getMethods() because it would get back the default methods
@@ -527,36 +568,22 @@ public class DefaultDirectoryService implements DirectoryService
         for ( Method method : methods )
         {
             Class<?>[] param = method.getParameterTypes();
-            boolean hasCorrestSig = false;
 
             // check for the correct signature
-            if ( ( param == null ) || ( param.length > 1 ) || ( param.length == 0 ) )
-            {
-                continue;
-            }
-
-            if ( OperationContext.class.isAssignableFrom( param[0] ) )
-            {
-                hasCorrestSig = true;
-            }
-            else
+            if ( ( param == null ) || ( param.length != 1 ) )
             {
                 continue;
             }
 
-            if ( hasCorrestSig && method.getName().equals( operation.getMethodName() ) )
+            if ( OperationContext.class.isAssignableFrom( param[0] )
+                && method.getName().equals( operation.getMethodName() ) )
             {
-                if ( !selectedInterceptorList.contains( interceptor.getName() ) )
-                {
-                    selectedInterceptorList.add( interceptor.getName() );
-                }
-
-                break;
+                return true;
             }
         }
 
         // Recurse on extended classes, as we have used getDeclaredMethods() instead of getmethods()
-        gatherInterceptors( interceptor, interceptorClz.getSuperclass(), operation, selectedInterceptorList );
+        return implementsOperation( interceptorClz.getSuperclass(), operation );
     }
 
 
@@ -573,32 +600,6 @@ public class DefaultDirectoryService implements DirectoryService
 
         try
         {
-            for ( OperationEnum operation : OperationEnum.getOperations() )
-            {
-                List<String> operationList = operationInterceptors.get( operation );
-
-                Method[] methods = interceptor.getClass().getDeclaredMethods();
-
-                for ( Method method : methods )
-                {
-                    if ( method.getName().equals( operation.getMethodName() ) )
-                    {
-                        if ( position == -1 )
-                        {
-                            operationList.add( interceptor.getName() );
-                        }
-                        else
-                        {
-                            operationList.add( position, interceptor.getName() );
-                        }
-
-                        break;
-                    }
-                }
-            }
-
-            interceptorNames.put( interceptor.getName(), interceptor );
-
             if ( position == -1 )
             {
                 interceptors.add( interceptor );
@@ -607,6 +608,8 @@ public class DefaultDirectoryService implements DirectoryService
             {
                 interceptors.add( position, interceptor );
             }
+
+            compileInterceptorChains();
         }
         finally
         {
@@ -620,31 +623,19 @@ public class DefaultDirectoryService implements DirectoryService
      */
     private void removeOperationsList( String interceptorName )
     {
-        Interceptor interceptor = interceptorNames.get( interceptorName );
-
         writeLock.lock();
 
         try
         {
-            for ( OperationEnum operation : OperationEnum.getOperations() )
-            {
-                List<String> operationList = operationInterceptors.get( operation );
-
-                Method[] methods = interceptor.getClass().getDeclaredMethods();
+            Interceptor interceptor = interceptorNames.get( interceptorName );
 
-                for ( Method method : methods )
-                {
-                    if ( method.getName().equals( operation.getMethodName() ) )
-                    {
-                        operationList.remove( interceptor.getName() );
-
-                        break;
-                    }
-                }
+            if ( interceptor == null )
+            {
+                return;
             }
 
-            interceptorNames.remove( interceptorName );
             interceptors.remove( interceptor );
+            compileInterceptorChains();
         }
         finally
         {
@@ -660,25 +651,30 @@ public class DefaultDirectoryService implements DirectoryService
      */
     public void setInterceptors( List<Interceptor> interceptors )
     {
-        Map<String, Interceptor> interceptorNames = new HashMap<String, Interceptor>();
+        Set<String> interceptorNames = new HashSet<String>();
 
         // Check if we don't have duplicate names in the interceptors list
         for ( Interceptor interceptor : interceptors )
         {
-            if ( interceptorNames.containsKey( interceptor.getName() ) )
+            if ( !interceptorNames.add( interceptor.getName() ) )
             {
                 LOG.warn( "Encountered duplicate definitions for {} interceptor", interceptor.getName() );
-                continue;
             }
-
-            interceptorNames.put( interceptor.getName(), interceptor );
         }
 
-        this.interceptors = interceptors;
-        this.interceptorNames = interceptorNames;
+        writeLock.lock();
+
+        try
+        {
+            this.interceptors = interceptors;
 
-        // Now update the Map that connect each operation with the list of interceptors.
-        initOperationsList();
+            // Now update the Map that connect each operation with the chain of interceptors.
+            compileInterceptorChains();
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
     }
 
 
@@ -921,6 +917,7 @@ public class DefaultDirectoryService implements DirectoryService
 
         // And update the set of managed partitions
         partitions.remove( partition );
+        operationManager.removeRWLock( partition.getSuffixDn() );
     }
 
 
@@ -996,7 +993,7 @@ public class DefaultDirectoryService implements DirectoryService
         BindOperationContext bindContext = new BindOperationContext( null );
         bindContext.setCredentials( credentials );
         bindContext.setDn( principalDn.apply( schemaManager ) );
-        bindContext.setInterceptors( getInterceptors( OperationEnum.BIND ) );
+        bindContext.setInterceptorChain( getInterceptorChain( OperationEnum.BIND ) );
 
         operationManager.bind( bindContext );
 
@@ -1023,7 +1020,7 @@ public class DefaultDirectoryService implements DirectoryService
         bindContext.setCredentials( credentials );
         bindContext.setDn( principalDn.apply( schemaManager ) );
         bindContext.setSaslMechanism( saslMechanism );
-        bindContext.setInterceptors( getInterceptors( OperationEnum.BIND ) );
+        bindContext.setInterceptorChain( getInterceptorChain( OperationEnum.BIND ) );
 
         operationManager.bind( bindContext );
 
@@ -1251,6 +1248,11 @@ public class DefaultDirectoryService implements DirectoryService
         initialize();
         showSecurityWarnings();
 
+        if ( jmxEnabled )
+        {
+            registerMetricsMBean();
+        }
+
         started = true;
 
         if ( !testEntries.isEmpty() )
@@ -1281,6 +1283,17 @@ public class DefaultDirectoryService implements DirectoryService
             return;
         }
 
+        // --------------------------------------------------------------------
+        // Write the password policy state kept in memory by the binds
+        // --------------------------------------------------------------------
+        Interceptor authenticationInterceptor = getInterceptor( InterceptorEnum.AUTHENTICATION_INTERCEPTOR.getName() );
+
+        if ( authenticationInterceptor instanceof AuthenticationInterceptor )
+        {
+            LOG.debug( "--- Flushing the bind state " );
+            ( ( AuthenticationInterceptor ) authenticationInterceptor ).flushBindState();
+        }
+
         // --------------------------------------------------------------------
         // Shutdown the sync thread
         // --------------------------------------------------------------------
@@ -1318,8 +1331,11 @@ public class DefaultDirectoryService implements DirectoryService
         // And shutdown the server
         // --------------------------------------------------------------------
         LOG.debug( "--- Deleting the cache service" );
+        metricsRegistry.removeSource( cacheService );
         cacheService.destroy();
 
+        unregisterMetricsMBean();
+
         LOG.debug( "---Deleting the DnCache" );
         dnFactory = null;
 
@@ -1785,6 +1801,7 @@ public class DefaultDirectoryService implements DirectoryService
         }
 
         cacheService.initialize( instanceLayout, instanceId );
+        metricsRegistry.addSource( cacheService );
 
         // Initialize the AP caches
         accessControlAPCache = new DnNode<AccessControlAdministrativePoint>();
@@ -1801,6 +1818,17 @@ public class DefaultDirectoryService implements DirectoryService
         schemaPartition.setCacheService( cacheService );
         schemaPartition.initialize();
         partitions.add( schemaPartition );
+
+        if ( monitorPartitionEnabled )
+        {
+            if ( monitorPartition == null )
+            {
+                monitorPartition = new MonitorPartition( schemaManager, metricsRegistry );
+            }
+
+            partitions.add( monitorPartition );
+        }
+
         systemPartition.setCacheService( cacheService );
         systemPartition.getSuffixDn().apply( schemaManager );
 
@@ -2014,18 +2042,33 @@ public class DefaultDirectoryService implements DirectoryService
     /**
      * {@inheritDoc}
      */
-    public Interceptor getInterceptor( String interceptorName )
+    public long getSortMemoryBudget()
     {
-        readLock.lock();
+        return sortMemoryBudget;
+    }
 
-        try
-        {
-            return interceptorNames.get( interceptorName );
-        }
-        finally
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setSortMemoryBudget( long sortMemoryBudget )
+    {
+        if ( sortMemoryBudget <= 0 )
         {
-            readLock.unlock();
+            sortMemoryBudget = DEFAULT_SORT_MEMORY_BUDGET;
         }
+
+        this.sortMemoryBudget = sortMemoryBudget;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Interceptor getInterceptor( String interceptorName )
+    {
+        // The map is never modified once published
+        return interceptorNames.get( interceptorName );
     }
 
 
@@ -2079,6 +2122,8 @@ public class DefaultDirectoryService implements DirectoryService
             {
                 interceptors.add( position, interceptor );
             }
+
+            compileInterceptorChains();
         }
         finally
         {
@@ -2322,4 +2367,98 @@ public class DefaultDirectoryService implements DirectoryService
         return ocProvider;
     }
 
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public MetricsRegistry getMetricsRegistry()
+    {
+        return metricsRegistry;
+    }
+
+
+    /**
+     * @return <tt>true</tt> if the metrics are exposed over JMX
+     */
+    public boolean isJmxEnabled()
+    {
+        return jmxEnabled;
+    }
+
+
+    /**
+     * Exposes the metrics over JMX, in the platform MBean server, when the service is started.
+     *
+     * @param jmxEnabled <tt>true</tt> to expose the metrics over JMX
+     */
+    public void setJmxEnabled( boolean jmxEnabled )
+    {
+        this.jmxEnabled = jmxEnabled;
+    }
+
+
+    /**
+     * @return <tt>true</tt> if the metrics are exposed in the cn=monitor partition
+     */
+    public boolean isMonitorPartitionEnabled()
+    {
+        return monitorPartitionEnabled;
+    }
+
+
+    /**
+     * Exposes the metrics in a read only cn=monitor partition. Must be set before the
+     * service is started.
+     *
+     * @param monitorPartitionEnabled <tt>true</tt> to add the cn=monitor partition
+     */
+    public void setMonitorPartitionEnabled( boolean monitorPartitionEnabled )
+    {
+        this.monitorPartitionEnabled = monitorPartitionEnabled;
+    }
+
+
+    /**
+     * Registers the metrics MBean. A failure is logged, but does not prevent the
+     * server from starting.
+     */
+    private void registerMetricsMBean()
+    {
+        try
+        {
+            ObjectName name = new ObjectName( "org.apache.directory.server:type=Metrics,instance="
+                + ObjectName.quote( instanceId == null ? "default" : instanceId ) );
+            ManagementFactory.getPlatformMBeanServer().registerMBean( new MetricsMBean( metricsRegistry ), name );
+            metricsMBeanName = name;
+        }
+        catch ( Exception e )
+        {
+            LOG.warn( "Failed to register the metrics MBean", e );
+        }
+    }
+
+
+    /**
+     * Unregisters the metrics MBean, if it has been registered
+     */
+    private void unregisterMetricsMBean()
+    {
+        if ( metricsMBeanName == null )
+        {
+            return;
+        }
+
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean( metricsMBeanName );
+        }
+        catch ( Exception e )
+        {
+            LOG.warn( "Failed to unregister the metrics MBean", e );
+        }
+
+        metricsMBeanName = null;
+    }
+
 }
\ No newline at end of file
@@ -20,8 +20,14 @@
 package org.apache.directory.server.core;
 
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -32,18 +38,22 @@ import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapAffectMultipleDsaException;
 import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
 import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
 import org.apache.directory.api.ldap.model.exception.LdapOperationErrorException;
 import org.apache.directory.api.ldap.model.exception.LdapPartialResultException;
 import org.apache.directory.api.ldap.model.exception.LdapReferralException;
 import org.apache.directory.api.ldap.model.exception.LdapServiceUnavailableException;
 import org.apache.directory.api.ldap.model.exception.LdapURLEncodingException;
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
 import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.url.LdapUrl;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.OperationEnum;
 import org.apache.directory.server.core.api.OperationManager;
 import org.apache.directory.server.core.api.ReferralManager;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
@@ -62,6 +72,10 @@ import org.apache.directory.server.core.api.interceptor.context.OperationContext
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.metrics.LatencyHistogram;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
+import org.apache.directory.server.core.api.partition.DeferredSync;
+import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -94,6 +108,51 @@ public class DefaultOperationManager implements OperationManager
     /** A lock used to protect against concurrent operations */
     private ReadWriteLock rwLock = new ReentrantReadWriteLock( true );
 
+    /** The locks protecting each partition against concurrent operations, by partition suffix */
+    private final ConcurrentMap<String, PartitionLock> partitionLocks = new ConcurrentHashMap<String, PartitionLock>();
+
+    /** The partition locks held by the current thread, the last acquired first */
+    private final ThreadLocal<Deque<PartitionLock>> heldLocks = new ThreadLocal<Deque<PartitionLock>>()
+    {
+        @Override
+        protected Deque<PartitionLock> initialValue()
+        {
+            return new ArrayDeque<PartitionLock>();
+        }
+    };
+
+    /** The maximum time, in milliseconds, we wait for a partition lock acquired out of order */
+    private static final long OUT_OF_ORDER_LOCK_TIMEOUT_MS = 10000L;
+
+    /** The suffix of the configuration partition */
+    private static final String CONFIG_SUFFIX = "ou=config";
+
+    /** The suffixes of the schema and configuration partitions, protected by the global lock */
+    private volatile Dn[] sharedSuffixes;
+
+    /**
+     * The lock of a partition. The partition locks are ordered by suffix : a thread already
+     * holding a partition lock, as a nested operation does, only waits for the locks following
+     * it in this order, so that two threads can't wait for each other.
+     */
+    private static final class PartitionLock extends ReentrantReadWriteLock
+    {
+        private static final long serialVersionUID = 1L;
+
+        /** The normalized suffix of the partition */
+        private final String suffix;
+
+
+        private PartitionLock( String suffix )
+        {
+            super( true );
+            this.suffix = suffix;
+        }
+    }
+
+    /** The latency histograms, indexed by operation */
+    private final LatencyHistogram[] histograms = new LatencyHistogram[OperationEnum.values().length];
+
 
     public DefaultOperationManager( DirectoryService directoryService )
     {
@@ -101,6 +160,34 @@ public class DefaultOperationManager implements OperationManager
     }
 
 
+    /**
+     * Records the latency of a successful operation in the metrics registry
+     *
+     * @param operation The operation
+     * @param nanos The time it took, in nanoseconds
+     */
+    private void recordLatency( OperationEnum operation, long nanos )
+    {
+        LatencyHistogram histogram = histograms[operation.ordinal()];
+
+        if ( histogram == null )
+        {
+            MetricsRegistry registry = directoryService.getMetricsRegistry();
+
+            if ( registry == null )
+            {
+                return;
+            }
+
+            // The registry always returns the same histogram for a name
+            histogram = registry.getHistogram( "operation." + operation.getMethodName() );
+            histograms[operation.ordinal()] = histogram;
+        }
+
+        histogram.record( nanos );
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -146,6 +233,352 @@ public class DefaultOperationManager implements OperationManager
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    public ReadWriteLock getRWLock( Dn dn )
+    {
+        if ( ( dn == null ) || dn.isRootDse() )
+        {
+            return rwLock;
+        }
+
+        Dn suffixDn = null;
+
+        try
+        {
+            suffixDn = getSuffixDn( dn );
+        }
+        catch ( LdapException le )
+        {
+            // Not in any partition : the operation will fail later, just protect it with the global lock
+            return rwLock;
+        }
+
+        if ( isSharedPartition( suffixDn ) )
+        {
+            // The schema and the configuration are used by all the partitions
+            return rwLock;
+        }
+
+        String suffix = suffixDn.getNormName();
+        PartitionLock partitionLock = partitionLocks.get( suffix );
+
+        if ( partitionLock == null )
+        {
+            partitionLock = new PartitionLock( suffix );
+            PartitionLock existingLock = partitionLocks.putIfAbsent( suffix, partitionLock );
+
+            if ( existingLock != null )
+            {
+                partitionLock = existingLock;
+            }
+        }
+
+        return partitionLock;
+    }
+
+
+    /**
+     * @return The suffix of the partition containing the given Dn
+     * @throws LdapException If the Dn is not in any partition
+     */
+    Dn getSuffixDn( Dn dn ) throws LdapException
+    {
+        Partition partition = directoryService.getPartitionNexus().getPartition( dn );
+
+        return partition.getSuffixDn();
+    }
+
+
+    /**
+     * Tells if a partition is shared by all the others : the schema partition, which backs the
+     * SchemaManager, and the configuration partition. The changes applied to those partitions
+     * affect every operation, as do the global caches (the authorization and subentry caches)
+     * they update, so they are protected by the global lock : writing in them waits for all
+     * the running operations, and stops all the others until done.
+     */
+    private boolean isSharedPartition( Dn suffixDn )
+    {
+        Dn[] suffixes = sharedSuffixes;
+
+        if ( suffixes == null )
+        {
+            SchemaManager schemaManager = directoryService.getSchemaManager();
+
+            try
+            {
+                Dn schemaDn = new Dn( schemaManager, SchemaConstants.OU_SCHEMA );
+                Dn configDn = new Dn( schemaManager, CONFIG_SUFFIX );
+                suffixes = new Dn[]
+                    { schemaDn, configDn };
+            }
+            catch ( LdapInvalidDnException lide )
+            {
+                // Can't happen, the suffixes are valid
+                throw new IllegalStateException( lide );
+            }
+
+            sharedSuffixes = suffixes;
+        }
+
+        for ( Dn suffix : suffixes )
+        {
+            if ( suffix.getNormName().equals( suffixDn.getNormName() ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void removeRWLock( Dn suffixDn )
+    {
+        partitionLocks.remove( suffixDn.getNormName() );
+    }
+
+
+    /**
+     * @return The maximum time, in milliseconds, we wait for a partition lock acquired out of order
+     */
+    long getOutOfOrderLockTimeout()
+    {
+        return OUT_OF_ORDER_LOCK_TIMEOUT_MS;
+    }
+
+
+    /**
+     * Acquires a partition lock, following the partitions order if the current thread already
+     * holds some partition locks. A lock which does not follow all the held locks is only
+     * waited for a limited time : the operation fails instead of risking a deadlock.
+     * <br>
+     * A ReadLock can't be upgraded : a thread holding the ReadLock of a partition, either
+     * through the OperationManager (a bind or a search, for instance) or directly as the
+     * partition does while it computes the candidates of a search, can't write in this
+     * partition. Such an operation fails immediately, as it would wait for itself.
+     */
+    private void lockPartition( ReadWriteLock partitionLock, boolean write ) throws LdapException
+    {
+        Lock lock = write ? partitionLock.writeLock() : partitionLock.readLock();
+
+        if ( !( partitionLock instanceof PartitionLock ) )
+        {
+            ReentrantReadWriteLock globalLock = ( ReentrantReadWriteLock ) partitionLock;
+
+            if ( write && !globalLock.isWriteLockedByCurrentThread() && ( globalLock.getReadHoldCount() > 0 ) )
+            {
+                // The thread holds a partition lock, hence the global ReadLock
+                String message = "Cannot write in the schema or the configuration during another operation";
+                OPERATION_LOG.warn( message );
+
+                throw new LdapUnwillingToPerformException( ResultCodeEnum.UNWILLING_TO_PERFORM, message );
+            }
+
+            lock.lock();
+
+            return;
+        }
+
+        PartitionLock orderedLock = ( PartitionLock ) partitionLock;
+        Deque<PartitionLock> held = heldLocks.get();
+
+        if ( write && !orderedLock.isWriteLockedByCurrentThread() && ( orderedLock.getReadHoldCount() > 0 ) )
+        {
+            String message = "Cannot write in the " + orderedLock.suffix + " partition while reading it";
+            OPERATION_LOG.warn( message );
+
+            throw new LdapUnwillingToPerformException( ResultCodeEnum.UNWILLING_TO_PERFORM, message );
+        }
+        boolean ordered = true;
+
+        for ( PartitionLock heldLock : held )
+        {
+            if ( heldLock == orderedLock )
+            {
+                // A reentrant acquisition never waits
+                ordered = true;
+
+                break;
+            }
+
+            if ( heldLock.suffix.compareTo( orderedLock.suffix ) >= 0 )
+            {
+                ordered = false;
+            }
+        }
+
+        if ( ordered )
+        {
+            lock.lock();
+        }
+        else
+        {
+            boolean acquired = false;
+
+            try
+            {
+                acquired = lock.tryLock( getOutOfOrderLockTimeout(), TimeUnit.MILLISECONDS );
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            if ( !acquired )
+            {
+                String message = "Cannot lock the " + orderedLock.suffix + " partition while holding the "
+                    + held.peekFirst().suffix + " partition lock";
+                OPERATION_LOG.warn( message );
+
+                throw new LdapServiceUnavailableException( ResultCodeEnum.BUSY, message );
+            }
+        }
+
+        held.addFirst( orderedLock );
+    }
+
+
+    /**
+     * Releases a partition lock acquired by {@link #lockPartition(ReadWriteLock, boolean)}
+     */
+    private void unlockPartition( ReadWriteLock partitionLock, boolean write )
+    {
+        if ( write )
+        {
+            partitionLock.writeLock().unlock();
+        }
+        else
+        {
+            partitionLock.readLock().unlock();
+        }
+
+        if ( partitionLock instanceof PartitionLock )
+        {
+            heldLocks.get().removeFirstOccurrence( partitionLock );
+        }
+    }
+
+
+    /**
+     * Acquires a ReadLock on the partition containing the given Dn. The global lock is
+     * also acquired in read mode, so that the global WriteLock stops all the operations.
+     *
+     * @param dn The Dn the operation is applied on
+     * @return The acquired partition lock, to be released by {@link #unlockRead(ReadWriteLock)}
+     * @throws LdapException If the lock can't be acquired without risking a deadlock
+     */
+    ReadWriteLock lockRead( Dn dn ) throws LdapException
+    {
+        ReadWriteLock partitionLock = getRWLock( dn );
+
+        if ( partitionLock != rwLock )
+        {
+            rwLock.readLock().lock();
+        }
+
+        try
+        {
+            lockPartition( partitionLock, false );
+        }
+        catch ( LdapException le )
+        {
+            if ( partitionLock != rwLock )
+            {
+                rwLock.readLock().unlock();
+            }
+
+            throw le;
+        }
+
+        return partitionLock;
+    }
+
+
+    /**
+     * Releases a ReadLock acquired by {@link #lockRead(Dn)}
+     */
+    void unlockRead( ReadWriteLock partitionLock )
+    {
+        unlockPartition( partitionLock, false );
+
+        if ( partitionLock != rwLock )
+        {
+            rwLock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public ReadWriteLock lockWrite( Dn dn ) throws LdapException
+    {
+        ReadWriteLock partitionLock = getRWLock( dn );
+
+        if ( partitionLock != rwLock )
+        {
+            rwLock.readLock().lock();
+        }
+
+        try
+        {
+            lockPartition( partitionLock, true );
+        }
+        catch ( LdapException le )
+        {
+            if ( partitionLock != rwLock )
+            {
+                rwLock.readLock().unlock();
+            }
+
+            throw le;
+        }
+
+        // The partitions may defer the disk flushes until the locks are released
+        DeferredSync.begin();
+
+        return partitionLock;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void unlockWrite( ReadWriteLock partitionLock, boolean succeeded ) throws LdapException
+    {
+        try
+        {
+            unlockPartition( partitionLock, true );
+
+            if ( partitionLock != rwLock )
+            {
+                rwLock.readLock().unlock();
+            }
+        }
+        finally
+        {
+            try
+            {
+                DeferredSync.end();
+            }
+            catch ( LdapException le )
+            {
+                if ( succeeded )
+                {
+                    throw le;
+                }
+
+                OPERATION_LOG.error( "Failed to write the changes of a failed operation", le );
+            }
+        }
+    }
+
+
     /**
      * Eagerly populates fields of operation contexts so multiple Interceptors
      * in the processing pathway can reuse this value without performing a
@@ -344,12 +777,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> AddOperation : {}", addContext );
         }
 
-        long addStart = 0L;
-
-        if ( IS_TIME )
-        {
-            addStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -388,17 +816,19 @@ public class DefaultOperationManager implements OperationManager
         }
 
         // Call the Add method
-        Interceptor head = directoryService.getInterceptor( addContext.getNextInterceptor() );
+        Interceptor head = addContext.nextInterceptor();
 
-        lockWrite();
+        ReadWriteLock partitionLock = lockWrite( dn );
+        boolean succeeded = false;
 
         try
         {
             head.add( addContext );
+            succeeded = true;
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partitionLock, succeeded );
         }
 
         if ( IS_DEBUG )
@@ -406,9 +836,12 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< AddOperation successful" );
         }
 
+        long opTime = System.nanoTime() - opStart;
+        recordLatency( OperationEnum.ADD, opTime );
+
         if ( IS_TIME )
         {
-            OPERATION_TIME.debug( "Add operation took " + ( System.nanoTime() - addStart ) + " ns" );
+            OPERATION_TIME.debug( "Add operation took " + opTime + " ns" );
         }
     }
 
@@ -423,19 +856,14 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> BindOperation : {}", bindContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
         // Call the Delete method
-        Interceptor head = directoryService.getInterceptor( bindContext.getNextInterceptor() );
+        Interceptor head = bindContext.nextInterceptor();
 
-        lockRead();
+        ReadWriteLock partitionLock = lockRead( bindContext.getDn() );
 
         try
         {
@@ -443,7 +871,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            unlockRead( partitionLock );
         }
 
         if ( IS_DEBUG )
@@ -451,9 +879,12 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< BindOperation successful" );
         }
 
+        long opTime = System.nanoTime() - opStart;
+        recordLatency( OperationEnum.BIND, opTime );
+
         if ( IS_TIME )
         {
-            OPERATION_TIME.debug( "Bind operation took " + ( System.nanoTime() - opStart ) + " ns" );
+            OPERATION_TIME.debug( "Bind operation took " + opTime + " ns" );
         }
     }
 
@@ -468,12 +899,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> CompareOperation : {}", compareContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
         // Normalize the compareContext Dn
@@ -531,11 +957,11 @@ public class DefaultOperationManager implements OperationManager
         compareContext.setOriginalEntry( getOriginalEntry( compareContext ) );
 
         // Call the Compare method
-        Interceptor head = directoryService.getInterceptor( compareContext.getNextInterceptor() );
+        Interceptor head = compareContext.nextInterceptor();
 
         boolean result = false;
 
-        lockRead();
+        ReadWriteLock partitionLock = lockRead( dn );
 
         try
         {
@@ -543,7 +969,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            unlockRead( partitionLock );
         }
 
         if ( IS_DEBUG )
@@ -551,9 +977,12 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< CompareOperation successful" );
         }
 
+        long opTime = System.nanoTime() - opStart;
+        recordLatency( OperationEnum.COMPARE, opTime );
+
         if ( IS_TIME )
         {
-            OPERATION_TIME.debug( "Compare operation took " + ( System.nanoTime() - opStart ) + " ns" );
+            OPERATION_TIME.debug( "Compare operation took " + opTime + " ns" );
         }
 
         return result;
@@ -570,12 +999,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> DeleteOperation : {}", deleteContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -632,20 +1056,22 @@ public class DefaultOperationManager implements OperationManager
         }
 
         // populate the context with the old entry
-        lockWrite();
+        ReadWriteLock partitionLock = lockWrite( dn );
+        boolean succeeded = false;
 
         try
         {
             eagerlyPopulateFields( deleteContext );
 
             // Call the Delete method
-            Interceptor head = directoryService.getInterceptor( deleteContext.getNextInterceptor() );
+            Interceptor head = deleteContext.nextInterceptor();
 
             head.delete( deleteContext );
+            succeeded = true;
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partitionLock, succeeded );
         }
 
         if ( IS_DEBUG )
@@ -653,9 +1079,12 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< DeleteOperation successful" );
         }
 
+        long opTime = System.nanoTime() - opStart;
+        recordLatency( OperationEnum.DELETE, opTime );
+
         if ( IS_TIME )
         {
-            OPERATION_TIME.debug( "Delete operation took " + ( System.nanoTime() - opStart ) + " ns" );
+            OPERATION_TIME.debug( "Delete operation took " + opTime + " ns" );
         }
     }
 
@@ -670,16 +1099,11 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> GetRootDseOperation : {}", getRootDseContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
-        Interceptor head = directoryService.getInterceptor( getRootDseContext.getNextInterceptor() );
+        Interceptor head = getRootDseContext.nextInterceptor();
 
         Entry root = head.getRootDse( getRootDseContext );
 
@@ -688,9 +1112,12 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< getRootDseOperation successful" );
         }
 
+        long opTime = System.nanoTime() - opStart;
+        recordLatency( OperationEnum.GET_ROOT_DSE, opTime );
+
         if ( IS_TIME )
         {
-            OPERATION_TIME.debug( "GetRootDSE operation took " + ( System.nanoTime() - opStart ) + " ns" );
+            OPERATION_TIME.debug( "GetRootDSE operation took " + opTime + " ns" );
         }
 
         return root;
@@ -707,20 +1134,15 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> hasEntryOperation : {}", hasEntryContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
-        Interceptor head = directoryService.getInterceptor( hasEntryContext.getNextInterceptor() );
+        Interceptor head = hasEntryContext.nextInterceptor();
 
         boolean result = false;
 
-        lockRead();
+        ReadWriteLock partitionLock = lockRead( hasEntryContext.getDn() );
 
         try
         {
@@ -728,7 +1150,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            unlockRead( partitionLock );
         }
 
         if ( IS_DEBUG )
@@ -736,9 +1158,12 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< HasEntryOperation successful" );
         }
 
+        long opTime = System.nanoTime() - opStart;
+        recordLatency( OperationEnum.HAS_ENTRY, opTime );
+
         if ( IS_TIME )
         {
-            OPERATION_TIME.debug( "HasEntry operation took " + ( System.nanoTime() - opStart ) + " ns" );
+            OPERATION_TIME.debug( "HasEntry operation took " + opTime + " ns" );
         }
 
         return result;
@@ -755,20 +1180,15 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> LookupOperation : {}", lookupContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
-        Interceptor head = directoryService.getInterceptor( lookupContext.getNextInterceptor() );
+        Interceptor head = lookupContext.nextInterceptor();
 
         Entry entry = null;
 
-        lockRead();
+        ReadWriteLock partitionLock = lockRead( lookupContext.getDn() );
 
         try
         {
@@ -776,7 +1196,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            unlockRead( partitionLock );
         }
 
         if ( IS_DEBUG )
@@ -784,9 +1204,12 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< LookupOperation successful" );
         }
 
+        long opTime = System.nanoTime() - opStart;
+        recordLatency( OperationEnum.LOOKUP, opTime );
+
         if ( IS_TIME )
         {
-            OPERATION_TIME.debug( "Lookup operation took " + ( System.nanoTime() - opStart ) + " ns" );
+            OPERATION_TIME.debug( "Lookup operation took " + opTime + " ns" );
         }
 
         return entry;
@@ -803,12 +1226,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> ModifyOperation : {}", modifyContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -873,7 +1291,8 @@ public class DefaultOperationManager implements OperationManager
             referralManager.unlock();
         }
 
-        lockWrite();
+        ReadWriteLock partitionLock = lockWrite( dn );
+        boolean succeeded = false;
 
         try
         {
@@ -881,13 +1300,14 @@ public class DefaultOperationManager implements OperationManager
             eagerlyPopulateFields( modifyContext );
 
             // Call the Modify method
-            Interceptor head = directoryService.getInterceptor( modifyContext.getNextInterceptor() );
+            Interceptor head = modifyContext.nextInterceptor();
 
             head.modify( modifyContext );
+            succeeded = true;
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partitionLock, succeeded );
         }
 
         if ( IS_DEBUG )
@@ -895,9 +1315,12 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< ModifyOperation successful" );
         }
 
+        long opTime = System.nanoTime() - opStart;
+        recordLatency( OperationEnum.MODIFY, opTime );
+
         if ( IS_TIME )
         {
-            OPERATION_TIME.debug( "Modify operation took " + ( System.nanoTime() - opStart ) + " ns" );
+            OPERATION_TIME.debug( "Modify operation took " + opTime + " ns" );
         }
     }
 
@@ -912,12 +1335,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> MoveOperation : {}", moveContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -991,7 +1409,8 @@ public class DefaultOperationManager implements OperationManager
             directoryService.getReferralManager().unlock();
         }
 
-        lockWrite();
+        ReadWriteLock partitionLock = lockWrite( dn );
+        boolean succeeded = false;
 
         try
         {
@@ -1000,13 +1419,14 @@ public class DefaultOperationManager implements OperationManager
             moveContext.setOriginalEntry( originalEntry );
 
             // Call the Move method
-            Interceptor head = directoryService.getInterceptor( moveContext.getNextInterceptor() );
+            Interceptor head = moveContext.nextInterceptor();
 
             head.move( moveContext );
+            succeeded = true;
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partitionLock, succeeded );
         }
 
         if ( IS_DEBUG )
@@ -1014,9 +1434,12 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< MoveOperation successful" );
         }
 
+        long opTime = System.nanoTime() - opStart;
+        recordLatency( OperationEnum.MOVE, opTime );
+
         if ( IS_TIME )
         {
-            OPERATION_TIME.debug( "Move operation took " + ( System.nanoTime() - opStart ) + " ns" );
+            OPERATION_TIME.debug( "Move operation took " + opTime + " ns" );
         }
     }
 
@@ -1031,12 +1454,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> MoveAndRenameOperation : {}", moveAndRenameContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -1111,7 +1529,8 @@ public class DefaultOperationManager implements OperationManager
             directoryService.getReferralManager().unlock();
         }
 
-        lockWrite();
+        ReadWriteLock partitionLock = lockWrite( dn );
+        boolean succeeded = false;
 
         try
         {
@@ -1119,13 +1538,14 @@ public class DefaultOperationManager implements OperationManager
             moveAndRenameContext.setModifiedEntry( moveAndRenameContext.getOriginalEntry().clone() );
 
             // Call the MoveAndRename method
-            Interceptor head = directoryService.getInterceptor( moveAndRenameContext.getNextInterceptor() );
+            Interceptor head = moveAndRenameContext.nextInterceptor();
 
             head.moveAndRename( moveAndRenameContext );
+            succeeded = true;
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partitionLock, succeeded );
         }
 
         if ( IS_DEBUG )
@@ -1133,9 +1553,12 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< MoveAndRenameOperation successful" );
         }
 
+        long opTime = System.nanoTime() - opStart;
+        recordLatency( OperationEnum.MOVE_AND_RENAME, opTime );
+
         if ( IS_TIME )
         {
-            OPERATION_TIME.debug( "MoveAndRename operation took " + ( System.nanoTime() - opStart ) + " ns" );
+            OPERATION_TIME.debug( "MoveAndRename operation took " + opTime + " ns" );
         }
     }
 
@@ -1150,12 +1573,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> RenameOperation : {}", renameContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -1224,7 +1642,8 @@ public class DefaultOperationManager implements OperationManager
         // Call the rename method
         // populate the context with the old entry
 
-        lockWrite();
+        ReadWriteLock partitionLock = lockWrite( dn );
+        boolean succeeded = false;
 
         try
         {
@@ -1234,13 +1653,14 @@ public class DefaultOperationManager implements OperationManager
             renameContext.setModifiedEntry( originalEntry.clone() );
 
             // Call the Rename method
-            Interceptor head = directoryService.getInterceptor( renameContext.getNextInterceptor() );
+            Interceptor head = renameContext.nextInterceptor();
 
             head.rename( renameContext );
+            succeeded = true;
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partitionLock, succeeded );
         }
 
         if ( IS_DEBUG )
@@ -1248,9 +1668,12 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< RenameOperation successful" );
         }
 
+        long opTime = System.nanoTime() - opStart;
+        recordLatency( OperationEnum.RENAME, opTime );
+
         if ( IS_TIME )
         {
-            OPERATION_TIME.debug( "Rename operation took " + ( System.nanoTime() - opStart ) + " ns" );
+            OPERATION_TIME.debug( "Rename operation took " + opTime + " ns" );
         }
     }
 
@@ -1265,12 +1688,7 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> SearchOperation : {}", searchContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
@@ -1331,11 +1749,11 @@ public class DefaultOperationManager implements OperationManager
         }
 
         // Call the Search method
-        Interceptor head = directoryService.getInterceptor( searchContext.getNextInterceptor() );
+        Interceptor head = searchContext.nextInterceptor();
 
         EntryFilteringCursor cursor = null;
 
-        lockRead();
+        ReadWriteLock partitionLock = lockRead( dn );
 
         try
         {
@@ -1343,7 +1761,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            unlockRead( partitionLock );
         }
 
         if ( IS_DEBUG )
@@ -1351,9 +1769,12 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< SearchOperation successful" );
         }
 
+        long opTime = System.nanoTime() - opStart;
+        recordLatency( OperationEnum.SEARCH, opTime );
+
         if ( IS_TIME )
         {
-            OPERATION_TIME.debug( "Search operation took " + ( System.nanoTime() - opStart ) + " ns" );
+            OPERATION_TIME.debug( "Search operation took " + opTime + " ns" );
         }
 
         return cursor;
@@ -1370,17 +1791,12 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( ">> UnbindOperation : {}", unbindContext );
         }
 
-        long opStart = 0L;
-
-        if ( IS_TIME )
-        {
-            opStart = System.nanoTime();
-        }
+        long opStart = System.nanoTime();
 
         ensureStarted();
 
         // Call the Unbind method
-        Interceptor head = directoryService.getInterceptor( unbindContext.getNextInterceptor() );
+        Interceptor head = unbindContext.nextInterceptor();
 
         head.unbind( unbindContext );
 
@@ -1389,9 +1805,12 @@ public class DefaultOperationManager implements OperationManager
             OPERATION_LOG.debug( "<< UnbindOperation successful" );
         }
 
+        long opTime = System.nanoTime() - opStart;
+        recordLatency( OperationEnum.UNBIND, opTime );
+
         if ( IS_TIME )
         {
-            OPERATION_TIME.debug( "Unbind operation took " + ( System.nanoTime() - opStart ) + " ns" );
+            OPERATION_TIME.debug( "Unbind operation took " + opTime + " ns" );
         }
     }
 
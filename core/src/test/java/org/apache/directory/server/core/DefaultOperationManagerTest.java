@@ -0,0 +1,501 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
+import org.apache.directory.api.ldap.model.exception.LdapServiceUnavailableException;
+import org.apache.directory.api.ldap.model.exception.LdapUnwillingToPerformException;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.MockDirectoryService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the partition locks of the DefaultOperationManager : the locks of different
+ * partitions don't exclude each other, and a thread holding a partition lock only
+ * waits for the partitions following it.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DefaultOperationManagerTest
+{
+    private static final long WAIT = 5L;
+
+    private Dn aDn;
+    private Dn bDn;
+    private Dn entryDn;
+    private Dn schemaDn;
+
+    private DefaultOperationManager operationManager;
+    private ExecutorService executor;
+
+
+    @Before
+    public void init() throws Exception
+    {
+        aDn = new Dn( "ou=a" );
+        bDn = new Dn( "ou=b" );
+        entryDn = new Dn( "cn=entry,ou=a" );
+        schemaDn = new Dn( "cn=nis,ou=schema" );
+
+        // Two partitions, ou=a and ou=b, and the schema and config partitions
+        final Dn[] suffixes = new Dn[]
+            { aDn, bDn, new Dn( "ou=schema" ), new Dn( "ou=config" ) };
+
+        operationManager = new DefaultOperationManager( new MockDirectoryService() )
+        {
+            Dn getSuffixDn( Dn dn ) throws LdapException
+            {
+                for ( Dn suffixDn : suffixes )
+                {
+                    if ( dn.isDescendantOf( suffixDn ) || dn.equals( suffixDn ) )
+                    {
+                        return suffixDn;
+                    }
+                }
+
+                throw new LdapNoSuchObjectException( dn.getName() );
+            }
+
+
+            // Don't wait for the locks acquired out of order
+            long getOutOfOrderLockTimeout()
+            {
+                return 0L;
+            }
+        };
+
+        executor = Executors.newCachedThreadPool();
+    }
+
+
+    @After
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+
+    /**
+     * Acquires the WriteLock of a partition in another thread, and keeps it until
+     * the returned latch is released
+     */
+    private CountDownLatch holdWriteLock( final Dn dn ) throws Exception
+    {
+        final CountDownLatch acquired = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+
+        executor.submit( new Callable<Void>()
+        {
+            public Void call() throws Exception
+            {
+                ReadWriteLock lock = operationManager.lockWrite( dn );
+
+                try
+                {
+                    acquired.countDown();
+                    release.await();
+                }
+                finally
+                {
+                    operationManager.unlockWrite( lock, true );
+                }
+
+                return null;
+            }
+        } );
+
+        assertTrue( acquired.await( WAIT, TimeUnit.SECONDS ) );
+
+        return release;
+    }
+
+
+    /**
+     * Acquires the ReadLock of a partition in another thread, as a search does, and keeps
+     * it until the returned latch is released
+     */
+    private CountDownLatch holdReadLock( final Dn dn ) throws Exception
+    {
+        final CountDownLatch acquired = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+
+        executor.submit( new Callable<Void>()
+        {
+            public Void call() throws Exception
+            {
+                ReadWriteLock lock = operationManager.lockRead( dn );
+
+                try
+                {
+                    acquired.countDown();
+                    release.await();
+                }
+                finally
+                {
+                    operationManager.unlockRead( lock );
+                }
+
+                return null;
+            }
+        } );
+
+        assertTrue( acquired.await( WAIT, TimeUnit.SECONDS ) );
+
+        return release;
+    }
+
+
+    /**
+     * Acquires and releases the ReadLock of a partition in another thread
+     */
+    private Future<Void> readLater( final Dn dn )
+    {
+        return executor.submit( new Callable<Void>()
+        {
+            public Void call() throws Exception
+            {
+                operationManager.unlockRead( operationManager.lockRead( dn ) );
+
+                return null;
+            }
+        } );
+    }
+
+
+    /**
+     * Checks that an operation waits for a lock
+     */
+    private static void assertWaiting( Future<Void> future ) throws Exception
+    {
+        try
+        {
+            future.get( 100L, TimeUnit.MILLISECONDS );
+            fail();
+        }
+        catch ( TimeoutException te )
+        {
+            // Expected
+        }
+    }
+
+
+    /**
+     * Acquires and releases the WriteLock of a partition in another thread
+     */
+    private Future<Void> writeLater( final Dn dn )
+    {
+        return executor.submit( new Callable<Void>()
+        {
+            public Void call() throws Exception
+            {
+                operationManager.unlockWrite( operationManager.lockWrite( dn ), true );
+
+                return null;
+            }
+        } );
+    }
+
+
+    /**
+     * Waits until the given thread is waiting for a partition lock
+     */
+    private void awaitQueued( Dn dn, Thread thread ) throws Exception
+    {
+        ReentrantReadWriteLock lock = ( ReentrantReadWriteLock ) operationManager.getRWLock( dn );
+        long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis( WAIT );
+
+        while ( !lock.hasQueuedThread( thread ) )
+        {
+            if ( System.currentTimeMillis() > end )
+            {
+                fail( "The thread is not waiting for the lock" );
+            }
+
+            Thread.yield();
+        }
+    }
+
+
+    @Test
+    public void testPartitionLocks() throws Exception
+    {
+        ReadWriteLock aLock = operationManager.getRWLock( aDn );
+
+        // All the entries of a partition share its lock
+        assertSame( aLock, operationManager.getRWLock( entryDn ) );
+        assertNotSame( aLock, operationManager.getRWLock( bDn ) );
+        assertNotSame( aLock, operationManager.getRWLock() );
+
+        // The rootDSE, and the entries out of any partition, are protected by the global lock
+        assertSame( operationManager.getRWLock(), operationManager.getRWLock( Dn.ROOT_DSE ) );
+        assertSame( operationManager.getRWLock(), operationManager.getRWLock( new Dn( "ou=unknown" ) ) );
+    }
+
+
+    @Test
+    public void testRemoveRWLock() throws Exception
+    {
+        ReadWriteLock aLock = operationManager.getRWLock( aDn );
+        ReadWriteLock bLock = operationManager.getRWLock( bDn );
+
+        operationManager.removeRWLock( aDn );
+
+        // A partition added again with the same suffix gets a new lock
+        ReadWriteLock newLock = operationManager.getRWLock( entryDn );
+
+        assertNotSame( aLock, newLock );
+        assertSame( newLock, operationManager.getRWLock( aDn ) );
+        assertSame( bLock, operationManager.getRWLock( bDn ) );
+    }
+
+
+    @Test
+    public void testPartitionsDontBlockEachOther() throws Exception
+    {
+        ReadWriteLock aLock = operationManager.lockWrite( aDn );
+
+        try
+        {
+            // Another partition can be written meanwhile
+            writeLater( bDn ).get( WAIT, TimeUnit.SECONDS );
+
+            // But not the same one
+            Future<Void> future = writeLater( entryDn );
+
+            try
+            {
+                future.get( 100L, TimeUnit.MILLISECONDS );
+                fail();
+            }
+            catch ( TimeoutException te )
+            {
+                // Expected
+            }
+
+            operationManager.unlockWrite( aLock, true );
+            aLock = null;
+
+            future.get( WAIT, TimeUnit.SECONDS );
+        }
+        finally
+        {
+            if ( aLock != null )
+            {
+                operationManager.unlockWrite( aLock, true );
+            }
+        }
+    }
+
+
+    @Test
+    public void testOrderedLockWaits() throws Exception
+    {
+        final CountDownLatch releaseB = holdWriteLock( bDn );
+
+        final Thread current = Thread.currentThread();
+
+        // Release ou=b once this thread waits for it
+        executor.submit( new Callable<Void>()
+        {
+            public Void call() throws Exception
+            {
+                awaitQueued( bDn, current );
+                releaseB.countDown();
+
+                return null;
+            }
+        } );
+
+        // ou=b follows ou=a : the lock is waited for even if the timeout is null
+        ReadWriteLock aLock = operationManager.lockWrite( aDn );
+        ReadWriteLock bLock = operationManager.lockWrite( bDn );
+
+        operationManager.unlockWrite( bLock, true );
+        operationManager.unlockWrite( aLock, true );
+    }
+
+
+    @Test
+    public void testOutOfOrderLockTimeout() throws Exception
+    {
+        ReadWriteLock bLock = operationManager.lockWrite( bDn );
+
+        // ou=a precedes ou=b : it's acquired out of order, which works when it's free
+        ReadWriteLock aLock = operationManager.lockWrite( aDn );
+        operationManager.unlockWrite( aLock, true );
+
+        // But it's not waited for when another thread holds it
+        CountDownLatch releaseA = holdWriteLock( aDn );
+
+        try
+        {
+            operationManager.lockWrite( entryDn );
+            fail();
+        }
+        catch ( LdapServiceUnavailableException luse )
+        {
+            assertEquals( ResultCodeEnum.BUSY, luse.getResultCode() );
+        }
+        finally
+        {
+            operationManager.unlockWrite( bLock, true );
+        }
+
+        releaseA.countDown();
+
+        // The failure has left no lock behind
+        aLock = operationManager.lockWrite( aDn );
+        bLock = operationManager.lockWrite( bDn );
+        operationManager.unlockWrite( bLock, true );
+        operationManager.unlockWrite( aLock, true );
+
+        writeLater( bDn ).get( WAIT, TimeUnit.SECONDS );
+    }
+
+
+    @Test
+    public void testReadLockUpgrade() throws Exception
+    {
+        ReadWriteLock aLock = operationManager.lockRead( aDn );
+
+        // The thread would wait for itself
+        try
+        {
+            operationManager.lockWrite( entryDn );
+            fail();
+        }
+        catch ( LdapUnwillingToPerformException luwpe )
+        {
+            assertEquals( ResultCodeEnum.UNWILLING_TO_PERFORM, luwpe.getResultCode() );
+        }
+
+        // Another partition can still be written
+        operationManager.unlockWrite( operationManager.lockWrite( bDn ), true );
+        operationManager.unlockRead( aLock );
+
+        // The same goes for the ReadLock directly held by the partition during a search
+        aLock = operationManager.getRWLock( aDn );
+        aLock.readLock().lock();
+
+        try
+        {
+            operationManager.lockWrite( aDn );
+            fail();
+        }
+        catch ( LdapUnwillingToPerformException luwpe )
+        {
+            // Expected
+        }
+        finally
+        {
+            aLock.readLock().unlock();
+        }
+
+        // A WriteLock can be taken again by the thread holding it
+        aLock = operationManager.lockWrite( aDn );
+        operationManager.unlockWrite( operationManager.lockWrite( entryDn ), true );
+        operationManager.unlockRead( operationManager.lockRead( entryDn ) );
+        operationManager.unlockWrite( aLock, true );
+
+        writeLater( aDn ).get( WAIT, TimeUnit.SECONDS );
+    }
+
+
+    @Test
+    public void testSchemaWriteIsolation() throws Exception
+    {
+        // The schema and config partitions are protected by the global lock
+        assertSame( operationManager.getRWLock(), operationManager.getRWLock( schemaDn ) );
+        assertSame( operationManager.getRWLock(), operationManager.getRWLock( new Dn( "cn=config,ou=config" ) ) );
+
+        // A schema modify waits for a search running on another partition
+        CountDownLatch releaseSearch = holdReadLock( aDn );
+        Future<Void> schemaModify = writeLater( schemaDn );
+        assertWaiting( schemaModify );
+
+        releaseSearch.countDown();
+        schemaModify.get( WAIT, TimeUnit.SECONDS );
+
+        // And a search on another partition waits for a running schema modify
+        CountDownLatch releaseModify = holdWriteLock( schemaDn );
+        Future<Void> search = readLater( bDn );
+        assertWaiting( search );
+
+        releaseModify.countDown();
+        search.get( WAIT, TimeUnit.SECONDS );
+
+        // The schema is read concurrently with the other partitions
+        releaseSearch = holdReadLock( aDn );
+        readLater( schemaDn ).get( WAIT, TimeUnit.SECONDS );
+        releaseSearch.countDown();
+    }
+
+
+    @Test
+    public void testNestedSchemaWrite() throws Exception
+    {
+        ReadWriteLock aLock = operationManager.lockWrite( aDn );
+
+        // The thread holds the global ReadLock through the partition lock : it would wait for itself
+        try
+        {
+            operationManager.lockWrite( schemaDn );
+            fail();
+        }
+        catch ( LdapUnwillingToPerformException luwpe )
+        {
+            assertEquals( ResultCodeEnum.UNWILLING_TO_PERFORM, luwpe.getResultCode() );
+        }
+        finally
+        {
+            operationManager.unlockWrite( aLock, true );
+        }
+
+        // A thread writing in the schema can write in any partition
+        ReadWriteLock schemaLock = operationManager.lockWrite( schemaDn );
+        operationManager.unlockWrite( operationManager.lockWrite( aDn ), true );
+        operationManager.unlockRead( operationManager.lockRead( bDn ) );
+        operationManager.unlockWrite( schemaLock, true );
+
+        writeLater( schemaDn ).get( WAIT, TimeUnit.SECONDS );
+    }
+}
@@ -743,7 +743,7 @@ public enum I18n
     ERR_707("ERR_707"),
     ERR_708("ERR_708"),
     ERR_709("ERR_709"),
-    // ERR_710( "ERR_710" ),
+    ERR_710("ERR_710"),
     ERR_711("ERR_711"),
     ERR_712("ERR_712"),
     ERR_713("ERR_713"),
@@ -34,10 +34,8 @@ import java.util.Date;
 
 import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
 import org.apache.directory.api.ldap.model.entry.Attribute;
-import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
-import org.apache.directory.api.ldap.model.entry.Modification;
-import org.apache.directory.api.ldap.model.entry.ModificationOperation;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.password.PasswordUtil;
@@ -46,7 +44,7 @@ import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.InterceptorEnum;
 import org.apache.directory.server.core.api.authn.ppolicy.PasswordPolicyConfiguration;
 import org.apache.directory.server.core.api.authn.ppolicy.PasswordPolicyException;
-import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.authn.ppolicy.BindStateManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -212,6 +210,10 @@ public abstract class AbstractAuthenticator implements Authenticator
             .getInterceptor(
             InterceptorEnum.AUTHENTICATION_INTERCEPTOR.getName() );
         PasswordPolicyConfiguration pPolicyConfig = authenticationInterceptor.getPwdPolicy( userEntry );
+        BindStateManager bindStateManager = authenticationInterceptor.getBindStateManager();
+
+        // The state of the previous binds may not have been written yet
+        bindStateManager.apply( userEntry );
 
         // check for locked out account
         if ( pPolicyConfig.isPwdLockout() )
@@ -244,15 +246,10 @@ public abstract class AbstractAuthenticator implements Authenticator
                     else
                     {
                         // remove pwdAccountLockedTime attribute
-                        Modification pwdAccountLockMod = new DefaultModification(
-                            ModificationOperation.REMOVE_ATTRIBUTE, accountLockAttr );
-                        ModifyOperationContext modContext = new ModifyOperationContext(
-                            directoryService.getAdminSession() );
-                        modContext.setDn( userEntry.getDn() );
-
-                        modContext.setModItems( Collections.singletonList( pwdAccountLockMod ) );
-
-                        directoryService.getPartitionNexus().modify( modContext );
+                        Attribute pwdAccountLockAttr = new DefaultAttribute( accountLockAttr.getAttributeType() );
+                        bindStateManager.record( userEntry.getDn(), Collections.singletonList( pwdAccountLockAttr ),
+                            true );
+                        userEntry.removeAttributes( accountLockAttr.getAttributeType() );
                     }
                 }
             }
@@ -96,6 +96,7 @@ import org.apache.directory.server.core.api.interceptor.context.OperationContext
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.authn.ppolicy.BindStateManager;
 import org.apache.directory.server.core.authn.ppolicy.PpolicyConfigContainer;
 import org.apache.directory.server.core.shared.DefaultCoreSession;
 import org.apache.directory.server.i18n.I18n;
@@ -149,6 +150,12 @@ public class AuthenticationInterceptor extends BaseInterceptor
     /** a container to hold all the ppolicies */
     private PpolicyConfigContainer pwdPolicyContainer;
 
+    /** The password policy state updated by the bind operations, waiting to be written */
+    private BindStateManager bindStateManager;
+
+    /** The delay before the pwdLastSuccess attribute is written, in ms */
+    private long bindStateFlushInterval = BindStateManager.DEFAULT_FLUSH_INTERVAL;
+
 
     /**
      * Creates an authentication service interceptor.
@@ -180,6 +187,15 @@ public class AuthenticationInterceptor extends BaseInterceptor
         }
 
         loadPwdPolicyStateAttributeTypes();
+
+        if ( bindStateManager != null )
+        {
+            bindStateManager.stop();
+        }
+
+        bindStateManager = new BindStateManager( directoryService );
+        bindStateManager.setFlushInterval( bindStateFlushInterval );
+        bindStateManager.start();
     }
 
 
@@ -262,6 +278,60 @@ public class AuthenticationInterceptor extends BaseInterceptor
         {
             authenticator.destroy();
         }
+
+        if ( bindStateManager != null )
+        {
+            bindStateManager.stop();
+            bindStateManager = null;
+        }
+    }
+
+
+    /**
+     * @return The password policy state updated by the bind operations, waiting to be written
+     */
+    public BindStateManager getBindStateManager()
+    {
+        return bindStateManager;
+    }
+
+
+    /**
+     * @return The delay before the pwdLastSuccess attribute is written, in ms
+     */
+    public long getBindStateFlushInterval()
+    {
+        return bindStateFlushInterval;
+    }
+
+
+    /**
+     * Sets the delay before the pwdLastSuccess attribute updated by a successful bind is
+     * written. The failure and lockout attributes are always written immediately.
+     *
+     * @param bindStateFlushInterval The delay, in ms
+     */
+    public void setBindStateFlushInterval( long bindStateFlushInterval )
+    {
+        this.bindStateFlushInterval = bindStateFlushInterval;
+
+        if ( bindStateManager != null )
+        {
+            bindStateManager.setFlushInterval( bindStateFlushInterval );
+        }
+    }
+
+
+    /**
+     * Writes the password policy state updated by the bind operations. This is done before
+     * the server is stopped.
+     */
+    public void flushBindState()
+    {
+        if ( bindStateManager != null )
+        {
+            bindStateManager.flushAll();
+        }
     }
 
 
@@ -562,6 +632,12 @@ public class AuthenticationInterceptor extends BaseInterceptor
             LookupOperationContext lookupContext = new LookupOperationContext( adminSession, bindDn,
                 SchemaConstants.ALL_ATTRIBUTES_ARRAY );
             userEntry = directoryService.getPartitionNexus().lookup( lookupContext );
+
+            // The state of the previous binds may not have been written yet
+            if ( userEntry != null )
+            {
+                bindStateManager.apply( userEntry );
+            }
         }
 
         // check if the user entry is null, it will be null
@@ -593,10 +669,9 @@ public class AuthenticationInterceptor extends BaseInterceptor
 
                 String failureTime = DateUtils.getGeneralizedTime();
                 pwdFailTimeAt.add( failureTime );
-                Modification pwdFailTimeMod = new DefaultModification( REPLACE_ATTRIBUTE, pwdFailTimeAt );
 
-                List<Modification> mods = new ArrayList<Modification>();
-                mods.add( pwdFailTimeMod );
+                List<Attribute> bindState = new ArrayList<Attribute>();
+                bindState.add( pwdFailTimeAt );
 
                 int numFailures = pwdFailTimeAt.size();
 
@@ -618,9 +693,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
                             pwdAccountLockedTimeAt.add( failureTime );
                         }
 
-                        Modification pwdAccountLockedMod = new DefaultModification( REPLACE_ATTRIBUTE,
-                            pwdAccountLockedTimeAt );
-                        mods.add( pwdAccountLockedMod );
+                        bindState.add( pwdAccountLockedTimeAt );
 
                         pwdRespCtrl.getResponse().setPasswordPolicyError( PasswordPolicyErrorEnum.ACCOUNT_LOCKED );
                     }
@@ -647,21 +720,9 @@ public class AuthenticationInterceptor extends BaseInterceptor
                     }
                 }
 
-                if ( !mods.isEmpty() )
-                {
-                    String csnVal = directoryService.getCSN().toString();
-                    Modification csnMod = new DefaultModification( REPLACE_ATTRIBUTE, directoryService.getAtProvider()
-                        .getEntryCSN(), csnVal );
-                    mods.add( csnMod );
-
-                    ModifyOperationContext bindModCtx = new ModifyOperationContext( adminSession );
-                    bindModCtx.setDn( bindDn );
-                    bindModCtx.setEntry( userEntry );
-                    bindModCtx.setModItems( mods );
-                    bindModCtx.setPushToEvtInterceptor( true );
-
-                    directoryService.getPartitionNexus().modify( bindModCtx );
-                }
+                // The failures and the lockout are written before the bind returns
+                bindStateManager.record( userEntry.getDn(), bindState, true );
+                writeBindState( userEntry.getDn() );
             }
 
             String upDn = ( bindDn == null ? "" : bindDn.getName() );
@@ -669,30 +730,17 @@ public class AuthenticationInterceptor extends BaseInterceptor
         }
         else if ( policyConfig != null )
         {
-            List<Modification> mods = new ArrayList<Modification>();
+            // An empty attribute is removed from the entry
+            List<Attribute> bindState = new ArrayList<Attribute>();
 
-            if ( policyConfig.getPwdMaxIdle() > 0 )
+            if ( userEntry.containsAttribute( pwdFailurTimeAT ) )
             {
-                Attribute pwdLastSuccesTimeAt = new DefaultAttribute( pwdLastSuccessAT );
-                pwdLastSuccesTimeAt.add( DateUtils.getGeneralizedTime() );
-                Modification pwdLastSuccesTimeMod = new DefaultModification( REPLACE_ATTRIBUTE, pwdLastSuccesTimeAt );
-                mods.add( pwdLastSuccesTimeMod );
+                bindState.add( new DefaultAttribute( pwdFailurTimeAT ) );
             }
 
-            Attribute pwdFailTimeAt = userEntry.get( pwdFailurTimeAT );
-
-            if ( pwdFailTimeAt != null )
-            {
-                Modification pwdFailTimeMod = new DefaultModification( REMOVE_ATTRIBUTE, pwdFailTimeAt );
-                mods.add( pwdFailTimeMod );
-            }
-
-            Attribute pwdAccLockedTimeAt = userEntry.get( pwdAccountLockedTimeAT );
-
-            if ( pwdAccLockedTimeAt != null )
+            if ( userEntry.containsAttribute( pwdAccountLockedTimeAT ) )
             {
-                Modification pwdAccLockedTimeMod = new DefaultModification( REMOVE_ATTRIBUTE, pwdAccLockedTimeAt );
-                mods.add( pwdAccLockedTimeMod );
+                bindState.add( new DefaultAttribute( pwdAccountLockedTimeAT ) );
             }
 
             // checking the expiration time *after* performing authentication, do we need to care about millisecond precision?
@@ -722,27 +770,27 @@ public class AuthenticationInterceptor extends BaseInterceptor
 
                         pwdRespCtrl.getResponse().setGraceAuthNRemaining( numGraceAuth );
 
+                        // The grace logins are replaced altogether, so that they can be coalesced
                         pwdGraceUseAttr.add( DateUtils.getGeneralizedTime() );
-                        Modification pwdGraceUseMod = new DefaultModification( ADD_ATTRIBUTE, pwdGraceUseAttr );
-                        mods.add( pwdGraceUseMod );
+                        bindState.add( pwdGraceUseAttr );
                     }
                 }
             }
 
-            if ( !mods.isEmpty() )
+            if ( policyConfig.getPwdMaxIdle() > 0 )
+            {
+                Attribute pwdLastSuccesTimeAt = new DefaultAttribute( pwdLastSuccessAT );
+                pwdLastSuccesTimeAt.add( DateUtils.getGeneralizedTime() );
+
+                // The last success time is written behind, unless some critical changes are written
+                bindStateManager.record( userEntry.getDn(), Collections.singletonList( pwdLastSuccesTimeAt ), false );
+            }
+
+            if ( !bindState.isEmpty() )
             {
-                String csnVal = directoryService.getCSN().toString();
-                Modification csnMod = new DefaultModification( REPLACE_ATTRIBUTE, directoryService.getAtProvider()
-                    .getEntryCSN(), csnVal );
-                mods.add( csnMod );
-
-                ModifyOperationContext bindModCtx = new ModifyOperationContext( adminSession );
-                bindModCtx.setDn( bindDn );
-                bindModCtx.setEntry( userEntry );
-                bindModCtx.setModItems( mods );
-                bindModCtx.setPushToEvtInterceptor( true );
-
-                directoryService.getPartitionNexus().modify( bindModCtx );
+                // Unlocking the account and counting the grace logins are written before the bind returns
+                bindStateManager.record( userEntry.getDn(), bindState, true );
+                writeBindState( userEntry.getDn() );
             }
 
             if ( isPPolicyReqCtrlPresent )
@@ -798,6 +846,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
         checkPwdReset( deleteContext );
         next( deleteContext );
         invalidateAuthenticatorCaches( deleteContext.getDn() );
+        bindStateManager.discard( deleteContext.getDn() );
     }
 
 
@@ -878,6 +927,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
         }
 
         checkAuthenticated( modifyContext );
+        writeBindState( modifyContext );
 
         if ( !directoryService.isPwdPolicyEnabled() || modifyContext.isReplEvent() )
         {
@@ -890,6 +940,26 @@ public class AuthenticationInterceptor extends BaseInterceptor
     }
 
     
+    /**
+     * Writes the pending password policy state of an entry before it is modified, moved or
+     * renamed, and reloads the entry stored in the operation context if it has changed.
+     */
+    private void writeBindState( OperationContext opContext ) throws LdapException
+    {
+        if ( bindStateManager.flush( opContext.getDn() ) && ( opContext.getEntry() != null ) )
+        {
+            LookupOperationContext lookupContext = new LookupOperationContext( adminSession, opContext.getDn(),
+                SchemaConstants.ALL_ATTRIBUTES_ARRAY );
+            Entry entry = directoryService.getPartitionNexus().lookup( lookupContext );
+
+            if ( entry != null )
+            {
+                opContext.setEntry( entry );
+            }
+        }
+    }
+
+
     /**
      * Proceed with the Modification operation when the PasswordPolicy is not activated.
      */
@@ -1272,6 +1342,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
 
         checkAuthenticated( moveContext );
         checkPwdReset( moveContext );
+        writeBindState( moveContext );
         next( moveContext );
         invalidateAuthenticatorCaches( moveContext.getDn() );
     }
@@ -1289,6 +1360,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
 
         checkAuthenticated( moveAndRenameContext );
         checkPwdReset( moveAndRenameContext );
+        writeBindState( moveAndRenameContext );
         next( moveAndRenameContext );
         invalidateAuthenticatorCaches( moveAndRenameContext.getDn() );
     }
@@ -1306,6 +1378,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
 
         checkAuthenticated( renameContext );
         checkPwdReset( renameContext );
+        writeBindState( renameContext );
         next( renameContext );
         invalidateAuthenticatorCaches( renameContext.getDn() );
     }
@@ -1817,6 +1890,24 @@ public class AuthenticationInterceptor extends BaseInterceptor
     }
 
 
+    /**
+     * Writes the password policy state recorded by a bind on the user entry, so that the
+     * next operations see it. The bind already holds the lock of the user entry partition.
+     * If the write fails, it's retried in the background, and the bind goes on.
+     */
+    private void writeBindState( Dn userDn )
+    {
+        try
+        {
+            bindStateManager.writeThrough( userDn );
+        }
+        catch ( LdapException le )
+        {
+            LOG.error( "Cannot write the password policy state of {}, it will be retried", userDn, le );
+        }
+    }
+
+
     /**
      * purges failure timestamps which are older than the configured interval
      * (section 7.6 in the draft)
@@ -0,0 +1,517 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authn;
+
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.directory.server.core.api.LdapPrincipal;
+
+
+/**
+ * The cache used by the {@link SimpleAuthenticator}. It stores, for each user :
+ * <ul>
+ * <li>the principal read from the backend, with its stored passwords</li>
+ * <li>the credentials which have already been verified against the stored hashed
+ * passwords, so that the costly hash functions (PKCS5S2, SSHA-512, crypt...) are not
+ * computed again on each bind</li>
+ * </ul>
+ * The verified credentials are associated with a fingerprint of the stored passwords :
+ * they are forgotten as soon as the stored passwords change. They are never kept in clear
+ * text, but as a keyed digest, the key being randomly generated for each cache.
+ * <br>
+ * The cache is split in shards, each one being a LRU map protected by its own lock, so
+ * that the concurrent binds don't wait for each other. The elements expire after a
+ * configurable time to live.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CredentialCache
+{
+    /** The default number of shards */
+    private static final int DEFAULT_SHARD_COUNT = 16;
+
+    /** The algorithm used to digest the stored passwords */
+    private static final String FINGERPRINT_ALGORITHM = "SHA-256";
+
+    /** The algorithm used to digest the verified credentials */
+    private static final String DIGEST_ALGORITHM = "HmacSHA256";
+
+    /** The maximum number of credentials verified for a user */
+    private static final int MAX_VERIFIED_CREDENTIALS = 4;
+
+    /** The shards */
+    private final Shard[] shards;
+
+    /** The time to live of the elements, in ms. 0 means they never expire */
+    private volatile long timeToLive;
+
+    /** The key used to digest the verified credentials */
+    private final byte[] digestKey = new byte[32];
+
+    /** The number of principals found in the cache */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /** The number of principals not found in the cache */
+    private final AtomicLong missCount = new AtomicLong();
+
+    /** The number of credentials found already verified */
+    private final AtomicLong verifiedHitCount = new AtomicLong();
+
+    /** The number of credentials which had to be verified */
+    private final AtomicLong verifiedMissCount = new AtomicLong();
+
+
+    /**
+     * A LRU map, and its lock
+     */
+    private static final class Shard
+    {
+        private final Map<String, CacheElement> elements;
+
+
+        private Shard( final int maxSize )
+        {
+            elements = new LinkedHashMap<String, CacheElement>( 16, 0.75f, true )
+            {
+                private static final long serialVersionUID = 1L;
+
+
+                protected boolean removeEldestEntry( Map.Entry<String, CacheElement> eldest )
+                {
+                    return size() > maxSize;
+                }
+            };
+        }
+    }
+
+
+    /**
+     * What is stored for a user
+     */
+    private static final class CacheElement
+    {
+        /** The principal, null if it has not been cached */
+        private LdapPrincipal principal;
+
+        /** The date the principal has been stored */
+        private long principalTime;
+
+        /** The fingerprint of the stored passwords the credentials have been verified against */
+        private byte[] fingerprint;
+
+        /** The digests of the verified credentials */
+        private final Set<ByteBuffer> verifiedCredentials = new HashSet<ByteBuffer>();
+
+        /** The date the fingerprint has been computed */
+        private long fingerprintTime;
+    }
+
+
+    /**
+     * Creates a new instance of CredentialCache.
+     *
+     * @param maxSize The maximum number of users in the cache
+     * @param timeToLive The time to live of the elements, in ms. 0 means they never expire
+     */
+    public CredentialCache( int maxSize, long timeToLive )
+    {
+        int shardCount = DEFAULT_SHARD_COUNT;
+
+        // Don't create shards much smaller than the requested size
+        while ( ( shardCount > 1 ) && ( shardCount * 4 > maxSize ) )
+        {
+            shardCount >>= 1;
+        }
+
+        shards = new Shard[shardCount];
+        int shardSize = ( maxSize + shardCount - 1 ) / shardCount;
+
+        for ( int i = 0; i < shardCount; i++ )
+        {
+            shards[i] = new Shard( shardSize );
+        }
+
+        this.timeToLive = timeToLive;
+        new SecureRandom().nextBytes( digestKey );
+    }
+
+
+    /**
+     * @return The time to live of the elements, in ms. 0 means they never expire
+     */
+    public long getTimeToLive()
+    {
+        return timeToLive;
+    }
+
+
+    /**
+     * @param timeToLive The time to live of the elements, in ms. 0 means they never expire
+     */
+    public void setTimeToLive( long timeToLive )
+    {
+        this.timeToLive = timeToLive;
+    }
+
+
+    private Shard getShard( String normDn )
+    {
+        int h = normDn.hashCode();
+        h ^= ( h >>> 16 );
+
+        return shards[h & ( shards.length - 1 )];
+    }
+
+
+    private boolean isExpired( long time, long now )
+    {
+        long ttl = timeToLive;
+
+        return ( ttl > 0 ) && ( now - time >= ttl );
+    }
+
+
+    /**
+     * Gets the cached principal of a user.
+     *
+     * @param normDn The user normalized Dn
+     * @return The principal, or null if it's not in the cache or has expired
+     */
+    public LdapPrincipal getPrincipal( String normDn )
+    {
+        Shard shard = getShard( normDn );
+        LdapPrincipal principal = null;
+
+        synchronized ( shard )
+        {
+            CacheElement element = shard.elements.get( normDn );
+
+            if ( ( element != null ) && ( element.principal != null ) )
+            {
+                if ( isExpired( element.principalTime, System.currentTimeMillis() ) )
+                {
+                    element.principal = null;
+                }
+                else
+                {
+                    principal = element.principal;
+                }
+            }
+        }
+
+        if ( principal == null )
+        {
+            missCount.incrementAndGet();
+        }
+        else
+        {
+            hitCount.incrementAndGet();
+        }
+
+        return principal;
+    }
+
+
+    /**
+     * Stores the principal of a user.
+     *
+     * @param normDn The user normalized Dn
+     * @param principal The principal
+     */
+    public void putPrincipal( String normDn, LdapPrincipal principal )
+    {
+        Shard shard = getShard( normDn );
+
+        synchronized ( shard )
+        {
+            CacheElement element = getOrCreateElement( shard, normDn );
+            element.principal = principal;
+            element.principalTime = System.currentTimeMillis();
+        }
+    }
+
+
+    private CacheElement getOrCreateElement( Shard shard, String normDn )
+    {
+        CacheElement element = shard.elements.get( normDn );
+
+        if ( element == null )
+        {
+            element = new CacheElement();
+            shard.elements.put( normDn, element );
+        }
+
+        return element;
+    }
+
+
+    /**
+     * Tells if some credentials have already been verified against the current stored
+     * passwords of a user.
+     *
+     * @param normDn The user normalized Dn
+     * @param storedPasswords The stored passwords
+     * @param credentials The credentials to check
+     * @return true if the credentials match one of the stored passwords
+     */
+    public boolean isVerified( String normDn, byte[][] storedPasswords, byte[] credentials )
+    {
+        if ( credentials == null )
+        {
+            return false;
+        }
+
+        byte[] fingerprint = getFingerprint( storedPasswords );
+        ByteBuffer digest = ByteBuffer.wrap( getDigest( credentials ) );
+        Shard shard = getShard( normDn );
+        boolean verified = false;
+
+        synchronized ( shard )
+        {
+            CacheElement element = shard.elements.get( normDn );
+
+            if ( ( element != null ) && ( element.fingerprint != null ) )
+            {
+                if ( isExpired( element.fingerprintTime, System.currentTimeMillis() )
+                    || !Arrays.equals( fingerprint, element.fingerprint ) )
+                {
+                    element.fingerprint = null;
+                    element.verifiedCredentials.clear();
+                }
+                else
+                {
+                    verified = element.verifiedCredentials.contains( digest );
+                }
+            }
+        }
+
+        if ( verified )
+        {
+            verifiedHitCount.incrementAndGet();
+        }
+        else
+        {
+            verifiedMissCount.incrementAndGet();
+        }
+
+        return verified;
+    }
+
+
+    /**
+     * Remembers that some credentials match one of the stored passwords of a user.
+     *
+     * @param normDn The user normalized Dn
+     * @param storedPasswords The stored passwords
+     * @param credentials The verified credentials
+     */
+    public void setVerified( String normDn, byte[][] storedPasswords, byte[] credentials )
+    {
+        byte[] fingerprint = getFingerprint( storedPasswords );
+        ByteBuffer digest = ByteBuffer.wrap( getDigest( credentials ) );
+        Shard shard = getShard( normDn );
+
+        synchronized ( shard )
+        {
+            CacheElement element = getOrCreateElement( shard, normDn );
+
+            if ( !Arrays.equals( fingerprint, element.fingerprint )
+                || ( element.verifiedCredentials.size() >= MAX_VERIFIED_CREDENTIALS ) )
+            {
+                element.fingerprint = fingerprint;
+                element.fingerprintTime = System.currentTimeMillis();
+                element.verifiedCredentials.clear();
+            }
+
+            element.verifiedCredentials.add( digest );
+        }
+    }
+
+
+    /**
+     * Removes a user from the cache.
+     *
+     * @param normDn The user normalized Dn
+     */
+    public void invalidate( String normDn )
+    {
+        Shard shard = getShard( normDn );
+
+        synchronized ( shard )
+        {
+            shard.elements.remove( normDn );
+        }
+    }
+
+
+    /**
+     * Removes all the users from the cache.
+     */
+    public void clear()
+    {
+        for ( Shard shard : shards )
+        {
+            synchronized ( shard )
+            {
+                shard.elements.clear();
+            }
+        }
+    }
+
+
+    /**
+     * @return The number of users in the cache
+     */
+    public int size()
+    {
+        int size = 0;
+
+        for ( Shard shard : shards )
+        {
+            synchronized ( shard )
+            {
+                size += shard.elements.size();
+            }
+        }
+
+        return size;
+    }
+
+
+    /**
+     * @return The number of principals found in the cache
+     */
+    public long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+
+    /**
+     * @return The number of principals which had to be read from the backend
+     */
+    public long getMissCount()
+    {
+        return missCount.get();
+    }
+
+
+    /**
+     * @return The number of credentials found already verified
+     */
+    public long getVerifiedHitCount()
+    {
+        return verifiedHitCount.get();
+    }
+
+
+    /**
+     * @return The number of credentials which had to be compared with the stored passwords
+     */
+    public long getVerifiedMissCount()
+    {
+        return verifiedMissCount.get();
+    }
+
+
+    /**
+     * @return The ratio of the principals found in the cache, between 0 and 1
+     */
+    public double getHitRatio()
+    {
+        return ratio( hitCount.get(), missCount.get() );
+    }
+
+
+    /**
+     * @return The ratio of the credentials found already verified, between 0 and 1
+     */
+    public double getVerifiedHitRatio()
+    {
+        return ratio( verifiedHitCount.get(), verifiedMissCount.get() );
+    }
+
+
+    private static double ratio( long hits, long misses )
+    {
+        long total = hits + misses;
+
+        return total == 0 ? 0d : ( double ) hits / total;
+    }
+
+
+    /**
+     * Computes a digest of the stored passwords
+     */
+    private static byte[] getFingerprint( byte[][] storedPasswords )
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance( FINGERPRINT_ALGORITHM );
+
+            for ( byte[] storedPassword : storedPasswords )
+            {
+                int length = storedPassword.length;
+                digest.update( new byte[]
+                    { ( byte ) ( length >>> 24 ), ( byte ) ( length >>> 16 ), ( byte ) ( length >>> 8 ),
+                        ( byte ) length } );
+                digest.update( storedPassword );
+            }
+
+            return digest.digest();
+        }
+        catch ( GeneralSecurityException gse )
+        {
+            throw new IllegalStateException( gse );
+        }
+    }
+
+
+    /**
+     * Computes a keyed digest of the credentials, so that they are not kept in memory
+     */
+    private byte[] getDigest( byte[] credentials )
+    {
+        try
+        {
+            Mac mac = Mac.getInstance( DIGEST_ALGORITHM );
+            mac.init( new SecretKeySpec( digestKey, DIGEST_ALGORITHM ) );
+
+            return mac.doFinal( credentials );
+        }
+        catch ( GeneralSecurityException gse )
+        {
+            throw new IllegalStateException( gse );
+        }
+    }
+}
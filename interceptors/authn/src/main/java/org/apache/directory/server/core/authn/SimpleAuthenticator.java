@@ -22,7 +22,6 @@ package org.apache.directory.server.core.authn;
 
 import java.net.SocketAddress;
 
-import org.apache.commons.collections.map.LRUMap;
 import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
@@ -50,7 +49,8 @@ import org.apache.mina.core.session.IoSession;
  * password is stored with a one-way encryption applied (e.g. SHA), the password
  * is hashed the same way before comparison.
  *
- * We use a cache to speedup authentication, where the Dn/password are stored.
+ * We use a cache to speedup authentication, where the Dn/password are stored, as well
+ * as the credentials already verified against a hashed password.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -74,12 +74,18 @@ public class SimpleAuthenticator extends AbstractAuthenticator
      *
      * We need to be sure that frequently used passwords be always in cache, and not discarded.
      * We will use a LRU cache for this purpose.
+     *
+     * The cache also remembers the credentials which have been successfully compared with a
+     * hashed password, so that we don't compute the hash on each bind.
      */
-    private final LRUMap credentialCache;
+    private final CredentialCache credentialCache;
 
     /** Declare a default for this cache. 100 entries seems to be enough */
     private static final int DEFAULT_CACHE_SIZE = 100;
 
+    /** By default, the cached credentials never expire */
+    private static final long DEFAULT_CACHE_TTL = 0L;
+
 
     /**
      * Creates a new instance.
@@ -87,7 +93,7 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     public SimpleAuthenticator()
     {
         super( AuthenticationLevel.SIMPLE );
-        credentialCache = new LRUMap( DEFAULT_CACHE_SIZE );
+        credentialCache = new CredentialCache( DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL );
     }
 
 
@@ -98,7 +104,7 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     public SimpleAuthenticator( Dn baseDn )
     {
         super( AuthenticationLevel.SIMPLE, baseDn );
-        credentialCache = new LRUMap( DEFAULT_CACHE_SIZE );
+        credentialCache = new CredentialCache( DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL );
     }
 
 
@@ -110,7 +116,7 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     {
         super( AuthenticationLevel.SIMPLE, Dn.ROOT_DSE );
 
-        credentialCache = new LRUMap( cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE );
+        credentialCache = new CredentialCache( cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL );
     }
 
 
@@ -122,7 +128,27 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     {
         super( AuthenticationLevel.SIMPLE, baseDn );
 
-        credentialCache = new LRUMap( cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE );
+        credentialCache = new CredentialCache( cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL );
+    }
+
+
+    /**
+     * @return The cache of the principals and verified credentials
+     */
+    public CredentialCache getCredentialCache()
+    {
+        return credentialCache;
+    }
+
+
+    /**
+     * Sets the time after which a cached principal or verified credential expires
+     *
+     * @param cacheTtl The time to live, in ms. 0 means the cached elements never expire
+     */
+    public void setCacheTtl( long cacheTtl )
+    {
+        credentialCache.setTimeToLive( cacheTtl );
     }
 
 
@@ -139,10 +165,7 @@ public class SimpleAuthenticator extends AbstractAuthenticator
         // use cache only if pwdpolicy is not enabled
         if ( !getDirectoryService().isPwdPolicyEnabled() )
         {
-            synchronized ( credentialCache )
-            {
-                principal = ( LdapPrincipal ) credentialCache.get( bindContext.getDn().getNormName() );
-            }
+            principal = credentialCache.getPrincipal( bindContext.getDn().getNormName() );
         }
 
         byte[][] storedPasswords;
@@ -171,10 +194,7 @@ public class SimpleAuthenticator extends AbstractAuthenticator
             // Now, update the local cache ONLY if pwdpolicy is not enabled.
             if ( !getDirectoryService().isPwdPolicyEnabled() )
             {
-                synchronized ( credentialCache )
-                {
-                    credentialCache.put( bindContext.getDn().getNormName(), principal );
-                }
+                credentialCache.putPrincipal( bindContext.getDn().getNormName(), principal );
             }
         }
 
@@ -224,24 +244,42 @@ public class SimpleAuthenticator extends AbstractAuthenticator
             ppe = e;
         }
 
-        // Now, compare the passwords.
-        for ( byte[] storedPassword : storedPasswords )
+        // Now, compare the passwords, unless they have already been compared
+        String normDn = bindContext.getDn().getNormName();
+        boolean authenticated = credentialCache.isVerified( normDn, storedPasswords, credentials );
+
+        if ( !authenticated )
         {
-            if ( PasswordUtil.compareCredentials( credentials, storedPassword ) )
+            for ( byte[] storedPassword : storedPasswords )
             {
-                if ( ppe != null ) 
+                if ( PasswordUtil.compareCredentials( credentials, storedPassword ) )
                 {
-                    LOG.debug( "{} Authentication failed: {}", bindContext.getDn(), ppe.getMessage() );
-                    throw ppe;
+                    // Remember the credentials only if they had to be hashed
+                    if ( PasswordUtil.findAlgorithm( storedPassword ) != null )
+                    {
+                        credentialCache.setVerified( normDn, storedPasswords, credentials );
+                    }
+
+                    authenticated = true;
+                    break;
                 }
+            }
+        }
 
-                if ( IS_DEBUG )
-                {
-                    LOG.debug( "{} Authenticated", bindContext.getDn() );
-                }
+        if ( authenticated )
+        {
+            if ( ppe != null ) 
+            {
+                LOG.debug( "{} Authentication failed: {}", bindContext.getDn(), ppe.getMessage() );
+                throw ppe;
+            }
 
-                return principal;
+            if ( IS_DEBUG )
+            {
+                LOG.debug( "{} Authenticated", bindContext.getDn() );
             }
+
+            return principal;
         }
 
         // Bad password ...
@@ -338,9 +376,6 @@ public class SimpleAuthenticator extends AbstractAuthenticator
      */
     public void invalidateCache( Dn bindDn )
     {
-        synchronized ( credentialCache )
-        {
-            credentialCache.remove( bindDn.getNormName() );
-        }
+        credentialCache.invalidate( bindDn.getNormName() );
     }
 }
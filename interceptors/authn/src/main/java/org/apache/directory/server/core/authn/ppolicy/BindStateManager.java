@@ -0,0 +1,677 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+
+package org.apache.directory.server.core.authn.ppolicy;
+
+
+import static org.apache.directory.api.ldap.model.entry.ModificationOperation.REPLACE_ATTRIBUTE;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.OperationManager;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Keeps in memory the password policy state attributes updated by the bind operations
+ * (pwdFailureTime, pwdAccountLockedTime, pwdGraceUseTime, pwdLastSuccess...) until they
+ * are written on the user entries.
+ * <br>
+ * The recorded values are authoritative as soon as they are recorded : they are applied on
+ * the user entries read by the authentication with {@link #apply(Entry)}. The successive
+ * changes done on an entry are coalesced into a single modification :
+ * <ul>
+ * <li>the <em>critical</em> changes (failures, lockout, grace logins) are written by the
+ * bind itself with {@link #writeThrough(Dn)}, so that they are visible to the other
+ * operations as soon as the bind is done. If this write fails, they are retried in the
+ * background after a short delay</li>
+ * <li>the other changes (pwdLastSuccess) are written behind, in the background, after
+ * the flush interval</li>
+ * </ul>
+ * All the pending changes are written when the server is stopped. An attribute recorded
+ * without any value is removed from the entry.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class BindStateManager implements Runnable
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( BindStateManager.class );
+
+    /** The default delay before the pwdLastSuccess like attributes are written, in ms */
+    public static final long DEFAULT_FLUSH_INTERVAL = 60000L;
+
+    /** The default delay before the critical changes which could not be written are retried, in ms */
+    public static final long DEFAULT_WRITE_THROUGH_DELAY = 50L;
+
+    /** The directory service */
+    private final DirectoryService directoryService;
+
+    /** The pending changes, by entry normalized Dn */
+    private final Map<String, PendingState> pendingStates = new HashMap<String, PendingState>();
+
+    /** The delay before the non critical changes are written */
+    private long flushInterval = DEFAULT_FLUSH_INTERVAL;
+
+    /** The delay before the critical changes which could not be written are retried */
+    private long writeThroughDelay = DEFAULT_WRITE_THROUGH_DELAY;
+
+    /** Serializes the writes, so that an older state is never written after a newer one */
+    private final Object writeLock = new Object();
+
+    /** The background writer */
+    private Thread flusher;
+
+    /** Tells if the background writer must keep running */
+    private volatile boolean running;
+
+
+    /**
+     * The changes waiting to be written on an entry
+     */
+    private static final class PendingState
+    {
+        /** The entry Dn */
+        private final Dn dn;
+
+        /** The new attributes, empty when they have to be removed */
+        private final Map<AttributeType, Attribute> attributes = new HashMap<AttributeType, Attribute>();
+
+        /** The date of the first non written change */
+        private long pendingSince;
+
+        /** The date of the first non written critical change, -1 if there is none */
+        private long criticalSince = -1L;
+
+        /** Incremented on each change, to know if the entry has been modified while being written */
+        private long version;
+
+
+        private PendingState( Dn dn, long pendingSince )
+        {
+            this.dn = dn;
+            this.pendingSince = pendingSince;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of BindStateManager.
+     *
+     * @param directoryService The directory service
+     */
+    public BindStateManager( DirectoryService directoryService )
+    {
+        this.directoryService = directoryService;
+    }
+
+
+    /**
+     * @return The delay before the pwdLastSuccess like attributes are written, in ms
+     */
+    public long getFlushInterval()
+    {
+        return flushInterval;
+    }
+
+
+    /**
+     * @param flushInterval The delay before the pwdLastSuccess like attributes are written, in ms
+     */
+    public void setFlushInterval( long flushInterval )
+    {
+        this.flushInterval = flushInterval;
+    }
+
+
+    /**
+     * @return The delay before the critical changes which could not be written are retried, in ms
+     */
+    public long getWriteThroughDelay()
+    {
+        return writeThroughDelay;
+    }
+
+
+    /**
+     * @param writeThroughDelay The delay before the critical changes which could not be written
+     * are retried, in ms
+     */
+    public void setWriteThroughDelay( long writeThroughDelay )
+    {
+        this.writeThroughDelay = writeThroughDelay;
+    }
+
+
+    /**
+     * Starts the background writer.
+     */
+    public synchronized void start()
+    {
+        if ( running )
+        {
+            return;
+        }
+
+        running = true;
+        flusher = new Thread( this, "BindStateFlusher" );
+        flusher.setDaemon( true );
+        flusher.start();
+    }
+
+
+    /**
+     * Stops the background writer, and writes all the pending changes.
+     */
+    public void stop()
+    {
+        Thread thread;
+
+        synchronized ( this )
+        {
+            running = false;
+            thread = flusher;
+            flusher = null;
+            notifyAll();
+        }
+
+        if ( thread != null )
+        {
+            try
+            {
+                thread.join();
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        flushAll();
+    }
+
+
+    /**
+     * Records some changes on an entry.
+     *
+     * @param dn The entry Dn
+     * @param attributes The new attributes. An attribute without value will be removed
+     * @param critical Tells if the changes must be written as soon as possible
+     */
+    public synchronized void record( Dn dn, List<Attribute> attributes, boolean critical )
+    {
+        PendingState state = pendingStates.get( dn.getNormName() );
+        long now = currentTimeMillis();
+
+        if ( state == null )
+        {
+            state = new PendingState( dn, now );
+            pendingStates.put( dn.getNormName(), state );
+        }
+
+        for ( Attribute attribute : attributes )
+        {
+            state.attributes.put( attribute.getAttributeType(), attribute.clone() );
+        }
+
+        state.version++;
+
+        if ( critical && ( state.criticalSince < 0 ) )
+        {
+            state.criticalSince = now;
+            notifyAll();
+        }
+    }
+
+
+    /**
+     * Applies the pending changes on an entry read from the backend.
+     *
+     * @param entry The entry to update
+     * @throws LdapException If the entry cannot be updated
+     */
+    public void apply( Entry entry ) throws LdapException
+    {
+        List<Attribute> attributes = getPendingAttributes( entry.getDn() );
+
+        if ( attributes == null )
+        {
+            return;
+        }
+
+        for ( Attribute attribute : attributes )
+        {
+            if ( attribute.size() == 0 )
+            {
+                entry.removeAttributes( attribute.getAttributeType() );
+            }
+            else
+            {
+                entry.put( attribute );
+            }
+        }
+    }
+
+
+    /**
+     * Gets a copy of the pending attributes of an entry.
+     *
+     * @param dn The entry Dn
+     * @return The pending attributes, or null if there is none
+     */
+    private synchronized List<Attribute> getPendingAttributes( Dn dn )
+    {
+        PendingState state = pendingStates.get( dn.getNormName() );
+
+        if ( state == null )
+        {
+            return null;
+        }
+
+        List<Attribute> attributes = new ArrayList<Attribute>( state.attributes.size() );
+
+        for ( Attribute attribute : state.attributes.values() )
+        {
+            attributes.add( attribute.clone() );
+        }
+
+        return attributes;
+    }
+
+
+    /**
+     * Forgets the pending changes on an entry, typically because it has been deleted.
+     *
+     * @param dn The entry Dn
+     */
+    public synchronized void discard( Dn dn )
+    {
+        pendingStates.remove( dn.getNormName() );
+    }
+
+
+    /**
+     * @return The number of entries with pending changes
+     */
+    public synchronized int size()
+    {
+        return pendingStates.size();
+    }
+
+
+    /**
+     * Writes the pending changes on an entry, if any. This is done before the entry is
+     * modified, moved or renamed.
+     *
+     * @param dn The entry Dn
+     * @return true if the entry has been modified
+     * @throws LdapException If the changes cannot be written
+     */
+    public boolean flush( Dn dn ) throws LdapException
+    {
+        synchronized ( this )
+        {
+            if ( !pendingStates.containsKey( dn.getNormName() ) )
+            {
+                return false;
+            }
+        }
+
+        return write( dn );
+    }
+
+
+    /**
+     * Writes all the pending changes.
+     */
+    public void flushAll()
+    {
+        List<Dn> dns;
+
+        synchronized ( this )
+        {
+            dns = new ArrayList<Dn>( pendingStates.size() );
+
+            for ( PendingState state : pendingStates.values() )
+            {
+                dns.add( state.dn );
+            }
+        }
+
+        for ( Dn dn : dns )
+        {
+            try
+            {
+                write( dn );
+            }
+            catch ( LdapException le )
+            {
+                LOG.error( "Cannot write the password policy state of {}", dn, le );
+            }
+        }
+    }
+
+
+    /**
+     * Writes the pending changes on an entry from an operation which already holds the lock
+     * of the entry partition, as a bind does. The partition lock is not acquired again : a
+     * ReadLock can't be upgraded to a WriteLock.
+     *
+     * @param dn The entry Dn
+     * @return true if the entry has been modified
+     * @throws LdapException If the changes cannot be written. They are then retried in the
+     * background
+     */
+    public boolean writeThrough( Dn dn ) throws LdapException
+    {
+        try
+        {
+            return writeState( dn );
+        }
+        catch ( LdapException le )
+        {
+            retryLater( dn );
+
+            throw le;
+        }
+    }
+
+
+    /**
+     * Writes the changes which are due, and waits for the next ones.
+     */
+    public void run()
+    {
+        while ( running )
+        {
+            writeDueChanges();
+
+            synchronized ( this )
+            {
+                long now = currentTimeMillis();
+                long nextDue = getNextDue( now, null );
+
+                if ( running && ( nextDue > now ) )
+                {
+                    try
+                    {
+                        wait( nextDue - now );
+                    }
+                    catch ( InterruptedException ie )
+                    {
+                        running = false;
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Writes the changes which are due. A change which can't be written is retried later.
+     */
+    void writeDueChanges()
+    {
+        List<Dn> dueDns = new ArrayList<Dn>();
+
+        synchronized ( this )
+        {
+            getNextDue( currentTimeMillis(), dueDns );
+        }
+
+        for ( Dn dn : dueDns )
+        {
+            try
+            {
+                write( dn );
+            }
+            catch ( Exception e )
+            {
+                LOG.error( "Cannot write the password policy state of {}", dn, e );
+
+                retryLater( dn );
+            }
+        }
+    }
+
+
+    /**
+     * Computes the date of the next change to write. Must be called with the monitor held.
+     *
+     * @param now The current time
+     * @param dueDns The list where the Dn of the entries with due changes are added, or null
+     * @return The date of the next change to write, at most now + the flush interval
+     */
+    private long getNextDue( long now, List<Dn> dueDns )
+    {
+        long nextDue = now + flushInterval;
+
+        for ( PendingState state : pendingStates.values() )
+        {
+            long due = state.pendingSince + flushInterval;
+
+            if ( state.criticalSince >= 0 )
+            {
+                due = Math.min( due, state.criticalSince + writeThroughDelay );
+            }
+
+            if ( ( due <= now ) && ( dueDns != null ) )
+            {
+                dueDns.add( state.dn );
+            }
+
+            nextDue = Math.min( nextDue, due );
+        }
+
+        return nextDue;
+    }
+
+
+    /**
+     * Delays the next write of the changes of an entry which could not be written, so that
+     * it's not retried immediately. The critical changes are retried after the write through
+     * delay, the other ones after the flush interval.
+     *
+     * @param dn The entry Dn
+     */
+    private synchronized void retryLater( Dn dn )
+    {
+        PendingState state = pendingStates.get( dn.getNormName() );
+
+        if ( state != null )
+        {
+            long now = currentTimeMillis();
+            state.pendingSince = now;
+
+            if ( state.criticalSince >= 0 )
+            {
+                state.criticalSince = now;
+            }
+        }
+    }
+
+
+    /**
+     * @return The current time, in milliseconds. Overridden by the tests to control the clock
+     */
+    long currentTimeMillis()
+    {
+        return System.currentTimeMillis();
+    }
+
+
+    /**
+     * Writes the pending changes on an entry. The partition is locked as for a write operation
+     * while the changes are written, so that the partition does not flush its changes on disk
+     * while the lock is held.
+     *
+     * @param dn The entry Dn
+     * @return true if the entry has been modified
+     * @throws LdapException If the changes cannot be written
+     */
+    private boolean write( Dn dn ) throws LdapException
+    {
+        OperationManager operationManager = directoryService.getOperationManager();
+        ReadWriteLock partitionLock = operationManager.lockWrite( dn );
+        boolean succeeded = false;
+
+        try
+        {
+            boolean modified = writeState( dn );
+            succeeded = true;
+
+            return modified;
+        }
+        finally
+        {
+            operationManager.unlockWrite( partitionLock, succeeded );
+        }
+    }
+
+
+    /**
+     * Writes the pending changes on an entry, and forgets them unless they have been changed
+     * in the meantime. The caller holds the entry partition lock.
+     *
+     * @param dn The entry Dn
+     * @return true if the entry has been modified
+     * @throws LdapException If the changes cannot be written
+     */
+    private boolean writeState( Dn dn ) throws LdapException
+    {
+        synchronized ( writeLock )
+        {
+            List<Attribute> attributes;
+            long version;
+
+            synchronized ( this )
+            {
+                PendingState state = pendingStates.get( dn.getNormName() );
+
+                if ( state == null )
+                {
+                    // Already written
+                    return false;
+                }
+
+                attributes = new ArrayList<Attribute>( state.attributes.values() );
+                version = state.version;
+            }
+
+            boolean modified = writeAttributes( dn, attributes );
+
+            synchronized ( this )
+            {
+                PendingState state = pendingStates.get( dn.getNormName() );
+
+                if ( ( state != null ) && ( state.version == version ) )
+                {
+                    pendingStates.remove( dn.getNormName() );
+                }
+            }
+
+            return modified;
+        }
+    }
+
+
+    /**
+     * Replaces some attributes of an entry. The attributes without value are removed.
+     *
+     * @param dn The entry Dn
+     * @param attributes The new attributes
+     * @return true if the entry has been modified
+     * @throws LdapException If the entry cannot be modified
+     */
+    private boolean writeAttributes( Dn dn, List<Attribute> attributes ) throws LdapException
+    {
+        LookupOperationContext lookupContext = new LookupOperationContext( directoryService.getAdminSession(),
+            dn, SchemaConstants.ALL_ATTRIBUTES_ARRAY );
+        Entry entry = lookup( lookupContext );
+
+        if ( entry == null )
+        {
+            return false;
+        }
+
+        List<Modification> mods = new ArrayList<Modification>();
+
+        for ( Attribute attribute : attributes )
+        {
+            if ( ( attribute.size() > 0 ) || entry.containsAttribute( attribute.getAttributeType() ) )
+            {
+                mods.add( new DefaultModification( REPLACE_ATTRIBUTE, attribute.clone() ) );
+            }
+        }
+
+        if ( mods.isEmpty() )
+        {
+            return false;
+        }
+
+        String csnVal = directoryService.getCSN().toString();
+        mods.add( new DefaultModification( REPLACE_ATTRIBUTE, directoryService.getAtProvider()
+            .getEntryCSN(), csnVal ) );
+
+        ModifyOperationContext modContext = new ModifyOperationContext( directoryService.getAdminSession() );
+        modContext.setDn( dn );
+        modContext.setEntry( entry );
+        modContext.setModItems( mods );
+        modContext.setPushToEvtInterceptor( true );
+
+        modify( modContext );
+
+        return true;
+    }
+
+
+    /**
+     * Reads an entry in the backend. Overridden by the tests to use an in-memory entry
+     */
+    Entry lookup( LookupOperationContext lookupContext ) throws LdapException
+    {
+        return directoryService.getPartitionNexus().lookup( lookupContext );
+    }
+
+
+    /**
+     * Modifies an entry in the backend. Overridden by the tests to use an in-memory entry
+     */
+    void modify( ModifyOperationContext modContext ) throws LdapException
+    {
+        directoryService.getPartitionNexus().modify( modContext );
+    }
+}
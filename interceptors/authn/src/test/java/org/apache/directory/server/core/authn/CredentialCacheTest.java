@@ -0,0 +1,120 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authn;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.junit.Test;
+
+
+/**
+ * Test the CredentialCache class
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CredentialCacheTest
+{
+    private static final String USER_DN = "uid=admin,ou=system";
+
+    private static final byte[][] STORED_PASSWORDS = new byte[][]
+        { Strings.getBytesUtf8( "{SSHA}stored" ) };
+
+    private static final byte[] SECRET = Strings.getBytesUtf8( "secret" );
+
+
+    @Test
+    public void testPrincipals()
+    {
+        CredentialCache cache = new CredentialCache( 100, 0L );
+        LdapPrincipal principal = new LdapPrincipal();
+
+        assertNull( cache.getPrincipal( USER_DN ) );
+
+        cache.putPrincipal( USER_DN, principal );
+
+        assertSame( principal, cache.getPrincipal( USER_DN ) );
+        assertEquals( 1, cache.getHitCount() );
+        assertEquals( 1, cache.getMissCount() );
+        assertEquals( 0.5d, cache.getHitRatio(), 0d );
+
+        cache.invalidate( USER_DN );
+
+        assertNull( cache.getPrincipal( USER_DN ) );
+        assertEquals( 0, cache.size() );
+    }
+
+
+    @Test
+    public void testVerifiedCredentials()
+    {
+        CredentialCache cache = new CredentialCache( 100, 0L );
+
+        assertFalse( cache.isVerified( USER_DN, STORED_PASSWORDS, SECRET ) );
+
+        cache.setVerified( USER_DN, STORED_PASSWORDS, SECRET );
+
+        assertTrue( cache.isVerified( USER_DN, STORED_PASSWORDS, SECRET ) );
+        assertFalse( cache.isVerified( USER_DN, STORED_PASSWORDS, Strings.getBytesUtf8( "wrong" ) ) );
+        assertFalse( cache.isVerified( "uid=other,ou=system", STORED_PASSWORDS, SECRET ) );
+
+        // The verified credentials are forgotten when the stored password changes
+        byte[][] newPasswords = new byte[][]
+            { Strings.getBytesUtf8( "{SSHA}changed" ) };
+
+        assertFalse( cache.isVerified( USER_DN, newPasswords, SECRET ) );
+        assertFalse( cache.isVerified( USER_DN, STORED_PASSWORDS, SECRET ) );
+    }
+
+
+    @Test
+    public void testExpiration() throws Exception
+    {
+        CredentialCache cache = new CredentialCache( 100, 1L );
+
+        cache.putPrincipal( USER_DN, new LdapPrincipal() );
+        cache.setVerified( USER_DN, STORED_PASSWORDS, SECRET );
+
+        Thread.sleep( 10L );
+
+        assertNull( cache.getPrincipal( USER_DN ) );
+        assertFalse( cache.isVerified( USER_DN, STORED_PASSWORDS, SECRET ) );
+    }
+
+
+    @Test
+    public void testEviction()
+    {
+        CredentialCache cache = new CredentialCache( 10, 0L );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            cache.putPrincipal( "uid=user" + i + ",ou=system", new LdapPrincipal() );
+        }
+
+        assertTrue( cache.size() <= 10 );
+    }
+}
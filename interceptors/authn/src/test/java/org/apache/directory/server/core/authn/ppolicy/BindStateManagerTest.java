@@ -0,0 +1,327 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authn.ppolicy;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.csn.Csn;
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.server.core.api.AttributeTypeProvider;
+import org.apache.directory.server.core.api.MockDirectoryService;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the BindStateManager : the coalescing of the changes, their scheduling, and the
+ * changes recorded while an entry is written.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class BindStateManagerTest
+{
+    private static final long FLUSH_INTERVAL = 60000L;
+    private static final long WRITE_THROUGH_DELAY = 50L;
+
+    private static SchemaManager schemaManager;
+    private static AttributeTypeProvider atProvider;
+    private static AttributeType pwdFailureTimeAT;
+    private static AttributeType pwdLastSuccessAT;
+    private static Dn userDn;
+
+    /** The user entry, as stored in the backend */
+    private Entry storedEntry;
+
+    /** The number of modifications written on the backend */
+    private int writeCount;
+
+    /** Tells if the next modification fails */
+    private boolean failNextWrite;
+
+    /** A change recorded while the next modification is written, as a concurrent bind would */
+    private Attribute concurrentChange;
+
+    /** The clock of the manager, which only moves when the test says so */
+    private final AtomicLong clock = new AtomicLong( 1000000L );
+
+    private BindStateManager manager;
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        schemaManager = new DefaultSchemaManager();
+        atProvider = new AttributeTypeProvider( schemaManager );
+        pwdFailureTimeAT = schemaManager.lookupAttributeTypeRegistry( "pwdFailureTime" );
+        pwdLastSuccessAT = schemaManager.lookupAttributeTypeRegistry( "pwdLastSuccess" );
+        userDn = new Dn( schemaManager, "uid=john,ou=system" );
+    }
+
+
+    @Before
+    public void createManager() throws Exception
+    {
+        storedEntry = new DefaultEntry( schemaManager, userDn,
+            "objectClass: top",
+            "objectClass: person",
+            "cn: john",
+            "sn: doe" );
+
+        final CsnFactory csnFactory = new CsnFactory( 1 );
+
+        MockDirectoryService directoryService = new MockDirectoryService()
+        {
+            public Csn getCSN()
+            {
+                return csnFactory.newInstance();
+            }
+
+
+            public AttributeTypeProvider getAtProvider()
+            {
+                return atProvider;
+            }
+        };
+
+        // The backend only holds the user entry
+        manager = new BindStateManager( directoryService )
+        {
+            long currentTimeMillis()
+            {
+                return clock.get();
+            }
+
+
+            Entry lookup( LookupOperationContext lookupContext )
+            {
+                return storedEntry.clone();
+            }
+
+
+            void modify( ModifyOperationContext modContext ) throws LdapException
+            {
+                BindStateManagerTest.this.modify( modContext );
+            }
+        };
+
+        manager.setFlushInterval( FLUSH_INTERVAL );
+        manager.setWriteThroughDelay( WRITE_THROUGH_DELAY );
+    }
+
+
+    private void modify( ModifyOperationContext modContext ) throws LdapException
+    {
+        if ( failNextWrite )
+        {
+            failNextWrite = false;
+
+            throw new LdapOtherException( "Cannot write the entry" );
+        }
+
+        for ( Modification modification : modContext.getModItems() )
+        {
+            Attribute attribute = modification.getAttribute();
+
+            if ( attribute.size() == 0 )
+            {
+                storedEntry.removeAttributes( attribute.getAttributeType() );
+            }
+            else
+            {
+                storedEntry.put( attribute );
+            }
+        }
+
+        writeCount++;
+
+        if ( concurrentChange != null )
+        {
+            manager.record( userDn, Collections.singletonList( concurrentChange ), true );
+            concurrentChange = null;
+        }
+    }
+
+
+    private Attribute failureTimes( String... values ) throws LdapException
+    {
+        return new DefaultAttribute( pwdFailureTimeAT, values );
+    }
+
+
+    private Attribute lastSuccess( String value ) throws LdapException
+    {
+        return new DefaultAttribute( pwdLastSuccessAT, value );
+    }
+
+
+    @Test
+    public void testWriteBehind() throws Exception
+    {
+        manager.record( userDn, Collections.singletonList( lastSuccess( "20261016100000Z" ) ), false );
+        clock.addAndGet( 10L );
+        manager.record( userDn, Collections.singletonList( lastSuccess( "20261016100001Z" ) ), false );
+
+        // The changes are coalesced, and applied on the entries read by the binds
+        assertEquals( 1, manager.size() );
+
+        Entry entry = storedEntry.clone();
+        manager.apply( entry );
+        assertEquals( "20261016100001Z", entry.get( pwdLastSuccessAT ).getString() );
+
+        // Nothing is written before the flush interval
+        clock.addAndGet( FLUSH_INTERVAL - 20L );
+        manager.writeDueChanges();
+        assertEquals( 0, writeCount );
+        assertFalse( storedEntry.containsAttribute( pwdLastSuccessAT ) );
+
+        clock.addAndGet( 10L );
+        manager.writeDueChanges();
+        assertEquals( 1, writeCount );
+        assertEquals( "20261016100001Z", storedEntry.get( pwdLastSuccessAT ).getString() );
+        assertEquals( 0, manager.size() );
+    }
+
+
+    @Test
+    public void testWriteThrough() throws Exception
+    {
+        manager.record( userDn, Collections.singletonList( lastSuccess( "20261016100000Z" ) ), false );
+        manager.record( userDn, Collections.singletonList( failureTimes( "20261016100000Z" ) ), true );
+
+        // All the pending changes are written at once
+        assertTrue( manager.writeThrough( userDn ) );
+        assertEquals( 1, writeCount );
+        assertEquals( "20261016100000Z", storedEntry.get( pwdFailureTimeAT ).getString() );
+        assertTrue( storedEntry.containsAttribute( pwdLastSuccessAT ) );
+        assertEquals( 0, manager.size() );
+
+        // An attribute without value is removed
+        manager.record( userDn, Collections.singletonList( failureTimes() ), true );
+        assertTrue( manager.writeThrough( userDn ) );
+        assertFalse( storedEntry.containsAttribute( pwdFailureTimeAT ) );
+
+        // Nothing left to write
+        assertFalse( manager.writeThrough( userDn ) );
+        assertEquals( 2, writeCount );
+    }
+
+
+    @Test
+    public void testChangeRecordedWhileWriting() throws Exception
+    {
+        concurrentChange = failureTimes( "20261016100000Z", "20261016100001Z" );
+        manager.record( userDn, Collections.singletonList( failureTimes( "20261016100000Z" ) ), true );
+
+        manager.writeThrough( userDn );
+
+        // The change recorded during the write is kept, it's more recent than the written one
+        assertEquals( 1, storedEntry.get( pwdFailureTimeAT ).size() );
+        assertEquals( 1, manager.size() );
+
+        Entry entry = storedEntry.clone();
+        manager.apply( entry );
+        assertEquals( 2, entry.get( pwdFailureTimeAT ).size() );
+
+        // It's critical, so it's written after the write through delay
+        clock.addAndGet( WRITE_THROUGH_DELAY );
+        manager.writeDueChanges();
+        assertEquals( 2, writeCount );
+        assertEquals( 2, storedEntry.get( pwdFailureTimeAT ).size() );
+        assertEquals( 0, manager.size() );
+    }
+
+
+    @Test
+    public void testRetryAfterFailure() throws Exception
+    {
+        failNextWrite = true;
+        manager.record( userDn, Collections.singletonList( failureTimes( "20261016100000Z" ) ), true );
+
+        try
+        {
+            manager.writeThrough( userDn );
+            fail();
+        }
+        catch ( LdapException le )
+        {
+            // Expected
+        }
+
+        // The change is still pending, and not retried immediately
+        assertEquals( 1, manager.size() );
+        manager.writeDueChanges();
+        assertEquals( 0, writeCount );
+
+        clock.addAndGet( WRITE_THROUGH_DELAY );
+        manager.writeDueChanges();
+        assertEquals( 1, writeCount );
+        assertTrue( storedEntry.containsAttribute( pwdFailureTimeAT ) );
+        assertEquals( 0, manager.size() );
+    }
+
+
+    @Test
+    public void testDiscard() throws Exception
+    {
+        manager.record( userDn, Collections.singletonList( lastSuccess( "20261016100000Z" ) ), false );
+        manager.discard( userDn );
+
+        assertEquals( 0, manager.size() );
+
+        clock.addAndGet( FLUSH_INTERVAL );
+        manager.writeDueChanges();
+        assertEquals( 0, writeCount );
+    }
+
+
+    @Test
+    public void testFlushAll() throws Exception
+    {
+        manager.record( userDn, Collections.singletonList( lastSuccess( "20261016100000Z" ) ), false );
+
+        // Used when the server stops, whatever the flush interval
+        manager.flushAll();
+
+        assertEquals( 1, writeCount );
+        assertTrue( storedEntry.containsAttribute( pwdLastSuccessAT ) );
+        assertEquals( 0, manager.size() );
+    }
+}
@@ -78,6 +78,7 @@ import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.api.subtree.SubentryUtils;
 import org.apache.directory.server.core.authz.support.ACDFEngine;
 import org.apache.directory.server.core.authz.support.AciContext;
+import org.apache.directory.server.core.authz.support.CompiledAci;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -149,6 +150,9 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
     /** a groupCache that responds to add, delete, and modify attempts */
     private GroupCache groupCache;
 
+    /** the compiled tuples and decisions used to filter the search results */
+    private AciDecisionCache decisionCache;
+
     /** a normalizing ACIItem parser */
     private ACIItemParser aciParser;
 
@@ -286,6 +290,7 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
         // Create the caches
         tupleCache = new TupleCache( adminSession );
         groupCache = new GroupCache( directoryService );
+        decisionCache = new AciDecisionCache( tupleCache, groupCache, AciDecisionCache.DEFAULT_CACHE_SIZE );
 
         // Iitialize the ACI PARSER and ACDF engine
         aciParser = new ACIItemParser( new ConcreteNameComponentNormalizer( schemaManager ), schemaManager );
@@ -1321,10 +1326,24 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
         LdapPrincipal principal = opContext.getSession().getEffectivePrincipal();
         Dn userDn = principal.getDn();
         Set<Dn> userGroups = groupCache.getGroups( userDn.getNormName() );
-        Collection<ACITuple> tuples = new HashSet<ACITuple>();
-        addPerscriptiveAciTuples( opContext, tuples, normName, clonedEntry );
-        addEntryAciTuples( tuples, ( ( ClonedServerEntry ) clonedEntry ).getOriginalEntry() );
-        addSubentryAciTuples( opContext, tuples, normName, ( ( ClonedServerEntry ) clonedEntry ).getOriginalEntry() );
+        Entry originalEntry = ( ( ClonedServerEntry ) clonedEntry ).getOriginalEntry();
+        CompiledAci compiledAci = null;
+        Collection<ACITuple> tuples;
+
+        if ( isOnlyPrescriptivelyControlled( originalEntry ) )
+        {
+            // The tuples only depend on the subentries : they are shared with the other entries
+            compiledAci = decisionCache.getCompiledAci( userDn, userGroups, principal.getAuthenticationLevel(),
+                originalEntry.get( directoryService.getAtProvider().getAccessControlSubentries() ) );
+            tuples = compiledAci.getTuples();
+        }
+        else
+        {
+            tuples = new HashSet<ACITuple>();
+            addPerscriptiveAciTuples( opContext, tuples, normName, clonedEntry );
+            addEntryAciTuples( tuples, originalEntry );
+            addSubentryAciTuples( opContext, tuples, normName, originalEntry );
+        }
 
         AciContext aciContext = new AciContext( schemaManager, opContext );
         aciContext.setUserGroupNames( userGroups );
@@ -1333,9 +1352,9 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
         aciContext.setEntryDn( normName );
         aciContext.setMicroOperations( SEARCH_ENTRY_PERMS );
         aciContext.setAciTuples( tuples );
-        aciContext.setEntry( ( ( ClonedServerEntry ) clonedEntry ).getOriginalEntry() );
+        aciContext.setEntry( originalEntry );
 
-        if ( !engine.hasPermission( aciContext ) )
+        if ( !hasPermission( compiledAci, aciContext ) )
         {
             return false;
         }
@@ -1365,13 +1384,35 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
             aciContext.setAciTuples( tuples );
             aciContext.setEntry( clonedEntry );
 
-            if ( !engine.hasPermission( aciContext ) )
+            if ( !hasPermission( compiledAci, aciContext ) )
             {
                 attributeToRemove.add( attributeType );
 
                 continue;
             }
 
+            if ( ( compiledAci != null ) && compiledAci.isValueIndependent( attributeType ) )
+            {
+                // The same decision applies to all the values : evaluate it on the first one
+                aciContext = new AciContext( schemaManager, opContext );
+                aciContext.setUserGroupNames( userGroups );
+                aciContext.setUserDn( userDn );
+                aciContext.setAuthenticationLevel( principal.getAuthenticationLevel() );
+                aciContext.setEntryDn( normName );
+                aciContext.setAttributeType( attributeType );
+                aciContext.setAttrValue( attr.get() );
+                aciContext.setMicroOperations( SEARCH_ATTRVAL_PERMS );
+                aciContext.setAciTuples( tuples );
+                aciContext.setEntry( clonedEntry );
+
+                if ( !hasPermission( compiledAci, aciContext ) )
+                {
+                    attributeToRemove.add( attributeType );
+                }
+
+                continue;
+            }
+
             List<Value<?>> valueToRemove = new ArrayList<Value<?>>();
 
             // attribute type scope is ok now let's determine value level scope
@@ -1388,7 +1429,7 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
                 aciContext.setAciTuples( tuples );
                 aciContext.setEntry( clonedEntry );
 
-                if ( !engine.hasPermission( aciContext ) )
+                if ( !hasPermission( compiledAci, aciContext ) )
                 {
                     valueToRemove.add( value );
                 }
@@ -1413,6 +1454,31 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
         return true;
     }
 
+    /**
+     * Tells if the access to an entry is only controlled by the prescriptive ACIs of its
+     * access control subentries : the entry has no entryACI, and is not a subentry.
+     */
+    private boolean isOnlyPrescriptivelyControlled( Entry entry ) throws LdapException
+    {
+        return !entry.containsAttribute( directoryService.getAtProvider().getEntryACI() )
+            && !entry.contains( directoryService.getAtProvider().getObjectClass(), SchemaConstants.SUBENTRY_OC );
+    }
+
+
+    /**
+     * Evaluates a permission, reusing the compiled decisions when we have some.
+     */
+    private boolean hasPermission( CompiledAci compiledAci, AciContext aciContext ) throws LdapException
+    {
+        if ( compiledAci == null )
+        {
+            return engine.hasPermission( aciContext );
+        }
+
+        return compiledAci.hasPermission( engine, aciContext );
+    }
+
+
     /**
      * WARNING: create one of these filters fresh every time for each new search.
      */
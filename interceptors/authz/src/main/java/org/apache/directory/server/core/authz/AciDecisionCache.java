@@ -0,0 +1,214 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authz;
+
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.apache.directory.api.ldap.aci.ACITuple;
+import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.authz.support.CompiledAci;
+
+
+/**
+ * A cache of the {@link CompiledAci} built for a user, its groups, its authentication
+ * level and the set of access control subentries applying to the protected entries. All
+ * the entries of a search result sharing the same access control subentries share the
+ * same compiled tuples, and the same decisions when they don't depend on the entry.
+ * <br>
+ * The cache is emptied when the {@link TupleCache} or the {@link GroupCache} change.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class AciDecisionCache
+{
+    /** The default number of compiled tuple sets kept in the cache */
+    public static final int DEFAULT_CACHE_SIZE = 1000;
+
+    /** The prescriptive ACI tuples */
+    private final TupleCache tupleCache;
+
+    /** The group memberships */
+    private final GroupCache groupCache;
+
+    /** The TupleCache version the compiled tuples have been built with */
+    private long tupleCacheVersion = -1L;
+
+    /** The GroupCache version the compiled tuples have been built with */
+    private long groupCacheVersion = -1L;
+
+    /** The compiled tuples, the least recently used ones being evicted first */
+    private final Map<Key, CompiledAci> compiledAcis;
+
+
+    /**
+     * The parameters the compiled tuples depend on
+     */
+    private static final class Key
+    {
+        private final String userDn;
+        private final Set<Dn> userGroups;
+        private final AuthenticationLevel authenticationLevel;
+        private final SortedSet<String> subentryDns;
+
+
+        private Key( String userDn, Set<Dn> userGroups, AuthenticationLevel authenticationLevel,
+            SortedSet<String> subentryDns )
+        {
+            this.userDn = userDn;
+            this.userGroups = userGroups;
+            this.authenticationLevel = authenticationLevel;
+            this.subentryDns = subentryDns;
+        }
+
+
+        public int hashCode()
+        {
+            int h = 37;
+
+            h = h * 17 + userDn.hashCode();
+            h = h * 17 + userGroups.hashCode();
+            h = h * 17 + authenticationLevel.hashCode();
+            h = h * 17 + subentryDns.hashCode();
+
+            return h;
+        }
+
+
+        public boolean equals( Object o )
+        {
+            if ( !( o instanceof Key ) )
+            {
+                return false;
+            }
+
+            Key that = ( Key ) o;
+
+            return userDn.equals( that.userDn ) && ( authenticationLevel == that.authenticationLevel )
+                && userGroups.equals( that.userGroups ) && subentryDns.equals( that.subentryDns );
+        }
+    }
+
+
+    /**
+     * Creates a new instance of AciDecisionCache.
+     *
+     * @param tupleCache The prescriptive ACI tuples
+     * @param groupCache The group memberships
+     * @param cacheSize The maximum number of compiled tuple sets kept in the cache
+     */
+    public AciDecisionCache( TupleCache tupleCache, GroupCache groupCache, final int cacheSize )
+    {
+        this.tupleCache = tupleCache;
+        this.groupCache = groupCache;
+
+        compiledAcis = new LinkedHashMap<Key, CompiledAci>( 16, 0.75f, true )
+        {
+            private static final long serialVersionUID = 1L;
+
+
+            protected boolean removeEldestEntry( Map.Entry<Key, CompiledAci> eldest )
+            {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+
+    /**
+     * Gets the compiled tuples applying to a user on the entries controlled by a set of
+     * access control subentries. They are compiled the first time they are requested.
+     *
+     * @param userDn The user Dn
+     * @param userGroups The groups the user belongs to
+     * @param authenticationLevel The user authentication level
+     * @param subentries The accessControlSubentries attribute of the protected entry, may be null
+     * @return The compiled tuples
+     */
+    public synchronized CompiledAci getCompiledAci( Dn userDn, Set<Dn> userGroups,
+        AuthenticationLevel authenticationLevel, Attribute subentries )
+    {
+        // Read the versions before the tuples, so that a concurrent change is seen by the next call
+        long currentTupleCacheVersion = tupleCache.getVersion();
+        long currentGroupCacheVersion = groupCache.getVersion();
+
+        if ( ( currentTupleCacheVersion != tupleCacheVersion ) || ( currentGroupCacheVersion != groupCacheVersion ) )
+        {
+            compiledAcis.clear();
+            tupleCacheVersion = currentTupleCacheVersion;
+            groupCacheVersion = currentGroupCacheVersion;
+        }
+
+        SortedSet<String> subentryDns = new TreeSet<String>();
+
+        if ( subentries != null )
+        {
+            for ( Value<?> value : subentries )
+            {
+                subentryDns.add( value.getString() );
+            }
+        }
+
+        Key key = new Key( userDn.getNormName(), userGroups, authenticationLevel, subentryDns );
+        CompiledAci compiledAci = compiledAcis.get( key );
+
+        if ( compiledAci == null )
+        {
+            Collection<ACITuple> tuples = new HashSet<ACITuple>();
+
+            for ( String subentryDn : subentryDns )
+            {
+                tuples.addAll( tupleCache.getACITuples( subentryDn ) );
+            }
+
+            compiledAci = new CompiledAci( tuples );
+            compiledAcis.put( key, compiledAci );
+        }
+
+        return compiledAci;
+    }
+
+
+    /**
+     * Removes all the compiled tuples.
+     */
+    public synchronized void clear()
+    {
+        compiledAcis.clear();
+    }
+
+
+    /**
+     * @return The number of compiled tuple sets in the cache
+     */
+    public synchronized int size()
+    {
+        return compiledAcis.size();
+    }
+}
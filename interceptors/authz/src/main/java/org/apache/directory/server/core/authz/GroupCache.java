@@ -20,9 +20,18 @@
 package org.apache.directory.server.core.authz;
 
 
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.naming.directory.SearchControls;
 
@@ -58,7 +67,10 @@ import org.slf4j.LoggerFactory;
 
 
 /**
- * A cache for tracking static group membership.
+ * A cache for tracking static group membership. The members of each group are stored
+ * in the cache, and a reverse index, maintained incrementally when the groups are
+ * added, modified, renamed or deleted, gives the groups of each member without
+ * scanning all the groups.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -92,6 +104,36 @@ public class GroupCache
     /** String key for the Dn of a group to a Set (HashSet) for the Strings of member DNs */
     private Cache ehCache;
 
+    /** The number of changes applied to the cache, used to invalidate the decisions built on it */
+    private final AtomicLong version = new AtomicLong();
+
+    /** The reverse index : the normalized Dn of a member to the normalized DNs of its groups */
+    private final Map<String, Set<String>> memberGroups = new HashMap<String, Set<String>>();
+
+    /** The normalized DNs stored in the reverse index, shared by all the sets referencing them */
+    private final Map<String, InternedDn> internedDns = new HashMap<String, InternedDn>();
+
+    /** The lock protecting the reverse index */
+    private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
+
+    /** Tells if the groups of the groups a member belongs to are also returned */
+    private volatile boolean nestedGroupsExpanded = false;
+
+
+    /**
+     * A normalized Dn stored in the reverse index, with the number of references to it
+     */
+    private static final class InternedDn
+    {
+        private final String dn;
+        private int count;
+
+
+        private InternedDn( String dn )
+        {
+            this.dn = dn;
+        }
+    }
 
 
     /**
@@ -167,6 +209,7 @@ public class GroupCache
 
                         Element cacheElement = new Element( groupDn.getNormName(), memberSet );
                         ehCache.put( cacheElement );
+                        indexMembers( groupDn.getNormName(), memberSet );
                     }
                     else
                     {
@@ -295,8 +338,17 @@ public class GroupCache
         Set<String> memberSet = new HashSet<String>( members.size() );
         addMembers( memberSet, members );
 
+        Element previous = ehCache.get( name.getNormName() );
+
+        if ( previous != null )
+        {
+            unindexMembers( name.getNormName(), ( Set<String> ) previous.getValue() );
+        }
+
         Element cacheElement = new Element( name.getNormName(), memberSet );
         ehCache.put( cacheElement );
+        indexMembers( name.getNormName(), memberSet );
+        version.incrementAndGet();
 
         if ( IS_DEBUG )
         {
@@ -322,7 +374,15 @@ public class GroupCache
             return;
         }
 
+        Element memSetElement = ehCache.get( name.getNormName() );
+
+        if ( memSetElement != null )
+        {
+            unindexMembers( name.getNormName(), ( Set<String> ) memSetElement.getValue() );
+        }
+
         ehCache.remove( name.getNormName() );
+        version.incrementAndGet();
 
         if ( IS_DEBUG )
         {
@@ -412,7 +472,10 @@ public class GroupCache
                 if ( memSetElement != null )
                 {
                     Set<String> memberSet = ( Set<String> ) memSetElement.getValue();
+                    Set<String> oldMembers = new HashSet<String>( memberSet );
                     modify( memberSet, modification.getOperation(), modification.getAttribute() );
+                    reindexMembers( name.getNormName(), oldMembers, memberSet );
+                    version.incrementAndGet();
                 }
 
                 break;
@@ -450,7 +513,10 @@ public class GroupCache
         if ( memSetElement != null )
         {
             Set<String> memberSet = ( Set<String> ) memSetElement.getValue();
+            Set<String> oldMembers = new HashSet<String>( memberSet );
             modify( memberSet, modOp, members );
+            reindexMembers( name.getNormName(), oldMembers, memberSet );
+            version.incrementAndGet();
         }
 
         if ( IS_DEBUG )
@@ -515,42 +581,246 @@ public class GroupCache
             return EMPTY_GROUPS;
         }
 
-        Set<Dn> memberGroups = null;
+        Set<String> groupNames = getGroupNames( normMember.getNormName() );
+
+        if ( groupNames.isEmpty() )
+        {
+            return EMPTY_GROUPS;
+        }
+
+        Set<Dn> groups = new HashSet<Dn>( groupNames.size() );
+
+        for ( String groupName : groupNames )
+        {
+            groups.add( parseNormalized( groupName ) );
+        }
+
+        return groups;
+    }
+
+
+    /**
+     * Gets the normalized DNs of the groups a member belongs to, using the reverse index.
+     * When the nested groups are expanded, the groups of these groups are added, recursively.
+     */
+    private Set<String> getGroupNames( String member )
+    {
+        indexLock.readLock().lock();
+
+        try
+        {
+            Set<String> directGroups = memberGroups.get( member );
+
+            if ( directGroups == null )
+            {
+                return Collections.emptySet();
+            }
+
+            Set<String> groupNames = new HashSet<String>( directGroups );
+
+            if ( nestedGroupsExpanded )
+            {
+                Deque<String> toExpand = new ArrayDeque<String>( directGroups );
+
+                while ( !toExpand.isEmpty() )
+                {
+                    Set<String> parentGroups = memberGroups.get( toExpand.poll() );
+
+                    if ( parentGroups == null )
+                    {
+                        continue;
+                    }
+
+                    for ( String parentGroup : parentGroups )
+                    {
+                        // Cycles are stopped by the already found groups
+                        if ( groupNames.add( parentGroup ) )
+                        {
+                            toExpand.add( parentGroup );
+                        }
+                    }
+                }
+            }
 
-        for ( Object obj : ehCache.getKeys() )
+            return groupNames;
+        }
+        finally
         {
-            String group = ( String ) obj;
-            Element element = ehCache.get( group );
+            indexLock.readLock().unlock();
+        }
+    }
+
 
-            if ( element == null )
+    /**
+     * Adds the members of a group to the reverse index.
+     */
+    private void indexMembers( String group, Collection<String> members )
+    {
+        indexLock.writeLock().lock();
+
+        try
+        {
+            for ( String member : members )
             {
-                continue;
+                addToIndex( group, member );
             }
+        }
+        finally
+        {
+            indexLock.writeLock().unlock();
+        }
+    }
 
-            Set<String> members = ( Set<String> ) element.getValue();
 
-            if ( members == null )
+    /**
+     * Removes the members of a group from the reverse index.
+     */
+    private void unindexMembers( String group, Collection<String> members )
+    {
+        indexLock.writeLock().lock();
+
+        try
+        {
+            for ( String member : members )
             {
-                continue;
+                removeFromIndex( group, member );
             }
+        }
+        finally
+        {
+            indexLock.writeLock().unlock();
+        }
+    }
+
 
-            if ( members.contains( normMember.getNormName() ) )
+    /**
+     * Updates the reverse index with the members added to or removed from a group.
+     */
+    private void reindexMembers( String group, Set<String> oldMembers, Set<String> newMembers )
+    {
+        indexLock.writeLock().lock();
+
+        try
+        {
+            for ( String member : oldMembers )
             {
-                if ( memberGroups == null )
+                if ( !newMembers.contains( member ) )
                 {
-                    memberGroups = new HashSet<Dn>();
+                    removeFromIndex( group, member );
                 }
+            }
 
-                memberGroups.add( parseNormalized( group ) );
+            for ( String member : newMembers )
+            {
+                if ( !oldMembers.contains( member ) )
+                {
+                    addToIndex( group, member );
+                }
             }
         }
+        finally
+        {
+            indexLock.writeLock().unlock();
+        }
+    }
+
 
-        if ( memberGroups == null )
+    private void addToIndex( String group, String member )
+    {
+        Set<String> groups = memberGroups.get( member );
+
+        if ( groups == null )
         {
-            return EMPTY_GROUPS;
+            groups = new HashSet<String>( 4 );
+            memberGroups.put( intern( member ), groups );
+        }
+        else if ( groups.contains( group ) )
+        {
+            return;
+        }
+
+        groups.add( intern( group ) );
+    }
+
+
+    private void removeFromIndex( String group, String member )
+    {
+        Set<String> groups = memberGroups.get( member );
+
+        if ( ( groups == null ) || !groups.remove( group ) )
+        {
+            return;
+        }
+
+        release( group );
+
+        if ( groups.isEmpty() )
+        {
+            memberGroups.remove( member );
+            release( member );
+        }
+    }
+
+
+    /**
+     * Gets the shared instance of a normalized Dn, and counts the new reference to it.
+     */
+    private String intern( String dn )
+    {
+        InternedDn interned = internedDns.get( dn );
+
+        if ( interned == null )
+        {
+            interned = new InternedDn( dn );
+            internedDns.put( dn, interned );
+        }
+
+        interned.count++;
+
+        return interned.dn;
+    }
+
+
+    private void release( String dn )
+    {
+        InternedDn interned = internedDns.get( dn );
+
+        if ( ( interned != null ) && ( --interned.count == 0 ) )
+        {
+            internedDns.remove( dn );
         }
+    }
+
+
+    /**
+     * Tells if the groups returned by {@link #getGroups(String)} include the groups the
+     * groups of the member belong to, recursively. Disabled by default.
+     *
+     * @param nestedGroupsExpanded true to expand the nested groups
+     */
+    public void setNestedGroupsExpanded( boolean nestedGroupsExpanded )
+    {
+        this.nestedGroupsExpanded = nestedGroupsExpanded;
+        version.incrementAndGet();
+    }
+
 
-        return memberGroups;
+    /**
+     * @return true if the nested groups are expanded
+     */
+    public boolean isNestedGroupsExpanded()
+    {
+        return nestedGroupsExpanded;
+    }
+
+
+    /**
+     * @return The number of changes applied to the cache so far. It changes each time a
+     * group is added, deleted, renamed or has its members modified.
+     */
+    public long getVersion()
+    {
+        return version.get();
     }
 
 
@@ -566,6 +836,9 @@ public class GroupCache
 
             Element cacheElement = new Element( newName.getNormName(), members );
             ehCache.put( cacheElement );
+            unindexMembers( oldName.getNormName(), members );
+            indexMembers( newName.getNormName(), members );
+            version.incrementAndGet();
 
             if ( IS_DEBUG )
             {
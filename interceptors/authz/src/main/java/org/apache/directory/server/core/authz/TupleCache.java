@@ -27,6 +27,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.naming.directory.SearchControls;
 
@@ -88,6 +89,9 @@ public class TupleCache
     /** a normalizing ACIItem parser */
     private final ACIItemParser aciParser;
 
+    /** The number of changes applied to the cache, used to invalidate the decisions built on it */
+    private final AtomicLong version = new AtomicLong();
+
 
     /**
      * Creates a ACITuple cache.
@@ -229,6 +233,7 @@ public class TupleCache
         }
 
         tuples.put( dn.getNormName(), entryTuples );
+        version.incrementAndGet();
     }
 
 
@@ -240,6 +245,7 @@ public class TupleCache
         }
 
         tuples.remove( normName.toString() );
+        version.incrementAndGet();
     }
 
 
@@ -293,5 +299,17 @@ public class TupleCache
     public void subentryRenamed( Dn oldName, Dn newName )
     {
         tuples.put( newName.getNormName(), tuples.remove( oldName.getNormName() ) );
+        version.incrementAndGet();
+    }
+
+
+    /**
+     * @return The number of changes applied to the cache so far. It changes each time
+     * an access control subentry is added, deleted, renamed or has its prescriptiveACI
+     * modified.
+     */
+    public long getVersion()
+    {
+        return version.get();
     }
 }
@@ -0,0 +1,337 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authz.support;
+
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.directory.api.ldap.aci.ACITuple;
+import org.apache.directory.api.ldap.aci.MicroOperation;
+import org.apache.directory.api.ldap.aci.ProtectedItem;
+import org.apache.directory.api.ldap.aci.UserClass;
+import org.apache.directory.api.ldap.aci.protectedItem.AttributeValueItem;
+import org.apache.directory.api.ldap.aci.protectedItem.ClassesItem;
+import org.apache.directory.api.ldap.aci.protectedItem.MaxImmSubItem;
+import org.apache.directory.api.ldap.aci.protectedItem.MaxValueCountElem;
+import org.apache.directory.api.ldap.aci.protectedItem.MaxValueCountItem;
+import org.apache.directory.api.ldap.aci.protectedItem.RangeOfValuesItem;
+import org.apache.directory.api.ldap.aci.protectedItem.RestrictedByElem;
+import org.apache.directory.api.ldap.aci.protectedItem.RestrictedByItem;
+import org.apache.directory.api.ldap.aci.protectedItem.SelfValueItem;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.subtree.SubtreeSpecification;
+
+
+/**
+ * The ACI tuples applying to a user on a set of entries, with the decisions of the
+ * {@link ACDFEngine} which don't depend on the protected entry. The tuples are analyzed
+ * once, to know which items read the entry or the attribute values :
+ * <ul>
+ * <li>the <em>thisEntry</em> and <em>parentOfEntry</em> user classes, the <em>classes</em>
+ * and <em>rangeOfValues</em> protected items, and the subtree user classes with a
+ * refinement (evaluated against the user entry) make all the decisions entry dependent</li>
+ * <li>the <em>maxImmSub</em> protected item makes the entry level decisions entry dependent</li>
+ * <li>the <em>selfValue</em> protected item makes the decisions on its attribute types entry
+ * dependent</li>
+ * <li>the <em>attributeValue</em>, <em>maxValueCount</em> and <em>restrictedBy</em>
+ * protected items make the value level decisions on their attribute types value dependent</li>
+ * </ul>
+ * The other decisions are computed once, the first time they are requested, and reused
+ * for all the entries protected by the same tuples.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CompiledAci
+{
+    /** The tuples */
+    private final Collection<ACITuple> tuples;
+
+    /** Tells if the decisions can be reused, at least for some scopes */
+    private final boolean cacheable;
+
+    /** Tells if the entry level decisions depend on the entry */
+    private boolean entryScopeDependent;
+
+    /** The attribute types for which the decisions depend on the entry */
+    private final Set<String> entryDependentOids = new HashSet<String>();
+
+    /** The attribute types for which the value level decisions depend on the value */
+    private final Set<String> valueDependentOids = new HashSet<String>();
+
+    /** The decisions already computed */
+    private final Map<Decision, Boolean> decisions = new ConcurrentHashMap<Decision, Boolean>();
+
+
+    /**
+     * The parameters of a decision which doesn't depend on the entry
+     */
+    private static final class Decision
+    {
+        private final Collection<MicroOperation> microOperations;
+        private final OperationScope scope;
+        private final String oid;
+
+
+        private Decision( Collection<MicroOperation> microOperations, OperationScope scope, String oid )
+        {
+            this.microOperations = microOperations;
+            this.scope = scope;
+            this.oid = oid;
+        }
+
+
+        public int hashCode()
+        {
+            int h = 37;
+
+            h = h * 17 + microOperations.hashCode();
+            h = h * 17 + scope.hashCode();
+            h = h * 17 + ( oid == null ? 0 : oid.hashCode() );
+
+            return h;
+        }
+
+
+        public boolean equals( Object o )
+        {
+            if ( !( o instanceof Decision ) )
+            {
+                return false;
+            }
+
+            Decision that = ( Decision ) o;
+
+            return ( scope == that.scope ) && microOperations.equals( that.microOperations )
+                && ( oid == null ? that.oid == null : oid.equals( that.oid ) );
+        }
+    }
+
+
+    /**
+     * Creates a new instance of CompiledAci.
+     *
+     * @param tuples The ACI tuples
+     */
+    public CompiledAci( Collection<ACITuple> tuples )
+    {
+        this.tuples = Collections.unmodifiableCollection( tuples );
+        this.cacheable = analyze();
+    }
+
+
+    /**
+     * Looks for the items depending on the entry or on the values.
+     *
+     * @return false if no decision can be reused
+     */
+    private boolean analyze()
+    {
+        for ( ACITuple tuple : tuples )
+        {
+            for ( UserClass userClass : tuple.getUserClasses() )
+            {
+                if ( ( userClass == UserClass.THIS_ENTRY ) || ( userClass == UserClass.PARENT_OF_ENTRY ) )
+                {
+                    return false;
+                }
+
+                if ( userClass instanceof UserClass.Subtree )
+                {
+                    for ( SubtreeSpecification subtreeSpec : ( ( UserClass.Subtree ) userClass )
+                        .getSubtreeSpecifications() )
+                    {
+                        if ( subtreeSpec.getRefinement() != null )
+                        {
+                            return false;
+                        }
+                    }
+                }
+            }
+
+            for ( ProtectedItem item : tuple.getProtectedItems() )
+            {
+                if ( ( item instanceof ClassesItem ) || ( item instanceof RangeOfValuesItem ) )
+                {
+                    return false;
+                }
+                else if ( item instanceof MaxImmSubItem )
+                {
+                    entryScopeDependent = true;
+                }
+                else if ( item instanceof SelfValueItem )
+                {
+                    for ( Iterator<AttributeType> i = ( ( SelfValueItem ) item ).iterator(); i.hasNext(); )
+                    {
+                        entryDependentOids.add( i.next().getOid() );
+                    }
+                }
+                else if ( item instanceof AttributeValueItem )
+                {
+                    for ( Iterator<Attribute> i = ( ( AttributeValueItem ) item ).iterator(); i.hasNext(); )
+                    {
+                        AttributeType attributeType = i.next().getAttributeType();
+
+                        if ( attributeType == null )
+                        {
+                            // The attribute type will only be known when evaluating the item
+                            return false;
+                        }
+
+                        valueDependentOids.add( attributeType.getOid() );
+                    }
+                }
+                else if ( item instanceof MaxValueCountItem )
+                {
+                    for ( Iterator<MaxValueCountElem> i = ( ( MaxValueCountItem ) item ).iterator(); i.hasNext(); )
+                    {
+                        valueDependentOids.add( i.next().getAttributeType().getOid() );
+                    }
+                }
+                else if ( item instanceof RestrictedByItem )
+                {
+                    for ( Iterator<RestrictedByElem> i = ( ( RestrictedByItem ) item ).iterator(); i.hasNext(); )
+                    {
+                        valueDependentOids.add( i.next().getAttributeType().getOid() );
+                    }
+                }
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * @return The ACI tuples
+     */
+    public Collection<ACITuple> getTuples()
+    {
+        return tuples;
+    }
+
+
+    /**
+     * Tells if a decision can be reused for all the entries protected by these tuples.
+     *
+     * @param scope The scope of the decision
+     * @param attributeType The attribute type, for the attribute and value scopes
+     * @return true if the decision doesn't depend on the entry nor on the value
+     */
+    public boolean isCacheable( OperationScope scope, AttributeType attributeType )
+    {
+        if ( !cacheable )
+        {
+            return false;
+        }
+
+        if ( scope == OperationScope.ENTRY )
+        {
+            return !entryScopeDependent;
+        }
+
+        String oid = attributeType.getOid();
+
+        if ( entryDependentOids.contains( oid ) )
+        {
+            return false;
+        }
+
+        return ( scope == OperationScope.ATTRIBUTE_TYPE ) || !valueDependentOids.contains( oid );
+    }
+
+
+    /**
+     * Tells if the decision on a value of an attribute type is the same for all the values
+     * and all the entries.
+     *
+     * @param attributeType The attribute type
+     * @return true if the value level decision is the same for all the values
+     */
+    public boolean isValueIndependent( AttributeType attributeType )
+    {
+        return isCacheable( OperationScope.ATTRIBUTE_TYPE_AND_VALUE, attributeType );
+    }
+
+
+    /**
+     * Evaluates the permission described by an {@link AciContext} against these tuples. The
+     * decision is computed by the engine the first time, and reused when it doesn't depend
+     * on the entry.
+     *
+     * @param engine The ACDF engine
+     * @param aciContext The permission to check. Its tuples are replaced by the compiled ones
+     * @return true if the permission is granted
+     * @throws LdapException If the engine failed to evaluate the permission
+     */
+    public boolean hasPermission( ACDFEngine engine, AciContext aciContext ) throws LdapException
+    {
+        OperationScope scope;
+        AttributeType attributeType = aciContext.getAttributeType();
+
+        if ( attributeType == null )
+        {
+            scope = OperationScope.ENTRY;
+        }
+        else if ( aciContext.getAttrValue() == null )
+        {
+            scope = OperationScope.ATTRIBUTE_TYPE;
+        }
+        else
+        {
+            scope = OperationScope.ATTRIBUTE_TYPE_AND_VALUE;
+        }
+
+        aciContext.setAciTuples( tuples );
+
+        if ( !isCacheable( scope, attributeType ) )
+        {
+            return engine.hasPermission( aciContext );
+        }
+
+        Decision decision = new Decision( aciContext.getMicroOperations(), scope,
+            attributeType == null ? null : attributeType.getOid() );
+        Boolean granted = decisions.get( decision );
+
+        if ( granted == null )
+        {
+            granted = engine.hasPermission( aciContext );
+            decisions.put( decision, granted );
+        }
+
+        return granted;
+    }
+
+
+    /**
+     * @return The number of decisions computed so far
+     */
+    public int size()
+    {
+        return decisions.size();
+    }
+}
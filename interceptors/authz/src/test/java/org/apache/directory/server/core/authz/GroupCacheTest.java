@@ -0,0 +1,278 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authz;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.server.core.api.AttributeTypeProvider;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.MockDirectoryService;
+import org.apache.directory.server.core.api.partition.PartitionNexus;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.core.shared.partition.DefaultPartitionNexus;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the reverse index of the GroupCache, which gives the groups of a member.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class GroupCacheTest
+{
+    private static SchemaManager schemaManager;
+    private static CacheService cacheService;
+    private static MockDirectoryService directoryService;
+
+    private GroupCache groupCache;
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        schemaManager = new DefaultSchemaManager();
+        cacheService = new CacheService();
+        cacheService.initialize( null );
+
+        final DnFactory dnFactory = new DefaultDnFactory( schemaManager, cacheService.getCache( "dnCache" ) );
+        final AttributeTypeProvider atProvider = new AttributeTypeProvider( schemaManager );
+
+        // There is no partition, thus no group, when the cache is created
+        final PartitionNexus nexus = new DefaultPartitionNexus( new DefaultEntry( schemaManager, Dn.ROOT_DSE ) );
+
+        directoryService = new MockDirectoryService()
+        {
+            public PartitionNexus getPartitionNexus()
+            {
+                return nexus;
+            }
+
+
+            public CacheService getCacheService()
+            {
+                return cacheService;
+            }
+
+
+            public AttributeTypeProvider getAtProvider()
+            {
+                return atProvider;
+            }
+        };
+
+        directoryService.setSchemaManager( schemaManager );
+        directoryService.setDnFactory( dnFactory );
+    }
+
+
+    @AfterClass
+    public static void destroy()
+    {
+        cacheService.destroy();
+    }
+
+
+    @Before
+    public void createGroupCache() throws Exception
+    {
+        cacheService.getCache( "groupCache" ).removeAll();
+        groupCache = new GroupCache( directoryService );
+    }
+
+
+    private static Dn dn( String name ) throws Exception
+    {
+        return new Dn( schemaManager, name );
+    }
+
+
+    private static String group( String cn )
+    {
+        return "cn=" + cn + ",ou=groups,ou=system";
+    }
+
+
+    private static String user( String uid )
+    {
+        return "uid=" + uid + ",ou=users,ou=system";
+    }
+
+
+    private void addGroup( String cn, String... members ) throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager, group( cn ),
+            "objectClass: top",
+            "objectClass: groupOfNames",
+            "cn", cn );
+
+        for ( String member : members )
+        {
+            entry.add( "member", member );
+        }
+
+        groupCache.groupAdded( dn( group( cn ) ), entry );
+    }
+
+
+    private static Set<Dn> groups( String... cns ) throws Exception
+    {
+        Set<Dn> groups = new HashSet<Dn>();
+
+        for ( String cn : cns )
+        {
+            groups.add( dn( group( cn ) ) );
+        }
+
+        return groups;
+    }
+
+
+    @Test
+    public void testGetGroups() throws Exception
+    {
+        addGroup( "g1", user( "u1" ), user( "u2" ) );
+        addGroup( "g2", user( "u1" ) );
+
+        assertEquals( groups( "g1", "g2" ), groupCache.getGroups( user( "u1" ) ) );
+        assertEquals( groups( "g1" ), groupCache.getGroups( user( "u2" ) ) );
+        assertTrue( groupCache.getGroups( user( "u3" ) ).isEmpty() );
+
+        // The member Dn is normalized
+        assertEquals( groups( "g1", "g2" ), groupCache.getGroups( "UID=U1, OU=Users, OU=System" ) );
+    }
+
+
+    @Test
+    public void testNestedGroups() throws Exception
+    {
+        addGroup( "g1", user( "u1" ) );
+        addGroup( "g2", group( "g1" ) );
+        addGroup( "g3", group( "g2" ) );
+
+        assertEquals( groups( "g1" ), groupCache.getGroups( user( "u1" ) ) );
+
+        long version = groupCache.getVersion();
+        groupCache.setNestedGroupsExpanded( true );
+
+        assertTrue( groupCache.getVersion() > version );
+        assertEquals( groups( "g1", "g2", "g3" ), groupCache.getGroups( user( "u1" ) ) );
+        assertEquals( groups( "g2", "g3" ), groupCache.getGroups( group( "g1" ) ) );
+    }
+
+
+    @Test
+    public void testNestedGroupsCycle() throws Exception
+    {
+        groupCache.setNestedGroupsExpanded( true );
+
+        addGroup( "g1", user( "u1" ), group( "g3" ) );
+        addGroup( "g2", group( "g1" ) );
+        addGroup( "g3", group( "g2" ) );
+
+        assertEquals( groups( "g1", "g2", "g3" ), groupCache.getGroups( user( "u1" ) ) );
+        assertEquals( groups( "g1", "g2", "g3" ), groupCache.getGroups( group( "g1" ) ) );
+    }
+
+
+    @Test
+    public void testGroupModified() throws Exception
+    {
+        addGroup( "g1", user( "u1" ), user( "u2" ) );
+        Dn g1 = dn( group( "g1" ) );
+
+        long version = groupCache.getVersion();
+        groupCache.groupModified( g1, ModificationOperation.ADD_ATTRIBUTE,
+            new DefaultEntry( schemaManager, group( "g1" ), "member", user( "u3" ) ) );
+
+        assertTrue( groupCache.getVersion() > version );
+        assertEquals( groups( "g1" ), groupCache.getGroups( user( "u3" ) ) );
+
+        groupCache.groupModified( g1, ModificationOperation.REMOVE_ATTRIBUTE,
+            new DefaultEntry( schemaManager, group( "g1" ), "member", user( "u1" ) ) );
+
+        assertTrue( groupCache.getGroups( user( "u1" ) ).isEmpty() );
+        assertEquals( groups( "g1" ), groupCache.getGroups( user( "u2" ) ) );
+
+        groupCache.groupModified( g1, ModificationOperation.REPLACE_ATTRIBUTE,
+            new DefaultEntry( schemaManager, group( "g1" ), "member", user( "u4" ) ) );
+
+        assertTrue( groupCache.getGroups( user( "u2" ) ).isEmpty() );
+        assertTrue( groupCache.getGroups( user( "u3" ) ).isEmpty() );
+        assertEquals( groups( "g1" ), groupCache.getGroups( user( "u4" ) ) );
+    }
+
+
+    @Test
+    public void testGroupDeleted() throws Exception
+    {
+        addGroup( "g1", user( "u1" ) );
+        addGroup( "g2", user( "u1" ) );
+
+        Entry g1 = new DefaultEntry( schemaManager, group( "g1" ),
+            "objectClass: groupOfNames",
+            "cn: g1",
+            "member", user( "u1" ) );
+        groupCache.groupDeleted( dn( group( "g1" ) ), g1 );
+
+        assertEquals( groups( "g2" ), groupCache.getGroups( user( "u1" ) ) );
+
+        Entry g2 = new DefaultEntry( schemaManager, group( "g2" ),
+            "objectClass: groupOfNames",
+            "cn: g2",
+            "member", user( "u1" ) );
+        groupCache.groupDeleted( dn( group( "g2" ) ), g2 );
+
+        assertTrue( groupCache.getGroups( user( "u1" ) ).isEmpty() );
+    }
+
+
+    @Test
+    public void testGroupRenamed() throws Exception
+    {
+        addGroup( "g1", user( "u1" ) );
+        addGroup( "g2", group( "g1" ) );
+        groupCache.setNestedGroupsExpanded( true );
+
+        assertTrue( groupCache.groupRenamed( dn( group( "g1" ) ), dn( group( "renamed" ) ) ) );
+
+        assertEquals( groups( "renamed" ), groupCache.getGroups( user( "u1" ) ) );
+
+        // g2 still references the old Dn
+        assertEquals( groups( "g2" ), groupCache.getGroups( group( "g1" ) ) );
+
+        assertFalse( groupCache.groupRenamed( dn( group( "unknown" ) ), dn( group( "other" ) ) ) );
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authz.support;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.aci.ACITuple;
+import org.apache.directory.api.ldap.aci.MicroOperation;
+import org.apache.directory.api.ldap.aci.ProtectedItem;
+import org.apache.directory.api.ldap.aci.UserClass;
+import org.apache.directory.api.ldap.aci.protectedItem.MaxImmSubItem;
+import org.apache.directory.api.ldap.aci.protectedItem.SelfValueItem;
+import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
+import org.apache.directory.api.ldap.model.entry.StringValue;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests {@link CompiledAci}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CompiledAciTest
+{
+    private static final Set<MicroOperation> READ = Collections.singleton( MicroOperation.READ );
+
+    private static SchemaManager schemaManager;
+
+    /** The CN attribute Type */
+    private static AttributeType CN_AT;
+
+    /** The SN attribute Type */
+    private static AttributeType SN_AT;
+
+
+    /**
+     * An engine counting the evaluations, and granting everything
+     */
+    private static class CountingEngine extends ACDFEngine
+    {
+        private int count;
+
+
+        private CountingEngine()
+        {
+            super( schemaManager );
+        }
+
+
+        public boolean hasPermission( AciContext aciContext ) throws LdapException
+        {
+            count++;
+
+            return true;
+        }
+    }
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        schemaManager = new DefaultSchemaManager();
+        CN_AT = schemaManager.lookupAttributeTypeRegistry( "cn" );
+        SN_AT = schemaManager.lookupAttributeTypeRegistry( "sn" );
+    }
+
+
+    private static Collection<ACITuple> getTuples( UserClass userClass, ProtectedItem protectedItem )
+    {
+        Collection<UserClass> userClasses = new ArrayList<UserClass>();
+        userClasses.add( userClass );
+
+        Collection<ProtectedItem> protectedItems = new ArrayList<ProtectedItem>();
+        protectedItems.add( protectedItem );
+
+        Collection<ACITuple> tuples = new ArrayList<ACITuple>();
+        tuples.add( new ACITuple( userClasses, AuthenticationLevel.NONE, protectedItems, READ, true, 0 ) );
+
+        return tuples;
+    }
+
+
+    private static AciContext getContext( AttributeType attributeType, String value ) throws Exception
+    {
+        AciContext aciContext = new AciContext( schemaManager, null );
+        aciContext.setEntryDn( new Dn( schemaManager, "ou=system" ) );
+        aciContext.setMicroOperations( READ );
+        aciContext.setAttributeType( attributeType );
+
+        if ( value != null )
+        {
+            aciContext.setAttrValue( new StringValue( attributeType, value ) );
+        }
+
+        return aciContext;
+    }
+
+
+    @Test
+    public void testEntryIndependentDecisionsAreReused() throws Exception
+    {
+        CompiledAci compiledAci = new CompiledAci( getTuples( UserClass.ALL_USERS,
+            ProtectedItem.ALL_USER_ATTRIBUTE_TYPES_AND_VALUES ) );
+        CountingEngine engine = new CountingEngine();
+
+        assertTrue( compiledAci.isCacheable( OperationScope.ENTRY, null ) );
+        assertTrue( compiledAci.isValueIndependent( CN_AT ) );
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            assertTrue( compiledAci.hasPermission( engine, getContext( null, null ) ) );
+            assertTrue( compiledAci.hasPermission( engine, getContext( CN_AT, null ) ) );
+            assertTrue( compiledAci.hasPermission( engine, getContext( CN_AT, "value" + i ) ) );
+        }
+
+        // One evaluation per scope
+        assertEquals( 3, engine.count );
+        assertEquals( 3, compiledAci.size() );
+    }
+
+
+    @Test
+    public void testEntryDependentUserClass() throws Exception
+    {
+        CompiledAci compiledAci = new CompiledAci( getTuples( UserClass.THIS_ENTRY, ProtectedItem.ENTRY ) );
+        CountingEngine engine = new CountingEngine();
+
+        assertFalse( compiledAci.isCacheable( OperationScope.ENTRY, null ) );
+
+        compiledAci.hasPermission( engine, getContext( null, null ) );
+        compiledAci.hasPermission( engine, getContext( null, null ) );
+
+        assertEquals( 2, engine.count );
+        assertEquals( 0, compiledAci.size() );
+    }
+
+
+    @Test
+    public void testEntryDependentProtectedItems() throws Exception
+    {
+        CompiledAci compiledAci = new CompiledAci( getTuples( UserClass.ALL_USERS, new MaxImmSubItem( 10 ) ) );
+
+        assertFalse( compiledAci.isCacheable( OperationScope.ENTRY, null ) );
+        assertTrue( compiledAci.isCacheable( OperationScope.ATTRIBUTE_TYPE, CN_AT ) );
+
+        Set<AttributeType> attributeTypes = new HashSet<AttributeType>();
+        attributeTypes.add( CN_AT );
+        compiledAci = new CompiledAci( getTuples( UserClass.ALL_USERS, new SelfValueItem( attributeTypes ) ) );
+
+        assertTrue( compiledAci.isCacheable( OperationScope.ENTRY, null ) );
+        assertFalse( compiledAci.isCacheable( OperationScope.ATTRIBUTE_TYPE, CN_AT ) );
+        assertFalse( compiledAci.isValueIndependent( CN_AT ) );
+        assertTrue( compiledAci.isValueIndependent( SN_AT ) );
+    }
+}
@@ -24,7 +24,9 @@ import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.schema.normalizers.ConcreteNameComponentNormalizer;
 import org.apache.directory.api.ldap.model.schema.normalizers.NameComponentNormalizer;
@@ -47,21 +49,28 @@ class DefaultEventService implements EventService
     /** The list of RegistrationEntries being registered */
     private List<RegistrationEntry> registrations = new CopyOnWriteArrayList<RegistrationEntry>();
 
+    /** The registrations, indexed by base Dn and scope */
+    private RegistrationIndex registrationIndex = new RegistrationIndex();
+
     /** The DirectoryService instance */
     private DirectoryService directoryService;
 
     /** A normalizer used for filters */
     private FilterNormalizingVisitor filterNormalizer;
 
+    /** The dispatcher delivering the notifications to the asynchronous listeners */
+    private EventDispatcher dispatcher;
+
 
     /**
      * Create an instance of EventService
      * @param directoryService The associated DirectoryService
-     * @param registrations The list of Registrations
+     * @param dispatcher The dispatcher delivering the asynchronous notifications
      */
-    DefaultEventService( DirectoryService directoryService )
+    DefaultEventService( DirectoryService directoryService, EventDispatcher dispatcher )
     {
         this.directoryService = directoryService;
+        this.dispatcher = dispatcher;
         SchemaManager schemaManager = directoryService.getSchemaManager();
         NameComponentNormalizer ncn = new ConcreteNameComponentNormalizer( schemaManager );
         filterNormalizer = new FilterNormalizingVisitor( ncn, schemaManager );
@@ -76,7 +85,15 @@ class DefaultEventService implements EventService
         criteria.getBase().apply( directoryService.getSchemaManager() );
         ExprNode result = ( ExprNode ) criteria.getFilter().accept( filterNormalizer );
         criteria.setFilter( result );
-        registrations.add( new RegistrationEntry( listener, criteria ) );
+        RegistrationEntry registration = new RegistrationEntry( listener, criteria );
+
+        if ( !listener.isSynchronous() )
+        {
+            dispatcher.register( listener );
+        }
+
+        registrations.add( registration );
+        registrationIndex.add( registration );
     }
 
 
@@ -90,6 +107,8 @@ class DefaultEventService implements EventService
             if ( entry.getListener() == listener )
             {
                 registrations.remove( entry );
+                registrationIndex.remove( entry );
+                dispatcher.remove( listener );
             }
         }
     }
@@ -102,4 +121,13 @@ class DefaultEventService implements EventService
     {
         return Collections.unmodifiableList( registrations );
     }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<RegistrationEntry> getRegistrationEntries( Dn dn, Entry entry )
+    {
+        return registrationIndex.getCandidates( dn, entry );
+    }
 }
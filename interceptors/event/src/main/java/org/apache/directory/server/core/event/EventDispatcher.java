@@ -0,0 +1,403 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.server.core.api.event.DirectoryListener;
+import org.apache.directory.server.core.api.event.DisconnectableListener;
+import org.apache.directory.server.core.api.event.EventService;
+import org.apache.directory.server.core.api.metrics.MetricsSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Delivers the notifications to the asynchronous listeners. Each listener has its own
+ * bounded queue, so the notifications are delivered in order, and a slow listener does
+ * not delay the others. The queues are drained by batches on a shared pool of threads,
+ * one thread at most per listener at a time.
+ * <br>
+ * When a listener queue is full, the {@link SlowListenerPolicy} tells if the writer
+ * waits, if the notification is dropped, or if the listener is disconnected. The lag
+ * and the dropped notifications of each listener are published in the metrics.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class EventDispatcher implements MetricsSource
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( EventDispatcher.class );
+
+    /** The maximum number of notifications delivered by a thread before it moves to another listener */
+    private static final int BATCH_SIZE = 64;
+
+    /** The threads delivering the notifications */
+    private final ExecutorService executor;
+
+    /** The capacity of each listener queue */
+    private final int queueCapacity;
+
+    /** What to do when a listener queue is full */
+    private final SlowListenerPolicy policy;
+
+    /** The EventService, used to remove the disconnected listeners */
+    private EventService eventService;
+
+    /** The listener queues */
+    private final ConcurrentMap<DirectoryListener, ListenerQueue> queues = new ConcurrentHashMap<DirectoryListener, ListenerQueue>();
+
+
+    /**
+     * The queue of notifications of one listener
+     */
+    private final class ListenerQueue implements Runnable
+    {
+        /** The listener */
+        private final DirectoryListener listener;
+
+        /** The pending notifications */
+        private final BlockingQueue<Runnable> events;
+
+        /** Tells if a thread has been asked to drain the queue */
+        private final AtomicBoolean scheduled = new AtomicBoolean( false );
+
+        /** The number of dropped notifications */
+        private final AtomicLong droppedCount = new AtomicLong();
+
+        /** Tells if the listener has been removed */
+        private volatile boolean closed;
+
+        /** The name of the listener metrics */
+        private final String metricsName;
+
+
+        private ListenerQueue( DirectoryListener listener )
+        {
+            this.listener = listener;
+            events = new ArrayBlockingQueue<Runnable>( queueCapacity );
+
+            // The class name without its package, which would split the metric group
+            String className = listener.getClass().getName();
+            metricsName = className.substring( className.lastIndexOf( '.' ) + 1 ) + "@"
+                + Integer.toHexString( System.identityHashCode( listener ) );
+        }
+
+
+        /**
+         * Adds a notification into the queue, applying the policy if it's full
+         */
+        private void enqueue( Runnable event )
+        {
+            if ( closed )
+            {
+                return;
+            }
+
+            if ( !events.offer( event ) )
+            {
+                switch ( policy )
+                {
+                    case BLOCK:
+                        block( event );
+
+                        break;
+
+                    case DROP:
+                        drop();
+
+                        break;
+
+                    case DISCONNECT:
+                        if ( listener instanceof DisconnectableListener )
+                        {
+                            disconnect( this );
+
+                            return;
+                        }
+
+                        // The listener can't be told it's removed, and the writer, which holds
+                        // its partition lock, can't wait for it : the notification is dropped
+                        drop();
+
+                        break;
+
+                    default:
+                        throw new IllegalStateException( "Unexpected policy " + policy );
+                }
+            }
+
+            schedule();
+        }
+
+
+        private void block( Runnable event )
+        {
+            try
+            {
+                // Make sure the queue is being drained before we wait
+                schedule();
+                events.put( event );
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+                drop();
+            }
+        }
+
+
+        private void drop()
+        {
+            if ( droppedCount.getAndIncrement() == 0 )
+            {
+                LOG.warn( "The listener {} is too slow, notifications are dropped", listener );
+            }
+        }
+
+
+        private void schedule()
+        {
+            if ( !closed && scheduled.compareAndSet( false, true ) )
+            {
+                executor.execute( this );
+            }
+        }
+
+
+        /**
+         * Delivers a batch of notifications, and reschedules the queue if it's not empty
+         */
+        public void run()
+        {
+            for ( int i = 0; ( i < BATCH_SIZE ) && !closed; i++ )
+            {
+                Runnable event = events.poll();
+
+                if ( event == null )
+                {
+                    break;
+                }
+
+                try
+                {
+                    event.run();
+                }
+                catch ( Exception e )
+                {
+                    LOG.error( "The listener {} failed to process a notification", listener, e );
+                }
+            }
+
+            scheduled.set( false );
+
+            if ( !events.isEmpty() )
+            {
+                schedule();
+            }
+        }
+    }
+
+
+    /**
+     * Creates a new instance of EventDispatcher.
+     *
+     * @param poolSize The number of threads delivering the notifications
+     * @param queueCapacity The capacity of each listener queue
+     * @param policy What to do when a listener queue is full
+     */
+    EventDispatcher( int poolSize, int queueCapacity, SlowListenerPolicy policy )
+    {
+        this.queueCapacity = queueCapacity;
+        this.policy = policy;
+
+        ThreadFactory threadFactory = new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( Runnable runnable )
+            {
+                Thread newThread = Executors.defaultThreadFactory().newThread( runnable );
+                newThread.setDaemon( true );
+
+                return newThread;
+            }
+        };
+
+        // The pool queue holds at most one task per listener : no need to bound it
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor( poolSize, poolSize, 1000, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(), threadFactory );
+        threadPool.allowCoreThreadTimeOut( true );
+        executor = threadPool;
+    }
+
+
+    /**
+     * @param eventService The EventService the listeners are registered in
+     */
+    void setEventService( EventService eventService )
+    {
+        this.eventService = eventService;
+    }
+
+
+    /**
+     * Creates the queue of a listener which has been added.
+     *
+     * @param listener The added listener
+     */
+    void register( DirectoryListener listener )
+    {
+        queues.putIfAbsent( listener, new ListenerQueue( listener ) );
+    }
+
+
+    /**
+     * Queues a notification for a listener. The notification is ignored if the listener
+     * has been removed : a writer may have selected it just before its removal.
+     *
+     * @param listener The listener to notify
+     * @param event The notification
+     */
+    void dispatch( DirectoryListener listener, Runnable event )
+    {
+        ListenerQueue queue = queues.get( listener );
+
+        if ( queue != null )
+        {
+            queue.enqueue( event );
+        }
+    }
+
+
+    /**
+     * Discards the pending notifications of a listener which has been removed.
+     *
+     * @param listener The removed listener
+     */
+    void remove( DirectoryListener listener )
+    {
+        ListenerQueue queue = queues.remove( listener );
+
+        if ( queue != null )
+        {
+            queue.closed = true;
+            queue.events.clear();
+        }
+    }
+
+
+    /**
+     * Publishes the lag and the number of dropped notifications of each asynchronous
+     * listener, as "event.listener.&lt;listener&gt;.lag" and "event.listener.&lt;listener&gt;.dropped",
+     * where the listener is named after its class and identity hash code.
+     *
+     * @param metrics The map to fill
+     */
+    public void collectMetrics( Map<String, Number> metrics )
+    {
+        int maxLag = 0;
+        long dropped = 0L;
+
+        for ( ListenerQueue queue : queues.values() )
+        {
+            String prefix = "event.listener." + queue.metricsName + ".";
+            int lag = queue.events.size();
+            long droppedCount = queue.droppedCount.get();
+
+            metrics.put( prefix + "lag", lag );
+            metrics.put( prefix + "dropped", droppedCount );
+
+            maxLag = Math.max( maxLag, lag );
+            dropped += droppedCount;
+        }
+
+        metrics.put( "event.listeners", queues.size() );
+        metrics.put( "event.maxLag", maxLag );
+        metrics.put( "event.dropped", dropped );
+    }
+
+
+    private void disconnect( ListenerQueue queue )
+    {
+        LOG.warn( "The listener {} is too slow, it is disconnected", queue.listener );
+
+        if ( eventService != null )
+        {
+            eventService.removeListener( queue.listener );
+        }
+
+        remove( queue.listener );
+
+        if ( queue.listener instanceof DisconnectableListener )
+        {
+            ( ( DisconnectableListener ) queue.listener ).disconnected();
+        }
+    }
+
+
+    /**
+     * Gets the number of notifications waiting to be delivered to a listener.
+     *
+     * @param listener The listener
+     * @return The listener lag
+     */
+    int getLag( DirectoryListener listener )
+    {
+        ListenerQueue queue = queues.get( listener );
+
+        return queue == null ? 0 : queue.events.size();
+    }
+
+
+    /**
+     * Gets the number of notifications which have been dropped for a listener.
+     *
+     * @param listener The listener
+     * @return The number of dropped notifications
+     */
+    long getDroppedCount( DirectoryListener listener )
+    {
+        ListenerQueue queue = queues.get( listener );
+
+        return queue == null ? 0L : queue.droppedCount.get();
+    }
+
+
+    /**
+     * Stops the threads. The pending notifications are discarded.
+     */
+    void shutdown()
+    {
+        executor.shutdownNow();
+    }
+}
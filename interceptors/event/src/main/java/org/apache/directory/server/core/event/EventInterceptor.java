@@ -20,24 +20,14 @@
 package org.apache.directory.server.core.event;
 
 
-import static org.apache.directory.api.ldap.model.message.SearchScope.OBJECT;
-import static org.apache.directory.api.ldap.model.message.SearchScope.ONELEVEL;
-import static org.apache.directory.api.ldap.model.message.SearchScope.SUBTREE;
-
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
-import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
@@ -58,6 +48,7 @@ import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOpe
 import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.OperationContext;
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -72,8 +63,34 @@ public class EventInterceptor extends BaseInterceptor
     /** A logger for this class */
     private static final Logger LOG = LoggerFactory.getLogger( EventInterceptor.class );
 
+    /** Speedup for logs */
+    private static final boolean IS_DEBUG = LOG.isDebugEnabled();
+
+    /** The default number of threads delivering the asynchronous notifications */
+    public static final int DEFAULT_THREAD_POOL_SIZE = 10;
+
+    /** The default number of notifications an asynchronous listener can lag behind */
+    public static final int DEFAULT_LISTENER_QUEUE_CAPACITY = 1000;
+
     private Evaluator evaluator;
-    private ExecutorService executor;
+
+    /** Delivers the notifications to the asynchronous listeners */
+    private EventDispatcher dispatcher;
+
+    /** The number of threads delivering the asynchronous notifications */
+    private int threadPoolSize = DEFAULT_THREAD_POOL_SIZE;
+
+    /** The number of notifications an asynchronous listener can lag behind */
+    private int listenerQueueCapacity = DEFAULT_LISTENER_QUEUE_CAPACITY;
+
+    /** What to do when an asynchronous listener lags too much behind */
+    private SlowListenerPolicy slowListenerPolicy = SlowListenerPolicy.DISCONNECT;
+
+    /** The number of registrations whose filter has been evaluated */
+    private final AtomicLong evaluatedCount = new AtomicLong();
+
+    /** The number of registrations which have selected an entry */
+    private final AtomicLong selectedCount = new AtomicLong();
 
 
     /**
@@ -86,8 +103,8 @@ public class EventInterceptor extends BaseInterceptor
 
 
     /**
-     * Initialize the event interceptor. It creates a pool of executor which will be used
-     * to call the listeners in separate threads.
+     * Initialize the event interceptor. It creates the dispatcher which will be used
+     * to call the asynchronous listeners in separate threads.
      */
     public void init( DirectoryService directoryService ) throws LdapException
     {
@@ -95,24 +112,88 @@ public class EventInterceptor extends BaseInterceptor
         super.init( directoryService );
 
         evaluator = new ExpressionEvaluator( schemaManager );
-        
-        ThreadFactory threadFactory = new ThreadFactory() 
+
+        dispatcher = new EventDispatcher( threadPoolSize, listenerQueueCapacity, slowListenerPolicy );
+        DefaultEventService eventService = new DefaultEventService( directoryService, dispatcher );
+        dispatcher.setEventService( eventService );
+
+        MetricsRegistry metricsRegistry = directoryService.getMetricsRegistry();
+
+        if ( metricsRegistry != null )
+        {
+            metricsRegistry.addSource( dispatcher );
+        }
+
+        this.directoryService.setEventService( eventService );
+        LOG.info( "Initialization complete." );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void destroy()
+    {
+        if ( dispatcher != null )
         {
-            @Override
-            public Thread newThread( Runnable runnable ) 
+            MetricsRegistry metricsRegistry = directoryService.getMetricsRegistry();
+
+            if ( metricsRegistry != null )
             {
-                Thread newThread = Executors.defaultThreadFactory().newThread( runnable );
-                newThread.setDaemon( true );
-                
-                return newThread;
+                metricsRegistry.removeSource( dispatcher );
             }
-        };
-        
-        executor = new ThreadPoolExecutor( 1, 10, 1000, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>( 100 ),
-            threadFactory );
 
-        this.directoryService.setEventService( new DefaultEventService( directoryService ) );
-        LOG.info( "Initialization complete." );
+            dispatcher.shutdown();
+        }
+
+        super.destroy();
+    }
+
+
+    /**
+     * @param threadPoolSize The number of threads delivering the asynchronous notifications
+     */
+    public void setThreadPoolSize( int threadPoolSize )
+    {
+        this.threadPoolSize = threadPoolSize;
+    }
+
+
+    /**
+     * @param listenerQueueCapacity The number of notifications an asynchronous listener can lag behind
+     */
+    public void setListenerQueueCapacity( int listenerQueueCapacity )
+    {
+        this.listenerQueueCapacity = listenerQueueCapacity;
+    }
+
+
+    /**
+     * @param slowListenerPolicy What to do when an asynchronous listener lags too much behind
+     */
+    public void setSlowListenerPolicy( SlowListenerPolicy slowListenerPolicy )
+    {
+        this.slowListenerPolicy = slowListenerPolicy;
+    }
+
+
+    /**
+     * @param listener An asynchronous listener
+     * @return The number of notifications waiting to be delivered to this listener
+     */
+    public int getListenerLag( DirectoryListener listener )
+    {
+        return dispatcher.getLag( listener );
+    }
+
+
+    /**
+     * @param listener An asynchronous listener
+     * @return The number of notifications dropped because this listener was too slow
+     */
+    public long getDroppedCount( DirectoryListener listener )
+    {
+        return dispatcher.getDroppedCount( listener );
     }
 
 
@@ -130,7 +211,7 @@ public class EventInterceptor extends BaseInterceptor
                 }
                 else
                 {
-                    executor.execute( new Runnable()
+                    dispatcher.dispatch( listener, new Runnable()
                     {
                         public void run()
                         {
@@ -148,7 +229,7 @@ public class EventInterceptor extends BaseInterceptor
                 }
                 else
                 {
-                    executor.execute( new Runnable()
+                    dispatcher.dispatch( listener, new Runnable()
                     {
                         public void run()
                         {
@@ -166,7 +247,7 @@ public class EventInterceptor extends BaseInterceptor
                 }
                 else
                 {
-                    executor.execute( new Runnable()
+                    dispatcher.dispatch( listener, new Runnable()
                     {
                         public void run()
                         {
@@ -184,7 +265,7 @@ public class EventInterceptor extends BaseInterceptor
                 }
                 else
                 {
-                    executor.execute( new Runnable()
+                    dispatcher.dispatch( listener, new Runnable()
                     {
                         public void run()
                         {
@@ -202,7 +283,7 @@ public class EventInterceptor extends BaseInterceptor
                 }
                 else
                 {
-                    executor.execute( new Runnable()
+                    dispatcher.dispatch( listener, new Runnable()
                     {
                         public void run()
                         {
@@ -220,7 +301,7 @@ public class EventInterceptor extends BaseInterceptor
                 }
                 else
                 {
-                    executor.execute( new Runnable()
+                    dispatcher.dispatch( listener, new Runnable()
                     {
                         public void run()
                         {
@@ -409,50 +490,56 @@ public class EventInterceptor extends BaseInterceptor
 
 
     /**
-     * Find a list of registrationEntries given an entry and a name. We check against
-     * the criteria for each registrationEntry
+     * Find a list of registrationEntries given an entry and a name. The EventService
+     * gives back the registrations the entry is in the scope of, we check their filter.
      */
     private List<RegistrationEntry> getSelectingRegistrations( Dn name, Entry entry ) throws LdapException
     {
-        List<RegistrationEntry> registrations = directoryService.getEventService().getRegistrationEntries();
+        List<RegistrationEntry> candidates = directoryService.getEventService().getRegistrationEntries( name, entry );
 
-        if ( registrations.isEmpty() )
+        if ( candidates.isEmpty() )
         {
             return Collections.emptyList();
         }
 
         List<RegistrationEntry> selecting = new ArrayList<RegistrationEntry>();
 
-        for ( RegistrationEntry registration : registrations )
+        for ( RegistrationEntry registration : candidates )
         {
             NotificationCriteria criteria = registration.getCriteria();
 
-            Dn base = criteria.getBase();
-
-            SearchScope scope = criteria.getScope();
-            
-            boolean inscope = false;
-            
-            // fix for DIRSERVER-1502
-            if ( ( scope == OBJECT ) && name.equals( base ) )
-            {
-                inscope = true;
-            }
-            else if ( ( scope == ONELEVEL ) && name.getParent().equals( base ) )
-            {
-                inscope = true;
-            }
-            else if ( ( scope == SUBTREE ) && ( name.isDescendantOf( base ) || name.equals( base ) ) )
-            {
-                inscope = true;
-            } 
-            
-            if ( inscope && evaluator.evaluate( criteria.getFilter(), base, entry ) )
+            if ( evaluator.evaluate( criteria.getFilter(), criteria.getBase(), entry ) )
             {
                 selecting.add( registration );
             }
         }
 
+        evaluatedCount.addAndGet( candidates.size() );
+        selectedCount.addAndGet( selecting.size() );
+
+        if ( IS_DEBUG )
+        {
+            LOG.debug( "{} : {} registrations evaluated, {} selected", name, candidates.size(), selecting.size() );
+        }
+
         return selecting;
     }
+
+
+    /**
+     * @return The number of registrations whose filter has been evaluated against a modified entry
+     */
+    public long getEvaluatedCount()
+    {
+        return evaluatedCount.get();
+    }
+
+
+    /**
+     * @return The number of registrations which have selected a modified entry, and have been notified
+     */
+    public long getSelectedCount()
+    {
+        return selectedCount.get();
+    }
 }
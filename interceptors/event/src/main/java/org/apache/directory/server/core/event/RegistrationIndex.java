@@ -0,0 +1,276 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.filter.AndNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.LeafNode;
+import org.apache.directory.api.ldap.model.filter.ScopeNode;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.server.core.api.event.RegistrationEntry;
+
+
+/**
+ * An index of the RegistrationEntries, by normalized base Dn and scope. It is used to
+ * find the registrations an entry is in the scope of, without having to check all of
+ * them. Each registration also holds the attributes its filter requires : an entry
+ * which does not have them can't be selected, and its filter does not need to be
+ * evaluated.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class RegistrationIndex
+{
+    /** The registrations, by normalized base Dn */
+    private final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<String, Bucket>();
+
+
+    /**
+     * The registrations sharing the same base Dn, by scope
+     */
+    private static final class Bucket
+    {
+        /** The registrations with an OBJECT scope */
+        private final List<IndexedRegistration> object = new CopyOnWriteArrayList<IndexedRegistration>();
+
+        /** The registrations with an ONELEVEL scope */
+        private final List<IndexedRegistration> oneLevel = new CopyOnWriteArrayList<IndexedRegistration>();
+
+        /** The registrations with a SUBTREE scope */
+        private final List<IndexedRegistration> subtree = new CopyOnWriteArrayList<IndexedRegistration>();
+
+
+        private List<IndexedRegistration> getList( RegistrationEntry registration )
+        {
+            switch ( registration.getCriteria().getScope() )
+            {
+                case OBJECT:
+                    return object;
+
+                case ONELEVEL:
+                    return oneLevel;
+
+                default:
+                    return subtree;
+            }
+        }
+
+
+        private boolean isEmpty()
+        {
+            return object.isEmpty() && oneLevel.isEmpty() && subtree.isEmpty();
+        }
+    }
+
+
+    /**
+     * A registration, with the attributes an entry must have to be selected by its filter
+     */
+    private static final class IndexedRegistration
+    {
+        /** The registration */
+        private final RegistrationEntry registration;
+
+        /** The attributes the selected entries must have */
+        private final AttributeType[] requiredAttributes;
+
+
+        private IndexedRegistration( RegistrationEntry registration )
+        {
+            this.registration = registration;
+
+            Set<AttributeType> required = new LinkedHashSet<AttributeType>();
+            collectRequiredAttributes( registration.getCriteria().getFilter(), required );
+            requiredAttributes = required.toArray( new AttributeType[required.size()] );
+        }
+
+
+        /**
+         * Tells if the entry has all the attributes required by the filter
+         */
+        private boolean mayMatch( Entry entry )
+        {
+            for ( AttributeType attributeType : requiredAttributes )
+            {
+                if ( entry.get( attributeType ) == null )
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+
+    /**
+     * Adds a registration into the index
+     *
+     * @param registration The registration to add
+     */
+    synchronized void add( RegistrationEntry registration )
+    {
+        String base = registration.getCriteria().getBase().getNormName();
+        Bucket bucket = buckets.get( base );
+
+        if ( bucket == null )
+        {
+            bucket = new Bucket();
+            buckets.put( base, bucket );
+        }
+
+        bucket.getList( registration ).add( new IndexedRegistration( registration ) );
+    }
+
+
+    /**
+     * Removes a registration from the index
+     *
+     * @param registration The registration to remove
+     */
+    synchronized void remove( RegistrationEntry registration )
+    {
+        String base = registration.getCriteria().getBase().getNormName();
+        Bucket bucket = buckets.get( base );
+
+        if ( bucket == null )
+        {
+            return;
+        }
+
+        List<IndexedRegistration> list = bucket.getList( registration );
+
+        for ( IndexedRegistration indexed : list )
+        {
+            if ( indexed.registration == registration )
+            {
+                list.remove( indexed );
+            }
+        }
+
+        if ( bucket.isEmpty() )
+        {
+            buckets.remove( base );
+        }
+    }
+
+
+    /**
+     * Gets the registrations which may select an entry : the entry is in their scope,
+     * and it has all the attributes their filter requires. The filters have still to
+     * be evaluated.
+     *
+     * @param dn The entry Dn
+     * @param entry The entry
+     * @return The candidate registrations
+     */
+    List<RegistrationEntry> getCandidates( Dn dn, Entry entry )
+    {
+        if ( buckets.isEmpty() )
+        {
+            return Collections.emptyList();
+        }
+
+        List<RegistrationEntry> candidates = new ArrayList<RegistrationEntry>();
+        Dn current = dn;
+        int depth = 0;
+
+        // Walk up the tree, from the entry up to the RootDSE
+        while ( true )
+        {
+            Bucket bucket = buckets.get( current.getNormName() );
+
+            if ( bucket != null )
+            {
+                if ( depth == 0 )
+                {
+                    addCandidates( candidates, bucket.object, entry );
+                }
+                else if ( depth == 1 )
+                {
+                    addCandidates( candidates, bucket.oneLevel, entry );
+                }
+
+                addCandidates( candidates, bucket.subtree, entry );
+            }
+
+            if ( current.isRootDse() )
+            {
+                break;
+            }
+
+            current = current.getParent();
+            depth++;
+        }
+
+        return candidates;
+    }
+
+
+    private void addCandidates( List<RegistrationEntry> candidates, List<IndexedRegistration> registrations,
+        Entry entry )
+    {
+        for ( IndexedRegistration indexed : registrations )
+        {
+            if ( indexed.mayMatch( entry ) )
+            {
+                candidates.add( indexed.registration );
+            }
+        }
+    }
+
+
+    /**
+     * Collects the attributes an entry must have to match a filter : the attributes used
+     * in the leaf nodes, and in the AND nodes children. We can't say anything about the
+     * OR and NOT nodes.
+     */
+    private static void collectRequiredAttributes( ExprNode node, Set<AttributeType> required )
+    {
+        if ( node instanceof AndNode )
+        {
+            for ( ExprNode child : ( ( AndNode ) node ).getChildren() )
+            {
+                collectRequiredAttributes( child, required );
+            }
+        }
+        else if ( ( node instanceof LeafNode ) && !( node instanceof ScopeNode ) )
+        {
+            AttributeType attributeType = ( ( LeafNode ) node ).getAttributeType();
+
+            if ( attributeType != null )
+            {
+                required.add( attributeType );
+            }
+        }
+    }
+}
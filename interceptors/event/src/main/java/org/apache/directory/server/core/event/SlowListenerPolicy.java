@@ -0,0 +1,47 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+/**
+ * What to do when an asynchronous listener does not consume its notifications fast
+ * enough, and its queue is full.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public enum SlowListenerPolicy
+{
+    /**
+     * The writer waits until there is some room in the listener queue. The writer holds
+     * the lock of the partition it modifies meanwhile : this policy is only meant for the
+     * embedded listeners which must not miss any notification, and are known to be fast
+     */
+    BLOCK,
+
+    /** The notification is dropped, and the listener is flagged as having missed some */
+    DROP,
+
+    /**
+     * The listener is removed, and told about it. This is the default. The listeners which
+     * are not a DisconnectableListener can't know they have been removed : their notifications
+     * are dropped and counted, as with DROP, so that the writer never waits
+     */
+    DISCONNECT
+}
@@ -0,0 +1,451 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.server.core.api.MockDirectoryService;
+import org.apache.directory.server.core.api.event.DirectoryListener;
+import org.apache.directory.server.core.api.event.DisconnectableListener;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.junit.After;
+import org.junit.Test;
+
+
+/**
+ * Tests the EventDispatcher : the order of the notifications of each listener, and
+ * the policies applied when a listener is too slow.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EventDispatcherTest
+{
+    private static final long TIMEOUT = 10L;
+
+    private EventDispatcher dispatcher;
+
+
+    /**
+     * An asynchronous listener. The notifications are the runnables given to the
+     * dispatcher : they record their number in the listener.
+     */
+    private static class TestListener implements DirectoryListener
+    {
+        /** The received notifications */
+        final List<Integer> received = Collections.synchronizedList( new ArrayList<Integer>() );
+
+        /** Counted down when a notification is received */
+        final CountDownLatch started = new CountDownLatch( 1 );
+
+        /** The notifications wait for this latch, if set */
+        CountDownLatch gate;
+
+
+        Runnable event( final int number )
+        {
+            return new Runnable()
+            {
+                public void run()
+                {
+                    started.countDown();
+
+                    if ( gate != null )
+                    {
+                        try
+                        {
+                            gate.await( TIMEOUT, TimeUnit.SECONDS );
+                        }
+                        catch ( InterruptedException ie )
+                        {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+
+                    received.add( number );
+                }
+            };
+        }
+
+
+        public void entryAdded( AddOperationContext addContext )
+        {
+        }
+
+
+        public void entryDeleted( DeleteOperationContext deleteContext )
+        {
+        }
+
+
+        public void entryModified( ModifyOperationContext modifyContext )
+        {
+        }
+
+
+        public void entryRenamed( RenameOperationContext renameContext )
+        {
+        }
+
+
+        public void entryMoved( MoveOperationContext moveContext )
+        {
+        }
+
+
+        public void entryMovedAndRenamed( MoveAndRenameOperationContext moveAndRenameContext )
+        {
+        }
+
+
+        public boolean isSynchronous()
+        {
+            return false;
+        }
+    }
+
+
+    /**
+     * A listener which is told when it's disconnected
+     */
+    private static final class TestDisconnectableListener extends TestListener implements DisconnectableListener
+    {
+        private final CountDownLatch disconnected = new CountDownLatch( 1 );
+
+
+        public void disconnected()
+        {
+            disconnected.countDown();
+        }
+    }
+
+
+    @After
+    public void shutdown()
+    {
+        if ( dispatcher != null )
+        {
+            dispatcher.shutdown();
+        }
+    }
+
+
+    /**
+     * Dispatches a notification which will block the delivery thread of the listener
+     * until its gate is opened.
+     */
+    private void blockListener( TestListener listener ) throws Exception
+    {
+        listener.gate = new CountDownLatch( 1 );
+        dispatcher.dispatch( listener, listener.event( 0 ) );
+        assertTrue( listener.started.await( TIMEOUT, TimeUnit.SECONDS ) );
+    }
+
+
+    /**
+     * Waits until a notification has been delivered to a listener
+     */
+    private void awaitDelivery( TestListener listener, int number ) throws Exception
+    {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis( TIMEOUT );
+
+        while ( !listener.received.contains( number ) )
+        {
+            assertTrue( System.currentTimeMillis() < deadline );
+            Thread.sleep( 10L );
+        }
+    }
+
+
+    @Test
+    public void testOrderPerListener() throws Exception
+    {
+        dispatcher = new EventDispatcher( 4, 16, SlowListenerPolicy.BLOCK );
+        TestListener[] listeners = new TestListener[]
+            { new TestListener(), new TestListener(), new TestListener() };
+        int nbEvents = 1000;
+
+        for ( TestListener listener : listeners )
+        {
+            dispatcher.register( listener );
+        }
+
+        for ( int i = 0; i < nbEvents; i++ )
+        {
+            for ( TestListener listener : listeners )
+            {
+                dispatcher.dispatch( listener, listener.event( i ) );
+            }
+        }
+
+        for ( TestListener listener : listeners )
+        {
+            awaitDelivery( listener, nbEvents - 1 );
+
+            // The notifications of a listener are delivered in the dispatch order
+            assertEquals( nbEvents, listener.received.size() );
+
+            for ( int i = 0; i < nbEvents; i++ )
+            {
+                assertEquals( Integer.valueOf( i ), listener.received.get( i ) );
+            }
+        }
+    }
+
+
+    @Test
+    public void testSlowListenerDoesNotDelayTheOthers() throws Exception
+    {
+        dispatcher = new EventDispatcher( 2, 16, SlowListenerPolicy.BLOCK );
+        TestListener slow = new TestListener();
+        TestListener fast = new TestListener();
+        dispatcher.register( slow );
+        dispatcher.register( fast );
+
+        blockListener( slow );
+        dispatcher.dispatch( slow, slow.event( 1 ) );
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            dispatcher.dispatch( fast, fast.event( i ) );
+        }
+
+        awaitDelivery( fast, 9 );
+        assertTrue( slow.received.isEmpty() );
+        assertEquals( 1, dispatcher.getLag( slow ) );
+
+        slow.gate.countDown();
+        awaitDelivery( slow, 1 );
+        assertEquals( Arrays.asList( 0, 1 ), slow.received );
+    }
+
+
+    @Test
+    public void testBlockPolicy() throws Exception
+    {
+        dispatcher = new EventDispatcher( 1, 2, SlowListenerPolicy.BLOCK );
+        final TestListener listener = new TestListener();
+        dispatcher.register( listener );
+
+        blockListener( listener );
+
+        // Fill the queue
+        dispatcher.dispatch( listener, listener.event( 1 ) );
+        dispatcher.dispatch( listener, listener.event( 2 ) );
+        assertEquals( 2, dispatcher.getLag( listener ) );
+
+        // The next writer waits for some room in the queue
+        Thread writer = new Thread()
+        {
+            public void run()
+            {
+                dispatcher.dispatch( listener, listener.event( 3 ) );
+            }
+        };
+
+        writer.start();
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis( TIMEOUT );
+
+        while ( writer.getState() != Thread.State.WAITING )
+        {
+            assertTrue( System.currentTimeMillis() < deadline );
+            Thread.sleep( 10L );
+        }
+
+        listener.gate.countDown();
+        writer.join( TimeUnit.SECONDS.toMillis( TIMEOUT ) );
+        assertFalse( writer.isAlive() );
+
+        // Nothing is lost
+        awaitDelivery( listener, 3 );
+        assertEquals( Arrays.asList( 0, 1, 2, 3 ), listener.received );
+        assertEquals( 0L, dispatcher.getDroppedCount( listener ) );
+    }
+
+
+    @Test
+    public void testDropPolicy() throws Exception
+    {
+        dispatcher = new EventDispatcher( 1, 2, SlowListenerPolicy.DROP );
+        TestListener listener = new TestListener();
+        dispatcher.register( listener );
+
+        blockListener( listener );
+
+        // The first two are queued, the next ones are dropped without waiting
+        for ( int i = 1; i <= 5; i++ )
+        {
+            dispatcher.dispatch( listener, listener.event( i ) );
+        }
+
+        assertEquals( 2, dispatcher.getLag( listener ) );
+        assertEquals( 3L, dispatcher.getDroppedCount( listener ) );
+
+        listener.gate.countDown();
+        awaitDelivery( listener, 2 );
+
+        // The listener keeps receiving the next notifications
+        dispatcher.dispatch( listener, listener.event( 6 ) );
+        awaitDelivery( listener, 6 );
+
+        assertEquals( Arrays.asList( 0, 1, 2, 6 ), listener.received );
+        assertEquals( 3L, dispatcher.getDroppedCount( listener ) );
+    }
+
+
+    @Test
+    public void testDisconnectPolicy() throws Exception
+    {
+        dispatcher = new EventDispatcher( 1, 2, SlowListenerPolicy.DISCONNECT );
+        SchemaManager schemaManager = new DefaultSchemaManager();
+        MockDirectoryService directoryService = new MockDirectoryService();
+        directoryService.setSchemaManager( schemaManager );
+        DefaultEventService eventService = new DefaultEventService( directoryService, dispatcher );
+        dispatcher.setEventService( eventService );
+
+        TestDisconnectableListener listener = new TestDisconnectableListener();
+        NotificationCriteria criteria = new NotificationCriteria();
+        criteria.setBase( new Dn( schemaManager, "ou=system" ) );
+        eventService.addListener( listener, criteria );
+        assertEquals( 1, eventService.getRegistrationEntries().size() );
+
+        blockListener( listener );
+        dispatcher.dispatch( listener, listener.event( 1 ) );
+        dispatcher.dispatch( listener, listener.event( 2 ) );
+
+        // The queue is full : the listener is removed from the EventService, and told so
+        dispatcher.dispatch( listener, listener.event( 3 ) );
+
+        assertTrue( listener.disconnected.await( TIMEOUT, TimeUnit.SECONDS ) );
+        assertTrue( eventService.getRegistrationEntries().isEmpty() );
+        assertEquals( 0, dispatcher.getLag( listener ) );
+
+        // Its pending notifications are discarded, and it receives nothing more
+        TestListener other = new TestListener();
+        dispatcher.register( other );
+        dispatcher.dispatch( listener, listener.event( 4 ) );
+        listener.gate.countDown();
+        dispatcher.dispatch( other, other.event( 0 ) );
+        awaitDelivery( other, 0 );
+
+        assertEquals( Arrays.asList( 0 ), listener.received );
+    }
+
+
+    @Test
+    public void testDisconnectPolicyWithoutDisconnectableListener() throws Exception
+    {
+        dispatcher = new EventDispatcher( 1, 2, SlowListenerPolicy.DISCONNECT );
+        final TestListener listener = new TestListener();
+        dispatcher.register( listener );
+
+        blockListener( listener );
+
+        // A slow listener which can't be told it's disconnected : the writer doesn't wait
+        // for it, the notifications which don't fit in its queue are dropped and counted
+        Thread writer = new Thread()
+        {
+            public void run()
+            {
+                for ( int i = 1; i <= 5; i++ )
+                {
+                    dispatcher.dispatch( listener, listener.event( i ) );
+                }
+            }
+        };
+
+        writer.start();
+        writer.join( TimeUnit.SECONDS.toMillis( TIMEOUT ) );
+        assertFalse( writer.isAlive() );
+
+        assertEquals( 2, dispatcher.getLag( listener ) );
+        assertEquals( 3L, dispatcher.getDroppedCount( listener ) );
+
+        // The lag and the dropped notifications are published in the metrics
+        Map<String, Number> metrics = new HashMap<String, Number>();
+        dispatcher.collectMetrics( metrics );
+        String prefix = "event.listener.EventDispatcherTest$TestListener@"
+            + Integer.toHexString( System.identityHashCode( listener ) ) + ".";
+
+        assertEquals( 2, metrics.get( prefix + "lag" ).intValue() );
+        assertEquals( 3L, metrics.get( prefix + "dropped" ).longValue() );
+        assertEquals( 1, metrics.get( "event.listeners" ).intValue() );
+        assertEquals( 2, metrics.get( "event.maxLag" ).intValue() );
+        assertEquals( 3L, metrics.get( "event.dropped" ).longValue() );
+
+        // The listener is kept, and receives the next notifications
+        listener.gate.countDown();
+        awaitDelivery( listener, 2 );
+        dispatcher.dispatch( listener, listener.event( 6 ) );
+        awaitDelivery( listener, 6 );
+
+        assertEquals( Arrays.asList( 0, 1, 2, 6 ), listener.received );
+    }
+
+
+    @Test
+    public void testDispatchAfterRemove() throws Exception
+    {
+        // A single thread : the notifications are delivered in the dispatch order
+        dispatcher = new EventDispatcher( 1, 16, SlowListenerPolicy.BLOCK );
+        TestListener removed = new TestListener();
+        TestListener other = new TestListener();
+        dispatcher.register( removed );
+        dispatcher.register( other );
+
+        dispatcher.remove( removed );
+
+        // A writer which selected the listener before it was removed
+        dispatcher.dispatch( removed, removed.event( 0 ) );
+        dispatcher.dispatch( other, other.event( 0 ) );
+        awaitDelivery( other, 0 );
+
+        // The notification is ignored, no queue has been created for the removed listener
+        assertTrue( removed.received.isEmpty() );
+        assertEquals( 0, dispatcher.getLag( removed ) );
+
+        // It gets a new queue if it's added again
+        dispatcher.register( removed );
+        dispatcher.dispatch( removed, removed.event( 1 ) );
+        awaitDelivery( removed, 1 );
+        assertEquals( Arrays.asList( 1 ), removed.received );
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.event.RegistrationEntry;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the RegistrationIndex : the selection of the registrations by scope, and
+ * the pre-filtering of the entries which can't match a registration filter.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class RegistrationIndexTest
+{
+    private static SchemaManager schemaManager;
+
+    private static Dn usersDn;
+    private static Dn userDn;
+    private static Dn deviceDn;
+
+    /** A person, with a cn and a sn */
+    private static Entry user;
+
+    /** An entry without sn */
+    private static Entry device;
+
+    private RegistrationIndex index;
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        schemaManager = new DefaultSchemaManager();
+
+        usersDn = new Dn( schemaManager, "ou=users,ou=system" );
+        userDn = new Dn( schemaManager, "cn=john,ou=users,ou=system" );
+        deviceDn = new Dn( schemaManager, "cn=printer,ou=devices,ou=system" );
+
+        user = new DefaultEntry( schemaManager, userDn,
+            "objectClass: top",
+            "objectClass: person",
+            "cn: john",
+            "sn: doe" );
+
+        device = new DefaultEntry( schemaManager, deviceDn,
+            "objectClass: top",
+            "objectClass: device",
+            "cn: printer" );
+    }
+
+
+    @Before
+    public void createIndex()
+    {
+        index = new RegistrationIndex();
+    }
+
+
+    private RegistrationEntry register( String base, SearchScope scope, String filter ) throws Exception
+    {
+        NotificationCriteria criteria = new NotificationCriteria();
+        criteria.setBase( new Dn( schemaManager, base ) );
+        criteria.setScope( scope );
+        criteria.setFilter( FilterParser.parse( schemaManager, filter ) );
+
+        RegistrationEntry registration = new RegistrationEntry( null, criteria );
+        index.add( registration );
+
+        return registration;
+    }
+
+
+    @Test
+    public void testNoRegistration() throws Exception
+    {
+        assertTrue( index.getCandidates( userDn, user ).isEmpty() );
+    }
+
+
+    @Test
+    public void testObjectScope() throws Exception
+    {
+        RegistrationEntry onUser = register( "cn=john,ou=users,ou=system", SearchScope.OBJECT, "(objectClass=*)" );
+        RegistrationEntry onUsers = register( "ou=users,ou=system", SearchScope.OBJECT, "(objectClass=*)" );
+
+        List<RegistrationEntry> candidates = index.getCandidates( userDn, user );
+
+        assertEquals( 1, candidates.size() );
+        assertTrue( candidates.contains( onUser ) );
+        assertFalse( candidates.contains( onUsers ) );
+    }
+
+
+    @Test
+    public void testOneLevelScope() throws Exception
+    {
+        RegistrationEntry onUsers = register( "ou=users,ou=system", SearchScope.ONELEVEL, "(objectClass=*)" );
+        RegistrationEntry onSystem = register( "ou=system", SearchScope.ONELEVEL, "(objectClass=*)" );
+        RegistrationEntry onUser = register( "cn=john,ou=users,ou=system", SearchScope.ONELEVEL, "(objectClass=*)" );
+
+        // Only the children of the base are selected, not the base itself nor the deeper entries
+        List<RegistrationEntry> candidates = index.getCandidates( userDn, user );
+
+        assertEquals( 1, candidates.size() );
+        assertTrue( candidates.contains( onUsers ) );
+        assertFalse( candidates.contains( onSystem ) );
+        assertFalse( candidates.contains( onUser ) );
+    }
+
+
+    @Test
+    public void testSubtreeScope() throws Exception
+    {
+        RegistrationEntry onUser = register( "cn=john,ou=users,ou=system", SearchScope.SUBTREE, "(objectClass=*)" );
+        RegistrationEntry onUsers = register( "ou=users,ou=system", SearchScope.SUBTREE, "(objectClass=*)" );
+        RegistrationEntry onSystem = register( "ou=system", SearchScope.SUBTREE, "(objectClass=*)" );
+        RegistrationEntry onRoot = register( "", SearchScope.SUBTREE, "(objectClass=*)" );
+        RegistrationEntry onDevices = register( "ou=devices,ou=system", SearchScope.SUBTREE, "(objectClass=*)" );
+
+        // The base and all its descendants are selected
+        List<RegistrationEntry> candidates = index.getCandidates( userDn, user );
+
+        assertEquals( 4, candidates.size() );
+        assertTrue( candidates.contains( onUser ) );
+        assertTrue( candidates.contains( onUsers ) );
+        assertTrue( candidates.contains( onSystem ) );
+        assertTrue( candidates.contains( onRoot ) );
+        assertFalse( candidates.contains( onDevices ) );
+
+        candidates = index.getCandidates( usersDn, user );
+        assertEquals( 3, candidates.size() );
+        assertFalse( candidates.contains( onUser ) );
+    }
+
+
+    @Test
+    public void testRequiredAttributes() throws Exception
+    {
+        RegistrationEntry leaf = register( "ou=system", SearchScope.SUBTREE, "(sn=doe)" );
+        RegistrationEntry and = register( "ou=system", SearchScope.SUBTREE, "(&(objectClass=person)(sn=*))" );
+
+        // The user has a sn : the filters still have to be evaluated
+        List<RegistrationEntry> candidates = index.getCandidates( userDn, user );
+
+        assertEquals( 2, candidates.size() );
+        assertTrue( candidates.contains( leaf ) );
+        assertTrue( candidates.contains( and ) );
+
+        // The device can't match any of them
+        assertTrue( index.getCandidates( deviceDn, device ).isEmpty() );
+    }
+
+
+    @Test
+    public void testOrAndNotFiltersAreNotPruned() throws Exception
+    {
+        RegistrationEntry or = register( "ou=system", SearchScope.SUBTREE, "(|(sn=doe)(cn=printer))" );
+        RegistrationEntry not = register( "ou=system", SearchScope.SUBTREE, "(!(sn=doe))" );
+        RegistrationEntry andOr = register( "ou=system", SearchScope.SUBTREE,
+            "(&(objectClass=*)(|(sn=doe)(cn=printer)))" );
+        RegistrationEntry andNot = register( "ou=system", SearchScope.SUBTREE, "(&(cn=*)(!(sn=*)))" );
+        RegistrationEntry andSn = register( "ou=system", SearchScope.SUBTREE, "(&(cn=*)(|(sn=a)(sn=b)))" );
+
+        // The device has no sn, but it may match the OR and NOT filters. Only the
+        // attributes of the AND children are required : not the ones in an OR
+        List<RegistrationEntry> candidates = index.getCandidates( deviceDn, device );
+
+        assertEquals( 5, candidates.size() );
+        assertTrue( candidates.contains( or ) );
+        assertTrue( candidates.contains( not ) );
+        assertTrue( candidates.contains( andOr ) );
+        assertTrue( candidates.contains( andNot ) );
+        assertTrue( candidates.contains( andSn ) );
+
+        assertEquals( 5, index.getCandidates( userDn, user ).size() );
+    }
+
+
+    @Test
+    public void testRemove() throws Exception
+    {
+        RegistrationEntry first = register( "ou=system", SearchScope.SUBTREE, "(objectClass=*)" );
+        RegistrationEntry second = register( "ou=system", SearchScope.SUBTREE, "(objectClass=*)" );
+        RegistrationEntry oneLevel = register( "ou=users,ou=system", SearchScope.ONELEVEL, "(objectClass=*)" );
+
+        index.remove( first );
+
+        // The other registrations on the same base are kept
+        List<RegistrationEntry> candidates = index.getCandidates( userDn, user );
+
+        assertEquals( 2, candidates.size() );
+        assertTrue( candidates.contains( second ) );
+        assertTrue( candidates.contains( oneLevel ) );
+
+        // Removing a registration twice, or one which is not there, does nothing
+        index.remove( first );
+        index.remove( new RegistrationEntry( null, first.getCriteria() ) );
+        assertEquals( 2, index.getCandidates( userDn, user ).size() );
+
+        index.remove( second );
+        index.remove( oneLevel );
+        assertTrue( index.getCandidates( userDn, user ).isEmpty() );
+
+        // A registration can be added again once removed
+        index.add( first );
+        candidates = index.getCandidates( userDn, user );
+
+        assertEquals( 1, candidates.size() );
+        assertTrue( candidates.contains( first ) );
+    }
+}
@@ -176,6 +176,7 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
         try
         {
             initTables( schemaManager );
+            loadStatistics( getStatisticsFile() );
         }
         catch ( IOException e )
         {
@@ -183,6 +184,11 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
             close();
             throw e;
         }
+        catch ( Exception e )
+        {
+            close();
+            throw new IOException( e );
+        }
 
         // finally write a text file in the format <OID>-<attribute-name>.txt
         FileWriter fw = new FileWriter( new File( path + "-" + attributeType.getName() + ".txt" ) );
@@ -386,8 +392,11 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
      */
     public synchronized void add( K attrVal, String id ) throws Exception
     {
+        long count = forward.count();
+
         // The pair to be added must exists
         forward.put( attrVal, id );
+        updateStatistics( forward, attrVal, count );
 
         if ( withReverse )
         {
@@ -404,7 +413,9 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
         // The pair to be removed must exists
         if ( forward.has( attrVal, id ) )
         {
+            long count = forward.count();
             forward.remove( attrVal, id );
+            updateStatistics( forward, attrVal, count );
 
             if ( withReverse )
             {
@@ -430,7 +441,10 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
                 while ( values.next() )
                 {
                     // Remove the Key -> entryId from the index
-                    forward.remove( values.get().getValue(), entryId );
+                    K key = values.get().getValue();
+                    long count = forward.count();
+                    forward.remove( key, entryId );
+                    updateStatistics( forward, key, count );
                 }
 
                 values.close();
@@ -439,7 +453,9 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
             {
                 K key = reverse.get( entryId );
 
+                long count = forward.count();
                 forward.remove( key );
+                updateStatistics( forward, key, count );
             }
 
             // Remove the id -> key from the reverse index
@@ -566,6 +582,11 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
      */
     public synchronized void close() throws IOException
     {
+        if ( initialized )
+        {
+            saveStatistics( getStatisticsFile() );
+        }
+
         if ( forward != null )
         {
             forward.close();
@@ -581,6 +602,15 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
     }
 
 
+    /**
+     * @return The file where the index statistics are saved when the index is synced or closed
+     */
+    private File getStatisticsFile()
+    {
+        return new File( wkDirPath, attributeType.getOid() + STATISTICS_EXTENSION );
+    }
+
+
     /**
      * @see Index#sync()
      */
@@ -605,6 +635,8 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
 
             baseRecordManager.getTransactionManager().synchronizeLog();
         }
+
+        saveStatistics( getStatisticsFile() );
     }
 
 
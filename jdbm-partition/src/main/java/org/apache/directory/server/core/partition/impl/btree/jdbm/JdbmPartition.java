@@ -26,47 +26,60 @@ import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
 
 import jdbm.RecordManager;
 import jdbm.helper.MRU;
 import jdbm.recman.BaseRecordManager;
 import jdbm.recman.CacheRecordManager;
 import jdbm.recman.TransactionManager;
-import net.sf.ehcache.Cache;
-import net.sf.ehcache.Element;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.csn.CsnFactory;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.Tuple;
 import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOperationErrorException;
 import org.apache.directory.api.ldap.model.exception.LdapSchemaViolationException;
+import org.apache.directory.api.ldap.model.ldif.ChangeType;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifReader;
+import org.apache.directory.api.ldap.model.ldif.LdifUtils;
 import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.Strings;
 import org.apache.directory.api.util.exception.MultiException;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
 import org.apache.directory.server.core.api.DnFactory;
-import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
-import org.apache.directory.server.core.api.interceptor.context.OperationContext;
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.core.api.partition.DeferredSync;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.OffHeapEntryCache;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
 import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
@@ -90,6 +103,15 @@ public class JdbmPartition extends AbstractBTreePartition
 
     private static final String JDBM_DB_FILE_EXTN = ".db";
 
+    /** The name of the write ahead log file */
+    private static final String WAL_FILE = "master.wal";
+
+    /** The name of the file present while a checkpoint is being done */
+    private static final String CHECKPOINT_MARKER = "checkpoint.pending";
+
+    /** The default size of the write ahead log triggering a checkpoint */
+    public static final long DEFAULT_CHECKPOINT_SIZE = 64L * 1024L * 1024L;
+
     private static final FilenameFilter DB_FILTER = new FilenameFilter()
     {
 
@@ -103,8 +125,15 @@ public class JdbmPartition extends AbstractBTreePartition
     /** the JDBM record manager used by this database */
     private RecordManager recMan;
 
-    /** the entry cache */
-    private Cache entryCache;
+
+    /** Tells if the changes are written in a write ahead log */
+    private boolean writeAheadLogEnabled;
+
+    /** The size of the write ahead log triggering a checkpoint */
+    private long checkpointSize = DEFAULT_CHECKPOINT_SIZE;
+
+    /** The write ahead log, null if it's not enabled */
+    private WriteAheadLog wal;
 
 
     /**
@@ -128,9 +157,10 @@ public class JdbmPartition extends AbstractBTreePartition
     
     
     /**
-     * Rebuild the indexes 
+     * Rebuild the indexes, except the alias ones : the aliases are stored in the given
+     * map, with their aliasedObjectName.
      */
-    private int rebuildIndexes() throws Exception
+    private int rebuildIndexes( Map<String, String> aliases ) throws Exception
     {
         Cursor<Tuple<String, Entry>> cursor = getMasterTable().cursor();
 
@@ -199,11 +229,12 @@ public class JdbmPartition extends AbstractBTreePartition
                     objectClassIdx.add( valueStr, id );
                 }
                 
-                // The Alias indexes
+                // The Alias indexes need the DN of the alias ancestors, they are
+                // built once the RdnIndex is complete
                 if ( objectClass.contains( SchemaConstants.ALIAS_OC ) )
                 {
                     Attribute aliasAttr = entry.get( aliasedObjectNameAT );
-                    addAliasIndices( id, dn, new Dn( schemaManager, aliasAttr.getString() ) );
+                    aliases.put( id, aliasAttr.getString() );
                 }
                 
                 // The entryCSN index
@@ -356,12 +387,23 @@ public class JdbmPartition extends AbstractBTreePartition
         }
 
         // Ok, now, rebuild the indexes.
-        int masterTableCount = rebuildIndexes();
+        Map<String, String> aliases = new HashMap<String, String>();
+        int masterTableCount = rebuildIndexes( aliases );
         
         // Now that the RdnIndex has been rebuilt, we have to update the nbChildren and nbDescendants values
         // We loop again on the MasterTable 
         updateRdnIndexCounters();
-        
+
+        // The entries tree is loaded from the RdnIndex
+        loadHierarchy();
+
+        // And the alias indexes, now that the entries DN can be computed
+        for ( Map.Entry<String, String> alias : aliases.entrySet() )
+        {
+            String aliasId = alias.getKey();
+            addAliasIndices( aliasId, buildEntryDn( aliasId ), new Dn( schemaManager, alias.getValue() ) );
+        }
+
         // Flush the indexes on disk
         sync();
 
@@ -465,16 +507,14 @@ public class JdbmPartition extends AbstractBTreePartition
 
             deleteUnusedIndexFiles( allIndices, allIndexDbFiles );
 
-            if ( cacheService != null )
+            if ( writeAheadLogEnabled )
             {
-                entryCache = cacheService.getCache( getId() );
-
-                int cacheSizeConfig = ( int ) entryCache.getCacheConfiguration().getMaxEntriesLocalHeap();
+                recover( partitionDir );
+            }
 
-                if ( cacheSizeConfig < cacheSize )
-                {
-                    entryCache.getCacheConfiguration().setMaxEntriesLocalHeap( cacheSize );
-                }
+            if ( getEntryCacheMemory() > 0 )
+            {
+                entryCache = new OffHeapEntryCache( schemaManager, getEntryCacheMemory() );
             }
 
             // Initialization of the context entry
@@ -526,6 +566,462 @@ public class JdbmPartition extends AbstractBTreePartition
 
             // We are done !
             initialized = true;
+
+            if ( wal != null )
+            {
+                // Write the recovered changes in the B-trees
+                sync();
+            }
+        }
+    }
+
+
+    /**
+     * @return true if the changes are written in a write ahead log
+     */
+    public boolean isWriteAheadLogEnabled()
+    {
+        return writeAheadLogEnabled;
+    }
+
+
+    /**
+     * Enables or disables the write ahead log. When it's enabled, each change is
+     * appended to a log before the operation completes, and the B-trees are only
+     * written on disk when the partition is synced, or when the log grows past the
+     * checkpoint size. If the syncOnWrite flag is set, the operations wait for their
+     * changes to be flushed on disk, sharing the same flush.
+     *
+     * @param writeAheadLogEnabled true to enable the write ahead log
+     */
+    public void setWriteAheadLogEnabled( boolean writeAheadLogEnabled )
+    {
+        checkInitialized( "writeAheadLogEnabled" );
+        this.writeAheadLogEnabled = writeAheadLogEnabled;
+    }
+
+
+    /**
+     * @return The size of the write ahead log triggering a checkpoint
+     */
+    public long getCheckpointSize()
+    {
+        return checkpointSize;
+    }
+
+
+    /**
+     * Sets the size of the write ahead log, in bytes, past which the B-trees are
+     * written on disk and the log emptied.
+     *
+     * @param checkpointSize The size of the log triggering a checkpoint
+     */
+    public void setCheckpointSize( long checkpointSize )
+    {
+        this.checkpointSize = checkpointSize;
+    }
+
+
+    /**
+     * Opens the write ahead log, and replays the changes it contains. They are
+     * the changes done after the last checkpoint, and some of them may already
+     * be in the B-trees : the replay skips the changes already applied.
+     */
+    private void recover( File partitionDir ) throws Exception
+    {
+        if ( new File( partitionDir, CHECKPOINT_MARKER ).exists() )
+        {
+            // The indexes may not match the master table
+            LOG.warn( "The last checkpoint of the {} partition has been interrupted, repairing it", id );
+            doRepair();
+        }
+
+        WriteAheadLog log = new WriteAheadLog( new File( partitionDir, WAL_FILE ) );
+        List<String> records = log.open();
+
+        if ( records.size() > 0 )
+        {
+            LOG.info( "Replaying {} changes from the write ahead log of the {} partition", records.size(), id );
+            LdifReader reader = new LdifReader();
+
+            try
+            {
+                for ( String record : records )
+                {
+                    for ( LdifEntry change : reader.parseLdif( record ) )
+                    {
+                        replay( change );
+                    }
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+
+        // From now on, the changes are logged
+        wal = log;
+    }
+
+
+    /**
+     * Applies a change read from the write ahead log, unless it has already been applied
+     */
+    private void replay( LdifEntry change ) throws Exception
+    {
+        Dn dn = new Dn( schemaManager, change.getDn().getName() );
+        boolean exists = getEntryId( dn ) != null;
+
+        if ( change.isChangeAdd() )
+        {
+            if ( !exists )
+            {
+                add( new AddOperationContext( null, new DefaultEntry( schemaManager, change.getEntry() ) ) );
+            }
+        }
+        else if ( change.isChangeDelete() )
+        {
+            if ( exists )
+            {
+                delete( getEntryId( dn ) );
+            }
+        }
+        else if ( change.isChangeModify() )
+        {
+            if ( exists )
+            {
+                List<Modification> mods = new ArrayList<Modification>();
+
+                for ( Modification mod : change.getModifications() )
+                {
+                    mods.add( new DefaultModification( mod.getOperation(), toServerAttribute( mod.getAttribute() ) ) );
+                }
+
+                modify( dn, mods.toArray( new Modification[mods.size()] ) );
+            }
+        }
+        else if ( change.isChangeModDn() || change.isChangeModRdn() )
+        {
+            if ( exists )
+            {
+                Rdn newRdn = new Rdn( schemaManager, change.getNewRdn() );
+
+                if ( change.getNewSuperior() == null )
+                {
+                    rename( dn, newRdn, change.isDeleteOldRdn(), null );
+                }
+                else
+                {
+                    Dn newSuperiorDn = new Dn( schemaManager, change.getNewSuperior() );
+
+                    if ( newRdn.equals( dn.getRdn() ) )
+                    {
+                        move( dn, newSuperiorDn, newSuperiorDn.add( newRdn ), null );
+                    }
+                    else
+                    {
+                        moveAndRename( dn, newSuperiorDn, newRdn, null, change.isDeleteOldRdn() );
+                    }
+                }
+            }
+        }
+        else
+        {
+            LOG.warn( "Ignoring the unexpected change {} in the write ahead log", change );
+        }
+    }
+
+
+    /**
+     * Makes an attribute read from the write ahead log schema aware
+     */
+    private Attribute toServerAttribute( Attribute attribute ) throws LdapException
+    {
+        AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( attribute.getUpId() );
+        Attribute serverAttribute = new DefaultAttribute( attributeType );
+        boolean humanReadable = attributeType.getSyntax().isHumanReadable();
+
+        for ( Value<?> value : attribute )
+        {
+            if ( value.isHumanReadable() )
+            {
+                serverAttribute.add( value.getString() );
+            }
+            else if ( humanReadable )
+            {
+                // Base64 encoded in the LDIF
+                serverAttribute.add( Strings.utf8ToString( value.getBytes() ) );
+            }
+            else
+            {
+                serverAttribute.add( value.getBytes() );
+            }
+        }
+
+        return serverAttribute;
+    }
+
+
+    /**
+     * Appends a change to the write ahead log. If the syncOnWrite flag is set, the
+     * current operation waits for the log to be flushed on disk once it has released
+     * its locks.
+     */
+    private void log( LdifEntry... changes ) throws LdapException
+    {
+        final WriteAheadLog log = wal;
+
+        if ( log == null )
+        {
+            return;
+        }
+
+        try
+        {
+            StringBuilder record = new StringBuilder();
+
+            for ( LdifEntry change : changes )
+            {
+                record.append( LdifUtils.convertToLdif( change, 80 ) ).append( '\n' );
+            }
+
+            final long seq = log.append( record.toString() );
+
+            if ( isSyncOnWrite() )
+            {
+                DeferredSync.await( new DeferredSync.Waiter()
+                {
+                    public void await() throws Exception
+                    {
+                        log.awaitDurable( seq );
+                    }
+                } );
+            }
+
+            if ( log.size() > checkpointSize )
+            {
+                sync();
+            }
+        }
+        catch ( LdapException le )
+        {
+            throw le;
+        }
+        catch ( Exception e )
+        {
+            throw new LdapOperationErrorException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * Creates a change setting all the attributes of an entry, except the ones
+     * the partition computes.
+     */
+    private LdifEntry replaceAll( Dn dn, Entry entry ) throws LdapException
+    {
+        LdifEntry change = new LdifEntry();
+        change.setChangeType( ChangeType.Modify );
+        change.setDn( dn );
+
+        for ( Attribute attribute : entry )
+        {
+            if ( isStored( attribute.getAttributeType() ) )
+            {
+                change.addModification( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+                    attribute.clone() ) );
+            }
+        }
+
+        return change;
+    }
+
+
+    /**
+     * Tells if an attribute is part of the logged changes : the parentId and the
+     * entryDn are computed by the partition.
+     */
+    private boolean isStored( AttributeType attributeType )
+    {
+        return !attributeType.getOid().equals( ApacheSchemaConstants.ENTRY_PARENT_ID_OID )
+            && !attributeType.getOid().equals( SchemaConstants.ENTRY_DN_AT_OID );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void add( AddOperationContext addContext ) throws LdapException
+    {
+        super.add( addContext );
+
+        if ( wal != null )
+        {
+            Entry entry = addContext.getEntry();
+            LdifEntry change = new LdifEntry();
+            change.setChangeType( ChangeType.Add );
+            change.setDn( addContext.getDn() );
+
+            for ( Attribute attribute : entry )
+            {
+                if ( isStored( attribute.getAttributeType() ) )
+                {
+                    change.addAttribute( attribute.clone() );
+                }
+            }
+
+            log( change );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry delete( DeleteOperationContext deleteContext ) throws LdapException
+    {
+        Entry deletedEntry = super.delete( deleteContext );
+
+        if ( wal != null )
+        {
+            LdifEntry change = new LdifEntry();
+            change.setChangeType( ChangeType.Delete );
+            change.setDn( deleteContext.getDn() );
+
+            log( change );
+        }
+
+        return deletedEntry;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void modify( ModifyOperationContext modifyContext ) throws LdapException
+    {
+        super.modify( modifyContext );
+
+        if ( wal != null )
+        {
+            // Log the resulting values of the modified attributes, so that the change can be replayed twice
+            Entry modifiedEntry = modifyContext.getAlteredEntry();
+            LdifEntry change = new LdifEntry();
+            change.setChangeType( ChangeType.Modify );
+            change.setDn( modifyContext.getDn() );
+
+            for ( Modification mod : modifyContext.getModItems() )
+            {
+                AttributeType attributeType = mod.getAttribute().getAttributeType();
+                Attribute attribute = modifiedEntry.get( attributeType );
+
+                if ( attribute == null )
+                {
+                    attribute = new DefaultAttribute( attributeType );
+                }
+                else
+                {
+                    attribute = attribute.clone();
+                }
+
+                change.addModification( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, attribute ) );
+            }
+
+            log( change );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void move( MoveOperationContext moveContext ) throws LdapException
+    {
+        super.move( moveContext );
+
+        logModDn( moveContext.getDn(), moveContext.getNewDn(), false, true );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void moveAndRename( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
+    {
+        super.moveAndRename( moveAndRenameContext );
+
+        logModDn( moveAndRenameContext.getDn(), moveAndRenameContext.getNewDn(),
+            moveAndRenameContext.getDeleteOldRdn(), true );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rename( RenameOperationContext renameContext ) throws LdapException
+    {
+        super.rename( renameContext );
+
+        logModDn( renameContext.getDn(), renameContext.getNewDn(), renameContext.getDeleteOldRdn(), false );
+    }
+
+
+    /**
+     * Logs a Move, Rename or MoveAndRename operation, followed by the new content of the
+     * entry : the operation may have modified other attributes than the RDN ones.
+     */
+    private void logModDn( Dn oldDn, Dn newDn, boolean deleteOldRdn, boolean moved ) throws LdapException
+    {
+        if ( wal == null )
+        {
+            return;
+        }
+
+        LdifEntry change = new LdifEntry();
+        change.setChangeType( ChangeType.ModDn );
+        change.setDn( oldDn );
+        change.setNewRdn( newDn.getRdn().getName() );
+        change.setDeleteOldRdn( deleteOldRdn );
+
+        if ( moved )
+        {
+            change.setNewSuperior( newDn.getParent().getName() );
+        }
+
+        try
+        {
+            Entry entry = master.get( getEntryId( newDn ) );
+
+            log( change, replaceAll( newDn, entry ) );
+        }
+        catch ( LdapException le )
+        {
+            throw le;
+        }
+        catch ( Exception e )
+        {
+            throw new LdapOperationErrorException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void syncOnWrite() throws Exception
+    {
+        // The write ahead log makes the changes durable
+        if ( wal == null )
+        {
+            super.syncOnWrite();
         }
     }
 
@@ -550,17 +1046,84 @@ public class JdbmPartition extends AbstractBTreePartition
 
     /**
      * This method is called when the synch thread is waking up, to write
-     * the modified data.
+     * the modified data. When the write ahead log is enabled, the log is
+     * emptied once the data are written (checkpoint).
      * 
      * @throws Exception on failures to sync database files to disk
      */
-    public synchronized void sync() throws Exception
+    public void sync() throws Exception
     {
         if ( !initialized )
         {
             return;
         }
 
+        if ( wal == null )
+        {
+            synchronized ( this )
+            {
+                syncBTrees();
+            }
+
+            return;
+        }
+
+        // No change must be applied while we write the data and empty the log. We take
+        // the partition lock before the partition monitor, like the write operations do
+        ReadWriteLock partitionLock = getReadWriteLock();
+        Lock writeLock = ( partitionLock == null ) ? null : partitionLock.writeLock();
+
+        if ( writeLock != null )
+        {
+            writeLock.lock();
+        }
+
+        try
+        {
+            synchronized ( this )
+            {
+                checkpoint();
+            }
+        }
+        finally
+        {
+            if ( writeLock != null )
+            {
+                writeLock.unlock();
+            }
+        }
+    }
+
+
+    /**
+     * Writes the data on disk, and empties the write ahead log. If the server stops
+     * before the end of the checkpoint, the indexes are rebuilt when the partition
+     * is opened again.
+     */
+    private void checkpoint() throws Exception
+    {
+        File marker = new File( new File( getPartitionPath() ), CHECKPOINT_MARKER );
+
+        if ( !marker.exists() && !marker.createNewFile() )
+        {
+            throw new IOException( "Could not create the checkpoint marker " + marker );
+        }
+
+        syncBTrees();
+        wal.truncate();
+
+        if ( !marker.delete() )
+        {
+            LOG.warn( "Failed to delete the checkpoint marker {}", marker );
+        }
+    }
+
+
+    /**
+     * Writes the indexes and the master table on disk
+     */
+    private void syncBTrees() throws Exception
+    {
         // Sync all system indices
         for ( Index<?, String> idx : systemIndices.values() )
         {
@@ -739,6 +1302,23 @@ public class JdbmPartition extends AbstractBTreePartition
             return;
         }
 
+        if ( wal != null )
+        {
+            try
+            {
+                checkpoint();
+                wal.close();
+            }
+            catch ( Exception e )
+            {
+                errors.addThrowable( e );
+            }
+            finally
+            {
+                wal = null;
+            }
+        }
+
         try
         {
             super.doDestroy();
@@ -763,7 +1343,7 @@ public class JdbmPartition extends AbstractBTreePartition
         {
             if ( entryCache != null )
             {
-                entryCache.removeAll();
+                entryCache.clear();
             }
         }
 
@@ -807,84 +1387,6 @@ public class JdbmPartition extends AbstractBTreePartition
     }
 
 
-    @Override
-    public void updateCache( OperationContext opCtx )
-    {
-        if ( entryCache == null )
-        {
-            return;
-        }
-
-        try
-        {
-            if ( opCtx instanceof ModifyOperationContext )
-            {
-                // replace the entry
-                ModifyOperationContext modCtx = ( ModifyOperationContext ) opCtx;
-                Entry entry = modCtx.getAlteredEntry();
-                String id = entry.get( SchemaConstants.ENTRY_UUID_AT ).getString();
-
-                if ( entry instanceof ClonedServerEntry )
-                {
-                    entry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
-                }
-
-                entryCache.replace( new Element( id, entry ) );
-            }
-            else if ( ( opCtx instanceof MoveOperationContext )
-                || ( opCtx instanceof MoveAndRenameOperationContext )
-                || ( opCtx instanceof RenameOperationContext ) )
-            {
-                // clear the cache it is not worth updating all the children
-                entryCache.removeAll();
-            }
-            else if ( opCtx instanceof DeleteOperationContext )
-            {
-                // delete the entry
-                DeleteOperationContext delCtx = ( DeleteOperationContext ) opCtx;
-                entryCache.remove( delCtx.getEntry().get( SchemaConstants.ENTRY_UUID_AT ).getString() );
-            }
-        }
-        catch ( LdapException e )
-        {
-            LOG.warn( "Failed to update entry cache", e );
-        }
-    }
 
 
-    @Override
-    public Entry lookupCache( String id )
-    {
-        if ( entryCache == null )
-        {
-            return null;
-        }
-
-        Element el = entryCache.get( id );
-
-        if ( el != null )
-        {
-            return ( Entry ) el.getValue();
-        }
-
-        return null;
-    }
-
-
-    @Override
-    public void addToCache( String id, Entry entry )
-    {
-        if ( entryCache == null )
-        {
-            return;
-        }
-
-        if ( entry instanceof ClonedServerEntry )
-        {
-            entry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
-        }
-
-        entryCache.put( new Element( id, entry ) );
-    }
-
 }
@@ -0,0 +1,307 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.apache.directory.api.util.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An append only log of the changes applied to a partition. Each change is written
+ * before the operation completes, and the log is flushed on disk once for all the
+ * changes written since the previous flush : the concurrent writers waiting for
+ * their changes to be durable share the same flush (group commit).
+ * <br>
+ * The log is emptied when the partition B-trees have been written on disk, and
+ * replayed when the partition is opened after a crash.
+ * <br>
+ * Each record contains its length, a CRC32 of its content, and its content, the LDIF
+ * description of the change. A truncated or corrupted record ends the log.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class WriteAheadLog
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( WriteAheadLog.class );
+
+    /** The size of a record header : the record length and the CRC */
+    private static final int HEADER_SIZE = 4 + 8;
+
+    /** The log file */
+    private final File file;
+
+    /** The log file, opened in read/write mode */
+    private RandomAccessFile logFile;
+
+    /** The log file channel */
+    private FileChannel channel;
+
+    /** The sequence number of the last appended record */
+    private long appendedSeq;
+
+    /** The sequence number of the last record flushed on disk */
+    private long syncedSeq;
+
+    /** Tells if a thread is flushing the log on disk */
+    private boolean syncing;
+
+    /** The number of bytes in the log */
+    private long size;
+
+
+    /**
+     * Creates a new instance of WriteAheadLog.
+     *
+     * @param file The log file
+     */
+    public WriteAheadLog( File file )
+    {
+        this.file = file;
+    }
+
+
+    /**
+     * Reads the records of an existing log, and opens it for appending new records. If
+     * the log ends with a truncated or corrupted record, this record and the following
+     * bytes are removed.
+     *
+     * @return The content of the records found in the log, in order
+     * @throws IOException If the log can't be read or opened
+     */
+    public synchronized List<String> open() throws IOException
+    {
+        List<String> records = new ArrayList<String>();
+        long validSize = 0L;
+
+        if ( file.exists() )
+        {
+            DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+
+            try
+            {
+                while ( true )
+                {
+                    int length = in.readInt();
+                    long crc = in.readLong();
+
+                    if ( ( length < 0 ) || ( length > file.length() ) )
+                    {
+                        break;
+                    }
+
+                    byte[] content = new byte[length];
+                    in.readFully( content );
+
+                    if ( checksum( content ) != crc )
+                    {
+                        break;
+                    }
+
+                    records.add( Strings.utf8ToString( content ) );
+                    validSize += HEADER_SIZE + length;
+                }
+            }
+            catch ( EOFException eofe )
+            {
+                // The end of the log, or a record only partially written
+            }
+            finally
+            {
+                in.close();
+            }
+
+            if ( validSize < file.length() )
+            {
+                LOG.warn( "Ignoring the {} last bytes of the log {}", file.length() - validSize, file );
+            }
+        }
+
+        logFile = new RandomAccessFile( file, "rw" );
+        channel = logFile.getChannel();
+        channel.truncate( validSize );
+        channel.position( validSize );
+        size = validSize;
+
+        return records;
+    }
+
+
+    /**
+     * Appends a record to the log. It's not flushed on disk before a thread waits for it
+     * with {@link #awaitDurable(long)}.
+     *
+     * @param record The record content
+     * @return The sequence number of the record
+     * @throws IOException If the record can't be written
+     */
+    public synchronized long append( String record ) throws IOException
+    {
+        byte[] content = Strings.getBytesUtf8( record );
+
+        ByteBuffer buffer = ByteBuffer.allocate( HEADER_SIZE + content.length );
+        buffer.putInt( content.length );
+        buffer.putLong( checksum( content ) );
+        buffer.put( content );
+        buffer.flip();
+
+        while ( buffer.hasRemaining() )
+        {
+            channel.write( buffer );
+        }
+
+        size += HEADER_SIZE + content.length;
+
+        return ++appendedSeq;
+    }
+
+
+    /**
+     * Waits until a record is written on disk. If no other thread is flushing the log,
+     * the current thread flushes all the records appended so far.
+     *
+     * @param seq The sequence number of the record
+     * @throws IOException If the log can't be flushed
+     */
+    public void awaitDurable( long seq ) throws IOException
+    {
+        long target;
+
+        synchronized ( this )
+        {
+            while ( syncing && ( syncedSeq < seq ) )
+            {
+                try
+                {
+                    wait();
+                }
+                catch ( InterruptedException ie )
+                {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException( "Interrupted while waiting for the log flush" );
+                }
+            }
+
+            if ( syncedSeq >= seq )
+            {
+                return;
+            }
+
+            // We are the one flushing the log, for all the records appended so far
+            syncing = true;
+            target = appendedSeq;
+        }
+
+        boolean synced = false;
+
+        try
+        {
+            // The other threads can append records while we are waiting for the disk
+            channel.force( false );
+            synced = true;
+        }
+        finally
+        {
+            synchronized ( this )
+            {
+                syncing = false;
+
+                if ( synced && ( target > syncedSeq ) )
+                {
+                    syncedSeq = target;
+                }
+
+                notifyAll();
+            }
+        }
+    }
+
+
+    /**
+     * Empties the log, once all the changes have been written in the partition B-trees.
+     *
+     * @throws IOException If the log can't be truncated
+     */
+    public synchronized void truncate() throws IOException
+    {
+        channel.truncate( 0L );
+        channel.position( 0L );
+        channel.force( true );
+        size = 0L;
+
+        // All the appended records are now durable
+        syncedSeq = appendedSeq;
+        notifyAll();
+    }
+
+
+    /**
+     * @return The number of bytes in the log
+     */
+    public synchronized long size()
+    {
+        return size;
+    }
+
+
+    /**
+     * Closes the log.
+     *
+     * @throws IOException If the log can't be closed
+     */
+    public synchronized void close() throws IOException
+    {
+        if ( logFile != null )
+        {
+            channel.force( false );
+            logFile.close();
+            logFile = null;
+
+            // Nothing is waiting for the disk anymore
+            syncedSeq = appendedSeq;
+            notifyAll();
+        }
+    }
+
+
+    private static long checksum( byte[] content )
+    {
+        CRC32 crc = new CRC32();
+        crc.update( content, 0, content.length );
+
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.junit.BeforeClass;
+import org.junit.Ignore;
+import org.junit.Test;
+
+
+/**
+ * Measures the entry fetches of a JdbmPartition with and without its off-heap entry
+ * cache. It's not run by the build, run it with -Dtest=JdbmEntryCachePerfTest after
+ * having removed the Ignore annotation.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@Ignore("Performance test, run it manually")
+public class JdbmEntryCachePerfTest
+{
+    /** The number of entries in the partition */
+    private static final int NB_ENTRIES = 10000;
+
+    /** The number of fetches done by each thread for a measure */
+    private static final int NB_FETCHES = 200000;
+
+    private static final int NB_THREADS = 4;
+
+    private static SchemaManager schemaManager;
+    private static DnFactory dnFactory;
+    private static CacheService cacheService;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = JdbmEntryCachePerfTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        schemaManager = new DefaultSchemaManager( new LdifSchemaLoader( schemaRepository ) );
+
+        if ( !schemaManager.loadAllEnabled() )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        cacheService = new CacheService();
+        cacheService.initialize( null );
+        dnFactory = new DefaultDnFactory( schemaManager, cacheService.getCache( "dnCache" ) );
+    }
+
+
+    /**
+     * Creates a partition containing NB_ENTRIES persons
+     */
+    private JdbmPartition createPartition( File wkdir, List<String> ids, List<Dn> dns, long entryCacheMemory )
+        throws Exception
+    {
+        JdbmPartition partition = new JdbmPartition( schemaManager, dnFactory );
+        partition.setId( "perf" );
+        partition.setPartitionPath( wkdir.toURI() );
+        partition.setSyncOnWrite( false );
+        partition.setEntryCacheMemory( entryCacheMemory );
+        Dn suffixDn = new Dn( schemaManager, "o=Good Times Co." );
+        partition.setSuffixDn( suffixDn );
+        partition.setCacheService( cacheService );
+        partition.initialize();
+
+        StoreUtils.injectEntryInStore( partition, new DefaultEntry( schemaManager, suffixDn,
+            "objectClass: organization",
+            "o: Good Times Co." ), 1L );
+
+        for ( int i = 0; i < NB_ENTRIES; i++ )
+        {
+            Dn dn = new Dn( schemaManager, "cn=person" + i + ",o=Good Times Co." );
+            Entry entry = new DefaultEntry( schemaManager, dn,
+                "objectClass: person",
+                "objectClass: inetOrgPerson",
+                "cn: person" + i,
+                "sn: Person " + i,
+                "mail: person" + i + "@example.com",
+                "telephoneNumber: +1 555 " + i,
+                "description: A person entry, used to give a realistic size to the cached entries" );
+            StoreUtils.injectEntryInStore( partition, entry, i + 2L );
+            ids.add( partition.getEntryId( dn ) );
+            dns.add( dn );
+        }
+
+        return partition;
+    }
+
+
+    /**
+     * Fetches random entries, and returns the number of nanoseconds per fetch
+     */
+    private static double fetch( final JdbmPartition partition, final List<String> ids, final List<Dn> dns,
+        int nbThreads ) throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool( nbThreads );
+        List<Future<Long>> futures = new ArrayList<Future<Long>>();
+
+        try
+        {
+            for ( int t = 0; t < nbThreads; t++ )
+            {
+                final Random random = new Random( t );
+
+                futures.add( executor.submit( new Callable<Long>()
+                {
+                    public Long call() throws Exception
+                    {
+                        long t0 = System.nanoTime();
+
+                        for ( int i = 0; i < NB_FETCHES; i++ )
+                        {
+                            int pos = random.nextInt( ids.size() );
+                            assertNotNull( partition.fetch( ids.get( pos ), dns.get( pos ) ) );
+                        }
+
+                        return System.nanoTime() - t0;
+                    }
+                } ) );
+            }
+
+            long total = 0L;
+
+            for ( Future<Long> future : futures )
+            {
+                total = Math.max( total, future.get() );
+            }
+
+            return ( double ) total / ( ( long ) NB_FETCHES * nbThreads );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+
+    private void measure( String name, long entryCacheMemory ) throws Exception
+    {
+        File wkdir = File.createTempFile( getClass().getSimpleName(), "db" );
+        wkdir.delete();
+        wkdir.mkdirs();
+
+        List<String> ids = new ArrayList<String>();
+        List<Dn> dns = new ArrayList<Dn>();
+        JdbmPartition partition = createPartition( wkdir, ids, dns, entryCacheMemory );
+
+        try
+        {
+            // Warm up
+            fetch( partition, ids, dns, NB_THREADS );
+
+            System.out.println( String.format( "%s, 1 thread   : %6.0f ns/fetch", name,
+                fetch( partition, ids, dns, 1 ) ) );
+            System.out.println( String.format( "%s, %d threads : %6.0f ns/fetch", name, NB_THREADS,
+                fetch( partition, ids, dns, NB_THREADS ) ) );
+            System.out.println( partition.getEntryCache() );
+        }
+        finally
+        {
+            partition.destroy();
+            FileUtils.deleteDirectory( wkdir );
+        }
+    }
+
+
+    @Test
+    public void testFetch() throws Exception
+    {
+        measure( "No entry cache     ", 0L );
+        measure( "Default entry cache", -1L );
+    }
+}
@@ -0,0 +1,412 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.UUID;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the recovery of a JdbmPartition using a write ahead log : the changes done
+ * after the last checkpoint are replayed when the partition is opened again.
+ *
+ * The crashes are simulated by copying the partition files while the partition is
+ * opened : the B-trees only contain what has been written by the last checkpoint,
+ * and the log contains the changes done since.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JdbmPartitionRecoveryTest
+{
+    private static SchemaManager schemaManager;
+    private static DnFactory dnFactory;
+    private static CacheService cacheService;
+
+    /** The OU AttributeType instance */
+    private static AttributeType OU_AT;
+
+    private static Dn SUFFIX_DN;
+    private static Dn RYAN_DN;
+    private static Dn BEAN_DN;
+    private static Dn ENGINEERING_DN;
+    private static Dn RESEARCH_DN;
+    private static Dn DANIELS_DN;
+    private static Dn WALKER_DN;
+    private static Dn BOARD_DN;
+    private static Dn MOVED_WALKER_DN;
+
+    /** The directory of the partition which is written */
+    private File wkdir;
+
+    /** The directory where the crashed partition is copied */
+    private File crashDir;
+
+    private JdbmPartition store;
+    private JdbmPartition recovered;
+
+    /** The number of entries before the changes */
+    private long initialCount;
+
+    /** The ID of the entry which is deleted */
+    private String danielsId;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = JdbmPartitionRecoveryTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        OU_AT = schemaManager.getAttributeType( SchemaConstants.OU_AT );
+
+        cacheService = new CacheService();
+        cacheService.initialize( null );
+        dnFactory = new DefaultDnFactory( schemaManager, cacheService.getCache( "dnCache" ) );
+
+        SUFFIX_DN = new Dn( schemaManager, "o=Good Times Co." );
+        RYAN_DN = new Dn( schemaManager, "cn=Private Ryan,ou=Sales,o=Good Times Co." );
+        BEAN_DN = new Dn( schemaManager, "cn=JIM BEAN,ou=Sales,o=Good Times Co." );
+        ENGINEERING_DN = new Dn( schemaManager, "ou=Engineering,o=Good Times Co." );
+        RESEARCH_DN = new Dn( schemaManager, "ou=Research,o=Good Times Co." );
+        DANIELS_DN = new Dn( schemaManager, "cn=Jack Daniels,ou=Research,o=Good Times Co." );
+        WALKER_DN = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." );
+        BOARD_DN = new Dn( schemaManager, "ou=Board of Directors,o=Good Times Co." );
+        MOVED_WALKER_DN = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Board of Directors,o=Good Times Co." );
+    }
+
+
+    @Before
+    public void createStore() throws Exception
+    {
+        File tmp = File.createTempFile( getClass().getSimpleName(), "db" );
+        tmp.delete();
+        wkdir = new File( tmp.getParentFile(), getClass().getSimpleName() );
+        crashDir = new File( tmp.getParentFile(), getClass().getSimpleName() + "-crash" );
+        FileUtils.deleteDirectory( wkdir );
+        FileUtils.deleteDirectory( crashDir );
+
+        store = createPartition( wkdir );
+        StoreUtils.loadExampleData( store, schemaManager );
+
+        // The example data are written in the B-trees
+        store.sync();
+
+        initialCount = store.count();
+        danielsId = store.getEntryId( new Dn( schemaManager, "cn=Jack Daniels,ou=Engineering,o=Good Times Co." ) );
+    }
+
+
+    @After
+    public void destroyStore() throws Exception
+    {
+        if ( store != null )
+        {
+            store.destroy();
+        }
+
+        if ( recovered != null )
+        {
+            recovered.destroy();
+        }
+
+        FileUtils.deleteDirectory( wkdir );
+        FileUtils.deleteDirectory( crashDir );
+    }
+
+
+    private JdbmPartition createPartition( File dir ) throws Exception
+    {
+        JdbmPartition partition = new JdbmPartition( schemaManager, dnFactory );
+        partition.setId( "example" );
+        partition.setCacheSize( 10 );
+        partition.setPartitionPath( dir.toURI() );
+        partition.setSyncOnWrite( true );
+        partition.setWriteAheadLogEnabled( true );
+
+        JdbmIndex ouIndex = new JdbmIndex( SchemaConstants.OU_AT_OID, false );
+        ouIndex.setWkDirPath( dir.toURI() );
+        partition.addIndex( ouIndex );
+
+        partition.setSuffixDn( SUFFIX_DN );
+        partition.setCacheService( cacheService );
+        partition.initialize();
+
+        return partition;
+    }
+
+
+    /**
+     * Adds, modifies, renames, moves and deletes some entries. The last change is
+     * the deletion.
+     */
+    private void writeChanges() throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager, RYAN_DN,
+            "objectClass: top",
+            "objectClass: person",
+            "objectClass: organizationalPerson",
+            "ou: Sales",
+            "ou: Marketing",
+            "cn: Private Ryan",
+            "sn: Ryan",
+            "entryCSN", new CsnFactory( 1 ).newInstance().toString(),
+            "entryUUID", UUID.randomUUID().toString() );
+        store.add( new AddOperationContext( null, entry ) );
+
+        Attribute ou = new DefaultAttribute( OU_AT, "Purchasing" );
+        ModifyOperationContext modifyContext = new ModifyOperationContext( null );
+        modifyContext.setDn( BEAN_DN );
+        modifyContext.setModItems( Collections.<Modification> singletonList(
+            new DefaultModification( ModificationOperation.ADD_ATTRIBUTE, ou ) ) );
+        store.modify( modifyContext );
+
+        // The new DN is computed by the OperationManager
+        RenameOperationContext renameContext = new RenameOperationContext( null, ENGINEERING_DN,
+            new Rdn( schemaManager, "ou=Research" ), true );
+        renameContext.setNewDn( RESEARCH_DN );
+        store.rename( renameContext );
+
+        store.move( new MoveOperationContext( null, WALKER_DN, BOARD_DN ) );
+
+        DeleteOperationContext deleteContext = new DeleteOperationContext( null );
+        deleteContext.setDn( DANIELS_DN );
+        store.delete( deleteContext );
+    }
+
+
+    /**
+     * Copies the partition files as they are on disk : the changes which are not
+     * checkpointed are only in the log.
+     */
+    private void crash() throws Exception
+    {
+        crashDir.mkdirs();
+
+        for ( File file : wkdir.listFiles() )
+        {
+            copy( file, new File( crashDir, file.getName() ) );
+        }
+    }
+
+
+    private void copy( File source, File target ) throws Exception
+    {
+        Files.copy( source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING );
+    }
+
+
+    private File walFile( File dir )
+    {
+        return new File( dir, "master.wal" );
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private void assertChangesApplied( boolean deleted ) throws Exception
+    {
+        Index<String, String> ouIndex = ( Index<String, String> ) recovered.getUserIndex( OU_AT );
+
+        // The added entry
+        String ryanId = recovered.getEntryId( RYAN_DN );
+        assertNotNull( ryanId );
+        assertEquals( "Private Ryan", recovered.fetch( ryanId ).get( "cn" ).getString() );
+        assertTrue( ouIndex.forward( "marketing", ryanId ) );
+        assertTrue( ouIndex.forward( "sales", ryanId ) );
+
+        // The modified entry
+        String beanId = recovered.getEntryId( BEAN_DN );
+        assertEquals( 2, recovered.fetch( beanId ).get( OU_AT ).size() );
+        assertTrue( ouIndex.forward( "purchasing", beanId ) );
+
+        // The renamed entry, and its children
+        assertNull( recovered.getEntryId( ENGINEERING_DN ) );
+        String researchId = recovered.getEntryId( RESEARCH_DN );
+        assertNotNull( researchId );
+        Attribute ou = recovered.fetch( researchId ).get( OU_AT );
+        assertEquals( 1, ou.size() );
+        assertTrue( ou.contains( "Research" ) );
+        assertTrue( ouIndex.forward( "research", researchId ) );
+        assertFalse( ouIndex.forward( "engineering", researchId ) );
+
+        // The moved entry
+        assertNull( recovered.getEntryId( WALKER_DN ) );
+        String walkerId = recovered.getEntryId( MOVED_WALKER_DN );
+        assertNotNull( walkerId );
+        assertEquals( MOVED_WALKER_DN, recovered.fetch( walkerId ).getDn() );
+        assertEquals( recovered.getEntryId( BOARD_DN ), recovered.getParentId( walkerId ) );
+
+        // The deleted entry
+        if ( deleted )
+        {
+            assertNull( recovered.getEntryId( DANIELS_DN ) );
+            assertNull( recovered.fetch( danielsId ) );
+            assertFalse( ouIndex.reverse( danielsId ) );
+            assertEquals( initialCount, recovered.count() );
+        }
+        else
+        {
+            assertEquals( danielsId, recovered.getEntryId( DANIELS_DN ) );
+            assertEquals( DANIELS_DN, recovered.fetch( danielsId ).getDn() );
+            assertTrue( ouIndex.forward( "engineering", danielsId ) );
+            assertEquals( initialCount + 1, recovered.count() );
+        }
+    }
+
+
+    @Test
+    public void testRecoverFromTheLog() throws Exception
+    {
+        writeChanges();
+        crash();
+
+        // Nothing has been checkpointed
+        assertTrue( walFile( crashDir ).length() > 0 );
+
+        recovered = createPartition( crashDir );
+
+        assertChangesApplied( true );
+
+        // The replayed changes have been checkpointed
+        assertEquals( 0L, walFile( crashDir ).length() );
+        assertFalse( new File( crashDir, "checkpoint.pending" ).exists() );
+    }
+
+
+    @Test
+    public void testReplayOverCheckpointedChanges() throws Exception
+    {
+        writeChanges();
+
+        // Keep the log, then write the changes in the B-trees
+        File wal = new File( wkdir.getParentFile(), getClass().getSimpleName() + ".wal" );
+        copy( walFile( wkdir ), wal );
+        store.sync();
+        assertEquals( 0L, walFile( wkdir ).length() );
+
+        crash();
+        copy( wal, walFile( crashDir ) );
+        wal.delete();
+
+        // All the logged changes are already in the master table and the indexes
+        recovered = createPartition( crashDir );
+
+        assertChangesApplied( true );
+    }
+
+
+    @Test
+    public void testTruncatedTail() throws Exception
+    {
+        writeChanges();
+        crash();
+
+        // The last change has only been partially written
+        RandomAccessFile raf = new RandomAccessFile( walFile( crashDir ), "rw" );
+        raf.setLength( raf.length() - 5 );
+        raf.close();
+
+        recovered = createPartition( crashDir );
+
+        // The deletion is lost, the previous changes are recovered
+        assertChangesApplied( false );
+    }
+
+
+    @Test
+    public void testInterruptedCheckpoint() throws Exception
+    {
+        writeChanges();
+        crash();
+
+        // The server stopped while writing the B-trees
+        assertTrue( new File( crashDir, "checkpoint.pending" ).createNewFile() );
+
+        recovered = createPartition( crashDir );
+
+        // The indexes are rebuilt before the log is replayed
+        assertChangesApplied( true );
+        assertFalse( new File( crashDir, "checkpoint.pending" ).exists() );
+    }
+}
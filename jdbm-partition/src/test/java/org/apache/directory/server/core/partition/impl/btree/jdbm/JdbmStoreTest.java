@@ -31,6 +31,8 @@ import java.io.File;
 import java.util.Iterator;
 import java.util.UUID;
 
+import net.sf.ehcache.Cache;
+
 import org.apache.directory.api.util.FileUtils;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.csn.CsnFactory;
@@ -613,6 +615,35 @@ public class JdbmStoreTest
     }
 
 
+    @Test
+    public void testRenameInvalidatesOnlyTheSubtreeDns() throws Exception
+    {
+        Dn engineeringDn = new Dn( schemaManager, "ou=Engineering,o=Good Times Co." );
+        String engineeringId = store.getEntryId( engineeringDn );
+        String jackId = store.getEntryId( new Dn( schemaManager, "cn=Jack Daniels,ou=Engineering,o=Good Times Co." ) );
+        String salesId = store.getEntryId( new Dn( schemaManager, "ou=Sales,o=Good Times Co." ) );
+
+        // Fetching the entries caches their DNs
+        store.fetch( engineeringId );
+        store.fetch( jackId );
+        store.fetch( salesId );
+
+        Cache entryDnCache = cacheService.getCache( "entryDn" );
+        assertNotNull( entryDnCache.get( jackId ) );
+        assertNotNull( entryDnCache.get( salesId ) );
+
+        store.rename( engineeringDn, new Rdn( "ou=Research" ), false, null );
+
+        // The renamed entry and its descendants are removed from the cache, the other DNs are kept
+        assertNull( entryDnCache.get( engineeringId ) );
+        assertNull( entryDnCache.get( jackId ) );
+        assertNotNull( entryDnCache.get( salesId ) );
+
+        assertEquals( new Dn( schemaManager, "cn=Jack Daniels,ou=Research,o=Good Times Co." ),
+            store.fetch( jackId ).getDn() );
+    }
+
+
     @Test
     public void testRenameEscaped() throws Exception
     {
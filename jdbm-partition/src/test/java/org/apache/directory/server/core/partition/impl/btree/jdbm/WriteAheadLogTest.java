@@ -0,0 +1,281 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.directory.api.util.Strings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the WriteAheadLog : the framing of the records, the handling of a damaged
+ * end of log, and the group commit.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class WriteAheadLogTest
+{
+    /** The size of a record header : the length and the CRC */
+    private static final int HEADER_SIZE = 4 + 8;
+
+    private File file;
+    private WriteAheadLog log;
+
+
+    @Before
+    public void createLog() throws Exception
+    {
+        file = File.createTempFile( getClass().getSimpleName(), ".wal" );
+        file.delete();
+        log = new WriteAheadLog( file );
+        assertTrue( log.open().isEmpty() );
+    }
+
+
+    @After
+    public void deleteLog() throws Exception
+    {
+        log.close();
+        file.delete();
+    }
+
+
+    private List<String> reopen() throws Exception
+    {
+        log.close();
+        log = new WriteAheadLog( file );
+
+        return log.open();
+    }
+
+
+    private static long recordSize( String record )
+    {
+        return HEADER_SIZE + Strings.getBytesUtf8( record ).length;
+    }
+
+
+    @Test
+    public void testAppendAndReopen() throws Exception
+    {
+        assertEquals( 1L, log.append( "dn: ou=first\nchangetype: delete\n" ) );
+        assertEquals( 2L, log.append( "dn: ou=second\nchangetype: delete\n" ) );
+        assertEquals( 3L, log.append( "dn: ou=déjà\nchangetype: delete\n" ) );
+
+        long size = log.size();
+        assertEquals( size, file.length() );
+
+        List<String> records = reopen();
+
+        assertEquals( 3, records.size() );
+        assertEquals( "dn: ou=first\nchangetype: delete\n", records.get( 0 ) );
+        assertEquals( "dn: ou=second\nchangetype: delete\n", records.get( 1 ) );
+        assertEquals( "dn: ou=déjà\nchangetype: delete\n", records.get( 2 ) );
+        assertEquals( size, log.size() );
+    }
+
+
+    @Test
+    public void testTornTrailingRecord() throws Exception
+    {
+        log.append( "first" );
+        log.append( "second" );
+        log.append( "third" );
+        log.close();
+
+        // The last record has only been partially written
+        RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        raf.setLength( raf.length() - 3 );
+        raf.close();
+
+        List<String> records = reopen();
+
+        assertEquals( 2, records.size() );
+        assertEquals( "second", records.get( 1 ) );
+
+        // The partial record has been removed, the next ones follow the valid records
+        long validSize = recordSize( "first" ) + recordSize( "second" );
+        assertEquals( validSize, file.length() );
+        assertEquals( validSize, log.size() );
+
+        log.append( "fourth" );
+        records = reopen();
+
+        assertEquals( 3, records.size() );
+        assertEquals( "fourth", records.get( 2 ) );
+    }
+
+
+    @Test
+    public void testTornHeader() throws Exception
+    {
+        log.append( "first" );
+        log.close();
+
+        // Only a part of the next header has been written
+        RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        raf.seek( raf.length() );
+        raf.writeInt( 5 );
+        raf.close();
+
+        List<String> records = reopen();
+
+        assertEquals( 1, records.size() );
+        assertEquals( recordSize( "first" ), file.length() );
+    }
+
+
+    @Test
+    public void testCorruptedRecord() throws Exception
+    {
+        log.append( "first" );
+        log.append( "second" );
+        log.append( "third" );
+        log.close();
+
+        // Damage the content of the second record : the CRC does not match anymore
+        RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        raf.seek( recordSize( "first" ) + HEADER_SIZE );
+        raf.write( 'S' );
+        raf.close();
+
+        List<String> records = reopen();
+
+        // The log ends with the last valid record
+        assertEquals( Collections.singletonList( "first" ), records );
+        assertEquals( recordSize( "first" ), file.length() );
+    }
+
+
+    @Test
+    public void testInvalidLength() throws Exception
+    {
+        log.append( "first" );
+        log.close();
+
+        RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        raf.seek( raf.length() );
+        raf.writeInt( -1 );
+        raf.writeLong( 0L );
+        raf.close();
+
+        assertEquals( Collections.singletonList( "first" ), reopen() );
+    }
+
+
+    @Test
+    public void testTruncate() throws Exception
+    {
+        long seq = log.append( "first" );
+        log.truncate();
+
+        assertEquals( 0L, log.size() );
+        assertEquals( 0L, file.length() );
+
+        // The records appended before the truncation don't have to be flushed anymore
+        log.awaitDurable( seq );
+
+        log.append( "second" );
+
+        assertEquals( Collections.singletonList( "second" ), reopen() );
+    }
+
+
+    @Test
+    public void testGroupCommit() throws Exception
+    {
+        final int nbThreads = 8;
+        final int nbRecords = 50;
+        ExecutorService executor = Executors.newFixedThreadPool( nbThreads );
+
+        try
+        {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+            for ( int i = 0; i < nbThreads; i++ )
+            {
+                final int thread = i;
+
+                futures.add( executor.submit( new Callable<Void>()
+                {
+                    public Void call() throws Exception
+                    {
+                        for ( int j = 0; j < nbRecords; j++ )
+                        {
+                            long seq = log.append( thread + "-" + j );
+                            log.awaitDurable( seq );
+                        }
+
+                        return null;
+                    }
+                } ) );
+            }
+
+            // Each thread gets back once its records are flushed, whoever flushed them
+            for ( Future<Void> future : futures )
+            {
+                future.get();
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        // A record already flushed is not waited for
+        log.awaitDurable( nbThreads * nbRecords );
+
+        List<String> records = reopen();
+
+        assertEquals( nbThreads * nbRecords, records.size() );
+
+        // The records of a thread are in the order it appended them
+        for ( int i = 0; i < nbThreads; i++ )
+        {
+            int expected = 0;
+
+            for ( String record : records )
+            {
+                if ( record.startsWith( i + "-" ) )
+                {
+                    assertEquals( i + "-" + expected, record );
+                    expected++;
+                }
+            }
+
+            assertEquals( nbRecords, expected );
+        }
+    }
+}
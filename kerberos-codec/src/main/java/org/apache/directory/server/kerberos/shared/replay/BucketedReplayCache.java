@@ -0,0 +1,412 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.kerberos.shared.replay;
+
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.security.auth.kerberos.KerberosPrincipal;
+
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.shared.kerberos.KerberosTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A {@link ReplayCache} which doesn't serialize the requests. Each authenticator is
+ * stored as a 64 bits hash of the server name, client name, client time and microseconds,
+ * in a bucket covering a clock skew long time slot. The authenticators which are outside
+ * the clock skew are rejected anyway, so a whole bucket is dropped as soon as its time
+ * slot is outside the clock skew, without looking at its content.
+ * <br>
+ * The cache can be backed by a memory mapped file, so that it survives a restart. The file
+ * is a ring of (bucket, hash) slots : it must be large enough to hold all the authenticators
+ * received during twice the clock skew, otherwise the oldest ones are lost on restart.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class BucketedReplayCache implements ReplayCache, Closeable
+{
+    private static final Logger LOG = LoggerFactory.getLogger( BucketedReplayCache.class );
+
+    /** default clock skew */
+    private static final long DEFAULT_CLOCK_SKEW = 5 * KerberosTime.MINUTE;
+
+    /** The default number of slots in the persistence file */
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+
+    /** The persistence file header : a magic number and the next slot to write */
+    private static final int HEADER_SIZE = 16;
+
+    /** The persistence file magic number */
+    private static final long MAGIC = 0x4B52425245504C59L;
+
+    /** A slot contains the bucket and the hash of an authenticator */
+    private static final int SLOT_SIZE = 16;
+
+    /** The clock skew, which is also the time slot covered by a bucket */
+    private final long clockSkew;
+
+    /** The hashes of the authenticators, by bucket */
+    private final ConcurrentMap<Long, Set<Long>> buckets = new ConcurrentHashMap<Long, Set<Long>>();
+
+    /** The oldest bucket which may still contain some valid authenticators */
+    private volatile long oldestBucket = Long.MIN_VALUE;
+
+    /** The persistence file, null if the cache is only kept in memory */
+    private RandomAccessFile file;
+
+    /** The mapped persistence file */
+    private MappedByteBuffer mappedFile;
+
+    /** The number of slots in the persistence file */
+    private int capacity;
+
+    /** The number of slots written so far */
+    private final AtomicLong writeCount = new AtomicLong();
+
+
+    /**
+     * Creates a new instance of BucketedReplayCache, kept in memory, with the default clock skew.
+     */
+    public BucketedReplayCache()
+    {
+        this( DEFAULT_CLOCK_SKEW );
+    }
+
+
+    /**
+     * Creates a new instance of BucketedReplayCache, kept in memory.
+     *
+     * @param clockSkew the allowed skew (milliseconds)
+     */
+    public BucketedReplayCache( long clockSkew )
+    {
+        this.clockSkew = clockSkew > 0 ? clockSkew : DEFAULT_CLOCK_SKEW;
+    }
+
+
+    /**
+     * Creates a new instance of BucketedReplayCache, backed by a memory mapped file. The
+     * authenticators already stored in the file and still in the clock skew are loaded.
+     *
+     * @param clockSkew the allowed skew (milliseconds)
+     * @param persistenceFile The file storing the authenticators
+     * @param capacity The number of authenticators the file can contain
+     * @throws IOException If the file can't be mapped
+     */
+    public BucketedReplayCache( long clockSkew, File persistenceFile, int capacity ) throws IOException
+    {
+        this( clockSkew );
+
+        this.capacity = capacity > 0 ? capacity : DEFAULT_CAPACITY;
+        long size = HEADER_SIZE + ( long ) this.capacity * SLOT_SIZE;
+
+        file = new RandomAccessFile( persistenceFile, "rw" );
+        boolean reset = file.length() != size;
+
+        if ( reset )
+        {
+            file.setLength( 0 );
+            file.setLength( size );
+        }
+
+        mappedFile = file.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, size );
+
+        if ( reset || ( mappedFile.getLong( 0 ) != MAGIC ) )
+        {
+            mappedFile.putLong( 0, MAGIC );
+            mappedFile.putLong( 8, 0L );
+        }
+        else
+        {
+            load();
+        }
+    }
+
+
+    /**
+     * Reads the authenticators still in the clock skew from the persistence file
+     */
+    private void load()
+    {
+        writeCount.set( mappedFile.getLong( 8 ) );
+        long firstBucket = getBucket( currentTimeMillis() - clockSkew );
+        int loaded = 0;
+
+        for ( int slot = 0; slot < capacity; slot++ )
+        {
+            int position = HEADER_SIZE + slot * SLOT_SIZE;
+            long bucket = mappedFile.getLong( position );
+
+            if ( ( bucket != 0L ) && ( bucket >= firstBucket ) )
+            {
+                getBucketHashes( bucket ).add( mappedFile.getLong( position + 8 ) );
+                loaded++;
+            }
+        }
+
+        LOG.debug( "Loaded {} authenticators in the replay cache", loaded );
+    }
+
+
+    /**
+     * @return The current time, in milliseconds. Overridden by the tests to control the clock
+     */
+    long currentTimeMillis()
+    {
+        return System.currentTimeMillis();
+    }
+
+
+    /**
+     * @return The index of the bucket containing a given time
+     */
+    private long getBucket( long time )
+    {
+        long bucket = time / clockSkew;
+
+        // Round towards the negative infinity
+        if ( ( time < 0 ) && ( bucket * clockSkew != time ) )
+        {
+            bucket--;
+        }
+
+        return bucket;
+    }
+
+
+    /**
+     * @return The hashes of a bucket, created if it does not exist
+     */
+    private Set<Long> getBucketHashes( long bucket )
+    {
+        Set<Long> hashes = buckets.get( bucket );
+
+        if ( hashes == null )
+        {
+            hashes = Collections.newSetFromMap( new ConcurrentHashMap<Long, Boolean>() );
+            Set<Long> existing = buckets.putIfAbsent( bucket, hashes );
+
+            if ( existing != null )
+            {
+                hashes = existing;
+            }
+        }
+
+        return hashes;
+    }
+
+
+    /**
+     * Drops the buckets which are outside the clock skew.
+     *
+     * @param now The current time
+     * @return The oldest bucket which may contain valid authenticators
+     */
+    private long expire( long now )
+    {
+        long firstBucket = getBucket( now - clockSkew );
+
+        if ( firstBucket > oldestBucket )
+        {
+            oldestBucket = firstBucket;
+
+            for ( Iterator<Long> it = buckets.keySet().iterator(); it.hasNext(); )
+            {
+                if ( it.next() < firstBucket )
+                {
+                    it.remove();
+                }
+            }
+        }
+
+        return firstBucket;
+    }
+
+
+    /**
+     * Computes a 64 bits hash of an authenticator
+     */
+    private static long hash( KerberosPrincipal serverPrincipal, KerberosPrincipal clientPrincipal,
+        KerberosTime clientTime, int clientMicroSeconds )
+    {
+        // FNV-1a on the names, followed by a final mix of all the fields
+        long h = 0xcbf29ce484222325L;
+        h = hash( h, ( serverPrincipal == null ) ? null : serverPrincipal.getName() );
+        h = hash( h, ( clientPrincipal == null ) ? null : clientPrincipal.getName() );
+        h = mix( h ^ clientTime.getTime() );
+        h = mix( h ^ clientMicroSeconds );
+
+        return h;
+    }
+
+
+    private static long hash( long h, String name )
+    {
+        if ( name != null )
+        {
+            for ( byte b : Strings.getBytesUtf8( name ) )
+            {
+                h ^= ( b & 0xFF );
+                h *= 0x100000001b3L;
+            }
+        }
+
+        // Separate the names
+        h ^= 0xFF;
+        h *= 0x100000001b3L;
+
+        return h;
+    }
+
+
+    private static long mix( long h )
+    {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+
+        return h;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isReplay( KerberosPrincipal serverPrincipal, KerberosPrincipal clientPrincipal,
+        KerberosTime clientTime, int clientMicroSeconds )
+    {
+        long firstBucket = expire( currentTimeMillis() );
+        long bucket = getBucket( clientTime.getTime() );
+
+        if ( bucket < firstBucket )
+        {
+            // Outside the clock skew : will be rejected by the caller
+            return false;
+        }
+
+        Set<Long> hashes = buckets.get( bucket );
+
+        return ( hashes != null )
+            && hashes.contains( hash( serverPrincipal, clientPrincipal, clientTime, clientMicroSeconds ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void save( KerberosPrincipal serverPrincipal, KerberosPrincipal clientPrincipal,
+        KerberosTime clientTime, int clientMicroSeconds )
+    {
+        long now = currentTimeMillis();
+        long firstBucket = expire( now );
+        long bucket = getBucket( clientTime.getTime() );
+
+        if ( ( bucket < firstBucket ) || ( bucket > getBucket( now + clockSkew ) ) )
+        {
+            // Outside the clock skew : will be rejected by the caller
+            return;
+        }
+
+        long hash = hash( serverPrincipal, clientPrincipal, clientTime, clientMicroSeconds );
+
+        MappedByteBuffer buffer = mappedFile;
+
+        if ( getBucketHashes( bucket ).add( hash ) && ( buffer != null ) )
+        {
+            long count = writeCount.getAndIncrement();
+            int position = HEADER_SIZE + ( int ) ( count % capacity ) * SLOT_SIZE;
+
+            // Write the hash first, so that a partially written slot is ignored
+            buffer.putLong( position, 0L );
+            buffer.putLong( position + 8, hash );
+            buffer.putLong( position, bucket );
+            buffer.putLong( 8, count + 1 );
+        }
+    }
+
+
+    /**
+     * @return The number of authenticators in the cache
+     */
+    public int size()
+    {
+        int size = 0;
+
+        for ( Set<Long> hashes : buckets.values() )
+        {
+            size += hashes.size();
+        }
+
+        return size;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void clear()
+    {
+        LOG.debug( "removing all the elements from cache" );
+        buckets.clear();
+
+        if ( mappedFile != null )
+        {
+            for ( int slot = 0; slot < capacity; slot++ )
+            {
+                mappedFile.putLong( HEADER_SIZE + slot * SLOT_SIZE, 0L );
+            }
+
+            writeCount.set( 0L );
+            mappedFile.putLong( 8, 0L );
+        }
+    }
+
+
+    /**
+     * Writes the persistence file on disk, and closes it. The cache content is kept, so
+     * that it will be loaded again on restart.
+     */
+    public void close() throws IOException
+    {
+        if ( file != null )
+        {
+            mappedFile.force();
+            file.close();
+            file = null;
+            mappedFile = null;
+        }
+    }
+}
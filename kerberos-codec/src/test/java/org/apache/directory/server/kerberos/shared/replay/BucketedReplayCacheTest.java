@@ -0,0 +1,128 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.kerberos.shared.replay;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.security.auth.kerberos.KerberosPrincipal;
+
+import org.apache.directory.shared.kerberos.KerberosTime;
+import org.apache.directory.shared.kerberos.codec.types.PrincipalNameType;
+import org.junit.Test;
+
+
+/**
+ * Test the bucketed replay cache
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class BucketedReplayCacheTest
+{
+    private static final KerberosPrincipal SERVER = new KerberosPrincipal( "server@APACHE.ORG",
+        PrincipalNameType.KRB_NT_PRINCIPAL.getValue() );
+
+    private static final KerberosPrincipal CLIENT = new KerberosPrincipal( "client@APACHE.ORG",
+        PrincipalNameType.KRB_NT_PRINCIPAL.getValue() );
+
+
+    @Test
+    public void testReplay()
+    {
+        BucketedReplayCache cache = new BucketedReplayCache( 1000L );
+        KerberosTime now = new KerberosTime( System.currentTimeMillis() );
+
+        assertFalse( cache.isReplay( SERVER, CLIENT, now, 0 ) );
+
+        cache.save( SERVER, CLIENT, now, 0 );
+
+        assertTrue( cache.isReplay( SERVER, CLIENT, now, 0 ) );
+        assertFalse( cache.isReplay( SERVER, CLIENT, now, 1 ) );
+        assertFalse( cache.isReplay( CLIENT, SERVER, now, 0 ) );
+        assertEquals( 1, cache.size() );
+
+        cache.clear();
+
+        assertFalse( cache.isReplay( SERVER, CLIENT, now, 0 ) );
+    }
+
+
+    @Test
+    public void testExpiration() throws Exception
+    {
+        final AtomicLong clock = new AtomicLong( 1000000L );
+
+        // The clock only moves when the test says so
+        BucketedReplayCache cache = new BucketedReplayCache( 100L )
+        {
+            long currentTimeMillis()
+            {
+                return clock.get();
+            }
+        };
+
+        KerberosTime now = new KerberosTime( clock.get() );
+
+        cache.save( SERVER, CLIENT, now, 0 );
+
+        // Authenticators outside the clock skew are not stored
+        cache.save( SERVER, CLIENT, new KerberosTime( clock.get() - 1000L ), 0 );
+        assertEquals( 1, cache.size() );
+
+        // Still in the clock skew
+        clock.addAndGet( 50L );
+        assertTrue( cache.isReplay( SERVER, CLIENT, now, 0 ) );
+
+        clock.addAndGet( 250L );
+
+        assertFalse( cache.isReplay( SERVER, CLIENT, now, 0 ) );
+        assertEquals( 0, cache.size() );
+    }
+
+
+    @Test
+    public void testPersistence() throws Exception
+    {
+        File file = File.createTempFile( "replayCache", ".db" );
+        file.deleteOnExit();
+        KerberosTime now = new KerberosTime( System.currentTimeMillis() );
+
+        BucketedReplayCache cache = new BucketedReplayCache( 60000L, file, 16 );
+        cache.save( SERVER, CLIENT, now, 0 );
+        cache.close();
+
+        cache = new BucketedReplayCache( 60000L, file, 16 );
+
+        try
+        {
+            assertTrue( cache.isReplay( SERVER, CLIENT, now, 0 ) );
+            assertFalse( cache.isReplay( SERVER, CLIENT, now, 1 ) );
+        }
+        finally
+        {
+            cache.close();
+        }
+    }
+}
@@ -24,8 +24,12 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
@@ -98,6 +102,12 @@ public class LdifPartition extends AbstractLdifPartition
     private static final boolean CREATE = Boolean.TRUE;
     private static final boolean DELETE = Boolean.FALSE;
 
+    /** The number of written files triggering a flush on disk, 0 to let the system flush them */
+    private int syncBatchSize = 0;
+
+    /** The files written since the last flush on disk */
+    private final Set<File> unsyncedFiles = new LinkedHashSet<File>();
+
     /** A filter used to pick all the directories */
     private FileFilter dirFilter = new FileFilter()
     {
@@ -324,9 +334,12 @@ public class LdifPartition extends AbstractLdifPartition
         // And write it back on disk
         try
         {
-            FileWriter fw = new FileWriter( getFile( dn, DELETE ) );
+            File file = getFile( dn, DELETE );
+            FileWriter fw = new FileWriter( file );
             fw.write( LdifUtils.convertToLdif( modifiedEntry, true ) );
             fw.close();
+
+            written( file );
         }
         catch ( IOException ioe )
         {
@@ -781,9 +794,12 @@ public class LdifPartition extends AbstractLdifPartition
 
         try
         {
-            FileWriter fw = new FileWriter( getFile( entry.getDn(), CREATE ) );
+            File file = getFile( entry.getDn(), CREATE );
+            FileWriter fw = new FileWriter( file );
             fw.write( LdifUtils.convertToLdif( entry ) );
             fw.close();
+
+            written( file );
         }
         catch ( IOException ioe )
         {
@@ -792,6 +808,119 @@ public class LdifPartition extends AbstractLdifPartition
     }
 
 
+    /**
+     * Records a written file, and flushes the written files on disk once there are
+     * syncBatchSize of them.
+     */
+    private void written( File file ) throws IOException
+    {
+        if ( syncBatchSize <= 0 )
+        {
+            return;
+        }
+
+        boolean flush;
+
+        synchronized ( unsyncedFiles )
+        {
+            unsyncedFiles.add( file );
+            flush = unsyncedFiles.size() >= syncBatchSize;
+        }
+
+        if ( flush )
+        {
+            syncFiles();
+        }
+    }
+
+
+    /**
+     * Flushes on disk the files written since the last flush. The files which have been
+     * deleted since are skipped.
+     */
+    private void syncFiles() throws IOException
+    {
+        List<File> files;
+
+        synchronized ( unsyncedFiles )
+        {
+            if ( unsyncedFiles.isEmpty() )
+            {
+                return;
+            }
+
+            files = new ArrayList<File>( unsyncedFiles );
+            unsyncedFiles.clear();
+        }
+
+        for ( File file : files )
+        {
+            if ( !file.isFile() )
+            {
+                continue;
+            }
+
+            RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+
+            try
+            {
+                raf.getFD().sync();
+            }
+            finally
+            {
+                raf.close();
+            }
+        }
+
+        LOG.debug( "Flushed {} LDIF files on disk", files.size() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void sync() throws Exception
+    {
+        syncFiles();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doDestroy() throws Exception
+    {
+        syncFiles();
+        super.doDestroy();
+    }
+
+
+    /**
+     * @return The number of written files triggering a flush on disk
+     */
+    public int getSyncBatchSize()
+    {
+        return syncBatchSize;
+    }
+
+
+    /**
+     * Sets the number of written files after which they are all flushed on disk. Each
+     * operation rewrites one file per modified entry : flushing them by batches amortizes
+     * the cost of the flushes over several operations, and the files still waiting are
+     * flushed when the partition is synced or destroyed. With 0, the default, the files
+     * are left to the system, as before.
+     *
+     * @param syncBatchSize The number of written files triggering a flush, 1 to flush each file
+     */
+    public void setSyncBatchSize( int syncBatchSize )
+    {
+        this.syncBatchSize = syncBatchSize;
+    }
+
+
     /**
      * Recursively delete an entry and all of its children. If the entry is a directory,
      * then get into it, call the same method on each of the contained files,
@@ -21,28 +21,47 @@
 package org.apache.directory.server.core.partition.ldif;
 
 
+import java.io.DataOutput;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.naming.InvalidNameException;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
 import org.apache.directory.api.ldap.model.exception.LdapOperationException;
+import org.apache.directory.api.ldap.model.ldif.ChangeType;
 import org.apache.directory.api.ldap.model.ldif.LdifEntry;
 import org.apache.directory.api.ldap.model.ldif.LdifReader;
 import org.apache.directory.api.ldap.model.ldif.LdifUtils;
+import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.constants.ApacheSchemaConstants;
 import org.apache.directory.server.core.api.DnFactory;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
@@ -58,6 +77,13 @@ import org.slf4j.LoggerFactory;
 
 /**
  * A Partition implementation backed by a single LDIF file.
+ * <br>
+ * By default, the whole file is rewritten after each change. When the journal is
+ * enabled, the changes are instead appended as LDIF change records to a journal file
+ * stored next to the LDIF file (&lt;file&gt;.journal), and the LDIF file is only
+ * rewritten (compacted) in the background once the journal exceeds the compaction
+ * threshold, and when the partition is destroyed. On startup, the changes found in
+ * the journal are applied to the entries read from the LDIF file.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -75,6 +101,33 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     /** lock for serializing the operations on the backing LDIF file */
     private Object lock = new Object();
 
+    /** The extension of the journal file */
+    private static final String JOURNAL_EXTN = ".journal";
+
+    /** The extension of the file written during a compaction */
+    private static final String COMPACTION_EXTN = ".compact";
+
+    /** The line ending each journal record : a record without it has not been fully written */
+    private static final String COMMIT_LINE = "# commit\n";
+
+    /** The default size of the journal triggering a compaction */
+    public static final long DEFAULT_COMPACTION_THRESHOLD = 1024L * 1024L;
+
+    /** Tells if the changes are appended to a journal instead of rewriting the file */
+    private boolean journalEnabled = false;
+
+    /** The size of the journal, in bytes, triggering a compaction */
+    private long compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+    /** The journal, null if it's disabled or not yet replayed */
+    private RandomAccessFile journal;
+
+    /** The thread compacting the LDIF file */
+    private ExecutorService compactionExecutor;
+
+    /** Set while a compaction is scheduled */
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean( false );
+
     private static final Logger LOG = LoggerFactory.getLogger( SingleFileLdifPartition.class );
 
 
@@ -104,7 +157,8 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
                 throw new IllegalArgumentException( "Partition path must be a LDIF file" );
             }
 
-            ldifFile = new RandomAccessFile( partitionFile, "rws" );
+            // With a journal, the LDIF file is flushed once fully written
+            ldifFile = new RandomAccessFile( partitionFile, journalEnabled ? "rw" : "rws" );
 
             LOG.debug( "id is : {}", getId() );
 
@@ -122,6 +176,11 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
             super.doInit();
 
             loadEntries();
+
+            if ( journalEnabled )
+            {
+                openJournal( new File( partitionFile.getPath() + JOURNAL_EXTN ) );
+            }
         }
     }
 
@@ -198,8 +257,28 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
                 }
             }
 
-            dirty = true;
-            rewritePartitionData();
+            if ( journal != null )
+            {
+                Entry entry = addContext.getEntry();
+                LdifEntry change = new LdifEntry();
+                change.setChangeType( ChangeType.Add );
+                change.setDn( entry.getDn() );
+
+                for ( Attribute attribute : entry )
+                {
+                    if ( isStored( attribute.getAttributeType() ) )
+                    {
+                        change.addAttribute( attribute.clone() );
+                    }
+                }
+
+                log( change );
+            }
+            else
+            {
+                dirty = true;
+                rewritePartitionData();
+            }
         }
     }
 
@@ -227,8 +306,39 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
                 throw new LdapOperationException( e.getMessage(), e );
             }
 
-            dirty = true;
-            rewritePartitionData();
+            if ( journal != null )
+            {
+                // Log the resulting values of the modified attributes, so that the change can be replayed twice
+                Entry modifiedEntry = modifyContext.getAlteredEntry();
+                LdifEntry change = new LdifEntry();
+                change.setChangeType( ChangeType.Modify );
+                change.setDn( modifyContext.getDn() );
+
+                for ( Modification mod : modifyContext.getModItems() )
+                {
+                    AttributeType attributeType = mod.getAttribute().getAttributeType();
+                    Attribute attribute = modifiedEntry.get( attributeType );
+
+                    if ( attribute == null )
+                    {
+                        attribute = new DefaultAttribute( attributeType );
+                    }
+                    else
+                    {
+                        attribute = attribute.clone();
+                    }
+
+                    change.addModification( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+                        attribute ) );
+                }
+
+                log( change );
+            }
+            else
+            {
+                dirty = true;
+                rewritePartitionData();
+            }
         }
     }
 
@@ -241,8 +351,9 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
         synchronized ( lock )
         {
             super.rename( renameContext );
-            dirty = true;
-            rewritePartitionData();
+            Dn oldDn = renameContext.getDn();
+            Dn newDn = oldDn.getParent().add( renameContext.getNewRdn() ).apply( schemaManager );
+            changed( oldDn, newDn, renameContext.getDeleteOldRdn(), false );
         }
     }
 
@@ -255,8 +366,7 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
         synchronized ( lock )
         {
             super.move( moveContext );
-            dirty = true;
-            rewritePartitionData();
+            changed( moveContext.getDn(), moveContext.getNewDn(), false, true );
         }
     }
 
@@ -269,8 +379,7 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
         synchronized ( lock )
         {
             super.moveAndRename( opContext );
-            dirty = true;
-            rewritePartitionData();
+            changed( opContext.getDn(), opContext.getNewDn(), opContext.getDeleteOldRdn(), true );
         }
     }
 
@@ -280,9 +389,35 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     {
         synchronized ( lock )
         {
+            Dn dn = null;
+
+            if ( journal != null )
+            {
+                try
+                {
+                    dn = buildEntryDn( id );
+                }
+                catch ( Exception e )
+                {
+                    throw new LdapOperationException( e.getMessage(), e );
+                }
+            }
+
             Entry deletedEntry = super.delete( id );
-            dirty = true;
-            rewritePartitionData();
+
+            if ( journal != null )
+            {
+                LdifEntry change = new LdifEntry();
+                change.setChangeType( ChangeType.Delete );
+                change.setDn( dn );
+
+                log( change );
+            }
+            else
+            {
+                dirty = true;
+                rewritePartitionData();
+            }
 
             return deletedEntry;
         }
@@ -290,47 +425,393 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
 
 
     /**
-     * writes the partition's data to the file if {@link #enableRewriting} is set to true
-     * and partition was modified since the last write or {@link #dirty} data. 
-     * 
-     * @throws LdapException
+     * Writes a Move, Rename or MoveAndRename operation : it's logged in the journal, followed
+     * by the new content of the entry, as the operation may have modified other attributes
+     * than the RDN ones.
      */
-    private void rewritePartitionData() throws LdapException
+    private void changed( Dn oldDn, Dn newDn, boolean deleteOldRdn, boolean moved ) throws LdapException
     {
-        synchronized ( lock )
+        if ( journal == null )
         {
-            if ( !enableRewriting || !dirty )
+            dirty = true;
+            rewritePartitionData();
+
+            return;
+        }
+
+        LdifEntry change = new LdifEntry();
+        change.setChangeType( ChangeType.ModDn );
+        change.setDn( oldDn );
+        change.setNewRdn( newDn.getRdn().getName() );
+        change.setDeleteOldRdn( deleteOldRdn );
+
+        if ( moved )
+        {
+            change.setNewSuperior( newDn.getParent().getName() );
+        }
+
+        Entry entry = fetch( getEntryId( newDn ) );
+        LdifEntry replaceAll = new LdifEntry();
+        replaceAll.setChangeType( ChangeType.Modify );
+        replaceAll.setDn( newDn );
+
+        for ( Attribute attribute : entry )
+        {
+            if ( isStored( attribute.getAttributeType() ) )
             {
-                return;
+                replaceAll.addModification( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+                    attribute.clone() ) );
             }
+        }
+
+        log( change, replaceAll );
+    }
+
+
+    /**
+     * Tells if an attribute is written in the journal : the parentId and the
+     * entryDn are computed by the partition.
+     */
+    private boolean isStored( AttributeType attributeType )
+    {
+        return !attributeType.getOid().equals( ApacheSchemaConstants.ENTRY_PARENT_ID_OID )
+            && !attributeType.getOid().equals( SchemaConstants.ENTRY_DN_AT_OID );
+    }
+
+
+    //---------------------------------------------------------------------------------------------
+    // Journal
+    //---------------------------------------------------------------------------------------------
+    /**
+     * Opens the journal, and applies the changes it contains. The last record is ignored
+     * if it has not been fully written. The changes done since the last compaction may
+     * already be in the LDIF file if the server has stopped during a compaction : the
+     * replay skips the changes already applied.
+     */
+    private void openJournal( File journalFile ) throws Exception
+    {
+        RandomAccessFile log = new RandomAccessFile( journalFile, "rw" );
+        byte[] data = new byte[( int ) log.length()];
+        log.readFully( data );
+
+        String content = Strings.utf8ToString( data );
+        List<String> records = new ArrayList<String>();
+        int start = 0;
+        int end = content.indexOf( COMMIT_LINE );
+
+        while ( end >= 0 )
+        {
+            records.add( content.substring( start, end ) );
+            start = end + COMMIT_LINE.length();
+            end = content.indexOf( COMMIT_LINE, start );
+        }
+
+        if ( start < content.length() )
+        {
+            LOG.warn( "Ignoring the last incomplete change of the {} partition journal", getId() );
+            log.setLength( Strings.getBytesUtf8( content.substring( 0, start ) ).length );
+        }
+
+        if ( records.size() > 0 )
+        {
+            LOG.info( "Replaying {} changes from the journal of the {} partition", records.size(), getId() );
+            LdifReader reader = new LdifReader();
 
             try
             {
-                ldifFile.setLength( 0 ); // wipe the file clean
+                for ( String record : records )
+                {
+                    for ( LdifEntry change : reader.parseLdif( record ) )
+                    {
+                        replay( change );
+                    }
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+
+        log.seek( log.length() );
+
+        compactionExecutor = Executors.newSingleThreadExecutor( new ThreadFactory()
+        {
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, "LdifCompaction-" + getId() );
+                thread.setDaemon( true );
+
+                return thread;
+            }
+        } );
+
+        // From now on, the changes are logged
+        journal = log;
+    }
+
+
+    /**
+     * Applies a change read from the journal, unless it has already been applied
+     */
+    private void replay( LdifEntry change ) throws Exception
+    {
+        Dn dn = new Dn( schemaManager, change.getDn().getName() );
+        String id = getEntryId( dn );
 
-                String suffixId = getEntryId( suffixDn );
+        if ( change.isChangeAdd() )
+        {
+            if ( id == null )
+            {
+                Entry entry = new DefaultEntry( schemaManager, change.getEntry() );
+                super.add( new AddOperationContext( null, entry ) );
 
-                if ( suffixId == null )
+                if ( ( contextEntry == null ) && dn.equals( suffixDn ) )
                 {
-                    contextEntry = null;
-                    return;
+                    contextEntry = entry;
                 }
+            }
+        }
+        else if ( change.isChangeDelete() )
+        {
+            if ( id != null )
+            {
+                super.delete( id );
+            }
+        }
+        else if ( change.isChangeModify() )
+        {
+            if ( id != null )
+            {
+                List<Modification> mods = new ArrayList<Modification>();
 
-                ParentIdAndRdn suffixEntry = rdnIdx.reverseLookup( suffixId );
+                for ( Modification mod : change.getModifications() )
+                {
+                    mods.add( new DefaultModification( mod.getOperation(), toServerAttribute( mod.getAttribute() ) ) );
+                }
 
-                if ( suffixEntry != null )
+                modify( dn, mods.toArray( new Modification[mods.size()] ) );
+            }
+        }
+        else if ( change.isChangeModDn() || change.isChangeModRdn() )
+        {
+            if ( id != null )
+            {
+                Rdn newRdn = new Rdn( schemaManager, change.getNewRdn() );
+
+                if ( change.getNewSuperior() == null )
+                {
+                    rename( dn, newRdn, change.isDeleteOldRdn(), null );
+                }
+                else
                 {
-                    Entry entry = master.get( suffixId );
+                    Dn newSuperiorDn = new Dn( schemaManager, change.getNewSuperior() );
+
+                    if ( newRdn.equals( dn.getRdn() ) )
+                    {
+                        move( dn, newSuperiorDn, newSuperiorDn.add( newRdn ), null );
+                    }
+                    else
+                    {
+                        moveAndRename( dn, newSuperiorDn, newRdn, null, change.isDeleteOldRdn() );
+                    }
+                }
+            }
+        }
+        else
+        {
+            LOG.warn( "Ignoring the unexpected change {} in the journal", change );
+        }
+    }
+
+
+    /**
+     * Makes an attribute read from the journal schema aware
+     */
+    private Attribute toServerAttribute( Attribute attribute ) throws LdapException
+    {
+        AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( attribute.getUpId() );
+        Attribute serverAttribute = new DefaultAttribute( attributeType );
+        boolean humanReadable = attributeType.getSyntax().isHumanReadable();
+
+        for ( Value<?> value : attribute )
+        {
+            if ( value.isHumanReadable() )
+            {
+                serverAttribute.add( value.getString() );
+            }
+            else if ( humanReadable )
+            {
+                // Base64 encoded in the LDIF
+                serverAttribute.add( Strings.utf8ToString( value.getBytes() ) );
+            }
+            else
+            {
+                serverAttribute.add( value.getBytes() );
+            }
+        }
 
-                    // Don't write the EntryDN attribute
-                    entry.removeAttributes( entryDnAT );
+        return serverAttribute;
+    }
 
-                    entry.setDn( suffixDn );
 
-                    appendLdif( entry );
+    /**
+     * Appends a record to the journal, and flushes it on disk. A compaction is scheduled
+     * if the journal has grown past the compaction threshold.
+     */
+    private void log( LdifEntry... changes ) throws LdapException
+    {
+        try
+        {
+            StringBuilder record = new StringBuilder();
 
-                    appendRecursive( suffixId, suffixEntry.getNbChildren() );
-                }
+            for ( LdifEntry change : changes )
+            {
+                record.append( LdifUtils.convertToLdif( change, 80 ) ).append( '\n' );
+            }
+
+            record.append( COMMIT_LINE );
+
+            // A single write, so that a record is either complete or ignored on startup
+            journal.write( Strings.getBytesUtf8( record.toString() ) );
+            journal.getChannel().force( false );
+
+            if ( ( journal.length() > compactionThreshold ) && compactionScheduled.compareAndSet( false, true ) )
+            {
+                compactionExecutor.execute( new Runnable()
+                {
+                    public void run()
+                    {
+                        compactionScheduled.set( false );
+
+                        try
+                        {
+                            compact();
+                        }
+                        catch ( Exception e )
+                        {
+                            LOG.error( "Failed to compact the {} partition : {}", getId(), e.getMessage() );
+                        }
+                    }
+                } );
+            }
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOperationException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * Writes the whole partition in a new LDIF file, which replaces the current one, and
+     * empties the journal. The journal is only emptied once the new file is on disk.
+     *
+     * @throws Exception If the LDIF file can't be written
+     */
+    public void compact() throws Exception
+    {
+        synchronized ( lock )
+        {
+            if ( ( journal == null ) || ( journal.length() == 0 ) )
+            {
+                return;
+            }
+
+            long start = System.currentTimeMillis();
+            File partitionFile = new File( getPartitionPath() );
+            File compactedFile = new File( partitionFile.getPath() + COMPACTION_EXTN );
+            RandomAccessFile out = new RandomAccessFile( compactedFile, "rw" );
+
+            try
+            {
+                out.setLength( 0 );
+                writePartitionData( out );
+                out.getFD().sync();
+            }
+            finally
+            {
+                out.close();
+            }
+
+            ldifFile.close();
+            Files.move( compactedFile.toPath(), partitionFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE );
+            ldifFile = new RandomAccessFile( partitionFile, "rw" );
+
+            journal.setLength( 0 );
+            journal.getChannel().force( true );
+            dirty = false;
+
+            LOG.debug( "Compacted the {} partition in {} ms", getId(), System.currentTimeMillis() - start );
+        }
+    }
+
+
+    /**
+     * @return true if the changes are appended to a journal
+     */
+    public boolean isJournalEnabled()
+    {
+        return journalEnabled;
+    }
+
+
+    /**
+     * Enables or disables the journal. When it's enabled, each change is appended to
+     * the journal instead of rewriting the whole LDIF file, which is only rewritten
+     * once the journal exceeds the compaction threshold.
+     *
+     * @param journalEnabled true to enable the journal
+     */
+    public void setJournalEnabled( boolean journalEnabled )
+    {
+        checkInitialized( "journalEnabled" );
+        this.journalEnabled = journalEnabled;
+    }
+
+
+    /**
+     * @return The size of the journal triggering a compaction
+     */
+    public long getCompactionThreshold()
+    {
+        return compactionThreshold;
+    }
+
+
+    /**
+     * Sets the size of the journal, in bytes, past which the LDIF file is rewritten
+     * in the background and the journal emptied.
+     *
+     * @param compactionThreshold The size of the journal triggering a compaction
+     */
+    public void setCompactionThreshold( long compactionThreshold )
+    {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+
+    /**
+     * writes the partition's data to the file if {@link #enableRewriting} is set to true
+     * and partition was modified since the last write or {@link #dirty} data. 
+     * 
+     * @throws LdapException
+     */
+    private void rewritePartitionData() throws LdapException
+    {
+        synchronized ( lock )
+        {
+            if ( !enableRewriting || !dirty )
+            {
+                return;
+            }
+
+            try
+            {
+                ldifFile.setLength( 0 ); // wipe the file clean
+
+                writePartitionData( ldifFile );
 
                 dirty = false;
             }
@@ -346,7 +827,40 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     }
 
 
-    private void appendRecursive( String id, int nbSibbling ) throws Exception
+    /**
+     * Writes all the entries of the partition, parents first.
+     *
+     * @param out The file to write to
+     */
+    private void writePartitionData( DataOutput out ) throws Exception
+    {
+        String suffixId = getEntryId( suffixDn );
+
+        if ( suffixId == null )
+        {
+            contextEntry = null;
+            return;
+        }
+
+        ParentIdAndRdn suffixEntry = rdnIdx.reverseLookup( suffixId );
+
+        if ( suffixEntry != null )
+        {
+            Entry entry = master.get( suffixId );
+
+            // Don't write the EntryDN attribute
+            entry.removeAttributes( entryDnAT );
+
+            entry.setDn( suffixDn );
+
+            appendLdif( out, entry );
+
+            appendRecursive( out, suffixId, suffixEntry.getNbChildren() );
+        }
+    }
+
+
+    private void appendRecursive( DataOutput out, String id, int nbSibbling ) throws Exception
     {
         // Start with the root
         Cursor<IndexEntry<ParentIdAndRdn, String>> cursor = rdnIdx.forwardCursor();
@@ -365,7 +879,7 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
             // Remove the EntryDn
             entry.removeAttributes( SchemaConstants.ENTRY_DN_AT );
 
-            appendLdif( entry );
+            appendLdif( out, entry );
 
             countChildren++;
 
@@ -374,7 +888,7 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
 
             if ( nbChildren > 0 )
             {
-                appendRecursive( childId, nbChildren );
+                appendRecursive( out, childId, nbChildren );
             }
         }
 
@@ -385,15 +899,16 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     /**
      * append data to the LDIF file
      *
+     * @param out the file to write to
      * @param entry the entry to be written
      * @throws LdapException
      */
-    private void appendLdif( Entry entry ) throws IOException, LdapException
+    private void appendLdif( DataOutput out, Entry entry ) throws IOException, LdapException
     {
         synchronized ( lock )
         {
             String ldif = LdifUtils.convertToLdif( entry );
-            ldifFile.write( Strings.getBytesUtf8( ldif + "\n" ) );
+            out.write( Strings.getBytesUtf8( ldif + "\n" ) );
         }
     }
 
@@ -459,6 +974,17 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     @Override
     protected void doDestroy() throws Exception
     {
+        if ( journal != null )
+        {
+            compactionExecutor.shutdown();
+            compactionExecutor.awaitTermination( 1, TimeUnit.MINUTES );
+
+            // Write the changes in the LDIF file, so that the journal is empty on restart
+            compact();
+            journal.close();
+            journal = null;
+        }
+
         super.doDestroy();
         ldifFile.close();
     }
@@ -931,6 +931,90 @@ public class SingleFileLdifPartitionTest
     }
 
 
+    @Test
+    public void testJournal() throws Exception
+    {
+        SingleFileLdifPartition partition = createJournaledPartition();
+
+        AddOperationContext addCtx = new AddOperationContext( mockSession );
+        addCtx.setEntry( contextEntry );
+        partition.add( addCtx );
+
+        Entry entry1 = createEntry( "cn=test,ou=test,ou=system" );
+        entry1.put( "ObjectClass", "top", "person" );
+        entry1.put( "cn", "test" );
+        entry1.put( "sn", "test" );
+        addCtx.setEntry( entry1 );
+        partition.add( addCtx );
+
+        Entry entry2 = createEntry( "cn=test2,ou=test,ou=system" );
+        entry2.put( "ObjectClass", "top", "person" );
+        entry2.put( "cn", "test2" );
+        entry2.put( "sn", "test2" );
+        addCtx.setEntry( entry2 );
+        partition.add( addCtx );
+
+        ModifyOperationContext modOpCtx = new ModifyOperationContext( mockSession );
+        modOpCtx.setEntry( entry1 );
+        List<Modification> modItems = new ArrayList<Modification>();
+        Attribute attribute = new DefaultAttribute( schemaManager.lookupAttributeTypeRegistry( "description" ) );
+        attribute.add( "this is description" );
+        modItems.add( new DefaultModification( ModificationOperation.ADD_ATTRIBUTE, attribute ) );
+        modOpCtx.setModItems( modItems );
+        modOpCtx.setDn( entry1.getDn() );
+        partition.modify( modOpCtx );
+
+        // The rename updates the added entry
+        Dn entry1Dn = entry1.getDn();
+        Rdn newRdn = new Rdn( SchemaConstants.CN_AT + "=" + "renamed" );
+        partition.rename( new RenameOperationContext( mockSession, entry1Dn, newRdn, true ) );
+
+        DeleteOperationContext delOpCtx = new DeleteOperationContext( mockSession );
+        delOpCtx.setDn( entry2.getDn() );
+        partition.delete( delOpCtx );
+
+        // The changes are only in the journal
+        File journalFile = new File( ldifFileInUse.getAbsolutePath() + ".journal" );
+        assertEquals( 0L, ldifFileInUse.length() );
+        assertTrue( journalFile.length() > 0 );
+
+        // Reload the partition without destroying it : the journal is replayed
+        partition = createJournaledPartition();
+
+        Dn renamedDn = new Dn( schemaManager, "cn=renamed,ou=test,ou=system" );
+        Entry renamed = partition.lookup( new LookupOperationContext( mockSession, renamedDn ) );
+        assertNotNull( renamed );
+        assertFalse( renamed.get( "cn" ).contains( "test" ) );
+        assertTrue( renamed.get( "description" ).contains( "this is description" ) );
+        assertNull( partition.lookup( new LookupOperationContext( mockSession, entry1Dn ) ) );
+        assertNotExists( partition, entry2 );
+
+        // Destroying the partition compacts the LDIF file
+        partition.destroy();
+        assertEquals( 0L, journalFile.length() );
+
+        partition = reloadPartition();
+        assertExists( partition, contextEntry );
+        assertExists( partition, "cn=renamed,ou=test,ou=system" );
+        assertNotExists( partition, entry2 );
+    }
+
+
+    private SingleFileLdifPartition createJournaledPartition() throws Exception
+    {
+        SingleFileLdifPartition partition = new SingleFileLdifPartition( schemaManager, dnFactory );
+        partition.setId( "test-ldif" );
+        partition.setPartitionPath( ldifFileInUse.toURI() );
+        partition.setSuffixDn( new Dn( "ou=test,ou=system" ) );
+        partition.setSchemaManager( schemaManager );
+        partition.setCacheService( cacheService );
+        partition.setJournalEnabled( true );
+        partition.initialize();
+
+        return partition;
+    }
+
+
     /**
      * An important test to check the stability of the partition
      * under high concurrency
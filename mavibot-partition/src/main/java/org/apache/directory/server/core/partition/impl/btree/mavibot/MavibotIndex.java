@@ -132,6 +132,7 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
         try
         {
             initTables( schemaManager );
+            loadStatistics( getStatisticsFile() );
         }
         catch ( IOException e )
         {
@@ -139,6 +140,11 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
             close();
             throw e;
         }
+        catch ( Exception e )
+        {
+            close();
+            throw new IOException( e );
+        }
 
         initialized = true;
     }
@@ -330,8 +336,11 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
      */
     public synchronized void add( K attrVal, String id ) throws Exception
     {
-        // The pair to be removed must exists
+        long count = forward.count();
+
+        // The pair to be added must exists
         forward.put( attrVal, id );
+        updateStatistics( forward, attrVal, count );
 
         if ( withReverse )
         {
@@ -348,7 +357,9 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
         // The pair to be removed must exists
         if ( forward.has( attrVal, id ) )
         {
+            long count = forward.count();
             forward.remove( attrVal, id );
+            updateStatistics( forward, attrVal, count );
 
             if ( withReverse )
             {
@@ -374,7 +385,10 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
                 while ( values.next() )
                 {
                     // Remove the Key -> entryId from the index
-                    forward.remove( values.get().getValue(), entryId );
+                    K key = values.get().getValue();
+                    long count = forward.count();
+                    forward.remove( key, entryId );
+                    updateStatistics( forward, key, count );
                 }
 
                 values.close();
@@ -383,7 +397,9 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
             {
                 K key = reverse.get( entryId );
 
+                long count = forward.count();
                 forward.remove( key );
+                updateStatistics( forward, key, count );
             }
 
             // Remove the id -> key from the reverse index
@@ -505,11 +521,25 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
     // ------------------------------------------------------------------------
     // Maintenance Methods
     // ------------------------------------------------------------------------
+    /**
+     * @return The file where the index statistics are saved when the index is synced or closed
+     */
+    private File getStatisticsFile()
+    {
+        return new File( wkDirPath, attributeType.getOid() + STATISTICS_EXTENSION );
+    }
+
+
     /**
      * @see org.apache.directory.server.xdbm.Index#close()
      */
     public synchronized void close() throws IOException
     {
+        if ( initialized )
+        {
+            saveStatistics( getStatisticsFile() );
+        }
+
         try
         {
             if ( forward != null )
@@ -539,6 +569,8 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
         {
             reverse.getBTree().flush();
         }
+
+        saveStatistics( getStatisticsFile() );
     }
 
 
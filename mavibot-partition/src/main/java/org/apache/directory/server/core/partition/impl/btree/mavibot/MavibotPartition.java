@@ -31,32 +31,23 @@ import java.util.List;
 import java.util.Set;
 
 import net.sf.ehcache.Cache;
-import net.sf.ehcache.Element;
 
-import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.Tuple;
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Value;
-import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.util.exception.MultiException;
 import org.apache.directory.mavibot.btree.RecordManager;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
 import org.apache.directory.server.core.api.DnFactory;
-import org.apache.directory.server.core.api.entry.ClonedServerEntry;
-import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
-import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
-import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
-import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
-import org.apache.directory.server.core.api.interceptor.context.OperationContext;
-import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.OffHeapEntryCache;
 import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
 import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
 import org.apache.directory.server.xdbm.search.impl.DefaultSearchEngine;
@@ -91,8 +82,6 @@ public class MavibotPartition extends AbstractBTreePartition
 
     private RecordManager recordMan;
 
-    /** the entry cache */
-    private Cache entryCache;
 
 
     public MavibotPartition( SchemaManager schemaManager, DnFactory dnFactory )
@@ -221,16 +210,9 @@ public class MavibotPartition extends AbstractBTreePartition
                         deleteUnusedIndexFiles( allIndices, allIndexDbFiles );
             */
 
-            if ( cacheService != null )
+            if ( getEntryCacheMemory() > 0 )
             {
-                entryCache = cacheService.getCache( getId() );
-                
-                int cacheSizeConfig = entryCache.getCacheConfiguration().getMaxElementsInMemory();
-
-                if ( cacheSizeConfig < cacheSize )
-                {
-                    entryCache.getCacheConfiguration().setMaxElementsInMemory( cacheSize );
-                }
+                entryCache = new OffHeapEntryCache( schemaManager, getEntryCacheMemory() );
             }
 
             // We are done !
@@ -314,7 +296,7 @@ public class MavibotPartition extends AbstractBTreePartition
         {
             if ( entryCache != null )
             {
-                entryCache.removeAll();
+                entryCache.clear();
             }
         }
 
@@ -456,84 +438,8 @@ public class MavibotPartition extends AbstractBTreePartition
     }
 
 
-    public Entry lookupCache( String id )
-    {
-        if ( entryCache == null )
-        {
-            return null;
-        }
-
-        Element el = entryCache.get( id );
-
-        if ( el != null )
-        {
-            return ( Entry ) el.getValue();
-        }
-
-        return null;
-    }
-
-
-    @Override
-    public void addToCache( String id, Entry entry )
-    {
-        if ( entryCache == null )
-        {
-            return;
-        }
-
-        if ( entry instanceof ClonedServerEntry )
-        {
-            entry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
-        }
-
-        entryCache.put( new Element( id, entry ) );
-    }
 
 
-    @Override
-    public void updateCache( OperationContext opCtx )
-    {
-        if ( entryCache == null )
-        {
-            return;
-        }
-
-        try
-        {
-            if ( opCtx instanceof ModifyOperationContext )
-            {
-                // replace the entry
-                ModifyOperationContext modCtx = ( ModifyOperationContext ) opCtx;
-                Entry entry = modCtx.getAlteredEntry();
-                String id = entry.get( SchemaConstants.ENTRY_UUID_AT ).getString();
-
-                if ( entry instanceof ClonedServerEntry )
-                {
-                    entry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
-                }
-
-                entryCache.replace( new Element( id, entry ) );
-            }
-            else if ( ( opCtx instanceof MoveOperationContext ) || ( opCtx instanceof MoveAndRenameOperationContext )
-                || ( opCtx instanceof RenameOperationContext ) )
-            {
-                // clear the cache it is not worth updating all the children
-                entryCache.removeAll();
-            }
-            else if ( opCtx instanceof DeleteOperationContext )
-            {
-                // delete the entry
-                DeleteOperationContext delCtx = ( DeleteOperationContext ) opCtx;
-                entryCache.remove( delCtx.getEntry().get( SchemaConstants.ENTRY_UUID_AT ).getString() );
-            }
-        }
-        catch ( LdapException e )
-        {
-            LOG.warn( "Failed to update entry cache", e );
-        }
-    }
-
     
     /**
      * @return The set of system and user indexes
@@ -22,9 +22,11 @@ package org.apache.directory.server.dns;
 
 import java.io.IOException;
 
+import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.dns.protocol.DnsProtocolHandler;
 import org.apache.directory.server.dns.store.RecordStore;
 import org.apache.directory.server.dns.store.jndi.JndiRecordStoreImpl;
+import org.apache.directory.server.dns.store.memory.InMemoryRecordStore;
 import org.apache.directory.server.protocol.shared.DirectoryBackedService;
 import org.apache.directory.server.protocol.shared.transport.Transport;
 import org.apache.directory.server.protocol.shared.transport.UdpTransport;
@@ -57,6 +59,12 @@ public class DnsServer extends DirectoryBackedService
     /** The default service name. */
     private static final String SERVICE_NAME_DEFAULT = "ApacheDS DNS Service";
 
+    /** Tells if the records are kept in memory, instead of being searched for each question */
+    private boolean inMemoryRecords;
+
+    /** The in-memory record store, when enabled */
+    private InMemoryRecordStore inMemoryStore;
+
 
     /**
      * Creates a new instance of DnsConfiguration.
@@ -68,12 +76,53 @@ public class DnsServer extends DirectoryBackedService
     }
 
 
+    /**
+     * @return true if the records are kept in memory
+     */
+    public boolean isInMemoryRecords()
+    {
+        return inMemoryRecords;
+    }
+
+
+    /**
+     * Keeps the records stored below the search base in memory. The catalog is not used
+     * in this case.
+     *
+     * @param inMemoryRecords true to load the records when the service is started
+     */
+    public void setInMemoryRecords( boolean inMemoryRecords )
+    {
+        this.inMemoryRecords = inMemoryRecords;
+    }
+
+
     /**
      * @throws IOException if we cannot bind to the specified ports
      */
     public void start() throws IOException
     {
-        RecordStore store = new JndiRecordStoreImpl( getSearchBaseDn(), getSearchBaseDn(), getDirectoryService() );
+        RecordStore store;
+
+        if ( inMemoryRecords )
+        {
+            try
+            {
+                inMemoryStore = new InMemoryRecordStore( new Dn( getSearchBaseDn() ), getDirectoryService() );
+                inMemoryStore.start();
+            }
+            catch ( Exception e )
+            {
+                inMemoryStore = null;
+                throw new IOException( "Cannot load the DNS records from " + getSearchBaseDn(), e );
+            }
+
+            store = inMemoryStore;
+        }
+        else
+        {
+            store = new JndiRecordStoreImpl( getSearchBaseDn(), getSearchBaseDn(), getDirectoryService() );
+        }
 
         if ( ( transports == null ) || ( transports.size() == 0 ) )
         {
@@ -141,6 +190,12 @@ public class DnsServer extends DirectoryBackedService
             }
         }
 
+        if ( inMemoryStore != null )
+        {
+            inMemoryStore.stop();
+            inMemoryStore = null;
+        }
+
         LOG.info( "DNS service stopped." );
     }
 
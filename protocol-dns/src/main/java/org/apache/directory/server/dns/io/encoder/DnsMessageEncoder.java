@@ -83,6 +83,46 @@ public class DnsMessageEncoder
      * @param message
      */
     public void encode( IoBuffer byteBuffer, DnsMessage message )
+    {
+        encode( byteBuffer, message, Integer.MAX_VALUE );
+    }
+
+
+    /**
+     * Encodes the {@link DnsMessage} into the {@link IoBuffer}, the domain names being
+     * compressed. If the encoded message is longer than the given maximum length, only the
+     * header and the questions are written, with the truncated flag set, so that the client
+     * can retry using TCP. The buffer must be able to expand.
+     *
+     * @param byteBuffer
+     * @param message
+     * @param maxLength The maximum length of the encoded message
+     */
+    public void encode( IoBuffer byteBuffer, DnsMessage message, int maxLength )
+    {
+        int start = byteBuffer.position();
+
+        putHeader( byteBuffer, message, message.isTruncated(), true );
+
+        DomainNameCompressor compressor = new DomainNameCompressor( start );
+
+        putQuestionRecords( byteBuffer, message.getQuestionRecords(), compressor );
+        putResourceRecords( byteBuffer, message.getAnswerRecords(), compressor );
+        putResourceRecords( byteBuffer, message.getAuthorityRecords(), compressor );
+        putResourceRecords( byteBuffer, message.getAdditionalRecords(), compressor );
+
+        if ( byteBuffer.position() - start > maxLength )
+        {
+            LOG.debug( "The message {} is longer than {} bytes, truncating it", message.getTransactionId(), maxLength );
+
+            byteBuffer.position( start );
+            putHeader( byteBuffer, message, true, false );
+            putQuestionRecords( byteBuffer, message.getQuestionRecords(), new DomainNameCompressor( start ) );
+        }
+    }
+
+
+    private void putHeader( IoBuffer byteBuffer, DnsMessage message, boolean truncated, boolean withRecords )
     {
         byteBuffer.putShort( ( short ) message.getTransactionId() );
 
@@ -90,7 +130,7 @@ public class DnsMessageEncoder
         header |= encodeMessageType( message.getMessageType() );
         header |= encodeOpCode( message.getOpCode() );
         header |= encodeAuthoritativeAnswer( message.isAuthoritativeAnswer() );
-        header |= encodeTruncated( message.isTruncated() );
+        header |= encodeTruncated( truncated );
         header |= encodeRecursionDesired( message.isRecursionDesired() );
         byteBuffer.put( header );
 
@@ -101,20 +141,27 @@ public class DnsMessageEncoder
 
         byteBuffer
             .putShort( ( short ) ( message.getQuestionRecords() != null ? message.getQuestionRecords().size() : 0 ) );
-        byteBuffer.putShort( ( short ) ( message.getAnswerRecords() != null ? message.getAnswerRecords().size() : 0 ) );
-        byteBuffer.putShort( ( short ) ( message.getAuthorityRecords() != null ? message.getAuthorityRecords().size()
-            : 0 ) );
-        byteBuffer.putShort( ( short ) ( message.getAdditionalRecords() != null ? message.getAdditionalRecords().size()
-            : 0 ) );
-
-        putQuestionRecords( byteBuffer, message.getQuestionRecords() );
-        putResourceRecords( byteBuffer, message.getAnswerRecords() );
-        putResourceRecords( byteBuffer, message.getAuthorityRecords() );
-        putResourceRecords( byteBuffer, message.getAdditionalRecords() );
+
+        if ( withRecords )
+        {
+            byteBuffer.putShort( ( short ) ( message.getAnswerRecords() != null ? message.getAnswerRecords().size()
+                : 0 ) );
+            byteBuffer.putShort( ( short ) ( message.getAuthorityRecords() != null ? message.getAuthorityRecords()
+                .size() : 0 ) );
+            byteBuffer.putShort( ( short ) ( message.getAdditionalRecords() != null ? message.getAdditionalRecords()
+                .size() : 0 ) );
+        }
+        else
+        {
+            byteBuffer.putShort( ( short ) 0 );
+            byteBuffer.putShort( ( short ) 0 );
+            byteBuffer.putShort( ( short ) 0 );
+        }
     }
 
 
-    private void putQuestionRecords( IoBuffer byteBuffer, List<QuestionRecord> questions )
+    private void putQuestionRecords( IoBuffer byteBuffer, List<QuestionRecord> questions,
+        DomainNameCompressor compressor )
     {
         if ( questions == null )
         {
@@ -128,12 +175,13 @@ public class DnsMessageEncoder
         while ( it.hasNext() )
         {
             QuestionRecord question = it.next();
-            encoder.put( byteBuffer, question );
+            encoder.put( byteBuffer, question, compressor );
         }
     }
 
 
-    private void putResourceRecords( IoBuffer byteBuffer, List<ResourceRecord> records )
+    private void putResourceRecords( IoBuffer byteBuffer, List<ResourceRecord> records,
+        DomainNameCompressor compressor )
     {
         if ( records == null )
         {
@@ -148,7 +196,7 @@ public class DnsMessageEncoder
 
             try
             {
-                put( byteBuffer, record );
+                put( byteBuffer, record, compressor );
             }
             catch ( IOException ioe )
             {
@@ -158,7 +206,8 @@ public class DnsMessageEncoder
     }
 
 
-    private void put( IoBuffer byteBuffer, ResourceRecord record ) throws IOException
+    private void put( IoBuffer byteBuffer, ResourceRecord record, DomainNameCompressor compressor )
+        throws IOException
     {
         RecordType type = record.getRecordType();
 
@@ -169,7 +218,7 @@ public class DnsMessageEncoder
             throw new IOException( I18n.err( I18n.ERR_597, type ) );
         }
 
-        encoder.put( byteBuffer, record );
+        encoder.put( byteBuffer, record, compressor );
     }
 
 
@@ -0,0 +1,116 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.dns.io.encoder;
+
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.directory.api.util.Strings;
+import org.apache.mina.core.buffer.IoBuffer;
+
+
+/**
+ * Encodes the domain names of a message using the compression scheme described in
+ * <a href="http://www.ietf.org/rfc/rfc1035.txt">RFC 1035</a>, section 4.1.4 : when the end
+ * of a name has already been written in the message, it is replaced by a pointer to it.
+ * <br>
+ * An instance holds the offsets of the names written in one message, so it must not be
+ * shared between messages.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DomainNameCompressor
+{
+    /** The largest offset a pointer can hold */
+    private static final int MAX_OFFSET = 0x3FFF;
+
+    /** The two high bits of a pointer */
+    private static final int POINTER_MASK = 0xC000;
+
+    /** The position of the message in the buffer */
+    private final int messageStart;
+
+    /** The offsets of the name suffixes already written, by lowercased suffix */
+    private final Map<String, Integer> offsets = new HashMap<String, Integer>();
+
+
+    /**
+     * Creates a new instance of DomainNameCompressor.
+     *
+     * @param messageStart The position of the message header in the buffer
+     */
+    public DomainNameCompressor( int messageStart )
+    {
+        this.messageStart = messageStart;
+    }
+
+
+    /**
+     * Writes a domain name, replacing its longest already written suffix by a pointer.
+     *
+     * @param byteBuffer the ByteBuffer to encode the domain name into
+     * @param domainName the domain name to encode
+     */
+    public void putDomainName( IoBuffer byteBuffer, String domainName )
+    {
+        if ( !Strings.isEmpty( domainName ) )
+        {
+            String[] labels = domainName.split( "\\." );
+            String[] suffixes = new String[labels.length];
+            String suffix = null;
+
+            for ( int i = labels.length - 1; i >= 0; i-- )
+            {
+                String label = Strings.toLowerCaseAscii( labels[i] );
+                suffix = ( suffix == null ) ? label : label + '.' + suffix;
+                suffixes[i] = suffix;
+            }
+
+            for ( int i = 0; i < labels.length; i++ )
+            {
+                Integer offset = offsets.get( suffixes[i] );
+
+                if ( offset != null )
+                {
+                    byteBuffer.putShort( ( short ) ( POINTER_MASK | offset ) );
+
+                    return;
+                }
+
+                int position = byteBuffer.position() - messageStart;
+
+                if ( position <= MAX_OFFSET )
+                {
+                    offsets.put( suffixes[i], position );
+                }
+
+                byteBuffer.put( ( byte ) labels[i].length() );
+
+                for ( char c : labels[i].toCharArray() )
+                {
+                    byteBuffer.put( ( byte ) c );
+                }
+            }
+        }
+
+        byteBuffer.put( ( byte ) 0x00 );
+    }
+}
@@ -41,7 +41,28 @@ public class QuestionRecordEncoder
      */
     public void put( IoBuffer out, QuestionRecord question )
     {
-        encodeDomainName( out, question.getDomainName() );
+        put( out, question, null );
+    }
+
+
+    /**
+     * Encodes the {@link QuestionRecord} into the {@link IoBuffer}, compressing the domain name.
+     *
+     * @param out
+     * @param question
+     * @param compressor The domain names already written in the message, or null to write the name in full
+     */
+    public void put( IoBuffer out, QuestionRecord question, DomainNameCompressor compressor )
+    {
+        if ( compressor == null )
+        {
+            encodeDomainName( out, question.getDomainName() );
+        }
+        else
+        {
+            compressor.putDomainName( out, question.getDomainName() );
+        }
+
         encodeRecordType( out, question.getRecordType() );
         encodeRecordClass( out, question.getRecordClass() );
     }
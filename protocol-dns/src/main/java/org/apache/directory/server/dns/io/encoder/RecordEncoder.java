@@ -40,4 +40,15 @@ public interface RecordEncoder
      * @throws IOException
      */
     void put( IoBuffer buffer, ResourceRecord record ) throws IOException;
+
+
+    /**
+     * Encodes the {@link ResourceRecord} into the {@link IoBuffer}, compressing the domain names.
+     *
+     * @param buffer
+     * @param record
+     * @param compressor The domain names already written in the message, or null to write the names in full
+     * @throws IOException
+     */
+    void put( IoBuffer buffer, ResourceRecord record, DomainNameCompressor compressor ) throws IOException;
 }
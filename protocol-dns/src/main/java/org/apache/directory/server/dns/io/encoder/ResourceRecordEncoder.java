@@ -37,25 +37,53 @@ public abstract class ResourceRecordEncoder implements RecordEncoder
 {
     public void put( IoBuffer byteBuffer, ResourceRecord record ) throws IOException
     {
-        putDomainName( byteBuffer, record.getDomainName() );
+        put( byteBuffer, record, null );
+    }
+
+
+    public void put( IoBuffer byteBuffer, ResourceRecord record, DomainNameCompressor compressor )
+        throws IOException
+    {
+        putDomainName( byteBuffer, record.getDomainName(), compressor );
         putRecordType( byteBuffer, record.getRecordType() );
         putRecordClass( byteBuffer, record.getRecordClass() );
 
         byteBuffer.putInt( record.getTimeToLive() );
 
-        putResourceRecord( byteBuffer, record );
+        putResourceRecord( byteBuffer, record, compressor );
     }
 
 
     protected abstract void putResourceRecordData( IoBuffer byteBuffer, ResourceRecord record );
 
 
+    /**
+     * Encodes the record data, compressing its domain names. Only the record types defined
+     * in RFC 1035 may compress their data, so the names are written in full by default.
+     *
+     * @param byteBuffer the ByteBuffer to encode the record data into
+     * @param record the record to encode
+     * @param compressor The domain names already written in the message, or null
+     */
+    protected void putResourceRecordData( IoBuffer byteBuffer, ResourceRecord record,
+        DomainNameCompressor compressor )
+    {
+        putResourceRecordData( byteBuffer, record );
+    }
+
+
     protected void putResourceRecord( IoBuffer byteBuffer, ResourceRecord record )
+    {
+        putResourceRecord( byteBuffer, record, null );
+    }
+
+
+    protected void putResourceRecord( IoBuffer byteBuffer, ResourceRecord record, DomainNameCompressor compressor )
     {
         int startPosition = byteBuffer.position();
         byteBuffer.position( startPosition + 2 );
 
-        putResourceRecordData( byteBuffer, record );
+        putResourceRecordData( byteBuffer, record, compressor );
 
         putDataSize( byteBuffer, startPosition );
     }
@@ -103,6 +131,26 @@ public abstract class ResourceRecordEncoder implements RecordEncoder
     }
 
 
+    /**
+     * Writes a domain name, compressed if a compressor is given.
+     * 
+     * @param byteBuffer the ByteBuffer to encode the domain name into
+     * @param domainName the domain name to encode
+     * @param compressor The domain names already written in the message, or null
+     */
+    protected void putDomainName( IoBuffer byteBuffer, String domainName, DomainNameCompressor compressor )
+    {
+        if ( compressor == null )
+        {
+            putDomainName( byteBuffer, domainName );
+        }
+        else
+        {
+            compressor.putDomainName( byteBuffer, domainName );
+        }
+    }
+
+
     protected void putRecordType( IoBuffer byteBuffer, RecordType recordType )
     {
         byteBuffer.putShort( recordType.convert() );
@@ -97,6 +97,13 @@ import org.apache.mina.core.buffer.IoBuffer;
 public class StartOfAuthorityRecordEncoder extends ResourceRecordEncoder
 {
     protected void putResourceRecordData( IoBuffer byteBuffer, ResourceRecord record )
+    {
+        putResourceRecordData( byteBuffer, record, null );
+    }
+
+
+    protected void putResourceRecordData( IoBuffer byteBuffer, ResourceRecord record,
+        DomainNameCompressor compressor )
     {
         String mName = record.get( DnsAttribute.SOA_M_NAME );
         String rName = record.get( DnsAttribute.SOA_R_NAME );
@@ -106,8 +113,8 @@ public class StartOfAuthorityRecordEncoder extends ResourceRecordEncoder
         int expire = Integer.parseInt( record.get( DnsAttribute.SOA_EXPIRE ) );
         long minimum = Long.parseLong( record.get( DnsAttribute.SOA_MINIMUM ) );
 
-        putDomainName( byteBuffer, mName );
-        putDomainName( byteBuffer, rName );
+        putDomainName( byteBuffer, mName, compressor );
+        putDomainName( byteBuffer, rName, compressor );
 
         byteBuffer.putInt( ( int ) serial );
 
@@ -43,11 +43,13 @@ public class DnsTcpEncoder extends ProtocolEncoderAdapter
     public void encode( IoSession session, Object message, ProtocolEncoderOutput out )
     {
         IoBuffer buf = IoBuffer.allocate( 1024 );
+        buf.setAutoExpand( true );
 
         // make space for short length
         buf.putShort( ( short ) 0 );
 
-        encoder.encode( buf, ( DnsMessage ) message );
+        // The length prefix can't exceed 65535
+        encoder.encode( buf, ( DnsMessage ) message, 0xFFFF );
 
         // mark position
         int end = buf.position();
@@ -37,13 +37,40 @@ import org.apache.mina.filter.codec.ProtocolEncoderOutput;
  */
 public class DnsUdpEncoder extends ProtocolEncoderAdapter
 {
+    /** The maximum size of a UDP message, as defined in RFC 1035, section 4.2.1 */
+    public static final int MAX_UDP_PAYLOAD = 512;
+
     private DnsMessageEncoder encoder = new DnsMessageEncoder();
 
+    /** The longest message sent, larger ones are truncated */
+    private final int maxPayload;
+
+
+    /**
+     * Creates a new instance of DnsUdpEncoder, sending up to 512 bytes.
+     */
+    public DnsUdpEncoder()
+    {
+        this( MAX_UDP_PAYLOAD );
+    }
+
+
+    /**
+     * Creates a new instance of DnsUdpEncoder.
+     *
+     * @param maxPayload The longest message sent, larger ones are truncated
+     */
+    public DnsUdpEncoder( int maxPayload )
+    {
+        this.maxPayload = maxPayload;
+    }
+
 
     public void encode( IoSession session, Object message, ProtocolEncoderOutput out )
     {
-        IoBuffer buf = IoBuffer.allocate( 1024 );
-        encoder.encode( buf, ( DnsMessage ) message );
+        IoBuffer buf = IoBuffer.allocate( maxPayload );
+        buf.setAutoExpand( true );
+        encoder.encode( buf, ( DnsMessage ) message, maxPayload );
 
         buf.flip();
 
@@ -115,8 +115,8 @@ public final class DomainNameService
      *
      * @param store
      * @param question
-     * @return The set of {@link ResourceRecord}s.
-     * @throws DNSException
+     * @return The set of {@link ResourceRecord}s, empty if the domain name has no record of the requested type.
+     * @throws DNSException If the domain name does not exist
      */
     private static Set<ResourceRecord> getEntry( RecordStore store, QuestionRecord question ) throws DnsException
     {
@@ -124,13 +124,19 @@ public final class DomainNameService
 
         records = store.getRecords( question );
 
-        if ( records == null || records.isEmpty() )
+        if ( records == null )
         {
             LOG.debug( "The domain name referenced in the query does not exist." );
 
             throw new DnsException( ResponseCode.NAME_ERROR );
         }
 
+        if ( records.isEmpty() )
+        {
+            // The domain name exists, but has no record of the requested type
+            LOG.debug( "No record of type {} for {}", question.getRecordType(), question.getDomainName() );
+        }
+
         return records;
     }
 
@@ -38,7 +38,8 @@ public interface RecordStore
      * Returns a set of {@link ResourceRecord}s, given a DNS {@link QuestionRecord}.
      * If something bad happens throw the accurate {@link DnsException} 
      * @param question
-     * @return The set of {@link ResourceRecord}s.
+     * @return The set of {@link ResourceRecord}s, empty if the domain name exists but has no
+     * record of the requested type, or null if the domain name does not exist
      * @throws DnsException
      */
     Set<ResourceRecord> getRecords( QuestionRecord question ) throws DnsException;
@@ -113,6 +113,18 @@ public class GetRecords implements DnsOperation
     }
 
 
+    /**
+     * Gives the type of the records stored in the entries of a given objectClass.
+     *
+     * @param objectClass The objectClass name
+     * @return The record type, or null if the objectClass is not a DNS record objectClass
+     */
+    public static RecordType getObjectClassType( String objectClass )
+    {
+        return OBJECTCLASS_TO_TYPE.get( objectClass );
+    }
+
+
     /**
      * Note that the base is a relative path from the exiting context.
      * It is not a Dn.
@@ -0,0 +1,633 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.dns.store.memory;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.event.DirectoryListenerAdapter;
+import org.apache.directory.server.core.api.event.EventType;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.dns.DnsException;
+import org.apache.directory.server.dns.messages.QuestionRecord;
+import org.apache.directory.server.dns.messages.RecordClass;
+import org.apache.directory.server.dns.messages.RecordType;
+import org.apache.directory.server.dns.messages.ResourceRecord;
+import org.apache.directory.server.dns.messages.ResourceRecordModifier;
+import org.apache.directory.server.dns.messages.ResponseCode;
+import org.apache.directory.server.dns.store.DnsAttribute;
+import org.apache.directory.server.dns.store.RecordStore;
+import org.apache.directory.server.dns.store.jndi.operations.GetRecords;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A RecordStore which loads all the DNS records stored below a base Dn once, and answers the
+ * questions from memory. It gives the same answers as the {@link GetRecords} search : the records
+ * of the requested type stored in the subtree of the domain name, transformed into a Dn using
+ * <a href="http://www.faqs.org/rfcs/rfc2247.html">RFC 2247</a>.
+ * <br>
+ * Each domain name is associated with an immutable set of records per type, which is replaced
+ * when a record entry is added, modified or deleted. The changes are received from the
+ * directory EventService. An unknown domain name is a NAME_ERROR, while a known domain name
+ * without records of the requested type gives an empty set, without searching the directory.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class InMemoryRecordStore implements RecordStore
+{
+    /** the LOG for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( InMemoryRecordStore.class );
+
+    /** The default SOA minimum, used when a record has no TTL */
+    private static final String SOA_MINIMUM = "86400";
+
+    /** The default record class */
+    private static final String SOA_CLASS = "IN";
+
+    /** The base of the DNS records */
+    private final Dn searchBaseDn;
+
+    /** The directory service storing the records */
+    private final DirectoryService directoryService;
+
+    /** The records, by domain name and type. The record sets are never modified */
+    private final ConcurrentMap<String, Map<RecordType, Set<ResourceRecord>>> domains =
+        new ConcurrentHashMap<String, Map<RecordType, Set<ResourceRecord>>>();
+
+    /** The record stored in each entry, by normalized Dn. Only modified when holding the lock */
+    private final Map<String, StoredRecord> entries = new HashMap<String, StoredRecord>();
+
+    /** The number of entries holding an equal record, by domain name. Guarded by the entries lock */
+    private final Map<String, Map<ResourceRecord, Integer>> holders =
+        new HashMap<String, Map<ResourceRecord, Integer>>();
+
+    /** The listener updating the records */
+    private final RecordListener listener = new RecordListener();
+
+
+    /**
+     * A record, and the domain names it is associated with
+     */
+    private static final class StoredRecord
+    {
+        private final ResourceRecord record;
+
+        private final List<String> domainNames;
+
+
+        private StoredRecord( ResourceRecord record, List<String> domainNames )
+        {
+            this.record = record;
+            this.domainNames = domainNames;
+        }
+    }
+
+
+    /**
+     * Updates the records when their entries change. The listener is asynchronous : the
+     * DNS clients already cope with stale records, thanks to the TTL.
+     */
+    private class RecordListener extends DirectoryListenerAdapter
+    {
+        @Override
+        public void entryAdded( AddOperationContext addContext )
+        {
+            update( addContext.getDn(), addContext.getEntry() );
+        }
+
+
+        @Override
+        public void entryDeleted( DeleteOperationContext deleteContext )
+        {
+            update( deleteContext.getDn(), null );
+        }
+
+
+        @Override
+        public void entryModified( ModifyOperationContext modifyContext )
+        {
+            update( modifyContext.getDn(), modifyContext.getAlteredEntry() );
+        }
+
+
+        @Override
+        public void entryRenamed( RenameOperationContext renameContext )
+        {
+            // The whole subtree has changed its domain names
+            reload();
+        }
+
+
+        @Override
+        public void entryMoved( MoveOperationContext moveContext )
+        {
+            reload();
+        }
+
+
+        @Override
+        public void entryMovedAndRenamed( MoveAndRenameOperationContext moveAndRenameContext )
+        {
+            reload();
+        }
+    }
+
+
+    /**
+     * Creates a new instance of InMemoryRecordStore. The records are loaded when the store is started.
+     *
+     * @param searchBaseDn The base of the DNS records
+     * @param directoryService DirectoryService backend for the records
+     */
+    public InMemoryRecordStore( Dn searchBaseDn, DirectoryService directoryService )
+    {
+        this.searchBaseDn = searchBaseDn;
+        this.directoryService = directoryService;
+    }
+
+
+    /**
+     * Registers the listener, and loads the records.
+     *
+     * @throws Exception If the records can't be read
+     */
+    public void start() throws Exception
+    {
+        NotificationCriteria criteria = new NotificationCriteria();
+        criteria.setBase( searchBaseDn );
+        criteria.setEventMask( EventType.ALL_EVENT_TYPES_MASK );
+        criteria.setFilter( new PresenceNode( SchemaConstants.OBJECT_CLASS_AT ) );
+        criteria.setScope( SearchScope.SUBTREE );
+
+        // Register first, so that no change is lost during the load
+        directoryService.getEventService().addListener( listener, criteria );
+
+        try
+        {
+            load();
+        }
+        catch ( Exception e )
+        {
+            directoryService.getEventService().removeListener( listener );
+            throw e;
+        }
+    }
+
+
+    /**
+     * Unregisters the listener, and forgets the records.
+     */
+    public void stop()
+    {
+        directoryService.getEventService().removeListener( listener );
+
+        synchronized ( entries )
+        {
+            entries.clear();
+            holders.clear();
+            domains.clear();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<ResourceRecord> getRecords( QuestionRecord question ) throws DnsException
+    {
+        if ( question == null )
+        {
+            return null;
+        }
+
+        Map<RecordType, Set<ResourceRecord>> domain = domains.get( normalize( question.getDomainName() ) );
+
+        if ( domain == null )
+        {
+            LOG.debug( "Unknown domain name {}", question.getDomainName() );
+
+            throw new DnsException( ResponseCode.NAME_ERROR );
+        }
+
+        Set<ResourceRecord> records = domain.get( question.getRecordType() );
+
+        if ( records == null )
+        {
+            // The domain exists, but has no record of this type
+            return Collections.emptySet();
+        }
+
+        return records;
+    }
+
+
+    /**
+     * @return The number of records in the store
+     */
+    public int size()
+    {
+        synchronized ( entries )
+        {
+            return entries.size();
+        }
+    }
+
+
+    /**
+     * Reads all the records from the directory
+     */
+    private void load() throws Exception
+    {
+        CoreSession session = directoryService.getAdminSession();
+        Cursor<Entry> cursor = session.search( searchBaseDn, SearchScope.SUBTREE,
+            new PresenceNode( SchemaConstants.OBJECT_CLASS_AT ), AliasDerefMode.NEVER_DEREF_ALIASES,
+            SchemaConstants.ALL_USER_ATTRIBUTES );
+
+        try
+        {
+            synchronized ( entries )
+            {
+                entries.clear();
+                holders.clear();
+                domains.clear();
+
+                while ( cursor.next() )
+                {
+                    Entry entry = cursor.get();
+                    add( entry.getDn(), entry );
+                }
+
+                LOG.debug( "Loaded {} DNS records from {}", entries.size(), searchBaseDn );
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+
+    /**
+     * Reads all the records again, after a rename or a move
+     */
+    private void reload()
+    {
+        try
+        {
+            load();
+        }
+        catch ( Exception e )
+        {
+            LOG.error( "Cannot reload the DNS records from {}", searchBaseDn, e );
+        }
+    }
+
+
+    /**
+     * Replaces the record stored in an entry
+     *
+     * @param dn The entry Dn
+     * @param entry The new entry content, null if it has been deleted
+     */
+    private void update( Dn dn, Entry entry )
+    {
+        try
+        {
+            synchronized ( entries )
+            {
+                remove( dn );
+
+                if ( entry != null )
+                {
+                    add( dn, entry );
+                }
+            }
+        }
+        catch ( Exception e )
+        {
+            LOG.error( "Cannot update the DNS record {}", dn, e );
+        }
+    }
+
+
+    /**
+     * Adds the record stored in an entry, if it's a DNS record. Must be called holding the lock.
+     */
+    private void add( Dn dn, Entry entry ) throws Exception
+    {
+        ResourceRecord record = getRecord( dn, entry );
+
+        if ( record == null )
+        {
+            return;
+        }
+
+        List<String> domainNames = getDomainNames( dn );
+        entries.put( dn.getNormName(), new StoredRecord( record, domainNames ) );
+
+        for ( String domainName : domainNames )
+        {
+            Map<ResourceRecord, Integer> domainHolders = holders.get( domainName );
+
+            if ( domainHolders == null )
+            {
+                domainHolders = new HashMap<ResourceRecord, Integer>();
+                holders.put( domainName, domainHolders );
+            }
+
+            Integer count = domainHolders.get( record );
+
+            if ( count != null )
+            {
+                // An equal record is already returned for this domain name
+                domainHolders.put( record, count + 1 );
+                continue;
+            }
+
+            domainHolders.put( record, 1 );
+
+            Map<RecordType, Set<ResourceRecord>> oldDomain = domains.get( domainName );
+            Map<RecordType, Set<ResourceRecord>> domain = ( oldDomain == null )
+                ? new HashMap<RecordType, Set<ResourceRecord>>()
+                : new HashMap<RecordType, Set<ResourceRecord>>( oldDomain );
+
+            Set<ResourceRecord> oldRecords = domain.get( record.getRecordType() );
+            Set<ResourceRecord> records = ( oldRecords == null ) ? new HashSet<ResourceRecord>()
+                : new HashSet<ResourceRecord>( oldRecords );
+            records.add( record );
+            domain.put( record.getRecordType(), Collections.unmodifiableSet( records ) );
+
+            domains.put( domainName, Collections.unmodifiableMap( domain ) );
+        }
+    }
+
+
+    /**
+     * Removes the record stored in an entry. Must be called holding the lock. The record is
+     * only removed from the domains where no other entry holds an equal record.
+     */
+    private void remove( Dn dn )
+    {
+        StoredRecord stored = entries.remove( dn.getNormName() );
+
+        if ( stored == null )
+        {
+            return;
+        }
+
+        RecordType type = stored.record.getRecordType();
+
+        for ( String domainName : stored.domainNames )
+        {
+            Map<ResourceRecord, Integer> domainHolders = holders.get( domainName );
+            Integer count = ( domainHolders == null ) ? null : domainHolders.get( stored.record );
+
+            if ( count == null )
+            {
+                continue;
+            }
+
+            if ( count > 1 )
+            {
+                // Another entry still holds an equal record
+                domainHolders.put( stored.record, count - 1 );
+                continue;
+            }
+
+            domainHolders.remove( stored.record );
+
+            if ( domainHolders.isEmpty() )
+            {
+                holders.remove( domainName );
+            }
+
+            Map<RecordType, Set<ResourceRecord>> oldDomain = domains.get( domainName );
+
+            if ( ( oldDomain == null ) || ( oldDomain.get( type ) == null ) )
+            {
+                continue;
+            }
+
+            Map<RecordType, Set<ResourceRecord>> domain = new HashMap<RecordType, Set<ResourceRecord>>( oldDomain );
+            Set<ResourceRecord> records = new HashSet<ResourceRecord>( oldDomain.get( type ) );
+            records.remove( stored.record );
+
+            if ( records.isEmpty() )
+            {
+                domain.remove( type );
+            }
+            else
+            {
+                domain.put( type, Collections.unmodifiableSet( records ) );
+            }
+
+            if ( domain.isEmpty() )
+            {
+                domains.remove( domainName );
+            }
+            else
+            {
+                domains.put( domainName, Collections.unmodifiableMap( domain ) );
+            }
+        }
+    }
+
+
+    /**
+     * Gives the domain names for which a record is returned : the record is below the Dn of
+     * each of them. Only the domain components of the Dn are taken into account, the
+     * search base being the empty domain name.
+     */
+    private List<String> getDomainNames( Dn dn ) throws Exception
+    {
+        List<String> components = new ArrayList<String>();
+
+        // The Rdns are ordered from the entry to the search base
+        for ( Rdn rdn : dn.getDescendantOf( searchBaseDn ).getRdns() )
+        {
+            if ( isDomainComponent( rdn ) )
+            {
+                components.add( Strings.toLowerCaseAscii( rdn.getValue() ) );
+            }
+            else
+            {
+                components.clear();
+            }
+        }
+
+        List<String> domainNames = new ArrayList<String>( components.size() + 1 );
+        domainNames.add( "" );
+        StringBuilder domainName = new StringBuilder();
+
+        for ( int i = components.size() - 1; i >= 0; i-- )
+        {
+            if ( domainName.length() > 0 )
+            {
+                domainName.insert( 0, '.' );
+            }
+
+            domainName.insert( 0, components.get( i ) );
+            domainNames.add( domainName.toString() );
+        }
+
+        return domainNames;
+    }
+
+
+    private static boolean isDomainComponent( Rdn rdn )
+    {
+        String type = rdn.getType();
+
+        return SchemaConstants.DC_AT.equalsIgnoreCase( type )
+            || SchemaConstants.DOMAIN_COMPONENT_AT.equalsIgnoreCase( type )
+            || SchemaConstants.DOMAIN_COMPONENT_AT_OID.equals( type );
+    }
+
+
+    /**
+     * Builds the record stored in an entry, the same way {@link GetRecords} does.
+     *
+     * @return The record, or null if the entry is not a DNS record
+     */
+    private ResourceRecord getRecord( Dn dn, Entry entry ) throws Exception
+    {
+        RecordType type = getType( entry );
+
+        if ( type == null )
+        {
+            return null;
+        }
+
+        ResourceRecordModifier modifier = new ResourceRecordModifier();
+        modifier.setDnsType( type );
+
+        // if no name, transform the domain components of the Dn
+        Attribute attr = entry.get( DnsAttribute.NAME );
+
+        if ( attr != null )
+        {
+            modifier.setDnsName( attr.getString() );
+        }
+        else
+        {
+            List<String> domainNames = getDomainNames( dn );
+            modifier.setDnsName( domainNames.get( domainNames.size() - 1 ) );
+        }
+
+        // class defaults to SOA CLASS
+        attr = entry.get( DnsAttribute.CLASS );
+        modifier.setDnsClass( RecordClass.valueOf( attr != null ? attr.getString() : SOA_CLASS ) );
+
+        // ttl defaults to SOA MINIMUM
+        attr = entry.get( DnsAttribute.TTL );
+        modifier.setDnsTtl( Integer.parseInt( attr != null ? attr.getString() : SOA_MINIMUM ) );
+
+        for ( Attribute attribute : entry )
+        {
+            if ( attribute.isHumanReadable() && ( attribute.size() > 0 ) )
+            {
+                modifier.put( attribute.getUpId(), attribute.getString() );
+            }
+        }
+
+        return modifier.getEntry();
+    }
+
+
+    /**
+     * @return The type of the record stored in an entry, or null if it's not a DNS record
+     */
+    private RecordType getType( Entry entry ) throws Exception
+    {
+        Attribute type = entry.get( DnsAttribute.TYPE );
+
+        if ( type != null )
+        {
+            return RecordType.valueOf( type.getString() );
+        }
+
+        Attribute objectClass = entry.get( SchemaConstants.OBJECT_CLASS_AT );
+
+        if ( objectClass == null )
+        {
+            return null;
+        }
+
+        for ( Value<?> value : objectClass )
+        {
+            RecordType recordType = GetRecords.getObjectClassType( value.getString() );
+
+            if ( recordType != null )
+            {
+                return recordType;
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Lowercases a domain name and removes the trailing dot
+     */
+    private static String normalize( String domainName )
+    {
+        if ( domainName == null )
+        {
+            return "";
+        }
+
+        if ( domainName.endsWith( "." ) )
+        {
+            domainName = domainName.substring( 0, domainName.length() - 1 );
+        }
+
+        return Strings.toLowerCaseAscii( domainName );
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.dns.io.encoder;
+
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.Test;
+
+
+/**
+ * Tests for the domain name compression.
+ * 
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DomainNameCompressorTest
+{
+    private static void putLabel( IoBuffer buffer, String label )
+    {
+        buffer.put( ( byte ) label.length() );
+        buffer.put( label.getBytes() );
+    }
+
+
+    @Test
+    public void testCompression()
+    {
+        IoBuffer expectedData = IoBuffer.allocate( 128 );
+        expectedData.putShort( ( short ) 0 );
+        putLabel( expectedData, "www" );
+        putLabel( expectedData, "apache" );
+        putLabel( expectedData, "org" );
+        expectedData.put( ( byte ) 0x00 );
+        // The same name, ignoring the case
+        expectedData.putShort( ( short ) 0xC000 );
+        // A name sharing the apache.org suffix
+        putLabel( expectedData, "mail" );
+        expectedData.putShort( ( short ) 0xC004 );
+        // An unrelated name
+        putLabel( expectedData, "example" );
+        putLabel( expectedData, "com" );
+        expectedData.put( ( byte ) 0x00 );
+
+        // The message starts after a 2 bytes prefix, as with TCP
+        IoBuffer out = IoBuffer.allocate( 128 );
+        out.putShort( ( short ) 0 );
+
+        DomainNameCompressor compressor = new DomainNameCompressor( 2 );
+        compressor.putDomainName( out, "www.apache.org" );
+        compressor.putDomainName( out, "WWW.Apache.org" );
+        compressor.putDomainName( out, "mail.apache.org" );
+        compressor.putDomainName( out, "example.com" );
+
+        assertEquals( expectedData, out );
+    }
+
+
+    @Test
+    public void testEmptyName()
+    {
+        IoBuffer out = IoBuffer.allocate( 16 );
+
+        DomainNameCompressor compressor = new DomainNameCompressor( 0 );
+        compressor.putDomainName( out, "" );
+        compressor.putDomainName( out, null );
+
+        assertEquals( 2, out.position() );
+        assertEquals( 0, out.get( 0 ) );
+        assertEquals( 0, out.get( 1 ) );
+    }
+}
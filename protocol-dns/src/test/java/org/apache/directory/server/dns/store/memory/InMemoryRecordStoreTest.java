@@ -0,0 +1,283 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+
+package org.apache.directory.server.dns.store.memory;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.MockCoreSession;
+import org.apache.directory.server.core.api.MockDirectoryService;
+import org.apache.directory.server.core.api.event.DirectoryListener;
+import org.apache.directory.server.core.api.event.EventService;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.event.RegistrationEntry;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.dns.DnsException;
+import org.apache.directory.server.dns.messages.QuestionRecord;
+import org.apache.directory.server.dns.messages.RecordClass;
+import org.apache.directory.server.dns.messages.RecordType;
+import org.apache.directory.server.dns.messages.ResourceRecord;
+import org.apache.directory.server.dns.messages.ResponseCode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * Tests the InMemoryRecordStore, loaded from a list of entries and updated through its listener.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class InMemoryRecordStoreTest
+{
+    private static final String BASE = "ou=dns,ou=system";
+
+    /** The entries returned by the initial search */
+    private List<Entry> stored;
+
+    /** The listener registered by the store */
+    private DirectoryListener listener;
+
+    private InMemoryRecordStore store;
+
+
+    @Before
+    public void setUp() throws Exception
+    {
+        stored = new ArrayList<Entry>();
+        stored.add( address( "dc=www,dc=example,dc=com", "10.0.0.1" ) );
+        stored.add( new DefaultEntry( "dc=example,dc=com," + BASE,
+            "objectClass: apacheDnsMailExchangeRecord",
+            "apacheDnsDomainName: mail.example.com",
+            "apacheDnsMxPreference: 10" ) );
+
+        store = new InMemoryRecordStore( new Dn( BASE ), directoryService() );
+        store.start();
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        store.stop();
+    }
+
+
+    /**
+     * A DirectoryService which only gives an EventService and an admin session, the session
+     * returning the stored entries whatever the search
+     */
+    private DirectoryService directoryService() throws Exception
+    {
+        final EventService eventService = new EventService()
+        {
+            public void addListener( DirectoryListener directoryListener, NotificationCriteria criteria )
+            {
+                listener = directoryListener;
+            }
+
+
+            public void removeListener( DirectoryListener directoryListener )
+            {
+            }
+
+
+            public List<RegistrationEntry> getRegistrationEntries()
+            {
+                return Collections.emptyList();
+            }
+
+
+            public List<RegistrationEntry> getRegistrationEntries( Dn dn, Entry entry )
+            {
+                return Collections.emptyList();
+            }
+        };
+
+        DirectoryService directoryService = new MockDirectoryService()
+        {
+            public EventService getEventService()
+            {
+                return eventService;
+            }
+
+
+            public CoreSession getAdminSession()
+            {
+                return new MockCoreSession( new LdapPrincipal(), this )
+                {
+                    public Cursor<Entry> search( Dn dn, SearchScope scope, ExprNode filter,
+                        AliasDerefMode aliasDerefMode, String... returningAttributes )
+                    {
+                        return new ListCursor<Entry>( stored );
+                    }
+                };
+            }
+        };
+
+        directoryService.setSchemaManager( new DefaultSchemaManager() );
+
+        return directoryService;
+    }
+
+
+    private static Entry address( String rdns, String ipAddress ) throws Exception
+    {
+        return new DefaultEntry( rdns + "," + BASE,
+            "objectClass: apacheDnsAddressRecord",
+            "apacheDnsIpAddress", ipAddress );
+    }
+
+
+    private Set<ResourceRecord> getRecords( String domainName, RecordType type ) throws Exception
+    {
+        return store.getRecords( new QuestionRecord( domainName, type, RecordClass.IN ) );
+    }
+
+
+    private void added( Entry entry ) throws Exception
+    {
+        listener.entryAdded( new AddOperationContext( null, entry ) );
+    }
+
+
+    private void deleted( Entry entry ) throws Exception
+    {
+        listener.entryDeleted( new DeleteOperationContext( null, entry.getDn() ) );
+    }
+
+
+    @Test
+    public void testLoad() throws Exception
+    {
+        assertEquals( 2, store.size() );
+
+        Set<ResourceRecord> records = getRecords( "www.example.com", RecordType.A );
+        assertEquals( 1, records.size() );
+
+        ResourceRecord record = records.iterator().next();
+        assertEquals( "www.example.com", record.getDomainName() );
+        assertEquals( "10.0.0.1", record.get( "apacheDnsIpAddress" ) );
+
+        // The records of a subdomain are returned for the parent domains, with a trailing dot or not
+        assertEquals( records, getRecords( "Example.COM.", RecordType.A ) );
+        assertEquals( 1, getRecords( "example.com", RecordType.MX ).size() );
+    }
+
+
+    @Test
+    public void testNoData() throws Exception
+    {
+        // The domain exists, but has no record of this type
+        assertTrue( getRecords( "www.example.com", RecordType.MX ).isEmpty() );
+        assertTrue( getRecords( "example.com", RecordType.TXT ).isEmpty() );
+    }
+
+
+    @Test
+    public void testNameError() throws Exception
+    {
+        try
+        {
+            getRecords( "ftp.example.com", RecordType.A );
+            fail();
+        }
+        catch ( DnsException de )
+        {
+            assertEquals( ResponseCode.NAME_ERROR.name(), de.getMessage() );
+        }
+
+        assertNull( store.getRecords( null ) );
+    }
+
+
+    @Test
+    public void testAddAndDelete() throws Exception
+    {
+        Entry ftp = address( "dc=ftp,dc=example,dc=com", "10.0.0.2" );
+        added( ftp );
+
+        assertEquals( 3, store.size() );
+        assertEquals( 1, getRecords( "ftp.example.com", RecordType.A ).size() );
+        assertEquals( 2, getRecords( "example.com", RecordType.A ).size() );
+
+        deleted( ftp );
+
+        assertEquals( 2, store.size() );
+        assertEquals( 1, getRecords( "example.com", RecordType.A ).size() );
+
+        try
+        {
+            getRecords( "ftp.example.com", RecordType.A );
+            fail();
+        }
+        catch ( DnsException de )
+        {
+            assertEquals( ResponseCode.NAME_ERROR.name(), de.getMessage() );
+        }
+    }
+
+
+    /**
+     * Two entries hold equal records : the record is kept until both entries are deleted
+     */
+    @Test
+    public void testDeleteEqualRecord() throws Exception
+    {
+        Entry other = address( "cn=other,dc=www,dc=example,dc=com", "10.0.0.3" );
+        other.add( "apacheDnsName", "www.example.com" );
+        added( other );
+
+        assertEquals( 3, store.size() );
+        assertEquals( 1, getRecords( "www.example.com", RecordType.A ).size() );
+
+        deleted( stored.get( 0 ) );
+
+        assertEquals( 1, getRecords( "www.example.com", RecordType.A ).size() );
+        assertEquals( 1, getRecords( "example.com", RecordType.A ).size() );
+
+        deleted( other );
+
+        assertTrue( getRecords( "example.com", RecordType.A ).isEmpty() );
+        assertEquals( 1, getRecords( "example.com", RecordType.MX ).size() );
+    }
+}
@@ -26,6 +26,8 @@ import java.util.Set;
 import javax.security.auth.kerberos.KerberosPrincipal;
 
 import org.apache.directory.server.constants.ServerDNConstants;
+import org.apache.directory.server.kerberos.kdc.PrincipalCache;
+import org.apache.directory.server.kerberos.shared.replay.BucketedReplayCache;
 import org.apache.directory.shared.kerberos.KerberosUtils;
 import org.apache.directory.shared.kerberos.codec.types.EncryptionType;
 import org.apache.directory.shared.kerberos.codec.types.PrincipalNameType;
@@ -127,6 +129,21 @@ public class KerberosConfig
 
     private String searchBaseDn;
 
+    /** The file storing the replay cache, null if it's only kept in memory */
+    private String replayCacheFile;
+
+    /** The number of authenticators the replay cache file can store */
+    private int replayCacheCapacity = BucketedReplayCache.DEFAULT_CAPACITY;
+
+    /** The maximum number of principals kept in the principal cache, 0 to disable it */
+    private int principalCacheSize = PrincipalCache.DEFAULT_CACHE_SIZE;
+
+    /** The time to live of the cached principals, in ms. 0 means they never expire */
+    private long principalCacheTtl = PrincipalCache.DEFAULT_TTL;
+
+    /** The time to live of the cached unknown principals, in ms. 0 means they are not cached */
+    private long principalCacheNegativeTtl = PrincipalCache.DEFAULT_NEGATIVE_TTL;
+
 
     public KerberosConfig()
     {
@@ -431,6 +448,100 @@ public class KerberosConfig
     }
 
 
+    /**
+     * @return The file storing the replay cache, null if it's only kept in memory
+     */
+    public String getReplayCacheFile()
+    {
+        return replayCacheFile;
+    }
+
+
+    /**
+     * @param replayCacheFile The file storing the replay cache, so that it survives a restart
+     */
+    public void setReplayCacheFile( String replayCacheFile )
+    {
+        this.replayCacheFile = replayCacheFile;
+    }
+
+
+    /**
+     * @return The number of authenticators the replay cache file can store
+     */
+    public int getReplayCacheCapacity()
+    {
+        return replayCacheCapacity;
+    }
+
+
+    /**
+     * @param replayCacheCapacity The number of authenticators the replay cache file can store. It
+     * must cover the authenticators received during twice the allowable clock skew
+     */
+    public void setReplayCacheCapacity( int replayCacheCapacity )
+    {
+        this.replayCacheCapacity = replayCacheCapacity;
+    }
+
+
+    /**
+     * @return The maximum number of principals kept in the principal cache
+     */
+    public int getPrincipalCacheSize()
+    {
+        return principalCacheSize;
+    }
+
+
+    /**
+     * @param principalCacheSize The maximum number of principals kept in the principal cache,
+     * 0 to search the directory for each request
+     */
+    public void setPrincipalCacheSize( int principalCacheSize )
+    {
+        this.principalCacheSize = principalCacheSize;
+    }
+
+
+    /**
+     * @return The time to live of the cached principals, in ms
+     */
+    public long getPrincipalCacheTtl()
+    {
+        return principalCacheTtl;
+    }
+
+
+    /**
+     * @param principalCacheTtl The time to live of the cached principals, in ms. 0 means they
+     * are only removed when their entry changes
+     */
+    public void setPrincipalCacheTtl( long principalCacheTtl )
+    {
+        this.principalCacheTtl = principalCacheTtl;
+    }
+
+
+    /**
+     * @return The time to live of the cached unknown principals, in ms
+     */
+    public long getPrincipalCacheNegativeTtl()
+    {
+        return principalCacheNegativeTtl;
+    }
+
+
+    /**
+     * @param principalCacheNegativeTtl The time to live of the cached unknown principals, in ms.
+     * 0 means they are not cached
+     */
+    public void setPrincipalCacheNegativeTtl( long principalCacheNegativeTtl )
+    {
+        this.principalCacheNegativeTtl = principalCacheNegativeTtl;
+    }
+
+
     /**
      * Construct an HashSet containing the default encryption types
      */
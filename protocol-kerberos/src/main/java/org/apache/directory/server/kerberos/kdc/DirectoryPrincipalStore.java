@@ -62,6 +62,9 @@ public class DirectoryPrincipalStore implements PrincipalStore
 
     private CoreSession adminSession;
 
+    /** The cache of the decoded principals, null if the directory is searched for each request */
+    private final PrincipalCache principalCache;
+
 
     /**
      * Creates a new instance of DirectoryPrincipalStore.
@@ -69,10 +72,35 @@ public class DirectoryPrincipalStore implements PrincipalStore
      * @param directoryService backing store for this PrincipalStore
      */
     public DirectoryPrincipalStore( DirectoryService directoryService, Dn searchBaseDn )
+    {
+        this( directoryService, searchBaseDn, null );
+    }
+
+
+    /**
+     * Creates a new instance of DirectoryPrincipalStore, keeping the principals in a cache.
+     * The cache listener must be registered on the directory service, so that the modified
+     * principals are removed from the cache.
+     *
+     * @param directoryService backing store for this PrincipalStore
+     * @param searchBaseDn The base of the principals
+     * @param principalCache The principal cache, or null to search the directory for each request
+     */
+    public DirectoryPrincipalStore( DirectoryService directoryService, Dn searchBaseDn, PrincipalCache principalCache )
     {
         this.directoryService = directoryService;
         this.adminSession = directoryService.getAdminSession();
         this.searchBaseDn = searchBaseDn;
+        this.principalCache = principalCache;
+    }
+
+
+    /**
+     * @return The principal cache, null if the principals are not cached
+     */
+    public PrincipalCache getPrincipalCache()
+    {
+        return principalCache;
     }
 
 
@@ -135,6 +163,12 @@ public class DirectoryPrincipalStore implements PrincipalStore
             Entry forPrincipalEntry = StoreUtils.findPrincipalEntry( bySession, searchBaseDn, forPrincipal.getName() );
 
             adminSession.modify( forPrincipalEntry.getDn(), passwordMod, principalMod );
+
+            if ( principalCache != null )
+            {
+                // The listener has already done it, unless the principal name was not stored
+                principalCache.invalidate( forPrincipal.getName() );
+            }
         }
         catch ( LdapException e )
         {
@@ -152,6 +186,25 @@ public class DirectoryPrincipalStore implements PrincipalStore
      */
     public PrincipalStoreEntry getPrincipal( KerberosPrincipal principal ) throws Exception
     {
-        return ( PrincipalStoreEntry ) new GetPrincipal( principal ).execute( adminSession, searchBaseDn );
+        if ( ( principalCache == null ) || ( principal == null ) )
+        {
+            return ( PrincipalStoreEntry ) new GetPrincipal( principal ).execute( adminSession, searchBaseDn );
+        }
+
+        String name = principal.getName();
+        PrincipalCache.Element element = principalCache.get( name );
+
+        if ( element != null )
+        {
+            return element.getEntry();
+        }
+
+        // Read the generation before searching, an invalidation during the search will prevent caching
+        long generation = principalCache.getGeneration();
+        PrincipalStoreEntry entry = ( PrincipalStoreEntry ) new GetPrincipal( principal ).execute( adminSession,
+            searchBaseDn );
+        principalCache.put( name, entry, generation );
+
+        return entry;
     }
 }
@@ -20,9 +20,9 @@
 package org.apache.directory.server.kerberos.kdc;
 
 
+import java.io.File;
 import java.io.IOException;
 
-import net.sf.ehcache.Cache;
 
 import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
 import org.apache.directory.api.ldap.model.name.Dn;
@@ -30,8 +30,8 @@ import org.apache.directory.server.kerberos.KerberosConfig;
 import org.apache.directory.server.kerberos.changepwd.ChangePasswordServer;
 import org.apache.directory.server.kerberos.protocol.KerberosProtocolHandler;
 import org.apache.directory.server.kerberos.protocol.codec.KerberosProtocolCodecFactory;
+import org.apache.directory.server.kerberos.shared.replay.BucketedReplayCache;
 import org.apache.directory.server.kerberos.shared.replay.ReplayCache;
-import org.apache.directory.server.kerberos.shared.replay.ReplayCacheImpl;
 import org.apache.directory.server.kerberos.shared.store.PrincipalStore;
 import org.apache.directory.server.protocol.shared.DirectoryBackedService;
 import org.apache.directory.server.protocol.shared.transport.TcpTransport;
@@ -67,6 +67,9 @@ public class KdcServer extends DirectoryBackedService
 
     private ChangePasswordServer changePwdServer;
 
+    /** The cache of the principals read from the directory */
+    private PrincipalCache principalCache;
+
 
     /**
      * Creates a new instance of KdcServer with the default configuration.
@@ -100,19 +103,53 @@ public class KdcServer extends DirectoryBackedService
     }
 
 
+    /**
+     * @return the principal cache, null if the principals are not cached
+     */
+    public PrincipalCache getPrincipalCache()
+    {
+        return principalCache;
+    }
+
+
     /**
      * @throws IOException if we cannot bind to the sockets
      */
     public void start() throws IOException, LdapInvalidDnException
     {
         PrincipalStore store;
+        Dn searchBaseDn = new Dn( this.getSearchBaseDn() );
+
+        if ( config.getPrincipalCacheSize() > 0 )
+        {
+            principalCache = new PrincipalCache( config.getPrincipalCacheSize(), config.getPrincipalCacheTtl(),
+                config.getPrincipalCacheNegativeTtl() );
+
+            try
+            {
+                principalCache.register( getDirectoryService(), searchBaseDn );
+            }
+            catch ( Exception e )
+            {
+                // Without the listener, the cache could return a stale key
+                LOG.warn( "Cannot listen to the changes below {}, the principals won't be cached", searchBaseDn, e );
+                principalCache = null;
+            }
+        }
 
-        store = new DirectoryPrincipalStore( getDirectoryService(), new Dn( this.getSearchBaseDn() ) );
+        store = new DirectoryPrincipalStore( getDirectoryService(), searchBaseDn, principalCache );
 
         LOG.debug( "initializing the kerberos replay cache" );
 
-        Cache cache = getDirectoryService().getCacheService().getCache( "kdcReplayCache" );
-        replayCache = new ReplayCacheImpl( cache, config.getAllowableClockSkew() );
+        if ( config.getReplayCacheFile() == null )
+        {
+            replayCache = new BucketedReplayCache( config.getAllowableClockSkew() );
+        }
+        else
+        {
+            replayCache = new BucketedReplayCache( config.getAllowableClockSkew(),
+                new File( config.getReplayCacheFile() ), config.getReplayCacheCapacity() );
+        }
 
         // Kerberos can use UDP or TCP
         for ( Transport transport : transports )
@@ -172,7 +209,25 @@ public class KdcServer extends DirectoryBackedService
             }
         }
 
-        if ( replayCache != null )
+        if ( principalCache != null )
+        {
+            principalCache.unregister();
+            principalCache = null;
+        }
+
+        if ( replayCache instanceof BucketedReplayCache )
+        {
+            // Keep the persisted authenticators for the next start
+            try
+            {
+                ( ( BucketedReplayCache ) replayCache ).close();
+            }
+            catch ( IOException ioe )
+            {
+                LOG.warn( "Cannot close the replay cache", ioe );
+            }
+        }
+        else if ( replayCache != null )
         {
             replayCache.clear();
         }
@@ -0,0 +1,433 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.kerberos.kdc;
+
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.event.DirectoryListenerAdapter;
+import org.apache.directory.server.core.api.event.EventType;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.kerberos.shared.store.PrincipalStoreEntry;
+import org.apache.directory.shared.kerberos.KerberosAttribute;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A cache of the decoded principals read by the {@link DirectoryPrincipalStore}, so that
+ * the KDC does not search the directory and decode the keys for each request. The unknown
+ * principals are cached too, for a shorter time.
+ * <br>
+ * The cache listens to the changes done on the entries below the search base, and removes
+ * the principals of the modified entries. The listener is synchronous, so that a changed
+ * key is used as soon as the modification is done.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PrincipalCache
+{
+    private static final Logger LOG = LoggerFactory.getLogger( PrincipalCache.class );
+
+    /** The default maximum number of principals in the cache */
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
+    /** The default time to live of the known principals, in ms. 0 means they never expire */
+    public static final long DEFAULT_TTL = 0L;
+
+    /** The default time to live of the unknown principals, in ms */
+    public static final long DEFAULT_NEGATIVE_TTL = 60000L;
+
+    /** The cached principals, by name */
+    private final ConcurrentMap<String, Element> elements = new ConcurrentHashMap<String, Element>();
+
+    /** The maximum number of principals in the cache */
+    private final int maxSize;
+
+    /** The time to live of the known principals */
+    private final long ttl;
+
+    /** The time to live of the unknown principals */
+    private final long negativeTtl;
+
+    /** Incremented on each invalidation, so that a principal read before is not cached */
+    private final AtomicLong generation = new AtomicLong();
+
+    /** The listener removing the modified principals */
+    private final PrincipalListener listener = new PrincipalListener();
+
+    /** The directory service the listener is registered on */
+    private DirectoryService directoryService;
+
+    /** The number of known principals found in the cache */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /** The number of unknown principals found in the cache */
+    private final AtomicLong negativeHitCount = new AtomicLong();
+
+    /** The number of principals which had to be searched */
+    private final AtomicLong missCount = new AtomicLong();
+
+    /** The number of principals removed because of a change */
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+
+    /**
+     * A cached principal
+     */
+    public static final class Element
+    {
+        /** The principal, null if it does not exist */
+        private final PrincipalStoreEntry entry;
+
+        /** The date after which the element must not be used */
+        private final long expiration;
+
+
+        private Element( PrincipalStoreEntry entry, long expiration )
+        {
+            this.entry = entry;
+            this.expiration = expiration;
+        }
+
+
+        /**
+         * @return The principal, or null if it does not exist
+         */
+        public PrincipalStoreEntry getEntry()
+        {
+            return entry;
+        }
+    }
+
+
+    /**
+     * Removes the principals of the modified entries from the cache
+     */
+    private class PrincipalListener extends DirectoryListenerAdapter
+    {
+        @Override
+        public boolean isSynchronous()
+        {
+            return true;
+        }
+
+
+        @Override
+        public void entryAdded( AddOperationContext addContext )
+        {
+            // Remove the unknown principal
+            invalidate( addContext.getEntry() );
+        }
+
+
+        @Override
+        public void entryDeleted( DeleteOperationContext deleteContext )
+        {
+            invalidate( deleteContext.getEntry() );
+        }
+
+
+        @Override
+        public void entryModified( ModifyOperationContext modifyContext )
+        {
+            invalidate( modifyContext.getEntry() );
+            invalidate( modifyContext.getAlteredEntry() );
+        }
+
+
+        @Override
+        public void entryRenamed( RenameOperationContext renameContext )
+        {
+            // The principal Dn has changed
+            clear();
+        }
+
+
+        @Override
+        public void entryMoved( MoveOperationContext moveContext )
+        {
+            clear();
+        }
+
+
+        @Override
+        public void entryMovedAndRenamed( MoveAndRenameOperationContext moveAndRenameContext )
+        {
+            clear();
+        }
+    }
+
+
+    /**
+     * Creates a new instance of PrincipalCache.
+     *
+     * @param maxSize The maximum number of principals in the cache
+     * @param ttl The time to live of the known principals, in ms. 0 means they never expire
+     * @param negativeTtl The time to live of the unknown principals, in ms. 0 means they are not cached
+     */
+    public PrincipalCache( int maxSize, long ttl, long negativeTtl )
+    {
+        this.maxSize = maxSize > 0 ? maxSize : DEFAULT_CACHE_SIZE;
+        this.ttl = ttl;
+        this.negativeTtl = negativeTtl;
+    }
+
+
+    /**
+     * Registers the listener invalidating the principals below a base Dn.
+     *
+     * @param directoryService The directory service
+     * @param searchBaseDn The base of the principals
+     * @throws Exception If the listener can't be registered
+     */
+    public void register( DirectoryService directoryService, Dn searchBaseDn ) throws Exception
+    {
+        NotificationCriteria criteria = new NotificationCriteria();
+        criteria.setBase( searchBaseDn );
+        criteria.setEventMask( EventType.ALL_EVENT_TYPES_MASK );
+        criteria.setFilter( new PresenceNode( SchemaConstants.OBJECT_CLASS_AT ) );
+        criteria.setScope( SearchScope.SUBTREE );
+
+        directoryService.getEventService().addListener( listener, criteria );
+        this.directoryService = directoryService;
+    }
+
+
+    /**
+     * Unregisters the listener, and empties the cache.
+     */
+    public void unregister()
+    {
+        if ( directoryService != null )
+        {
+            directoryService.getEventService().removeListener( listener );
+            directoryService = null;
+        }
+
+        clear();
+    }
+
+
+    /**
+     * @return The current time, in milliseconds. Overridden by the tests to control the clock
+     */
+    long currentTimeMillis()
+    {
+        return System.currentTimeMillis();
+    }
+
+
+    /**
+     * Gets a principal from the cache.
+     *
+     * @param name The principal name
+     * @return The cached element, or null if the principal has to be searched
+     */
+    public Element get( String name )
+    {
+        Element element = elements.get( name );
+
+        if ( ( element != null ) && ( element.expiration > 0 ) && ( currentTimeMillis() >= element.expiration ) )
+        {
+            elements.remove( name, element );
+            element = null;
+        }
+
+        if ( element == null )
+        {
+            missCount.incrementAndGet();
+        }
+        else if ( element.entry == null )
+        {
+            negativeHitCount.incrementAndGet();
+        }
+        else
+        {
+            hitCount.incrementAndGet();
+        }
+
+        return element;
+    }
+
+
+    /**
+     * @return The current generation, to be read before searching a principal
+     */
+    public long getGeneration()
+    {
+        return generation.get();
+    }
+
+
+    /**
+     * Stores a principal read from the directory, unless a principal has been invalidated
+     * since the search has started.
+     *
+     * @param name The principal name
+     * @param entry The principal, or null if it does not exist
+     * @param searchGeneration The generation read before the search
+     */
+    public void put( String name, PrincipalStoreEntry entry, long searchGeneration )
+    {
+        long timeToLive = ( entry == null ) ? negativeTtl : ttl;
+
+        if ( ( entry == null ) && ( negativeTtl <= 0 ) )
+        {
+            return;
+        }
+
+        if ( elements.size() >= maxSize )
+        {
+            // Make some room, the evicted principal will be searched again
+            Iterator<String> names = elements.keySet().iterator();
+
+            if ( names.hasNext() )
+            {
+                names.next();
+                names.remove();
+            }
+        }
+
+        long expiration = timeToLive > 0 ? currentTimeMillis() + timeToLive : 0L;
+        elements.put( name, new Element( entry, expiration ) );
+
+        if ( generation.get() != searchGeneration )
+        {
+            // The principal may have changed during the search
+            elements.remove( name );
+        }
+    }
+
+
+    /**
+     * Removes the principals stored in an entry
+     *
+     * @param entry The modified entry
+     */
+    private void invalidate( Entry entry )
+    {
+        if ( entry == null )
+        {
+            return;
+        }
+
+        Attribute principalNames = entry.get( KerberosAttribute.KRB5_PRINCIPAL_NAME_AT );
+
+        if ( principalNames == null )
+        {
+            return;
+        }
+
+        for ( Value<?> principalName : principalNames )
+        {
+            invalidate( principalName.getString() );
+        }
+    }
+
+
+    /**
+     * Removes a principal from the cache.
+     *
+     * @param name The principal name
+     */
+    public void invalidate( String name )
+    {
+        generation.incrementAndGet();
+
+        if ( elements.remove( name ) != null )
+        {
+            invalidationCount.incrementAndGet();
+            LOG.debug( "Removed the principal {} from the cache", name );
+        }
+    }
+
+
+    /**
+     * Removes all the principals from the cache.
+     */
+    public void clear()
+    {
+        generation.incrementAndGet();
+        elements.clear();
+    }
+
+
+    /**
+     * @return The number of principals in the cache
+     */
+    public int size()
+    {
+        return elements.size();
+    }
+
+
+    /**
+     * @return The number of known principals found in the cache
+     */
+    public long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+
+    /**
+     * @return The number of unknown principals found in the cache
+     */
+    public long getNegativeHitCount()
+    {
+        return negativeHitCount.get();
+    }
+
+
+    /**
+     * @return The number of principals which had to be searched in the directory
+     */
+    public long getMissCount()
+    {
+        return missCount.get();
+    }
+
+
+    /**
+     * @return The number of principals removed from the cache because their entry has changed
+     */
+    public long getInvalidationCount()
+    {
+        return invalidationCount.get();
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.kerberos.kdc;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.security.auth.kerberos.KerberosPrincipal;
+
+import org.apache.directory.server.kerberos.shared.store.PrincipalStoreEntry;
+import org.apache.directory.server.kerberos.shared.store.PrincipalStoreEntryModifier;
+import org.junit.Test;
+
+
+/**
+ * Test the PrincipalCache class
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PrincipalCacheTest
+{
+    private static final String PRINCIPAL_NAME = "hnelson@EXAMPLE.COM";
+
+
+    private static PrincipalStoreEntry getEntry( String principalName )
+    {
+        PrincipalStoreEntryModifier modifier = new PrincipalStoreEntryModifier();
+        modifier.setPrincipal( new KerberosPrincipal( principalName ) );
+
+        return modifier.getEntry();
+    }
+
+
+    @Test
+    public void testCachedPrincipal()
+    {
+        PrincipalCache cache = new PrincipalCache( 100, 0L, 0L );
+        PrincipalStoreEntry entry = getEntry( PRINCIPAL_NAME );
+
+        assertNull( cache.get( PRINCIPAL_NAME ) );
+
+        cache.put( PRINCIPAL_NAME, entry, cache.getGeneration() );
+
+        assertSame( entry, cache.get( PRINCIPAL_NAME ).getEntry() );
+        assertEquals( 1, cache.getHitCount() );
+        assertEquals( 1, cache.getMissCount() );
+
+        cache.invalidate( PRINCIPAL_NAME );
+
+        assertNull( cache.get( PRINCIPAL_NAME ) );
+        assertEquals( 1, cache.getInvalidationCount() );
+    }
+
+
+    /**
+     * Creates a cache reading the time from the given clock
+     */
+    private static PrincipalCache createCache( long ttl, long negativeTtl, final AtomicLong clock )
+    {
+        return new PrincipalCache( 100, ttl, negativeTtl )
+        {
+            long currentTimeMillis()
+            {
+                return clock.get();
+            }
+        };
+    }
+
+
+    @Test
+    public void testExpiredPrincipal()
+    {
+        AtomicLong clock = new AtomicLong( 1000000L );
+        PrincipalCache cache = createCache( 100L, 10L, clock );
+        PrincipalStoreEntry entry = getEntry( PRINCIPAL_NAME );
+
+        cache.put( PRINCIPAL_NAME, entry, cache.getGeneration() );
+
+        clock.addAndGet( 99L );
+        assertSame( entry, cache.get( PRINCIPAL_NAME ).getEntry() );
+
+        // The known principals don't use the negative TTL
+        clock.addAndGet( 1L );
+        assertNull( cache.get( PRINCIPAL_NAME ) );
+        assertEquals( 0, cache.size() );
+    }
+
+
+    @Test
+    public void testUnknownPrincipal()
+    {
+        AtomicLong clock = new AtomicLong( 1000000L );
+        PrincipalCache cache = createCache( 0L, 10L, clock );
+
+        cache.put( PRINCIPAL_NAME, null, cache.getGeneration() );
+
+        PrincipalCache.Element element = cache.get( PRINCIPAL_NAME );
+        assertNotNull( element );
+        assertNull( element.getEntry() );
+        assertEquals( 1, cache.getNegativeHitCount() );
+
+        // Still cached just before the negative TTL
+        clock.addAndGet( 9L );
+        assertNotNull( cache.get( PRINCIPAL_NAME ) );
+
+        clock.addAndGet( 1L );
+        assertNull( cache.get( PRINCIPAL_NAME ) );
+
+        // The unknown principals are not cached when the negative TTL is 0
+        cache = new PrincipalCache( 100, 0L, 0L );
+        cache.put( PRINCIPAL_NAME, null, cache.getGeneration() );
+
+        assertNull( cache.get( PRINCIPAL_NAME ) );
+    }
+
+
+    @Test
+    public void testInvalidationDuringSearch()
+    {
+        PrincipalCache cache = new PrincipalCache( 100, 0L, 0L );
+        long generation = cache.getGeneration();
+
+        // The principal is modified while it is searched
+        cache.invalidate( PRINCIPAL_NAME );
+        cache.put( PRINCIPAL_NAME, getEntry( PRINCIPAL_NAME ), generation );
+
+        assertNull( cache.get( PRINCIPAL_NAME ) );
+    }
+
+
+    @Test
+    public void testMaxSize()
+    {
+        PrincipalCache cache = new PrincipalCache( 10, 0L, 0L );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            String name = "user" + i + "@EXAMPLE.COM";
+            cache.put( name, getEntry( name ), cache.getGeneration() );
+        }
+
+        assertEquals( 10, cache.size() );
+    }
+}
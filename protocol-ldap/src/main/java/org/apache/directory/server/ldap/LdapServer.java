@@ -64,6 +64,8 @@ import org.apache.directory.api.ldap.model.message.UnbindRequest;
 import org.apache.directory.api.ldap.model.message.extended.NoticeOfDisconnect;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.metrics.MetricsRegistry;
+import org.apache.directory.server.core.api.metrics.MetricsSource;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.core.security.CoreKeyStoreSpi;
 import org.apache.directory.server.i18n.I18n;
@@ -258,6 +260,50 @@ public class LdapServer extends DirectoryBackedService
     /** the time interval between subsequent pings to each replication provider */
     private int pingerSleepTime;
 
+    /** The source exposing the sessions and write queues metrics */
+    private final MetricsSource sessionMetrics = new SessionMetrics();
+
+
+    /**
+     * Exposes, for each TCP transport, the number of sessions and the number of messages
+     * and bytes waiting to be written to the clients.
+     */
+    private class SessionMetrics implements MetricsSource
+    {
+        /**
+         * {@inheritDoc}
+         */
+        public void collectMetrics( Map<String, Number> metrics )
+        {
+            for ( Transport transport : transports )
+            {
+                if ( !( transport instanceof TcpTransport ) || ( transport.getAcceptor() == null ) )
+                {
+                    continue;
+                }
+
+                SocketAcceptor acceptor = getSocketAcceptor( transport );
+                String prefix = "ldap." + transport.getPort() + ".";
+                long scheduledMessages = 0L;
+                long scheduledBytes = 0L;
+                long maxScheduledMessages = 0L;
+
+                for ( IoSession session : acceptor.getManagedSessions().values() )
+                {
+                    int sessionMessages = session.getScheduledWriteMessages();
+                    scheduledMessages += sessionMessages;
+                    scheduledBytes += session.getScheduledWriteBytes();
+                    maxScheduledMessages = Math.max( maxScheduledMessages, sessionMessages );
+                }
+
+                metrics.put( prefix + "sessions", acceptor.getManagedSessionCount() );
+                metrics.put( prefix + "scheduledWriteMessages", scheduledMessages );
+                metrics.put( prefix + "scheduledWriteBytes", scheduledBytes );
+                metrics.put( prefix + "maxScheduledWriteMessages", maxScheduledMessages );
+            }
+        }
+    }
+
     /** the list of cipher suites to be used in LDAPS and StartTLS */
     @Deprecated
     private List<String> enabledCipherSuites = new ArrayList<String>();
@@ -551,6 +597,13 @@ public class LdapServer extends DirectoryBackedService
         // these should be started only after starting the network see DIRSERVER-1894
         startReplicationConsumers();
 
+        MetricsRegistry metricsRegistry = getDirectoryService().getMetricsRegistry();
+
+        if ( metricsRegistry != null )
+        {
+            metricsRegistry.addSource( sessionMetrics );
+        }
+
         started = true;
 
         LOG.info( "Ldap service started." );
@@ -575,6 +628,11 @@ public class LdapServer extends DirectoryBackedService
      */
     public void stop()
     {
+        if ( ( getDirectoryService() != null ) && ( getDirectoryService().getMetricsRegistry() != null ) )
+        {
+            getDirectoryService().getMetricsRegistry().removeSource( sessionMetrics );
+        }
+
         try
         {
             for ( Transport transport : transports )
@@ -24,7 +24,10 @@ import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.message.AbandonListener;
 import org.apache.directory.api.ldap.model.message.AbandonableRequest;
+import org.apache.directory.api.ldap.model.message.LdapResult;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchResultDone;
 import org.apache.directory.api.ldap.model.message.SearchResultEntry;
 import org.apache.directory.api.ldap.model.message.SearchResultEntryImpl;
 import org.apache.directory.api.ldap.model.message.controls.ChangeType;
@@ -35,7 +38,7 @@ import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.entry.ServerEntryUtils;
-import org.apache.directory.server.core.api.event.DirectoryListener;
+import org.apache.directory.server.core.api.event.DisconnectableListener;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.ChangeOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
@@ -62,7 +65,7 @@ import org.slf4j.LoggerFactory;
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
-public class PersistentSearchListener implements DirectoryListener, AbandonListener
+public class PersistentSearchListener implements DisconnectableListener, AbandonListener
 {
     private static final Logger LOG = LoggerFactory.getLogger( PersistentSearchListener.class );
     final LdapSession session;
@@ -124,6 +127,24 @@ public class PersistentSearchListener implements DirectoryListener, AbandonListe
     }
 
 
+    /**
+     * The server could not send the changes fast enough : end the persistent search,
+     * so that the client knows it has to start again.
+     */
+    public void disconnected()
+    {
+        // The search is over, it can't be abandoned anymore
+        session.unregisterOutstandingRequest( req );
+
+        SearchResultDone done = ( SearchResultDone ) req.getResultResponse();
+        LdapResult ldapResult = done.getLdapResult();
+        ldapResult.setResultCode( ResultCodeEnum.ADMIN_LIMIT_EXCEEDED );
+        ldapResult.setDiagnosticMessage( "The persistent search could not keep up with the changes" );
+
+        session.getIoSession().write( done );
+    }
+
+
     private void setECResponseControl( SearchResultEntry response, ChangeOperationContext opContext, ChangeType type )
     {
         if ( psearchControl.isReturnECs() )
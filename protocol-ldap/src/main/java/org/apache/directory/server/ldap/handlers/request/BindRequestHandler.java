@@ -113,7 +113,7 @@ public class BindRequestHandler extends LdapRequestHandler<BindRequest>
         bindContext.setDn( bindRequest.getDn() );
         bindContext.setCredentials( bindRequest.getCredentials() );
         bindContext.setIoSession( ldapSession.getIoSession() );
-        bindContext.setInterceptors( directoryService.getInterceptors( OperationEnum.BIND ) );
+        bindContext.setInterceptorChain( directoryService.getInterceptorChain( OperationEnum.BIND ) );
 
         // Stores the request controls into the operation context
         LdapProtocolUtils.setRequestControls( bindContext, bindRequest );
@@ -178,7 +178,7 @@ public class BindRequestHandler extends LdapRequestHandler<BindRequest>
             // opContext.setEntry( principalEntry );
 
             // And call the OperationManager bind operation.
-            bindContext.setInterceptors( directoryService.getInterceptors( OperationEnum.BIND ) );
+            bindContext.setInterceptorChain( directoryService.getInterceptorChain( OperationEnum.BIND ) );
             directoryService.getOperationManager().bind( bindContext );
 
             // As a result, store the created session in the Core Session
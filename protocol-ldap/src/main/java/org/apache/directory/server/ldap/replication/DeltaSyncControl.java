@@ -0,0 +1,188 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.codec.api.CodecControl;
+import org.apache.directory.api.ldap.codec.api.LdapApiService;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.Control;
+import org.apache.directory.api.ldap.model.message.controls.OpaqueControl;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+
+
+/**
+ * The ApacheDS specific control used for the delta replication. A consumer adds it, with no
+ * value, to its syncrepl SearchRequest to tell the provider it accepts the modifications
+ * instead of the modified entries. The provider then sends the MODIFY changes as an entry
+ * only containing the Dn, the entryUUID and the entryCSN, with this control containing the
+ * modifications.
+ * <br>
+ * A provider which does not know this control ignores it, as it's not critical, and sends
+ * the whole entries.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class DeltaSyncControl
+{
+    /** The control OID */
+    public static final String OID = "1.3.6.1.4.1.18060.0.0.10";
+
+
+    private DeltaSyncControl()
+    {
+    }
+
+
+    /**
+     * @return The control a consumer adds to its SearchRequest
+     */
+    public static Control createRequestControl()
+    {
+        return new OpaqueControl( OID );
+    }
+
+
+    /**
+     * Creates the control sent with a MODIFY change.
+     *
+     * @param codec The LDAP codec
+     * @param modifications The modifications applied on the entry
+     * @return The control
+     * @throws IOException If the modifications can't be serialized
+     */
+    public static Control createResponseControl( LdapApiService codec, List<Modification> modifications )
+        throws IOException
+    {
+        CodecControl<? extends Control> control = codec.newControl( new OpaqueControl( OID ) );
+
+        try ( ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ObjectOutput out = new ObjectOutputStream( baos ) )
+        {
+            writeModifications( out, modifications );
+            out.flush();
+
+            control.setValue( baos.toByteArray() );
+        }
+
+        return control;
+    }
+
+
+    /**
+     * Reads the modifications sent with a MODIFY change.
+     *
+     * @param control The control received with the change
+     * @param schemaManager The SchemaManager instance
+     * @return The modifications
+     * @throws IOException If the modifications can't be deserialized
+     * @throws LdapException If a modified attribute does not exist in the schema
+     */
+    public static List<Modification> getModifications( Control control, SchemaManager schemaManager )
+        throws IOException, LdapException
+    {
+        byte[] value = ( ( CodecControl<?> ) control ).getValue();
+
+        try ( ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( value ) ) )
+        {
+            return readModifications( in, schemaManager );
+        }
+    }
+
+
+    /**
+     * Serializes a list of modifications : their number, -1 for a null list, followed
+     * by each modification.
+     *
+     * @param out The output
+     * @param modifications The modifications, or null
+     * @throws IOException If the modifications can't be written
+     */
+    public static void writeModifications( ObjectOutput out, List<Modification> modifications )
+        throws IOException
+    {
+        if ( modifications == null )
+        {
+            out.writeInt( -1 );
+
+            return;
+        }
+
+        out.writeInt( modifications.size() );
+
+        for ( Modification modification : modifications )
+        {
+            modification.writeExternal( out );
+        }
+    }
+
+
+    /**
+     * Deserializes a list of modifications written by {@link #writeModifications(ObjectOutput, List)}.
+     *
+     * @param in The input
+     * @param schemaManager The SchemaManager instance
+     * @return The modifications, or null
+     * @throws IOException If the modifications can't be read
+     * @throws LdapException If a modified attribute does not exist in the schema
+     */
+    public static List<Modification> readModifications( ObjectInput in, SchemaManager schemaManager )
+        throws IOException, LdapException
+    {
+        int nbModifications = in.readInt();
+
+        if ( nbModifications < 0 )
+        {
+            return null;
+        }
+
+        List<Modification> modifications = new ArrayList<Modification>( nbModifications );
+
+        for ( int i = 0; i < nbModifications; i++ )
+        {
+            Modification modification = new DefaultModification();
+
+            try
+            {
+                modification.readExternal( in );
+            }
+            catch ( ClassNotFoundException cnfe )
+            {
+                throw new IOException( cnfe.getMessage(), cnfe );
+            }
+
+            modifications.add( new DefaultModification( schemaManager, modification ) );
+        }
+
+        return modifications;
+    }
+}
@@ -21,15 +21,22 @@
 package org.apache.directory.server.ldap.replication;
 
 
+import java.util.List;
+
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.message.controls.ChangeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 
 
 /**
- * A place holder storing an Entry and the operation applied on it
+ * A place holder storing an Entry and the operation applied on it. A MODIFY may also be
+ * stored as a delta : the modifications, with an entry only containing the Dn, the
+ * entryUUID and the entryCSN.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -41,6 +48,9 @@ public class ReplicaEventMessage
     /** The entry */
     private Entry entry;
 
+    /** The modifications, for a delta MODIFY. null otherwise */
+    private List<Modification> modifications;
+
     /**
      * Create a new ReplicaEvent instance for a Add/Delete+Modify operation
      * @param changeType The change type
@@ -61,6 +71,38 @@ public class ReplicaEventMessage
     }
 
 
+    /**
+     * Create a new ReplicaEvent instance for a delta Modify operation
+     * @param entry The entry, containing at least the Dn, the entryUUID and the entryCSN
+     * @param modifications The modifications applied on the entry
+     */
+    public ReplicaEventMessage( Entry entry, List<Modification> modifications )
+    {
+        this( ChangeType.MODIFY, entry );
+        this.modifications = modifications;
+    }
+
+
+    /**
+     * Creates a delta Modify message from a modified entry.
+     *
+     * @param schemaManager The SchemaManager instance
+     * @param alteredEntry The entry, after the modification
+     * @param modifications The modifications applied on the entry
+     * @return The message
+     * @throws LdapException If the entry has no entryUUID or entryCSN
+     */
+    public static ReplicaEventMessage createDelta( SchemaManager schemaManager, Entry alteredEntry,
+        List<Modification> modifications ) throws LdapException
+    {
+        Entry entry = new DefaultEntry( schemaManager, alteredEntry.getDn() );
+        entry.add( alteredEntry.get( SchemaConstants.ENTRY_UUID_AT ).clone() );
+        entry.add( alteredEntry.get( SchemaConstants.ENTRY_CSN_AT ).clone() );
+
+        return new ReplicaEventMessage( entry, modifications );
+    }
+
+
     /**
      * @return The changeType
      */
@@ -79,6 +121,24 @@ public class ReplicaEventMessage
     }
 
 
+    /**
+     * @return The modifications of a delta Modify, or null
+     */
+    public List<Modification> getModifications()
+    {
+        return modifications;
+    }
+
+
+    /**
+     * @return true if the message only contains the modifications applied on the entry
+     */
+    public boolean isDelta()
+    {
+        return modifications != null;
+    }
+
+
     /**
      * checks if the event's CSN is older than the given CSN
      *
@@ -26,11 +26,14 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
+import java.util.List;
 
 import jdbm.helper.Serializer;
 
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.message.controls.ChangeType;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
@@ -44,6 +47,8 @@ import org.apache.directory.api.ldap.model.schema.SchemaManager;
  * <li>byte : EventType</li>
  * <li>byte[] : the serialized DN</li>
  * <li>byte[] : the serialized entry</li>
+ * <li>int : the number of modifications of a delta MODIFY, -1 otherwise</li>
+ * <li>byte[] : the serialized modifications</li>
  * </ul>
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
@@ -91,6 +96,9 @@ public class ReplicaEventMessageSerializer implements Serializer
             // The entry
             entry.writeExternal( out );
 
+            // The modifications, for a delta MODIFY
+            DeltaSyncControl.writeModifications( out, replicaEventMessage.getModifications() );
+
             out.flush();
 
             return baos.toByteArray();
@@ -126,13 +134,27 @@ public class ReplicaEventMessageSerializer implements Serializer
             entry.readExternal( in );
             entry.setDn( entryDn );
 
+            // The modifications, for a delta MODIFY
+            List<Modification> modifications = DeltaSyncControl.readModifications( in, schemaManager );
+
             // And create a ReplicaEventMessage
-            replicaEventMessage = new ReplicaEventMessage( changeType, entry );
+            if ( modifications != null )
+            {
+                replicaEventMessage = new ReplicaEventMessage( entry, modifications );
+            }
+            else
+            {
+                replicaEventMessage = new ReplicaEventMessage( changeType, entry );
+            }
         }
         catch ( ClassNotFoundException cnfe )
         {
             // there is nothing we can do here...
         }
+        catch ( LdapException le )
+        {
+            throw new IOException( le.getMessage(), le );
+        }
 
         return replicaEventMessage;
     }
@@ -58,6 +58,11 @@ import org.apache.directory.ldap.client.api.NoVerificationTrustManager;
  *   <li>useTls : the connection uses TLS, defaults to true</li>
  *   <li>strictCertVerification : strictly verify the certificate, defaults to true</li>
  *   <li>trustManager : the trustManager to use, defaults to @link{NoVerificationTrustManager}</li>
+ *   <li>deltaSync : receive the modifications instead of the modified entries, defaults to false</li>
+ *   <li>applyThreads : the number of threads applying the received changes, defaults to the number
+ *   of processors, up to 4</li>
+ *   <li>cookieCheckpointInterval : the maximal delay between two cookie updates while changes are
+ *   being applied, defaults to 1s</li>
  *   <li></li>
  * </ul>
  * 
@@ -133,6 +138,15 @@ public class SyncReplConfiguration implements ReplicationConsumerConfig
     /** flag to indicate if this node is part of a MMR setup, default value is true */
     private boolean mmrMode = true;
 
+    /** flag to receive the modifications instead of the modified entries, default is false */
+    private boolean deltaSync = false;
+
+    /** the number of threads applying the received changes */
+    private int applyThreads = Math.min( 4, Runtime.getRuntime().availableProcessors() );
+
+    /** the maximal delay between two cookie updates, default is 1s */
+    private long cookieCheckpointInterval = 1000L;
+
 
     /**
      * Creates a new instance of SyncreplConfiguration
@@ -580,6 +594,75 @@ public class SyncReplConfiguration implements ReplicationConsumerConfig
     }
 
 
+    /**
+     * @return true if the consumer receives the modifications instead of the modified entries
+     */
+    public boolean isDeltaSync()
+    {
+        return deltaSync;
+    }
+
+
+    /**
+     * Tells the provider to send the modifications applied on an entry instead of the
+     * whole modified entry. The entries are still sent whole during a refresh.
+     *
+     * @param deltaSync true to receive the modifications
+     */
+    public void setDeltaSync( boolean deltaSync )
+    {
+        this.deltaSync = deltaSync;
+    }
+
+
+    /**
+     * @return the number of threads applying the received changes
+     */
+    public int getApplyThreads()
+    {
+        return applyThreads;
+    }
+
+
+    /**
+     * Sets the number of threads applying the received changes. The changes made on
+     * a given entry are always applied by the same thread, in the order they are received.
+     *
+     * @param applyThreads the number of threads
+     */
+    public void setApplyThreads( int applyThreads )
+    {
+        if ( applyThreads <= 0 )
+        {
+            throw new IllegalArgumentException( "the number of apply threads should be more than zero" );
+        }
+
+        this.applyThreads = applyThreads;
+    }
+
+
+    /**
+     * @return the maximal delay between two cookie updates, in milliseconds
+     */
+    public long getCookieCheckpointInterval()
+    {
+        return cookieCheckpointInterval;
+    }
+
+
+    /**
+     * Sets the maximal delay between two updates of the stored cookie while changes are
+     * being applied. The cookie is always stored once all the received changes have been
+     * applied.
+     *
+     * @param cookieCheckpointInterval the delay, in milliseconds
+     */
+    public void setCookieCheckpointInterval( long cookieCheckpointInterval )
+    {
+        this.cookieCheckpointInterval = cookieCheckpointInterval;
+    }
+
+
     public String toString()
     {
         StringBuilder sb = new StringBuilder();
@@ -633,6 +716,13 @@ public class SyncReplConfiguration implements ReplicationConsumerConfig
             sb.append( "MS, " );
         }
 
+        if ( deltaSync )
+        {
+            sb.append( "delta, " );
+        }
+
+        sb.append( "threads:" ).append( applyThreads ).append( ", " );
+
         sb.append( "provider:" ).append( producer ).append( ", " );
         sb.append( "user:'" ).append( replUserDn ).append( "', " );
 
@@ -0,0 +1,375 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.consumer;
+
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The pipeline applying the changes received by a consumer. The changes are decoded by the
+ * thread reading the provider responses, and applied by a set of workers. A change is given
+ * to the worker selected by the hash of its entryUUID, so the changes of an entry are applied
+ * in the order they have been received. An added entry waits for the pending addition of its
+ * parent, if any. The changes impacting more than one entry have to be applied once the
+ * pipeline is idle, see {@link #awaitIdle()}.
+ * <br>
+ * The cookie of a change can only be stored once all the previous changes have been applied.
+ * The pipeline keeps track of the applied cookie, which is read by {@link #getAppliedCookie()},
+ * and runs the checkpoint task when the pipeline becomes idle, or at most once every checkpoint
+ * interval otherwise.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class ReplicationApplyPipeline
+{
+    /** A dedicated logger for the consumer */
+    private static final Logger CONSUMER_LOG = LoggerFactory.getLogger( Loggers.CONSUMER_LOG.getName() );
+
+    /** The number of changes a worker can have in its queue */
+    private static final int QUEUE_SIZE = 1000;
+
+    /** The workers queues */
+    private final BlockingQueue<ApplyTask>[] queues;
+
+    /** The workers */
+    private final Thread[] workers;
+
+    /** The task storing the applied cookie */
+    private final Runnable checkpointTask;
+
+    /** The minimal delay between two checkpoints, in milliseconds */
+    private final long checkpointInterval;
+
+    /** The sequence number of the last submitted change. Only written by the submitting thread */
+    private volatile long submittedSeq;
+
+    /** The changes being applied */
+    private final ConcurrentSkipListSet<Long> inFlight = new ConcurrentSkipListSet<Long>();
+
+    /** The cookies of the changes, by sequence number */
+    private final ConcurrentSkipListMap<Long, byte[]> cookies = new ConcurrentSkipListMap<Long, byte[]>();
+
+    /** The entries being added, and the latches released once they have been added */
+    private final ConcurrentMap<Dn, CountDownLatch> pendingAdds = new ConcurrentHashMap<Dn, CountDownLatch>();
+
+    /** The date of the last checkpoint */
+    private volatile long lastCheckpoint = System.currentTimeMillis();
+
+    /** A flag set when the pipeline is stopped */
+    private volatile boolean stopped;
+
+    /**
+     * A change to apply
+     */
+    private static final class ApplyTask
+    {
+        /** The change sequence number */
+        private final long seq;
+
+        /** The Dn of the added entry, or null */
+        private final Dn addedDn;
+
+        /** The Dn of the entry which has to exist before the change is applied, or null */
+        private final Dn parentDn;
+
+        /** The change. It returns false if it failed */
+        private final Callable<Boolean> change;
+
+        /** The latch released once the entry has been added */
+        private final CountDownLatch added;
+
+
+        private ApplyTask( long seq, Dn addedDn, Dn parentDn, Callable<Boolean> change, CountDownLatch added )
+        {
+            this.seq = seq;
+            this.addedDn = addedDn;
+            this.parentDn = parentDn;
+            this.change = change;
+            this.added = added;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of ReplicationApplyPipeline, and starts its workers.
+     *
+     * @param name The pipeline name, used to name the workers
+     * @param nbWorkers The number of workers
+     * @param checkpointInterval The minimal delay between two checkpoints, in milliseconds
+     * @param checkpointTask The task storing the applied cookie
+     */
+    @SuppressWarnings("unchecked")
+    ReplicationApplyPipeline( String name, int nbWorkers, long checkpointInterval, Runnable checkpointTask )
+    {
+        this.checkpointInterval = checkpointInterval;
+        this.checkpointTask = checkpointTask;
+
+        int size = Math.max( 1, nbWorkers );
+        queues = new BlockingQueue[size];
+        workers = new Thread[size];
+
+        for ( int i = 0; i < size; i++ )
+        {
+            final BlockingQueue<ApplyTask> queue = new ArrayBlockingQueue<ApplyTask>( QUEUE_SIZE );
+            queues[i] = queue;
+
+            workers[i] = new Thread( new Runnable()
+            {
+                public void run()
+                {
+                    work( queue );
+                }
+            }, name + "-" + i );
+
+            workers[i].setDaemon( true );
+            workers[i].start();
+        }
+    }
+
+
+    /**
+     * Submits a change. It blocks if the worker queue is full. The change is ignored if the
+     * pipeline has been stopped.
+     *
+     * @param entryUuid The UUID of the changed entry
+     * @param addedDn The Dn of the entry, if it's added
+     * @param change The change. It returns false if it failed, in this case its cookie is not stored
+     * @param cookie The cookie received with the change, or null
+     * @throws InterruptedException If the thread is interrupted while waiting for the worker
+     */
+    void submit( String entryUuid, Dn addedDn, Callable<Boolean> change, byte[] cookie )
+        throws InterruptedException
+    {
+        if ( stopped )
+        {
+            return;
+        }
+
+        long seq = submittedSeq + 1;
+        CountDownLatch added = null;
+        Dn parentDn = null;
+
+        if ( addedDn != null )
+        {
+            added = new CountDownLatch( 1 );
+            pendingAdds.put( addedDn, added );
+            parentDn = addedDn.getParent();
+        }
+
+        inFlight.add( seq );
+
+        if ( cookie != null )
+        {
+            cookies.put( seq, cookie );
+        }
+
+        submittedSeq = seq;
+
+        int worker = ( entryUuid.hashCode() & Integer.MAX_VALUE ) % queues.length;
+        queues[worker].put( new ApplyTask( seq, addedDn, parentDn, change, added ) );
+    }
+
+
+    private void work( BlockingQueue<ApplyTask> queue )
+    {
+        while ( !stopped )
+        {
+            ApplyTask task;
+
+            try
+            {
+                task = queue.take();
+            }
+            catch ( InterruptedException ie )
+            {
+                break;
+            }
+
+            boolean applied = false;
+
+            try
+            {
+                if ( task.parentDn != null )
+                {
+                    CountDownLatch parentAdded = pendingAdds.get( task.parentDn );
+
+                    // The parent has been submitted before this entry, and can't wait for it
+                    if ( parentAdded != null )
+                    {
+                        parentAdded.await();
+                    }
+                }
+
+                applied = task.change.call();
+            }
+            catch ( InterruptedException ie )
+            {
+                break;
+            }
+            catch ( Exception e )
+            {
+                CONSUMER_LOG.error( "Failed to apply a replicated change", e );
+            }
+            finally
+            {
+                done( task, applied );
+            }
+        }
+    }
+
+
+    /**
+     * Marks a change as applied, and runs a checkpoint if it's time to
+     */
+    private void done( ApplyTask task, boolean applied )
+    {
+        if ( task.added != null )
+        {
+            pendingAdds.remove( task.addedDn, task.added );
+            task.added.countDown();
+        }
+
+        if ( !applied )
+        {
+            cookies.remove( task.seq );
+        }
+
+        boolean idle;
+
+        synchronized ( this )
+        {
+            inFlight.remove( task.seq );
+            idle = inFlight.isEmpty();
+
+            if ( idle )
+            {
+                notifyAll();
+            }
+        }
+
+        if ( idle || ( System.currentTimeMillis() - lastCheckpoint >= checkpointInterval ) )
+        {
+            checkpoint();
+        }
+    }
+
+
+    /**
+     * Runs the checkpoint task
+     */
+    void checkpoint()
+    {
+        lastCheckpoint = System.currentTimeMillis();
+
+        try
+        {
+            checkpointTask.run();
+        }
+        catch ( RuntimeException re )
+        {
+            CONSUMER_LOG.error( "Failed to store the replication cookie", re );
+        }
+    }
+
+
+    /**
+     * Gets the cookie of the last change which has been applied, as all the previous ones.
+     * A cookie is only returned once.
+     *
+     * @return The cookie, or null if no new change has been applied
+     */
+    byte[] getAppliedCookie()
+    {
+        // All the changes up to this one have been added in the inFlight set
+        long submitted = submittedSeq;
+        Long lowest = inFlight.ceiling( Long.MIN_VALUE );
+        long bound = ( ( lowest == null ) || ( lowest > submitted ) ) ? submitted + 1 : lowest;
+
+        Map.Entry<Long, byte[]> applied = cookies.lowerEntry( bound );
+
+        if ( applied == null )
+        {
+            return null;
+        }
+
+        cookies.headMap( applied.getKey(), true ).clear();
+
+        return applied.getValue();
+    }
+
+
+    /**
+     * Waits until all the submitted changes have been applied.
+     *
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    void awaitIdle() throws InterruptedException
+    {
+        synchronized ( this )
+        {
+            while ( !inFlight.isEmpty() && !stopped )
+            {
+                wait( 1000L );
+            }
+        }
+    }
+
+
+    /**
+     * @return true if no change is being applied
+     */
+    boolean isIdle()
+    {
+        return inFlight.isEmpty();
+    }
+
+
+    /**
+     * Stops the workers. The changes not applied yet are lost, their cookie is not stored.
+     */
+    void stop()
+    {
+        stopped = true;
+
+        for ( Thread worker : workers )
+        {
+            worker.interrupt();
+        }
+
+        synchronized ( this )
+        {
+            notifyAll();
+        }
+    }
+}
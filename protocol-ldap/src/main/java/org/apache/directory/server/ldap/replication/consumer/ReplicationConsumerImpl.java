@@ -25,6 +25,7 @@ import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import org.apache.commons.collections.map.LRUMap;
 import org.apache.directory.api.ldap.codec.controls.manageDsaIT.ManageDsaITDecorator;
@@ -56,6 +57,7 @@ import org.apache.directory.api.ldap.model.filter.NotNode;
 import org.apache.directory.api.ldap.model.filter.OrNode;
 import org.apache.directory.api.ldap.model.filter.PresenceNode;
 import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.Control;
 import org.apache.directory.api.ldap.model.message.IntermediateResponse;
 import org.apache.directory.api.ldap.model.message.Response;
 import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
@@ -90,6 +92,7 @@ import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOpe
 import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.ldap.LdapProtocolUtils;
+import org.apache.directory.server.ldap.replication.DeltaSyncControl;
 import org.apache.directory.server.ldap.replication.ReplicationConsumerConfig;
 import org.apache.directory.server.ldap.replication.SyncReplConfiguration;
 import org.slf4j.Logger;
@@ -163,6 +166,9 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
 
     private static final Map<String, Object> UUID_LOCK_MAP = new LRUMap( 1000 );
 
+    /** The pipeline applying the received changes */
+    private volatile ReplicationApplyPipeline pipeline;
+
 
     /**
      * @return the config
@@ -295,6 +301,11 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
                 new ManageDsaITImpl() ) );
         }
 
+        if ( config.isDeltaSync() )
+        {
+            searchRequest.addControl( DeltaSyncControl.createRequestControl() );
+        }
+
         if ( CONSUMER_LOG.isDebugEnabled() )
         {
             MDC.put( "Replica", Integer.toString( config.getReplicaId() ) );
@@ -332,25 +343,101 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
 
 
     /**
-     * Process a SearchResultEntry received from a consumer. We have to handle all the
-     * cases :
+     * Process a SearchResultEntry received from a consumer. The entry is decoded here, and
+     * the change is applied by the pipeline :
+     * - Add, Modify and Present are applied by the worker in charge of the entry
+     * - Moddn and Delete, which impact the entry children, are applied once all the
+     * previous changes have been applied
+     * @param syncResult
+     * @throws InterruptedException If the thread is interrupted while waiting for the pipeline
+     */
+    private void handleSearchResultEntry( final SearchResultEntry syncResult ) throws InterruptedException
+    {
+        CONSUMER_LOG.debug( "------------- starting handleSearchResult ------------" );
+
+        final SyncStateValue syncStateCtrl = ( SyncStateValue ) syncResult.getControl( SyncStateValue.OID );
+        final Entry remoteEntry;
+        final String uuid;
+
+        try
+        {
+            remoteEntry = new DefaultEntry( schemaManager, syncResult.getEntry() );
+            uuid = remoteEntry.get( directoryService.getAtProvider().getEntryUUID() ).getString();
+        }
+        catch ( Exception e )
+        {
+            CONSUMER_LOG.error( e.getMessage(), e );
+
+            return;
+        }
+
+        byte[] cookie = syncStateCtrl.getCookie();
+
+        if ( cookie != null )
+        {
+            CONSUMER_LOG.debug( "received the cookie from sync state value control: {}",
+                Strings.utf8ToString( cookie ) );
+        }
+
+        Callable<Boolean> change = new Callable<Boolean>()
+        {
+            public Boolean call()
+            {
+                return applyEntry( syncResult, syncStateCtrl, remoteEntry, uuid );
+            }
+        };
+
+        ReplicationApplyPipeline applyPipeline = pipeline;
+
+        if ( applyPipeline == null )
+        {
+            // The consumer has been stopped
+            return;
+        }
+
+        switch ( syncStateCtrl.getSyncStateType() )
+        {
+            case ADD:
+                // The entry is added once its parent, if it's being added, exists
+                applyPipeline.submit( uuid, remoteEntry.getDn(), change, cookie );
+                break;
+
+            case MODDN:
+            case DELETE:
+                // The entry children may be modified by the other workers
+                applyPipeline.awaitIdle();
+                applyPipeline.submit( uuid, null, change, cookie );
+                applyPipeline.awaitIdle();
+                break;
+
+            default:
+                applyPipeline.submit( uuid, null, change, cookie );
+                break;
+        }
+
+        CONSUMER_LOG.debug( "------------- Ending handleSearchResult ------------" );
+    }
+
+
+    /**
+     * Applies a change received from the provider. We have to handle all the cases :
      * - Add
      * - Modify
      * - Moddn
      * - Delete
      * - Present
-     * @param syncResult
+     *
+     * @param syncResult The received SearchResultEntry
+     * @param syncStateCtrl The SyncStateValue control
+     * @param remoteEntry The decoded entry
+     * @param uuid The entryUUID
+     * @return true if the change has been applied
      */
-    private void handleSearchResultEntry( SearchResultEntry syncResult )
+    private boolean applyEntry( SearchResultEntry syncResult, SyncStateValue syncStateCtrl, Entry remoteEntry,
+        String uuid )
     {
-        CONSUMER_LOG.debug( "------------- starting handleSearchResult ------------" );
-
-        SyncStateValue syncStateCtrl = ( SyncStateValue ) syncResult.getControl( SyncStateValue.OID );
-
         try
         {
-            Entry remoteEntry = new DefaultEntry( schemaManager, syncResult.getEntry() );
-            String uuid = remoteEntry.get( directoryService.getAtProvider().getEntryUUID() ).getString();
             // lock on UUID to serialize the updates when there are multiple consumers
             // connected to several producers and to the *same* base/partition
             Object lock = getLockFor( uuid );
@@ -361,10 +448,7 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
 
                 if ( syncStateCtrl.getCookie() != null )
                 {
-                    syncCookie = syncStateCtrl.getCookie();
-                    rid = LdapProtocolUtils.getReplicaId( Strings.utf8ToString( syncCookie ) );
-                    CONSUMER_LOG.debug( "assigning the cookie from sync state value control: {}",
-                        Strings.utf8ToString( syncCookie ) );
+                    rid = LdapProtocolUtils.getReplicaId( Strings.utf8ToString( syncStateCtrl.getCookie() ) );
                 }
 
                 SyncStateTypeEnum state = syncStateCtrl.getSyncStateType();
@@ -413,7 +497,17 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
 
                     case MODIFY:
                         CONSUMER_LOG.debug( "modifying entry with dn {}", remoteEntry.getDn().getName() );
-                        modify( remoteEntry, rid );
+                        Control deltaControl = syncResult.getControl( DeltaSyncControl.OID );
+
+                        if ( deltaControl != null )
+                        {
+                            applyModifications( remoteEntry,
+                                DeltaSyncControl.getModifications( deltaControl, schemaManager ), rid );
+                        }
+                        else
+                        {
+                            modify( remoteEntry, rid );
+                        }
 
                         break;
 
@@ -450,20 +544,16 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
                     default:
                         throw new IllegalArgumentException( "Unexpected sync state " + state );
                 }
-
-                // store the cookie only if the above operation was successful
-                if ( syncStateCtrl.getCookie() != null )
-                {
-                    storeCookie();
-                }
             }
+
+            return true;
         }
         catch ( Exception e )
         {
             CONSUMER_LOG.error( e.getMessage(), e );
-        }
 
-        CONSUMER_LOG.debug( "------------- Ending handleSearchResult ------------" );
+            return false;
+        }
     }
 
 
@@ -494,6 +584,9 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
                     syncInfoValue );
             }
 
+            // The deleted entries may be modified by the workers
+            drainPipeline();
+
             int replicaId = -1;
 
             if ( cookie != null )
@@ -557,6 +650,17 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     {
         CONSUMER_LOG.debug( "Starting the SyncRepl process for consumer {}", config.getReplicaId() );
 
+        try
+        {
+            startPipeline();
+        }
+        catch ( InterruptedException ie )
+        {
+            CONSUMER_LOG.warn( "Consumer {} interrupted while waiting for the pending changes", config.getReplicaId() );
+
+            return ReplicationStatusEnum.DISCONNECTED;
+        }
+
         // read the cookie if persisted
         readCookie();
 
@@ -704,6 +808,14 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
         {
             disconnect();
         }
+
+        ReplicationApplyPipeline applyPipeline = pipeline;
+
+        if ( applyPipeline != null )
+        {
+            pipeline = null;
+            applyPipeline.stop();
+        }
     }
 
 
@@ -800,6 +912,9 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
         }
         else
         {
+            // All the changes have to be applied before the final cookie is stored
+            drainPipeline();
+
             ResultCodeEnum resultCode = handleSearchResultDone( ( SearchResultDone ) resp );
 
             CONSUMER_LOG.debug( "Rsultcode of Sync operation from {} : {}", config.getProducer(), resultCode );
@@ -889,7 +1004,9 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
         }
         finally
         {
-            // persist the cookie
+            // persist the cookie of the changes applied so far. The pipeline stores the
+            // cookie of the remaining ones once they have been applied
+            checkpointCookie();
             storeCookie();
 
             // reset the cookie
@@ -898,10 +1015,70 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     }
 
 
+    /**
+     * Starts the pipeline if needed, and waits for the changes received during the
+     * previous session to be applied.
+     */
+    private void startPipeline() throws InterruptedException
+    {
+        if ( pipeline == null )
+        {
+            pipeline = new ReplicationApplyPipeline( "replication-consumer-" + config.getReplicaId(),
+                config.getApplyThreads(), config.getCookieCheckpointInterval(), new Runnable()
+                {
+                    public void run()
+                    {
+                        checkpointCookie();
+                    }
+                } );
+        }
+
+        drainPipeline();
+    }
+
+
+    /**
+     * Waits for all the received changes to be applied, and stores the cookie
+     */
+    private void drainPipeline() throws InterruptedException
+    {
+        ReplicationApplyPipeline applyPipeline = pipeline;
+
+        if ( applyPipeline != null )
+        {
+            applyPipeline.awaitIdle();
+            checkpointCookie();
+        }
+    }
+
+
+    /**
+     * Stores the cookie of the last change applied by the pipeline, if all the
+     * previous changes have been applied too.
+     */
+    private synchronized void checkpointCookie()
+    {
+        ReplicationApplyPipeline applyPipeline = pipeline;
+
+        if ( applyPipeline == null )
+        {
+            return;
+        }
+
+        byte[] cookie = applyPipeline.getAppliedCookie();
+
+        if ( cookie != null )
+        {
+            syncCookie = cookie;
+            storeCookie();
+        }
+    }
+
+
     /**
      * stores the cookie.
      */
-    private void storeCookie()
+    private synchronized void storeCookie()
     {
         CONSUMER_LOG.debug( "Storing the cookie '{}'", Strings.utf8ToString( syncCookie ) );
 
@@ -1195,6 +1372,78 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     }
 
 
+    /**
+     * Applies the modifications received from a provider in delta mode. The remote entry
+     * only contains the Dn, the entryUUID and the entryCSN.
+     * <br>
+     * Unlike a full entry, a delta can't be applied twice : the modifications are discarded
+     * if the local entry is not older than the remote one, whatever the replication mode. This
+     * is the case when the provider sends again the changes following the last stored cookie.
+     */
+    void applyModifications( Entry remoteEntry, List<Modification> modifications, int rid )
+        throws Exception
+    {
+        LookupOperationContext lookupCtx = new LookupOperationContext( session, remoteEntry.getDn(),
+            new String[]
+                { SchemaConstants.ENTRY_CSN_AT } );
+
+        lookupCtx.setSyncreplLookup( true );
+
+        Entry localEntry = session.getDirectoryService().getOperationManager().lookup( lookupCtx );
+        Attribute localCsnAt = localEntry.get( SchemaConstants.ENTRY_CSN_AT );
+        Attribute remoteCsnAt = remoteEntry.get( SchemaConstants.ENTRY_CSN_AT );
+
+        if ( ( localCsnAt != null ) && ( remoteCsnAt != null ) )
+        {
+            Csn localCsn = new Csn( localCsnAt.getString() );
+            Csn remoteCsn = new Csn( remoteCsnAt.getString() );
+
+            if ( localCsn.compareTo( remoteCsn ) >= 0 )
+            {
+                // just discard the received modifications, they have already been applied, or are old
+                CONSUMER_LOG.debug( "local modification is latest, discarding the modifications of dn {}",
+                    remoteEntry.getDn() );
+                return;
+            }
+        }
+
+        List<Modification> serverModifications = new ArrayList<Modification>( modifications.size() );
+
+        for ( Modification mod : modifications )
+        {
+            if ( !isIgnored( mod.getAttribute().getAttributeType() ) )
+            {
+                serverModifications.add( mod );
+            }
+        }
+
+        ModifyOperationContext modifyContext = new ModifyOperationContext( session, remoteEntry.getDn(),
+            serverModifications );
+        modifyContext.setReplEvent( true );
+        modifyContext.setRid( rid );
+
+        OperationManager operationManager = directoryService.getOperationManager();
+        operationManager.modify( modifyContext );
+    }
+
+
+    /**
+     * Tells if the modifications of an attribute must be ignored
+     */
+    private boolean isIgnored( AttributeType attributeType )
+    {
+        for ( String ignored : MOD_IGNORE_AT )
+        {
+            if ( attributeType.equals( schemaManager.getAttributeType( ignored ) ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
     /**
      * Create a new list combining a list and a newly added attribute
      */
@@ -1377,17 +1626,20 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     }
 
 
-    private synchronized Object getLockFor( String uuid )
+    private Object getLockFor( String uuid )
     {
-        Object lock = UUID_LOCK_MAP.get( uuid );
-
-        if ( lock == null )
+        synchronized ( UUID_LOCK_MAP )
         {
-            lock = new Object();
-            UUID_LOCK_MAP.put( uuid, lock );
-        }
+            Object lock = UUID_LOCK_MAP.get( uuid );
 
-        return lock;
+            if ( lock == null )
+            {
+                lock = new Object();
+                UUID_LOCK_MAP.put( uuid, lock );
+            }
+
+            return lock;
+        }
     }
 
 
@@ -255,10 +255,11 @@ public class ReplConsumerManager
     /**
      * Get the list of consumers' configuration
      * 
+     * @param journal The replication journal the consumers read their changes from
      * @return A list of all the consumer configuration stored on the provider
      * @throws Exception If we had an error while building this list
      */
-    public List<ReplicaEventLog> getReplicaEventLogs() throws Exception
+    public List<ReplicaEventLog> getReplicaEventLogs( ReplicaJournal journal ) throws Exception
     {
         List<ReplicaEventLog> replicas = new ArrayList<ReplicaEventLog>();
 
@@ -277,7 +278,7 @@ public class ReplConsumerManager
         while ( cursor.next() )
         {
             Entry entry = cursor.get();
-            ReplicaEventLog replica = convertEntryToReplica( entry );
+            ReplicaEventLog replica = convertEntryToReplica( entry, journal );
             replicas.add( replica );
         }
 
@@ -291,10 +292,10 @@ public class ReplConsumerManager
     /**
      * Convert the stored entry to a valid ReplicaEventLog structure
      */
-    private ReplicaEventLog convertEntryToReplica( Entry entry ) throws Exception
+    private ReplicaEventLog convertEntryToReplica( Entry entry, ReplicaJournal journal ) throws Exception
     {
         String id = entry.get( SchemaConstants.ADS_DS_REPLICA_ID ).getString();
-        ReplicaEventLog replica = new ReplicaEventLog( directoryService, Integer.parseInt( id ) );
+        ReplicaEventLog replica = new ReplicaEventLog( journal, Integer.parseInt( id ) );
 
         NotificationCriteria searchCriteria = new NotificationCriteria();
 
@@ -21,25 +21,11 @@
 package org.apache.directory.server.ldap.replication.provider;
 
 
-import java.io.File;
-import java.io.IOException;
-
-import jdbm.RecordManager;
-import jdbm.recman.BaseRecordManager;
-import jdbm.recman.TransactionManager;
-
 import org.apache.directory.api.ldap.model.constants.Loggers;
-import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.Csn;
 import org.apache.directory.api.ldap.model.name.Dn;
-import org.apache.directory.api.ldap.model.schema.SchemaManager;
-import org.apache.directory.api.ldap.model.schema.comparators.SerializableComparator;
-import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.event.EventType;
 import org.apache.directory.server.core.api.event.NotificationCriteria;
-import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmTable;
-import org.apache.directory.server.core.partition.impl.btree.jdbm.StringSerializer;
-import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
-import org.apache.directory.server.ldap.replication.ReplicaEventMessageSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,10 +39,11 @@ import org.slf4j.LoggerFactory;
  * <li>searchFilter : the filter</li>
  * <li>lastSentCsn : the last CSN sent by the consumer</li>
  * <li>refreshNPersist : a flag indicating that the consumer is processing in Refresh and persist mode</li>
+ * <li>deltaSync : a flag indicating that the consumer receives the modifications instead of the modified entries</li>
  * <li></li>
  * </ul>
- * A separate log is maintained for each syncrepl consumer.<br/>
- * We also associate a Queue with each structure, which will store the messages to send to the consumer.
+ * The changes to send to the consumers are stored in the {@link ReplicaJournal} shared by all
+ * the consumers : an event log is only a position in this journal.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -77,6 +64,9 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
     /** the csn that was sent to the client during the last sync session*/
     private String lastSentCsn;
 
+    /** The CSN of the last change for this consumer stored in the journal since the server has started */
+    private volatile String lastLoggedCsn;
+
     /** the persistent listener */
     private SyncReplSearchListener persistentListener;
 
@@ -92,22 +82,21 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
     /** the duration(in seconds) of consumer inactivity after which this log will be deleted. Defaults to 172800 seconds (i.e. 2 days) */
     private long maxIdlePeriod = DEFAULT_MAX_IDLE_PERIOD;
 
-    /** the minimum number of entries to be present for beginning purging entries older than the last sent CSN. Default is 10000 */
+    /** the minimum number of entries to be present for beginning purging entries older than the last sent CSN. Default is 10000.
+     * Kept in the consumer configuration : the shared journal is purged by whole segments */
     private int purgeThresholdCount = DEFAULT_PURGE_THRESHOLD_COUNT;
 
     // fields that won't be serialized
-    /** The Journal of modifications */
-    private JdbmTable<String, ReplicaEventMessage> journal;
-
-    /** the underlying file  */
-    private File journalFile;
-
-    /** The record manager*/
-    private RecordManager recman;
+    /** The Journal of modifications, shared by all the consumers */
+    private ReplicaJournal journal;
 
     /** A flag used to indicate that the consumer is not up to date */
     private volatile boolean dirty;
 
+    /** A flag indicating the consumer receives the modifications instead of the modified entries.
+     * It's set by each replication request */
+    private volatile boolean deltaSync;
+
     /** the DN of the entry where this event log details are stored */
     private Dn consumerEntryDn;
 
@@ -122,56 +111,27 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
     /**
      * Creates a new instance of EventLog for a replica
      * 
-     * @param directoryService The DirectoryService instance
+     * @param journal The replication journal
      * @param replicaId The replica ID
      */
-    public ReplicaEventLog( DirectoryService directoryService, int replicaId ) throws IOException
+    public ReplicaEventLog( ReplicaJournal journal, int replicaId )
     {
         PROVIDER_LOG.debug( "Creating the replication queue for replica {}", replicaId );
-        SchemaManager schemaManager = directoryService.getSchemaManager();
+        this.journal = journal;
         this.replicaId = replicaId;
         this.searchCriteria = new NotificationCriteria();
         this.searchCriteria.setEventMask( EventType.ALL_EVENT_TYPES_MASK );
-
-        // Create the journal file, or open if already exists
-        File replDir = directoryService.getInstanceLayout().getReplDirectory();
-        journalFile = new File( replDir, REPLICA_EVENT_LOG_NAME_PREFIX + replicaId );
-        recman = new BaseRecordManager( journalFile.getAbsolutePath() );
-        TransactionManager transactionManager = ( ( BaseRecordManager ) recman ).getTransactionManager();
-        transactionManager.setMaximumTransactionsInLog( 200 );
-
-        SerializableComparator<String> comparator = new SerializableComparator<String>(
-            SchemaConstants.CSN_ORDERING_MATCH_MR_OID );
-        comparator.setSchemaManager( schemaManager );
-
-        journal = new JdbmTable<String, ReplicaEventMessage>( schemaManager, journalFile.getName(), recman, comparator,
-            StringSerializer.INSTANCE, new ReplicaEventMessageSerializer( schemaManager ) );
     }
 
 
     /**
-     * Stores the given message in the queue 
+     * Stores the CSN of the last change written in the journal for this consumer
      *
-     * @param message The message to store
+     * @param lastLoggedCsn The change CSN
      */
-    public synchronized void log( ReplicaEventMessage message )
+    void setLastLoggedCsn( String lastLoggedCsn )
     {
-        try
-        {
-            LOG.debug( "logging entry with Dn {} with the event {}", message.getEntry().getDn(),
-                message.getChangeType() );
-            PROVIDER_LOG.debug( "logging entry with Dn {} with the event {}", message.getEntry().getDn(),
-                message.getChangeType() );
-
-            String entryCsn = message.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString();
-            journal.put( entryCsn, message );
-            journal.sync();
-        }
-        catch ( Exception e )
-        {
-            LOG.warn( "Failed to insert the entry into syncrepl log", e );
-            PROVIDER_LOG.error( "Failed to insert the entry into syncrepl log", e );
-        }
+        this.lastLoggedCsn = lastLoggedCsn;
     }
 
 
@@ -197,28 +157,13 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
 
 
     /**
-     * Stop the EventLog
+     * Stop the EventLog. The journal is shared, it's closed by the replication handler.
      * 
      * @throws Exception If the stop failed
      */
     public void stop() throws Exception
     {
         PROVIDER_LOG.debug( "Stopping the EventLog for replicaId {}", replicaId );
-
-        // Close the producer and session, DO NOT close connection 
-        if ( journal != null )
-        {
-            journal.close();
-        }
-
-        journal = null;
-
-        if ( recman != null )
-        {
-            recman.close();
-        }
-
-        recman = null;
     }
 
 
@@ -328,6 +273,24 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
     }
 
 
+    /**
+     * @return true if the consumer receives the modifications instead of the modified entries
+     */
+    public boolean isDeltaSync()
+    {
+        return deltaSync;
+    }
+
+
+    /**
+     * @param deltaSync if true, the consumer receives the modifications instead of the modified entries
+     */
+    public void setDeltaSync( boolean deltaSync )
+    {
+        this.deltaSync = deltaSync;
+    }
+
+
     /**
      * @return The replica ID
      */
@@ -365,6 +328,34 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
     }
 
 
+    /**
+     * Computes how late the consumer is, as the time between the last change stored
+     * in the journal and the last change sent to the consumer. It's 0 when all the
+     * changes have been sent, or when no change has been logged since the server has
+     * started.
+     *
+     * @return The replication lag, in milliseconds
+     */
+    public long getLag()
+    {
+        String loggedCsn = lastLoggedCsn;
+        String sentCsn = lastSentCsn;
+
+        if ( loggedCsn == null )
+        {
+            return 0L;
+        }
+
+        if ( sentCsn == null )
+        {
+            // Nothing has been sent yet
+            return Math.max( 0L, System.currentTimeMillis() - new Csn( loggedCsn ).getTimestamp() );
+        }
+
+        return Math.max( 0L, new Csn( loggedCsn ).getTimestamp() - new Csn( sentCsn ).getTimestamp() );
+    }
+
+
     /**
      * @return The consumer Hostname
      */
@@ -438,7 +429,7 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
      */
     public ReplicaJournalCursor getCursor( String consumerCsn ) throws Exception
     {
-        return new ReplicaJournalCursor( journal, consumerCsn );
+        return new ReplicaJournalCursor( journal, replicaId, consumerCsn );
     }
 
 
@@ -447,23 +438,7 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
      */
     public String getName()
     {
-        return journal.getName();
-    }
-
-
-    /**
-     * @return the number of entries present in the replica log
-     */
-    public synchronized long count()
-    {
-        try
-        {
-            return journal.count();
-        }
-        catch ( IOException e )
-        {
-            throw new RuntimeException( e );
-        }
+        return REPLICA_EVENT_LOG_NAME_PREFIX + replicaId;
     }
 
 
@@ -518,8 +493,8 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
     {
         return "ReplicaEventLog [hostName=" + hostName + ", searchFilter=" + searchFilter + ", lastSentCsn="
             + lastSentCsn + ", searchCriteria=" + searchCriteria + ", replicaId=" + replicaId
-            + ", refreshNPersist=" + refreshNPersist + ", maxInactivePeriod=" + maxIdlePeriod
-            + ", purgeThresholdCount=" + purgeThresholdCount + ", journalFile=" + journalFile
+            + ", refreshNPersist=" + refreshNPersist + ", deltaSync=" + deltaSync + ", maxInactivePeriod=" + maxIdlePeriod
+            + ", purgeThresholdCount=" + purgeThresholdCount
             + ", dirty=" + dirty + ", consumerEntryDn=" + consumerEntryDn + "]";
     }
 }
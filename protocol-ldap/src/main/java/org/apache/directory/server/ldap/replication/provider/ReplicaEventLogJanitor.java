@@ -20,21 +20,19 @@
 package org.apache.directory.server.ldap.replication.provider;
 
 
-import java.io.File;
 import java.util.Map;
 
-import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.csn.Csn;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.util.DateUtils;
 import org.apache.directory.server.core.api.DirectoryService;
-import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 /**
- * Deletes old entries from the replication event logs that are configured in refreshNPersist mode.
+ * Deletes the replication event logs of the consumers which have been idle for too long, and
+ * the segments of the replication journal which changes have been received by all the consumers.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -46,6 +44,9 @@ public class ReplicaEventLogJanitor extends Thread
 
     private Map<Integer, ReplicaEventLog> replicaLogMap;
 
+    /** The replication journal shared by the consumers */
+    private ReplicaJournal journal;
+
     private volatile boolean stop = false;
 
     /** A lock used to wait */
@@ -54,16 +55,15 @@ public class ReplicaEventLogJanitor extends Thread
     /** time the janitor thread sleeps before successive cleanup attempts. Default value is 5 minutes */
     private long sleepTime = 5 * 60 * 1000L;
 
-    private long thresholdTime = 2 * 60 * 60 * 1000L;
-
 
     public ReplicaEventLogJanitor( final DirectoryService directoryService,
-        final Map<Integer, ReplicaEventLog> replicaLogMap )
+        final Map<Integer, ReplicaEventLog> replicaLogMap, final ReplicaJournal journal )
     {
-        // if log is in refreshNpersist mode, has more entries than the log's threshold count then 
-        // all the entries before the last sent CSN and older than 2 hours will be purged
+        // the journal segments are purged once all the consumers have received their changes,
+        // the event logs with no activity for longer than their max idle period are deleted
         this.directoryService = directoryService;
         this.replicaLogMap = replicaLogMap;
+        this.journal = journal;
         setDaemon( true );
     }
 
@@ -84,7 +84,7 @@ public class ReplicaEventLogJanitor extends Thread
                         if ( lastSentCsn == null )
                         {
                             LOG.debug( "last sent CSN is null for the replica {}, skipping cleanup", log.getName() );
-                            return;
+                            continue;
                         }
 
                         long now = DateUtils.getDate( DateUtils.getGeneralizedTime() ).getTime();
@@ -116,56 +116,17 @@ public class ReplicaEventLogJanitor extends Thread
                                 LOG.warn( "Failed to delete the entry {} of replica event log {}",
                                     log.getConsumerEntryDn(), log.getName(), e );
                             }
-
-                            continue;
-                        }
-
-                        long thresholdCount = log.getPurgeThresholdCount();
-
-                        if ( log.count() < thresholdCount )
-                        {
-                            continue;
-                        }
-
-                        LOG.debug( "starting to purge the log entries that are older than {} milliseconds",
-                            thresholdTime );
-
-                        long deleteCount = 0;
-
-                        ReplicaJournalCursor cursor = log.getCursor( null ); // pass no CSN
-                        cursor.skipQualifyingWhileFetching();
-
-                        while ( cursor.next() )
-                        {
-                            ReplicaEventMessage message = cursor.get();
-                            String csnVal = message.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString();
-
-                            // skip if we reach the lastSentCsn or got past it
-                            if ( csnVal.compareTo( lastSentCsn ) >= 0 )
-                            {
-                                break;
-                            }
-
-                            Csn csn = new Csn( csnVal );
-
-                            if ( ( now - csn.getTimestamp() ) >= thresholdTime )
-                            {
-                                cursor.delete();
-                                deleteCount++;
-                            }
                         }
-
-                        cursor.close();
-
-                        LOG.debug( "purged {} messages from the log {}", deleteCount, log.getName() );
                     }
                     catch ( Exception e )
                     {
-                        LOG.warn( "Failed to purge old entries from the log {}", log.getName(), e );
+                        LOG.warn( "Failed to check the idle time of the log {}", log.getName(), e );
                     }
                 }
             }
 
+            purgeJournal();
+
             try
             {
                 synchronized ( lock )
@@ -181,6 +142,43 @@ public class ReplicaEventLogJanitor extends Thread
     }
 
 
+    /**
+     * Removes the journal segments all the consumers have received. A consumer which has
+     * not received anything yet prevents any purge.
+     */
+    private void purgeJournal()
+    {
+        String oldestCsn = null;
+
+        for ( ReplicaEventLog log : replicaLogMap.values() )
+        {
+            String lastSentCsn = log.getLastSentCsn();
+
+            if ( lastSentCsn == null )
+            {
+                LOG.debug( "last sent CSN is null for the replica {}, skipping the journal purge", log.getName() );
+                return;
+            }
+
+            if ( ( oldestCsn == null ) || ( lastSentCsn.compareTo( oldestCsn ) < 0 ) )
+            {
+                oldestCsn = lastSentCsn;
+            }
+        }
+
+        try
+        {
+            int removed = journal.purge( oldestCsn );
+
+            LOG.debug( "purged {} segments from the replication journal", removed );
+        }
+        catch ( Exception e )
+        {
+            LOG.warn( "Failed to purge the replication journal", e );
+        }
+    }
+
+
     public synchronized void removeEventLog( ReplicaEventLog replicaEventLog )
     {
         directoryService.getEventService().removeListener( replicaEventLog.getPersistentListener() );
@@ -193,8 +191,6 @@ public class ReplicaEventLogJanitor extends Thread
         {
             replicaEventLog.stop();
 
-            new File( directoryService.getInstanceLayout().getReplDirectory(), name + ".db" ).delete();
-            new File( directoryService.getInstanceLayout().getReplDirectory(), name + ".lg" ).delete();
             LOG.info( "successfully removed replication event log {}", name );
         }
         catch ( Exception e )
@@ -0,0 +1,926 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+
+package org.apache.directory.server.ldap.replication.provider;
+
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.message.controls.ChangeType;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
+import org.apache.directory.server.ldap.replication.ReplicaEventMessageSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The replication journal of a provider. Each change is written once, whatever the number
+ * of consumers, with the IDs of the consumers it has to be sent to. A consumer is just a
+ * position in the journal : the CSN of the last change it has received.
+ * <br>
+ * The journal is append only, and split into segments. The active segment is the last
+ * one, once it's bigger than the segment size a new one is created. The concurrent writers
+ * waiting for their changes to be durable share the same flush (group commit). A sealed
+ * segment is removed as a whole once all the consumers have received its changes.
+ * <br>
+ * Each segment starts with a header, containing the horizon the journal has when it's the
+ * first segment : the CSN from which the journal contains all the changes. It's the highest
+ * CSN of the previous segment, or the current CSN for the first segment of a journal created
+ * while some consumers were already replicating. Each record contains its length, a CRC32 of its content,
+ * and its content. A truncated or corrupted record ends the segment.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ReplicaJournal
+{
+    /** A logger for the replication provider */
+    private static final Logger PROVIDER_LOG = LoggerFactory.getLogger( Loggers.PROVIDER_LOG.getName() );
+
+    /** The segments files prefix */
+    public static final String SEGMENT_NAME_PREFIX = "REPL_JOURNAL.";
+
+    /** The default segment size : 16 MB */
+    public static final long DEFAULT_SEGMENT_SIZE = 16L * 1024L * 1024L;
+
+    /** The magic number starting each segment */
+    private static final int MAGIC = 0x524A524E;
+
+    /** The size of a record header : the record length and the CRC */
+    private static final int RECORD_HEADER_SIZE = 4 + 8;
+
+    /** An empty list of consumers */
+    private static final int[] NO_CONSUMER = new int[0];
+
+    /** The directory containing the segments */
+    private final File directory;
+
+    /** The SchemaManager instance */
+    private final SchemaManager schemaManager;
+
+    /** The serializer for the messages */
+    private final ReplicaEventMessageSerializer serializer;
+
+    /** The size above which a new segment is created */
+    private long segmentSize = DEFAULT_SEGMENT_SIZE;
+
+    /** The segments, ordered. The last one is the active segment */
+    private final List<Segment> segments = new ArrayList<Segment>();
+
+    /** The CSN from which the journal contains all the changes. null if it contains all of them */
+    private String horizon;
+
+    /** The active segment file, opened in read/write mode */
+    private RandomAccessFile activeFile;
+
+    /** The active segment file channel */
+    private FileChannel channel;
+
+    /** The sequence number of the last appended record */
+    private long appendedSeq;
+
+    /** The sequence number of the last record flushed on disk */
+    private long syncedSeq;
+
+    /** Tells if a thread is flushing the active segment on disk */
+    private boolean syncing;
+
+    /** The number of records in the journal */
+    private long count;
+
+    /**
+     * A segment of the journal
+     */
+    static final class Segment
+    {
+        /** The segment number */
+        private final long number;
+
+        /** The segment file */
+        private final File file;
+
+        /** The size of the segment header */
+        private int headerSize;
+
+        /** The number of bytes used by the complete records and the header */
+        private volatile long size;
+
+        /** The highest CSN stored in the segment, null if it's empty */
+        private volatile String maxCsn;
+
+        /** The number of records in the segment */
+        private long count;
+
+
+        private Segment( File directory, long number )
+        {
+            this.number = number;
+            file = new File( directory, SEGMENT_NAME_PREFIX + number );
+        }
+
+
+        File getFile()
+        {
+            return file;
+        }
+
+
+        int getHeaderSize()
+        {
+            return headerSize;
+        }
+
+
+        long getSize()
+        {
+            return size;
+        }
+
+
+        String getMaxCsn()
+        {
+            return maxCsn;
+        }
+
+
+        private void updateMaxCsn( String csn )
+        {
+            if ( ( maxCsn == null ) || ( csn.compareTo( maxCsn ) > 0 ) )
+            {
+                maxCsn = csn;
+            }
+        }
+    }
+
+    /**
+     * A record of the journal : a change, and the consumers it has to be sent to
+     */
+    static final class JournalRecord
+    {
+        /** The change CSN */
+        private final String csn;
+
+        /** The consumers the change has to be sent to */
+        private final int[] consumers;
+
+        /** The consumers the changed entry has left : they receive a deletion of the entry */
+        private final int[] leavingConsumers;
+
+        /** The Dn the leaving consumers have to delete, or null */
+        private final String leavingDn;
+
+        /** The serialized message */
+        private final byte[] message;
+
+        /** The number of bytes used by the record in the journal */
+        private int length;
+
+
+        private JournalRecord( String csn, int[] consumers, int[] leavingConsumers, String leavingDn,
+            byte[] message )
+        {
+            this.csn = csn;
+            this.consumers = consumers;
+            this.leavingConsumers = leavingConsumers;
+            this.leavingDn = leavingDn;
+            this.message = message;
+        }
+
+
+        String getCsn()
+        {
+            return csn;
+        }
+
+
+        int getLength()
+        {
+            return length;
+        }
+
+
+        /**
+         * Tells if the change has to be sent to a consumer
+         */
+        boolean isFor( int replicaId )
+        {
+            return contains( consumers, replicaId ) || contains( leavingConsumers, replicaId );
+        }
+
+
+        private byte[] encode() throws IOException
+        {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream( message.length + 64 );
+            DataOutputStream out = new DataOutputStream( baos );
+
+            out.writeUTF( csn );
+            writeConsumers( out, consumers );
+            writeConsumers( out, leavingConsumers );
+            out.writeUTF( ( leavingDn == null ) ? "" : leavingDn );
+            out.write( message );
+            out.flush();
+
+            return baos.toByteArray();
+        }
+
+
+        private static JournalRecord decode( byte[] content ) throws IOException
+        {
+            DataInputStream in = new DataInputStream( new ByteArrayInputStream( content ) );
+
+            String csn = in.readUTF();
+            int[] consumers = readConsumers( in );
+            int[] leavingConsumers = readConsumers( in );
+            String leavingDn = in.readUTF();
+            byte[] message = new byte[in.available()];
+            in.readFully( message );
+
+            return new JournalRecord( csn, consumers, leavingConsumers, leavingDn.isEmpty() ? null : leavingDn,
+                message );
+        }
+
+
+        private static void writeConsumers( DataOutputStream out, int[] ids ) throws IOException
+        {
+            out.writeInt( ids.length );
+
+            for ( int id : ids )
+            {
+                out.writeInt( id );
+            }
+        }
+
+
+        private static int[] readConsumers( DataInputStream in ) throws IOException
+        {
+            int[] ids = new int[in.readInt()];
+
+            for ( int i = 0; i < ids.length; i++ )
+            {
+                ids[i] = in.readInt();
+            }
+
+            return ids;
+        }
+
+
+        private static boolean contains( int[] ids, int id )
+        {
+            for ( int value : ids )
+            {
+                if ( value == id )
+                {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of ReplicaJournal.
+     *
+     * @param directory The directory containing the segments
+     * @param schemaManager The SchemaManager instance
+     */
+    public ReplicaJournal( File directory, SchemaManager schemaManager )
+    {
+        this.directory = directory;
+        this.schemaManager = schemaManager;
+        this.serializer = new ReplicaEventMessageSerializer( schemaManager );
+    }
+
+
+    /**
+     * Reads the existing segments, and opens the last one for appending new records. If a
+     * segment ends with a truncated or corrupted record, this record and the following
+     * bytes are removed. A segment without a complete header, which has been created just
+     * before the server stopped, is removed. If there is no segment, the first one is created.
+     *
+     * @param newHorizon The horizon of the journal if it has to be created : the CSN from
+     * which the journal will contain all the changes, or null if no consumer can have missed
+     * a change
+     * @throws IOException If the journal can't be read or created
+     */
+    public synchronized void open( String newHorizon ) throws IOException
+    {
+        File[] files = directory.listFiles( new FilenameFilter()
+        {
+            public boolean accept( File dir, String name )
+            {
+                return name.startsWith( SEGMENT_NAME_PREFIX );
+            }
+        } );
+
+        List<Segment> existing = new ArrayList<Segment>();
+
+        if ( files != null )
+        {
+            for ( File file : files )
+            {
+                try
+                {
+                    existing.add( new Segment( directory, Long.parseLong( file.getName().substring(
+                        SEGMENT_NAME_PREFIX.length() ) ) ) );
+                }
+                catch ( NumberFormatException nfe )
+                {
+                    PROVIDER_LOG.warn( "Ignoring the file {}, which is not a replication journal segment", file );
+                }
+            }
+        }
+
+        Segment[] sorted = existing.toArray( new Segment[existing.size()] );
+        Arrays.sort( sorted, new Comparator<Segment>()
+        {
+            public int compare( Segment s1, Segment s2 )
+            {
+                return ( s1.number < s2.number ) ? -1 : ( ( s1.number == s2.number ) ? 0 : 1 );
+            }
+        } );
+
+        segments.clear();
+        count = 0L;
+
+        long nextNumber = 1L;
+
+        for ( Segment segment : sorted )
+        {
+            nextNumber = segment.number + 1;
+
+            if ( !hasHeader( segment ) )
+            {
+                // It can't contain any record
+                PROVIDER_LOG.warn( "Removing the replication journal segment {}, which has no header", segment.file );
+
+                if ( !segment.file.delete() )
+                {
+                    throw new IOException( "Cannot remove the replication journal segment " + segment.file );
+                }
+
+                continue;
+            }
+
+            String segmentHorizon = load( segment );
+
+            if ( segments.isEmpty() )
+            {
+                horizon = segmentHorizon;
+            }
+
+            segments.add( segment );
+            count += segment.count;
+        }
+
+        if ( segments.isEmpty() )
+        {
+            horizon = newHorizon;
+            createSegment( nextNumber, horizon );
+        }
+        else
+        {
+            Segment active = segments.get( segments.size() - 1 );
+            activeFile = new RandomAccessFile( active.file, "rw" );
+            channel = activeFile.getChannel();
+            channel.position( active.size );
+        }
+
+        PROVIDER_LOG.debug( "Opened the replication journal with {} records in {} segments", count,
+            segments.size() );
+    }
+
+
+    /**
+     * Tells if a segment starts with a complete header. A segment is created empty, then
+     * its header is written : it may be missing if the server has stopped in between.
+     */
+    private boolean hasHeader( Segment segment ) throws IOException
+    {
+        DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( segment.file ) ) );
+
+        try
+        {
+            in.readInt();
+            in.readUTF();
+
+            return true;
+        }
+        catch ( EOFException eofe )
+        {
+            return false;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+
+    /**
+     * Reads a segment, to get its size, its number of records and its highest CSN. The
+     * corrupted tail of the segment, if any, is removed.
+     *
+     * @return The horizon stored in the segment header
+     */
+    private String load( Segment segment ) throws IOException
+    {
+        long fileLength = segment.file.length();
+        DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( segment.file ) ) );
+        String segmentHorizon = null;
+        long validSize = 0L;
+
+        try
+        {
+            if ( in.readInt() != MAGIC )
+            {
+                throw new IOException( "The file " + segment.file + " is not a replication journal segment" );
+            }
+
+            segmentHorizon = in.readUTF();
+            segment.headerSize = 4 + 2 + Strings.getBytesUtf8( segmentHorizon ).length;
+            validSize = segment.headerSize;
+
+            while ( true )
+            {
+                int length = in.readInt();
+                long crc = in.readLong();
+
+                if ( ( length < 0 ) || ( length > fileLength ) )
+                {
+                    break;
+                }
+
+                byte[] content = new byte[length];
+                in.readFully( content );
+
+                if ( checksum( content ) != crc )
+                {
+                    break;
+                }
+
+                segment.updateMaxCsn( new DataInputStream( new ByteArrayInputStream( content ) ).readUTF() );
+                segment.count++;
+                validSize += RECORD_HEADER_SIZE + length;
+            }
+        }
+        catch ( EOFException eofe )
+        {
+            // The end of the segment, or a record only partially written
+        }
+        finally
+        {
+            in.close();
+        }
+
+        if ( validSize < fileLength )
+        {
+            PROVIDER_LOG.warn( "Ignoring the {} last bytes of the replication journal segment {}", fileLength
+                - validSize, segment.file );
+
+            RandomAccessFile file = new RandomAccessFile( segment.file, "rw" );
+
+            try
+            {
+                file.getChannel().truncate( validSize );
+            }
+            finally
+            {
+                file.close();
+            }
+        }
+
+        segment.size = validSize;
+
+        return segmentHorizon.isEmpty() ? null : segmentHorizon;
+    }
+
+
+    /**
+     * Creates a new segment, and makes it the active one. The segment header contains the
+     * horizon the journal will have once the previous segments are purged.
+     */
+    private void createSegment( long number, String segmentHorizon ) throws IOException
+    {
+        Segment segment = new Segment( directory, number );
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( baos );
+        out.writeInt( MAGIC );
+        out.writeUTF( ( segmentHorizon == null ) ? "" : segmentHorizon );
+        out.flush();
+
+        byte[] header = baos.toByteArray();
+        segment.headerSize = header.length;
+        segment.size = header.length;
+
+        activeFile = new RandomAccessFile( segment.file, "rw" );
+        channel = activeFile.getChannel();
+        channel.truncate( 0L );
+        write( ByteBuffer.wrap( header ) );
+        channel.force( true );
+
+        segments.add( segment );
+    }
+
+
+    private void write( ByteBuffer buffer ) throws IOException
+    {
+        while ( buffer.hasRemaining() )
+        {
+            channel.write( buffer );
+        }
+    }
+
+
+    /**
+     * Appends a change to the journal. It's not flushed on disk before a thread waits for
+     * it with {@link #awaitDurable(long)}.
+     *
+     * @param message The change
+     * @param csn The change CSN
+     * @param consumers The IDs of the consumers the change has to be sent to
+     * @param leavingConsumers The IDs of the consumers the entry has been moved out of, or null
+     * @param leavingDn The Dn the leaving consumers have to delete, or null
+     * @return The sequence number of the record
+     * @throws IOException If the record can't be written
+     */
+    public long append( ReplicaEventMessage message, String csn, int[] consumers, int[] leavingConsumers,
+        Dn leavingDn ) throws IOException
+    {
+        // Serialize the record before taking the lock
+        JournalRecord record = new JournalRecord( csn, consumers,
+            ( leavingConsumers == null ) ? NO_CONSUMER : leavingConsumers,
+            ( leavingDn == null ) ? null : leavingDn.getName(), serializer.serialize( message ) );
+        byte[] content = record.encode();
+
+        ByteBuffer buffer = ByteBuffer.allocate( RECORD_HEADER_SIZE + content.length );
+        buffer.putInt( content.length );
+        buffer.putLong( checksum( content ) );
+        buffer.put( content );
+        buffer.flip();
+
+        synchronized ( this )
+        {
+            if ( channel == null )
+            {
+                throw new IOException( "The replication journal is closed" );
+            }
+
+            Segment active = segments.get( segments.size() - 1 );
+
+            if ( ( active.size >= segmentSize ) && ( active.count > 0 ) )
+            {
+                seal();
+                createSegment( active.number + 1, active.maxCsn );
+                active = segments.get( segments.size() - 1 );
+            }
+
+            write( buffer );
+
+            active.updateMaxCsn( csn );
+            active.count++;
+            active.size += RECORD_HEADER_SIZE + content.length;
+            count++;
+
+            return ++appendedSeq;
+        }
+    }
+
+
+    /**
+     * Flushes and closes the active segment
+     */
+    private void seal() throws IOException
+    {
+        try
+        {
+            channel.force( false );
+        }
+        finally
+        {
+            activeFile.close();
+            activeFile = null;
+            channel = null;
+        }
+
+        // All the appended records are now durable
+        syncedSeq = appendedSeq;
+        notifyAll();
+    }
+
+
+    /**
+     * Waits until a record is written on disk. If no other thread is flushing the journal,
+     * the current thread flushes all the records appended so far.
+     *
+     * @param seq The sequence number of the record
+     * @throws IOException If the journal can't be flushed
+     */
+    public void awaitDurable( long seq ) throws IOException
+    {
+        while ( true )
+        {
+            FileChannel syncChannel;
+            long target;
+
+            synchronized ( this )
+            {
+                while ( syncing && ( syncedSeq < seq ) )
+                {
+                    try
+                    {
+                        wait();
+                    }
+                    catch ( InterruptedException ie )
+                    {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException( "Interrupted while waiting for the journal flush" );
+                    }
+                }
+
+                if ( syncedSeq >= seq )
+                {
+                    return;
+                }
+
+                if ( channel == null )
+                {
+                    throw new IOException( "The replication journal is closed" );
+                }
+
+                // We are the one flushing the journal, for all the records appended so far
+                syncing = true;
+                target = appendedSeq;
+                syncChannel = channel;
+            }
+
+            boolean synced = false;
+
+            try
+            {
+                // The other threads can append records while we are waiting for the disk
+                syncChannel.force( false );
+                synced = true;
+            }
+            catch ( ClosedChannelException cce )
+            {
+                // The segment has been sealed meanwhile, and its records flushed
+            }
+            finally
+            {
+                synchronized ( this )
+                {
+                    syncing = false;
+
+                    if ( synced && ( target > syncedSeq ) )
+                    {
+                        syncedSeq = target;
+                    }
+
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Removes the sealed segments which changes have all been received by the consumers.
+     * The active segment is never removed.
+     *
+     * @param csn The oldest CSN received by the consumers, or null if there is no consumer
+     * @return The number of removed segments
+     */
+    public synchronized int purge( String csn )
+    {
+        int removed = 0;
+
+        while ( segments.size() > 1 )
+        {
+            Segment oldest = segments.get( 0 );
+
+            if ( ( csn != null ) && ( oldest.maxCsn != null ) && ( oldest.maxCsn.compareTo( csn ) > 0 ) )
+            {
+                break;
+            }
+
+            if ( !oldest.file.delete() )
+            {
+                PROVIDER_LOG.warn( "Failed to delete the replication journal segment {}", oldest.file );
+                break;
+            }
+
+            segments.remove( 0 );
+            count -= oldest.count;
+            removed++;
+
+            // The changes of the removed segment can't be sent anymore
+            if ( oldest.maxCsn != null )
+            {
+                horizon = oldest.maxCsn;
+            }
+        }
+
+        if ( removed > 0 )
+        {
+            PROVIDER_LOG.debug( "Removed {} segments from the replication journal", removed );
+        }
+
+        return removed;
+    }
+
+
+    /**
+     * Tells if the journal contains all the changes more recent than a CSN. It's not the
+     * case if the journal has been created after the consumer has received this CSN.
+     *
+     * @param csn The CSN of the last change received by a consumer
+     * @return true if all the following changes can be read from the journal
+     */
+    public synchronized boolean covers( String csn )
+    {
+        return ( horizon == null ) || ( ( csn != null ) && ( csn.compareTo( horizon ) >= 0 ) );
+    }
+
+
+    /**
+     * @return A snapshot of the segments which contain some changes more recent than a CSN
+     */
+    synchronized List<Segment> getSegments( String fromCsn )
+    {
+        List<Segment> selected = new ArrayList<Segment>( segments.size() );
+
+        for ( Segment segment : segments )
+        {
+            String maxCsn = segment.maxCsn;
+
+            if ( ( maxCsn != null ) && ( ( fromCsn == null ) || ( maxCsn.compareTo( fromCsn ) > 0 ) ) )
+            {
+                selected.add( segment );
+            }
+        }
+
+        return selected;
+    }
+
+
+    /**
+     * Reads the next record of a segment
+     *
+     * @param in The segment input, positioned at the beginning of a record
+     * @return The record
+     * @throws IOException If the record can't be read, or is corrupted
+     */
+    static JournalRecord readRecord( DataInputStream in ) throws IOException
+    {
+        int length = in.readInt();
+        long crc = in.readLong();
+        byte[] content = new byte[length];
+        in.readFully( content );
+
+        if ( checksum( content ) != crc )
+        {
+            throw new IOException( "Corrupted record in the replication journal" );
+        }
+
+        JournalRecord record = JournalRecord.decode( content );
+        record.length = RECORD_HEADER_SIZE + length;
+
+        return record;
+    }
+
+
+    /**
+     * Builds the message to send to a consumer from a record.
+     *
+     * @param record The record
+     * @param replicaId The consumer ID
+     * @return The message to send
+     * @throws IOException If the message can't be deserialized
+     */
+    ReplicaEventMessage getMessage( JournalRecord record, int replicaId ) throws IOException
+    {
+        ReplicaEventMessage message = ( ReplicaEventMessage ) serializer.deserialize( record.message );
+
+        if ( JournalRecord.contains( record.consumers, replicaId ) )
+        {
+            return message;
+        }
+
+        // The entry has been moved out of the consumer's base : it has to be deleted
+        Entry entry = message.getEntry().clone();
+
+        try
+        {
+            entry.setDn( new Dn( schemaManager, record.leavingDn ) );
+        }
+        catch ( LdapInvalidDnException lide )
+        {
+            throw new IOException( lide.getMessage(), lide );
+        }
+
+        return new ReplicaEventMessage( ChangeType.DELETE, entry );
+    }
+
+
+    /**
+     * @return The number of records in the journal
+     */
+    public synchronized long count()
+    {
+        return count;
+    }
+
+
+    /**
+     * @return The number of segments
+     */
+    public synchronized int getSegmentCount()
+    {
+        return segments.size();
+    }
+
+
+    /**
+     * @return The size above which a new segment is created
+     */
+    public long getSegmentSize()
+    {
+        return segmentSize;
+    }
+
+
+    /**
+     * @param segmentSize The size above which a new segment is created
+     */
+    public void setSegmentSize( long segmentSize )
+    {
+        this.segmentSize = segmentSize;
+    }
+
+
+    /**
+     * Closes the journal.
+     *
+     * @throws IOException If the journal can't be closed
+     */
+    public synchronized void close() throws IOException
+    {
+        if ( channel != null )
+        {
+            seal();
+        }
+    }
+
+
+    private static long checksum( byte[] content )
+    {
+        CRC32 crc = new CRC32();
+        crc.update( content, 0, content.length );
+
+        return crc.getValue();
+    }
+}
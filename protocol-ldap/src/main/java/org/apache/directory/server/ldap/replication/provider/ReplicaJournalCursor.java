@@ -21,25 +21,29 @@
 package org.apache.directory.server.ldap.replication.provider;
 
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.List;
 
 import org.apache.directory.api.ldap.model.constants.Loggers;
-import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
-import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
-import org.apache.directory.api.ldap.model.cursor.Tuple;
 import org.apache.directory.api.ldap.model.exception.LdapException;
-import org.apache.directory.api.ldap.model.message.controls.ChangeType;
-import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmTable;
 import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
+import org.apache.directory.server.ldap.replication.provider.ReplicaJournal.JournalRecord;
+import org.apache.directory.server.ldap.replication.provider.ReplicaJournal.Segment;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 /**
- * Define a cursor on top of a replication journal.
+ * Define a cursor on top of the replication journal, for one consumer. It only returns
+ * the changes to send to this consumer which are more recent than the consumer's CSN.
+ * The segments which only contain older changes are not read. 
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -54,28 +58,34 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
     /** Speedup for logs */
     private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
 
-    /** the underlying journal's cursor */
-    private Cursor<Tuple<String, ReplicaEventMessage>> tupleCursor;
+    /** the replication journal */
+    private ReplicaJournal journal;
 
-    /** the event log journal */
-    private JdbmTable<String, ReplicaEventMessage> journal;
+    /** The consumer ID */
+    private int replicaId;
 
     /** the consumer's CSN based on which messages will be qualified for sending */
     private String consumerCsn;
 
-    private ReplicaEventMessage qualifiedEvtMsg;
+    /** The segments to read */
+    private Iterator<Segment> segments;
+
+    /** The input on the current segment */
+    private DataInputStream in;
 
-    /** used while cleaning up the log */
-    private boolean skipQualifying;
+    /** The number of bytes of the current segment which have not been read */
+    private long remaining;
+
+    private ReplicaEventMessage qualifiedEvtMsg;
 
 
     /**
      * Creates a cursor on top of the given journal
-     * @param journal the log journal
+     * @param journal the replication journal
+     * @param replicaId the consumer's ID
      * @param consumerCsn the consumer's CSN taken from cookie
-     * @throws Exception 
      */
-    public ReplicaJournalCursor( JdbmTable<String, ReplicaEventMessage> journal, String consumerCsn ) throws Exception
+    public ReplicaJournalCursor( ReplicaJournal journal, int replicaId, String consumerCsn )
     {
         if ( IS_DEBUG )
         {
@@ -83,8 +93,11 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
         }
 
         this.journal = journal;
-        this.tupleCursor = journal.cursor();
+        this.replicaId = replicaId;
         this.consumerCsn = consumerCsn;
+
+        List<Segment> selected = journal.getSegments( consumerCsn );
+        segments = selected.iterator();
     }
 
 
@@ -151,34 +164,67 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
 
 
     /**
-     * selects the current queue entry if qualified for sending to the consumer
-     * 
-     * @throws Exception
+     * selects the current journal record if qualified for sending to the consumer
      */
-    private boolean isQualified( String csn, ReplicaEventMessage evtMsg ) throws LdapException
+    private boolean isQualified( JournalRecord record )
     {
-        LOG.debug( "ReplicaEventMessage: {}", evtMsg );
+        if ( !record.isFor( replicaId ) )
+        {
+            return false;
+        }
 
-        if ( evtMsg.isEventOlderThan( consumerCsn ) )
+        if ( ( consumerCsn != null ) && ( record.getCsn().compareTo( consumerCsn ) <= 0 ) )
         {
-            if ( LOG.isDebugEnabled() )
-            {
-                String evt = "MODDN"; // take this as default cause the event type for MODDN is null
+            LOG.debug( "change {} is not qualified for sending", record.getCsn() );
 
-                ChangeType changeType = evtMsg.getChangeType();
+            return false;
+        }
 
-                if ( changeType != null )
-                {
-                    evt = changeType.name();
-                }
+        return true;
+    }
 
-                LOG.debug( "event {} for dn {} is not qualified for sending", evt, evtMsg.getEntry().getDn() );
+
+    /**
+     * Opens the next segment to read. The segment is only read up to its size when the
+     * cursor gets there : the records appended afterward will be read by the next cursor.
+     *
+     * @return false if there is no more segment to read
+     */
+    private boolean openNextSegment() throws IOException
+    {
+        while ( segments.hasNext() )
+        {
+            Segment segment = segments.next();
+            long size = segment.getSize();
+
+            try
+            {
+                in = new DataInputStream( new BufferedInputStream( new FileInputStream( segment.getFile() ) ) );
+            }
+            catch ( FileNotFoundException fnfe )
+            {
+                // The segment has been purged, all the consumers had received its changes
+                LOG.debug( "The segment {} has been removed", segment.getFile() );
+                continue;
             }
 
-            return false;
+            in.skipBytes( segment.getHeaderSize() );
+            remaining = size - segment.getHeaderSize();
+
+            return true;
         }
 
-        return true;
+        return false;
+    }
+
+
+    private void closeSegment() throws IOException
+    {
+        if ( in != null )
+        {
+            in.close();
+            in = null;
+        }
     }
 
 
@@ -196,35 +242,38 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
      */
     public boolean next() throws LdapException, CursorException
     {
-        while ( tupleCursor.next() )
+        try
         {
-            Tuple<String, ReplicaEventMessage> tuple = tupleCursor.get();
+            while ( true )
+            {
+                if ( ( in == null ) && !openNextSegment() )
+                {
+                    qualifiedEvtMsg = null;
 
-            String csn = tuple.getKey();
-            ReplicaEventMessage message = tuple.getValue();
+                    return false;
+                }
 
-            if ( skipQualifying )
-            {
-                qualifiedEvtMsg = message;
-                return true;
-            }
+                if ( remaining <= 0 )
+                {
+                    closeSegment();
+                    continue;
+                }
 
-            boolean qualified = isQualified( csn, message );
+                JournalRecord record = ReplicaJournal.readRecord( in );
+                remaining -= record.getLength();
 
-            if ( qualified )
-            {
-                qualifiedEvtMsg = message;
-                return true;
-            }
-            else
-            {
-                journal.remove( csn );
+                if ( isQualified( record ) )
+                {
+                    qualifiedEvtMsg = journal.getMessage( record, replicaId );
+
+                    return true;
+                }
             }
         }
-
-        qualifiedEvtMsg = null;
-
-        return false;
+        catch ( IOException ioe )
+        {
+            throw new CursorException( ioe.getMessage(), ioe );
+        }
     }
 
 
@@ -248,7 +297,7 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
             LOG_CURSOR.debug( "Closing ReplicaJournalCursor {}", this );
         }
 
-        tupleCursor.close();
+        closeSegment();
         super.close();
     }
 
@@ -264,41 +313,11 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
             LOG_CURSOR.debug( "Closing ReplicaJournalCursor {}", this );
         }
 
-        tupleCursor.close();
+        closeSegment();
         super.close( cause );
     }
 
 
-    /**
-     * sets the flag to skip CSN based checking while traversing
-     * used for internal log cleanup ONLY 
-     */
-    protected void skipQualifyingWhileFetching()
-    {
-        skipQualifying = true;
-    }
-
-
-    /**
-     * delete the current message
-     * used for internal log cleanup ONLY
-     */
-    protected void delete()
-    {
-        try
-        {
-            if ( qualifiedEvtMsg != null )
-            {
-                journal.remove( qualifiedEvtMsg.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString() );
-            }
-        }
-        catch ( Exception e )
-        {
-
-        }
-    }
-
-
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,378 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+
+package org.apache.directory.server.ldap.replication.provider;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.controls.ChangeType;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+import org.apache.directory.server.core.api.event.DirectoryListener;
+import org.apache.directory.server.core.api.event.EventService;
+import org.apache.directory.server.core.api.event.ExpressionEvaluator;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.event.RegistrationEntry;
+import org.apache.directory.server.core.api.interceptor.context.AbstractChangeOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The listener writing the changes in the replication journal. It's registered once, on the
+ * whole DIT, and writes each change once with the IDs of the consumers which have to receive
+ * it. The consumers are selected the same way the EventService selects their
+ * {@link SyncReplSearchListener} : the changed entry, as it was before the change, must be
+ * in their scope and match their filter.
+ * <br>
+ * A modification is written as the modified entry for the consumers in full mode, and as
+ * the modifications for the consumers in delta mode.
+ * <br>
+ * The change is written before the operation completes, and flushed on disk with the changes
+ * written concurrently.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ReplicaJournalListener implements DirectoryListener
+{
+    /** A logger for the replication provider */
+    private static final Logger PROVIDER_LOG = LoggerFactory.getLogger( Loggers.PROVIDER_LOG.getName() );
+
+    /** The replication journal */
+    private final ReplicaJournal journal;
+
+    /** The EventService, holding the consumers registrations */
+    private final EventService eventService;
+
+    /** The evaluator for the consumers filters */
+    private final ExpressionEvaluator evaluator;
+
+
+    /**
+     * Creates a new instance of ReplicaJournalListener.
+     *
+     * @param journal The replication journal
+     * @param eventService The EventService the consumers listeners are registered in
+     * @param evaluator The evaluator for the consumers filters
+     */
+    public ReplicaJournalListener( ReplicaJournal journal, EventService eventService, ExpressionEvaluator evaluator )
+    {
+        this.journal = journal;
+        this.eventService = eventService;
+        this.evaluator = evaluator;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isSynchronous()
+    {
+        // The change must be in the journal when the operation completes
+        return true;
+    }
+
+
+    /**
+     * Gets the consumers which have to receive a change.
+     *
+     * @param dn The entry Dn, before the change
+     * @param entry The entry, before the change
+     * @param ctx The operation context
+     * @return The consumers event logs
+     */
+    private List<ReplicaEventLog> getConsumers( Dn dn, Entry entry, AbstractChangeOperationContext ctx )
+        throws LdapException
+    {
+        List<ReplicaEventLog> consumers = new ArrayList<ReplicaEventLog>();
+
+        for ( RegistrationEntry registration : eventService.getRegistrationEntries( dn, entry ) )
+        {
+            if ( !( registration.getListener() instanceof SyncReplSearchListener ) )
+            {
+                continue;
+            }
+
+            ReplicaEventLog log = ( ( SyncReplSearchListener ) registration.getListener() ).getConsumerMsgLog();
+
+            // Don't send a replicated change back to the consumer which sent it
+            if ( ctx.isReplEvent() && ( ctx.getRid() == log.getId() ) )
+            {
+                continue;
+            }
+
+            NotificationCriteria criteria = registration.getCriteria();
+
+            if ( evaluator.evaluate( criteria.getFilter(), criteria.getBase(), entry ) )
+            {
+                consumers.add( log );
+            }
+        }
+
+        return consumers;
+    }
+
+
+    /**
+     * Writes a change in the journal, for the selected consumers.
+     *
+     * @param message The change
+     * @param consumers The consumers receiving the change
+     * @param leavingConsumers The consumers the entry has been moved out of, or null
+     * @param leavingDn The Dn the leaving consumers must delete, or null
+     */
+    private void log( ReplicaEventMessage message, List<ReplicaEventLog> consumers,
+        List<ReplicaEventLog> leavingConsumers, Dn leavingDn )
+    {
+        try
+        {
+            Entry entry = message.getEntry();
+
+            PROVIDER_LOG.debug( "logging entry with Dn {} with the event {}", entry.getDn(), message.getChangeType() );
+
+            String entryCsn = entry.get( SchemaConstants.ENTRY_CSN_AT ).getString();
+
+            long seq = journal.append( message, entryCsn, getIds( consumers ), getIds( leavingConsumers ),
+                leavingDn );
+            journal.awaitDurable( seq );
+
+            for ( ReplicaEventLog log : consumers )
+            {
+                log.setLastLoggedCsn( entryCsn );
+            }
+
+            if ( leavingConsumers != null )
+            {
+                for ( ReplicaEventLog log : leavingConsumers )
+                {
+                    log.setLastLoggedCsn( entryCsn );
+                }
+            }
+        }
+        catch ( Exception e )
+        {
+            PROVIDER_LOG.error( "Failed to insert the entry into the replication journal", e );
+        }
+    }
+
+
+    private static int[] getIds( List<ReplicaEventLog> consumers )
+    {
+        if ( consumers == null )
+        {
+            return null;
+        }
+
+        int[] ids = new int[consumers.size()];
+
+        for ( int i = 0; i < ids.length; i++ )
+        {
+            ids[i] = consumers.get( i ).getId();
+        }
+
+        return ids;
+    }
+
+
+    /**
+     * Writes a change, if some consumers have to receive it
+     */
+    private void process( ChangeType changeType, Entry changedEntry, Dn dn, Entry originalEntry,
+        AbstractChangeOperationContext ctx )
+    {
+        if ( SyncReplSearchListener.isConfigEntry( changedEntry ) || ctx.isGenerateNoReplEvt() )
+        {
+            return;
+        }
+
+        try
+        {
+            List<ReplicaEventLog> consumers = getConsumers( dn, originalEntry, ctx );
+
+            if ( !consumers.isEmpty() )
+            {
+                log( new ReplicaEventMessage( changeType, changedEntry ), consumers, null, null );
+            }
+        }
+        catch ( LdapException le )
+        {
+            PROVIDER_LOG.error( "Failed to select the consumers of the change on {}", dn, le );
+        }
+    }
+
+
+    /**
+     * Writes a Move or MoveAndRename change. The consumers which base does not contain
+     * the new superior receive a deletion of the entry.
+     */
+    private void processMove( Entry movedEntry, Dn newSuperior, Dn dn, Entry originalEntry,
+        AbstractChangeOperationContext ctx )
+    {
+        if ( SyncReplSearchListener.isConfigEntry( movedEntry ) || ctx.isGenerateNoReplEvt() )
+        {
+            return;
+        }
+
+        try
+        {
+            List<ReplicaEventLog> consumers = new ArrayList<ReplicaEventLog>();
+            List<ReplicaEventLog> leavingConsumers = new ArrayList<ReplicaEventLog>();
+
+            for ( ReplicaEventLog log : getConsumers( dn, originalEntry, ctx ) )
+            {
+                if ( newSuperior.isDescendantOf( log.getSearchCriteria().getBase() ) )
+                {
+                    consumers.add( log );
+                }
+                else
+                {
+                    leavingConsumers.add( log );
+                }
+            }
+
+            if ( !consumers.isEmpty() || !leavingConsumers.isEmpty() )
+            {
+                log( new ReplicaEventMessage( ChangeType.MODDN, movedEntry ), consumers, leavingConsumers, dn );
+            }
+        }
+        catch ( LdapException le )
+        {
+            PROVIDER_LOG.error( "Failed to select the consumers of the change on {}", dn, le );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void entryAdded( AddOperationContext addContext )
+    {
+        Entry entry = addContext.getEntry();
+
+        process( ChangeType.ADD, entry, addContext.getDn(), entry, addContext );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void entryDeleted( DeleteOperationContext deleteContext )
+    {
+        Entry entry = deleteContext.getEntry();
+
+        process( ChangeType.DELETE, ( ( ClonedServerEntry ) entry ).getClonedEntry(), deleteContext.getDn(), entry,
+            deleteContext );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void entryModified( ModifyOperationContext modifyContext )
+    {
+        Entry alteredEntry = modifyContext.getAlteredEntry();
+        Dn dn = modifyContext.getDn();
+
+        if ( SyncReplSearchListener.isConfigEntry( alteredEntry ) || modifyContext.isGenerateNoReplEvt() )
+        {
+            return;
+        }
+
+        try
+        {
+            // The consumers in delta mode only receive the modifications
+            List<ReplicaEventLog> consumers = new ArrayList<ReplicaEventLog>();
+            List<ReplicaEventLog> deltaConsumers = new ArrayList<ReplicaEventLog>();
+
+            for ( ReplicaEventLog log : getConsumers( dn, modifyContext.getEntry(), modifyContext ) )
+            {
+                if ( log.isDeltaSync() )
+                {
+                    deltaConsumers.add( log );
+                }
+                else
+                {
+                    consumers.add( log );
+                }
+            }
+
+            if ( !consumers.isEmpty() )
+            {
+                log( new ReplicaEventMessage( ChangeType.MODIFY, alteredEntry ), consumers, null, null );
+            }
+
+            if ( !deltaConsumers.isEmpty() )
+            {
+                log( ReplicaEventMessage.createDelta( modifyContext.getSession().getDirectoryService()
+                    .getSchemaManager(), alteredEntry, modifyContext.getModItems() ), deltaConsumers, null, null );
+            }
+        }
+        catch ( LdapException le )
+        {
+            PROVIDER_LOG.error( "Failed to select the consumers of the change on {}", dn, le );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void entryMoved( MoveOperationContext moveContext )
+    {
+        processMove( moveContext.getModifiedEntry(), moveContext.getNewSuperior(), moveContext.getDn(),
+            moveContext.getOriginalEntry(), moveContext );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void entryMovedAndRenamed( MoveAndRenameOperationContext moveAndRenameContext )
+    {
+        processMove( moveAndRenameContext.getModifiedEntry(), moveAndRenameContext.getNewSuperiorDn(),
+            moveAndRenameContext.getDn(), moveAndRenameContext.getOriginalEntry(), moveAndRenameContext );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void entryRenamed( RenameOperationContext renameContext )
+    {
+        Entry originalEntry = ( ( ClonedServerEntry ) renameContext.getEntry() ).getOriginalEntry();
+
+        process( ChangeType.MODDN, renameContext.getModifiedEntry(), renameContext.getDn(), originalEntry,
+            renameContext );
+    }
+}
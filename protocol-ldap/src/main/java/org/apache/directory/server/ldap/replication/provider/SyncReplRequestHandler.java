@@ -29,10 +29,8 @@ import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -58,6 +56,7 @@ import org.apache.directory.api.ldap.model.entry.StringValue;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidAttributeValueException;
+import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
 import org.apache.directory.api.ldap.model.exception.LdapURLEncodingException;
 import org.apache.directory.api.ldap.model.filter.AndNode;
 import org.apache.directory.api.ldap.model.filter.EqualityNode;
@@ -93,10 +92,12 @@ import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.event.DirectoryListenerAdapter;
 import org.apache.directory.server.core.api.event.EventService;
 import org.apache.directory.server.core.api.event.EventType;
+import org.apache.directory.server.core.api.event.ExpressionEvaluator;
 import org.apache.directory.server.core.api.event.NotificationCriteria;
 import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.OperationContext;
+import org.apache.directory.server.core.api.metrics.MetricsSource;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.LdapProtocolUtils;
@@ -104,6 +105,7 @@ import org.apache.directory.server.ldap.LdapServer;
 import org.apache.directory.server.ldap.LdapSession;
 import org.apache.directory.server.ldap.handlers.SearchAbandonListener;
 import org.apache.directory.server.ldap.handlers.SearchTimeLimitingMonitor;
+import org.apache.directory.server.ldap.replication.DeltaSyncControl;
 import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -147,6 +149,12 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
     private ReplicaEventLogJanitor logJanitor;
 
+    /** The journal storing the changes for all the consumers */
+    private ReplicaJournal journal;
+
+    /** The listener writing the changes in the journal */
+    private ReplicaJournalListener journalListener;
+
     private AttributeType replLogMaxIdleAT;
 
     private AttributeType replLogPurgeThresholdCountAT;
@@ -154,6 +162,21 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
     /** thread used for updating consumer infor */
     private Thread consumerInfoUpdateThread;
 
+    /** The source exposing the replication lag of each consumer */
+    private final MetricsSource replicationMetrics = new MetricsSource()
+    {
+        public void collectMetrics( Map<String, Number> metrics )
+        {
+            metrics.put( "replication.journal.size", journal.count() );
+            metrics.put( "replication.journal.segments", journal.getSegmentCount() );
+
+            for ( ReplicaEventLog log : replicaLogMap.values() )
+            {
+                metrics.put( "replication.consumer." + log.getId() + ".lag", log.getLag() );
+            }
+        }
+    };
+
     /**
      * Create a SyncReplRequestHandler empty instance
      */
@@ -205,14 +228,32 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
                 }
             }
 
+            // The per consumer logs are replaced by the shared journal. If some of them are still
+            // there, the changes they contain are lost : the consumers will have to be refreshed
+            boolean legacyLogs = removeLegacyEventLogs();
+
+            journal = new ReplicaJournal( syncReplData, dirService.getSchemaManager() );
+            journal.open( legacyLogs ? dirService.getCSN().toString() : null );
+
             // Create the replication manager
             replicaUtil = new ReplConsumerManager( dirService );
 
             loadReplicaInfo();
 
-            logJanitor = new ReplicaEventLogJanitor( dirService, replicaLogMap );
+            logJanitor = new ReplicaEventLogJanitor( dirService, replicaLogMap, journal );
             logJanitor.start();
 
+            // The journal listener is registered on the whole DIT, it writes the changes
+            // for all the consumers
+            journalListener = new ReplicaJournalListener( journal, dirService.getEventService(),
+                new ExpressionEvaluator( dirService.getSchemaManager() ) );
+            NotificationCriteria journalCriteria = new NotificationCriteria();
+            journalCriteria.setBase( new Dn( dirService.getSchemaManager() ) );
+            journalCriteria.setScope( SearchScope.SUBTREE );
+            journalCriteria.setEventMask( EventType.ALL_EVENT_TYPES_MASK );
+
+            dirService.getEventService().addListener( journalListener, journalCriteria );
+
             registerPersistentSearches();
 
             cledListener = new ConsumerLogEntryChangeListener();
@@ -222,6 +263,11 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
             dirService.getEventService().addListener( cledListener, criteria );
 
+            if ( dirService.getMetricsRegistry() != null )
+            {
+                dirService.getMetricsRegistry().addSource( replicationMetrics );
+            }
+
             CountDownLatch latch = new CountDownLatch( 1 );
 
             consumerInfoUpdateThread = new Thread( createConsumerInfoUpdateTask( latch ) );
@@ -258,6 +304,13 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
         EventService evtSrv = dirService.getEventService();
 
         evtSrv.removeListener( cledListener );
+        evtSrv.removeListener( journalListener );
+
+        if ( dirService.getMetricsRegistry() != null )
+        {
+            dirService.getMetricsRegistry().removeSource( replicationMetrics );
+        }
+
         //first set the 'stop' flag
         logJanitor.stopCleaning();
         //then interrupt the janitor
@@ -280,6 +333,15 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
             }
         }
 
+        try
+        {
+            journal.close();
+        }
+        catch ( IOException ioe )
+        {
+            PROVIDER_LOG.error( "Failed to close the replication journal", ioe );
+        }
+
         // flush the dirty repos
         storeReplicaInfo();
 
@@ -344,8 +406,20 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
                     }
                     else
                     {
+                        clientMsgLog.setDeltaSync( isDeltaSync( request ) );
                         String consumerCsn = LdapProtocolUtils.getCsn( cookieString );
-                        doContentUpdate( session, request, clientMsgLog, consumerCsn );
+
+                        if ( !journal.covers( consumerCsn ) )
+                        {
+                            PROVIDER_LOG.info(
+                                "the changes following the cookie {} are not in the replication journal anymore",
+                                cookieString );
+                            sendESyncRefreshRequired( session, request );
+                        }
+                        else
+                        {
+                            doContentUpdate( session, request, clientMsgLog, consumerCsn );
+                        }
                     }
                 }
             }
@@ -384,6 +458,29 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
                 lastSentCsn = entry.get( csnAT ).getString();
 
                 ChangeType changeType = replicaEventMessage.getChangeType();
+                List<Modification> modifications = null;
+
+                if ( replicaEventMessage.isDelta() )
+                {
+                    if ( clientMsgLog.isDeltaSync() )
+                    {
+                        modifications = replicaEventMessage.getModifications();
+                    }
+                    else
+                    {
+                        // The change has been stored while the consumer was in delta mode,
+                        // it has to receive the whole entry
+                        entry = lookupEntry( entry.getDn() );
+
+                        if ( entry == null )
+                        {
+                            // The entry has been deleted or moved since, the consumer will
+                            // receive the following changes
+                            clientMsgLog.setLastSentCsn( lastSentCsn );
+                            continue;
+                        }
+                    }
+                }
 
                 SyncStateTypeEnum syncStateType = null;
 
@@ -409,7 +506,7 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
                         throw new IllegalStateException( I18n.err( I18n.ERR_686 ) );
                 }
 
-                sendSearchResultEntry( session, req, entry, syncStateType );
+                sendSearchResultEntry( session, req, entry, syncStateType, modifications );
 
                 clientMsgLog.setLastSentCsn( lastSentCsn );
 
@@ -532,6 +629,7 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
         ReplicaEventLog replicaLog = createReplicaEventLog( hostName, originalFilter );
 
         replicaLog.setRefreshNPersist( refreshNPersist );
+        replicaLog.setDeltaSync( isDeltaSync( request ) );
         StringValue contexCsnValue = new StringValue( contextCsn );
 
         // modify the filter to include the context Csn
@@ -730,7 +828,7 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
             Entry entry = cursor.get();
 
-            sendSearchResultEntry( session, req, entry, SyncStateTypeEnum.ADD );
+            sendSearchResultEntry( session, req, entry, SyncStateTypeEnum.ADD, null );
 
             String lastSentCsn = entry.get( csnAT ).getString();
             replicaLog.setLastSentCsn( lastSentCsn );
@@ -757,10 +855,11 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
     /**
      * Prepare and send a search result entry response, with the associated
-     * SyncState control.
+     * SyncState control. The modifications of a delta MODIFY are sent in a
+     * {@link DeltaSyncControl}.
      */
     private void sendSearchResultEntry( LdapSession session, SearchRequest req, Entry entry,
-        SyncStateTypeEnum syncStateType ) throws Exception
+        SyncStateTypeEnum syncStateType, List<Modification> modifications ) throws Exception
     {
         Attribute uuid = entry.get( SchemaConstants.ENTRY_UUID_AT );
 
@@ -780,6 +879,12 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
         Response resp = generateResponse( session, req, entry );
         resp.addControl( syncStateControl );
 
+        if ( modifications != null )
+        {
+            resp.addControl( DeltaSyncControl.createResponseControl(
+                ldapServer.getDirectoryService().getLdapCodecService(), modifications ) );
+        }
+
         PROVIDER_LOG.debug( "Sending the entry:\n {}", resp );
         session.getIoSession().write( resp );
     }
@@ -1024,8 +1129,7 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
     {
         try
         {
-            List<ReplicaEventLog> eventLogs = replicaUtil.getReplicaEventLogs();
-            Set<String> eventLogNames = new HashSet<String>();
+            List<ReplicaEventLog> eventLogs = replicaUtil.getReplicaEventLogs( journal );
 
             if ( !eventLogs.isEmpty() )
             {
@@ -1033,7 +1137,6 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
                 {
                     PROVIDER_LOG.debug( "initializing the replica log from {}", replica.getId() );
                     replicaLogMap.put( replica.getId(), replica );
-                    eventLogNames.add( replica.getName() );
 
                     // update the replicaCount's value to assign a correct value to the new replica(s)
                     if ( replicaCount.get() < replica.getId() )
@@ -1046,16 +1149,6 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
             {
                 PROVIDER_LOG.debug( "no replica logs found to initialize" );
             }
-
-            // remove unused logs
-            for ( File f : getAllReplJournalNames() )
-            {
-                if ( !eventLogNames.contains( f.getName() ) )
-                {
-                    f.delete();
-                    PROVIDER_LOG.info( "removed unused replication event log {}", f );
-                }
-            }
         }
         catch ( Exception e )
         {
@@ -1148,7 +1241,7 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
         PROVIDER_LOG.debug( "creating a new event log for the replica with id {}", replicaId );
 
-        ReplicaEventLog replicaLog = new ReplicaEventLog( dirService, replicaId );
+        ReplicaEventLog replicaLog = new ReplicaEventLog( journal, replicaId );
         replicaLog.setHostName( hostName );
         replicaLog.setSearchFilter( filter );
 
@@ -1171,6 +1264,32 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
     }
 
 
+    /**
+     * Tells if the consumer wants to receive the modifications instead of the modified entries
+     */
+    private boolean isDeltaSync( SearchRequest req )
+    {
+        return req.getControls().containsKey( DeltaSyncControl.OID );
+    }
+
+
+    /**
+     * Reads the current state of an entry, or null if it does not exist anymore
+     */
+    private Entry lookupEntry( Dn dn ) throws LdapException
+    {
+        try
+        {
+            return dirService.getAdminSession().lookup( dn, SchemaConstants.ALL_USER_ATTRIBUTES,
+                SchemaConstants.ALL_OPERATIONAL_ATTRIBUTES );
+        }
+        catch ( LdapNoSuchObjectException lnsoe )
+        {
+            return null;
+        }
+    }
+
+
     /**
      * Tells if the control contains the REFRESHNPERSIST mode
      */
@@ -1197,6 +1316,31 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
         return replDir.listFiles( filter );
     }
 
+
+    /**
+     * Removes the per consumer event logs written before the shared journal was used.
+     *
+     * @return true if some logs have been removed
+     */
+    private boolean removeLegacyEventLogs()
+    {
+        File[] legacyLogs = getAllReplJournalNames();
+
+        if ( ( legacyLogs == null ) || ( legacyLogs.length == 0 ) )
+        {
+            return false;
+        }
+
+        for ( File f : legacyLogs )
+        {
+            f.delete();
+            PROVIDER_LOG.info( "removed unused replication event log {}", f );
+        }
+
+        return true;
+    }
+
+
     /**
      * an event listener for handling deletions and updates of replication event log entries present under ou=consumers,ou=system
      */
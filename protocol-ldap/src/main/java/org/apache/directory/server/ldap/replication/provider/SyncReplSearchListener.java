@@ -31,7 +31,6 @@ import org.apache.directory.api.ldap.model.message.AbandonableRequest;
 import org.apache.directory.api.ldap.model.message.SearchRequest;
 import org.apache.directory.api.ldap.model.message.SearchResultEntry;
 import org.apache.directory.api.ldap.model.message.SearchResultEntryImpl;
-import org.apache.directory.api.ldap.model.message.controls.ChangeType;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.constants.ServerDNConstants;
 import org.apache.directory.server.core.api.DirectoryService;
@@ -48,6 +47,7 @@ import org.apache.directory.server.core.api.interceptor.context.RenameOperationC
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.LdapProtocolUtils;
 import org.apache.directory.server.ldap.LdapSession;
+import org.apache.directory.server.ldap.replication.DeltaSyncControl;
 import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
 import org.apache.mina.core.future.WriteFuture;
 import org.slf4j.Logger;
@@ -56,9 +56,10 @@ import org.slf4j.LoggerFactory;
 
 /**
  * A listener associated with the replication system. It does send the modifications to the 
- * consumer, if it's connected, or store the data into a queue for a later transmission.
+ * consumer, if it's connected.
  * 
- * Note: we always log the entry irrespective of the client's connection status for guaranteed delivery
+ * Note: the changes are always written in the replication journal by the {@link ReplicaJournalListener},
+ * irrespective of the client's connection status, for guaranteed delivery
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -220,9 +221,6 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
         try
         {
             //System.out.println( "ADD Listener : log " + entry.getDn() );
-            // we log it first
-            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.ADD, entry ) );
-
             // We send the added entry directly to the consumer if it's connected
             if ( pushInRealTime )
             {
@@ -272,8 +270,6 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
         try
         {
             //System.out.println( "DELETE Listener : log " + entry.getDn() );
-            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.DELETE, entry ) );
-            
             if ( pushInRealTime )
             {
                 SearchResultEntry resultEntry = new SearchResultEntryImpl( searchRequest.getMessageId() );
@@ -311,16 +307,27 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
         try
         {
             //System.out.println( "MODIFY Listener : log " + alteredEntry.getDn() );
-            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.MODIFY, alteredEntry ) );
-            
             if ( pushInRealTime )
             {
-
+                DirectoryService directoryService = session.getCoreSession().getDirectoryService();
                 SearchResultEntry resultEntry = new SearchResultEntryImpl( searchRequest.getMessageId() );
                 resultEntry.setObjectName( modifyContext.getDn() );
-                resultEntry.setEntry( alteredEntry );
 
-                SyncStateValue syncModify = createControl( session.getCoreSession().getDirectoryService(), SyncStateTypeEnum.MODIFY, alteredEntry );
+                if ( consumerMsgLog.isDeltaSync() )
+                {
+                    // Only send the modifications
+                    ReplicaEventMessage delta = ReplicaEventMessage.createDelta( directoryService.getSchemaManager(),
+                        alteredEntry, modifyContext.getModItems() );
+                    resultEntry.setEntry( delta.getEntry() );
+                    resultEntry.addControl( DeltaSyncControl.createResponseControl(
+                        directoryService.getLdapCodecService(), delta.getModifications() ) );
+                }
+                else
+                {
+                    resultEntry.setEntry( alteredEntry );
+                }
+
+                SyncStateValue syncModify = createControl( directoryService, SyncStateTypeEnum.MODIFY, alteredEntry );
 
                 sendResult( resultEntry, alteredEntry, EventType.MODIFY, syncModify );
             }
@@ -357,8 +364,6 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
             }
 
             //System.out.println( "MOVE Listener : log " + moveContext.getDn() + " moved to " + moveContext.getNewSuperior() );
-            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.MODDN, entry ) );
-            
             if ( pushInRealTime )
             {
                 SearchResultEntry resultEntry = new SearchResultEntryImpl( searchRequest.getMessageId() );
@@ -404,8 +409,6 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
 
             //System.out.println( "MOVE AND RENAME Listener : log " + moveAndRenameContext.getDn() + 
             //    " moved to " + moveAndRenameContext.getNewSuperiorDn() + " renamed to " + moveAndRenameContext.getNewRdn() );
-            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.MODDN, entry ) );
-            
             if ( pushInRealTime )
             {
                 SearchResultEntry resultEntry = new SearchResultEntryImpl( searchRequest.getMessageId() );
@@ -444,8 +447,6 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
         {
             // should always send the original entry cause the consumer perform the modDn operation there
             //System.out.println( "RENAME Listener : log " + renameContext.getDn() + " renamed to " + renameContext.getNewRdn() );
-            consumerMsgLog.log( new ReplicaEventMessage( ChangeType.MODDN, entry ) );
-            
             if ( pushInRealTime )
             {
                 SearchResultEntry resultEntry = new SearchResultEntryImpl( searchRequest.getMessageId() );
@@ -467,6 +468,15 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
     }
 
 
+    /**
+     * @return The consumer configuration
+     */
+    ReplicaEventLog getConsumerMsgLog()
+    {
+        return consumerMsgLog;
+    }
+
+
     /**
      * @return true if the entries are sent to the consumer in real time
      */
@@ -538,7 +548,7 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
      * @param entry the entry
      * @return true if the entry belongs to ou=config partition, false otherwise
      */
-    private boolean isConfigEntry( Entry entry )
+    static boolean isConfigEntry( Entry entry )
     {
         // we can do Dn.isDescendantOf but in this part of the
         // server the DNs are all normalized and a simple string compare should
@@ -0,0 +1,213 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.consumer;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.util.Strings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Test the pipeline applying the changes received by a consumer.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ReplicationApplyPipelineTest
+{
+    /** The pipeline */
+    private ReplicationApplyPipeline pipeline;
+
+
+    @Before
+    public void createPipeline()
+    {
+        // The test reads the applied cookies itself
+        pipeline = new ReplicationApplyPipeline( "test", 2, 1000L, new Runnable()
+        {
+            public void run()
+            {
+            }
+        } );
+    }
+
+
+    @After
+    public void stopPipeline()
+    {
+        pipeline.stop();
+    }
+
+
+    private Callable<Boolean> record( final List<String> applied, final String change )
+    {
+        return new Callable<Boolean>()
+        {
+            public Boolean call()
+            {
+                applied.add( change );
+
+                return true;
+            }
+        };
+    }
+
+
+    /**
+     * The changes made on an entry are applied in the order they have been submitted
+     */
+    @Test
+    public void testEntryOrder() throws Exception
+    {
+        List<String> applied = Collections.synchronizedList( new ArrayList<String>() );
+
+        for ( int i = 0; i < 1000; i++ )
+        {
+            pipeline.submit( "uuid" + ( i % 10 ), null, record( applied, "uuid" + ( i % 10 ) + ":" + i ), null );
+        }
+
+        pipeline.awaitIdle();
+
+        assertEquals( 1000, applied.size() );
+        int[] last = new int[10];
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            last[i] = -1;
+        }
+
+        for ( String change : applied )
+        {
+            int entry = Integer.parseInt( change.substring( 4, change.indexOf( ':' ) ) );
+            int pos = Integer.parseInt( change.substring( change.indexOf( ':' ) + 1 ) );
+
+            assertTrue( pos > last[entry] );
+            last[entry] = pos;
+        }
+    }
+
+
+    /**
+     * An entry is added once its parent, submitted before, has been added
+     */
+    @Test
+    public void testParentAddedFirst() throws Exception
+    {
+        final List<String> applied = Collections.synchronizedList( new ArrayList<String>() );
+        final CountDownLatch release = new CountDownLatch( 1 );
+
+        // "a" and "b" are not handled by the same worker
+        pipeline.submit( "a", new Dn( "ou=parent,ou=system" ), new Callable<Boolean>()
+        {
+            public Boolean call() throws Exception
+            {
+                release.await();
+                applied.add( "parent" );
+
+                return true;
+            }
+        }, null );
+
+        pipeline.submit( "b", new Dn( "ou=child,ou=parent,ou=system" ), record( applied, "child" ), null );
+
+        Thread.sleep( 100L );
+        assertTrue( applied.isEmpty() );
+
+        release.countDown();
+        pipeline.awaitIdle();
+
+        assertEquals( 2, applied.size() );
+        assertEquals( "parent", applied.get( 0 ) );
+        assertEquals( "child", applied.get( 1 ) );
+    }
+
+
+    /**
+     * The applied cookie is the one of the last change applied with all the previous ones
+     */
+    @Test
+    public void testAppliedCookie() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch( 1 );
+        List<String> applied = Collections.synchronizedList( new ArrayList<String>() );
+
+        pipeline.submit( "a", null, record( applied, "1" ), Strings.getBytesUtf8( "cookie1" ) );
+        pipeline.submit( "a", null, new Callable<Boolean>()
+        {
+            public Boolean call() throws Exception
+            {
+                release.await();
+
+                return true;
+            }
+        }, Strings.getBytesUtf8( "cookie2" ) );
+        pipeline.submit( "b", null, record( applied, "3" ), Strings.getBytesUtf8( "cookie3" ) );
+
+        byte[] cookie = pipeline.getAppliedCookie();
+
+        while ( cookie == null )
+        {
+            Thread.sleep( 10L );
+            cookie = pipeline.getAppliedCookie();
+        }
+
+        // The second change is still being applied
+        assertEquals( "cookie1", Strings.utf8ToString( cookie ) );
+        assertNull( pipeline.getAppliedCookie() );
+
+        release.countDown();
+        pipeline.awaitIdle();
+
+        assertEquals( "cookie3", Strings.utf8ToString( pipeline.getAppliedCookie() ) );
+        assertNull( pipeline.getAppliedCookie() );
+    }
+
+
+    /**
+     * The cookie of a change which failed is not returned
+     */
+    @Test
+    public void testFailedChange() throws Exception
+    {
+        pipeline.submit( "a", null, new Callable<Boolean>()
+        {
+            public Boolean call()
+            {
+                return false;
+            }
+        }, Strings.getBytesUtf8( "cookie1" ) );
+
+        pipeline.awaitIdle();
+
+        assertNull( pipeline.getAppliedCookie() );
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.provider;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.message.controls.ChangeType;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Test the replication journal shared by the consumers.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ReplicaJournalTest
+{
+    /** The SchemaManager instance */
+    private static SchemaManager schemaManager;
+
+    /** The CsnFactory */
+    private static CsnFactory csnFactory;
+
+    /** The directory containing the journal segments */
+    private File journalDir;
+
+    /** The journal */
+    private ReplicaJournal journal;
+
+
+    /**
+     * Load the SchemaManager
+     */
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = ReplicaJournalTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        csnFactory = new CsnFactory( 0 );
+    }
+
+
+    @Before
+    public void createJournal() throws Exception
+    {
+        journalDir = new File( FileUtils.getTempDirectory(), getClass().getSimpleName() );
+        FileUtils.deleteDirectory( journalDir );
+        journalDir.mkdirs();
+
+        journal = new ReplicaJournal( journalDir, schemaManager );
+        journal.open( null );
+    }
+
+
+    @After
+    public void destroyJournal() throws Exception
+    {
+        if ( journal != null )
+        {
+            journal.close();
+        }
+
+        journal = null;
+        FileUtils.deleteDirectory( journalDir );
+    }
+
+
+    private String append( int i, int[] consumers, int[] leavingConsumers, Dn leavingDn ) throws Exception
+    {
+        String csn = csnFactory.newInstance().toString();
+
+        Entry entry = new DefaultEntry( schemaManager, "ou=test" + i + ",ou=system",
+            "ObjectClass: top",
+            "ObjectClass: organizationalUnit",
+            "ou", "test" + i,
+            "entryCsn", csn );
+
+        long seq = journal.append( new ReplicaEventMessage( ChangeType.ADD, entry ), csn, consumers,
+            leavingConsumers, leavingDn );
+        journal.awaitDurable( seq );
+
+        return csn;
+    }
+
+
+    /**
+     * Write 1000 changes, alternatively for two consumers, and read the changes of one of them
+     * from the 100th one.
+     */
+    @Test
+    public void testReadFromCsn() throws Exception
+    {
+        String csn100 = null;
+
+        for ( int i = 0; i < 1000; i++ )
+        {
+            String csn = append( i, new int[]
+                { ( i % 2 ) + 1 }, null, null );
+
+            if ( i == 100 )
+            {
+                csn100 = csn;
+            }
+        }
+
+        assertEquals( 1000L, journal.count() );
+
+        ReplicaJournalCursor cursor = new ReplicaJournalCursor( journal, 1, csn100 );
+        int pos = 102;
+
+        while ( cursor.next() )
+        {
+            ReplicaEventMessage message = cursor.get();
+
+            assertEquals( ChangeType.ADD, message.getChangeType() );
+            assertEquals( "test" + pos, message.getEntry().get( "ou" ).getString() );
+
+            pos += 2;
+        }
+
+        cursor.close();
+
+        assertEquals( 1000, pos );
+    }
+
+
+    /**
+     * An entry moved out of the consumer base is read as a deletion of its former Dn
+     */
+    @Test
+    public void testLeavingConsumer() throws Exception
+    {
+        Dn oldDn = new Dn( schemaManager, "ou=old,ou=system" );
+        append( 0, new int[]
+            { 1 }, new int[]
+            { 2 }, oldDn );
+
+        ReplicaJournalCursor cursor = new ReplicaJournalCursor( journal, 2, null );
+
+        assertTrue( cursor.next() );
+        ReplicaEventMessage message = cursor.get();
+        assertEquals( ChangeType.DELETE, message.getChangeType() );
+        assertEquals( oldDn, message.getEntry().getDn() );
+        assertFalse( cursor.next() );
+        cursor.close();
+
+        cursor = new ReplicaJournalCursor( journal, 1, null );
+
+        assertTrue( cursor.next() );
+        assertEquals( ChangeType.ADD, cursor.get().getChangeType() );
+        cursor.close();
+    }
+
+
+    /**
+     * A delta MODIFY is read back with its modifications, and an entry only containing
+     * the Dn, the entryUUID and the entryCSN
+     */
+    @Test
+    public void testDeltaMessage() throws Exception
+    {
+        String csn = csnFactory.newInstance().toString();
+
+        Entry entry = new DefaultEntry( schemaManager, "cn=group,ou=system",
+            "ObjectClass: top",
+            "ObjectClass: groupOfNames",
+            "cn: group",
+            "member: uid=user0,ou=system",
+            "member: uid=user1,ou=system",
+            "entryUUID: f4d28f3a-5e6e-4a2a-8d3c-bf4d86d1fc9a",
+            "entryCSN", csn );
+
+        List<Modification> modifications = new ArrayList<Modification>();
+        modifications.add( new DefaultModification( ModificationOperation.ADD_ATTRIBUTE,
+            new DefaultAttribute( schemaManager.getAttributeType( "member" ), "uid=user1,ou=system" ) ) );
+        modifications.add( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+            new DefaultAttribute( schemaManager.getAttributeType( "entryCSN" ), csn ) ) );
+
+        long seq = journal.append( ReplicaEventMessage.createDelta( schemaManager, entry, modifications ), csn,
+            new int[]
+                { 1 }, null, null );
+        journal.awaitDurable( seq );
+
+        ReplicaJournalCursor cursor = new ReplicaJournalCursor( journal, 1, null );
+
+        assertTrue( cursor.next() );
+        ReplicaEventMessage message = cursor.get();
+        cursor.close();
+
+        assertEquals( ChangeType.MODIFY, message.getChangeType() );
+        assertTrue( message.isDelta() );
+        assertEquals( entry.getDn(), message.getEntry().getDn() );
+        assertEquals( csn, message.getEntry().get( "entryCSN" ).getString() );
+        assertFalse( message.getEntry().containsAttribute( "member" ) );
+        assertEquals( modifications, message.getModifications() );
+    }
+
+
+    /**
+     * Roll the segments, purge the ones which have been received, and reopen the journal
+     */
+    @Test
+    public void testPurgeAndReopen() throws Exception
+    {
+        journal.setSegmentSize( 1024L );
+        String csn500 = null;
+
+        for ( int i = 0; i < 1000; i++ )
+        {
+            String csn = append( i, new int[]
+                { 1 }, null, null );
+
+            if ( i == 500 )
+            {
+                csn500 = csn;
+            }
+        }
+
+        int segmentCount = journal.getSegmentCount();
+        assertTrue( segmentCount > 2 );
+        assertTrue( journal.covers( null ) );
+
+        assertTrue( journal.purge( csn500 ) > 0 );
+        assertTrue( journal.getSegmentCount() < segmentCount );
+
+        // The purged changes can't be sent anymore
+        assertFalse( journal.covers( null ) );
+        assertTrue( journal.covers( csn500 ) );
+
+        long count = journal.count();
+        assertTrue( count < 1000L );
+        assertTrue( count >= 499L );
+
+        journal.close();
+        journal = new ReplicaJournal( journalDir, schemaManager );
+        journal.open( null );
+
+        assertEquals( count, journal.count() );
+        assertTrue( journal.covers( csn500 ) );
+
+        ReplicaJournalCursor cursor = new ReplicaJournalCursor( journal, 1, csn500 );
+        int pos = 501;
+
+        while ( cursor.next() )
+        {
+            assertEquals( "test" + pos, cursor.get().getEntry().get( "ou" ).getString() );
+            pos++;
+        }
+
+        cursor.close();
+
+        assertEquals( 1000, pos );
+    }
+
+
+    /**
+     * A segment created just before the server stopped, without any header, is removed
+     * when the journal is opened
+     */
+    @Test
+    public void testHeaderlessSegment() throws Exception
+    {
+        for ( int i = 0; i < 10; i++ )
+        {
+            append( i, new int[]
+                { 1 }, null, null );
+        }
+
+        int segmentCount = journal.getSegmentCount();
+        journal.close();
+
+        File empty = new File( journalDir, ReplicaJournal.SEGMENT_NAME_PREFIX + ( segmentCount + 1 ) );
+        assertTrue( empty.createNewFile() );
+
+        journal = new ReplicaJournal( journalDir, schemaManager );
+        journal.open( null );
+
+        assertFalse( empty.exists() );
+        assertEquals( segmentCount, journal.getSegmentCount() );
+        assertEquals( 10L, journal.count() );
+
+        // The previous segment is still the active one
+        append( 10, new int[]
+            { 1 }, null, null );
+        assertEquals( 11L, journal.count() );
+
+        // The only segment has no header : the journal is created again
+        journal.close();
+        FileUtils.cleanDirectory( journalDir );
+        assertTrue( new File( journalDir, ReplicaJournal.SEGMENT_NAME_PREFIX + 1 ).createNewFile() );
+
+        journal = new ReplicaJournal( journalDir, schemaManager );
+        journal.open( null );
+
+        assertEquals( 1, journal.getSegmentCount() );
+        assertEquals( 0L, journal.count() );
+        assertTrue( journal.covers( null ) );
+    }
+
+
+    /**
+     * A journal created after the consumers have received some changes only covers the
+     * following ones
+     */
+    @Test
+    public void testHorizon() throws Exception
+    {
+        String oldCsn = csnFactory.newInstance().toString();
+        String horizon = csnFactory.newInstance().toString();
+
+        journal.close();
+        FileUtils.cleanDirectory( journalDir );
+
+        journal = new ReplicaJournal( journalDir, schemaManager );
+        journal.open( horizon );
+
+        assertFalse( journal.covers( oldCsn ) );
+        assertFalse( journal.covers( null ) );
+        assertTrue( journal.covers( horizon ) );
+        assertTrue( journal.covers( csnFactory.newInstance().toString() ) );
+    }
+}
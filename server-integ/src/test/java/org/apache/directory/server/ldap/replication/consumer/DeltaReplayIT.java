@@ -0,0 +1,106 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.consumer;
+
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.annotations.ApplyLdifs;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.apache.directory.server.ldap.replication.SyncReplConfiguration;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Tests the modifications received by a consumer in delta mode.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(name = "DeltaReplayIT-class")
+@ApplyLdifs(
+    {
+        "dn: cn=delta,ou=system",
+        "objectClass: top",
+        "objectClass: person",
+        "cn: delta",
+        "sn: delta"
+})
+public class DeltaReplayIT extends AbstractLdapTestUnit
+{
+    /**
+     * A delta received twice, as when the provider sends again the changes following
+     * the last stored cookie, is only applied once, even if the consumer is not in MMR mode
+     */
+    @Test
+    public void testReplaySameDelta() throws Exception
+    {
+        SchemaManager schemaManager = getService().getSchemaManager();
+        CoreSession session = getService().getAdminSession();
+
+        SyncReplConfiguration config = new SyncReplConfiguration();
+        config.setBaseDn( "ou=system" );
+        config.setMmrMode( false );
+
+        ReplicationConsumerImpl consumer = new ReplicationConsumerImpl();
+        consumer.setConfig( config );
+        consumer.init( getService() );
+
+        Dn dn = new Dn( schemaManager, "cn=delta,ou=system" );
+        Entry localEntry = session.lookup( dn, SchemaConstants.ALL_ATTRIBUTES_ARRAY );
+
+        // The entry only contains the Dn, the entryUUID and the entryCSN in delta mode
+        String remoteCsn = getService().getCSN().toString();
+        Entry remoteEntry = new DefaultEntry( schemaManager, dn,
+            "entryUUID", localEntry.get( SchemaConstants.ENTRY_UUID_AT ).getString(),
+            "entryCSN", remoteCsn );
+
+        List<Modification> modifications = new ArrayList<Modification>();
+        modifications.add( new DefaultModification( ModificationOperation.ADD_ATTRIBUTE,
+            schemaManager.getAttributeType( "description" ), "replicated" ) );
+        modifications.add( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+            schemaManager.getAttributeType( SchemaConstants.ENTRY_CSN_AT ), remoteCsn ) );
+
+        consumer.applyModifications( remoteEntry, modifications, 1 );
+
+        // The second time, the value already exists : the delta must be skipped
+        consumer.applyModifications( remoteEntry, modifications, 1 );
+
+        Entry replicated = session.lookup( dn, SchemaConstants.ALL_ATTRIBUTES_ARRAY );
+
+        assertEquals( 1, replicated.get( "description" ).size() );
+        assertEquals( remoteCsn, replicated.get( SchemaConstants.ENTRY_CSN_AT ).getString() );
+    }
+}
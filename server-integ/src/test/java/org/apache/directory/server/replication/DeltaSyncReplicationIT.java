@@ -0,0 +1,346 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.replication;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.Csn;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.ModifyRequest;
+import org.apache.directory.api.ldap.model.message.ModifyRequestImpl;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.annotations.CreateConsumer;
+import org.apache.directory.server.annotations.CreateLdapServer;
+import org.apache.directory.server.annotations.CreateTransport;
+import org.apache.directory.server.core.annotations.ContextEntry;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.annotations.CreateIndex;
+import org.apache.directory.server.core.annotations.CreatePartition;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.factory.DSAnnotationProcessor;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.apache.directory.server.factory.ServerAnnotationProcessor;
+import org.apache.directory.server.ldap.LdapServer;
+import org.apache.directory.server.ldap.replication.consumer.ReplicationConsumer;
+import org.apache.directory.server.ldap.replication.consumer.ReplicationConsumerImpl;
+import org.apache.directory.server.ldap.replication.provider.ReplicaEventLog;
+import org.apache.directory.server.ldap.replication.provider.SyncReplRequestHandler;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the replication of the modifications to a consumer in delta mode : the provider
+ * only sends the modifications of a MODIFY instead of the whole entry.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DeltaSyncReplicationIT
+{
+    private static LdapServer providerServer;
+
+    private static LdapServer consumerServer;
+
+    private static SchemaManager schemaManager;
+
+    private static CoreSession providerSession;
+
+    private static CoreSession consumerSession;
+
+    private static AtomicInteger entryCount = new AtomicInteger();
+
+
+    @BeforeClass
+    public static void setUp() throws Exception
+    {
+        Class.forName( FrameworkRunner.class.getName() );
+        CountDownLatch counter = new CountDownLatch( 2 );
+
+        startProvider( counter );
+        startConsumer( counter );
+
+        // Wait for the two servers to be up and running
+        counter.await();
+    }
+
+
+    @AfterClass
+    public static void tearDown() throws Exception
+    {
+        consumerServer.stop();
+        consumerServer.getDirectoryService().shutdown();
+        providerServer.stop();
+        providerServer.getDirectoryService().shutdown();
+    }
+
+
+    /**
+     * Check that the entry was replicated to the consumer : it exists, and its entryCSN is
+     * not older than the provider one. We wait up to 10 seconds.
+     */
+    private boolean checkEntryReplicated( Dn entryDn ) throws Exception
+    {
+        for ( int i = 0; i < 100; i++ )
+        {
+            Thread.sleep( 100 );
+
+            if ( consumerSession.exists( entryDn ) )
+            {
+                Entry providerEntry = providerSession.lookup( entryDn, "*", "+" );
+                Entry consumerEntry = consumerSession.lookup( entryDn, "*", "+" );
+                Csn providerCSN = new Csn( providerEntry.get( SchemaConstants.ENTRY_CSN_AT ).getString() );
+                Csn consumerCSN = new Csn( consumerEntry.get( SchemaConstants.ENTRY_CSN_AT ).getString() );
+
+                if ( consumerCSN.compareTo( providerCSN ) >= 0 )
+                {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+
+    private void compareEntries( Dn dn ) throws Exception
+    {
+        String[] searchAttributes = new String[]
+            {
+                SchemaConstants.ALL_USER_ATTRIBUTES,
+                SchemaConstants.ENTRY_UUID_AT,
+                SchemaConstants.ENTRY_CSN_AT
+        };
+
+        Entry providerEntry = providerSession.lookup( dn, searchAttributes );
+        Entry consumerEntry = consumerSession.lookup( dn, searchAttributes );
+
+        assertEquals( providerEntry, consumerEntry );
+    }
+
+
+    private Entry createEntry() throws Exception
+    {
+        String user = "user" + entryCount.incrementAndGet();
+
+        return new DefaultEntry( schemaManager, "cn=" + user + ",dc=example,dc=com",
+            "objectClass", "person",
+            "cn", user,
+            "sn", user );
+    }
+
+
+    @Test
+    public void testModify() throws Exception
+    {
+        Entry provUser = createEntry();
+        Dn dn = provUser.getDn();
+
+        assertFalse( consumerSession.exists( dn ) );
+
+        providerSession.add( provUser );
+
+        assertTrue( checkEntryReplicated( dn ) );
+        compareEntries( dn );
+
+        // The consumer has asked for the delta mode
+        SyncReplRequestHandler handler = ( SyncReplRequestHandler ) providerServer.getReplicationReqHandler();
+        assertEquals( 1, handler.getReplicaLogMap().size() );
+
+        for ( ReplicaEventLog replicaLog : handler.getReplicaLogMap().values() )
+        {
+            assertTrue( replicaLog.isDeltaSync() );
+        }
+
+        // Add and replace some values
+        ModifyRequest modReq = new ModifyRequestImpl();
+        modReq.setName( dn );
+        modReq.add( "description", "first", "second" );
+        modReq.replace( "sn", "modified" );
+        modReq.add( "userPassword", "secret" );
+        providerSession.modify( modReq );
+
+        assertTrue( checkEntryReplicated( dn ) );
+        compareEntries( dn );
+
+        // Remove a value and an attribute
+        modReq = new ModifyRequestImpl();
+        modReq.setName( dn );
+        modReq.remove( "description", "first" );
+        modReq.remove( "userPassword" );
+        providerSession.modify( modReq );
+
+        assertTrue( checkEntryReplicated( dn ) );
+        compareEntries( dn );
+    }
+
+
+    /**
+     * The modifications applied in a row are all replicated, in order
+     */
+    @Test
+    public void testSuccessiveModifies() throws Exception
+    {
+        Entry provUser = createEntry();
+        Dn dn = provUser.getDn();
+
+        providerSession.add( provUser );
+
+        assertTrue( checkEntryReplicated( dn ) );
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            ModifyRequest modReq = new ModifyRequestImpl();
+            modReq.setName( dn );
+            modReq.replace( "description", "value" + i );
+            modReq.add( "telephoneNumber", "+1 555 " + i );
+            providerSession.modify( modReq );
+        }
+
+        assertTrue( checkEntryReplicated( dn ) );
+        compareEntries( dn );
+
+        Entry consumerEntry = consumerSession.lookup( dn );
+        assertEquals( "value9", consumerEntry.get( "description" ).getString() );
+        assertEquals( 10, consumerEntry.get( "telephoneNumber" ).size() );
+    }
+
+
+    @CreateDS(
+        allowAnonAccess = true,
+        name = "provider-delta-replication",
+        enableChangeLog = false,
+        partitions =
+            {
+                @CreatePartition(
+                    name = "example",
+                    suffix = "dc=example,dc=com",
+                    indexes =
+                        {
+                            @CreateIndex(attribute = "objectClass"),
+                            @CreateIndex(attribute = "dc"),
+                            @CreateIndex(attribute = "ou")
+                    },
+                    contextEntry = @ContextEntry(entryLdif =
+                        "dn: dc=example,dc=com\n" +
+                            "objectClass: domain\n" +
+                            "dc: example"))
+        })
+    @CreateLdapServer(transports =
+        { @CreateTransport(port = 16001, protocol = "LDAP") })
+    public static void startProvider( final CountDownLatch counter ) throws Exception
+    {
+        DirectoryService provDirService = DSAnnotationProcessor.getDirectoryService();
+
+        providerServer = ServerAnnotationProcessor.getLdapServer( provDirService );
+        providerServer.setReplicationReqHandler( new SyncReplRequestHandler() );
+        providerServer.startReplicationProducer();
+
+        schemaManager = provDirService.getSchemaManager();
+        providerSession = provDirService.getAdminSession();
+        counter.countDown();
+    }
+
+
+    @CreateDS(
+        allowAnonAccess = true,
+        enableChangeLog = false,
+        name = "consumer-delta-replication",
+        partitions =
+            {
+                @CreatePartition(
+                    name = "example",
+                    suffix = "dc=example,dc=com",
+                    indexes =
+                        {
+                            @CreateIndex(attribute = "objectClass"),
+                            @CreateIndex(attribute = "dc"),
+                            @CreateIndex(attribute = "ou")
+                    },
+                    contextEntry = @ContextEntry(entryLdif =
+                        "dn: dc=example,dc=com\n" +
+                            "objectClass: domain\n" +
+                            "dc: example"))
+        })
+    @CreateLdapServer(transports =
+        { @CreateTransport(port = 17001, protocol = "LDAP") })
+    @CreateConsumer
+        (
+            remotePort = 16001,
+            replUserDn = "uid=admin,ou=system",
+            replUserPassword = "secret",
+            useTls = false,
+            baseDn = "dc=example,dc=com",
+            refreshInterval = 1000,
+            replicaId = 1
+        )
+        public static void startConsumer( final CountDownLatch counter ) throws Exception
+    {
+        DirectoryService consDirService = DSAnnotationProcessor.getDirectoryService();
+        consumerServer = ServerAnnotationProcessor.getLdapServer( consDirService );
+
+        ReplicationConsumerImpl consumer = ( ReplicationConsumerImpl ) ServerAnnotationProcessor.createConsumer();
+        consumer.getConfig().setDeltaSync( true );
+
+        List<ReplicationConsumer> replConsumers = new ArrayList<ReplicationConsumer>();
+        replConsumers.add( consumer );
+
+        consumerServer.setReplConsumers( replConsumers );
+
+        Dn configDn = new Dn( consDirService.getSchemaManager(), "ads-replConsumerId=localhost,ou=system" );
+        consumer.getConfig().setConfigEntryDn( configDn );
+
+        Entry consConfigEntry = new DefaultEntry( consDirService.getSchemaManager(), configDn,
+            "objectClass: ads-replConsumer",
+            "ads-replConsumerId: localhost",
+            "ads-searchBaseDN", consumer.getConfig().getBaseDn(),
+            "ads-replProvHostName", consumer.getConfig().getRemoteHost(),
+            "ads-replProvPort", String.valueOf( consumer.getConfig().getRemotePort() ),
+            "ads-replRefreshInterval", String.valueOf( consumer.getConfig().getRefreshInterval() ),
+            "ads-replRefreshNPersist", String.valueOf( consumer.getConfig().isRefreshNPersist() ),
+            "ads-replSearchScope", consumer.getConfig().getSearchScope().getLdapUrlValue(),
+            "ads-replSearchFilter", consumer.getConfig().getFilter(),
+            "ads-replSearchSizeLimit", String.valueOf( consumer.getConfig().getSearchSizeLimit() ),
+            "ads-replSearchTimeOut", String.valueOf( consumer.getConfig().getSearchTimeout() ),
+            "ads-replUserDn", consumer.getConfig().getReplUserDn(),
+            "ads-replUserPassword", consumer.getConfig().getReplUserPassword() );
+
+        consConfigEntry.put( "ads-replAliasDerefMode", consumer.getConfig().getAliasDerefMode().getJndiValue() );
+        consConfigEntry.put( "ads-replAttributes", consumer.getConfig().getAttributes() );
+
+        consumerSession = consDirService.getAdminSession();
+        consumerSession.add( consConfigEntry );
+        counter.countDown();
+
+        consumerServer.startReplicationConsumers();
+    }
+}
@@ -302,17 +302,14 @@ public class StaleEventLogDetectionIT
         syncreplHandler.getLogJanitor().setSleepTime( 1000 ); // every second
         syncreplHandler.getLogJanitor().interrupt();
 
-        File replDir = providerServer.getDirectoryService().getInstanceLayout().getReplDirectory();
-        File logFile = new File( replDir, log.getName() + ".db" );
-
-        // there should be only one log file
-        assertTrue( logFile.exists() );
+        // the log is still there
+        assertTrue( syncreplHandler.getReplicaLogMap().containsKey( log.getId() ) );
 
         // let it sleep for 10 seconds + 5 seconds (above)
         Thread.sleep( 10 * 1000 );
 
-        // there should be only one log file
-        assertFalse( logFile.exists() );
+        // the stale log should have been removed
+        assertFalse( syncreplHandler.getReplicaLogMap().containsKey( log.getId() ) );
 
         //System.out.println( "\n<-- Done" );
     }
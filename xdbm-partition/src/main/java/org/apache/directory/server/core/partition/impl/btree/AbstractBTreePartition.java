@@ -23,12 +23,17 @@ package org.apache.directory.server.core.partition.impl.btree;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -81,19 +86,24 @@ import org.apache.directory.server.core.api.interceptor.context.OperationContext
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.metrics.MetricsSource;
 import org.apache.directory.server.core.api.partition.AbstractPartition;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.Subordinates;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.EntryHierarchy;
+import org.apache.directory.server.xdbm.EntryOrdinalMap;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
 import org.apache.directory.server.xdbm.MasterTable;
+import org.apache.directory.server.xdbm.OffHeapEntryCache;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.Optimizer;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
 import org.apache.directory.server.xdbm.search.SearchEngine;
+import org.apache.directory.server.xdbm.search.cursor.StreamingCursor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -103,7 +113,7 @@ import org.slf4j.LoggerFactory;
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
-public abstract class AbstractBTreePartition extends AbstractPartition implements Store
+public abstract class AbstractBTreePartition extends AbstractPartition implements Store, MetricsSource
 {
     /** static logger */
     private static final Logger LOG = LoggerFactory.getLogger( AbstractBTreePartition.class );
@@ -123,6 +133,21 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /** The Entry cache size for this partition */
     protected int cacheSize = DEFAULT_CACHE_SIZE;
 
+    /** The default number of estimated candidates above which a search is streamed */
+    public static final long DEFAULT_SEARCH_STREAMING_THRESHOLD = 10000L;
+
+    /** The number of estimated candidates above which a search is streamed, 0 to disable it */
+    protected long searchStreamingThreshold = DEFAULT_SEARCH_STREAMING_THRESHOLD;
+
+    /** The estimated size of an entry, used to compute the default entry cache memory */
+    public static final long DEFAULT_ENTRY_SIZE = 1024L;
+
+    /** The number of bytes used by the entry cache, or -1 to compute it from the cache size */
+    protected long entryCacheMemory = -1L;
+
+    /** The entry cache, null if the partition does not cache its entries */
+    protected OffHeapEntryCache entryCache;
+
     /** The alias cache */
     protected Cache aliasCache;
 
@@ -192,11 +217,21 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /** A lock to protect the backend from concurrent reads/writes */
     private ReadWriteLock rwLock;
 
+    /** The streaming cursors still reading the indexes, materialized before a write */
+    private final Set<StreamingCursor> streamingCursors = Collections
+        .newSetFromMap( new ConcurrentHashMap<StreamingCursor, Boolean>() );
+
     /** a cache to hold <entryUUID, Dn> pairs, this is used for speeding up the buildEntryDn() method */
     private Cache entryDnCache;
     
     /** a semaphore to serialize the writes on context entry while updating contextCSN attribute */
     private Semaphore ctxCsnSemaphore = new Semaphore( 1 );
+
+    /** The map associating each entry UUID with the ordinal used in the search candidate bitmaps */
+    private final EntryOrdinalMap entryOrdinals = new EntryOrdinalMap();
+
+    /** The tree of the entries, kept in memory to build the DNs and evaluate the search scopes */
+    private final EntryHierarchy hierarchy = new EntryHierarchy( entryOrdinals );
     
     // ------------------------------------------------------------------------
     // C O N S T R U C T O R S
@@ -275,6 +310,24 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    public long getSearchStreamingThreshold()
+    {
+        return searchStreamingThreshold;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setSearchStreamingThreshold( long searchStreamingThreshold )
+    {
+        this.searchStreamingThreshold = searchStreamingThreshold;
+    }
+
+
     /**
      * Tells if the Optimizer is enabled or not
      * @return true if the optimizer is enabled
@@ -327,6 +380,22 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Called after each write operation : flushes the partition on disk if the
+     * syncOnWrite flag is set. A partition can override it to make its changes
+     * durable differently.
+     *
+     * @throws Exception If the partition can't be flushed
+     */
+    protected void syncOnWrite() throws Exception
+    {
+        if ( isSyncOnWrite.get() )
+        {
+            sync();
+        }
+    }
+
+
     /**
      * Sets up the system indices.
      */
@@ -500,7 +569,15 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         initialized = false;
 
         entryDnCache.removeAll();
-        
+        hierarchy.clear();
+        entryOrdinals.clear();
+
+        if ( entryCache != null )
+        {
+            LOG.debug( "Entry cache of the {} partition : {}", suffixDn, entryCache );
+            entryCache.clear();
+        }
+
         MultiException errors = new MultiException( I18n.err( I18n.ERR_577 ) );
 
         for ( Index<?, String> index : userIndices.values() )
@@ -601,6 +678,51 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             entryDnCache.setMemoryStoreEvictionPolicy( new LruPolicy() );
             entryDnCache.getCacheConfiguration().setMaxElementsInMemory( cacheSize );
         }
+
+        loadHierarchy();
+
+        if ( rwLock == null )
+        {
+            // The entries may be read before the first operation sets the OperationManager lock,
+            // when a partition replays its changes at startup
+            rwLock = new ReentrantReadWriteLock();
+        }
+    }
+
+
+    /**
+     * Loads the tree of the entries from the RDN index. It has to be called again when
+     * the RDN index is rebuilt.
+     *
+     * @throws Exception If the RDN index can't be read
+     */
+    protected void loadHierarchy() throws Exception
+    {
+        hierarchy.clear();
+
+        Cursor<IndexEntry<ParentIdAndRdn, String>> cursor = rdnIdx.forwardCursor();
+
+        try
+        {
+            cursor.beforeFirst();
+
+            while ( cursor.next() )
+            {
+                IndexEntry<ParentIdAndRdn, String> indexEntry = cursor.get();
+                ParentIdAndRdn key = indexEntry.getKey();
+
+                hierarchy.add( indexEntry.getId(), key.getParentId(), key.getRdns() );
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        if ( LOG.isDebugEnabled() )
+        {
+            LOG.debug( "Loaded {} entries in the hierarchy of {}", hierarchy.size(), suffixDn );
+        }
     }
 
 
@@ -684,6 +806,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         {
             setRWLock( addContext );
             Entry entry = ( ( ClonedServerEntry ) addContext.getEntry() ).getClonedEntry();
+            materializeStreamingCursors( getAttributeTypes( entry ), true );
 
             Dn entryDn = entry.getDn();
 
@@ -845,6 +968,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             {
                 // Update the RDN index
                 rdnIdx.add( key, id );
+                hierarchy.add( id, parentId, key.getRdns() );
 
                 // Update the parent's nbChildren and nbDescendants values
                 if ( parentId != Partition.ROOT_ID )
@@ -866,10 +990,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 unlockWrite();
             }
 
-            if ( isSyncOnWrite.get() )
-            {
-                sync();
-            }
+            syncOnWrite();
         }
         catch ( LdapException le )
         {
@@ -888,6 +1009,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         {
             setRWLock( addContext );
             Entry entry = ( ( ClonedServerEntry ) addContext.getEntry() ).getClonedEntry();
+            materializeStreamingCursors( getAttributeTypes( entry ), true );
 
             Dn entryDn = entry.getDn();
 
@@ -1048,6 +1170,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             {
                 // Update the RDN index
                 rdnIdx.add( key, id );
+                hierarchy.add( id, parentId, key.getRdns() );
 
                 // Update the parent's nbChildren and nbDescendants values
                 if ( parentId != Partition.ROOT_ID )
@@ -1069,10 +1192,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 unlockWrite();
             }
 
-            if ( isSyncOnWrite.get() )
-            {
-                sync();
-            }
+            syncOnWrite();
         }
         catch ( LdapException le )
         {
@@ -1221,6 +1341,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 throw new LdapNoSuchObjectException( "Cannot find an entry for UUID " + id );
             }
 
+            materializeStreamingCursors( getAttributeTypes( entry ), true );
+
             Attribute objectClass = entry.get( objectClassAT );
 
             if ( objectClass.contains( SchemaConstants.ALIAS_OC ) )
@@ -1289,6 +1411,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             try
             {
                 rdnIdx.drop( id );
+                hierarchy.remove( id );
 
                 dumpRdnIdx();
 
@@ -1302,16 +1425,16 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 }
 
                 master.remove( id );
+
+                // Release the entry ordinal, it can be reused
+                entryOrdinals.remove( id );
             }
             finally
             {
                 unlockWrite();
             }
 
-            if ( isSyncOnWrite.get() )
-            {
-                sync();
-            }
+            syncOnWrite();
 
             return entry;
         }
@@ -1351,7 +1474,22 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 }
             }
             
-            PartitionSearchResult searchResult = searchEngine.computeResult( schemaManager, searchContext );
+            PartitionSearchResult searchResult = null;
+
+            // The search may not be protected by the OperationManager when it spans
+            // many partitions, so hold the read lock while the candidates are computed.
+            // No other lock is taken and nothing is written meanwhile, so this lock does
+            // not have to follow the OperationManager partitions order
+            lockRead();
+
+            try
+            {
+                searchResult = searchEngine.computeResult( schemaManager, searchContext );
+            }
+            finally
+            {
+                unlockRead();
+            }
 
             Cursor<Entry> result = new EntryCursorAdaptor( this, searchResult );
 
@@ -1540,6 +1678,17 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      */
     public final synchronized Entry modify( Dn dn, Modification... mods ) throws Exception
     {
+        // The modified attributes indexes, and the entryCSN index, are updated
+        List<AttributeType> attributeTypes = new ArrayList<AttributeType>();
+        attributeTypes.add( entryCsnAT );
+
+        for ( Modification mod : mods )
+        {
+            attributeTypes.add( mod.getAttribute().getAttributeType() );
+        }
+
+        materializeStreamingCursors( attributeTypes, false );
+
         String id = getEntryId( dn );
         Entry entry = master.get( id );
 
@@ -1575,10 +1724,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         
         master.put( id, entry );
 
-        if ( isSyncOnWrite.get() )
-        {
-            sync();
-        }
+        syncOnWrite();
 
         return entry;
     }
@@ -2023,6 +2169,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     public final synchronized void move( Dn oldDn, Dn newSuperiorDn, Dn newDn, Entry modifiedEntry )
         throws Exception
     {
+        materializeStreamingCursors( Collections.<AttributeType> emptyList(), true );
+
         // Check that the parent Dn exists
         String newParentId = getEntryId( newSuperiorDn );
 
@@ -2071,6 +2219,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         // Now, add the new entry at the right position
         movedEntry.setParentId( newParentId );
         rdnIdx.add( movedEntry, entryId );
+        hierarchy.move( entryId, newParentId, movedEntry.getRdns() );
 
         updateRdnIdx( newParentId, ADD_CHILD, movedEntry.getNbDescendants() );
 
@@ -2094,10 +2243,11 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
         // the below case arises only when the move( Dn oldDn, Dn newSuperiorDn, Dn newDn  ) is called
         // directly using the Store API, in this case the value of modified entry will be null
-        // we need to lookup the entry to update the parent UUID
+        // we need to lookup the entry to update the parent UUID. We read it from the master
+        // table, as fetch() returns a ClonedServerEntry, which can't be stored
         if ( modifiedEntry == null )
         {
-            modifiedEntry = fetch( entryId );
+            modifiedEntry = master.get( entryId );
         }
 
         // Update the master table with the modified entry
@@ -2106,16 +2256,13 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         // Remove the EntryDN
         modifiedEntry.removeAttributes( entryDnAT );
 
-        entryDnCache.removeAll();
+        invalidateDnCache( entryId );
         
         setContextCsn( modifiedEntry.get( entryCsnAT ).getString() );
 
         master.put( entryId, modifiedEntry );
 
-        if ( isSyncOnWrite.get() )
-        {
-            sync();
-        }
+        syncOnWrite();
     }
 
 
@@ -2164,6 +2311,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     public final synchronized void moveAndRename( Dn oldDn, Dn newSuperiorDn, Rdn newRdn, Entry modifiedEntry,
         boolean deleteOldRdn ) throws Exception
     {
+        materializeStreamingCursors( getAttributeTypes( oldDn.getRdn(), newRdn ), true );
+
         // Check that the old entry exists
         String oldId = getEntryId( oldDn );
 
@@ -2210,12 +2359,9 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         rename( oldId, newRdn, deleteOldRdn, modifiedEntry );
         moveAndRename( oldDn, oldId, newSuperiorDn, newRdn, modifiedEntry );
 
-        entryDnCache.removeAll();
+        invalidateDnCache( oldId );
         
-        if ( isSyncOnWrite.get() )
-        {
-            sync();
-        }
+        syncOnWrite();
     }
 
 
@@ -2267,6 +2413,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         movedEntry.setRdns( new Rdn[]
             { newRdn } );
         rdnIdx.add( movedEntry, entryId );
+        hierarchy.move( entryId, newParentId, movedEntry.getRdns() );
 
         updateRdnIdx( newParentId, ADD_CHILD, movedEntry.getNbDescendants() );
 
@@ -2372,7 +2519,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 if ( hasUserIndexOn( newRdnAttrType ) )
                 {
                     Index<?, String> index = getUserIndex( newRdnAttrType );
-                    ( ( Index ) index ).drop( oldAttribute.get().getNormValue(), id );
+                    ( ( Index ) index ).drop( oldAttribute.get().getNormValue(), oldId );
 
                     /*
                      * If there is no value for id in this index due to our
@@ -2460,7 +2607,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     if ( hasUserIndexOn( oldRdnAttrType ) )
                     {
                         Index<?, String> index = getUserIndex( oldRdnAttrType );
-                        ( ( Index ) index ).drop( oldNormValue, id );
+                        ( ( Index ) index ).drop( oldNormValue, oldId );
 
                         /*
                          * If there is no value for id in this index due to our
@@ -2491,6 +2638,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     @SuppressWarnings("unchecked")
     public final synchronized void rename( Dn dn, Rdn newRdn, boolean deleteOldRdn, Entry entry ) throws Exception
     {
+        materializeStreamingCursors( getAttributeTypes( dn.getRdn(), newRdn ), true );
+
         String oldId = getEntryId( dn );
 
         rename( oldId, newRdn, deleteOldRdn, entry );
@@ -2514,13 +2663,11 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         parentIdAndRdn.setRdns( newRdn );
 
         rdnIdx.add( parentIdAndRdn, oldId );
+        hierarchy.move( oldId, parentId, parentIdAndRdn.getRdns() );
 
-        entryDnCache.removeAll();
+        invalidateDnCache( oldId );
         
-        if ( isSyncOnWrite.get() )
-        {
-            sync();
-        }
+        syncOnWrite();
     }
 
 
@@ -2609,6 +2756,17 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             {
                 return ( Dn ) el.getValue();
             }
+
+            // The RDNs are available in memory, unless the entry is unknown
+            Rdn[] dnRdns = hierarchy.getDnRdns( id );
+
+            if ( dnRdns != null )
+            {
+                dn = new Dn( schemaManager, dnRdns );
+
+                entryDnCache.put( new Element( id, dn ) );
+                return dn;
+            }
             
             do
             {
@@ -2691,6 +2849,13 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     {
         try
         {
+            int childCount = hierarchy.getChildCount( id );
+
+            if ( childCount >= 0 )
+            {
+                return childCount;
+            }
+
             ParentIdAndRdn parentIdAndRdn = rdnIdx.reverseLookup( id );
 
             return parentIdAndRdn.getNbChildren();
@@ -2791,6 +2956,13 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      */
     public String getParentId( String childId ) throws Exception
     {
+        String parentId = hierarchy.getParentId( childId );
+
+        if ( parentId != null )
+        {
+            return parentId;
+        }
+
         try
         {
             rwLock.readLock().lock();
@@ -2810,6 +2982,72 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isChildOf( String id, String parentId ) throws LdapException
+    {
+        if ( hierarchy.contains( id ) )
+        {
+            return hierarchy.isChildOf( id, parentId );
+        }
+
+        try
+        {
+            ParentIdAndRdn key = rdnIdx.reverseLookup( id );
+
+            return ( key != null ) && key.getParentId().equals( parentId );
+        }
+        catch ( Exception e )
+        {
+            throw new LdapOperationErrorException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isDescendantOf( String id, String ancestorId ) throws LdapException
+    {
+        if ( hierarchy.contains( id ) )
+        {
+            return hierarchy.isDescendantOf( id, ancestorId );
+        }
+
+        try
+        {
+            String currentId = id;
+
+            while ( true )
+            {
+                ParentIdAndRdn key = rdnIdx.reverseLookup( currentId );
+
+                if ( key == null )
+                {
+                    return false;
+                }
+
+                currentId = key.getParentId();
+
+                if ( currentId.equals( Partition.ROOT_ID ) )
+                {
+                    return false;
+                }
+
+                if ( currentId.equals( ancestorId ) )
+                {
+                    return true;
+                }
+            }
+        }
+        catch ( Exception e )
+        {
+            throw new LdapOperationErrorException( e.getMessage(), e );
+        }
+    }
+
+
     /**
      * Retrieve the SuffixID
      */
@@ -3458,7 +3696,45 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      */
     public void updateCache( OperationContext opCtx )
     {
-        // partition implementations should override this if they want to use cache
+        if ( entryCache == null )
+        {
+            return;
+        }
+
+        try
+        {
+            if ( opCtx instanceof ModifyOperationContext )
+            {
+                // replace the entry
+                ModifyOperationContext modCtx = ( ModifyOperationContext ) opCtx;
+                Entry entry = modCtx.getAlteredEntry();
+                String id = entry.get( SchemaConstants.ENTRY_UUID_AT ).getString();
+
+                if ( entry instanceof ClonedServerEntry )
+                {
+                    entry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
+                }
+
+                entryCache.replace( id, entry );
+            }
+            else if ( ( opCtx instanceof DeleteOperationContext ) || ( opCtx instanceof MoveOperationContext )
+                || ( opCtx instanceof MoveAndRenameOperationContext ) || ( opCtx instanceof RenameOperationContext ) )
+            {
+                // The cached entries don't contain their DN : only the deleted or moved entry has changed
+                if ( opCtx.getEntry() != null )
+                {
+                    entryCache.remove( opCtx.getEntry().get( SchemaConstants.ENTRY_UUID_AT ).getString() );
+                }
+                else
+                {
+                    entryCache.clear();
+                }
+            }
+        }
+        catch ( LdapException e )
+        {
+            LOG.warn( "Failed to update entry cache", e );
+        }
     }
 
 
@@ -3470,7 +3746,12 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      */
     public Entry lookupCache( String id )
     {
-        return null;
+        if ( entryCache == null )
+        {
+            return null;
+        }
+
+        return entryCache.get( id );
     }
 
 
@@ -3485,6 +3766,120 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      */
     public void addToCache( String id, Entry entry )
     {
+        if ( entryCache == null )
+        {
+            return;
+        }
+
+        if ( entry instanceof ClonedServerEntry )
+        {
+            entry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
+        }
+
+        entryCache.put( id, entry );
+    }
+
+
+    /**
+     * @return The entry cache, null if the partition does not cache its entries
+     */
+    public OffHeapEntryCache getEntryCache()
+    {
+        return entryCache;
+    }
+
+
+    /**
+     * Exposes the entry cache statistics of this partition.
+     *
+     * @param metrics The map to fill
+     */
+    public void collectMetrics( Map<String, Number> metrics )
+    {
+        OffHeapEntryCache cache = entryCache;
+
+        if ( cache == null )
+        {
+            return;
+        }
+
+        String prefix = "partition." + id + ".entryCache.";
+        long hits = cache.getHits();
+        long misses = cache.getMisses();
+
+        metrics.put( prefix + "size", cache.size() );
+        metrics.put( prefix + "usedMemory", cache.getUsedMemory() );
+        metrics.put( prefix + "hits", hits );
+        metrics.put( prefix + "misses", misses );
+        metrics.put( prefix + "evictions", cache.getEvictions() );
+        metrics.put( prefix + "hitRatio", ( hits + misses ) == 0 ? 0d : ( double ) hits / ( hits + misses ) );
+    }
+
+
+    /**
+     * Gives the number of bytes the entry cache can use. The entry cache is enabled by
+     * default : unless {@link #setEntryCacheMemory(long)} has been called, its size is
+     * cacheSize * DEFAULT_ENTRY_SIZE, 10MB with the default cache size. A random fetch
+     * among 10 000 entries of about 1KB is 8 times faster with it than when it has to
+     * read the entries from JDBM, see JdbmEntryCachePerfTest.
+     *
+     * @return The number of bytes the entry cache can use, 0 if the partition does not
+     * cache its entries
+     */
+    public long getEntryCacheMemory()
+    {
+        if ( entryCacheMemory < 0 )
+        {
+            return cacheSize * DEFAULT_ENTRY_SIZE;
+        }
+
+        return entryCacheMemory;
+    }
+
+
+    /**
+     * Sets the number of bytes the entry cache can use, 0 to disable the cache. The whole
+     * memory is allocated off-heap when the partition is initialized.
+     *
+     * @param entryCacheMemory The number of bytes used by the entry cache
+     */
+    public void setEntryCacheMemory( long entryCacheMemory )
+    {
+        checkInitialized( "entryCacheMemory" );
+        this.entryCacheMemory = entryCacheMemory;
+    }
+
+
+    /**
+     * Removes from the DN caches a renamed or moved entry, and its descendants, whose
+     * DN has changed. The descendants are read from the entry hierarchy, the other
+     * cached DNs are still valid.
+     *
+     * @param id The renamed or moved entry ID
+     */
+    private void invalidateDnCache( String id )
+    {
+        if ( piarCache != null )
+        {
+            piarCache.remove( id );
+        }
+
+        entryDnCache.remove( id );
+
+        List<String> descendantIds = hierarchy.getDescendantIds( id );
+
+        if ( descendantIds == null )
+        {
+            // The entry is not in the hierarchy, its descendants are unknown
+            entryDnCache.removeAll();
+
+            return;
+        }
+
+        for ( String descendantId : descendantIds )
+        {
+            entryDnCache.remove( descendantId );
+        }
     }
 
 
@@ -3516,7 +3911,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
 
     /**
-     * Set and return the ReadWrite lock we use to protect the backend against concurrent modifications
+     * Set the ReadWrite lock we use to protect the backend against concurrent modifications. This
+     * is the OperationManager lock for this partition, shared with the operations in progress.
      * 
      * @param operationContext The OperationContext which contain the reference to the OperationManager
      */
@@ -3524,7 +3920,9 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     {
         if ( operationContext.getSession() != null )
         {
-            rwLock = operationContext.getSession().getDirectoryService().getOperationManager().getRWLock();
+            // Use the lock dedicated to this partition, so that we don't block the other partitions
+            rwLock = operationContext.getSession().getDirectoryService().getOperationManager()
+                .getRWLock( getSuffixDn() );
         }
         else
         {
@@ -3545,6 +3943,145 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         return rwLock;
     }
 
+
+    /**
+     * {@inheritDoc}
+     */
+    public void registerStreamingCursor( StreamingCursor cursor )
+    {
+        streamingCursors.add( cursor );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void unregisterStreamingCursor( StreamingCursor cursor )
+    {
+        streamingCursors.remove( cursor );
+    }
+
+
+    /**
+     * Reads the remaining candidates of the open streaming cursors whose driving index is
+     * about to be modified : the cursors reading the master table, which is always written,
+     * the Rdn index when the hierarchy changes, the presence index or the index of one of
+     * the given attribute types. A cursor which can't be read is closed, the write is not
+     * impacted.
+     *
+     * @param attributeTypes The attribute types whose index may be modified
+     * @param hierarchyChanged Tells if the Rdn index is modified
+     */
+    private void materializeStreamingCursors( Collection<AttributeType> attributeTypes, boolean hierarchyChanged )
+        throws LdapException
+    {
+        for ( StreamingCursor cursor : streamingCursors )
+        {
+            if ( !isDrivingIndexModified( cursor.getDrivingAttributeType(), attributeTypes, hierarchyChanged ) )
+            {
+                continue;
+            }
+
+            try
+            {
+                cursor.materialize();
+            }
+            catch ( Exception e )
+            {
+                LOG.warn( "Closing the streaming cursor {} which can't be materialized", cursor, e );
+
+                try
+                {
+                    cursor.close( e );
+                }
+                catch ( IOException ioe )
+                {
+                    LOG.warn( "Failed to close the streaming cursor", ioe );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Tells if a write modifying the indexes of the given attribute types modifies the index
+     * of the given attribute type, or the master table if it's null
+     */
+    private boolean isDrivingIndexModified( AttributeType drivingAttributeType,
+        Collection<AttributeType> attributeTypes, boolean hierarchyChanged ) throws LdapException
+    {
+        if ( drivingAttributeType == null )
+        {
+            return true;
+        }
+
+        if ( drivingAttributeType.equals( rdnIdx.getAttribute() ) )
+        {
+            return hierarchyChanged;
+        }
+
+        if ( drivingAttributeType.equals( presenceIdx.getAttribute() ) )
+        {
+            // The presence index contains the user indexed attributes
+            for ( AttributeType attributeType : attributeTypes )
+            {
+                if ( ( attributeType != null ) && hasUserIndexOn( attributeType ) )
+                {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        return attributeTypes.contains( drivingAttributeType );
+    }
+
+
+    /**
+     * Gets the attribute types of an entry
+     */
+    private static List<AttributeType> getAttributeTypes( Entry entry )
+    {
+        List<AttributeType> attributeTypes = new ArrayList<AttributeType>();
+
+        for ( Attribute attribute : entry )
+        {
+            attributeTypes.add( attribute.getAttributeType() );
+        }
+
+        return attributeTypes;
+    }
+
+
+    /**
+     * Gets the attribute types of some RDNs
+     */
+    private List<AttributeType> getAttributeTypes( Rdn... rdns )
+    {
+        List<AttributeType> attributeTypes = new ArrayList<AttributeType>();
+
+        for ( Rdn rdn : rdns )
+        {
+            for ( Ava ava : rdn )
+            {
+                AttributeType attributeType = ava.getAttributeType();
+
+                if ( attributeType == null )
+                {
+                    attributeType = schemaManager.getAttributeType( ava.getType() );
+                }
+
+                if ( attributeType != null )
+                {
+                    attributeTypes.add( attributeType );
+                }
+            }
+        }
+
+        return attributeTypes;
+    }
+
     
     /**
      * {@inheritDoc}
@@ -3553,6 +4090,15 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     {
         return aliasCache;
     }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public EntryOrdinalMap getEntryOrdinalMap()
+    {
+        return entryOrdinals;
+    }
     
     
     @Override
@@ -3647,6 +4193,12 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             origEntry.add( contextCsnAT, contextCsn );
             
             master.put( contextEntryId, origEntry );
+
+            // The entry cache holds a copy of the context entry
+            if ( entryCache != null )
+            {
+                entryCache.replace( contextEntryId, origEntry );
+            }
             
             ctxCsnChanged = false;
             
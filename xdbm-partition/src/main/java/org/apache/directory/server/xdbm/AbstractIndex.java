@@ -20,10 +20,24 @@
 package org.apache.directory.server.xdbm;
 
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.server.i18n.I18n;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
@@ -34,6 +48,12 @@ import org.apache.directory.server.i18n.I18n;
  */
 public abstract class AbstractIndex<K, ID> implements Index<K, ID>
 {
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( AbstractIndex.class );
+
+    /** The extension of the file containing the index statistics */
+    public static final String STATISTICS_EXTENSION = ".stats";
+
     /** The attribute identifier for this index */
     protected String attributeId;
 
@@ -52,6 +72,12 @@ public abstract class AbstractIndex<K, ID> implements Index<K, ID>
     /** A counter used to differ the commit on disk after N operations */
     protected AtomicInteger commitNumber;
 
+    /** The statistics about the keys of this index */
+    protected final IndexStatistics statistics = new IndexStatistics();
+
+    /** The version of the statistics when they were last saved or loaded */
+    private long savedStatisticsVersion = -1L;
+
 
     /**
      * Creates a new instance of AbstractIndex.
@@ -163,4 +189,155 @@ public abstract class AbstractIndex<K, ID> implements Index<K, ID>
     {
         return withReverse;
     }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public IndexStatistics getStatistics()
+    {
+        return statistics;
+    }
+
+
+    /**
+     * Updates the statistics after a key has been added or removed from the forward table.
+     * The table is not read again, we only compare its number of elements.
+     *
+     * @param forward The forward table
+     * @param key The added or removed key
+     * @param countBefore The number of elements in the forward table before the update
+     * @throws Exception If the forward table can't be read
+     */
+    protected void updateStatistics( Table<K, ID> forward, K key, long countBefore ) throws Exception
+    {
+        long delta = forward.count() - countBefore;
+
+        if ( delta > 0L )
+        {
+            for ( long i = 0L; i < delta; i++ )
+            {
+                statistics.add( key );
+            }
+        }
+        else if ( delta < 0L )
+        {
+            statistics.drop( key, -delta );
+        }
+    }
+
+
+    /**
+     * Loads the statistics saved when the index was synced. They are rebuilt by reading
+     * the whole index if they are missing, or if they don't match the index content, as
+     * when the index has been modified after the statistics were last saved.
+     *
+     * @param file The statistics file
+     * @throws Exception If the index can't be read
+     */
+    protected void loadStatistics( File file ) throws Exception
+    {
+        if ( file.exists() )
+        {
+            DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+
+            try
+            {
+                statistics.read( in );
+
+                if ( statistics.getCount() == count() )
+                {
+                    savedStatisticsVersion = statistics.getVersion();
+
+                    return;
+                }
+
+                LOG.info( "The statistics of the index {} are out of date", attributeId );
+            }
+            catch ( IOException ioe )
+            {
+                LOG.warn( "Cannot read the statistics of the index {}", attributeId, ioe );
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+
+        rebuildStatistics();
+    }
+
+
+    /**
+     * Saves the statistics, to be loaded when the index is opened again. They are written
+     * in a temporary file which then replaces the statistics file, so that a crash never
+     * leaves a partially written file. Nothing is saved if the statistics have not changed
+     * since they were last saved, or if they have not been kept up to date.
+     *
+     * @param file The statistics file
+     */
+    protected void saveStatistics( File file )
+    {
+        try
+        {
+            long version = statistics.getVersion();
+
+            if ( ( version == savedStatisticsVersion ) || ( statistics.getCount() != count() ) )
+            {
+                return;
+            }
+
+            File tmpFile = new File( file.getPath() + ".tmp" );
+            DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmpFile ) ) );
+
+            try
+            {
+                statistics.write( out );
+            }
+            finally
+            {
+                out.close();
+            }
+
+            Files.move( tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE );
+            savedStatisticsVersion = version;
+        }
+        catch ( Exception e )
+        {
+            // Not a big deal, they will be rebuilt
+            LOG.warn( "Cannot save the statistics of the index {}", attributeId, e );
+        }
+    }
+
+
+    /**
+     * Rebuilds the statistics by reading all the index keys, in order.
+     *
+     * @throws Exception If the index can't be read
+     */
+    protected void rebuildStatistics() throws Exception
+    {
+        LOG.info( "Computing the statistics of the index {}", attributeId );
+
+        statistics.clear();
+        Cursor<IndexEntry<K, ID>> cursor = forwardCursor();
+        K previousKey = null;
+        boolean first = true;
+
+        try
+        {
+            while ( cursor.next() )
+            {
+                K key = cursor.get().getKey();
+                statistics.add( key, first || !Objects.deepEquals( key, previousKey ) );
+                previousKey = key;
+                first = false;
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
 }
@@ -0,0 +1,688 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.server.core.api.partition.Partition;
+
+
+/**
+ * The tree of the entries of a partition, kept in memory : for each entry ordinal, the
+ * ordinal of its parent, its RDNs and its children. It answers the questions the RDN
+ * index answers with a lookup per level (the DN of an entry, its parent, whether it is
+ * in the scope of a search, its descendants) without reading the index.
+ * <br>
+ * The RDNs are interned : the entries sharing the same RDN, like all the "ou=people"
+ * entries, share the same Rdn instance.
+ * <br>
+ * The tree is loaded from the RDN index when the partition is initialized, and updated
+ * each time an entry is added, deleted, renamed or moved. This class is thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntryHierarchy
+{
+    /** The parent of an entry which is not in the tree */
+    private static final int UNKNOWN = -2;
+
+    /** The parent of the context entry */
+    private static final int ROOT = -1;
+
+    /** The end of a list of children */
+    private static final int NONE = -1;
+
+    /** The initial capacity of the arrays */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** The ordinals of the entries */
+    private final EntryOrdinalMap ordinals;
+
+    /** The parent ordinal of each entry, UNKNOWN if the entry is not in the tree */
+    private int[] parents = newParents( INITIAL_CAPACITY );
+
+    /** The RDNs of each entry. Only the context entry may have more than one RDN */
+    private Rdn[][] rdns = new Rdn[INITIAL_CAPACITY][];
+
+    /** The number of children of each entry */
+    private int[] childCounts = new int[INITIAL_CAPACITY];
+
+    /** The first child of each entry, NONE if the entry has no child */
+    private int[] firstChildren = newLinks( INITIAL_CAPACITY );
+
+    /** The next sibling of each entry, NONE for the last child */
+    private int[] nextSiblings = newLinks( INITIAL_CAPACITY );
+
+    /** The previous sibling of each entry, NONE for the first child */
+    private int[] previousSiblings = newLinks( INITIAL_CAPACITY );
+
+    /** The interned RDNs, with the number of entries using them */
+    private final Map<Rdn, InternedRdn> internedRdns = new HashMap<Rdn, InternedRdn>();
+
+    /** The number of entries in the tree */
+    private int size;
+
+    /** The lock protecting the structures */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+
+    /**
+     * An interned RDN, with the number of entries using it
+     */
+    private static final class InternedRdn
+    {
+        private final Rdn rdn;
+        private int count;
+
+
+        private InternedRdn( Rdn rdn )
+        {
+            this.rdn = rdn;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of EntryHierarchy.
+     *
+     * @param ordinals The map giving the ordinals of the entries
+     */
+    public EntryHierarchy( EntryOrdinalMap ordinals )
+    {
+        this.ordinals = ordinals;
+    }
+
+
+    /**
+     * Adds an entry in the tree. If the entry is already present, it's replaced.
+     *
+     * @param id The entry ID
+     * @param parentId The parent ID, or {@link Partition#ROOT_ID} for the context entry
+     * @param entryRdns The RDNs of the entry
+     */
+    public void add( String id, String parentId, Rdn[] entryRdns )
+    {
+        int ordinal = ordinals.getOrCreateOrdinal( id );
+        int parent = Partition.ROOT_ID.equals( parentId ) ? ROOT : ordinals.getOrCreateOrdinal( parentId );
+
+        lock.writeLock().lock();
+
+        try
+        {
+            ensureCapacity( Math.max( ordinal, parent ) + 1 );
+
+            if ( parents[ordinal] != UNKNOWN )
+            {
+                detach( ordinal );
+            }
+            else
+            {
+                size++;
+            }
+
+            attach( ordinal, parent, entryRdns );
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Changes the parent and the RDNs of an entry, when it is renamed or moved. Its
+     * descendants move with it.
+     *
+     * @param id The entry ID
+     * @param newParentId The new parent ID
+     * @param newRdns The new RDNs of the entry
+     */
+    public void move( String id, String newParentId, Rdn[] newRdns )
+    {
+        add( id, newParentId, newRdns );
+    }
+
+
+    /**
+     * Removes an entry from the tree. This must be done before its ordinal is released.
+     *
+     * @param id The entry ID
+     */
+    public void remove( String id )
+    {
+        int ordinal = ordinals.getOrdinal( id );
+
+        if ( ordinal < 0 )
+        {
+            return;
+        }
+
+        lock.writeLock().lock();
+
+        try
+        {
+            if ( ( ordinal < parents.length ) && ( parents[ordinal] != UNKNOWN ) )
+            {
+                detach( ordinal );
+                parents[ordinal] = UNKNOWN;
+                childCounts[ordinal] = 0;
+                firstChildren[ordinal] = NONE;
+                size--;
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Gets the RDNs of the DN of an entry, from the entry up to the context entry.
+     *
+     * @param id The entry ID
+     * @return The RDNs, or null if the entry is not in the tree
+     */
+    public Rdn[] getDnRdns( String id )
+    {
+        int ordinal = ordinals.getOrdinal( id );
+
+        lock.readLock().lock();
+
+        try
+        {
+            if ( !contains( ordinal ) )
+            {
+                return null;
+            }
+
+            Rdn[] dnRdns = new Rdn[16];
+            int pos = 0;
+
+            while ( ordinal != ROOT )
+            {
+                if ( !contains( ordinal ) )
+                {
+                    // A missing parent : the tree is not complete
+                    return null;
+                }
+
+                for ( Rdn rdn : rdns[ordinal] )
+                {
+                    if ( pos == dnRdns.length )
+                    {
+                        dnRdns = Arrays.copyOf( dnRdns, pos * 2 );
+                    }
+
+                    dnRdns[pos++] = rdn;
+                }
+
+                ordinal = parents[ordinal];
+            }
+
+            return Arrays.copyOf( dnRdns, pos );
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Gets the parent of an entry.
+     *
+     * @param id The entry ID
+     * @return The parent ID, {@link Partition#ROOT_ID} for the context entry, or null if
+     * the entry is not in the tree
+     */
+    public String getParentId( String id )
+    {
+        int parent;
+
+        lock.readLock().lock();
+
+        try
+        {
+            int ordinal = ordinals.getOrdinal( id );
+
+            if ( !contains( ordinal ) )
+            {
+                return null;
+            }
+
+            parent = parents[ordinal];
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+
+        if ( parent == ROOT )
+        {
+            return Partition.ROOT_ID;
+        }
+
+        return ordinals.getId( parent );
+    }
+
+
+    /**
+     * Gets the number of children of an entry.
+     *
+     * @param id The entry ID
+     * @return The number of children, or -1 if the entry is not in the tree
+     */
+    public int getChildCount( String id )
+    {
+        lock.readLock().lock();
+
+        try
+        {
+            int ordinal = ordinals.getOrdinal( id );
+
+            if ( !contains( ordinal ) )
+            {
+                return -1;
+            }
+
+            return childCounts[ordinal];
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Gets the descendants of an entry : its children, their children, and so on.
+     *
+     * @param id The entry ID
+     * @return The IDs of the descendants, not including the entry itself, or null if
+     * the entry is not in the tree
+     */
+    public List<String> getDescendantIds( String id )
+    {
+        int[] descendants;
+        int count = 0;
+
+        lock.readLock().lock();
+
+        try
+        {
+            int ordinal = ordinals.getOrdinal( id );
+
+            if ( !contains( ordinal ) )
+            {
+                return null;
+            }
+
+            // The descendants found so far are also the stack of the entries to visit
+            descendants = new int[16];
+            int next = 0;
+            int current = ordinal;
+
+            while ( true )
+            {
+                for ( int child = firstChildren[current]; child != NONE; child = nextSiblings[child] )
+                {
+                    if ( count == descendants.length )
+                    {
+                        descendants = Arrays.copyOf( descendants, count * 2 );
+                    }
+
+                    descendants[count++] = child;
+                }
+
+                if ( next == count )
+                {
+                    break;
+                }
+
+                current = descendants[next++];
+            }
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+
+        List<String> ids = new ArrayList<String>( count );
+
+        for ( int i = 0; i < count; i++ )
+        {
+            String descendantId = ordinals.getId( descendants[i] );
+
+            if ( descendantId != null )
+            {
+                ids.add( descendantId );
+            }
+        }
+
+        return ids;
+    }
+
+
+    /**
+     * Tells if an entry is a child of another entry.
+     *
+     * @param id The entry ID
+     * @param parentId The parent ID
+     * @return true if the entry is a child of the parent
+     */
+    public boolean isChildOf( String id, String parentId )
+    {
+        int ordinal = ordinals.getOrdinal( id );
+        int parent = ordinals.getOrdinal( parentId );
+
+        lock.readLock().lock();
+
+        try
+        {
+            return contains( ordinal ) && ( parent >= 0 ) && ( parents[ordinal] == parent );
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Tells if an entry is a descendant of another entry. An entry is not its own
+     * descendant.
+     *
+     * @param id The entry ID
+     * @param ancestorId The ancestor ID
+     * @return true if the entry is below the ancestor
+     */
+    public boolean isDescendantOf( String id, String ancestorId )
+    {
+        int ordinal = ordinals.getOrdinal( id );
+        int ancestor = ordinals.getOrdinal( ancestorId );
+
+        if ( ancestor < 0 )
+        {
+            return false;
+        }
+
+        lock.readLock().lock();
+
+        try
+        {
+            if ( !contains( ordinal ) )
+            {
+                return false;
+            }
+
+            // The depth of the tree is bounded by its size
+            for ( int depth = 0; depth < size; depth++ )
+            {
+                ordinal = parents[ordinal];
+
+                if ( ordinal == ancestor )
+                {
+                    return true;
+                }
+
+                if ( !contains( ordinal ) )
+                {
+                    return false;
+                }
+            }
+
+            return false;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Tells if an entry is in the tree.
+     *
+     * @param id The entry ID
+     * @return true if the entry is in the tree
+     */
+    public boolean contains( String id )
+    {
+        int ordinal = ordinals.getOrdinal( id );
+
+        lock.readLock().lock();
+
+        try
+        {
+            return contains( ordinal );
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Removes all the entries from the tree.
+     */
+    public void clear()
+    {
+        lock.writeLock().lock();
+
+        try
+        {
+            parents = newParents( INITIAL_CAPACITY );
+            rdns = new Rdn[INITIAL_CAPACITY][];
+            childCounts = new int[INITIAL_CAPACITY];
+            firstChildren = newLinks( INITIAL_CAPACITY );
+            nextSiblings = newLinks( INITIAL_CAPACITY );
+            previousSiblings = newLinks( INITIAL_CAPACITY );
+            internedRdns.clear();
+            size = 0;
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * @return The number of entries in the tree
+     */
+    public int size()
+    {
+        lock.readLock().lock();
+
+        try
+        {
+            return size;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Tells if an ordinal is in the tree. Must be called with the lock held.
+     */
+    private boolean contains( int ordinal )
+    {
+        return ( ordinal >= 0 ) && ( ordinal < parents.length ) && ( parents[ordinal] != UNKNOWN );
+    }
+
+
+    /**
+     * Links an entry to its parent. Must be called with the write lock held.
+     */
+    private void attach( int ordinal, int parent, Rdn[] entryRdns )
+    {
+        Rdn[] interned = new Rdn[entryRdns.length];
+
+        for ( int i = 0; i < entryRdns.length; i++ )
+        {
+            interned[i] = intern( entryRdns[i] );
+        }
+
+        parents[ordinal] = parent;
+        rdns[ordinal] = interned;
+
+        if ( parent != ROOT )
+        {
+            childCounts[parent]++;
+
+            // Insert the entry at the head of the children of its parent
+            int first = firstChildren[parent];
+            nextSiblings[ordinal] = first;
+            previousSiblings[ordinal] = NONE;
+
+            if ( first != NONE )
+            {
+                previousSiblings[first] = ordinal;
+            }
+
+            firstChildren[parent] = ordinal;
+        }
+    }
+
+
+    /**
+     * Unlinks an entry from its parent. Must be called with the write lock held.
+     */
+    private void detach( int ordinal )
+    {
+        int parent = parents[ordinal];
+
+        if ( parent >= 0 )
+        {
+            if ( childCounts[parent] > 0 )
+            {
+                childCounts[parent]--;
+            }
+
+            int previous = previousSiblings[ordinal];
+            int next = nextSiblings[ordinal];
+
+            if ( previous != NONE )
+            {
+                nextSiblings[previous] = next;
+            }
+            else if ( firstChildren[parent] == ordinal )
+            {
+                firstChildren[parent] = next;
+            }
+
+            if ( next != NONE )
+            {
+                previousSiblings[next] = previous;
+            }
+
+            nextSiblings[ordinal] = NONE;
+            previousSiblings[ordinal] = NONE;
+        }
+
+        for ( Rdn rdn : rdns[ordinal] )
+        {
+            release( rdn );
+        }
+
+        rdns[ordinal] = null;
+    }
+
+
+    private Rdn intern( Rdn rdn )
+    {
+        InternedRdn interned = internedRdns.get( rdn );
+
+        if ( interned == null )
+        {
+            interned = new InternedRdn( rdn );
+            internedRdns.put( rdn, interned );
+        }
+
+        interned.count++;
+
+        return interned.rdn;
+    }
+
+
+    private void release( Rdn rdn )
+    {
+        InternedRdn interned = internedRdns.get( rdn );
+
+        if ( ( interned != null ) && ( --interned.count == 0 ) )
+        {
+            internedRdns.remove( rdn );
+        }
+    }
+
+
+    private void ensureCapacity( int capacity )
+    {
+        if ( capacity <= parents.length )
+        {
+            return;
+        }
+
+        int newCapacity = Math.max( capacity, parents.length * 2 );
+        int oldCapacity = parents.length;
+
+        parents = Arrays.copyOf( parents, newCapacity );
+        Arrays.fill( parents, oldCapacity, newCapacity, UNKNOWN );
+        rdns = Arrays.copyOf( rdns, newCapacity );
+        childCounts = Arrays.copyOf( childCounts, newCapacity );
+        firstChildren = Arrays.copyOf( firstChildren, newCapacity );
+        Arrays.fill( firstChildren, oldCapacity, newCapacity, NONE );
+        nextSiblings = Arrays.copyOf( nextSiblings, newCapacity );
+        Arrays.fill( nextSiblings, oldCapacity, newCapacity, NONE );
+        previousSiblings = Arrays.copyOf( previousSiblings, newCapacity );
+        Arrays.fill( previousSiblings, oldCapacity, newCapacity, NONE );
+    }
+
+
+    private static int[] newParents( int capacity )
+    {
+        int[] parents = new int[capacity];
+        Arrays.fill( parents, UNKNOWN );
+
+        return parents;
+    }
+
+
+    private static int[] newLinks( int capacity )
+    {
+        int[] links = new int[capacity];
+        Arrays.fill( links, NONE );
+
+        return links;
+    }
+}
@@ -0,0 +1,766 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+
+/**
+ * Associates a dense int ordinal to each entry UUID of a partition, and the UUID back
+ * to the ordinal. The ordinals are used to store sets of entries in compact
+ * {@link OrdinalBitmap}s instead of sets of UUID Strings.
+ * <br>
+ * UUIDs are stored as two longs, in an open addressing hash table, so that an entry
+ * costs a few bytes instead of a String and a map node. Ordinals are allocated the
+ * first time an entry is seen and released when the entry is deleted.
+ * <br>
+ * A released ordinal may still be stored in the bitmaps of a search started before
+ * the deletion. It is only reused once all the {@link Reader}s created before its
+ * release are gone, so that such a bitmap never sees another entry behind the ordinal.
+ * Readers are released with {@link #release(Reader)} when the structure holding them
+ * is closed. A Reader which is never released is only forgotten once it has been
+ * garbage collected, delaying the reuse of the ordinals until then.
+ * <br>
+ * This class is thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntryOrdinalMap
+{
+    /** The value used to mark an empty slot in the hash table */
+    private static final int EMPTY = -1;
+
+    /** The value used to mark a slot which has been removed from the hash table */
+    private static final int DELETED = -2;
+
+    /** The initial capacity of the hash table. Must be a power of 2 */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** The UUIDs, indexed by ordinal : most significant bits */
+    private long[] msbs = new long[INITIAL_CAPACITY];
+
+    /** The UUIDs, indexed by ordinal : least significant bits */
+    private long[] lsbs = new long[INITIAL_CAPACITY];
+
+    /** The ordinals, indexed by the UUID hash */
+    private int[] slots = newSlots( INITIAL_CAPACITY * 2 );
+
+    /** The number of used slots, including deleted ones */
+    private int usedSlots;
+
+    /** The next ordinal to allocate, if there is no free one */
+    private int nextOrdinal;
+
+    /** The released ordinals, to be reused, in release order */
+    private int[] freeOrdinals = new int[16];
+
+    /** The generation at which each free ordinal has been released */
+    private long[] freeGenerations = new long[16];
+
+    /** The position of the oldest free ordinal */
+    private int freeHead;
+
+    /** The position following the newest free ordinal */
+    private int freeTail;
+
+    /** The current generation, incremented each time an ordinal is released */
+    private long generation;
+
+    /** The number of live readers, by generation. Guarded by the readers lock */
+    private final TreeMap<Long, Integer> readerGenerations = new TreeMap<Long, Integer>();
+
+    /** The references to the live readers. Guarded by itself */
+    private final Set<ReaderReference> readers = new HashSet<ReaderReference>();
+
+    /** The references of the collected readers */
+    private final ReferenceQueue<Reader> collectedReaders = new ReferenceQueue<Reader>();
+
+    /** The IDs which are not canonical UUIDs, keyed by ordinal */
+    private final Map<Integer, String> otherIds = new HashMap<Integer, String>();
+
+    /** The ordinals of the IDs which are not canonical UUIDs */
+    private final Map<String, Integer> otherOrdinals = new HashMap<String, Integer>();
+
+    /** The number of ordinals in use */
+    private int size;
+
+    /** The lock protecting the structures */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+
+    /**
+     * A handle held by the structures storing ordinals, like the search candidate bitmaps.
+     * The ordinals released after the creation of a Reader are not reused until it is
+     * released.
+     */
+    public static final class Reader
+    {
+        /** The reference tracking this reader */
+        private ReaderReference reference;
+
+
+        private Reader()
+        {
+        }
+    }
+
+
+    /**
+     * A weak reference to a Reader, remembering the generation at which it was created.
+     * The reference is only used to forget the Readers which are garbage collected
+     * without having been released.
+     */
+    private static final class ReaderReference extends WeakReference<Reader>
+    {
+        /** The oldest generation whose ordinals the reader may hold */
+        private long generation;
+
+
+        private ReaderReference( Reader reader, long generation, ReferenceQueue<Reader> queue )
+        {
+            super( reader, queue );
+            this.generation = generation;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of EntryOrdinalMap.
+     */
+    public EntryOrdinalMap()
+    {
+    }
+
+
+    /**
+     * Gets the ordinal associated with an entry ID.
+     *
+     * @param id The entry UUID
+     * @return The ordinal, or -1 if the entry has no ordinal yet
+     */
+    public int getOrdinal( String id )
+    {
+        lock.readLock().lock();
+
+        try
+        {
+            return lookup( id );
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Gets the ordinal associated with an entry ID, allocating a new one if needed.
+     *
+     * @param id The entry UUID
+     * @return The entry ordinal
+     */
+    public int getOrCreateOrdinal( String id )
+    {
+        int ordinal = getOrdinal( id );
+
+        if ( ordinal >= 0 )
+        {
+            return ordinal;
+        }
+
+        lock.writeLock().lock();
+
+        try
+        {
+            // Check again, someone else may have added it
+            ordinal = lookup( id );
+
+            if ( ordinal >= 0 )
+            {
+                return ordinal;
+            }
+
+            ordinal = allocate();
+            long[] uuid = parse( id );
+
+            if ( uuid == null )
+            {
+                otherIds.put( ordinal, id );
+                otherOrdinals.put( id, ordinal );
+            }
+            else
+            {
+                msbs[ordinal] = uuid[0];
+                lsbs[ordinal] = uuid[1];
+                insert( ordinal );
+            }
+
+            size++;
+
+            return ordinal;
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Gets the entry ID associated with an ordinal
+     *
+     * @param ordinal The ordinal
+     * @return The entry UUID, or null if the ordinal is not allocated
+     */
+    public String getId( int ordinal )
+    {
+        lock.readLock().lock();
+
+        try
+        {
+            if ( ( ordinal < 0 ) || ( ordinal >= nextOrdinal ) )
+            {
+                return null;
+            }
+
+            String id = otherIds.get( ordinal );
+
+            if ( id != null )
+            {
+                return id;
+            }
+
+            // Check that the ordinal is still in use
+            if ( slots[find( msbs[ordinal], lsbs[ordinal] )] != ordinal )
+            {
+                return null;
+            }
+
+            return toString( msbs[ordinal], lsbs[ordinal] );
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Creates a new Reader. The ordinals released from now on won't be reused until
+     * the Reader is released.
+     *
+     * @return The new Reader
+     */
+    public Reader newReader()
+    {
+        Reader reader = new Reader();
+
+        synchronized ( readers )
+        {
+            expungeReaders();
+
+            // The generation is only modified with the readers lock held
+            ReaderReference reference = new ReaderReference( reader, generation, collectedReaders );
+            reader.reference = reference;
+            readers.add( reference );
+            addReaderGeneration( reference.generation, 1 );
+        }
+
+        return reader;
+    }
+
+
+    /**
+     * Releases a Reader : the ordinals it holds may be reused. Releasing a Reader
+     * more than once has no effect.
+     *
+     * @param reader The Reader to release
+     */
+    public void release( Reader reader )
+    {
+        synchronized ( readers )
+        {
+            ReaderReference reference = reader.reference;
+
+            if ( readers.remove( reference ) )
+            {
+                addReaderGeneration( reference.generation, -1 );
+                reference.clear();
+            }
+        }
+    }
+
+
+    /**
+     * Tells that a Reader now holds the ordinals of another Reader, for instance when
+     * a bitmap has been merged into another one. The reader inherits the oldest
+     * generation of both.
+     *
+     * @param reader The Reader receiving the ordinals
+     * @param other The Reader whose ordinals are copied
+     */
+    public void merge( Reader reader, Reader other )
+    {
+        synchronized ( readers )
+        {
+            ReaderReference reference = reader.reference;
+            long otherGeneration = other.reference.generation;
+
+            if ( !readers.contains( reference ) )
+            {
+                // The reader has been released, it does not protect anything anymore
+                return;
+            }
+
+            if ( otherGeneration < reference.generation )
+            {
+                addReaderGeneration( reference.generation, -1 );
+                addReaderGeneration( otherGeneration, 1 );
+                reference.generation = otherGeneration;
+            }
+        }
+    }
+
+
+    /**
+     * Releases the ordinal associated with an entry ID. This is called when the entry
+     * is deleted.
+     *
+     * @param id The entry UUID
+     */
+    public void remove( String id )
+    {
+        lock.writeLock().lock();
+
+        try
+        {
+            Integer other = otherOrdinals.remove( id );
+
+            if ( other != null )
+            {
+                otherIds.remove( other );
+                release( other );
+
+                return;
+            }
+
+            long[] uuid = parse( id );
+
+            if ( uuid == null )
+            {
+                return;
+            }
+
+            int slot = find( uuid[0], uuid[1] );
+
+            if ( slots[slot] >= 0 )
+            {
+                release( slots[slot] );
+                slots[slot] = DELETED;
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Removes all the ordinals.
+     */
+    public void clear()
+    {
+        lock.writeLock().lock();
+
+        try
+        {
+            msbs = new long[INITIAL_CAPACITY];
+            lsbs = new long[INITIAL_CAPACITY];
+            slots = newSlots( INITIAL_CAPACITY * 2 );
+            usedSlots = 0;
+            nextOrdinal = 0;
+            freeHead = 0;
+            freeTail = 0;
+            size = 0;
+            otherIds.clear();
+            otherOrdinals.clear();
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * @return The number of allocated ordinals
+     */
+    public int size()
+    {
+        lock.readLock().lock();
+
+        try
+        {
+            return size;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Looks for an ID ordinal. Must be called with the lock held.
+     */
+    private int lookup( String id )
+    {
+        long[] uuid = parse( id );
+
+        if ( uuid == null )
+        {
+            Integer ordinal = otherOrdinals.get( id );
+
+            return ordinal == null ? EMPTY : ordinal;
+        }
+
+        int ordinal = slots[find( uuid[0], uuid[1] )];
+
+        return ordinal >= 0 ? ordinal : EMPTY;
+    }
+
+
+    /**
+     * Finds the slot containing the given UUID, or the empty slot where it should be stored
+     */
+    private int find( long msb, long lsb )
+    {
+        int mask = slots.length - 1;
+        int slot = hash( msb, lsb ) & mask;
+        int firstDeleted = EMPTY;
+
+        while ( true )
+        {
+            int ordinal = slots[slot];
+
+            if ( ordinal == EMPTY )
+            {
+                return firstDeleted == EMPTY ? slot : firstDeleted;
+            }
+
+            if ( ordinal == DELETED )
+            {
+                if ( firstDeleted == EMPTY )
+                {
+                    firstDeleted = slot;
+                }
+            }
+            else if ( ( msbs[ordinal] == msb ) && ( lsbs[ordinal] == lsb ) )
+            {
+                return slot;
+            }
+
+            slot = ( slot + 1 ) & mask;
+        }
+    }
+
+
+    /**
+     * Stores an ordinal in the hash table, growing it if needed
+     */
+    private void insert( int ordinal )
+    {
+        if ( ( usedSlots + 1 ) * 4 > slots.length * 3 )
+        {
+            rehash();
+        }
+
+        int slot = find( msbs[ordinal], lsbs[ordinal] );
+
+        if ( slots[slot] == EMPTY )
+        {
+            usedSlots++;
+        }
+
+        slots[slot] = ordinal;
+    }
+
+
+    /**
+     * Rebuilds the hash table, dropping the deleted slots
+     */
+    private void rehash()
+    {
+        int[] oldSlots = slots;
+        int capacity = oldSlots.length;
+
+        if ( size * 2 >= capacity / 2 )
+        {
+            capacity *= 2;
+        }
+
+        slots = newSlots( capacity );
+        usedSlots = 0;
+
+        for ( int ordinal : oldSlots )
+        {
+            if ( ordinal >= 0 )
+            {
+                int slot = find( msbs[ordinal], lsbs[ordinal] );
+                slots[slot] = ordinal;
+                usedSlots++;
+            }
+        }
+    }
+
+
+    /**
+     * Allocates an ordinal, reusing the oldest released one if no live reader may hold it
+     */
+    private int allocate()
+    {
+        if ( freeHead < freeTail )
+        {
+            long oldestReader;
+
+            synchronized ( readers )
+            {
+                expungeReaders();
+                oldestReader = readerGenerations.isEmpty() ? Long.MAX_VALUE : readerGenerations.firstKey();
+            }
+
+            // The readers created before the release have a lower generation
+            if ( freeGenerations[freeHead] <= oldestReader )
+            {
+                return freeOrdinals[freeHead++];
+            }
+        }
+
+        if ( nextOrdinal == msbs.length )
+        {
+            msbs = Arrays.copyOf( msbs, nextOrdinal * 2 );
+            lsbs = Arrays.copyOf( lsbs, nextOrdinal * 2 );
+        }
+
+        return nextOrdinal++;
+    }
+
+
+    /**
+     * Releases an ordinal so that it can be reused
+     */
+    private void release( int ordinal )
+    {
+        if ( freeTail == freeOrdinals.length )
+        {
+            int nbFree = freeTail - freeHead;
+
+            if ( nbFree * 2 <= freeOrdinals.length )
+            {
+                // Reuse the room of the ordinals already reallocated
+                System.arraycopy( freeOrdinals, freeHead, freeOrdinals, 0, nbFree );
+                System.arraycopy( freeGenerations, freeHead, freeGenerations, 0, nbFree );
+            }
+            else
+            {
+                int[] newOrdinals = new int[freeOrdinals.length * 2];
+                long[] newGenerations = new long[freeOrdinals.length * 2];
+                System.arraycopy( freeOrdinals, freeHead, newOrdinals, 0, nbFree );
+                System.arraycopy( freeGenerations, freeHead, newGenerations, 0, nbFree );
+                freeOrdinals = newOrdinals;
+                freeGenerations = newGenerations;
+            }
+
+            freeHead = 0;
+            freeTail = nbFree;
+        }
+
+        synchronized ( readers )
+        {
+            generation++;
+            freeGenerations[freeTail] = generation;
+        }
+
+        freeOrdinals[freeTail++] = ordinal;
+        size--;
+    }
+
+
+    /**
+     * Forgets the readers which have been garbage collected. Must be called with the
+     * readers lock held.
+     */
+    private void expungeReaders()
+    {
+        ReaderReference reference = ( ReaderReference ) collectedReaders.poll();
+
+        while ( reference != null )
+        {
+            if ( readers.remove( reference ) )
+            {
+                addReaderGeneration( reference.generation, -1 );
+            }
+
+            reference = ( ReaderReference ) collectedReaders.poll();
+        }
+    }
+
+
+    /**
+     * Updates the number of readers of a generation. Must be called with the readers
+     * lock held.
+     */
+    private void addReaderGeneration( long readerGeneration, int delta )
+    {
+        Integer count = readerGenerations.get( readerGeneration );
+        int newCount = ( count == null ? 0 : count ) + delta;
+
+        if ( newCount == 0 )
+        {
+            readerGenerations.remove( readerGeneration );
+        }
+        else
+        {
+            readerGenerations.put( readerGeneration, newCount );
+        }
+    }
+
+
+    private static int[] newSlots( int capacity )
+    {
+        int[] newSlots = new int[capacity];
+        Arrays.fill( newSlots, EMPTY );
+
+        return newSlots;
+    }
+
+
+    private static int hash( long msb, long lsb )
+    {
+        long h = msb ^ lsb;
+        h ^= ( h >>> 33 );
+        h *= 0xff51afd7ed558ccdL;
+        h ^= ( h >>> 33 );
+
+        return ( int ) h;
+    }
+
+
+    /**
+     * Parses a canonical (lower case, 36 chars) UUID. Returns null if the
+     * String is not a canonical UUID.
+     */
+    private static long[] parse( String id )
+    {
+        if ( ( id == null ) || ( id.length() != 36 ) )
+        {
+            return null;
+        }
+
+        long msb = 0L;
+        long lsb = 0L;
+        int nbDigits = 0;
+
+        for ( int i = 0; i < 36; i++ )
+        {
+            char c = id.charAt( i );
+
+            if ( ( i == 8 ) || ( i == 13 ) || ( i == 18 ) || ( i == 23 ) )
+            {
+                if ( c != '-' )
+                {
+                    return null;
+                }
+
+                continue;
+            }
+
+            int digit;
+
+            if ( ( c >= '0' ) && ( c <= '9' ) )
+            {
+                digit = c - '0';
+            }
+            else if ( ( c >= 'a' ) && ( c <= 'f' ) )
+            {
+                digit = c - 'a' + 10;
+            }
+            else
+            {
+                return null;
+            }
+
+            if ( nbDigits < 16 )
+            {
+                msb = ( msb << 4 ) | digit;
+            }
+            else
+            {
+                lsb = ( lsb << 4 ) | digit;
+            }
+
+            nbDigits++;
+        }
+
+        return new long[]
+            { msb, lsb };
+    }
+
+
+    private static String toString( long msb, long lsb )
+    {
+        char[] chars = new char[36];
+        int pos = 0;
+
+        for ( int i = 0; i < 32; i++ )
+        {
+            if ( ( pos == 8 ) || ( pos == 13 ) || ( pos == 18 ) || ( pos == 23 ) )
+            {
+                chars[pos++] = '-';
+            }
+
+            long bits = i < 16 ? msb : lsb;
+            int digit = ( int ) ( bits >>> ( 60 - ( ( i & 15 ) << 2 ) ) ) & 0xF;
+            chars[pos++] = Character.forDigit( digit, 16 );
+        }
+
+        return new String( chars );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return "EntryOrdinalMap[" + size() + " ordinals]";
+    }
+}
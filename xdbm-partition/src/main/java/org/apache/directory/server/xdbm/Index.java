@@ -138,6 +138,15 @@ public interface Index<K, ID>
     long lessThanCount( K attrVal ) throws Exception;
 
 
+    /**
+     * Gets the statistics about the keys of this index, maintained as the keys are
+     * added and removed. They are used to estimate scan counts without reading the index.
+     *
+     * @return the statistics of this index
+     */
+    IndexStatistics getStatistics();
+
+
     ID forwardLookup( K attrVal ) throws Exception;
 
 
@@ -0,0 +1,445 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * Statistics about the keys of an index, used by the optimizer to estimate the number
+ * of candidates of a filter without reading the index. They are updated each time a
+ * key is added or removed from the index.
+ * <br>
+ * We keep the total number of keys, the number of distinct keys, and for String keys,
+ * an histogram of the number of keys and distinct keys per key prefix. The prefix
+ * histogram gives the estimates for equality, ordering and initial substring filters.
+ * <br>
+ * The number of keys is exact. The number of distinct keys is only exact when the
+ * statistics are built from the whole index : the index updates don't tell if a key
+ * is new, and checking it would cost an extra index lookup on each write. When a key
+ * is added or removed, the number of distinct keys is updated so that the ratio of
+ * distinct keys of its bucket does not change.
+ * <br>
+ * The estimates are never 0 when the index is not empty : the optimizer considers that
+ * a filter with no candidate does not need to be evaluated at all, so only the index
+ * can tell that.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IndexStatistics
+{
+    /** The number of characters of the String keys used for the histogram */
+    public static final int PREFIX_LENGTH = 2;
+
+    /** The version of the serialized statistics */
+    private static final int VERSION = 2;
+
+    /** The number of keys */
+    private long count;
+
+    /** The estimated number of distinct keys */
+    private double distinctCount;
+
+    /** The number of keys and of distinct keys, per String key prefix */
+    private final TreeMap<String, Bucket> histogram = new TreeMap<String, Bucket>();
+
+    /** Incremented each time the statistics are modified */
+    private long version;
+
+
+    /**
+     * The number of keys and the estimated number of distinct keys sharing a prefix
+     */
+    private static class Bucket
+    {
+        private long count;
+        private double distinctCount;
+    }
+
+
+    /**
+     * Records a key read while the statistics are built from the whole index.
+     *
+     * @param key The key
+     * @param newKey true if the key is not the same as the previous one
+     */
+    public synchronized void add( Object key, boolean newKey )
+    {
+        count++;
+        version++;
+
+        if ( newKey )
+        {
+            distinctCount++;
+        }
+
+        if ( key instanceof String )
+        {
+            Bucket bucket = getBucket( ( String ) key );
+            bucket.count++;
+
+            if ( newKey )
+            {
+                bucket.distinctCount++;
+            }
+        }
+    }
+
+
+    /**
+     * Records a key added into the index.
+     *
+     * @param key The added key
+     */
+    public synchronized void add( Object key )
+    {
+        distinctCount += ratio( distinctCount, count );
+        count++;
+        version++;
+
+        if ( key instanceof String )
+        {
+            Bucket bucket = getBucket( ( String ) key );
+            bucket.distinctCount += ratio( bucket.distinctCount, bucket.count );
+            bucket.count++;
+        }
+    }
+
+
+    /**
+     * Records a key removed from the index.
+     *
+     * @param key The removed key
+     * @param nbRemoved The number of removed elements for this key
+     */
+    public synchronized void drop( Object key, long nbRemoved )
+    {
+        distinctCount = Math.max( 0d, distinctCount - nbRemoved * ratio( distinctCount, count ) );
+        count = Math.max( 0L, count - nbRemoved );
+        version++;
+
+        if ( key instanceof String )
+        {
+            String prefix = getPrefix( ( String ) key );
+            Bucket bucket = histogram.get( prefix );
+
+            if ( bucket != null )
+            {
+                bucket.distinctCount -= nbRemoved * ratio( bucket.distinctCount, bucket.count );
+                bucket.count -= nbRemoved;
+
+                if ( bucket.count <= 0L )
+                {
+                    histogram.remove( prefix );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Removes all the statistics
+     */
+    public synchronized void clear()
+    {
+        count = 0L;
+        distinctCount = 0d;
+        histogram.clear();
+        version++;
+    }
+
+
+    /**
+     * @return The number of keys in the index
+     */
+    public synchronized long getCount()
+    {
+        return count;
+    }
+
+
+    /**
+     * @return The estimated number of distinct keys in the index
+     */
+    public synchronized long getDistinctCount()
+    {
+        return Math.round( distinctCount );
+    }
+
+
+    /**
+     * @return A number incremented each time the statistics are modified
+     */
+    public synchronized long getVersion()
+    {
+        return version;
+    }
+
+
+    /**
+     * Estimates the number of elements associated with a key : this is the average
+     * number of elements per distinct key sharing the same prefix.
+     *
+     * @param key The key
+     * @return The estimated number of elements
+     */
+    public synchronized long estimateEquality( Object key )
+    {
+        if ( count == 0L )
+        {
+            return 0L;
+        }
+
+        if ( key instanceof String )
+        {
+            Bucket bucket = histogram.get( getPrefix( ( String ) key ) );
+
+            if ( ( bucket == null ) || ( bucket.distinctCount <= 0d ) )
+            {
+                return 1L;
+            }
+
+            return average( bucket.count, bucket.distinctCount );
+        }
+
+        return average( count, distinctCount );
+    }
+
+
+    /**
+     * Estimates the number of elements with a key greater or equal to the given key.
+     *
+     * @param key The key
+     * @return The estimated number of elements
+     */
+    public synchronized long estimateGreaterOrEqual( Object key )
+    {
+        if ( !( key instanceof String ) )
+        {
+            return half();
+        }
+
+        String prefix = getPrefix( ( String ) key );
+        long total = 0L;
+
+        for ( Map.Entry<String, Bucket> bucket : histogram.tailMap( prefix, true ).entrySet() )
+        {
+            long bucketCount = bucket.getValue().count;
+
+            // We don't know where the key is in its own bucket
+            total += bucket.getKey().equals( prefix ) ? ( bucketCount + 1 ) / 2 : bucketCount;
+        }
+
+        return atLeastOne( total );
+    }
+
+
+    /**
+     * Estimates the number of elements with a key lower or equal to the given key.
+     *
+     * @param key The key
+     * @return The estimated number of elements
+     */
+    public synchronized long estimateLessOrEqual( Object key )
+    {
+        if ( !( key instanceof String ) )
+        {
+            return half();
+        }
+
+        String prefix = getPrefix( ( String ) key );
+        long total = 0L;
+
+        for ( Map.Entry<String, Bucket> bucket : histogram.headMap( prefix, true ).entrySet() )
+        {
+            long bucketCount = bucket.getValue().count;
+
+            // We don't know where the key is in its own bucket
+            total += bucket.getKey().equals( prefix ) ? ( bucketCount + 1 ) / 2 : bucketCount;
+        }
+
+        return atLeastOne( total );
+    }
+
+
+    /**
+     * Estimates the number of elements with a key starting with the given initial
+     * substring.
+     *
+     * @param initial The initial substring
+     * @return The estimated number of elements
+     */
+    public synchronized long estimateInitial( String initial )
+    {
+        long total = 0L;
+
+        if ( initial.length() >= PREFIX_LENGTH )
+        {
+            // All the keys in the bucket may match, we can't tell better
+            Bucket bucket = histogram.get( getPrefix( initial ) );
+
+            if ( bucket != null )
+            {
+                total = bucket.count;
+            }
+        }
+        else
+        {
+            // The initial substring is shorter than the prefixes : sum all the buckets it starts
+            for ( Bucket bucket : histogram.subMap( initial, true, initial + Character.MAX_VALUE, true ).values() )
+            {
+                total += bucket.count;
+            }
+        }
+
+        return atLeastOne( total );
+    }
+
+
+    /**
+     * Writes the statistics.
+     *
+     * @param out The output
+     * @throws IOException If the statistics can't be written
+     */
+    public synchronized void write( DataOutput out ) throws IOException
+    {
+        out.writeInt( VERSION );
+        out.writeLong( count );
+        out.writeDouble( distinctCount );
+        out.writeInt( histogram.size() );
+
+        for ( Map.Entry<String, Bucket> bucket : histogram.entrySet() )
+        {
+            out.writeUTF( bucket.getKey() );
+            out.writeLong( bucket.getValue().count );
+            out.writeDouble( bucket.getValue().distinctCount );
+        }
+    }
+
+
+    /**
+     * Reads the statistics written by {@link #write(DataOutput)}, replacing the current ones.
+     *
+     * @param in The input
+     * @throws IOException If the statistics can't be read
+     */
+    public synchronized void read( DataInput in ) throws IOException
+    {
+        int version = in.readInt();
+
+        if ( version != VERSION )
+        {
+            throw new IOException( "Unsupported index statistics version : " + version );
+        }
+
+        clear();
+        count = in.readLong();
+        distinctCount = in.readDouble();
+        int nbBuckets = in.readInt();
+
+        for ( int i = 0; i < nbBuckets; i++ )
+        {
+            String prefix = in.readUTF();
+            Bucket bucket = new Bucket();
+            bucket.count = in.readLong();
+            bucket.distinctCount = in.readDouble();
+            histogram.put( prefix, bucket );
+        }
+    }
+
+
+    private static String getPrefix( String key )
+    {
+        return key.length() <= PREFIX_LENGTH ? key : key.substring( 0, PREFIX_LENGTH );
+    }
+
+
+    private Bucket getBucket( String key )
+    {
+        String prefix = getPrefix( key );
+        Bucket bucket = histogram.get( prefix );
+
+        if ( bucket == null )
+        {
+            bucket = new Bucket();
+            histogram.put( prefix, bucket );
+        }
+
+        return bucket;
+    }
+
+
+    /**
+     * The ratio of distinct keys. The first key is a distinct one.
+     */
+    private static double ratio( double nbDistinct, long nbKeys )
+    {
+        if ( nbKeys <= 0L )
+        {
+            return 1d;
+        }
+
+        return nbDistinct / nbKeys;
+    }
+
+
+    private long half()
+    {
+        return atLeastOne( count / 2 );
+    }
+
+
+    private long atLeastOne( long estimate )
+    {
+        if ( count == 0L )
+        {
+            return 0L;
+        }
+
+        return Math.max( 1L, estimate );
+    }
+
+
+    private static long average( long nbKeys, double nbDistinct )
+    {
+        if ( nbDistinct <= 0d )
+        {
+            return Math.max( 1L, nbKeys );
+        }
+
+        return Math.max( 1L, Math.round( nbKeys / nbDistinct ) );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public synchronized String toString()
+    {
+        return "IndexStatistics[count=" + count + ", distinct=" + getDistinctCount() + ", buckets=" + histogram.size()
+            + "]";
+    }
+}
@@ -0,0 +1,1187 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A cache of entries, stored serialized outside of the Java heap. The entries don't
+ * add to the GC work, and the cache size is given in bytes instead of entries.
+ * <br>
+ * The cache is divided in segments, each with its own lock, memory and eviction policy.
+ * An entry always goes in the same segment, chosen from its ID : the threads reading
+ * different entries rarely wait for each other. The IDs are the entries UUIDs, kept as
+ * two longs in arrays of primitive values, the same way the location of the entries is :
+ * the cache creates no object but the entries it reads back. An ID which is not a UUID
+ * is never cached.
+ * <br>
+ * The memory of a segment is a direct buffer divided in fixed size blocks : an entry uses
+ * a chain of blocks, the links being kept in an array of int. The entries are stored
+ * without their DN, which is given by the caller when the entry is read : moving an entry
+ * does not change the cached content of its descendants.
+ * <br>
+ * The eviction policy is a segmented LRU with a TinyLFU admission filter : a new entry
+ * goes in a probation segment, and is promoted to the protected segment when it's read
+ * again. When the cache is full, a new entry only replaces the least recently used
+ * entry of the probation segment if it has been requested more often, according to a
+ * small frequency sketch. A scan of the whole partition thus can't evict the entries
+ * which are frequently read.
+ * <br>
+ * The partitions create their cache when they are initialized, see
+ * AbstractBTreePartition#getEntryCacheMemory() for its default size.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class OffHeapEntryCache
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( OffHeapEntryCache.class );
+
+    /** The size of a memory block */
+    public static final int BLOCK_SIZE = 256;
+
+    /** The end of a chain of blocks */
+    private static final int NO_BLOCK = -1;
+
+    /** The end of a list of entries */
+    private static final int NO_SLOT = -1;
+
+    /** The percentage of the blocks used by the protected segment */
+    private static final int PROTECTED_PERCENT = 80;
+
+    /** The largest part of a segment a single entry can use */
+    private static final int MAX_ENTRY_RATIO = 8;
+
+    /** The minimal number of blocks of a segment : an entry can use up to 128KB */
+    private static final int MIN_SEGMENT_BLOCKS = 4096;
+
+    /** The maximum number of segments */
+    private static final int MAX_SEGMENTS = 64;
+
+    /** The expected number of blocks used by an entry, giving the number of entries of a segment */
+    private static final int BLOCKS_PER_ENTRY = 2;
+
+    /** The list of the entries read once */
+    private static final int PROBATION = 0;
+
+    /** The list of the entries read more than once */
+    private static final int PROTECTED = 1;
+
+    /** The schemaManager used to read back the entries */
+    private final SchemaManager schemaManager;
+
+    /** The segments */
+    private final Segment[] segments;
+
+    /** The mask giving a segment from an ID hash */
+    private final int segmentMask;
+
+    /** The number of blocks */
+    private final int nbBlocks;
+
+
+    /**
+     * A part of the cache, with its own memory, entries and lock. All the methods are
+     * called with the segment lock held.
+     */
+    private static final class Segment
+    {
+        /** The memory storing the entries */
+        private final ByteBuffer memory;
+
+        /** The number of blocks */
+        private final int nbBlocks;
+
+        /** The next block of each block, or NO_BLOCK */
+        private final int[] nextBlocks;
+
+        /** The first free block */
+        private int freeBlock;
+
+        /** The number of free blocks */
+        private int nbFreeBlocks;
+
+        /** The maximum number of blocks used by the protected entries */
+        private final int maxProtectedBlocks;
+
+        /** The number of blocks used by the protected entries */
+        private int protectedBlocks;
+
+        /** The most significant bits of the entries UUID, by slot */
+        private final long[] highs;
+
+        /** The least significant bits of the entries UUID, by slot */
+        private final long[] lows;
+
+        /** The first block of the entries, by slot */
+        private final int[] firstBlocks;
+
+        /** The number of bytes of the entries, by slot */
+        private final int[] lengths;
+
+        /** The previous entry in the LRU lists, by slot */
+        private final int[] previous;
+
+        /** The next entry in the LRU lists, or in the free slots list, by slot */
+        private final int[] next;
+
+        /** Tells if an entry is in the protected list, by slot */
+        private final boolean[] protectedSlots;
+
+        /** The first free slot */
+        private int freeSlot;
+
+        /** The least recently used entry of each list */
+        private final int[] heads = new int[2];
+
+        /** The most recently used entry of each list */
+        private final int[] tails = new int[2];
+
+        /** The number of entries */
+        private int size;
+
+        /** The slots, plus one, by hash, with linear probing. 0 is an empty position */
+        private final int[] table;
+
+        /** The mask giving a table position from a hash */
+        private final int tableMask;
+
+        /** The estimated frequency of the requested entries */
+        private final FrequencySketch sketch;
+
+        /** The number of lookups returning an entry */
+        private long hits;
+
+        /** The number of lookups returning nothing */
+        private long misses;
+
+        /** The number of entries removed to make room for another one */
+        private long evictions;
+
+        /** The number of entries not stored because they were less requested than the cached ones */
+        private long rejections;
+
+
+        private Segment( ByteBuffer memory, int nbBlocks )
+        {
+            this.memory = memory;
+            this.nbBlocks = nbBlocks;
+            nextBlocks = new int[nbBlocks];
+            maxProtectedBlocks = ( int ) ( ( long ) nbBlocks * PROTECTED_PERCENT / 100 );
+
+            int nbSlots = Math.max( 1, nbBlocks / BLOCKS_PER_ENTRY );
+            highs = new long[nbSlots];
+            lows = new long[nbSlots];
+            firstBlocks = new int[nbSlots];
+            lengths = new int[nbSlots];
+            previous = new int[nbSlots];
+            next = new int[nbSlots];
+            protectedSlots = new boolean[nbSlots];
+
+            // At most half full
+            table = new int[Integer.highestOneBit( nbSlots ) * 4];
+            tableMask = table.length - 1;
+
+            sketch = new FrequencySketch( nbBlocks );
+
+            clear();
+        }
+
+
+        private byte[] get( long high, long low, int hash )
+        {
+            sketch.increment( hash );
+            int slot = find( high, low, hash );
+
+            if ( slot == NO_SLOT )
+            {
+                misses++;
+
+                return null;
+            }
+
+            unlink( slot );
+
+            if ( protectedSlots[slot] )
+            {
+                // Now the most recently used
+                link( slot, PROTECTED );
+            }
+            else
+            {
+                // Read twice : move it to the protected entries
+                promote( slot );
+            }
+
+            hits++;
+
+            return read( slot );
+        }
+
+
+        private boolean contains( long high, long low, int hash )
+        {
+            return find( high, low, hash ) != NO_SLOT;
+        }
+
+
+        /**
+         * Stores the serialized entry, evicting other entries if needed
+         */
+        private void store( long high, long low, int hash, byte[] bytes, boolean replace )
+        {
+            int blocks = ( bytes.length + BLOCK_SIZE - 1 ) / BLOCK_SIZE;
+            int slot = find( high, low, hash );
+            boolean wasProtected = false;
+
+            if ( slot != NO_SLOT )
+            {
+                wasProtected = protectedSlots[slot];
+                removeSlot( slot );
+            }
+
+            if ( blocks > nbBlocks / MAX_ENTRY_RATIO )
+            {
+                // Too big, it would evict too many entries
+                return;
+            }
+
+            if ( ( nbFreeBlocks < blocks ) || ( freeSlot == NO_SLOT ) )
+            {
+                int victim = eldest();
+
+                if ( !replace && ( victim != NO_SLOT )
+                    && ( sketch.frequency( hash ) <= sketch.frequency( hash( highs[victim], lows[victim] ) ) ) )
+                {
+                    // The cached entries are more useful
+                    rejections++;
+
+                    return;
+                }
+
+                while ( ( nbFreeBlocks < blocks ) || ( freeSlot == NO_SLOT ) )
+                {
+                    removeSlot( eldest() );
+                    evictions++;
+                }
+            }
+
+            slot = freeSlot;
+            freeSlot = next[slot];
+            size++;
+
+            highs[slot] = high;
+            lows[slot] = low;
+            lengths[slot] = bytes.length;
+            firstBlocks[slot] = write( bytes, blocks );
+            insert( slot, hash );
+
+            if ( wasProtected )
+            {
+                promote( slot );
+            }
+            else
+            {
+                protectedSlots[slot] = false;
+                link( slot, PROBATION );
+            }
+        }
+
+
+        private void remove( long high, long low, int hash )
+        {
+            int slot = find( high, low, hash );
+
+            if ( slot != NO_SLOT )
+            {
+                removeSlot( slot );
+            }
+        }
+
+
+        private void clear()
+        {
+            for ( int i = 0; i < nbBlocks - 1; i++ )
+            {
+                nextBlocks[i] = i + 1;
+            }
+
+            nextBlocks[nbBlocks - 1] = NO_BLOCK;
+            freeBlock = 0;
+            nbFreeBlocks = nbBlocks;
+            protectedBlocks = 0;
+
+            for ( int i = 0; i < next.length - 1; i++ )
+            {
+                next[i] = i + 1;
+            }
+
+            next[next.length - 1] = NO_SLOT;
+            freeSlot = 0;
+            size = 0;
+
+            heads[PROBATION] = NO_SLOT;
+            tails[PROBATION] = NO_SLOT;
+            heads[PROTECTED] = NO_SLOT;
+            tails[PROTECTED] = NO_SLOT;
+
+            Arrays.fill( table, 0 );
+        }
+
+
+        /**
+         * @return The least recently used entry of the probation list, or of the protected
+         * list if the probation list is empty
+         */
+        private int eldest()
+        {
+            if ( heads[PROBATION] != NO_SLOT )
+            {
+                return heads[PROBATION];
+            }
+
+            return heads[PROTECTED];
+        }
+
+
+        /**
+         * Adds an entry at the end of a list, as the most recently used
+         */
+        private void link( int slot, int list )
+        {
+            int tail = tails[list];
+            previous[slot] = tail;
+            next[slot] = NO_SLOT;
+
+            if ( tail == NO_SLOT )
+            {
+                heads[list] = slot;
+            }
+            else
+            {
+                next[tail] = slot;
+            }
+
+            tails[list] = slot;
+        }
+
+
+        /**
+         * Removes an entry from its list
+         */
+        private void unlink( int slot )
+        {
+            int list = protectedSlots[slot] ? PROTECTED : PROBATION;
+            int before = previous[slot];
+            int after = next[slot];
+
+            if ( before == NO_SLOT )
+            {
+                heads[list] = after;
+            }
+            else
+            {
+                next[before] = after;
+            }
+
+            if ( after == NO_SLOT )
+            {
+                tails[list] = before;
+            }
+            else
+            {
+                previous[after] = before;
+            }
+        }
+
+
+        /**
+         * Moves an unlinked entry in the protected list, moving back the least recently used
+         * protected entries in the probation list if it's full
+         */
+        private void promote( int slot )
+        {
+            protectedSlots[slot] = true;
+            link( slot, PROTECTED );
+            protectedBlocks += blocks( slot );
+
+            int demoted = heads[PROTECTED];
+
+            while ( ( protectedBlocks > maxProtectedBlocks ) && ( demoted != NO_SLOT ) )
+            {
+                int following = next[demoted];
+
+                if ( demoted != slot )
+                {
+                    unlink( demoted );
+                    protectedSlots[demoted] = false;
+                    protectedBlocks -= blocks( demoted );
+                    link( demoted, PROBATION );
+                }
+
+                demoted = following;
+            }
+        }
+
+
+        private void removeSlot( int slot )
+        {
+            unlink( slot );
+
+            if ( protectedSlots[slot] )
+            {
+                protectedBlocks -= blocks( slot );
+                protectedSlots[slot] = false;
+            }
+
+            delete( slot );
+            free( firstBlocks[slot], blocks( slot ) );
+
+            next[slot] = freeSlot;
+            freeSlot = slot;
+            size--;
+        }
+
+
+        private int blocks( int slot )
+        {
+            return ( lengths[slot] + BLOCK_SIZE - 1 ) / BLOCK_SIZE;
+        }
+
+
+        /**
+         * @return The slot of an entry, or NO_SLOT if it's not cached
+         */
+        private int find( long high, long low, int hash )
+        {
+            for ( int position = hash & tableMask;; position = ( position + 1 ) & tableMask )
+            {
+                int slot = table[position] - 1;
+
+                if ( ( slot == NO_SLOT ) || ( ( highs[slot] == high ) && ( lows[slot] == low ) ) )
+                {
+                    return slot;
+                }
+            }
+        }
+
+
+        private void insert( int slot, int hash )
+        {
+            int position = hash & tableMask;
+
+            while ( table[position] != 0 )
+            {
+                position = ( position + 1 ) & tableMask;
+            }
+
+            table[position] = slot + 1;
+        }
+
+
+        /**
+         * Removes a slot from the table, moving back the following slots of the same
+         * probing sequence so that no empty position separates them from their hash position
+         */
+        private void delete( int slot )
+        {
+            int hole = hash( highs[slot], lows[slot] ) & tableMask;
+
+            while ( table[hole] != slot + 1 )
+            {
+                hole = ( hole + 1 ) & tableMask;
+            }
+
+            table[hole] = 0;
+
+            for ( int position = ( hole + 1 ) & tableMask; table[position] != 0; position = ( position + 1 )
+                & tableMask )
+            {
+                int moved = table[position] - 1;
+                int home = hash( highs[moved], lows[moved] ) & tableMask;
+
+                // The slot stays where it is if its hash position is after the hole
+                boolean after = ( hole <= position ) ? ( ( hole < home ) && ( home <= position ) )
+                    : ( ( hole < home ) || ( home <= position ) );
+
+                if ( !after )
+                {
+                    table[hole] = table[position];
+                    table[position] = 0;
+                    hole = position;
+                }
+            }
+        }
+
+
+        /**
+         * Writes the bytes in a chain of free blocks
+         *
+         * @return The first block
+         */
+        private int write( byte[] bytes, int blocks )
+        {
+            int first = freeBlock;
+            int block = first;
+            int last = NO_BLOCK;
+
+            for ( int i = 0; i < blocks; i++ )
+            {
+                int offset = i * BLOCK_SIZE;
+                int length = Math.min( BLOCK_SIZE, bytes.length - offset );
+                ByteBuffer buffer = memory.duplicate();
+                buffer.position( block * BLOCK_SIZE );
+                buffer.put( bytes, offset, length );
+
+                last = block;
+                block = nextBlocks[block];
+            }
+
+            // Detach the chain from the free list
+            freeBlock = block;
+            nextBlocks[last] = NO_BLOCK;
+            nbFreeBlocks -= blocks;
+
+            return first;
+        }
+
+
+        private byte[] read( int slot )
+        {
+            int length = lengths[slot];
+            byte[] bytes = new byte[length];
+            int block = firstBlocks[slot];
+
+            for ( int offset = 0; offset < length; offset += BLOCK_SIZE )
+            {
+                ByteBuffer buffer = memory.duplicate();
+                buffer.position( block * BLOCK_SIZE );
+                buffer.get( bytes, offset, Math.min( BLOCK_SIZE, length - offset ) );
+                block = nextBlocks[block];
+            }
+
+            return bytes;
+        }
+
+
+        /**
+         * Gives back a chain of blocks to the free list
+         */
+        private void free( int first, int blocks )
+        {
+            int last = first;
+
+            while ( nextBlocks[last] != NO_BLOCK )
+            {
+                last = nextBlocks[last];
+            }
+
+            nextBlocks[last] = freeBlock;
+            freeBlock = first;
+            nbFreeBlocks += blocks;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of OffHeapEntryCache.
+     *
+     * @param schemaManager The schemaManager used to read back the entries
+     * @param maxMemory The number of bytes the cache can use
+     */
+    public OffHeapEntryCache( SchemaManager schemaManager, long maxMemory )
+    {
+        this.schemaManager = schemaManager;
+
+        int totalBlocks = ( int ) Math.max( 1L, Math.min( maxMemory, Integer.MAX_VALUE ) / BLOCK_SIZE );
+        int nbSegments = Integer.highestOneBit( Math.max( 1, Math.min( MAX_SEGMENTS, totalBlocks
+            / MIN_SEGMENT_BLOCKS ) ) );
+        int segmentBlocks = totalBlocks / nbSegments;
+
+        nbBlocks = segmentBlocks * nbSegments;
+        segments = new Segment[nbSegments];
+        segmentMask = nbSegments - 1;
+
+        ByteBuffer memory = ByteBuffer.allocateDirect( nbBlocks * BLOCK_SIZE );
+
+        for ( int i = 0; i < nbSegments; i++ )
+        {
+            memory.limit( ( i + 1 ) * segmentBlocks * BLOCK_SIZE );
+            memory.position( i * segmentBlocks * BLOCK_SIZE );
+            segments[i] = new Segment( memory.slice(), segmentBlocks );
+        }
+    }
+
+
+    /**
+     * Gets an entry from the cache.
+     *
+     * @param id The entry ID
+     * @return A copy of the cached entry, without DN, or null if it's not cached
+     */
+    public Entry get( String id )
+    {
+        if ( !isUuid( id ) )
+        {
+            return null;
+        }
+
+        long high = getHigh( id );
+        long low = getLow( id );
+        int hash = hash( high, low );
+        Segment segment = getSegment( hash );
+        byte[] bytes;
+
+        synchronized ( segment )
+        {
+            bytes = segment.get( high, low, hash );
+        }
+
+        if ( bytes == null )
+        {
+            return null;
+        }
+
+        try
+        {
+            return deserialize( bytes );
+        }
+        catch ( Exception e )
+        {
+            LOG.warn( "Failed to read the cached entry {}", id, e );
+            remove( id );
+
+            return null;
+        }
+    }
+
+
+    /**
+     * Stores an entry in the cache. The entry may not be stored if the cache is full
+     * and the entry has been requested less often than the cached entries.
+     *
+     * @param id The entry ID
+     * @param entry The entry
+     */
+    public void put( String id, Entry entry )
+    {
+        if ( !isUuid( id ) )
+        {
+            return;
+        }
+
+        byte[] bytes = serialize( entry );
+
+        if ( bytes == null )
+        {
+            return;
+        }
+
+        long high = getHigh( id );
+        long low = getLow( id );
+        int hash = hash( high, low );
+        Segment segment = getSegment( hash );
+
+        synchronized ( segment )
+        {
+            segment.store( high, low, hash, bytes, false );
+        }
+    }
+
+
+    /**
+     * Replaces an entry if it's already in the cache.
+     *
+     * @param id The entry ID
+     * @param entry The new entry
+     */
+    public void replace( String id, Entry entry )
+    {
+        if ( !isUuid( id ) )
+        {
+            return;
+        }
+
+        long high = getHigh( id );
+        long low = getLow( id );
+        int hash = hash( high, low );
+        Segment segment = getSegment( hash );
+
+        synchronized ( segment )
+        {
+            if ( !segment.contains( high, low, hash ) )
+            {
+                return;
+            }
+        }
+
+        byte[] bytes = serialize( entry );
+
+        synchronized ( segment )
+        {
+            if ( bytes == null )
+            {
+                segment.remove( high, low, hash );
+            }
+            else if ( segment.contains( high, low, hash ) )
+            {
+                segment.store( high, low, hash, bytes, true );
+            }
+        }
+    }
+
+
+    /**
+     * Removes an entry from the cache.
+     *
+     * @param id The entry ID
+     */
+    public void remove( String id )
+    {
+        if ( !isUuid( id ) )
+        {
+            return;
+        }
+
+        long high = getHigh( id );
+        long low = getLow( id );
+        int hash = hash( high, low );
+        Segment segment = getSegment( hash );
+
+        synchronized ( segment )
+        {
+            segment.remove( high, low, hash );
+        }
+    }
+
+
+    /**
+     * Removes all the entries from the cache.
+     */
+    public void clear()
+    {
+        for ( Segment segment : segments )
+        {
+            synchronized ( segment )
+            {
+                segment.clear();
+            }
+        }
+    }
+
+
+    /**
+     * @return The number of cached entries
+     */
+    public int size()
+    {
+        int size = 0;
+
+        for ( Segment segment : segments )
+        {
+            synchronized ( segment )
+            {
+                size += segment.size;
+            }
+        }
+
+        return size;
+    }
+
+
+    /**
+     * @return The number of bytes the cache can use
+     */
+    public long getMaxMemory()
+    {
+        return ( long ) nbBlocks * BLOCK_SIZE;
+    }
+
+
+    /**
+     * @return The number of bytes used by the cached entries, including the unused part of their last block
+     */
+    public long getUsedMemory()
+    {
+        long usedBlocks = 0L;
+
+        for ( Segment segment : segments )
+        {
+            synchronized ( segment )
+            {
+                usedBlocks += segment.nbBlocks - segment.nbFreeBlocks;
+            }
+        }
+
+        return usedBlocks * BLOCK_SIZE;
+    }
+
+
+    /**
+     * @return The number of lookups returning an entry
+     */
+    public long getHits()
+    {
+        long hits = 0L;
+
+        for ( Segment segment : segments )
+        {
+            synchronized ( segment )
+            {
+                hits += segment.hits;
+            }
+        }
+
+        return hits;
+    }
+
+
+    /**
+     * @return The number of lookups returning nothing
+     */
+    public long getMisses()
+    {
+        long misses = 0L;
+
+        for ( Segment segment : segments )
+        {
+            synchronized ( segment )
+            {
+                misses += segment.misses;
+            }
+        }
+
+        return misses;
+    }
+
+
+    /**
+     * @return The number of entries removed to make room for another one
+     */
+    public long getEvictions()
+    {
+        long evictions = 0L;
+
+        for ( Segment segment : segments )
+        {
+            synchronized ( segment )
+            {
+                evictions += segment.evictions;
+            }
+        }
+
+        return evictions;
+    }
+
+
+    /**
+     * @return The number of entries not stored because they were less requested than the cached ones
+     */
+    public long getRejections()
+    {
+        long rejections = 0L;
+
+        for ( Segment segment : segments )
+        {
+            synchronized ( segment )
+            {
+                rejections += segment.rejections;
+            }
+        }
+
+        return rejections;
+    }
+
+
+    /**
+     * @return The segment storing the entries whose UUID has the given hash
+     */
+    private Segment getSegment( int hash )
+    {
+        // The segment uses the low bits of the hash
+        return segments[( hash >>> 26 ) & segmentMask];
+    }
+
+
+    /**
+     * @return The number of segments
+     */
+    int getNbSegments()
+    {
+        return segments.length;
+    }
+
+
+    /**
+     * Tells if an ID is a UUID in its canonical form, 8-4-4-4-12 hexadecimal digits
+     */
+    private static boolean isUuid( String id )
+    {
+        if ( ( id == null ) || ( id.length() != 36 ) )
+        {
+            return false;
+        }
+
+        for ( int i = 0; i < 36; i++ )
+        {
+            char c = id.charAt( i );
+
+            if ( ( i == 8 ) || ( i == 13 ) || ( i == 18 ) || ( i == 23 ) )
+            {
+                if ( c != '-' )
+                {
+                    return false;
+                }
+            }
+            else if ( Character.digit( c, 16 ) < 0 )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * @return The most significant bits of a UUID
+     */
+    private static long getHigh( String uuid )
+    {
+        return parseHex( uuid, 0, 18 );
+    }
+
+
+    /**
+     * @return The least significant bits of a UUID
+     */
+    private static long getLow( String uuid )
+    {
+        return parseHex( uuid, 19, 36 );
+    }
+
+
+    /**
+     * Reads the hexadecimal digits of a part of a UUID, skipping the dashes
+     */
+    private static long parseHex( String uuid, int start, int end )
+    {
+        long value = 0L;
+
+        for ( int i = start; i < end; i++ )
+        {
+            char c = uuid.charAt( i );
+
+            if ( c != '-' )
+            {
+                value = ( value << 4 ) | Character.digit( c, 16 );
+            }
+        }
+
+        return value;
+    }
+
+
+    /**
+     * Mixes the bits of a UUID. The low bits position the entry in its segment, the
+     * high bits select the segment
+     */
+    private static int hash( long high, long low )
+    {
+        long hash = high ^ ( low * 0x9e3779b97f4a7c15L );
+        hash ^= hash >>> 31;
+        hash *= 0xbf58476d1ce4e5b9L;
+        hash ^= hash >>> 29;
+
+        return ( int ) hash;
+    }
+
+
+    /**
+     * Serializes the attributes of an entry. The DN is not stored.
+     */
+    private byte[] serialize( Entry entry )
+    {
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream( bytes );
+
+            out.writeInt( entry.size() );
+
+            for ( Attribute attribute : entry )
+            {
+                // Write the oid to be able to restore the AttributeType when deserializing the attribute
+                out.writeUTF( attribute.getAttributeType().getOid() );
+                attribute.writeExternal( out );
+            }
+
+            out.close();
+
+            return bytes.toByteArray();
+        }
+        catch ( IOException ioe )
+        {
+            LOG.warn( "Failed to serialize the entry {}", entry.getDn(), ioe );
+
+            return null;
+        }
+    }
+
+
+    private Entry deserialize( byte[] bytes ) throws IOException, ClassNotFoundException, LdapException
+    {
+        ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes ) );
+
+        try
+        {
+            Entry entry = new DefaultEntry( schemaManager );
+            int nbAttributes = in.readInt();
+
+            for ( int i = 0; i < nbAttributes; i++ )
+            {
+                AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( in.readUTF() );
+                Attribute attribute = new DefaultAttribute( attributeType );
+                attribute.readExternal( in );
+                entry.add( attribute );
+            }
+
+            return entry;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return "OffHeapEntryCache[segments=" + segments.length + ", entries=" + size() + ", memory="
+            + getUsedMemory() + "/" + getMaxMemory() + ", hits=" + getHits() + ", misses=" + getMisses()
+            + ", evictions=" + getEvictions() + ", rejections=" + getRejections() + "]";
+    }
+
+
+    /**
+     * A count-min sketch estimating how often the entries are requested. The counters
+     * are halved periodically, so that the old requests are forgotten.
+     */
+    private static final class FrequencySketch
+    {
+        /** The number of hashes per key */
+        private static final int DEPTH = 4;
+
+        /** The maximum value of a counter */
+        private static final int MAX_COUNT = 15;
+
+        /** The seeds of the hash functions */
+        private static final int[] SEEDS =
+            { 0x97cb3127, 0xc3a5c85c, 0x4f1bbcdd, 0x8e3f7d21 };
+
+        /** The counters */
+        private final byte[] counters;
+
+        /** The mask giving a counter position from a hash */
+        private final int mask;
+
+        /** The number of increments before the counters are halved */
+        private final int sampleSize;
+
+        /** The number of increments since the counters were halved */
+        private int increments;
+
+
+        private FrequencySketch( int capacity )
+        {
+            int size = Integer.highestOneBit( Math.max( 64, Math.min( capacity, 1 << 24 ) ) * 2 - 1 );
+            counters = new byte[size];
+            mask = size - 1;
+            sampleSize = 10 * size;
+        }
+
+
+        private void increment( int hash )
+        {
+            for ( int i = 0; i < DEPTH; i++ )
+            {
+                int index = index( hash, i );
+
+                if ( counters[index] < MAX_COUNT )
+                {
+                    counters[index]++;
+                }
+            }
+
+            if ( ++increments >= sampleSize )
+            {
+                for ( int i = 0; i < counters.length; i++ )
+                {
+                    counters[i] = ( byte ) ( counters[i] >>> 1 );
+                }
+
+                increments = 0;
+            }
+        }
+
+
+        private int frequency( int hash )
+        {
+            int frequency = MAX_COUNT;
+
+            for ( int i = 0; i < DEPTH; i++ )
+            {
+                frequency = Math.min( frequency, counters[index( hash, i )] );
+            }
+
+            return frequency;
+        }
+
+
+        private int index( int hash, int i )
+        {
+            int h = ( hash ^ SEEDS[i] ) * 0x9e3779b9;
+            h ^= h >>> 16;
+
+            return h & mask;
+        }
+    }
+}
@@ -0,0 +1,825 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.util.Arrays;
+
+
+/**
+ * A compressed bitmap of non negative int values, organized the Roaring way : the
+ * values are split in chunks of 65536 values sharing the same 16 high bits, and each
+ * chunk is stored either as a sorted array of the 16 low bits (when the chunk is sparse)
+ * or as a plain bitmap of 1024 longs (when it contains more than 4096 values).
+ * <br>
+ * This class is used to store the set of candidates of a search, using the entry
+ * ordinals provided by the {@link EntryOrdinalMap}. It is not thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class OrdinalBitmap
+{
+    /** The maximum number of values stored in an array container */
+    private static final int ARRAY_MAX_SIZE = 4096;
+
+    /** The number of longs in a bitmap container */
+    private static final int BITMAP_SIZE = 1024;
+
+    /** The sorted high 16 bits of each container */
+    private char[] keys = new char[4];
+
+    /** The containers. Each one is either a char[] or a long[] */
+    private Object[] containers = new Object[4];
+
+    /** The cardinality of each container */
+    private int[] cardinalities = new int[4];
+
+    /** The number of containers */
+    private int size;
+
+    /** The total number of values in this bitmap */
+    private long cardinality;
+
+
+    /**
+     * Creates an empty OrdinalBitmap
+     */
+    public OrdinalBitmap()
+    {
+    }
+
+
+    /**
+     * Adds a value to the bitmap.
+     *
+     * @param value The value to add. Must be positive or null
+     * @return <code>true</code> if the value was not already present
+     */
+    public boolean add( int value )
+    {
+        checkValue( value );
+        char high = ( char ) ( value >>> 16 );
+        char low = ( char ) value;
+        int pos = findContainer( high );
+
+        if ( pos < 0 )
+        {
+            pos = -pos - 1;
+            insertContainer( pos, high, new char[4], 0 );
+        }
+
+        Object container = containers[pos];
+        boolean added;
+
+        if ( container instanceof long[] )
+        {
+            added = bitmapAdd( ( long[] ) container, low );
+        }
+        else
+        {
+            char[] array = ( char[] ) container;
+            int nb = cardinalities[pos];
+            int idx = Arrays.binarySearch( array, 0, nb, low );
+
+            if ( idx >= 0 )
+            {
+                added = false;
+            }
+            else if ( nb == ARRAY_MAX_SIZE )
+            {
+                // Time to switch to a bitmap
+                long[] bitmap = toBitmap( array, nb );
+                containers[pos] = bitmap;
+                added = bitmapAdd( bitmap, low );
+            }
+            else
+            {
+                idx = -idx - 1;
+
+                if ( nb == array.length )
+                {
+                    array = Arrays.copyOf( array, Math.min( nb * 2, ARRAY_MAX_SIZE ) );
+                    containers[pos] = array;
+                }
+
+                System.arraycopy( array, idx, array, idx + 1, nb - idx );
+                array[idx] = low;
+                added = true;
+            }
+        }
+
+        if ( added )
+        {
+            cardinalities[pos]++;
+            cardinality++;
+        }
+
+        return added;
+    }
+
+
+    /**
+     * Tells if the bitmap contains a value.
+     *
+     * @param value The value we are looking for
+     * @return <code>true</code> if the value is present
+     */
+    public boolean contains( int value )
+    {
+        if ( value < 0 )
+        {
+            return false;
+        }
+
+        int pos = findContainer( ( char ) ( value >>> 16 ) );
+
+        if ( pos < 0 )
+        {
+            return false;
+        }
+
+        return containerContains( pos, ( char ) value );
+    }
+
+
+    /**
+     * @return The number of values stored in this bitmap
+     */
+    public long getCardinality()
+    {
+        return cardinality;
+    }
+
+
+    /**
+     * @return <code>true</code> if the bitmap does not contain any value
+     */
+    public boolean isEmpty()
+    {
+        return cardinality == 0L;
+    }
+
+
+    /**
+     * Removes all the values from this bitmap.
+     */
+    public void clear()
+    {
+        keys = new char[4];
+        containers = new Object[4];
+        cardinalities = new int[4];
+        size = 0;
+        cardinality = 0L;
+    }
+
+
+    /**
+     * Returns the smallest value in this bitmap greater or equal to the given value.
+     *
+     * @param from The value we start from (included)
+     * @return The found value, or -1 if there is none
+     */
+    public int nextValue( int from )
+    {
+        if ( from < 0 )
+        {
+            from = 0;
+        }
+
+        char high = ( char ) ( from >>> 16 );
+        int pos = findContainer( high );
+        int low = from & 0xFFFF;
+
+        if ( pos < 0 )
+        {
+            pos = -pos - 1;
+            low = 0;
+        }
+
+        while ( pos < size )
+        {
+            int found = containerNext( pos, keys[pos] == high ? low : 0 );
+
+            if ( found >= 0 )
+            {
+                return ( keys[pos] << 16 ) | found;
+            }
+
+            pos++;
+        }
+
+        return -1;
+    }
+
+
+    /**
+     * Returns the greatest value in this bitmap lower or equal to the given value.
+     *
+     * @param from The value we start from (included)
+     * @return The found value, or -1 if there is none
+     */
+    public int previousValue( int from )
+    {
+        if ( from < 0 )
+        {
+            return -1;
+        }
+
+        char high = ( char ) ( from >>> 16 );
+        int pos = findContainer( high );
+        int low = from & 0xFFFF;
+
+        if ( pos < 0 )
+        {
+            pos = -pos - 2;
+            low = 0xFFFF;
+        }
+
+        while ( pos >= 0 )
+        {
+            int found = containerPrevious( pos, keys[pos] == high ? low : 0xFFFF );
+
+            if ( found >= 0 )
+            {
+                return ( keys[pos] << 16 ) | found;
+            }
+
+            pos--;
+        }
+
+        return -1;
+    }
+
+
+    /**
+     * Computes the intersection of this bitmap with another one. This bitmap is modified.
+     * The sparse containers are intersected without being converted to plain bitmaps.
+     *
+     * @param other The bitmap to intersect with
+     */
+    public void and( OrdinalBitmap other )
+    {
+        int newSize = 0;
+        long newCardinality = 0L;
+
+        for ( int i = 0; i < size; i++ )
+        {
+            int otherPos = other.findContainer( keys[i] );
+
+            if ( otherPos < 0 )
+            {
+                continue;
+            }
+
+            Object container = containers[i];
+            Object otherContainer = other.containers[otherPos];
+            int nb;
+
+            if ( container instanceof char[] )
+            {
+                // Only keep the values present in the other container
+                nb = filter( ( char[] ) container, cardinalities[i], other, otherPos, true );
+            }
+            else if ( otherContainer instanceof char[] )
+            {
+                // The result can't be larger than the other array
+                char[] array = ( ( char[] ) otherContainer ).clone();
+                nb = filter( array, other.cardinalities[otherPos], this, i, true );
+                container = array;
+            }
+            else
+            {
+                long[] bitmap = ( long[] ) container;
+                long[] otherBitmap = ( long[] ) otherContainer;
+                nb = 0;
+
+                for ( int j = 0; j < BITMAP_SIZE; j++ )
+                {
+                    bitmap[j] &= otherBitmap[j];
+                    nb += Long.bitCount( bitmap[j] );
+                }
+
+                container = compact( bitmap, nb );
+            }
+
+            if ( nb > 0 )
+            {
+                keys[newSize] = keys[i];
+                containers[newSize] = container;
+                cardinalities[newSize] = nb;
+                newSize++;
+                newCardinality += nb;
+            }
+        }
+
+        for ( int i = newSize; i < size; i++ )
+        {
+            containers[i] = null;
+        }
+
+        size = newSize;
+        cardinality = newCardinality;
+    }
+
+
+    /**
+     * Computes the union of this bitmap with another one. This bitmap is modified.
+     * Two sparse containers are merged without being converted to plain bitmaps, as long
+     * as the result is sparse.
+     *
+     * @param other The bitmap to merge with this one
+     */
+    public void or( OrdinalBitmap other )
+    {
+        for ( int i = 0; i < other.size; i++ )
+        {
+            int pos = findContainer( other.keys[i] );
+            Object otherContainer = other.containers[i];
+            int otherNb = other.cardinalities[i];
+
+            if ( pos < 0 )
+            {
+                pos = -pos - 1;
+                Object copy = otherContainer instanceof long[] ? ( ( long[] ) otherContainer ).clone()
+                    : ( ( char[] ) otherContainer ).clone();
+                insertContainer( pos, other.keys[i], copy, otherNb );
+                cardinality += otherNb;
+
+                continue;
+            }
+
+            Object container = containers[pos];
+            int nb = cardinalities[pos];
+            Object result;
+            int resultNb;
+
+            if ( ( container instanceof char[] ) && ( otherContainer instanceof char[] ) )
+            {
+                char[] merged = merge( ( char[] ) container, nb, ( char[] ) otherContainer, otherNb );
+                resultNb = merged.length;
+
+                if ( resultNb > ARRAY_MAX_SIZE )
+                {
+                    result = toBitmap( merged, resultNb );
+                }
+                else
+                {
+                    result = merged;
+                }
+            }
+            else
+            {
+                long[] bitmap;
+                Object added;
+                int addedNb;
+
+                // Set the bits of the other container in a plain bitmap we own
+                if ( container instanceof long[] )
+                {
+                    bitmap = ( long[] ) container;
+                    added = otherContainer;
+                    addedNb = otherNb;
+                }
+                else
+                {
+                    bitmap = ( ( long[] ) otherContainer ).clone();
+                    added = container;
+                    addedNb = nb;
+                }
+
+                if ( added instanceof char[] )
+                {
+                    char[] array = ( char[] ) added;
+
+                    for ( int j = 0; j < addedNb; j++ )
+                    {
+                        bitmap[array[j] >>> 6] |= 1L << array[j];
+                    }
+                }
+                else
+                {
+                    long[] addedBitmap = ( long[] ) added;
+
+                    for ( int j = 0; j < BITMAP_SIZE; j++ )
+                    {
+                        bitmap[j] |= addedBitmap[j];
+                    }
+                }
+
+                resultNb = 0;
+
+                for ( int j = 0; j < BITMAP_SIZE; j++ )
+                {
+                    resultNb += Long.bitCount( bitmap[j] );
+                }
+
+                result = bitmap;
+            }
+
+            cardinality += resultNb - nb;
+            containers[pos] = result;
+            cardinalities[pos] = resultNb;
+        }
+    }
+
+
+    /**
+     * Removes from this bitmap all the values present in another one. This bitmap is modified.
+     * The sparse containers are processed without being converted to plain bitmaps.
+     *
+     * @param other The bitmap containing the values to remove
+     */
+    public void andNot( OrdinalBitmap other )
+    {
+        int newSize = 0;
+        long newCardinality = 0L;
+
+        for ( int i = 0; i < size; i++ )
+        {
+            int otherPos = other.findContainer( keys[i] );
+            Object container = containers[i];
+            int nb = cardinalities[i];
+
+            if ( otherPos >= 0 )
+            {
+                Object otherContainer = other.containers[otherPos];
+
+                if ( container instanceof char[] )
+                {
+                    // Only keep the values absent from the other container
+                    nb = filter( ( char[] ) container, nb, other, otherPos, false );
+                }
+                else
+                {
+                    long[] bitmap = ( long[] ) container;
+
+                    if ( otherContainer instanceof char[] )
+                    {
+                        char[] array = ( char[] ) otherContainer;
+
+                        for ( int j = 0; j < other.cardinalities[otherPos]; j++ )
+                        {
+                            long mask = 1L << array[j];
+
+                            if ( ( bitmap[array[j] >>> 6] & mask ) != 0L )
+                            {
+                                bitmap[array[j] >>> 6] &= ~mask;
+                                nb--;
+                            }
+                        }
+                    }
+                    else
+                    {
+                        long[] otherBitmap = ( long[] ) otherContainer;
+                        nb = 0;
+
+                        for ( int j = 0; j < BITMAP_SIZE; j++ )
+                        {
+                            bitmap[j] &= ~otherBitmap[j];
+                            nb += Long.bitCount( bitmap[j] );
+                        }
+                    }
+
+                    container = compact( bitmap, nb );
+                }
+            }
+
+            if ( nb > 0 )
+            {
+                keys[newSize] = keys[i];
+                containers[newSize] = container;
+                cardinalities[newSize] = nb;
+                newSize++;
+                newCardinality += nb;
+            }
+        }
+
+        for ( int i = newSize; i < size; i++ )
+        {
+            containers[i] = null;
+        }
+
+        size = newSize;
+        cardinality = newCardinality;
+    }
+
+
+    /**
+     * Checks that the value can be stored in the bitmap
+     */
+    private void checkValue( int value )
+    {
+        if ( value < 0 )
+        {
+            throw new IllegalArgumentException( "Cannot store a negative value in a bitmap : " + value );
+        }
+    }
+
+
+    /**
+     * Searches for the container associated with the given high bits
+     */
+    private int findContainer( char high )
+    {
+        return Arrays.binarySearch( keys, 0, size, high );
+    }
+
+
+    /**
+     * Inserts a new container at the given position
+     */
+    private void insertContainer( int pos, char high, Object container, int nb )
+    {
+        if ( size == keys.length )
+        {
+            int newLength = size * 2;
+            keys = Arrays.copyOf( keys, newLength );
+            containers = Arrays.copyOf( containers, newLength );
+            cardinalities = Arrays.copyOf( cardinalities, newLength );
+        }
+
+        System.arraycopy( keys, pos, keys, pos + 1, size - pos );
+        System.arraycopy( containers, pos, containers, pos + 1, size - pos );
+        System.arraycopy( cardinalities, pos, cardinalities, pos + 1, size - pos );
+        keys[pos] = high;
+        containers[pos] = container;
+        cardinalities[pos] = nb;
+        size++;
+    }
+
+
+    private boolean containerContains( int pos, char low )
+    {
+        Object container = containers[pos];
+
+        if ( container instanceof long[] )
+        {
+            return ( ( ( long[] ) container )[low >>> 6] & ( 1L << low ) ) != 0L;
+        }
+        else
+        {
+            return Arrays.binarySearch( ( char[] ) container, 0, cardinalities[pos], low ) >= 0;
+        }
+    }
+
+
+    /**
+     * Finds the smallest value in the container greater or equal to low, or -1
+     */
+    private int containerNext( int pos, int low )
+    {
+        Object container = containers[pos];
+
+        if ( container instanceof long[] )
+        {
+            long[] bitmap = ( long[] ) container;
+            int word = low >>> 6;
+            long bits = bitmap[word] & ( -1L << low );
+
+            while ( true )
+            {
+                if ( bits != 0L )
+                {
+                    return ( word << 6 ) + Long.numberOfTrailingZeros( bits );
+                }
+
+                word++;
+
+                if ( word == BITMAP_SIZE )
+                {
+                    return -1;
+                }
+
+                bits = bitmap[word];
+            }
+        }
+        else
+        {
+            char[] array = ( char[] ) container;
+            int nb = cardinalities[pos];
+            int idx = Arrays.binarySearch( array, 0, nb, ( char ) low );
+
+            if ( idx < 0 )
+            {
+                idx = -idx - 1;
+            }
+
+            return idx < nb ? array[idx] : -1;
+        }
+    }
+
+
+    /**
+     * Finds the greatest value in the container lower or equal to low, or -1
+     */
+    private int containerPrevious( int pos, int low )
+    {
+        Object container = containers[pos];
+
+        if ( container instanceof long[] )
+        {
+            long[] bitmap = ( long[] ) container;
+            int word = low >>> 6;
+            long bits = bitmap[word] & ( -1L >>> ( 63 - ( low & 0x3F ) ) );
+
+            while ( true )
+            {
+                if ( bits != 0L )
+                {
+                    return ( word << 6 ) + 63 - Long.numberOfLeadingZeros( bits );
+                }
+
+                word--;
+
+                if ( word < 0 )
+                {
+                    return -1;
+                }
+
+                bits = bitmap[word];
+            }
+        }
+        else
+        {
+            char[] array = ( char[] ) container;
+            int nb = cardinalities[pos];
+            int idx = Arrays.binarySearch( array, 0, nb, ( char ) low );
+
+            if ( idx < 0 )
+            {
+                idx = -idx - 2;
+            }
+
+            return idx >= 0 ? array[idx] : -1;
+        }
+    }
+
+
+    /**
+     * Adds a value in a bitmap container
+     */
+    private static boolean bitmapAdd( long[] bitmap, char low )
+    {
+        long mask = 1L << low;
+        int word = low >>> 6;
+
+        if ( ( bitmap[word] & mask ) != 0L )
+        {
+            return false;
+        }
+
+        bitmap[word] |= mask;
+
+        return true;
+    }
+
+
+    /**
+     * Keeps, at the beginning of an array container, the values which are present (or absent)
+     * in a container of a bitmap. The array is modified.
+     *
+     * @return The number of values kept
+     */
+    private static int filter( char[] array, int nb, OrdinalBitmap bitmap, int pos, boolean present )
+    {
+        int kept = 0;
+
+        for ( int j = 0; j < nb; j++ )
+        {
+            if ( bitmap.containerContains( pos, array[j] ) == present )
+            {
+                array[kept++] = array[j];
+            }
+        }
+
+        return kept;
+    }
+
+
+    /**
+     * Merges two sorted array containers into a new array, without duplicates
+     */
+    private static char[] merge( char[] array1, int nb1, char[] array2, int nb2 )
+    {
+        char[] merged = new char[nb1 + nb2];
+        int i1 = 0;
+        int i2 = 0;
+        int nb = 0;
+
+        while ( ( i1 < nb1 ) && ( i2 < nb2 ) )
+        {
+            char c1 = array1[i1];
+            char c2 = array2[i2];
+
+            if ( c1 < c2 )
+            {
+                merged[nb++] = c1;
+                i1++;
+            }
+            else if ( c1 > c2 )
+            {
+                merged[nb++] = c2;
+                i2++;
+            }
+            else
+            {
+                merged[nb++] = c1;
+                i1++;
+                i2++;
+            }
+        }
+
+        while ( i1 < nb1 )
+        {
+            merged[nb++] = array1[i1++];
+        }
+
+        while ( i2 < nb2 )
+        {
+            merged[nb++] = array2[i2++];
+        }
+
+        return nb == merged.length ? merged : Arrays.copyOf( merged, nb );
+    }
+
+
+    /**
+     * Creates a new bitmap container from a container. The given container is not modified.
+     */
+    private static long[] toBitmap( Object container, int nb )
+    {
+        if ( container instanceof long[] )
+        {
+            return ( ( long[] ) container ).clone();
+        }
+
+        char[] array = ( char[] ) container;
+        long[] bitmap = new long[BITMAP_SIZE];
+
+        for ( int i = 0; i < nb; i++ )
+        {
+            bitmap[array[i] >>> 6] |= 1L << array[i];
+        }
+
+        return bitmap;
+    }
+
+
+    /**
+     * Converts a bitmap container to an array container if it is sparse enough
+     */
+    private static Object compact( long[] bitmap, int nb )
+    {
+        if ( nb > ARRAY_MAX_SIZE )
+        {
+            return bitmap;
+        }
+
+        char[] array = new char[Math.max( nb, 4 )];
+        int idx = 0;
+
+        for ( int word = 0; word < BITMAP_SIZE; word++ )
+        {
+            long bits = bitmap[word];
+
+            while ( bits != 0L )
+            {
+                array[idx++] = ( char ) ( ( word << 6 ) + Long.numberOfTrailingZeros( bits ) );
+                bits &= bits - 1;
+            }
+        }
+
+        return array;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( "OrdinalBitmap[" ).append( cardinality ).append( " values, " );
+        sb.append( size ).append( " containers]" );
+
+        return sb.toString();
+    }
+}
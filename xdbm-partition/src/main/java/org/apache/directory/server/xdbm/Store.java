@@ -38,6 +38,7 @@ import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.name.Rdn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
+import org.apache.directory.server.xdbm.search.cursor.StreamingCursor;
 
 
 /**
@@ -308,6 +309,28 @@ public interface Store
     String getParentId( String childId ) throws Exception;
 
 
+    /**
+     * Tells if an entry is an immediate child of another entry.
+     *
+     * @param id the UUID of the entry
+     * @param parentId the UUID of the expected parent
+     * @return true if the entry's parent is the given entry
+     * @throws LdapException on failures to access the underlying store
+     */
+    boolean isChildOf( String id, String parentId ) throws LdapException;
+
+
+    /**
+     * Tells if an entry is below another entry. An entry is not a descendant of itself.
+     *
+     * @param id the UUID of the entry
+     * @param ancestorId the UUID of the expected ancestor
+     * @return true if the ancestor is found in the entry's parents chain
+     * @throws LdapException on failures to access the underlying store
+     */
+    boolean isDescendantOf( String id, String ancestorId ) throws LdapException;
+
+
     /**
      * Gets the total count of entries within this store.
      *
@@ -436,6 +459,24 @@ public interface Store
      * @return The ReadWrite lock used to protect the server against concurrent read and writes
      */
     ReadWriteLock getReadWriteLock();
+
+
+
+    /**
+     * Registers a cursor reading the indexes between two operations. The registered cursors
+     * are materialized before the index they read is modified.
+     *
+     * @param cursor The cursor to register
+     */
+    void registerStreamingCursor( StreamingCursor cursor );
+
+
+    /**
+     * Unregisters a closed cursor.
+     *
+     * @param cursor The cursor to unregister
+     */
+    void unregisterStreamingCursor( StreamingCursor cursor );
     
     
     /**
@@ -443,4 +484,29 @@ public interface Store
      * @return
      */
     Cache getAliasCache();
+
+
+    /**
+     * @return The map associating each entry UUID with a dense ordinal, used to store
+     * the search candidates in compressed bitmaps
+     */
+    EntryOrdinalMap getEntryOrdinalMap();
+
+
+    /**
+     * Sets the number of candidates, as estimated by the optimizer, above which the
+     * search results are streamed instead of being computed before the first entry
+     * is returned. The searches which can't use any index (an unindexed filter, or a
+     * subtree search from the context entry) are streamed from the master table when
+     * the partition contains more entries than the threshold.
+     *
+     * @param searchStreamingThreshold The threshold, or 0 to never stream the results
+     */
+    void setSearchStreamingThreshold( long searchStreamingThreshold );
+
+
+    /**
+     * @return The number of estimated candidates above which the search results are streamed
+     */
+    long getSearchStreamingThreshold();
 }
@@ -123,7 +123,9 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
 
     public void add( K attrVal, String id ) throws Exception
     {
+        long count = forward.count();
         forward.put( attrVal, id );
+        updateStatistics( forward, attrVal, count );
 
         if ( withReverse )
         {
@@ -181,7 +183,9 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
                 while ( cursor.next() )
                 {
                     Tuple<String, K> tuple = cursor.get();
+                    long count = forward.count();
                     forward.remove( tuple.getValue(), id );
+                    updateStatistics( forward, tuple.getValue(), count );
                 }
 
                 cursor.close();
@@ -190,7 +194,9 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
             else
             {
                 K key = reverse.get( id );
+                long count = forward.count();
                 forward.remove( key );
+                updateStatistics( forward, key, count );
             }
 
             reverse.remove( id );
@@ -203,7 +209,9 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
      */
     public void drop( K attrVal, String id ) throws Exception
     {
+        long count = forward.count();
         forward.remove( attrVal, id );
+        updateStatistics( forward, attrVal, count );
 
         if ( withReverse )
         {
@@ -0,0 +1,305 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search;
+
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.directory.server.xdbm.EntryOrdinalMap;
+import org.apache.directory.server.xdbm.OrdinalBitmap;
+
+
+/**
+ * A set of candidate entry UUIDs, stored as a compressed bitmap of entry ordinals.
+ * The UUIDs are converted to ordinals using the partition {@link EntryOrdinalMap},
+ * so that a set of millions of candidates only costs a few bytes per entry. The
+ * intersection, union and difference with another CandidateSet sharing the same
+ * ordinal map are computed directly on the bitmaps.
+ * <br>
+ * Each set holds a {@link EntryOrdinalMap.Reader}, so that the ordinals of the entries
+ * deleted while the set is in use are not given to other entries. The set must be
+ * closed once it is not used anymore, to release its Reader.
+ * <br>
+ * This class is not thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CandidateSet extends AbstractSet<String>
+{
+    /** The map used to convert the UUIDs to ordinals */
+    private final EntryOrdinalMap ordinalMap;
+
+    /** The candidate ordinals */
+    private final OrdinalBitmap bitmap = new OrdinalBitmap();
+
+    /** Prevents the reuse of the ordinals released while this set is in use */
+    private final EntryOrdinalMap.Reader reader;
+
+
+    /**
+     * Creates an empty CandidateSet
+     *
+     * @param ordinalMap The partition ordinal map
+     */
+    public CandidateSet( EntryOrdinalMap ordinalMap )
+    {
+        this.ordinalMap = ordinalMap;
+        reader = ordinalMap.newReader();
+    }
+
+
+    /**
+     * Creates a new empty CandidateSet using the same ordinal map
+     *
+     * @return A new CandidateSet instance
+     */
+    public CandidateSet newEmptySet()
+    {
+        return new CandidateSet( ordinalMap );
+    }
+
+
+    /**
+     * @return The ordinal map used by this set
+     */
+    public EntryOrdinalMap getOrdinalMap()
+    {
+        return ordinalMap;
+    }
+
+
+    /**
+     * @return The underlying bitmap
+     */
+    public OrdinalBitmap getBitmap()
+    {
+        return bitmap;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean add( String id )
+    {
+        return bitmap.add( ordinalMap.getOrCreateOrdinal( id ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean contains( Object id )
+    {
+        if ( !( id instanceof String ) )
+        {
+            return false;
+        }
+
+        int ordinal = ordinalMap.getOrdinal( ( String ) id );
+
+        return ( ordinal >= 0 ) && bitmap.contains( ordinal );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean addAll( Collection<? extends String> ids )
+    {
+        if ( isCompatible( ids ) )
+        {
+            CandidateSet other = ( CandidateSet ) ids;
+
+            // The ordinals of the other set may be older than this set
+            ordinalMap.merge( reader, other.reader );
+
+            long before = bitmap.getCardinality();
+            bitmap.or( other.bitmap );
+
+            return bitmap.getCardinality() != before;
+        }
+
+        return super.addAll( ids );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean retainAll( Collection<?> ids )
+    {
+        if ( isCompatible( ids ) )
+        {
+            long before = bitmap.getCardinality();
+            bitmap.and( ( ( CandidateSet ) ids ).bitmap );
+
+            return bitmap.getCardinality() != before;
+        }
+
+        return super.retainAll( ids );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean removeAll( Collection<?> ids )
+    {
+        if ( isCompatible( ids ) )
+        {
+            long before = bitmap.getCardinality();
+            bitmap.andNot( ( ( CandidateSet ) ids ).bitmap );
+
+            return bitmap.getCardinality() != before;
+        }
+
+        return super.removeAll( ids );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear()
+    {
+        bitmap.clear();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size()
+    {
+        long cardinality = bitmap.getCardinality();
+
+        return cardinality > Integer.MAX_VALUE ? Integer.MAX_VALUE : ( int ) cardinality;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEmpty()
+    {
+        return bitmap.isEmpty();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterator<String> iterator()
+    {
+        return new Iterator<String>()
+        {
+            private int current = -1;
+            private String nextId = advance();
+
+
+            /**
+             * Moves to the next ordinal still associated with an entry. An ordinal
+             * may have been released if the entry has been deleted meanwhile.
+             */
+            private String advance()
+            {
+                while ( current < Integer.MAX_VALUE )
+                {
+                    current = bitmap.nextValue( current + 1 );
+
+                    if ( current < 0 )
+                    {
+                        current = Integer.MAX_VALUE;
+
+                        break;
+                    }
+
+                    String id = ordinalMap.getId( current );
+
+                    if ( id != null )
+                    {
+                        return id;
+                    }
+                }
+
+                return null;
+            }
+
+
+            public boolean hasNext()
+            {
+                return nextId != null;
+            }
+
+
+            public String next()
+            {
+                if ( nextId == null )
+                {
+                    throw new NoSuchElementException();
+                }
+
+                String id = nextId;
+                nextId = advance();
+
+                return id;
+            }
+
+
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+
+    /**
+     * Releases the {@link EntryOrdinalMap.Reader} held by this set. The ordinals of the
+     * entries deleted from now on may be given to other entries, so the set must not
+     * be read anymore. Closing a set more than once has no effect.
+     */
+    public void close()
+    {
+        ordinalMap.release( reader );
+    }
+
+
+    /**
+     * Tells if the given collection is a CandidateSet using the same ordinal map
+     */
+    private boolean isCompatible( Collection<?> ids )
+    {
+        return ( ids instanceof CandidateSet ) && ( ( ( CandidateSet ) ids ).ordinalMap == ordinalMap );
+    }
+}
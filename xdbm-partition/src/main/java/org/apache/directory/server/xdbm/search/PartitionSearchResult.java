@@ -20,8 +20,10 @@
 package org.apache.directory.server.xdbm.search;
 
 
+import java.io.IOException;
 import java.util.Set;
 
+import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.SetCursor;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.message.AliasDerefMode;
@@ -32,7 +34,7 @@ import org.apache.directory.server.xdbm.IndexEntry;
 /**
  * A class containing the result of a search :
  * <ul>
- * <li>A set of candidate UUIDs</li>
+ * <li>A set of candidate UUIDs, usually stored as a {@link CandidateSet}</li>
  * <li>A set of aliased entry if we have any</li>
  * <li>A flag telling if we are dereferencing aliases or not</li>
  * <li>A hierarchy of evaluators to use to validate the candidates</li>
@@ -42,7 +44,7 @@ import org.apache.directory.server.xdbm.IndexEntry;
 public class PartitionSearchResult
 {
     /** The set of candidate UUIDs selected by the search */
-    private SetCursor<IndexEntry<String, String>> resultSet;
+    private Cursor<IndexEntry<String, String>> resultSet;
 
     /** The set of candidate UUIDs */
     private Set<String> candidateSet;
@@ -69,7 +71,7 @@ public class PartitionSearchResult
     /**
      * @return the resultSet
      */
-    public SetCursor<IndexEntry<String, String>> getResultSet()
+    public Cursor<IndexEntry<String, String>> getResultSet()
     {
         return resultSet;
     }
@@ -84,6 +86,15 @@ public class PartitionSearchResult
     }
 
 
+    /**
+     * @param cursor the cursor over the selected candidates
+     */
+    public void setResultSet( Cursor<IndexEntry<String, String>> cursor )
+    {
+        resultSet = cursor;
+    }
+
+
     /**
      * @return the candidateSet
      */
@@ -183,6 +194,30 @@ public class PartitionSearchResult
     }
 
 
+    /**
+     * Closes the result cursor, and releases the candidate set if it's a {@link CandidateSet}.
+     *
+     * @throws IOException If the result cursor can't be closed
+     */
+    public void close() throws IOException
+    {
+        try
+        {
+            if ( resultSet != null )
+            {
+                resultSet.close();
+            }
+        }
+        finally
+        {
+            if ( candidateSet instanceof CandidateSet )
+            {
+                ( ( CandidateSet ) candidateSet ).close();
+            }
+        }
+    }
+
+
     /**
      * @see Object#toString()
      */
@@ -0,0 +1,323 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.cursor;
+
+
+import java.io.IOException;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AbstractIndexCursor;
+import org.apache.directory.server.xdbm.EntryOrdinalMap;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.OrdinalBitmap;
+import org.apache.directory.server.xdbm.search.CandidateSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A Cursor over the candidates stored in a {@link CandidateSet}. The IndexEntry
+ * are created on the fly, so the set of candidates is never converted to a set
+ * of UUIDs. The set is closed when the cursor is closed.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CandidateCursor extends AbstractIndexCursor<String>
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
+
+    /** Speedup for logs */
+    private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
+
+    /** The candidates, closed with this cursor */
+    private final CandidateSet candidates;
+
+    /** The candidate ordinals */
+    private final OrdinalBitmap bitmap;
+
+    /** The map used to convert the ordinals back to UUIDs */
+    private final EntryOrdinalMap ordinalMap;
+
+    /** The current ordinal */
+    private int current = -1;
+
+    /** The current element */
+    private IndexEntry<String, String> currentEntry;
+
+    /** Tells if we are before the first element */
+    private boolean beforeFirst = true;
+
+    /** Tells if we are after the last element */
+    private boolean afterLast;
+
+
+    /**
+     * Creates a new instance of CandidateCursor.
+     *
+     * @param candidates The set of candidates to browse
+     */
+    public CandidateCursor( CandidateSet candidates )
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Creating CandidateCursor {}", this );
+        }
+
+        this.candidates = candidates;
+        bitmap = candidates.getBitmap();
+        ordinalMap = candidates.getOrdinalMap();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected String getUnsupportedMessage()
+    {
+        return UNSUPPORTED_MSG;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean available()
+    {
+        return currentEntry != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed( "beforeFirst()" );
+        beforeFirst = true;
+        afterLast = false;
+        current = -1;
+        currentEntry = null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void afterLast() throws LdapException, CursorException
+    {
+        checkNotClosed( "afterLast()" );
+        beforeFirst = false;
+        afterLast = true;
+        current = Integer.MAX_VALUE;
+        currentEntry = null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+
+        return previous();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed( "next()" );
+
+        if ( afterLast )
+        {
+            return false;
+        }
+
+        beforeFirst = false;
+
+        while ( current < Integer.MAX_VALUE )
+        {
+            current = bitmap.nextValue( current + 1 );
+
+            if ( current < 0 )
+            {
+                break;
+            }
+
+            if ( setCurrent() )
+            {
+                return true;
+            }
+        }
+
+        afterLast = true;
+        current = Integer.MAX_VALUE;
+        currentEntry = null;
+
+        return false;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean previous() throws LdapException, CursorException
+    {
+        checkNotClosed( "previous()" );
+
+        if ( beforeFirst )
+        {
+            return false;
+        }
+
+        afterLast = false;
+
+        while ( current > 0 )
+        {
+            current = bitmap.previousValue( current - 1 );
+
+            if ( current < 0 )
+            {
+                break;
+            }
+
+            if ( setCurrent() )
+            {
+                return true;
+            }
+        }
+
+        beforeFirst = true;
+        current = -1;
+        currentEntry = null;
+
+        return false;
+    }
+
+
+    /**
+     * Creates the IndexEntry for the current ordinal. The ordinal may have been
+     * released if the entry has been deleted since the candidates were computed.
+     */
+    private boolean setCurrent()
+    {
+        String id = ordinalMap.getId( current );
+
+        if ( id == null )
+        {
+            return false;
+        }
+
+        currentEntry = new IndexEntry<String, String>();
+        currentEntry.setId( id );
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public IndexEntry<String, String> get() throws CursorException
+    {
+        checkNotClosed( "get()" );
+
+        if ( currentEntry != null )
+        {
+            return currentEntry;
+        }
+
+        if ( beforeFirst )
+        {
+            throw new InvalidCursorPositionException( I18n.err( I18n.ERR_705 ) );
+        }
+        else
+        {
+            throw new InvalidCursorPositionException( I18n.err( I18n.ERR_706 ) );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing CandidateCursor {}", this );
+        }
+
+        candidates.close();
+        super.close();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close( Exception cause ) throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing CandidateCursor {}", this );
+        }
+
+        candidates.close();
+        super.close( cause );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString( String tabs )
+    {
+        return tabs + "CandidateCursor (" + bitmap + ")\n";
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return toString( "" );
+    }
+}
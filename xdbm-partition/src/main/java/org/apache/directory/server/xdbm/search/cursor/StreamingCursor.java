@@ -0,0 +1,522 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.cursor;
+
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AbstractIndexCursor;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.search.CandidateSet;
+import org.apache.directory.server.xdbm.search.Evaluator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A Cursor streaming the entries matching a filter, without computing the full set of
+ * candidates first. The candidates are read from a driving cursor (typically the most
+ * selective index cursor), and each one of them is validated against the full filter
+ * evaluator. The elements returned by this cursor have already been evaluated, and
+ * their entry has been fetched.
+ * <br>
+ * If the driving cursor can return the same ID more than once (for instance a range
+ * over a multi-valued attribute index), a {@link CandidateSet} is used to skip the
+ * already seen candidates.
+ * <br>
+ * This cursor only moves forward over the driving cursor. It keeps the IDs of the last
+ * returned elements so that a caller can step back a few elements, as the search
+ * handlers do when checking if there are more entries to return.
+ * <br>
+ * The driving cursor is only read while holding the partition read lock, but the cursor
+ * lives longer than the lock. It's registered in the {@link Store}, which calls
+ * {@link #materialize()} before modifying the index read by the driving cursor : the
+ * remaining candidates are then read from a {@link CandidateSet}, and validated when
+ * they are returned.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class StreamingCursor extends AbstractIndexCursor<String>
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
+
+    /** Speedup for logs */
+    private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
+
+    /** The default number of elements we can move back */
+    public static final int DEFAULT_HISTORY_SIZE = 1024;
+
+    /** The store the candidates are read from */
+    private final Store db;
+
+    /** The cursor providing the candidates */
+    private Cursor<IndexEntry<?, String>> driver;
+
+    /** The attribute type of the index read by the driving cursor, null for the master table */
+    private final AttributeType drivingAttributeType;
+
+    /** The evaluator used to validate the candidates */
+    private final Evaluator<? extends ExprNode> evaluator;
+
+    /** The already seen candidates, if the driving cursor may return duplicates */
+    private CandidateSet seen;
+
+    /** The maximum number of elements we can move back */
+    private final int historySize;
+
+    /** The IDs of the elements returned before the current one, the most recent first */
+    private final Deque<String> history = new ArrayDeque<String>();
+
+    /** The IDs we have moved back over, to be returned again by next(), the closest first */
+    private final Deque<String> replay = new ArrayDeque<String>();
+
+    /** Tells if the history has been truncated */
+    private boolean historyTruncated;
+
+    /** The current element */
+    private IndexEntry<String, String> current;
+
+    /** Tells if the driving cursor is exhausted */
+    private boolean exhausted;
+
+    /** Tells if the remaining candidates have been read from the driving cursor */
+    private boolean materialized;
+
+
+    /**
+     * Creates a new instance of StreamingCursor.
+     *
+     * @param db The store the candidates are read from
+     * @param driver The cursor providing the candidates, positioned before the first element
+     * @param drivingAttributeType The attribute type of the index read by the driving cursor,
+     * or null if it reads the master table
+     * @param evaluator The evaluator used to validate the candidates
+     * @param unique false if the driving cursor may return the same ID more than once
+     */
+    public StreamingCursor( Store db, Cursor<IndexEntry<?, String>> driver, AttributeType drivingAttributeType,
+        Evaluator<? extends ExprNode> evaluator, boolean unique )
+    {
+        this( db, driver, drivingAttributeType, evaluator, unique, DEFAULT_HISTORY_SIZE );
+    }
+
+
+    /**
+     * Creates a new instance of StreamingCursor.
+     *
+     * @param db The store the candidates are read from
+     * @param driver The cursor providing the candidates, positioned before the first element
+     * @param drivingAttributeType The attribute type of the index read by the driving cursor,
+     * or null if it reads the master table
+     * @param evaluator The evaluator used to validate the candidates
+     * @param unique false if the driving cursor may return the same ID more than once
+     * @param historySize The maximum number of elements we can move back
+     */
+    public StreamingCursor( Store db, Cursor<IndexEntry<?, String>> driver, AttributeType drivingAttributeType,
+        Evaluator<? extends ExprNode> evaluator, boolean unique, int historySize )
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Creating StreamingCursor {}", this );
+        }
+
+        this.db = db;
+        this.driver = driver;
+        this.drivingAttributeType = drivingAttributeType;
+        this.evaluator = evaluator;
+        this.historySize = historySize;
+
+        if ( !unique )
+        {
+            seen = new CandidateSet( db.getEntryOrdinalMap() );
+        }
+
+        db.registerStreamingCursor( this );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected String getUnsupportedMessage()
+    {
+        return UNSUPPORTED_MSG;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean available()
+    {
+        return current != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed( "beforeFirst()" );
+
+        if ( historyTruncated )
+        {
+            throw new CursorException( I18n.err( I18n.ERR_710 ) );
+        }
+
+        // Replay all the elements we have already returned
+        boolean hasPrevious = previous();
+
+        while ( hasPrevious )
+        {
+            hasPrevious = previous();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void afterLast() throws LdapException, CursorException
+    {
+        throw new CursorException( I18n.err( I18n.ERR_710 ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean last() throws LdapException, CursorException
+    {
+        throw new CursorException( I18n.err( I18n.ERR_710 ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed( "next()" );
+
+        if ( current != null )
+        {
+            history.addFirst( current.getId() );
+
+            if ( history.size() > historySize )
+            {
+                history.removeLast();
+                historyTruncated = true;
+            }
+        }
+
+        current = null;
+
+        if ( !replay.isEmpty() )
+        {
+            current = newIndexEntry( replay.removeFirst() );
+
+            return true;
+        }
+
+        if ( exhausted )
+        {
+            return false;
+        }
+
+        // The writers materialize the cursor before updating the indexes
+        Lock readLock = db.getReadWriteLock().readLock();
+        readLock.lock();
+
+        try
+        {
+            synchronized ( this )
+            {
+                while ( !exhausted )
+                {
+                    if ( !driver.next() )
+                    {
+                        exhausted = true;
+
+                        break;
+                    }
+
+                    String id = driver.get().getId();
+
+                    if ( ( seen != null ) && !seen.add( id ) )
+                    {
+                        // Already returned
+                        continue;
+                    }
+
+                    IndexEntry<String, String> candidate = newIndexEntry( id );
+
+                    if ( evaluator.evaluate( candidate ) )
+                    {
+                        current = candidate;
+
+                        return true;
+                    }
+                }
+            }
+        }
+        finally
+        {
+            readLock.unlock();
+        }
+
+        return false;
+    }
+
+
+    /**
+     * @return The attribute type of the index read by the driving cursor, or null if it
+     * reads the master table
+     */
+    public AttributeType getDrivingAttributeType()
+    {
+        return drivingAttributeType;
+    }
+
+
+    /**
+     * @return true if the remaining candidates have been read from the driving cursor
+     */
+    public synchronized boolean isMaterialized()
+    {
+        return materialized;
+    }
+
+
+    /**
+     * Reads all the remaining candidates of the driving cursor, which is then closed. The
+     * Store calls this method before modifying the index read by the driving cursor, as
+     * it can't be read while the index is updated. The candidates are still validated when they are returned,
+     * against the modified entries.
+     *
+     * @throws Exception If the driving cursor can't be read
+     */
+    @SuppressWarnings(
+        { "unchecked", "rawtypes" })
+    public void materialize() throws Exception
+    {
+        Lock readLock = db.getReadWriteLock().readLock();
+        readLock.lock();
+
+        try
+        {
+            synchronized ( this )
+            {
+                if ( exhausted || materialized || isClosed() )
+                {
+                    return;
+                }
+
+                CandidateSet remaining = new CandidateSet( db.getEntryOrdinalMap() );
+
+                while ( driver.next() )
+                {
+                    String id = driver.get().getId();
+
+                    if ( ( seen == null ) || !seen.contains( id ) )
+                    {
+                        remaining.add( id );
+                    }
+                }
+
+                driver.close();
+
+                if ( IS_DEBUG )
+                {
+                    LOG_CURSOR.debug( "Materialized {} candidates in StreamingCursor {}", remaining.size(), this );
+                }
+
+                // The set does not contain duplicates
+                driver = ( Cursor ) new CandidateCursor( remaining );
+                closeSeen();
+                materialized = true;
+            }
+        }
+        finally
+        {
+            readLock.unlock();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean previous() throws LdapException, CursorException
+    {
+        checkNotClosed( "previous()" );
+
+        if ( current != null )
+        {
+            replay.addFirst( current.getId() );
+            current = null;
+        }
+
+        if ( history.isEmpty() )
+        {
+            if ( historyTruncated )
+            {
+                throw new CursorException( I18n.err( I18n.ERR_710 ) );
+            }
+
+            return false;
+        }
+
+        current = newIndexEntry( history.removeFirst() );
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public IndexEntry<String, String> get() throws CursorException
+    {
+        checkNotClosed( "get()" );
+
+        if ( current != null )
+        {
+            return current;
+        }
+
+        throw new InvalidCursorPositionException( I18n.err( I18n.ERR_708 ) );
+    }
+
+
+    private IndexEntry<String, String> newIndexEntry( String id )
+    {
+        IndexEntry<String, String> indexEntry = new IndexEntry<String, String>();
+        indexEntry.setId( id );
+
+        return indexEntry;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void close() throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing StreamingCursor {}", this );
+        }
+
+        db.unregisterStreamingCursor( this );
+        closeSeen();
+        driver.close();
+        super.close();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void close( Exception cause ) throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing StreamingCursor {}", this );
+        }
+
+        db.unregisterStreamingCursor( this );
+        closeSeen();
+        driver.close( cause );
+        super.close( cause );
+    }
+
+
+    /**
+     * Releases the set of already seen candidates, if any
+     */
+    private void closeSeen()
+    {
+        if ( seen != null )
+        {
+            seen.close();
+            seen = null;
+        }
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString( String tabs )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( tabs ).append( "StreamingCursor (" );
+
+        if ( seen != null )
+        {
+            sb.append( "deduplicated, " );
+        }
+
+        if ( materialized )
+        {
+            sb.append( "materialized, " );
+        }
+
+        sb.append( history.size() ).append( " in history)\n" );
+        sb.append( driver.toString( tabs + "    " ) );
+
+        return sb.toString();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return toString( "" );
+    }
+}
@@ -26,7 +26,6 @@ import org.apache.directory.api.ldap.model.filter.ScopeNode;
 import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.IndexEntry;
-import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.Evaluator;
 
@@ -99,8 +98,7 @@ public class OneLevelScopeEvaluator<E> implements Evaluator<ScopeNode>
      */
     public boolean evaluate( IndexEntry<?, String> indexEntry ) throws LdapException
     {
-        ParentIdAndRdn parent = db.getRdnIndex().reverseLookup( indexEntry.getId() );
-        boolean isChild = parent.getParentId().equals( baseId );
+        boolean isChild = db.isChildOf( indexEntry.getId(), baseId );
         Entry entry = indexEntry.getEntry();
 
         // Fetch the entry
@@ -30,7 +30,6 @@ import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.IndexEntry;
-import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.Evaluator;
 
@@ -119,35 +118,12 @@ public class SubtreeScopeEvaluator implements Evaluator<ScopeNode>
 
 
     /**
-     * Tells if a candidate is a descendant of the base ID. We have to fetch all 
-     * the parentIdAndRdn up to the baseId. If we terminate on the context entry without 
-     * having found the baseId, then the candidate is not a descendant.
+     * Tells if a candidate is a descendant of the base ID. The parents chain is
+     * walked in memory by the store.
      */
     private boolean isDescendant( String candidateId ) throws LdapException
     {
-        String tmp = candidateId;
-
-        while ( true )
-        {
-            ParentIdAndRdn parentIdAndRdn = db.getRdnIndex().reverseLookup( tmp );
-
-            if ( parentIdAndRdn == null )
-            {
-                return false;
-            }
-
-            tmp = parentIdAndRdn.getParentId();
-
-            if ( tmp.equals( Partition.ROOT_ID ) )
-            {
-                return false;
-            }
-
-            if ( tmp.equals( baseId ) )
-            {
-                return true;
-            }
-        }
+        return db.isDescendantOf( candidateId, baseId );
     }
 
 
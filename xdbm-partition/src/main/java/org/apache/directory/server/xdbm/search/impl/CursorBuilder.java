@@ -20,6 +20,9 @@
 package org.apache.directory.server.xdbm.search.impl;
 
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
 import java.util.regex.Pattern;
@@ -52,11 +55,25 @@ import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.SingletonIndexCursor;
 import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.search.CandidateSet;
+import org.apache.directory.server.xdbm.search.Evaluator;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
+import org.apache.directory.server.xdbm.search.cursor.AllEntriesCursor;
 import org.apache.directory.server.xdbm.search.cursor.ApproximateCursor;
 import org.apache.directory.server.xdbm.search.cursor.ChildrenCursor;
 import org.apache.directory.server.xdbm.search.cursor.DescendantCursor;
+import org.apache.directory.server.xdbm.search.cursor.EqualityCursor;
+import org.apache.directory.server.xdbm.search.cursor.GreaterEqCursor;
+import org.apache.directory.server.xdbm.search.cursor.LessEqCursor;
+import org.apache.directory.server.xdbm.search.cursor.PresenceCursor;
+import org.apache.directory.server.xdbm.search.cursor.StreamingCursor;
+import org.apache.directory.server.xdbm.search.cursor.SubstringCursor;
 import org.apache.directory.server.xdbm.search.evaluator.ApproximateEvaluator;
+import org.apache.directory.server.xdbm.search.evaluator.EqualityEvaluator;
+import org.apache.directory.server.xdbm.search.evaluator.GreaterEqEvaluator;
+import org.apache.directory.server.xdbm.search.evaluator.LessEqEvaluator;
+import org.apache.directory.server.xdbm.search.evaluator.PresenceEvaluator;
+import org.apache.directory.server.xdbm.search.evaluator.SubstringEvaluator;
 
 
 /**
@@ -72,6 +89,12 @@ public class CursorBuilder
     /** Evaluator dependency on a EvaluatorBuilder */
     private EvaluatorBuilder evaluatorBuilder;
 
+    /**
+     * An AND child is intersected with the smallest child candidates only if it
+     * does not select more than this ratio of candidates
+     */
+    private static final long AND_INTERSECTION_RATIO = 10L;
+
 
     /**
      * Creates an expression tree enumerator.
@@ -151,6 +174,197 @@ public class CursorBuilder
     }
 
 
+    /**
+     * Builds a Cursor streaming the entries matching a filter, instead of computing the
+     * whole set of candidates. The candidates are read from the most selective indexed
+     * node reachable through the AND nodes of the filter, and validated by the given
+     * evaluator. If no such node exists, all the entries are read.
+     * <br>
+     * The aliases are not dereferenced by this cursor : it must not be used when the
+     * aliases are dereferenced while searching.
+     *
+     * @param root The annotated filter, including the scope node
+     * @param evaluator The evaluator for the whole filter
+     * @return A Cursor over the matching entries
+     * @throws Exception on db access failures
+     */
+    public StreamingCursor buildStreamingCursor( ExprNode root, Evaluator<? extends ExprNode> evaluator )
+        throws Exception
+    {
+        boolean[] unique = new boolean[]
+            { true };
+        AttributeType[] drivingAttributeType = new AttributeType[1];
+        Cursor<IndexEntry<?, String>> driver = buildDriver( root, unique, drivingAttributeType );
+
+        if ( driver == null )
+        {
+            driver = ( Cursor ) new AllEntriesCursor( db );
+            unique[0] = true;
+        }
+
+        return new StreamingCursor( db, driver, drivingAttributeType[0], evaluator, unique[0] );
+    }
+
+
+    /**
+     * Creates the Cursor over the candidates of the most selective indexed node, or
+     * null if there is none. The unique flag is reset if the Cursor may return the
+     * same ID more than once, and the attribute type of the index read by the Cursor
+     * is stored in drivingAttributeType.
+     */
+    @SuppressWarnings(
+        { "unchecked", "rawtypes" })
+    private Cursor<IndexEntry<?, String>> buildDriver( ExprNode node, boolean[] unique,
+        AttributeType[] drivingAttributeType ) throws Exception
+    {
+        Cursor driver = null;
+
+        switch ( node.getAssertionType() )
+        {
+            case AND:
+                // Try the children, the most selective first
+                List<ExprNode> children = new ArrayList<ExprNode>( ( ( AndNode ) node ).getChildren() );
+
+                Collections.sort( children, new Comparator<ExprNode>()
+                {
+                    public int compare( ExprNode node1, ExprNode node2 )
+                    {
+                        return Long.valueOf( DefaultOptimizer.getCount( node1 ) ).compareTo(
+                            DefaultOptimizer.getCount( node2 ) );
+                    }
+                } );
+
+                for ( ExprNode child : children )
+                {
+                    if ( DefaultOptimizer.getCount( child ) == Long.MAX_VALUE )
+                    {
+                        break;
+                    }
+
+                    driver = buildDriver( child, unique, drivingAttributeType );
+
+                    if ( driver != null )
+                    {
+                        break;
+                    }
+                }
+
+                return driver;
+
+            case EQUALITY:
+                if ( db.hasIndexOn( ( ( EqualityNode<?> ) node ).getAttributeType() ) )
+                {
+                    driver = new EqualityCursor( db, ( EqualityEvaluator ) evaluatorBuilder.build( node ) );
+                    drivingAttributeType[0] = ( ( EqualityNode<?> ) node ).getAttributeType();
+                }
+
+                break;
+
+            case GREATEREQ:
+                if ( db.hasIndexOn( ( ( GreaterEqNode<?> ) node ).getAttributeType() ) )
+                {
+                    driver = new GreaterEqCursor( db, ( GreaterEqEvaluator ) evaluatorBuilder.build( node ) );
+                    drivingAttributeType[0] = ( ( GreaterEqNode<?> ) node ).getAttributeType();
+                    unique[0] = false;
+                }
+
+                break;
+
+            case LESSEQ:
+                if ( db.hasIndexOn( ( ( LessEqNode<?> ) node ).getAttributeType() ) )
+                {
+                    driver = new LessEqCursor( db, ( LessEqEvaluator ) evaluatorBuilder.build( node ) );
+                    drivingAttributeType[0] = ( ( LessEqNode<?> ) node ).getAttributeType();
+                    unique[0] = false;
+                }
+
+                break;
+
+            case PRESENCE:
+                if ( db.hasUserIndexOn( ( ( PresenceNode ) node ).getAttributeType() ) )
+                {
+                    driver = new PresenceCursor( db, ( PresenceEvaluator ) evaluatorBuilder.build( node ) );
+                    drivingAttributeType[0] = db.getPresenceIndex().getAttribute();
+                }
+
+                break;
+
+            case SUBSTRING:
+                if ( db.hasIndexOn( ( ( SubstringNode ) node ).getAttributeType() ) )
+                {
+                    driver = new SubstringCursor( db, ( SubstringEvaluator ) evaluatorBuilder.build( node ) );
+                    drivingAttributeType[0] = ( ( SubstringNode ) node ).getAttributeType();
+                    unique[0] = false;
+                }
+
+                break;
+
+            case SCOPE:
+                driver = buildScopeDriver( ( ScopeNode ) node );
+
+                if ( driver != null )
+                {
+                    drivingAttributeType[0] = db.getRdnIndex().getAttribute();
+                }
+
+                return driver;
+
+            default:
+                // OR, NOT, APPROXIMATE... : we can't use them to drive the search
+                return null;
+        }
+
+        if ( driver != null )
+        {
+            driver.beforeFirst();
+        }
+
+        return driver;
+    }
+
+
+    /**
+     * Creates the Cursor over the entries in a scope, without dereferencing the aliases.
+     * Returns null for a subtree scope from the context entry, as all the entries will
+     * be read anyway.
+     */
+    @SuppressWarnings(
+        { "unchecked", "rawtypes" })
+    private Cursor<IndexEntry<?, String>> buildScopeDriver( ScopeNode node ) throws Exception
+    {
+        String baseId = node.getBaseId();
+
+        if ( node.getScope() == SearchScope.ONELEVEL )
+        {
+            Cursor<IndexEntry<ParentIdAndRdn, String>> rdnCursor = db.getRdnIndex().forwardCursor();
+
+            IndexEntry<ParentIdAndRdn, String> startingPos = new IndexEntry<ParentIdAndRdn, String>();
+            startingPos.setKey( new ParentIdAndRdn( baseId, ( Rdn[] ) null ) );
+            rdnCursor.before( startingPos );
+
+            return ( Cursor ) new ChildrenCursor( db, baseId, rdnCursor );
+        }
+
+        String contextEntryId = db.getEntryId( ( ( Partition ) db ).getSuffixDn() );
+
+        if ( baseId.equals( contextEntryId ) )
+        {
+            return null;
+        }
+
+        ParentIdAndRdn parentIdAndRdn = db.getRdnIndex().reverseLookup( baseId );
+        IndexEntry<ParentIdAndRdn, String> startingPos = new IndexEntry<ParentIdAndRdn, String>();
+
+        startingPos.setKey( parentIdAndRdn );
+        startingPos.setId( baseId );
+
+        Cursor<IndexEntry<ParentIdAndRdn, String>> rdnCursor = new SingletonIndexCursor<ParentIdAndRdn>(
+            startingPos );
+
+        return ( Cursor ) new DescendantCursor( db, baseId, parentIdAndRdn.getParentId(), rdnCursor );
+    }
+
+
     /**
      * Computes the set of candidates for an Approximate filter. We will feed the set only if
      * we have an index for the AT.
@@ -778,9 +992,71 @@ public class CursorBuilder
 
         // Once found we return the number of candidates for this child
         ExprNode minChild = children.get( minIndex );
-        long nbResults = build( minChild, searchResult );
 
-        return nbResults;
+        if ( !( searchResult.getCandidateSet() instanceof CandidateSet ) || ( minValue == Long.MAX_VALUE ) )
+        {
+            return build( minChild, searchResult );
+        }
+
+        // The candidates are stored in a bitmap : we can intersect the smallest child
+        // with the other children which are not too large, instead of evaluating
+        // all the candidates against them later on.
+        CandidateSet parentSet = ( CandidateSet ) searchResult.getCandidateSet();
+        CandidateSet andSet = parentSet.newEmptySet();
+
+        try
+        {
+            searchResult.setCandidateSet( andSet );
+            long nbResults = build( minChild, searchResult );
+
+            if ( nbResults == Long.MAX_VALUE )
+            {
+                return nbResults;
+            }
+
+            for ( int i = 0; i < children.size(); i++ )
+            {
+                ExprNode child = children.get( i );
+                Object count = child.get( "count" );
+
+                if ( ( i == minIndex ) || ( count == null ) || andSet.isEmpty() )
+                {
+                    continue;
+                }
+
+                value = ( Long ) count;
+
+                if ( ( value == Long.MAX_VALUE ) || ( value / AND_INTERSECTION_RATIO > minValue ) )
+                {
+                    continue;
+                }
+
+                CandidateSet childSet = parentSet.newEmptySet();
+                searchResult.setCandidateSet( childSet );
+
+                try
+                {
+                    if ( build( child, searchResult ) != Long.MAX_VALUE )
+                    {
+                        andSet.retainAll( childSet );
+                    }
+                }
+                finally
+                {
+                    childSet.close();
+                }
+            }
+
+            long before = parentSet.size();
+            parentSet.addAll( andSet );
+
+            return parentSet.size() - before;
+        }
+        finally
+        {
+            searchResult.setCandidateSet( parentSet );
+            andSet.close();
+        }
     }
 
 
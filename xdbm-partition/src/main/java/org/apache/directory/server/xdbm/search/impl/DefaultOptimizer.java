@@ -46,12 +46,16 @@ import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.IndexStatistics;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.Optimizer;
 
 
 /**
- * Optimizer that annotates the filter using scan counts.
+ * Optimizer that annotates the filter using scan counts. The scan counts are estimated
+ * from the index statistics when they are available, instead of being read from the
+ * indexes. The counts are used to select the node driving the search, and the order
+ * in which the AND children are evaluated.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -59,6 +63,9 @@ public class DefaultOptimizer<E> implements Optimizer
 {
     static final String CANDIDATES_ANNOTATION_KEY = "candidates";
 
+    /** The maximum number of candidates gathered while annotating an equality node */
+    private static final int MAX_CANDIDATES = 100;
+
     /** the database this optimizer operates on */
     private final Store db;
     private String contextEntryId;
@@ -75,6 +82,20 @@ public class DefaultOptimizer<E> implements Optimizer
     }
 
 
+    /**
+     * Gets the count annotation of a node, or Long.MAX_VALUE if the node is not annotated
+     *
+     * @param node The annotated node
+     * @return The scan count of the node
+     */
+    static long getCount( ExprNode node )
+    {
+        Object count = node.get( "count" );
+
+        return count == null ? Long.MAX_VALUE : ( Long ) count;
+    }
+
+
     // This will suppress PMD.EmptyCatchBlock warnings in this method
     @SuppressWarnings("PMD.EmptyCatchBlock")
     private String getContextEntryId() throws Exception
@@ -342,6 +363,20 @@ public class DefaultOptimizer<E> implements Optimizer
         if ( db.hasIndexOn( node.getAttributeType() ) )
         {
             Index<V, String> idx = ( Index<V, String> ) db.getIndex( node.getAttributeType() );
+            IndexStatistics statistics = getStatistics( idx );
+
+            if ( statistics != null )
+            {
+                long estimate = statistics.estimateEquality( node.getValue().getValue() );
+
+                if ( estimate >= MAX_CANDIDATES )
+                {
+                    // Too many candidates to gather them now
+                    node.set( CANDIDATES_ANNOTATION_KEY, null );
+
+                    return estimate;
+                }
+            }
 
             Cursor<String> result = idx.forwardValueCursor( node.getValue().getValue() );
             Set<String> values = new HashSet<String>();
@@ -353,7 +388,7 @@ public class DefaultOptimizer<E> implements Optimizer
                 nbFound++;
 
                 // Arbitrary stop gathering the candidates if we have more than 100
-                if ( nbFound == 100 )
+                if ( nbFound == MAX_CANDIDATES )
                 {
                     break;
                 }
@@ -361,7 +396,7 @@ public class DefaultOptimizer<E> implements Optimizer
 
             result.close();
 
-            if ( nbFound < 100 )
+            if ( nbFound < MAX_CANDIDATES )
             {
                 // Store the found candidates in the node
                 node.set( CANDIDATES_ANNOTATION_KEY, values );
@@ -397,6 +432,19 @@ public class DefaultOptimizer<E> implements Optimizer
         if ( db.hasIndexOn( node.getAttributeType() ) )
         {
             Index<V, String> idx = ( Index<V, String> ) db.getIndex( node.getAttributeType() );
+            IndexStatistics statistics = getStatistics( idx );
+
+            if ( statistics != null )
+            {
+                if ( isGreaterThan )
+                {
+                    return statistics.estimateGreaterOrEqual( node.getValue().getValue() );
+                }
+                else
+                {
+                    return statistics.estimateLessOrEqual( node.getValue().getValue() );
+                }
+            }
 
             if ( isGreaterThan )
             {
@@ -436,6 +484,13 @@ public class DefaultOptimizer<E> implements Optimizer
                 // Not a (attr=ABC*) filter : full index scan
                 return idx.count();
             }
+
+            IndexStatistics statistics = getStatistics( idx );
+
+            if ( statistics != null )
+            {
+                return statistics.estimateInitial( initial );
+            }
             else
             {
                 return idx.greaterThanCount( initial );
@@ -504,6 +559,26 @@ public class DefaultOptimizer<E> implements Optimizer
     }
 
 
+    /**
+     * Gets the statistics of an index, if they are consistent with the index content
+     *
+     * @param idx The index
+     * @return The index statistics, or null if they can't be used
+     * @throws Exception If the index can't be read
+     */
+    private IndexStatistics getStatistics( Index<?, ?> idx ) throws Exception
+    {
+        IndexStatistics statistics = idx.getStatistics();
+
+        if ( ( statistics == null ) || ( statistics.getCount() != idx.count() ) )
+        {
+            return null;
+        }
+
+        return statistics;
+    }
+
+
     /**
      * Gets the scan count for the scope node attached to this filter.
      *
@@ -42,11 +42,14 @@ import org.apache.directory.server.core.partition.impl.btree.IndexCursorAdaptor;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.search.CandidateSet;
 import org.apache.directory.server.xdbm.search.Evaluator;
 import org.apache.directory.server.xdbm.search.Optimizer;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
 import org.apache.directory.server.xdbm.search.SearchEngine;
+import org.apache.directory.server.xdbm.search.cursor.CandidateCursor;
 import org.apache.directory.server.xdbm.search.evaluator.BaseLevelScopeEvaluator;
+import org.apache.directory.server.xdbm.search.evaluator.PassThroughEvaluator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -237,50 +240,108 @@ public class DefaultSearchEngine implements SearchEngine
         // Annotate the node with the optimizer and return search enumeration.
         optimizer.annotate( root );
         Evaluator<? extends ExprNode> evaluator = evaluatorBuilder.build( root );
-
-        Set<String> uuidSet = new HashSet<String>();
         searchResult.setAliasDerefMode( aliasDerefMode );
-        searchResult.setCandidateSet( uuidSet );
-
-        long nbResults = cursorBuilder.build( root, searchResult );
 
-        LOG.debug( "Nb results : {} for filter : {}", nbResults, root );
-
-        if ( nbResults < Long.MAX_VALUE )
+        if ( isStreamed( DefaultOptimizer.getCount( root ), aliasDerefMode ) )
         {
-            for ( String uuid : uuidSet )
-            {
-                IndexEntry<String, String> indexEntry = new IndexEntry<String, String>();
-                indexEntry.setId( uuid );
-                resultSet.add( indexEntry );
-            }
+            // Too many candidates are expected : stream the entries instead of computing
+            // the candidate set.
+            return stream( root, evaluator, searchResult );
         }
-        else
+
+        // The candidates are stored as entry ordinals in a compressed bitmap
+        CandidateSet uuidSet = new CandidateSet( db.getEntryOrdinalMap() );
+        searchResult.setCandidateSet( uuidSet );
+
+        try
         {
-            // Full scan : use the MasterTable
-            Cursor<IndexEntry<String, String>> cursor = new IndexCursorAdaptor( db.getMasterTable().cursor(), true );
+            long nbResults = cursorBuilder.build( root, searchResult );
+
+            LOG.debug( "Nb results : {} for filter : {}", nbResults, root );
 
-            while ( cursor.next() )
+            if ( nbResults == Long.MAX_VALUE )
             {
-                IndexEntry<String, String> indexEntry = cursor.get();
+                if ( isStreamed( Long.MAX_VALUE, aliasDerefMode ) )
+                {
+                    // Full scan : stream the MasterTable instead of copying it in the candidate set
+                    uuidSet.close();
+                    searchResult.setCandidateSet( null );
+
+                    return stream( root, evaluator, searchResult );
+                }
 
-                // Here, the indexEntry contains a <UUID, Entry> tuple. Convert it to <UUID, UUID>
-                IndexEntry<String, String> forwardIndexEntry = new IndexEntry<String, String>();
-                forwardIndexEntry.setKey( indexEntry.getKey() );
-                forwardIndexEntry.setId( indexEntry.getKey() );
-                forwardIndexEntry.setEntry( null );
+                // Full scan : use the MasterTable
+                uuidSet.clear();
+                Cursor<IndexEntry<String, String>> cursor = new IndexCursorAdaptor( db.getMasterTable().cursor(),
+                    true );
 
-                resultSet.add( forwardIndexEntry );
+                while ( cursor.next() )
+                {
+                    IndexEntry<String, String> indexEntry = cursor.get();
+
+                    // Here, the indexEntry contains a <UUID, Entry> tuple. We only keep the UUID
+                    uuidSet.add( indexEntry.getKey() );
+                }
+
+                cursor.close();
             }
         }
+        catch ( Exception e )
+        {
+            // The set won't be read by a cursor
+            uuidSet.close();
+
+            throw e;
+        }
 
         searchResult.setEvaluator( evaluator );
-        searchResult.setResultSet( resultSet );
+        searchResult.setResultSet( new CandidateCursor( uuidSet ) );
 
         return searchResult;
     }
 
 
+    /**
+     * Sets a StreamingCursor as the search result. The StreamingCursor reads the candidates
+     * from the most selective index, or from the master table if no index can be used, and
+     * evaluates the entries itself.
+     */
+    private PartitionSearchResult stream( ExprNode root, Evaluator<? extends ExprNode> evaluator,
+        PartitionSearchResult searchResult ) throws Exception
+    {
+        LOG.debug( "Streaming the results for filter : {}", root );
+
+        searchResult.setEvaluator( new PassThroughEvaluator( db ) );
+        searchResult.setResultSet( cursorBuilder.buildStreamingCursor( root, evaluator ) );
+
+        return searchResult;
+    }
+
+
+    /**
+     * Tells if the search results should be streamed. This is the case when the number of
+     * candidates is above the partition threshold, unless the aliases are dereferenced while
+     * searching : the streaming cursor does not follow them. A full scan (Long.MAX_VALUE
+     * candidates) has as many candidates as there are entries in the partition.
+     */
+    private boolean isStreamed( long count, AliasDerefMode aliasDerefMode ) throws Exception
+    {
+        long threshold = db.getSearchStreamingThreshold();
+
+        if ( ( threshold <= 0 ) || aliasDerefMode.isDerefInSearching() )
+        {
+            return false;
+        }
+
+        if ( count == Long.MAX_VALUE )
+        {
+            return db.count() >= threshold;
+        }
+
+        return count >= threshold;
+    }
+
+
     /**
      * @see SearchEngine#evaluator(ExprNode)
      */
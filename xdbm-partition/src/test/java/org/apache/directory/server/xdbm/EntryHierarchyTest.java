@@ -0,0 +1,149 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link EntryHierarchy} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntryHierarchyTest
+{
+    private static final String CONTEXT_ID = Strings.getUUID( 1L );
+    private static final String PEOPLE_ID = Strings.getUUID( 2L );
+    private static final String GROUPS_ID = Strings.getUUID( 3L );
+    private static final String JOHN_ID = Strings.getUUID( 4L );
+
+    private EntryHierarchy hierarchy;
+
+
+    @Before
+    public void init() throws Exception
+    {
+        hierarchy = new EntryHierarchy( new EntryOrdinalMap() );
+
+        hierarchy.add( CONTEXT_ID, Partition.ROOT_ID, new Rdn[]
+            { new Rdn( "dc=example" ), new Rdn( "dc=com" ) } );
+        hierarchy.add( PEOPLE_ID, CONTEXT_ID, new Rdn[]
+            { new Rdn( "ou=people" ) } );
+        hierarchy.add( GROUPS_ID, CONTEXT_ID, new Rdn[]
+            { new Rdn( "ou=groups" ) } );
+        hierarchy.add( JOHN_ID, PEOPLE_ID, new Rdn[]
+            { new Rdn( "cn=john" ) } );
+    }
+
+
+    @Test
+    public void testDnAndParents() throws Exception
+    {
+        assertEquals( 4, hierarchy.size() );
+        assertArrayEquals( new Rdn[]
+            { new Rdn( "cn=john" ), new Rdn( "ou=people" ), new Rdn( "dc=example" ), new Rdn( "dc=com" ) },
+            hierarchy.getDnRdns( JOHN_ID ) );
+
+        assertEquals( Partition.ROOT_ID, hierarchy.getParentId( CONTEXT_ID ) );
+        assertEquals( PEOPLE_ID, hierarchy.getParentId( JOHN_ID ) );
+        assertEquals( 2, hierarchy.getChildCount( CONTEXT_ID ) );
+        assertEquals( 0, hierarchy.getChildCount( JOHN_ID ) );
+
+        assertTrue( hierarchy.isChildOf( JOHN_ID, PEOPLE_ID ) );
+        assertFalse( hierarchy.isChildOf( JOHN_ID, CONTEXT_ID ) );
+        assertTrue( hierarchy.isDescendantOf( JOHN_ID, CONTEXT_ID ) );
+        assertFalse( hierarchy.isDescendantOf( JOHN_ID, GROUPS_ID ) );
+        assertFalse( hierarchy.isDescendantOf( PEOPLE_ID, PEOPLE_ID ) );
+
+        assertNull( hierarchy.getDnRdns( Strings.getUUID( 5L ) ) );
+        assertEquals( -1, hierarchy.getChildCount( Strings.getUUID( 5L ) ) );
+    }
+
+
+    @Test
+    public void testMoveAndRemove() throws Exception
+    {
+        hierarchy.move( PEOPLE_ID, GROUPS_ID, new Rdn[]
+            { new Rdn( "ou=staff" ) } );
+
+        assertEquals( 1, hierarchy.getChildCount( CONTEXT_ID ) );
+        assertEquals( 1, hierarchy.getChildCount( GROUPS_ID ) );
+        assertEquals( 1, hierarchy.getChildCount( PEOPLE_ID ) );
+
+        // The descendants move with the entry
+        assertTrue( hierarchy.isDescendantOf( JOHN_ID, GROUPS_ID ) );
+        assertEquals( new Rdn( "ou=staff" ), hierarchy.getDnRdns( JOHN_ID )[1] );
+
+        hierarchy.remove( JOHN_ID );
+
+        assertFalse( hierarchy.contains( JOHN_ID ) );
+        assertEquals( 0, hierarchy.getChildCount( PEOPLE_ID ) );
+        assertEquals( 3, hierarchy.size() );
+    }
+
+
+    @Test
+    public void testDescendants() throws Exception
+    {
+        assertEquals( new HashSet<String>( Arrays.asList( PEOPLE_ID, GROUPS_ID, JOHN_ID ) ),
+            new HashSet<String>( hierarchy.getDescendantIds( CONTEXT_ID ) ) );
+        assertEquals( Arrays.asList( JOHN_ID ), hierarchy.getDescendantIds( PEOPLE_ID ) );
+        assertTrue( hierarchy.getDescendantIds( JOHN_ID ).isEmpty() );
+        assertNull( hierarchy.getDescendantIds( Strings.getUUID( 5L ) ) );
+
+        // The children lists follow the moves and the removals
+        hierarchy.move( PEOPLE_ID, GROUPS_ID, new Rdn[]
+            { new Rdn( "ou=staff" ) } );
+
+        assertEquals( Arrays.asList( GROUPS_ID, PEOPLE_ID, JOHN_ID ), hierarchy.getDescendantIds( CONTEXT_ID ) );
+        assertEquals( Arrays.asList( PEOPLE_ID, JOHN_ID ), hierarchy.getDescendantIds( GROUPS_ID ) );
+
+        hierarchy.remove( JOHN_ID );
+
+        assertTrue( hierarchy.getDescendantIds( PEOPLE_ID ).isEmpty() );
+        assertEquals( Arrays.asList( PEOPLE_ID ), hierarchy.getDescendantIds( GROUPS_ID ) );
+    }
+
+
+    @Test
+    public void testInternedRdns() throws Exception
+    {
+        String otherId = Strings.getUUID( 5L );
+        hierarchy.add( otherId, GROUPS_ID, new Rdn[]
+            { new Rdn( "cn=john" ) } );
+
+        assertSame( hierarchy.getDnRdns( JOHN_ID )[0], hierarchy.getDnRdns( otherId )[0] );
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.xdbm.search.CandidateSet;
+import org.apache.directory.server.xdbm.search.cursor.CandidateCursor;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link EntryOrdinalMap} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntryOrdinalMapTest
+{
+    @Test
+    public void testGetOrCreate()
+    {
+        EntryOrdinalMap map = new EntryOrdinalMap();
+        String id1 = Strings.getUUID( 1L );
+        String id2 = UUID.randomUUID().toString();
+
+        assertEquals( -1, map.getOrdinal( id1 ) );
+
+        int ordinal1 = map.getOrCreateOrdinal( id1 );
+        int ordinal2 = map.getOrCreateOrdinal( id2 );
+
+        assertTrue( ordinal1 != ordinal2 );
+        assertEquals( ordinal1, map.getOrCreateOrdinal( id1 ) );
+        assertEquals( ordinal2, map.getOrdinal( id2 ) );
+        assertEquals( id1, map.getId( ordinal1 ) );
+        assertEquals( id2, map.getId( ordinal2 ) );
+        assertEquals( 2, map.size() );
+    }
+
+
+    @Test
+    public void testNonCanonicalIds()
+    {
+        EntryOrdinalMap map = new EntryOrdinalMap();
+        String upperCase = UUID.randomUUID().toString().toUpperCase();
+
+        int ordinal1 = map.getOrCreateOrdinal( upperCase );
+        int ordinal2 = map.getOrCreateOrdinal( "not-an-uuid" );
+
+        assertEquals( upperCase, map.getId( ordinal1 ) );
+        assertEquals( "not-an-uuid", map.getId( ordinal2 ) );
+
+        map.remove( "not-an-uuid" );
+        assertNull( map.getId( ordinal2 ) );
+        assertEquals( -1, map.getOrdinal( "not-an-uuid" ) );
+    }
+
+
+    @Test
+    public void testRemoveAndReuse()
+    {
+        EntryOrdinalMap map = new EntryOrdinalMap();
+        String id1 = UUID.randomUUID().toString();
+        String id2 = UUID.randomUUID().toString();
+
+        int ordinal1 = map.getOrCreateOrdinal( id1 );
+        map.remove( id1 );
+
+        assertEquals( -1, map.getOrdinal( id1 ) );
+        assertNull( map.getId( ordinal1 ) );
+        assertEquals( 0, map.size() );
+
+        // The released ordinal is reused
+        assertEquals( ordinal1, map.getOrCreateOrdinal( id2 ) );
+        assertEquals( id2, map.getId( ordinal1 ) );
+    }
+
+
+    /**
+     * An ordinal released while a reader created before is reachable is not reused
+     */
+    @Test
+    public void testReuseDeferredByReader()
+    {
+        EntryOrdinalMap map = new EntryOrdinalMap();
+        String id1 = UUID.randomUUID().toString();
+        String id2 = UUID.randomUUID().toString();
+        String id3 = UUID.randomUUID().toString();
+
+        int ordinal1 = map.getOrCreateOrdinal( id1 );
+        EntryOrdinalMap.Reader reader = map.newReader();
+        map.remove( id1 );
+
+        int ordinal2 = map.getOrCreateOrdinal( id2 );
+        assertTrue( ordinal1 != ordinal2 );
+        assertNull( map.getId( ordinal1 ) );
+
+        // A reader created after the release does not prevent the reuse
+        map.remove( id2 );
+        EntryOrdinalMap.Reader newReader = map.newReader();
+        map.merge( newReader, reader );
+
+        // The new reader now holds the ordinals of the first one
+        assertTrue( map.getOrCreateOrdinal( id3 ) != ordinal1 );
+        assertNotNull( reader );
+    }
+
+
+    /**
+     * A released reader does not prevent the reuse, even if it is still reachable
+     */
+    @Test
+    public void testReuseAfterReaderRelease()
+    {
+        EntryOrdinalMap map = new EntryOrdinalMap();
+        String id1 = UUID.randomUUID().toString();
+        String id2 = UUID.randomUUID().toString();
+        String id3 = UUID.randomUUID().toString();
+
+        int ordinal1 = map.getOrCreateOrdinal( id1 );
+        EntryOrdinalMap.Reader reader = map.newReader();
+        map.remove( id1 );
+
+        assertTrue( map.getOrCreateOrdinal( id2 ) != ordinal1 );
+
+        map.release( reader );
+
+        // Releasing it twice has no effect
+        map.release( reader );
+
+        assertEquals( ordinal1, map.getOrCreateOrdinal( id3 ) );
+        assertNotNull( reader );
+    }
+
+
+    /**
+     * Closing a CandidateCursor releases the reader of its candidates
+     */
+    @Test
+    public void testReuseAfterCursorClose() throws Exception
+    {
+        EntryOrdinalMap map = new EntryOrdinalMap();
+        String id1 = UUID.randomUUID().toString();
+        String id2 = UUID.randomUUID().toString();
+        String id3 = UUID.randomUUID().toString();
+
+        CandidateSet candidates = new CandidateSet( map );
+        candidates.add( id1 );
+        int ordinal1 = map.getOrdinal( id1 );
+        map.remove( id1 );
+
+        CandidateCursor cursor = new CandidateCursor( candidates );
+        assertTrue( map.getOrCreateOrdinal( id2 ) != ordinal1 );
+
+        cursor.close();
+
+        assertEquals( ordinal1, map.getOrCreateOrdinal( id3 ) );
+    }
+
+
+    /**
+     * A reader created after the release of an ordinal does not prevent its reuse
+     */
+    @Test
+    public void testReuseAfterReader()
+    {
+        EntryOrdinalMap map = new EntryOrdinalMap();
+        String id1 = UUID.randomUUID().toString();
+        String id2 = UUID.randomUUID().toString();
+
+        int ordinal1 = map.getOrCreateOrdinal( id1 );
+        map.remove( id1 );
+        EntryOrdinalMap.Reader reader = map.newReader();
+
+        assertEquals( ordinal1, map.getOrCreateOrdinal( id2 ) );
+        assertNotNull( reader );
+    }
+
+
+    @Test
+    public void testMany()
+    {
+        EntryOrdinalMap map = new EntryOrdinalMap();
+        Set<Integer> ordinals = new HashSet<Integer>();
+
+        for ( long i = 0; i < 50000; i++ )
+        {
+            ordinals.add( map.getOrCreateOrdinal( Strings.getUUID( i ) ) );
+        }
+
+        assertEquals( 50000, ordinals.size() );
+
+        for ( long i = 0; i < 50000; i += 2 )
+        {
+            map.remove( Strings.getUUID( i ) );
+        }
+
+        assertEquals( 25000, map.size() );
+
+        for ( long i = 1; i < 50000; i += 2 )
+        {
+            int ordinal = map.getOrdinal( Strings.getUUID( i ) );
+            assertEquals( Strings.getUUID( i ), map.getId( ordinal ) );
+        }
+    }
+}
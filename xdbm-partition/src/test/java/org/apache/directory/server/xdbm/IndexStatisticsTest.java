@@ -0,0 +1,191 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link IndexStatistics} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IndexStatisticsTest
+{
+    private IndexStatistics statistics;
+
+
+    /**
+     * Adds 10 "aa..." keys with 10 elements each, 5 "ab..." keys with one element
+     * each, and 20 "ba..." keys with 2 elements each.
+     */
+    @Before
+    public void fill()
+    {
+        statistics = new IndexStatistics();
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            for ( int j = 0; j < 10; j++ )
+            {
+                statistics.add( "aa" + i, j == 0 );
+            }
+        }
+
+        for ( int i = 0; i < 5; i++ )
+        {
+            statistics.add( "ab" + i, true );
+        }
+
+        for ( int i = 0; i < 20; i++ )
+        {
+            statistics.add( "ba" + i, true );
+            statistics.add( "ba" + i, false );
+        }
+    }
+
+
+    @Test
+    public void testCounts()
+    {
+        assertEquals( 145L, statistics.getCount() );
+        assertEquals( 35L, statistics.getDistinctCount() );
+    }
+
+
+    @Test
+    public void testEquality()
+    {
+        assertEquals( 10L, statistics.estimateEquality( "aa5" ) );
+        assertEquals( 1L, statistics.estimateEquality( "ab5" ) );
+        assertEquals( 2L, statistics.estimateEquality( "ba5" ) );
+
+        // Unknown prefix : we can't say there is none
+        assertEquals( 1L, statistics.estimateEquality( "zz" ) );
+    }
+
+
+    @Test
+    public void testRanges()
+    {
+        // Half of the "ab" bucket, plus the "ba" bucket
+        assertEquals( 43L, statistics.estimateGreaterOrEqual( "ab" ) );
+
+        // The "aa" bucket, plus half of the "ab" bucket
+        assertEquals( 103L, statistics.estimateLessOrEqual( "ab" ) );
+
+        assertEquals( 1L, statistics.estimateGreaterOrEqual( "zz" ) );
+    }
+
+
+    @Test
+    public void testInitial()
+    {
+        assertEquals( 105L, statistics.estimateInitial( "a" ) );
+        assertEquals( 100L, statistics.estimateInitial( "aa" ) );
+        assertEquals( 40L, statistics.estimateInitial( "ba1" ) );
+    }
+
+
+    /**
+     * The index updates keep the ratio of distinct keys of each bucket
+     */
+    @Test
+    public void testAdd()
+    {
+        long version = statistics.getVersion();
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            statistics.add( "aa" + ( 10 + i ) );
+        }
+
+        statistics.add( "zz" );
+
+        assertTrue( statistics.getVersion() > version );
+        assertEquals( 156L, statistics.getCount() );
+        assertEquals( 10L, statistics.estimateEquality( "aa5" ) );
+        assertEquals( 110L, statistics.estimateInitial( "aa" ) );
+
+        // A new bucket starts with distinct keys
+        assertEquals( 1L, statistics.estimateEquality( "zz" ) );
+    }
+
+
+    @Test
+    public void testDrop()
+    {
+        statistics.drop( "ba0", 1L );
+        statistics.drop( "ba0", 1L );
+
+        for ( int i = 0; i < 5; i++ )
+        {
+            statistics.drop( "ab" + i, 1L );
+        }
+
+        assertEquals( 138L, statistics.getCount() );
+
+        // 35 distinct keys for 145 keys, the ratio is kept
+        assertEquals( 33L, statistics.getDistinctCount() );
+        assertEquals( 2L, statistics.estimateEquality( "ba5" ) );
+        assertEquals( 38L, statistics.estimateInitial( "b" ) );
+        assertEquals( 1L, statistics.estimateInitial( "ab" ) );
+    }
+
+
+    @Test
+    public void testEmpty()
+    {
+        statistics.clear();
+
+        assertEquals( 0L, statistics.getCount() );
+        assertEquals( 0L, statistics.estimateEquality( "aa1" ) );
+        assertEquals( 0L, statistics.estimateGreaterOrEqual( "aa1" ) );
+        assertEquals( 0L, statistics.estimateInitial( "a" ) );
+    }
+
+
+    @Test
+    public void testWriteRead() throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( bytes );
+        statistics.write( out );
+        out.close();
+
+        IndexStatistics read = new IndexStatistics();
+        read.read( new DataInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ) );
+
+        assertEquals( statistics.getCount(), read.getCount() );
+        assertEquals( statistics.getDistinctCount(), read.getDistinctCount() );
+        assertEquals( statistics.estimateInitial( "a" ), read.estimateInitial( "a" ) );
+        assertTrue( read.toString().contains( "buckets=3" ) );
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link OffHeapEntryCache} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class OffHeapEntryCacheTest
+{
+    private static SchemaManager schemaManager;
+
+    private OffHeapEntryCache cache;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = OffHeapEntryCacheTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+    }
+
+
+    @Before
+    public void createCache()
+    {
+        // 64 blocks
+        cache = new OffHeapEntryCache( schemaManager, 64 * OffHeapEntryCache.BLOCK_SIZE );
+    }
+
+
+    /**
+     * @return A UUID, the only IDs the cache stores
+     */
+    private static String id( int number )
+    {
+        return new UUID( 0L, number ).toString();
+    }
+
+
+    private Entry createEntry( String cn ) throws Exception
+    {
+        return new DefaultEntry( schemaManager, "cn=" + cn + ",ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: " + cn,
+            "sn: test" );
+    }
+
+
+    @Test
+    public void testPutGet() throws Exception
+    {
+        cache.put( id( 1 ), createEntry( "one" ) );
+
+        Entry entry = cache.get( id( 1 ) );
+
+        assertNotNull( entry );
+        assertTrue( entry.contains( "cn", "one" ) );
+        assertTrue( entry.contains( "objectClass", "person" ) );
+
+        // The DN is not stored
+        assertTrue( entry.getDn().isEmpty() );
+
+        assertNull( cache.get( id( 2 ) ) );
+        assertEquals( 1L, cache.getHits() );
+        assertEquals( 1L, cache.getMisses() );
+    }
+
+
+    @Test
+    public void testReplaceRemove() throws Exception
+    {
+        // Not cached : not stored
+        cache.replace( id( 1 ), createEntry( "one" ) );
+        assertNull( cache.get( id( 1 ) ) );
+
+        cache.put( id( 1 ), createEntry( "one" ) );
+        cache.replace( id( 1 ), createEntry( "uno" ) );
+        assertTrue( cache.get( id( 1 ) ).contains( "cn", "uno" ) );
+
+        cache.remove( id( 1 ) );
+        assertNull( cache.get( id( 1 ) ) );
+        assertEquals( 0, cache.size() );
+        assertEquals( 0L, cache.getUsedMemory() );
+    }
+
+
+    @Test
+    public void testScanResistance() throws Exception
+    {
+        // A frequently read entry
+        String hot = id( 0 );
+        cache.get( hot );
+        cache.put( hot, createEntry( "hot" ) );
+
+        for ( int i = 0; i < 5; i++ )
+        {
+            assertNotNull( cache.get( hot ) );
+        }
+
+        // A scan reading many entries once, the way fetch() does
+        for ( int i = 1; i <= 1000; i++ )
+        {
+            String id = id( i );
+            assertNull( cache.get( id ) );
+            cache.put( id, createEntry( "scan" + i ) );
+        }
+
+        assertNotNull( cache.get( hot ) );
+        assertTrue( cache.getEvictions() + cache.getRejections() > 0 );
+        assertTrue( cache.getUsedMemory() <= cache.getMaxMemory() );
+    }
+
+
+    @Test
+    public void testClear() throws Exception
+    {
+        for ( int i = 0; i < 10; i++ )
+        {
+            cache.put( id( i ), createEntry( "entry" + i ) );
+        }
+
+        assertEquals( 10, cache.size() );
+
+        cache.clear();
+
+        assertEquals( 0, cache.size() );
+        assertEquals( 0L, cache.getUsedMemory() );
+
+        // The memory can be reused
+        cache.put( id( 1 ), createEntry( "one" ) );
+        assertNotNull( cache.get( id( 1 ) ) );
+    }
+
+
+    @Test
+    public void testNotUuid() throws Exception
+    {
+        // The IDs which are not UUIDs are not cached
+        cache.put( "1", createEntry( "one" ) );
+
+        assertNull( cache.get( "1" ) );
+        assertEquals( 0, cache.size() );
+        assertEquals( 0L, cache.getMisses() );
+    }
+
+
+    @Test
+    public void testPutRemoveMany() throws Exception
+    {
+        // Enough room for all the entries
+        cache = new OffHeapEntryCache( schemaManager, 1024 * OffHeapEntryCache.BLOCK_SIZE );
+        Map<String, String> expected = new HashMap<String, String>();
+        Random random = new Random( 42L );
+
+        // Random puts and removes, with colliding positions in the table of slots
+        for ( int i = 0; i < 2000; i++ )
+        {
+            String id = id( random.nextInt( 200 ) );
+
+            if ( random.nextInt( 3 ) == 0 )
+            {
+                cache.remove( id );
+                expected.remove( id );
+            }
+            else
+            {
+                String cn = "entry" + i;
+                cache.put( id, createEntry( cn ) );
+                expected.put( id, cn );
+            }
+        }
+
+        assertEquals( expected.size(), cache.size() );
+
+        for ( int i = 0; i < 200; i++ )
+        {
+            String id = id( i );
+            Entry entry = cache.get( id );
+
+            if ( expected.containsKey( id ) )
+            {
+                assertTrue( entry.contains( "cn", expected.get( id ) ) );
+            }
+            else
+            {
+                assertNull( entry );
+            }
+        }
+    }
+
+
+    @Test
+    public void testSegments() throws Exception
+    {
+        // A small cache has a single segment
+        assertEquals( 1, cache.getNbSegments() );
+
+        // A larger one is split, and its segments are used concurrently
+        cache = new OffHeapEntryCache( schemaManager, 16L * 1024 * 1024 );
+        assertEquals( 16, cache.getNbSegments() );
+        assertEquals( 16L * 1024 * 1024, cache.getMaxMemory() );
+
+        final int nbEntries = 1000;
+
+        for ( int i = 0; i < nbEntries; i++ )
+        {
+            cache.put( UUID.randomUUID().toString(), createEntry( "entry" + i ) );
+        }
+
+        assertEquals( nbEntries, cache.size() );
+
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+
+        try
+        {
+            Future<?>[] futures = new Future<?>[4];
+
+            for ( int t = 0; t < futures.length; t++ )
+            {
+                final int thread = t;
+
+                futures[t] = executor.submit( new Callable<Void>()
+                {
+                    public Void call() throws Exception
+                    {
+                        for ( int i = 0; i < nbEntries; i++ )
+                        {
+                            String id = id( thread * nbEntries + i );
+                            String cn = "thread" + thread + "-" + i;
+                            cache.put( id, createEntry( cn ) );
+                            assertTrue( cache.get( id ).contains( "cn", cn ) );
+                            cache.remove( id );
+                        }
+
+                        return null;
+                    }
+                } );
+            }
+
+            for ( Future<?> future : futures )
+            {
+                future.get( 60L, TimeUnit.SECONDS );
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        assertEquals( nbEntries, cache.size() );
+    }
+}
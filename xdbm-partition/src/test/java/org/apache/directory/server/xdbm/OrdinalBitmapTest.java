@@ -0,0 +1,242 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link OrdinalBitmap} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class OrdinalBitmapTest
+{
+    /**
+     * Creates a bitmap and the equivalent BitSet with random values
+     */
+    private OrdinalBitmap fill( BitSet expected, Random random, int nbValues, int maxValue )
+    {
+        OrdinalBitmap bitmap = new OrdinalBitmap();
+
+        for ( int i = 0; i < nbValues; i++ )
+        {
+            int value = random.nextInt( maxValue );
+            assertEquals( !expected.get( value ), bitmap.add( value ) );
+            expected.set( value );
+        }
+
+        return bitmap;
+    }
+
+
+    private void check( BitSet expected, OrdinalBitmap bitmap )
+    {
+        assertEquals( expected.cardinality(), bitmap.getCardinality() );
+
+        int value = bitmap.nextValue( 0 );
+
+        for ( int i = expected.nextSetBit( 0 ); i >= 0; i = expected.nextSetBit( i + 1 ) )
+        {
+            assertEquals( i, value );
+            assertTrue( bitmap.contains( i ) );
+            value = bitmap.nextValue( value + 1 );
+        }
+
+        assertEquals( -1, value );
+    }
+
+
+    @Test
+    public void testEmpty()
+    {
+        OrdinalBitmap bitmap = new OrdinalBitmap();
+
+        assertTrue( bitmap.isEmpty() );
+        assertEquals( 0L, bitmap.getCardinality() );
+        assertFalse( bitmap.contains( 0 ) );
+        assertEquals( -1, bitmap.nextValue( 0 ) );
+        assertEquals( -1, bitmap.previousValue( Integer.MAX_VALUE ) );
+    }
+
+
+    @Test
+    public void testAddContains()
+    {
+        OrdinalBitmap bitmap = new OrdinalBitmap();
+
+        assertTrue( bitmap.add( 5 ) );
+        assertTrue( bitmap.add( 70000 ) );
+        assertTrue( bitmap.add( 0 ) );
+        assertFalse( bitmap.add( 5 ) );
+
+        assertEquals( 3L, bitmap.getCardinality() );
+        assertTrue( bitmap.contains( 0 ) );
+        assertTrue( bitmap.contains( 5 ) );
+        assertTrue( bitmap.contains( 70000 ) );
+        assertFalse( bitmap.contains( 6 ) );
+        assertFalse( bitmap.contains( -1 ) );
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddNegative()
+    {
+        new OrdinalBitmap().add( -1 );
+    }
+
+
+    @Test
+    public void testSparseAndDense()
+    {
+        Random random = new Random( 42L );
+
+        // Sparse : only array containers
+        BitSet expected = new BitSet();
+        check( expected, fill( expected, random, 1000, 1000000 ) );
+
+        // Dense : the containers are converted to bitmaps
+        expected = new BitSet();
+        check( expected, fill( expected, random, 100000, 200000 ) );
+    }
+
+
+    @Test
+    public void testNextPrevious()
+    {
+        OrdinalBitmap bitmap = new OrdinalBitmap();
+
+        for ( int i = 0; i < 10000; i += 3 )
+        {
+            bitmap.add( i );
+        }
+
+        bitmap.add( 200000 );
+
+        assertEquals( 3, bitmap.nextValue( 1 ) );
+        assertEquals( 3, bitmap.nextValue( 3 ) );
+        assertEquals( 200000, bitmap.nextValue( 10000 ) );
+        assertEquals( -1, bitmap.nextValue( 200001 ) );
+
+        assertEquals( 0, bitmap.previousValue( 2 ) );
+        assertEquals( 9999, bitmap.previousValue( 199999 ) );
+        assertEquals( 200000, bitmap.previousValue( Integer.MAX_VALUE ) );
+        assertEquals( -1, bitmap.previousValue( -1 ) );
+    }
+
+
+    @Test
+    public void testAndOrAndNot()
+    {
+        Random random = new Random( 1L );
+
+        for ( int nbValues : new int[]
+            { 100, 10000, 100000 } )
+        {
+            BitSet expected1 = new BitSet();
+            BitSet expected2 = new BitSet();
+            OrdinalBitmap bitmap1 = fill( expected1, random, nbValues, 300000 );
+            OrdinalBitmap bitmap2 = fill( expected2, random, nbValues, 300000 );
+
+            // AND
+            OrdinalBitmap and = new OrdinalBitmap();
+            and.or( bitmap1 );
+            and.and( bitmap2 );
+            BitSet expectedAnd = ( BitSet ) expected1.clone();
+            expectedAnd.and( expected2 );
+            check( expectedAnd, and );
+
+            // OR
+            OrdinalBitmap or = new OrdinalBitmap();
+            or.or( bitmap1 );
+            or.or( bitmap2 );
+            BitSet expectedOr = ( BitSet ) expected1.clone();
+            expectedOr.or( expected2 );
+            check( expectedOr, or );
+
+            // AND NOT
+            OrdinalBitmap andNot = new OrdinalBitmap();
+            andNot.or( bitmap1 );
+            andNot.andNot( bitmap2 );
+            BitSet expectedAndNot = ( BitSet ) expected1.clone();
+            expectedAndNot.andNot( expected2 );
+            check( expectedAndNot, andNot );
+
+            // The operands must not have been modified
+            check( expected1, bitmap1 );
+            check( expected2, bitmap2 );
+        }
+    }
+
+
+    /**
+     * The operations between sparse and dense containers, in both orders, and the union
+     * of two sparse containers giving a dense one
+     */
+    @Test
+    public void testMixedDensities()
+    {
+        Random random = new Random( 2L );
+
+        for ( int[] sizes : new int[][]
+            {
+                { 100, 100000, 300000 },
+                { 100000, 100, 300000 },
+                { 3000, 3000, 65536 } } )
+        {
+            BitSet expected1 = new BitSet();
+            BitSet expected2 = new BitSet();
+            OrdinalBitmap bitmap1 = fill( expected1, random, sizes[0], sizes[2] );
+            OrdinalBitmap bitmap2 = fill( expected2, random, sizes[1], sizes[2] );
+
+            OrdinalBitmap and = new OrdinalBitmap();
+            and.or( bitmap1 );
+            and.and( bitmap2 );
+            BitSet expectedAnd = ( BitSet ) expected1.clone();
+            expectedAnd.and( expected2 );
+            check( expectedAnd, and );
+
+            OrdinalBitmap or = new OrdinalBitmap();
+            or.or( bitmap1 );
+            or.or( bitmap2 );
+            BitSet expectedOr = ( BitSet ) expected1.clone();
+            expectedOr.or( expected2 );
+            check( expectedOr, or );
+
+            OrdinalBitmap andNot = new OrdinalBitmap();
+            andNot.or( bitmap1 );
+            andNot.andNot( bitmap2 );
+            BitSet expectedAndNot = ( BitSet ) expected1.clone();
+            expectedAndNot.andNot( expected2 );
+            check( expectedAndNot, andNot );
+
+            check( expected1, bitmap1 );
+            check( expected2, bitmap2 );
+        }
+    }
+}
@@ -20,9 +20,6 @@
 package org.apache.directory.server.xdbm.search.impl;
 
 
-import java.util.HashSet;
-import java.util.Set;
-
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
@@ -38,8 +35,11 @@ import org.apache.directory.server.core.partition.impl.btree.EntryCursorAdaptor;
 import org.apache.directory.server.core.partition.impl.btree.IndexCursorAdaptor;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.search.CandidateSet;
 import org.apache.directory.server.xdbm.search.Evaluator;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
+import org.apache.directory.server.xdbm.search.cursor.CandidateCursor;
+import org.apache.directory.server.xdbm.search.evaluator.PassThroughEvaluator;
 
 
 /**
@@ -69,42 +69,30 @@ public class AbstractCursorTest
         Evaluator<? extends ExprNode> evaluator = evaluatorBuilder.build( root );
 
         PartitionSearchResult searchResult = new PartitionSearchResult( schemaManager );
-        Set<IndexEntry<String, String>> resultSet = new HashSet<IndexEntry<String, String>>();
 
-        Set<String> uuids = new HashSet<String>();
+        CandidateSet uuids = new CandidateSet( store.getEntryOrdinalMap() );
         searchResult.setCandidateSet( uuids );
 
         long candidates = cursorBuilder.build( root, searchResult );
 
-        if ( candidates < Long.MAX_VALUE )
-        {
-            for ( String uuid : uuids )
-            {
-                IndexEntry<String, String> indexEntry = new IndexEntry<String, String>();
-                indexEntry.setId( uuid );
-                resultSet.add( indexEntry );
-            }
-        }
-        else
+        if ( candidates == Long.MAX_VALUE )
         {
             // Full scan : use the MasterTable
+            uuids.clear();
             Cursor<IndexEntry<String, String>> cursor = new IndexCursorAdaptor( store.getMasterTable().cursor(), true );
 
             while ( cursor.next() )
             {
                 IndexEntry<String, String> indexEntry = cursor.get();
 
-                // Here, the indexEntry contains a <UUID, Entry> tuple. Convert it to <UUID, UUID> 
-                IndexEntry<String, String> forwardIndexEntry = new IndexEntry<String, String>();
-                forwardIndexEntry.setKey( indexEntry.getKey() );
-                forwardIndexEntry.setId( indexEntry.getKey() );
-                forwardIndexEntry.setEntry( indexEntry.getEntry() );
-
-                resultSet.add( forwardIndexEntry );
+                // Here, the indexEntry contains a <UUID, Entry> tuple. We only keep the UUID
+                uuids.add( indexEntry.getKey() );
             }
+
+            cursor.close();
         }
 
-        searchResult.setResultSet( resultSet );
+        searchResult.setResultSet( new CandidateCursor( uuids ) );
         searchResult.setEvaluator( evaluator );
 
         // We want all the user attributes plus the entryUUID
@@ -114,4 +102,28 @@ public class AbstractCursorTest
         return new EntryFilteringCursorImpl( new EntryCursorAdaptor( ( AbstractBTreePartition ) store, searchResult ),
             operationContext, directoryService.getSchemaManager() );
     }
+
+
+    /**
+     * Creates a cursor streaming the entries matching a filter
+     * 
+     * @param root The filter we are using for the cursor construction
+     * @return The constructed cursor
+     * @throws Exception If anything went wrong
+     */
+    protected Cursor<Entry> buildStreamingCursor( ExprNode root ) throws Exception
+    {
+        Evaluator<? extends ExprNode> evaluator = evaluatorBuilder.build( root );
+
+        PartitionSearchResult searchResult = new PartitionSearchResult( schemaManager );
+        searchResult.setResultSet( cursorBuilder.buildStreamingCursor( root, evaluator ) );
+        searchResult.setEvaluator( new PassThroughEvaluator( store ) );
+
+        // We want all the user attributes plus the entryUUID
+        SearchOperationContext operationContext = 
+            new SearchOperationContext( session, Dn.ROOT_DSE, SearchScope.ONELEVEL, null, "*", "EntryUUID" );
+
+        return new EntryFilteringCursorImpl( new EntryCursorAdaptor( ( AbstractBTreePartition ) store, searchResult ),
+            operationContext, directoryService.getSchemaManager() );
+    }
 }
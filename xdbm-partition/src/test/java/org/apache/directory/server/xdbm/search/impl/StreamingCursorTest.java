@@ -0,0 +1,478 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.filter.ObjectClassNode;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.MockCoreSession;
+import org.apache.directory.server.core.api.MockDirectoryService;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.apache.directory.server.xdbm.search.PartitionSearchResult;
+import org.apache.directory.server.xdbm.search.SearchEngine;
+import org.apache.directory.server.xdbm.search.cursor.StreamingCursor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * 
+ * Test class for StreamingCursor.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class StreamingCursorTest extends AbstractCursorTest
+{
+    private static final Logger LOG = LoggerFactory.getLogger( StreamingCursorTest.class );
+
+    File wkdir;
+    private static CacheService cacheService;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        // setup the standard registries
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = StreamingCursorTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        loaded = schemaManager.loadWithDeps( "collective" );
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        cacheService = new CacheService();
+        cacheService.initialize( null );
+    }
+
+
+    public StreamingCursorTest() throws Exception
+    {
+    }
+
+
+    @Before
+    public void createStore() throws Exception
+    {
+        directoryService = new MockDirectoryService();
+
+        // setup the working directory for the store
+        wkdir = File.createTempFile( getClass().getSimpleName(), "db" );
+        wkdir.delete();
+        wkdir = new File( wkdir.getParentFile(), getClass().getSimpleName() );
+        wkdir.mkdirs();
+
+        // initialize the store
+        store = new AvlPartition( schemaManager, directoryService.getDnFactory() );
+        ( ( Partition ) store ).setId( "example" );
+        store.setCacheSize( 10 );
+        store.setPartitionPath( wkdir.toURI() );
+        store.setSyncOnWrite( false );
+
+        store.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        store.addIndex( new AvlIndex<String>( SchemaConstants.CN_AT_OID ) );
+        ( ( Partition ) store ).setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        ( ( Partition ) store ).setCacheService( cacheService );
+        ( ( Partition ) store ).initialize();
+
+        StoreUtils.loadExampleData( store, schemaManager );
+
+        evaluatorBuilder = new EvaluatorBuilder( store, schemaManager );
+        cursorBuilder = new CursorBuilder( store, evaluatorBuilder );
+        directoryService.setSchemaManager( schemaManager );
+        session = new MockCoreSession( new LdapPrincipal(), directoryService );
+
+        LOG.debug( "Created new store" );
+    }
+
+
+    @After
+    public void destroyStore() throws Exception
+    {
+        if ( store != null )
+        {
+            ( ( Partition ) store ).destroy();
+        }
+
+        store = null;
+        if ( wkdir != null )
+        {
+            FileUtils.deleteDirectory( wkdir );
+        }
+
+        wkdir = null;
+    }
+
+
+    @Test
+    public void testStreamingCursorWithSubstringDriver() throws Exception
+    {
+        ExprNode exprNode = FilterParser.parse( schemaManager, "(&(cn=J*)(sn=*))" );
+        new DefaultOptimizer<Entry>( store ).annotate( exprNode );
+
+        Set<String> expectedUuid = new HashSet<String>();
+        expectedUuid.add( Strings.getUUID( 5 ) );
+        expectedUuid.add( Strings.getUUID( 6 ) );
+        expectedUuid.add( Strings.getUUID( 8 ) );
+
+        Cursor<Entry> cursor = buildStreamingCursor( exprNode );
+
+        assertEquals( expectedUuid, new HashSet<String>( getUuids( cursor ) ) );
+
+        cursor.close();
+        assertTrue( cursor.isClosed() );
+    }
+
+
+    @Test
+    public void testStreamingCursorSameResultsAsCandidateSet() throws Exception
+    {
+        String[] filters =
+            {
+                "(cn=J*)",
+                "(ou=Sales)",
+                "(sn=*)",
+                "(!(cn=J*))",
+                "(|(ou=Sales)(cn=J*))",
+                "(&(ou=Sales)(!(cn=JOhnny WAlkeR)))",
+                "(&(postalCode=1)(cn=J*))"
+        };
+
+        for ( String filter : filters )
+        {
+            ExprNode exprNode = FilterParser.parse( schemaManager, filter );
+            new DefaultOptimizer<Entry>( store ).annotate( exprNode );
+
+            Cursor<Entry> cursor = buildCursor( exprNode );
+            Set<String> expectedUuid = new HashSet<String>( getUuids( cursor ) );
+            cursor.close();
+
+            cursor = buildStreamingCursor( exprNode );
+            List<String> uuids = getUuids( cursor );
+            cursor.close();
+
+            assertEquals( filter, expectedUuid.size(), uuids.size() );
+            assertEquals( filter, expectedUuid, new HashSet<String>( uuids ) );
+        }
+    }
+
+
+    @Test
+    public void testStreamingCursorMoveBack() throws Exception
+    {
+        ExprNode exprNode = FilterParser.parse( schemaManager, "(cn=J*)" );
+        new DefaultOptimizer<Entry>( store ).annotate( exprNode );
+
+        Cursor<Entry> cursor = buildCursor( exprNode );
+        List<String> expected = getUuids( cursor );
+        cursor.close();
+
+        cursor = buildStreamingCursor( exprNode );
+
+        assertTrue( cursor.next() );
+        String first = cursor.get().get( "entryUUID" ).getString();
+        assertTrue( cursor.next() );
+        String second = cursor.get().get( "entryUUID" ).getString();
+
+        // Step back, as the search handlers do
+        assertTrue( cursor.previous() );
+        assertEquals( first, cursor.get().get( "entryUUID" ).getString() );
+        assertFalse( cursor.previous() );
+        assertFalse( cursor.available() );
+
+        assertTrue( cursor.next() );
+        assertEquals( first, cursor.get().get( "entryUUID" ).getString() );
+        assertTrue( cursor.next() );
+        assertEquals( second, cursor.get().get( "entryUUID" ).getString() );
+
+        // Move back to the beginning, and read all the entries again
+        cursor.beforeFirst();
+        List<String> uuids = getUuids( cursor );
+        assertEquals( expected.size(), uuids.size() );
+        assertEquals( first, uuids.get( 0 ) );
+        assertEquals( second, uuids.get( 1 ) );
+
+        try
+        {
+            cursor.afterLast();
+            fail( "should fail with CursorException" );
+        }
+        catch ( CursorException ce )
+        {
+        }
+
+        cursor.close();
+        assertTrue( cursor.isClosed() );
+    }
+
+
+    @Test
+    public void testStreamingCursorMaterializedBeforeWrite() throws Exception
+    {
+        ExprNode exprNode = FilterParser.parse( schemaManager, "(cn=J*)" );
+        new DefaultOptimizer<Entry>( store ).annotate( exprNode );
+
+        Cursor<Entry> cursor = buildCursor( exprNode );
+        Set<String> expectedUuid = new HashSet<String>( getUuids( cursor ) );
+        cursor.close();
+
+        cursor = buildStreamingCursor( exprNode );
+        assertTrue( cursor.next() );
+        expectedUuid.remove( cursor.get().get( "entryUUID" ).getString() );
+
+        // Delete an entry not returned yet : the remaining candidates are read first
+        String deleted = expectedUuid.iterator().next();
+        store.delete( deleted );
+        expectedUuid.remove( deleted );
+
+        assertEquals( expectedUuid, new HashSet<String>( getUuids( cursor ) ) );
+
+        cursor.close();
+    }
+
+
+    @Test
+    public void testStreamingCursorMaterializedByItsIndexOnly() throws Exception
+    {
+        ExprNode exprNode = FilterParser.parse( schemaManager, "(cn=J*)" );
+        new DefaultOptimizer<Entry>( store ).annotate( exprNode );
+
+        StreamingCursor cursor = cursorBuilder.buildStreamingCursor( exprNode, evaluatorBuilder.build( exprNode ) );
+        assertEquals( schemaManager.getAttributeType( SchemaConstants.CN_AT ), cursor.getDrivingAttributeType() );
+        assertTrue( cursor.next() );
+
+        Dn dn = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." );
+
+        // The cn index is not modified
+        store.modify( dn, new DefaultModification( ModificationOperation.ADD_ATTRIBUTE,
+            schemaManager.getAttributeType( "telephoneNumber" ), "+1974045779" ) );
+        store.modify( dn, new DefaultModification( ModificationOperation.ADD_ATTRIBUTE,
+            schemaManager.getAttributeType( SchemaConstants.OU_AT ), "Marketing" ) );
+        assertFalse( cursor.isMaterialized() );
+
+        // But it is by this one
+        store.modify( dn, new DefaultModification( ModificationOperation.ADD_ATTRIBUTE,
+            schemaManager.getAttributeType( SchemaConstants.CN_AT ), "Johnny" ) );
+        assertTrue( cursor.isMaterialized() );
+
+        cursor.close();
+
+        // A cursor reading all the entries is materialized by any write
+        exprNode = FilterParser.parse( schemaManager, "(sn=*)" );
+        new DefaultOptimizer<Entry>( store ).annotate( exprNode );
+
+        cursor = cursorBuilder.buildStreamingCursor( exprNode, evaluatorBuilder.build( exprNode ) );
+        assertNull( cursor.getDrivingAttributeType() );
+        assertTrue( cursor.next() );
+
+        store.modify( dn, new DefaultModification( ModificationOperation.REMOVE_ATTRIBUTE,
+            schemaManager.getAttributeType( "telephoneNumber" ) ) );
+        assertTrue( cursor.isMaterialized() );
+
+        cursor.close();
+    }
+
+
+    private List<String> getUuids( Cursor<Entry> cursor ) throws Exception
+    {
+        List<String> uuids = new ArrayList<String>();
+
+        while ( cursor.next() )
+        {
+            uuids.add( cursor.get().get( "entryUUID" ).getString() );
+        }
+
+        return uuids;
+    }
+
+
+    /**
+     * Gets the IDs of the entries of a search result, and closes it
+     */
+    private Set<String> getIds( PartitionSearchResult searchResult ) throws Exception
+    {
+        Set<String> ids = new HashSet<String>();
+        Cursor<IndexEntry<String, String>> cursor = searchResult.getResultSet();
+
+        while ( cursor.next() )
+        {
+            IndexEntry<String, String> indexEntry = cursor.get();
+
+            if ( searchResult.getEvaluator().evaluate( indexEntry ) )
+            {
+                ids.add( indexEntry.getId() );
+            }
+        }
+
+        searchResult.close();
+
+        return ids;
+    }
+
+
+    /**
+     * The searches which can't use an index are streamed from the master table, instead
+     * of copying the master table in a candidate set, when the partition is above the threshold
+     */
+    @Test
+    public void testSearchEngineStreamsFullScans() throws Exception
+    {
+        // The (objectClass=*) filter is normalized into an ObjectClassNode by the server
+        ExprNode[] filters =
+            {
+                FilterParser.parse( schemaManager, "(postalCode=1)" ),
+                ObjectClassNode.OBJECT_CLASS_NODE
+        };
+
+        // Without optimizer, no filter has a count annotation
+        SearchEngine[] searchEngines =
+            {
+                ( ( AbstractBTreePartition ) store ).getSearchEngine(),
+                new DefaultSearchEngine( store, cursorBuilder, evaluatorBuilder, new NoOpOptimizer() )
+        };
+
+        Dn suffixDn = new Dn( schemaManager, "o=Good Times Co." );
+
+        for ( SearchEngine searchEngine : searchEngines )
+        {
+            for ( ExprNode filter : filters )
+            {
+                checkFullScan( searchEngine, suffixDn, filter );
+            }
+        }
+    }
+
+
+    /**
+     * Checks that a full scan is streamed only above the threshold, with the same results
+     */
+    private void checkFullScan( SearchEngine searchEngine, Dn suffixDn, ExprNode filter ) throws Exception
+    {
+        SearchOperationContext searchContext = new SearchOperationContext( session, suffixDn,
+            SearchScope.SUBTREE, filter, "*" );
+        searchContext.setAliasDerefMode( AliasDerefMode.NEVER_DEREF_ALIASES );
+
+        // Streaming disabled
+        store.setSearchStreamingThreshold( 0L );
+        PartitionSearchResult searchResult = searchEngine.computeResult( schemaManager, searchContext );
+        assertFalse( filter.toString(), searchResult.getResultSet() instanceof StreamingCursor );
+        Set<String> expectedIds = getIds( searchResult );
+
+        // Above the threshold
+        store.setSearchStreamingThreshold( store.count() );
+        searchResult = searchEngine.computeResult( schemaManager, searchContext );
+        assertTrue( filter.toString(), searchResult.getResultSet() instanceof StreamingCursor );
+        assertEquals( filter.toString(), expectedIds, getIds( searchResult ) );
+
+        // Below the threshold
+        store.setSearchStreamingThreshold( store.count() + 1 );
+        searchResult = searchEngine.computeResult( schemaManager, searchContext );
+        assertFalse( filter.toString(), searchResult.getResultSet() instanceof StreamingCursor );
+        assertEquals( filter.toString(), expectedIds, getIds( searchResult ) );
+    }
+
+
+    /**
+     * A search using an index is only streamed above the threshold
+     */
+    @Test
+    public void testSearchEngineStreamsAboveThreshold() throws Exception
+    {
+        SearchEngine searchEngine = ( ( AbstractBTreePartition ) store ).getSearchEngine();
+        SearchOperationContext searchContext = new SearchOperationContext( session,
+            new Dn( schemaManager, "o=Good Times Co." ), SearchScope.SUBTREE,
+            FilterParser.parse( schemaManager, "(cn=J*)" ), "*" );
+        searchContext.setAliasDerefMode( AliasDerefMode.NEVER_DEREF_ALIASES );
+
+        store.setSearchStreamingThreshold( 1L );
+        PartitionSearchResult searchResult = searchEngine.computeResult( schemaManager, searchContext );
+        assertTrue( searchResult.getResultSet() instanceof StreamingCursor );
+        Set<String> ids = getIds( searchResult );
+        assertFalse( ids.isEmpty() );
+
+        store.setSearchStreamingThreshold( store.count() );
+        searchResult = searchEngine.computeResult( schemaManager, searchContext );
+        assertFalse( searchResult.getResultSet() instanceof StreamingCursor );
+        assertEquals( ids, getIds( searchResult ) );
+    }
+}